@@ -1,17 +1,24 @@
 package sunshine_dental_care.api.admin;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import lombok.RequiredArgsConstructor;
+import sunshine_dental_care.dto.adminDTO.CohortRetentionDto;
 import sunshine_dental_care.dto.adminDTO.RevenueReportDto;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
+import sunshine_dental_care.services.impl.admin.PatientVisitSummaryService;
 import sunshine_dental_care.services.interfaces.admin.AdminReportService;
 
 @RestController
@@ -21,6 +28,8 @@ import sunshine_dental_care.services.interfaces.admin.AdminReportService;
 public class AdminReportController {
 
     private final AdminReportService adminReportService;
+    private final RevenueFactService revenueFactService;
+    private final PatientVisitSummaryService patientVisitSummaryService;
 
  
     @GetMapping("/revenue")
@@ -33,4 +42,35 @@ public class AdminReportController {
         RevenueReportDto report = adminReportService.getRevenueReport(startDate, endDate, currency);
         return ResponseEntity.ok(report);
     }
+
+    // Tính lại bảng doanh thu theo ngày (sau khi sửa dữ liệu hóa đơn trực tiếp trên DB), tối đa 366 ngày/lần
+    @PostMapping("/revenue-facts/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRevenueFacts(
+            @RequestParam("startDate") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam("endDate") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        if (startDate.isAfter(endDate)) {
+            return ResponseEntity.badRequest().body(Map.of("message", "startDate must not be after endDate"));
+        }
+        int rows = revenueFactService.rebuild(startDate, endDate);
+        return ResponseEntity.ok(Map.of("startDate", startDate, "endDate", endDate, "rows", rows));
+    }
+
+    // Cohort theo tháng khám đầu tiên: mỗi cohort có tỷ lệ quay lại ở từng tháng sau đó (fromMonth/toMonth dạng yyyy-MM, tối đa 36 tháng)
+    @GetMapping("/patient-cohorts")
+    public ResponseEntity<?> getPatientCohortRetention(
+            @RequestParam(value = "fromMonth", required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth fromMonth,
+            @RequestParam(value = "toMonth", required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth toMonth) {
+        if (fromMonth != null && toMonth != null && fromMonth.isAfter(toMonth)) {
+            return ResponseEntity.badRequest().body(Map.of("message", "fromMonth must not be after toMonth"));
+        }
+        List<CohortRetentionDto> cohorts = adminReportService.getPatientCohortRetention(fromMonth, toMonth);
+        return ResponseEntity.ok(cohorts);
+    }
+
+    // Dựng lại bảng tóm tắt lượt khám của bệnh nhân (sau khi sửa dữ liệu lịch hẹn trực tiếp trên DB)
+    @PostMapping("/patient-visits/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildPatientVisitSummaries() {
+        int patients = patientVisitSummaryService.rebuildAll();
+        return ResponseEntity.ok(Map.of("patients", patients));
+    }
 }
@@ -1,5 +1,6 @@
 package sunshine_dental_care.api.doctor;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
@@ -9,10 +10,15 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import sunshine_dental_care.dto.doctorDTO.DoctorAppointmentDTO;
 import sunshine_dental_care.dto.hrDTO.DoctorScheduleDto;
+import sunshine_dental_care.entities.MedicalRecord;
 import sunshine_dental_care.security.CurrentUser;
 import sunshine_dental_care.services.doctor.DoctorAppointmentService;
+import sunshine_dental_care.services.doctor.PatientMedicalRecordService;
 import sunshine_dental_care.services.interfaces.hr.HrService;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
@@ -30,6 +36,8 @@ public class DoctorController {
     @Autowired
     private final HrService hrService;
 
+    private final PatientMedicalRecordService patientMedicalRecordService;
+
     @GetMapping("/appointments/{id}")
     public ResponseEntity<List<DoctorAppointmentDTO>> getAppointmentsByDoctorId(@PathVariable Integer id) {
         List<DoctorAppointmentDTO> appointments = doctorAppointmentService.findByDoctorId(id);
@@ -119,4 +127,17 @@ public class DoctorController {
         return ResponseEntity.ok(schedules);
     }
 
+    // Export các hồ sơ bệnh án bác sĩ lập trong 1 ngày: ?format=pdf (1 file gộp, mặc định) | zip
+    @GetMapping("/{doctorId}/records/export")
+    public void exportDayRecords(
+            @PathVariable Integer doctorId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false, defaultValue = "pdf") String format,
+            HttpServletResponse response) throws IOException {
+        ExportFormat exportFormat = ExportFormat.from(format, ExportFormat.PDF, ExportFormat.PDF, ExportFormat.ZIP);
+        List<MedicalRecord> records = patientMedicalRecordService.findDoctorDayRecordsForExport(doctorId, date);
+        OutputStream out = exportFormat.prepare(response, "medical-records-doctor-" + doctorId + "-" + date);
+        patientMedicalRecordService.writeRecords(records, exportFormat, out);
+    }
+
 }
@@ -1,10 +1,10 @@
 package sunshine_dental_care.api.doctor;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -18,9 +18,12 @@ import org.springframework.web.multipart.MultipartFile;
 import sunshine_dental_care.dto.doctorDTO.MedicalRecordDTO;
 import sunshine_dental_care.dto.doctorDTO.MedicalRecordImageDTO;
 import sunshine_dental_care.dto.doctorDTO.MedicalRecordRequest;
+import sunshine_dental_care.entities.MedicalRecord;
 import sunshine_dental_care.services.doctor.PatientMedicalRecordService;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 @RestController
@@ -73,6 +76,34 @@ public class PatientMedicalRecordController {
         );
     }
 
+    // Upload nhiều ảnh 1 lần (vd: 10-30 ảnh chụp trong miệng mỗi lần khám), field "files" lặp lại.
+    // descriptions / aiTags (không bắt buộc): nếu gửi thì lặp lại đúng 1 field cho mỗi file, theo thứ tự file
+    // (field rỗng = không có). Đọc giá trị thô từ MultiValueMap: bind vào List<String> / String[] thì Spring
+    // tách 1 giá trị duy nhất theo dấu phẩy ("Răng 36, mặt nhai" -> 2 phần tử)
+    @PostMapping("/{recordId}/images/batch")
+    public ResponseEntity<List<MedicalRecordImageDTO>> uploadRecordImages(
+            @PathVariable Integer patientId,
+            @PathVariable Integer recordId,
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam MultiValueMap<String, String> params
+    ) {
+        List<String> descriptions = perFileValues(params, "descriptions", files.size());
+        List<String> aiTags = perFileValues(params, "aiTags", files.size());
+        return ResponseEntity.ok(
+            patientMedicalRecordService.uploadImages(patientId, recordId, files, descriptions, aiTags)
+        );
+    }
+
+    private static List<String> perFileValues(MultiValueMap<String, String> params, String name, int fileCount) {
+        List<String> values = params.get(name);
+        if (values == null) return null;
+        if (values.size() != fileCount) {
+            throw new IllegalArgumentException("Expected one '" + name + "' field per file (" + fileCount
+                    + "), got " + values.size());
+        }
+        return values;
+    }
+
     // Xóa một ảnh trong hồ sơ bệnh án của bệnh nhân
     @DeleteMapping("/{recordId}/images/{imageId}")
     public ResponseEntity<Void> deleteRecordImage(
@@ -86,25 +117,29 @@ public class PatientMedicalRecordController {
         return ResponseEntity.noContent().build();
     }
 
-    // Export medical record as PDF
+    // Export medical record as PDF (ghi thẳng ra response)
     @GetMapping("/{recordId}/export-pdf")
-    public ResponseEntity<byte[]> exportPdf(
+    public void exportPdf(
             @PathVariable Integer patientId,
-            @PathVariable Integer recordId
+            @PathVariable Integer recordId,
+            HttpServletResponse response
     ) throws IOException {
-        // Generate PDF
-        byte[] pdfBytes = patientMedicalRecordService
-                .exportRecordToPDF(patientId, recordId);
-        
-        // Set response headers
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_PDF);
-        headers.setContentDispositionFormData("attachment", "medical-record-" + recordId + ".pdf");
-        headers.setContentLength(pdfBytes.length);
-        
-        return ResponseEntity.ok()
-                .headers(headers)
-                .body(pdfBytes);
+        // Không tìm thấy hồ sơ -> lỗi JSON, chưa đặt header tải file
+        MedicalRecord record = patientMedicalRecordService.findRecordForExport(patientId, recordId);
+        OutputStream out = ExportFormat.PDF.prepare(response, "medical-record-" + recordId);
+        patientMedicalRecordService.writeRecordPdf(record, out);
     }
-}
 
+    // Export toàn bộ lịch sử khám của bệnh nhân: ?format=pdf (1 file gộp, mặc định) | zip (mỗi hồ sơ 1 file)
+    @GetMapping("/export")
+    public void exportAllRecords(
+            @PathVariable Integer patientId,
+            @RequestParam(required = false, defaultValue = "pdf") String format,
+            HttpServletResponse response
+    ) throws IOException {
+        ExportFormat exportFormat = ExportFormat.from(format, ExportFormat.PDF, ExportFormat.PDF, ExportFormat.ZIP);
+        List<MedicalRecord> records = patientMedicalRecordService.findPatientRecordsForExport(patientId);
+        OutputStream out = exportFormat.prepare(response, "medical-records-patient-" + patientId);
+        patientMedicalRecordService.writeRecords(records, exportFormat, out);
+    }
+}
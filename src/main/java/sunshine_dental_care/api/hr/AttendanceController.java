@@ -1,5 +1,7 @@
 package sunshine_dental_care.api.hr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.util.Map;
 
@@ -17,6 +19,7 @@ import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -33,6 +36,7 @@ import sunshine_dental_care.dto.hrDTO.MonthlySummaryResponse;
 import sunshine_dental_care.security.CurrentUser;
 import sunshine_dental_care.services.interfaces.hr.AttendanceService;
 import sunshine_dental_care.services.interfaces.hr.FaceRecognitionService;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 @RestController
 @RequestMapping("/api/hr/attendance")
@@ -291,6 +295,29 @@ public class AttendanceController {
         return ResponseEntity.ok(items);
     }
 
+    // Xuất danh sách attendance theo tháng ra Excel / CSV (toàn bộ, không phân trang)
+    @GetMapping("/monthly-list/export")
+    @org.springframework.security.access.prepost.PreAuthorize("hasAnyRole('HR', 'ACCOUNTANT')")
+    public void exportMonthlyAttendanceList(
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) Integer month,
+            @RequestParam(required = false) Integer departmentId,
+            @RequestParam(required = false) Integer clinicId,
+            @RequestParam(required = false, defaultValue = "xlsx") String format,
+            HttpServletResponse response) throws IOException {
+
+        if (year == null) {
+            year = LocalDate.now().getYear();
+        }
+        if (month == null) {
+            month = LocalDate.now().getMonthValue();
+        }
+
+        ExportFormat exportFormat = ExportFormat.from(format);
+        OutputStream out = exportFormat.prepare(response, "Attendance_" + month + "_" + year);
+        attendanceService.exportMonthlyAttendanceList(year, month, departmentId, clinicId, exportFormat, out);
+    }
+
     // Nhân viên lấy danh sách attendance cần giải trình
     @GetMapping("/explanations/needing")
     @org.springframework.security.access.prepost.PreAuthorize("hasAnyRole('DOCTOR', 'HR', 'RECEPTION', 'ACCOUNTANT')")
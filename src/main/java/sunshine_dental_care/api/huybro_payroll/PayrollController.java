@@ -1,19 +1,19 @@
 package sunshine_dental_care.api.huybro_payroll;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.data.domain.Page;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import sunshine_dental_care.dto.huybro_payroll.*;
 import sunshine_dental_care.entities.User;
 import sunshine_dental_care.repositories.huybro_custom.UserCustomRepository;
 import sunshine_dental_care.services.huybro_payroll.interfaces.PayrollService;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.List;
@@ -119,18 +119,14 @@ public class PayrollController {
         return ResponseEntity.ok(payrollService.getMissingConfigs());
     }
     @GetMapping("/export")
-    public ResponseEntity<InputStreamResource> exportPayroll(
+    public void exportPayroll(
             @RequestParam Integer month,
-            @RequestParam Integer year
-    ) {
-        ByteArrayInputStream stream = payrollService.exportMonthlyPayroll(month, year);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("Content-Disposition", "attachment; filename=Payroll_" + month + "_" + year + ".xlsx");
-
-        return ResponseEntity.ok()
-                .headers(headers)
-                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                .body(new InputStreamResource(stream));
+            @RequestParam Integer year,
+            @RequestParam(required = false, defaultValue = "xlsx") String format,
+            HttpServletResponse response
+    ) throws IOException {
+        ExportFormat exportFormat = ExportFormat.from(format);
+        OutputStream out = exportFormat.prepare(response, "Payroll_" + month + "_" + year);
+        payrollService.exportMonthlyPayroll(month, year, exportFormat, out);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package sunshine_dental_care.api.huybro_products;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,10 +9,12 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import sunshine_dental_care.config.huybro_config.StaticResourceConfig;
 import sunshine_dental_care.dto.huybro_products.*;
@@ -22,14 +25,16 @@ import sunshine_dental_care.services.huybro_products.gemini.services.product_ima
 import sunshine_dental_care.services.huybro_products.gemini.services.product_image.moderation_vision.GeminiProductImageService;
 import sunshine_dental_care.services.huybro_products.gemini.services.product_image.moderation_vision.GeminiProductImageServiceImpl;
 import sunshine_dental_care.services.huybro_products.interfaces.ProductService;
-import sunshine_dental_care.utils.huybro_utils.image.ImageCacheUtil;
+import sunshine_dental_care.services.huybro_products.impl.ProductImageVariantService;
 import sunshine_dental_care.utils.huybro_utils.image.ImageUploadUtil;
-import java.io.File;
+import sunshine_dental_care.utils.huybro_utils.image.ImageVariant;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 @RestController
@@ -38,14 +43,21 @@ public class ProductController {
 
     private static final Logger log = LoggerFactory.getLogger(ProductController.class);
 
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
 
     private final ProductService productService;
     private final StaticResourceConfig staticResourceConfig;
     private final GeminiProductImageService geminiProductImageService;
     private final GeminiProductImageValidationService validationService;
+    private final ProductImageVariantService imageVariantService;
 
-    public ProductController(ProductService productService, StaticResourceConfig staticResourceConfig, GeminiProductImageValidationService validationService, GeminiProductImageServiceImpl geminiProductImageService) {
+    public ProductController(ProductService productService, StaticResourceConfig staticResourceConfig, GeminiProductImageValidationService validationService, GeminiProductImageServiceImpl geminiProductImageService, ProductImageVariantService imageVariantService) {
         this.productService = productService;
+        this.imageVariantService = imageVariantService;
         this.staticResourceConfig = staticResourceConfig;
         this.validationService = validationService;
         this.geminiProductImageService = geminiProductImageService;
@@ -72,21 +84,45 @@ public class ProductController {
     }
 
     // Hiển thị hình ảnh đã resize
-    // [CẬP NHẬT] resize 1000x1000 lấy hình ảnh
+    // variant: thumb | card | detail (mặc định detail = 1000x1000 như trước)
+    // File đã resize không đổi theo tên nên cho browser/CDN cache lâu dài, request lại thì trả 304
     @GetMapping("/images/{fileName}")
-    public ResponseEntity<?> getResized(@PathVariable String fileName) {
+    public ResponseEntity<?> getResized(
+            @PathVariable String fileName,
+            @RequestParam(required = false) String variant,
+            WebRequest webRequest,
+            HttpServletRequest request
+    ) {
+        ProductImageVariantService.VariantFile image;
         try {
-            log.info("Tệp yêu cầu: {}", fileName);
-
-            File cached = ImageCacheUtil.getOrCreateResized(staticResourceConfig.getOriginalDir(), fileName, staticResourceConfig.getCacheDir(), 1000, 1000, "jpg");
-
-            return ResponseEntity.ok()
-                    .contentType(MediaType.IMAGE_JPEG)
-                    .body(new FileSystemResource(cached));
+            image = imageVariantService.resolve(fileName, ImageVariant.from(variant));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             log.warn("Không thể trả ảnh đã resize cho '{}'. Lý do: {}", fileName, e.getMessage());
             return ResponseEntity.notFound().build();
         }
+
+        if (webRequest.checkNotModified(image.etag(), image.lastModified())) {
+            return null;
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable())
+                .eTag(image.etag())
+                .lastModified(image.lastModified())
+                .contentLength(image.length());
+
+        // Tomcat hỗ trợ sendfile: kernel copy thẳng file ra socket, không đi qua buffer của JVM
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))
+                && "GET".equals(request.getMethod())) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, image.file().getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTR, 0L);
+            request.setAttribute(SENDFILE_END_ATTR, image.length());
+            return response.build();
+        }
+        return response.body(new FileSystemResource(image.file()));
     }
 
     // Phân trang cho danh sách sản phâm role public
@@ -136,6 +172,26 @@ public class ProductController {
         );
     }
 
+    // Facet cho bộ lọc trang shop (số sản phẩm theo brand / type / khoảng giá), cùng tham số filter với /page
+    // GET /api/products/facets
+    @GetMapping("/facets")
+    public ProductFacetsDto facets(
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) List<String> brand,
+            @RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice,
+            @RequestParam(required = false, name = "type") List<String> types
+    ) {
+        ProductFilterDto filter = new ProductFilterDto();
+        filter.setKeyword(keyword);
+        filter.setBrands(brand);
+        filter.setMinPrice(minPrice);
+        filter.setMaxPrice(maxPrice);
+        filter.setActive(true);
+        filter.setTypes(types);
+        return productService.facets(filter);
+    }
+
     //role: accountant
 
     // GET /api/products/accountant
@@ -231,6 +287,9 @@ public class ProductController {
                     staticResourceConfig.getOriginalDir()
             );
 
+            // Sinh sẵn thumb / card / detail để lần xem đầu tiên không phải chờ resize
+            imageVariantService.pregenerate(Paths.get(imagePath).getFileName().toString());
+
             ProductImageCreateDto dto = new ProductImageCreateDto();
             dto.setImageUrl(imagePath);
             dto.setImageOrder(imageOrder);
@@ -1,17 +1,17 @@
 package sunshine_dental_care.api.huybro_products;
 
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.format.annotation.DateTimeFormat;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import sunshine_dental_care.dto.huybro_reports.RevenueReportResponseDto;
 import sunshine_dental_care.services.huybro_reports.interfaces.IRevenueReportService;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 
 @Slf4j
@@ -39,29 +39,23 @@ public class RevenueReportController {
     }
 
     /**
-     * API 2: Xuất báo cáo ra Excel
-     * URL: GET /api/reports/revenue/export?startDate=...&endDate=...&currency=...
+     * API 2: Xuất báo cáo ra Excel / CSV
+     * URL: GET /api/reports/revenue/export?startDate=...&endDate=...&currency=...&format=xlsx|csv
      */
     @GetMapping("/revenue/export")
-    public ResponseEntity<InputStreamResource> exportRevenueReport(
+    public void exportRevenueReport(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
-            @RequestParam(required = false, defaultValue = "VND") String currency
-    ) {
-        log.info("Request Export Excel: start={}, end={}, currency={}", startDate, endDate, currency);
-
-        ByteArrayInputStream in = revenueReportService.exportToExcel(startDate, endDate, currency);
-
-        // Tạo tên file dynamic theo ngày
-        String fileName = String.format("revenue_report_%s.xlsx", LocalDate.now());
+            @RequestParam(required = false, defaultValue = "VND") String currency,
+            @RequestParam(required = false, defaultValue = "xlsx") String format,
+            HttpServletResponse response
+    ) throws IOException {
+        log.info("Request Export: start={}, end={}, currency={}, format={}", startDate, endDate, currency, format);
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("Content-Disposition", "attachment; filename=" + fileName);
+        ExportFormat exportFormat = ExportFormat.from(format);
 
-        return ResponseEntity
-                .ok()
-                .headers(headers)
-                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                .body(new InputStreamResource(in));
+        // Tạo tên file dynamic theo ngày, ghi thẳng ra response
+        OutputStream out = exportFormat.prepare(response, "revenue_report_" + LocalDate.now());
+        revenueReportService.exportRevenueReport(startDate, endDate, currency, exportFormat, out);
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@ import java.time.Instant;
 import org.springframework.data.domain.Page;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -20,7 +21,9 @@ import sunshine_dental_care.dto.notificationDTO.NotificationRequest;
 import sunshine_dental_care.dto.notificationDTO.NotificationResponse;
 import sunshine_dental_care.dto.notificationDTO.NotificationStatistics;
 import sunshine_dental_care.security.CurrentUser;
+import sunshine_dental_care.services.impl.notification.FCMService;
 import sunshine_dental_care.services.impl.notification.NotificationService;
+import sunshine_dental_care.services.scheduler.AppointmentReminderDispatcher;
 
 @RestController
 @RequestMapping("/api/notifications")
@@ -28,6 +31,22 @@ import sunshine_dental_care.services.impl.notification.NotificationService;
 public class NotificationController {
 
     private final NotificationService notificationService;
+    private final FCMService fcmService;
+    private final AppointmentReminderDispatcher reminderDispatcher;
+
+    // Số liệu gửi push FCM từ lúc khởi động (multicast, thành công / thất bại, token chết đã xoá, số lần bị giới hạn tốc độ)
+    @GetMapping("/push-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<FCMService.DeliveryStats> getPushStats() {
+        return ResponseEntity.ok(fcmService.getStats());
+    }
+
+    // Số liệu nhắc lịch hẹn từ lúc khởi động (số lần chạy, email / thông báo thành công / thất bại, số lịch đã đánh dấu)
+    @GetMapping("/reminder-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<AppointmentReminderDispatcher.ReminderStats> getReminderStats() {
+        return ResponseEntity.ok(reminderDispatcher.getStats());
+    }
 
     @PostMapping("/device")
     public ResponseEntity<Void> registerDevice(
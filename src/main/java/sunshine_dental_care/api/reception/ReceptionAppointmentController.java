@@ -28,9 +28,13 @@ import sunshine_dental_care.dto.receptionDTO.BillInvoiceDTO;
 import sunshine_dental_care.dto.receptionDTO.PatientHistoryDTO;
 import sunshine_dental_care.dto.receptionDTO.PatientRequest;
 import sunshine_dental_care.dto.receptionDTO.PatientResponse;
+import sunshine_dental_care.dto.receptionDTO.ReceptionDashboardSnapshot;
 import sunshine_dental_care.dto.receptionDTO.RescheduleRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanResponse;
 import sunshine_dental_care.security.CurrentUser;
 import sunshine_dental_care.services.interfaces.reception.ReceptionService;
+import sunshine_dental_care.services.interfaces.reception.TreatmentPlanService;
 
 @RestController
 @RequestMapping("/api/reception")
@@ -39,6 +43,7 @@ import sunshine_dental_care.services.interfaces.reception.ReceptionService;
 public class ReceptionAppointmentController {
 
     private final ReceptionService receptionService;
+    private final TreatmentPlanService treatmentPlanService;
 
     /**
      * API: Lấy lịch làm việc của Bác sĩ theo ngày, có thể tùy chọn Clinic ID (cho chức năng đổi cơ sở).
@@ -81,6 +86,21 @@ public class ReceptionAppointmentController {
         return ResponseEntity.ok(appointments);
     }
 
+    /**
+     * API: Snapshot màn hình lễ tân (lịch hẹn + lịch bác sĩ) kèm version.
+     * Sau đó client subscribe topic trong response để nhận delta; thấy version bị nhảy thì gọi lại API này.
+     * GET /api/reception/dashboard/snapshot?date=2025-11-24&clinicId=1
+     */
+    @GetMapping("/dashboard/snapshot")
+    public ResponseEntity<ReceptionDashboardSnapshot> getDashboardSnapshot(
+            @RequestParam(value = "date", required = true)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(value = "clinicId", required = false) Integer clinicId,
+            @AuthenticationPrincipal CurrentUser currentUser) {
+
+        return ResponseEntity.ok(receptionService.getDashboardSnapshot(currentUser, date, clinicId));
+    }
+
     @PostMapping("/appointments")
     public ResponseEntity<AppointmentResponse> createAppointment(
             @Valid @RequestBody AppointmentRequest request,
@@ -95,6 +115,20 @@ public class ReceptionAppointmentController {
         return ResponseEntity.status(201).body(response);
     }
 
+    /**
+     * API: Đặt liệu trình nhiều buổi (VD: niềng răng 12 buổi, mỗi 4 tuần) trong 1 lần gọi.
+     * Buổi bị trùng lịch được dời sang giờ gần nhất còn trống trong ca bác sĩ.
+     * POST /api/reception/treatment-plans
+     */
+    @PostMapping("/treatment-plans")
+    public ResponseEntity<TreatmentPlanResponse> bookTreatmentPlan(
+            @Valid @RequestBody TreatmentPlanRequest request,
+            @AuthenticationPrincipal CurrentUser currentUser) {
+
+        TreatmentPlanResponse response = treatmentPlanService.bookTreatmentPlan(currentUser, request);
+        return ResponseEntity.status(201).body(response);
+    }
+
     /**
      * API DỜI LỊCH (Reschedule) - Dùng cho tính năng Drag & Drop
      * PATCH /api/reception/appointments/{id}/reschedule
@@ -1,21 +1,29 @@
 package sunshine_dental_care.api.reception;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import sunshine_dental_care.dto.receptionDTO.RoomAllocationResult;
+import sunshine_dental_care.security.CurrentUser;
+import sunshine_dental_care.services.impl.reception.RoomAllocationService;
 import sunshine_dental_care.services.impl.reception.RoomService;
 
 import java.time.Instant;
+import java.time.LocalDate;
 
 @RestController
 @RequestMapping("/api/reception/rooms")
 @RequiredArgsConstructor
 public class RoomController {
     private final RoomService roomService;
+    private final RoomAllocationService roomAllocationService;
 
     /**
      * API: Lấy danh sách phòng TRỐNG (Available)
@@ -48,4 +56,19 @@ public class RoomController {
     public ResponseEntity<?> getAllRooms(@RequestParam Integer clinicId) {
         return ResponseEntity.ok(roomService.getAllActiveRoomsByClinic(clinicId));
     }
+
+    /**
+     * API: Tự động xếp phòng cho cả ngày của 1 cơ sở
+     * URL: POST /api/reception/rooms/plan-day?clinicId=1&date=2025-11-24&reset=false
+     * reset=false: giữ các phòng đã xếp, chỉ xếp lịch chưa có phòng (chạy lại sau khi có thay đổi muộn)
+     */
+    @PostMapping("/plan-day")
+    @PreAuthorize("hasAnyRole('RECEPTION', 'ADMIN')")
+    public ResponseEntity<RoomAllocationResult> planDay(
+            @RequestParam Integer clinicId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(defaultValue = "false") boolean reset,
+            @AuthenticationPrincipal CurrentUser currentUser) {
+        return ResponseEntity.ok(roomAllocationService.planDay(currentUser, clinicId, date, reset));
+    }
 }
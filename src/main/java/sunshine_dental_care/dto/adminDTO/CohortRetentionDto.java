@@ -0,0 +1,21 @@
+package sunshine_dental_care.dto.adminDTO;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CohortRetentionDto {
+    private LocalDate cohortMonth; // Ngày 1 của tháng khám đầu tiên
+    private Long cohortSize;
+    // Phần tử k = số bệnh nhân của cohort có khám ở tháng thứ k sau tháng đầu (k = 0 là chính tháng đầu)
+    private List<Long> retainedPatients;
+    private List<Double> retentionRates; // % so với cohortSize
+}
@@ -16,6 +16,7 @@ import java.time.Instant;
 public class MedicalRecordImageDTO {
     private Integer imageId;
     private String imageUrl;
+    private String thumbnailUrl;
     private String description;
     private String aiTag;
     private String imagePublicId;
@@ -11,7 +11,7 @@ public class CartViewDto {
 
     private List<CartItemDto> items;  // danh sách sản phẩm trong giỏ
     private CartTotalsDto totals;     // tổng tiền toàn giỏ
-    private String invoiceCode;       // mã "preview" để FE hiển thị trước nếu không thành công thì không lưu mã ( -> sẽ được gọi lại khi gọi phương thức Invoice lưu hóa đơn thành công or thất bại thì không cần gọi lại )
+    private String invoiceCode;       // mã hóa đơn đã cấp cho giỏ (cấp lúc bắt đầu thanh toán / đặt hàng), chưa cấp -> null
     private String currency;
     private BigDecimal exchangeRateToVnd;
 }
@@ -14,6 +14,8 @@ public class ProductInventoryStatusDto {
     private String productName;
     private String sku;
     private Integer totalQuantity;
+    private Integer reservedQuantity;  // Đang được giữ trong giỏ hàng
+    private Integer availableQuantity; // totalQuantity - reservedQuantity
     private List<ClinicInventoryDto> breakdown;
 
     @Data
@@ -23,5 +25,7 @@ public class ProductInventoryStatusDto {
         private Integer clinicId;
         private String clinicName;
         private Integer quantity;
+        private Integer reserved;
+        private Integer available;
     }
 }
\ No newline at end of file
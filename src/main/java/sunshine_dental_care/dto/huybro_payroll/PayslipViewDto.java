@@ -56,4 +56,9 @@ public class PayslipViewDto {
 
     private String note;
     private Instant createdAt;
+
+    // --- Freshness ---
+    private Instant calculatedAt;
+    private Boolean stale;     // true: đang chờ tính lại do chấm công vừa thay đổi
+    private Instant staleSince;
 }
\ No newline at end of file
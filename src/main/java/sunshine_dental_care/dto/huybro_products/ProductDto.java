@@ -28,4 +28,5 @@ public class ProductDto {
     private List<ProductPurchaseHistoryDto> recentPurchases;
     private List<ProductDto> relatedProducts;
     private BigDecimal originalPrice;
+    private Integer availableQuantity; // Tồn kho trừ phần đang được giữ trong giỏ hàng
 }
@@ -0,0 +1,24 @@
+package sunshine_dental_care.dto.huybro_products;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class ProductFacetsDto {
+    private long totalElements;
+    // Số sản phẩm theo từng brand / type (tính với mọi filter trừ chính chiều đó)
+    private Map<String, Integer> brands;
+    private Map<String, Integer> types;
+    private List<PriceBand> priceBands;
+    private int inStock;
+
+    @Data
+    public static class PriceBand {
+        private BigDecimal min;
+        private BigDecimal max; // null = không giới hạn trên
+        private int count;
+    }
+}
@@ -0,0 +1,20 @@
+package sunshine_dental_care.dto.huybro_reports;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// 1 dòng tổng hợp từ DailyProductSalesFacts (theo sản phẩm)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductSalesFactRowDto {
+    private String productName;
+    private String sku;
+    private Long quantity;
+    private BigDecimal lineTotalAmount; // Theo loại tiền gốc
+    private BigDecimal lineTotalUsd;
+    private BigDecimal lineTotalVnd;
+}
@@ -0,0 +1,22 @@
+package sunshine_dental_care.dto.huybro_reports;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// 1 dòng tổng hợp từ DailyRevenueFacts (theo ngày + trạng thái)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RevenueFactRowDto {
+    private LocalDate date;
+    private String invoiceStatus;
+    private String paymentStatus;
+    private Long orderCount;
+    private BigDecimal totalAmount; // Theo loại tiền gốc
+    private BigDecimal totalUsd;
+    private BigDecimal totalVnd;
+}
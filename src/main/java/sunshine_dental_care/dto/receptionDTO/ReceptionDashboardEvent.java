@@ -0,0 +1,31 @@
+package sunshine_dental_care.dto.receptionDTO;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import sunshine_dental_care.dto.hrDTO.DoctorScheduleDto;
+
+/**
+ * Delta gửi qua topic /topic/reception/clinics/{clinicId}.
+ * Client so sánh version với version đang giữ: nếu version != last + 1 (hoặc epoch khác) thì tải lại snapshot.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReceptionDashboardEvent {
+    private Integer clinicId;
+    private long epoch;               // Thời điểm khởi động server, đổi khi restart -> client phải resync
+    private long version;             // Tăng dần theo từng clinic
+    private String type;              // CREATED, RESCHEDULED, STATUS_CHANGED, ROOM_ASSIGNED, PAID, SCHEDULE_CHANGED, MOVED_OUT
+    private LocalDate date;           // Ngày làm việc bị ảnh hưởng (giờ VN)
+    private Integer appointmentId;
+    private AppointmentResponse appointment;    // Trạng thái mới nhất của lịch hẹn (upsert theo id)
+    private List<DoctorScheduleDto> schedules;  // Toàn bộ lịch bác sĩ của ngày date (chỉ với SCHEDULE_CHANGED)
+    private Instant occurredAt;
+}
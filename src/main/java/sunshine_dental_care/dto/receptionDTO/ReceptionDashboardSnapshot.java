@@ -0,0 +1,27 @@
+package sunshine_dental_care.dto.receptionDTO;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import sunshine_dental_care.dto.hrDTO.DoctorScheduleDto;
+
+/**
+ * Dữ liệu ban đầu của màn hình lễ tân; sau đó client chỉ áp dụng các delta có version > version của snapshot.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReceptionDashboardSnapshot {
+    private Integer clinicId;
+    private LocalDate date;
+    private long epoch;
+    private long version;
+    private String topic;
+    private List<AppointmentResponse> appointments;
+    private List<DoctorScheduleDto> schedules;
+}
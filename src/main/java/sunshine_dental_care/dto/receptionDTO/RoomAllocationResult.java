@@ -0,0 +1,41 @@
+package sunshine_dental_care.dto.receptionDTO;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class RoomAllocationResult {
+    private Integer clinicId;
+    private LocalDate date;
+    private int totalAppointments;   // Số lịch hẹn cần phòng trong ngày
+    private int keptCount;           // Lịch đã có phòng từ trước (giữ nguyên)
+    private int assignedCount;       // Lịch vừa được xếp phòng trong lần chạy này
+    private long planningMillis;     // Thời gian chạy thuật toán (không tính load/lưu DB)
+
+    private List<Assignment> assignments;
+    private List<Unassigned> unassigned;
+
+    @Data
+    @Builder
+    public static class Assignment {
+        private Integer appointmentId;
+        private Integer roomId;
+        private String roomName;
+        private Instant startDateTime;
+        private Instant endDateTime;
+    }
+
+    @Data
+    @Builder
+    public static class Unassigned {
+        private Integer appointmentId;
+        private Instant startDateTime;
+        private Instant endDateTime;
+        private String reason;
+    }
+}
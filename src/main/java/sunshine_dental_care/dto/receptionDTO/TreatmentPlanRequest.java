@@ -0,0 +1,52 @@
+package sunshine_dental_care.dto.receptionDTO;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+// Đặt cả liệu trình nhiều buổi (niềng răng, implant...): VD mỗi 4 tuần x 12 buổi
+@Data
+public class TreatmentPlanRequest {
+    @NotNull(message = "Clinic ID is required")
+    private Integer clinicId;
+
+    @NotNull(message = "Patient ID is required")
+    private Integer patientId;
+
+    @NotNull(message = "Doctor ID is required")
+    private Integer doctorId;
+
+    private Integer roomId;
+
+    @NotNull(message = "First visit start time is required")
+    private Instant firstStartDateTime;
+
+    @Min(value = 1, message = "Interval must be at least 1 week")
+    private Integer intervalWeeks = 4;
+
+    @Min(value = 1, message = "Plan must have at least 1 visit")
+    @Max(value = 52, message = "Plan can have at most 52 visits")
+    private Integer visits = 12;
+
+    // Số ngày tối đa được dời mỗi buổi (trước/sau) khi buổi đó bị trùng lịch
+    @Min(0)
+    @Max(14)
+    private Integer maxShiftDays = 7;
+
+    @Valid
+    @NotEmpty(message = "At least one service is required")
+    private List<ServiceItemRequest> services;
+
+    private String status;          // Mặc định SCHEDULED (lễ tân đặt)
+    private String channel;
+    private String note;
+    private String appointmentType; // "VIP" hoặc "STANDARD"
+    private BigDecimal bookingFee;
+}
@@ -0,0 +1,33 @@
+package sunshine_dental_care.dto.receptionDTO;
+
+import java.time.Instant;
+import java.util.List;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class TreatmentPlanResponse {
+    private Integer patientId;
+    private Integer doctorId;
+    private Integer clinicId;
+    private int requestedVisits;
+    private int bookedVisits;
+    private int rescheduledVisits;   // Số buổi phải dời sang thời điểm khác do trùng lịch
+
+    private List<Visit> visits;      // Các buổi đã đặt (theo thứ tự)
+    private List<Visit> unbooked;    // Các buổi không tìm được giờ thay thế
+
+    @Data
+    @Builder
+    public static class Visit {
+        private int index;                 // Buổi thứ mấy (bắt đầu từ 1)
+        private Integer appointmentId;
+        private Instant requestedStartDateTime;
+        private Instant startDateTime;     // Giờ thực tế đã đặt (khác requested nếu bị dời)
+        private Instant endDateTime;
+        private boolean rescheduled;
+        private String reason;
+    }
+}
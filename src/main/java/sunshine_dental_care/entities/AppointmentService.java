@@ -3,11 +3,13 @@ package sunshine_dental_care.entities;
 import jakarta.persistence.*;
 import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.Nationalized;
+import sunshine_dental_care.services.doctor.PatientContextEvictionListener;
 
 import java.math.BigDecimal;
 
 @Entity
 @Table(name = "AppointmentServices")
+@EntityListeners(PatientContextEvictionListener.class)
 public class AppointmentService {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
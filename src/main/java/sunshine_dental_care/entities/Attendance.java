@@ -9,6 +9,7 @@ import org.hibernate.annotations.Nationalized;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -16,6 +17,7 @@ import jakarta.persistence.PrePersist;
 import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
+import sunshine_dental_care.services.huybro_payroll.impl.AttendancePayrollListener;
 
 @Entity
 @Table(name = "Attendance", uniqueConstraints = {
@@ -26,6 +28,8 @@ import jakarta.persistence.UniqueConstraint;
     @UniqueConstraint(name = "UK_ATTENDANCE_USER_CLINIC_DATE_SHIFT", 
                      columnNames = {"userId", "clinicId", "workDate", "shiftType"})
 })
+// Chấm công đổi -> phiếu lương của kỳ tương ứng được tính lại (xem StalePayslipTracker)
+@EntityListeners(AttendancePayrollListener.class)
 public class Attendance {
 
     @Id
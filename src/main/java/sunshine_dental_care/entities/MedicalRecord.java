@@ -5,6 +5,7 @@ import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.Nationalized;
+import sunshine_dental_care.services.doctor.PatientContextEvictionListener;
 
 import java.time.Instant;
 import java.time.LocalDate;
@@ -13,6 +14,7 @@ import java.util.Set;
 
 @Entity
 @Table(name = "MedicalRecords")
+@EntityListeners(PatientContextEvictionListener.class)
 @Getter
 @Setter
 public class MedicalRecord {
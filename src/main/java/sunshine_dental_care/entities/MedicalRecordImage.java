@@ -37,6 +37,14 @@ public class MedicalRecordImage {
     @Column(name = "createdAt", nullable = false)
     private Instant createdAt;
 
+    // Ảnh thu nhỏ sinh lúc upload (xem nhanh danh sách ảnh, không phải tải ảnh gốc)
+    @Nationalized
+    @Column(name = "thumbnailUrl", length = 500)
+    private String thumbnailUrl;
+
+    @Column(name = "thumbnailPublicId", length = 255)
+    private String thumbnailPublicId;
+
     public Integer getId() {
         return id;
     }
@@ -94,4 +102,20 @@ public class MedicalRecordImage {
         this.createdAt = createdAt;
     }
 
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public String getThumbnailPublicId() {
+        return thumbnailPublicId;
+    }
+
+    public void setThumbnailPublicId(String thumbnailPublicId) {
+        this.thumbnailPublicId = thumbnailPublicId;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package sunshine_dental_care.entities;
+
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.Setter;
+
+// Bệnh nhân có ít nhất 1 lượt khám trong tháng (giờ VN); nguồn cho retention và cohort theo tháng
+@Getter
+@Setter
+@Entity
+@Table(name = "PatientMonthlyVisits",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"patientId", "visitMonth"}),
+        indexes = @Index(name = "IX_PatientMonthlyVisits_visitMonth", columnList = "visitMonth"))
+public class PatientMonthlyVisit {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(name = "patientId", nullable = false)
+    private Integer patientId;
+
+    // Ngày 1 của tháng
+    @Column(name = "visitMonth", nullable = false)
+    private LocalDate visitMonth;
+
+    @Column(name = "visitCount", nullable = false)
+    private Integer visitCount;
+}
@@ -0,0 +1,46 @@
+package sunshine_dental_care.entities;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+// Tóm tắt lượt khám của 1 bệnh nhân (lượt khám = lịch hẹn COMPLETED; lịch hẹn PAID chỉ cộng vào lifetimeValue),
+// do PatientVisitSummaryService duy trì
+@Getter
+@Setter
+@Entity
+@Table(name = "PatientVisitSummaries", indexes = @Index(name = "IX_PatientVisitSummaries_firstVisitMonth",
+        columnList = "firstVisitMonth"))
+public class PatientVisitSummary {
+    @Id
+    @Column(name = "patientId", nullable = false)
+    private Integer patientId;
+
+    @Column(name = "firstVisitAt", nullable = false)
+    private Instant firstVisitAt;
+
+    @Column(name = "lastVisitAt", nullable = false)
+    private Instant lastVisitAt;
+
+    // Ngày 1 của tháng khám đầu tiên (giờ VN) = cohort của bệnh nhân
+    @Column(name = "firstVisitMonth", nullable = false)
+    private LocalDate firstVisitMonth;
+
+    @Column(name = "visitCount", nullable = false)
+    private Integer visitCount;
+
+    // Tổng totalAmount của các lịch hẹn đã thanh toán
+    @Column(name = "lifetimeValue", precision = 18, scale = 2, nullable = false)
+    private BigDecimal lifetimeValue;
+
+    @Column(name = "updatedAt", nullable = false)
+    private Instant updatedAt;
+}
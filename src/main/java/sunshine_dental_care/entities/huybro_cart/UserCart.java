@@ -0,0 +1,36 @@
+package sunshine_dental_care.entities.huybro_cart;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.Nationalized;
+
+import java.time.Instant;
+
+// Giỏ hàng của user đã đăng nhập (items lưu dạng JSON), version tăng mỗi lần ghi
+@Getter
+@Setter
+@Entity
+@Table(name = "UserCarts")
+public class UserCart {
+    @Id
+    @Column(name = "userId", nullable = false)
+    private Integer userId;
+
+    @Nationalized
+    @Lob
+    @Column(name = "itemsJson", nullable = false)
+    private String itemsJson;
+
+    @Column(name = "invoiceCode", length = 50)
+    private String invoiceCode;
+
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    @ColumnDefault("sysutcdatetime()")
+    @Column(name = "updatedAt", nullable = false)
+    private Instant updatedAt;
+}
@@ -0,0 +1,59 @@
+package sunshine_dental_care.entities.huybro_reports;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.Nationalized;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Số lượng / doanh thu từng sản phẩm theo ngày, cùng khóa với DailyRevenueFact
+@Getter
+@Setter
+@Entity
+@Table(name = "DailyProductSalesFacts")
+public class DailyProductSalesFact {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "factId", nullable = false)
+    private Long id;
+
+    @Column(name = "factDate", nullable = false)
+    private LocalDate factDate;
+
+    @Column(name = "clinicId")
+    private Integer clinicId;
+
+    @Column(name = "invoiceStatus", nullable = false, length = 50)
+    private String invoiceStatus;
+
+    @Column(name = "paymentStatus", length = 50)
+    private String paymentStatus;
+
+    @Column(name = "currency", length = 10)
+    private String currency;
+
+    @Column(name = "productId")
+    private Integer productId;
+
+    @Nationalized
+    @Column(name = "productName", length = 200)
+    private String productName;
+
+    @Nationalized
+    @Column(name = "sku", length = 64)
+    private String sku;
+
+    @Column(name = "quantity", nullable = false)
+    private Integer quantity;
+
+    @Column(name = "lineTotalAmount", precision = 18, scale = 2, nullable = false)
+    private BigDecimal lineTotalAmount;
+
+    @Column(name = "lineTotalUsd", precision = 18, scale = 2, nullable = false)
+    private BigDecimal lineTotalUsd;
+
+    @Column(name = "lineTotalVnd", precision = 18, scale = 2, nullable = false)
+    private BigDecimal lineTotalVnd;
+}
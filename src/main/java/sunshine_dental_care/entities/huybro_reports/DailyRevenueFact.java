@@ -0,0 +1,56 @@
+package sunshine_dental_care.entities.huybro_reports;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Doanh thu hóa đơn bán hàng gộp theo ngày (createdAt) + clinic + trạng thái + loại tiền
+@Getter
+@Setter
+@Entity
+@Table(name = "DailyRevenueFacts", uniqueConstraints = @UniqueConstraint(
+        columnNames = {"factDate", "clinicId", "invoiceStatus", "paymentStatus", "currency"}))
+public class DailyRevenueFact {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "factId", nullable = false)
+    private Long id;
+
+    @Column(name = "factDate", nullable = false)
+    private LocalDate factDate;
+
+    @Column(name = "clinicId")
+    private Integer clinicId;
+
+    @Column(name = "invoiceStatus", nullable = false, length = 50)
+    private String invoiceStatus;
+
+    @Column(name = "paymentStatus", length = 50)
+    private String paymentStatus;
+
+    @Column(name = "currency", length = 10)
+    private String currency;
+
+    @Column(name = "orderCount", nullable = false)
+    private Integer orderCount;
+
+    // Tổng theo loại tiền gốc của hóa đơn
+    @Column(name = "totalAmount", precision = 18, scale = 2, nullable = false)
+    private BigDecimal totalAmount;
+
+    // Đã quy đổi theo exchangeRate của từng hóa đơn
+    @Column(name = "totalUsd", precision = 18, scale = 2, nullable = false)
+    private BigDecimal totalUsd;
+
+    @Column(name = "totalVnd", precision = 18, scale = 2, nullable = false)
+    private BigDecimal totalVnd;
+
+    @ColumnDefault("sysutcdatetime()")
+    @Column(name = "updatedAt", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -114,6 +114,14 @@ public class PayslipsSnapshot {
     @Column(name = "created_at")
     private Instant createdAt;
 
+    // Lần tính gần nhất (tính tay hoặc tự tính lại)
+    @Column(name = "calculated_at")
+    private Instant calculatedAt;
+
+    // Khác null: chấm công của nhân viên trong kỳ đã đổi sau lần tính gần nhất (thời điểm đổi cuối cùng)
+    @Column(name = "stale_at")
+    private Instant staleAt;
+
     @PrePersist
     protected void onCreate() {
         if (createdAt == null) createdAt = Instant.now();
@@ -1,6 +1,7 @@
 package sunshine_dental_care.repositories;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
@@ -94,4 +95,18 @@ public interface NotificationRepository extends JpaRepository<Log, Integer> {
         @Param("relatedEntityType") String relatedEntityType,
         @Param("relatedEntityId") Integer relatedEntityId
     );
+
+    // Bản gộp của countByUserIdAndTypeAndEntityToday: những user trong danh sách đã nhận notification này hôm nay
+    @Query(value = "SELECT DISTINCT userId FROM Logs WHERE userId IN (:userIds) " +
+           "AND type = :type " +
+           "AND relatedEntityType = :relatedEntityType " +
+           "AND relatedEntityId = :relatedEntityId " +
+           "AND CAST(createdAt AS DATE) = CAST(GETDATE() AS DATE)",
+           nativeQuery = true)
+    List<Integer> findUserIdsNotifiedToday(
+        @Param("userIds") Collection<Integer> userIds,
+        @Param("type") String type,
+        @Param("relatedEntityType") String relatedEntityType,
+        @Param("relatedEntityId") Integer relatedEntityId
+    );
 }
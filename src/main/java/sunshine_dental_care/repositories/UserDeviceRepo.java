@@ -1,10 +1,15 @@
 package sunshine_dental_care.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import sunshine_dental_care.entities.UserDevice;
 
@@ -12,7 +17,16 @@ import sunshine_dental_care.entities.UserDevice;
 public interface UserDeviceRepo extends JpaRepository<UserDevice, Integer> {
     List<UserDevice> findByUserId(Integer userId);
 
+    // Thiết bị của nhiều user trong 1 query (gửi thông báo hàng loạt)
+    List<UserDevice> findByUserIdIn(Collection<Integer> userIds);
+
     Optional<UserDevice> findByUserIdAndFcmToken(Integer userId, String fcmToken);
 
     void deleteByFcmToken(String fcmToken);
+
+    // Xoá theo lô các thiết bị có token FCM đã chết (gọi với <= 500 token để không vượt giới hạn tham số)
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM UserDevice d WHERE d.fcmToken IN :tokens")
+    int deleteByFcmTokenIn(@Param("tokens") Collection<String> tokens);
 }
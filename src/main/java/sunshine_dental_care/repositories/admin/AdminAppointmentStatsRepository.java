@@ -0,0 +1,75 @@
+package sunshine_dental_care.repositories.admin;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+import sunshine_dental_care.entities.Appointment;
+
+@org.springframework.stereotype.Repository
+public interface AdminAppointmentStatsRepository extends Repository<Appointment, Integer> {
+
+    // Số lịch hẹn theo trạng thái trong khoảng thời gian (GROUP BY thay cho tải cả danh sách)
+    @Query("""
+            SELECT a.status AS status, COUNT(a) AS total
+            FROM Appointment a
+            WHERE a.startDateTime >= :start AND a.startDateTime < :end
+            GROUP BY a.status
+            """)
+    List<StatusCountView> countByStatusBetween(
+            @Param("start") Instant start,
+            @Param("end") Instant end);
+
+    // Các cặp (kênh, bệnh nhân) khác nhau trong khoảng, để đếm bệnh nhân unique theo nguồn
+    @Query("""
+            SELECT DISTINCT a.channel AS channel, a.patient.id AS patientId
+            FROM Appointment a
+            WHERE a.startDateTime >= :start AND a.startDateTime < :end
+              AND a.patient IS NOT NULL
+            """)
+    List<PatientChannelView> findPatientChannelsBetween(
+            @Param("start") Instant start,
+            @Param("end") Instant end);
+
+    // Nguồn cho PatientVisitSummaries: lịch hẹn đã khám xong hoặc đã thanh toán của 1 nhóm bệnh nhân
+    @Query("""
+            SELECT a.patient.id AS patientId, a.startDateTime AS startDateTime, a.status AS status,
+                   a.paymentStatus AS paymentStatus, a.totalAmount AS totalAmount
+            FROM Appointment a
+            WHERE a.patient.id IN :patientIds
+              AND (a.status = 'COMPLETED' OR a.paymentStatus = 'PAID')
+            """)
+    List<PatientVisitView> findVisitsByPatientIds(@Param("patientIds") Collection<Integer> patientIds);
+
+    // Duyệt id bệnh nhân đã từng khám theo keyset (dựng lại toàn bộ bảng tóm tắt)
+    @Query("""
+            SELECT DISTINCT a.patient.id FROM Appointment a
+            WHERE a.status = 'COMPLETED' AND a.patient.id > :afterId
+            ORDER BY a.patient.id
+            """)
+    List<Integer> findVisitedPatientIdsAfter(@Param("afterId") Integer afterId, Pageable pageable);
+
+    interface StatusCountView {
+        String getStatus();
+        Long getTotal();
+    }
+
+    interface PatientChannelView {
+        String getChannel();
+        Integer getPatientId();
+    }
+
+    interface PatientVisitView {
+        Integer getPatientId();
+        Instant getStartDateTime();
+        String getStatus();
+        String getPaymentStatus();
+        BigDecimal getTotalAmount();
+    }
+}
@@ -0,0 +1,66 @@
+package sunshine_dental_care.repositories.admin;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import sunshine_dental_care.entities.PatientVisitSummary;
+
+@org.springframework.stereotype.Repository
+public interface PatientVisitSummaryRepository extends JpaRepository<PatientVisitSummary, Integer> {
+
+    // Bệnh nhân có lượt khám trong tháng và số đã từng khám từ các tháng trước (1 query theo index visitMonth)
+    @Query("""
+            SELECT COUNT(m) AS patients,
+                   COALESCE(SUM(CASE WHEN s.firstVisitMonth < :month THEN 1 ELSE 0 END), 0) AS returningPatients
+            FROM PatientMonthlyVisit m
+            JOIN PatientVisitSummary s ON s.patientId = m.patientId
+            WHERE m.visitMonth = :month
+            """)
+    MonthRetentionView summarizeMonth(@Param("month") LocalDate month);
+
+    // Ma trận cohort: số bệnh nhân của cohort (tháng khám đầu) quay lại trong từng tháng
+    @Query("""
+            SELECT s.firstVisitMonth AS cohortMonth, m.visitMonth AS visitMonth, COUNT(m) AS patients
+            FROM PatientMonthlyVisit m
+            JOIN PatientVisitSummary s ON s.patientId = m.patientId
+            WHERE s.firstVisitMonth >= :fromMonth AND s.firstVisitMonth <= :toMonth
+            GROUP BY s.firstVisitMonth, m.visitMonth
+            """)
+    List<CohortCellView> findCohortCells(
+            @Param("fromMonth") LocalDate fromMonth,
+            @Param("toMonth") LocalDate toMonth);
+
+    @Modifying
+    @Query("DELETE FROM PatientVisitSummary s WHERE s.patientId IN :patientIds")
+    int deleteByPatientIds(@Param("patientIds") Collection<Integer> patientIds);
+
+    @Modifying
+    @Query("DELETE FROM PatientMonthlyVisit m WHERE m.patientId IN :patientIds")
+    int deleteMonthlyVisitsByPatientIds(@Param("patientIds") Collection<Integer> patientIds);
+
+    // rebuildAll: xóa cả khoảng id (afterId, upToId] để bỏ dòng của bệnh nhân không còn lượt khám
+    @Modifying
+    @Query("DELETE FROM PatientVisitSummary s WHERE s.patientId > :afterId AND s.patientId <= :upToId")
+    int deleteByPatientIdRange(@Param("afterId") Integer afterId, @Param("upToId") Integer upToId);
+
+    @Modifying
+    @Query("DELETE FROM PatientMonthlyVisit m WHERE m.patientId > :afterId AND m.patientId <= :upToId")
+    int deleteMonthlyVisitsByPatientIdRange(@Param("afterId") Integer afterId, @Param("upToId") Integer upToId);
+
+    interface MonthRetentionView {
+        Long getPatients();
+        Long getReturningPatients();
+    }
+
+    interface CohortCellView {
+        LocalDate getCohortMonth();
+        LocalDate getVisitMonth();
+        Long getPatients();
+    }
+}
@@ -1,5 +1,6 @@
 package sunshine_dental_care.repositories.auth;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.domain.Page;
@@ -27,6 +28,10 @@ public interface UserRepo extends JpaRepository<User, Integer> {
 
     Optional<User> findByResetPasswordToken(String token);
 
+    // Lọc ra các id user có tồn tại (gửi thông báo hàng loạt)
+    @Query("SELECT u.id FROM User u WHERE u.id IN :ids")
+    List<Integer> findExistingIds(@Param("ids") Collection<Integer> ids);
+
     // --- PHẦN CỦA TUẤN (Auth) ---
     Optional<User> findByVerificationToken(String token);
 
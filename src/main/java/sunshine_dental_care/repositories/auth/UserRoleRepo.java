@@ -1,5 +1,6 @@
 package sunshine_dental_care.repositories.auth;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -52,4 +53,15 @@ public interface UserRoleRepo extends JpaRepository<UserRole, Integer> {
           and ur.user.isActive = true
       """)
   List<Integer> findUserIdsByRoleName(String roleName);
+
+  // Giống findUserIdsByRoleName nhưng cho nhiều role trong 1 query (roleNames viết hoa)
+  @Query("""
+        select distinct ur.user.id
+        from UserRole ur
+        join ur.role r
+        where upper(r.roleName) in :roleNames
+          and ur.isActive = true
+          and ur.user.isActive = true
+      """)
+  List<Integer> findUserIdsByRoleNames(Collection<String> roleNames);
 }
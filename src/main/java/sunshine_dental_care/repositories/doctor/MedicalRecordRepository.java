@@ -1,9 +1,12 @@
 package sunshine_dental_care.repositories.doctor;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import sunshine_dental_care.entities.MedicalRecord;
@@ -14,6 +17,7 @@ public interface MedicalRecordRepository extends JpaRepository<MedicalRecord, In
     // --- CÁC HÀM CŨ (Giữ lại để không lỗi code cũ) ---
     List<MedicalRecord> findByPatientIdOrderByRecordDateDesc(Integer patientId);
     Optional<MedicalRecord> findByIdAndPatientId(Integer id, Integer patientId);
+    boolean existsByIdAndPatientId(Integer id, Integer patientId);
     boolean existsByAppointmentId(Integer appointmentId);
 
     // Find any medical record associated with an appointment id (used for existence checks)
@@ -27,4 +31,31 @@ public interface MedicalRecordRepository extends JpaRepository<MedicalRecord, In
     // --- HÀM MỚI (Thêm vào để dùng cho Dashboard) ---
     // Lấy hồ sơ bệnh án mới nhất (dựa trên thời gian tạo)
     List<MedicalRecord> findByPatientIdOrderByCreatedAtDesc(Integer patientId);
-}
\ No newline at end of file
+
+    // --- EXPORT PDF: fetch sẵn mọi quan hệ được in ra để thread render không phải lazy load ---
+    String EXPORT_FETCH = """
+            SELECT r FROM MedicalRecord r
+            JOIN FETCH r.clinic
+            JOIN FETCH r.patient
+            JOIN FETCH r.doctor
+            LEFT JOIN FETCH r.appointment
+            LEFT JOIN FETCH r.service
+            LEFT JOIN FETCH r.serviceVariant
+            LEFT JOIN FETCH r.appointmentService aps
+            LEFT JOIN FETCH aps.service
+            LEFT JOIN FETCH aps.serviceVariant
+            LEFT JOIN FETCH r.medicalRecordImages
+            """;
+
+    @Query(EXPORT_FETCH + "WHERE r.id = :recordId AND r.patient.id = :patientId")
+    Optional<MedicalRecord> findForExport(@Param("recordId") Integer recordId, @Param("patientId") Integer patientId);
+
+    // Toàn bộ lịch sử của bệnh nhân, cũ -> mới
+    @Query(EXPORT_FETCH + "WHERE r.patient.id = :patientId ORDER BY r.recordDate ASC, r.id ASC")
+    List<MedicalRecord> findForExportByPatientId(@Param("patientId") Integer patientId);
+
+    // Hồ sơ bác sĩ lập trong 1 ngày
+    @Query(EXPORT_FETCH + "WHERE r.doctor.id = :doctorId AND r.recordDate = :recordDate ORDER BY r.createdAt ASC, r.id ASC")
+    List<MedicalRecord> findForExportByDoctorIdAndRecordDate(@Param("doctorId") Integer doctorId,
+                                                              @Param("recordDate") LocalDate recordDate);
+}
@@ -82,6 +82,19 @@ public interface PatientInsightRepository
             @Param("patientId") Integer patientId
     );
 
+    // Toàn bộ lịch hẹn của bệnh nhân kèm bệnh nhân / bác sĩ (snapshot context chatbot)
+    @Query("""
+        SELECT a
+        FROM Appointment a
+        JOIN FETCH a.patient
+        LEFT JOIN FETCH a.doctor
+        WHERE a.patient.id = :patientId
+        ORDER BY a.startDateTime DESC
+    """)
+    List<Appointment> appointmentsWithPeopleByPatientId(
+            @Param("patientId") Integer patientId
+    );
+
     /* =====================================================
      * APPOINTMENT SERVICES – DỊCH VỤ
      * ===================================================== */
@@ -109,6 +122,20 @@ public interface PatientInsightRepository
             @Param("appointmentId") Integer appointmentId
     );
 
+    // Dịch vụ của mọi lịch hẹn của bệnh nhân, fetch sẵn lịch hẹn / dịch vụ / biến thể (snapshot context chatbot)
+    @Query("""
+        SELECT s
+        FROM AppointmentService s
+        JOIN FETCH s.appointment a
+        JOIN FETCH s.service svc
+        LEFT JOIN FETCH s.serviceVariant var
+        WHERE a.patient.id = :patientId
+        ORDER BY a.startDateTime DESC, s.id ASC
+    """)
+    List<AppointmentService> appointmentServicesWithDetailsByPatientId(
+            @Param("patientId") Integer patientId
+    );
+
     // Tìm tất cả dịch vụ của một lịch hẹn (chỉ cần appointmentId)
     @Query("""
         SELECT s
@@ -208,6 +235,18 @@ public interface PatientInsightRepository
             @Param("patientId") Integer patientId
     );
 
+    // Bệnh án kèm ảnh trong 1 query, thay cho medicalImagesByRecordId theo từng hồ sơ
+    @Query("""
+        SELECT m
+        FROM MedicalRecord m
+        LEFT JOIN FETCH m.medicalRecordImages
+        WHERE m.patient.id = :patientId
+        ORDER BY m.recordDate DESC
+    """)
+    List<MedicalRecord> medicalHistoryWithImagesByPatientId(
+            @Param("patientId") Integer patientId
+    );
+
     @Query("""
         SELECT m
         FROM MedicalRecord m
@@ -1,6 +1,7 @@
 package sunshine_dental_care.repositories.hr;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -73,6 +74,12 @@ public interface AttendanceRepository extends JpaRepository<Attendance, Integer>
 
     List<Attendance> findByWorkDateBetween(LocalDate startDate, LocalDate endDate);
 
+    // Chấm công trong khoảng ngày của 1 nhóm nhân viên (xuất báo cáo tháng theo từng trang nhân viên)
+    List<Attendance> findByUserIdInAndWorkDateBetween(Collection<Integer> userIds, LocalDate startDate, LocalDate endDate);
+
+    List<Attendance> findByUserIdInAndClinicIdAndWorkDateBetween(Collection<Integer> userIds, Integer clinicId,
+            LocalDate startDate, LocalDate endDate);
+
     List<Attendance> findByWorkDateAndAttendanceStatus(LocalDate workDate, String attendanceStatus);
 
     List<Attendance> findByClinicIdAndWorkDateAndAttendanceStatus(Integer clinicId, LocalDate workDate,
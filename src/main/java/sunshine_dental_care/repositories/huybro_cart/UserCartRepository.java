@@ -0,0 +1,36 @@
+package sunshine_dental_care.repositories.huybro_cart;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import sunshine_dental_care.entities.huybro_cart.UserCart;
+
+import java.time.Instant;
+import java.util.Optional;
+
+public interface UserCartRepository extends JpaRepository<UserCart, Integer> {
+
+    @Query("select c.version from UserCart c where c.userId = :userId")
+    Optional<Long> findVersionByUserId(@Param("userId") Integer userId);
+
+    // Chỉ ghi khi version trên DB vẫn là version đã đọc (0 dòng = node khác đã ghi trước)
+    @Modifying
+    @Query("""
+            update UserCart c
+               set c.itemsJson = :itemsJson,
+                   c.invoiceCode = :invoiceCode,
+                   c.updatedAt = :now,
+                   c.version = c.version + 1
+             where c.userId = :userId and c.version = :version
+            """)
+    int updateIfVersion(@Param("userId") Integer userId,
+                        @Param("itemsJson") String itemsJson,
+                        @Param("invoiceCode") String invoiceCode,
+                        @Param("version") Long version,
+                        @Param("now") Instant now);
+
+    @Modifying
+    @Query("delete from UserCart c where c.updatedAt < :cutoff")
+    int deleteUpdatedBefore(@Param("cutoff") Instant cutoff);
+}
@@ -1,10 +1,13 @@
 package sunshine_dental_care.repositories.huybro_payroll;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.Attendance;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -12,4 +15,10 @@ public interface PayrollAttendanceRepo extends JpaRepository<Attendance, Integer
 
     // Hàm này dùng để lấy tất cả record chấm công của 1 user trong khoảng thời gian (Start -> End)
     List<Attendance> findByUserIdAndWorkDateBetween(Integer userId, LocalDate startDate, LocalDate endDate);
+
+    // Tính lương hàng loạt: chấm công của cả nhóm nhân viên trong kỳ bằng 1 query
+    @Query("SELECT a FROM Attendance a WHERE a.userId IN :userIds AND a.workDate BETWEEN :startDate AND :endDate")
+    List<Attendance> findByUserIdsAndWorkDateBetween(@Param("userIds") Collection<Integer> userIds,
+                                                     @Param("startDate") LocalDate startDate,
+                                                     @Param("endDate") LocalDate endDate);
 }
\ No newline at end of file
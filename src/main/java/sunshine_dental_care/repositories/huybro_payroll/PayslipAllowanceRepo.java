@@ -1,10 +1,37 @@
 package sunshine_dental_care.repositories.huybro_payroll;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.huybro_salary.PayslipAllowance;
+import sunshine_dental_care.entities.huybro_salary.enums.AllowanceType;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
 public interface PayslipAllowanceRepo extends JpaRepository<PayslipAllowance, Integer> {
     // Có thể thêm method tìm kiếm nếu cần sau này
+
+    // Khoản nhập tay (không sinh từ hợp đồng) của các phiếu lương, giữ nguyên khi tính lại
+    @Query("""
+        SELECT a.payslip.id AS payslipId, a.type AS type, a.amount AS amount
+        FROM PayslipAllowance a
+        WHERE a.payslip.id IN :payslipIds AND a.isSystemGenerated = false
+    """)
+    List<ManualItemView> findManualItemsByPayslipIds(@Param("payslipIds") Collection<Integer> payslipIds);
+
+    // Tính lại: bỏ các khoản sinh từ hợp đồng để chèn lại theo cấu hình hiện tại
+    @Modifying
+    @Query("DELETE FROM PayslipAllowance a WHERE a.payslip.id IN :payslipIds AND a.isSystemGenerated = true")
+    int deleteSystemGeneratedByPayslipIds(@Param("payslipIds") Collection<Integer> payslipIds);
+
+    interface ManualItemView {
+        Integer getPayslipId();
+        AllowanceType getType();
+        BigDecimal getAmount();
+    }
 }
\ No newline at end of file
@@ -1,12 +1,22 @@
 package sunshine_dental_care.repositories.huybro_payroll;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.huybro_salary.PayslipsSnapshot;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface PayslipsSnapshotRepo extends JpaRepository<PayslipsSnapshot, Integer>, JpaSpecificationExecutor<PayslipsSnapshot> {
@@ -15,4 +25,62 @@ public interface PayslipsSnapshotRepo extends JpaRepository<PayslipsSnapshot, In
 
     // Lấy danh sách phiếu lương của cả kỳ (để hiển thị bảng tổng hợp)
     List<PayslipsSnapshot> findBySalaryCycleId(Integer salaryCycleId);
-}
\ No newline at end of file
+
+    // Id phiếu lương đã có của các user trong kỳ (tính lại -> UPDATE thay vì INSERT)
+    @Query("SELECT p.user.id AS userId, p.id AS payslipId FROM PayslipsSnapshot p WHERE p.salaryCycle.id = :salaryCycleId AND p.user.id IN :userIds")
+    List<PayslipIdView> findIdsBySalaryCycleIdAndUserIds(@Param("salaryCycleId") Integer salaryCycleId,
+                                                         @Param("userIds") Collection<Integer> userIds);
+
+    // Đọc lại kết quả sau khi tính: user + kỳ lương + phụ cấp fetch cùng lúc
+    @Query("""
+        SELECT DISTINCT p FROM PayslipsSnapshot p JOIN FETCH p.user JOIN FETCH p.salaryCycle LEFT JOIN FETCH p.periodicAllowances
+        WHERE p.salaryCycle.id = :salaryCycleId AND p.user.id IN :userIds
+    """)
+    List<PayslipsSnapshot> findWithDetailsBySalaryCycleIdAndUserIds(@Param("salaryCycleId") Integer salaryCycleId,
+                                                                    @Param("userIds") Collection<Integer> userIds);
+
+    // Chấm công ngày workDate của user vừa đổi -> phiếu lương của kỳ chứa ngày đó (chưa chốt) bị cũ
+    @Modifying
+    @Query("""
+        UPDATE PayslipsSnapshot p SET p.staleAt = :changedAt
+        WHERE p.user.id = :userId
+          AND p.salaryCycle.id IN (SELECT c.id FROM SalaryCycle c
+                                   WHERE :workDate BETWEEN c.startDate AND c.endDate
+                                     AND c.status <> sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus.FINALIZED)
+          AND (p.staleAt IS NULL OR p.staleAt < :changedAt)
+    """)
+    int markStale(@Param("userId") Integer userId,
+                  @Param("workDate") LocalDate workDate,
+                  @Param("changedAt") Instant changedAt);
+
+    // Phiếu lương cũ của các kỳ chưa chốt, đã "yên" từ changedBefore (gom nhiều thay đổi liên tiếp thành 1 lần tính)
+    @Query("""
+        SELECT p.salaryCycle.id AS salaryCycleId, p.user.id AS userId FROM PayslipsSnapshot p
+        WHERE p.staleAt IS NOT NULL AND p.staleAt <= :changedBefore
+          AND p.salaryCycle.status <> sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus.FINALIZED
+    """)
+    List<StalePayslipView> findStale(@Param("changedBefore") Instant changedBefore);
+
+    @Query("SELECT p.user.id FROM PayslipsSnapshot p WHERE p.salaryCycle.id = :salaryCycleId AND p.staleAt IS NOT NULL")
+    List<Integer> findStaleUserIdsBySalaryCycleId(@Param("salaryCycleId") Integer salaryCycleId);
+
+    // Nhân viên không còn profile lương thì không tính lại được -> bỏ cờ để không chặn chốt kỳ
+    @Modifying
+    @Query("UPDATE PayslipsSnapshot p SET p.staleAt = NULL WHERE p.salaryCycle.id = :salaryCycleId AND p.user.id IN :userIds")
+    int clearStale(@Param("salaryCycleId") Integer salaryCycleId, @Param("userIds") Collection<Integer> userIds);
+
+    // Export: đọc dần theo con trỏ JDBC, fetch sẵn user để không phát sinh 1 query / dòng
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p FROM PayslipsSnapshot p JOIN FETCH p.user WHERE p.salaryCycle.id = :salaryCycleId ORDER BY p.id ASC")
+    Stream<PayslipsSnapshot> streamBySalaryCycleId(@Param("salaryCycleId") Integer salaryCycleId);
+
+    interface StalePayslipView {
+        Integer getSalaryCycleId();
+        Integer getUserId();
+    }
+
+    interface PayslipIdView {
+        Integer getUserId();
+        Integer getPayslipId();
+    }
+}
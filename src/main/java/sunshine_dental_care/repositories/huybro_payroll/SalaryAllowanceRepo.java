@@ -1,10 +1,19 @@
 package sunshine_dental_care.repositories.huybro_payroll;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.huybro_salary.SalaryAllowance;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface SalaryAllowanceRepo extends JpaRepository<SalaryAllowance, Integer> {
     void deleteAllBySalaryProfileId(Integer salaryProfileId);
+
+    // Phụ cấp cấu hình của nhiều profile 1 lần (thay cho profile.getAllowances() lazy từng người)
+    @Query("SELECT a FROM SalaryAllowance a WHERE a.salaryProfile.id IN :profileIds ORDER BY a.id ASC")
+    List<SalaryAllowance> findBySalaryProfileIds(@Param("profileIds") Collection<Integer> profileIds);
 }
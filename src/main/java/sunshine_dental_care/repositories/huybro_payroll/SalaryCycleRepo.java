@@ -1,5 +1,9 @@
 package sunshine_dental_care.repositories.huybro_payroll;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.huybro_salary.SalaryCycle;
 
@@ -8,4 +12,9 @@ import java.util.Optional;
 @Repository
 public interface SalaryCycleRepo extends JpaRepository<SalaryCycle, Integer> {
     Optional<SalaryCycle> findByMonthAndYear(Integer month, Integer year);
+
+    // Chốt kỳ và ghi phiếu lương khóa dòng kỳ lương để không chen vào nhau
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM SalaryCycle c WHERE c.id = :id")
+    Optional<SalaryCycle> findByIdForUpdate(@Param("id") Integer id);
 }
\ No newline at end of file
@@ -1,12 +1,27 @@
 package sunshine_dental_care.repositories.huybro_payroll;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.huybro_salary.SalaryProfile;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface SalaryProfileRepo extends JpaRepository<SalaryProfile, Integer> {
     Optional<SalaryProfile> findByUserId(Integer userId);
+
+    // Tính lương cả công ty: profile + user của nhân viên có ít nhất 1 role đang active thuộc danh sách
+    @Query("""
+        SELECT p FROM SalaryProfile p JOIN FETCH p.user u
+        WHERE EXISTS (SELECT 1 FROM UserRole ur
+                      WHERE ur.user = u AND ur.isActive = true AND ur.role.roleName IN :roleNames)
+    """)
+    List<SalaryProfile> findForPayrollByRoleNames(@Param("roleNames") Collection<String> roleNames);
+
+    @Query("SELECT p FROM SalaryProfile p JOIN FETCH p.user u WHERE u.id IN :userIds")
+    List<SalaryProfile> findForPayrollByUserIds(@Param("userIds") Collection<Integer> userIds);
 }
\ No newline at end of file
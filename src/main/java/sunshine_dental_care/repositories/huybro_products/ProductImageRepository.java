@@ -2,10 +2,14 @@ package sunshine_dental_care.repositories.huybro_products;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import sunshine_dental_care.entities.huybro_products.ProductImage;
+import java.util.Collection;
 import java.util.List;
 
 public interface ProductImageRepository extends JpaRepository<ProductImage, Integer> {
     // Lấy tất cả và thứ tự của ảnh - 1 sản phẩm cho nghiệp vụ view 1 và nhiều sản phẩm
     List<ProductImage> findByProduct_IdOrderByImageOrderAsc(Integer productId);
 
+    // Lấy ảnh cho cả trang sản phẩm trong 1 query (catalog read model)
+    List<ProductImage> findByProduct_IdInOrderByImageOrderAsc(Collection<Integer> productIds);
+
 }
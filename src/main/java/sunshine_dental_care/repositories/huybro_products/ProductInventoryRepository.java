@@ -2,13 +2,18 @@ package sunshine_dental_care.repositories.huybro_products;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.dto.huybro_inventories.InventoryViewDto;
 import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -57,4 +62,26 @@ public interface ProductInventoryRepository extends JpaRepository<ProductInvento
             @Param("clinicId") Integer clinicId,
             Pageable pageable
     );
-}
\ No newline at end of file
+
+    // 5. Khóa (UPDLOCK) các dòng tồn kho của cả giỏ hàng trong 1 query, theo thứ tự cố định
+    // để 2 checkout chạm cùng sản phẩm xếp hàng chờ nhau thay vì cùng đọc 1 số tồn
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+        SELECT pi FROM ProductInventory pi
+        WHERE pi.product.id IN :productIds AND pi.clinic.id IN :clinicIds
+        ORDER BY pi.id
+    """)
+    List<ProductInventory> lockByProductIdsAndClinicIds(@Param("productIds") Collection<Integer> productIds,
+                                                        @Param("clinicIds") Collection<Integer> clinicIds);
+
+    // 6. Trừ kho có điều kiện: 0 dòng = không đủ hàng, không bao giờ âm
+    @Modifying
+    @Query("""
+        UPDATE ProductInventory pi
+           SET pi.quantity = pi.quantity - :qty, pi.lastUpdated = :now
+         WHERE pi.id = :inventoryId AND pi.quantity >= :qty
+    """)
+    int decrementIfAvailable(@Param("inventoryId") Integer inventoryId,
+                             @Param("qty") int qty,
+                             @Param("now") LocalDateTime now);
+}
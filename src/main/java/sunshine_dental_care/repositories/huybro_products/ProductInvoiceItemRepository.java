@@ -80,4 +80,28 @@ public interface ProductInvoiceItemRepository extends JpaRepository<ProductInvoi
             @Param("targetCurrency") String targetCurrency,
             Pageable pageable
     );
+
+    // Nguồn cho DailyProductSalesFacts: cùng khóa với ProductInvoiceRepository.aggregateDailyRevenue + sản phẩm
+    @Query("""
+        SELECT CAST(i.createdAt AS LocalDate), i.clinic.id, i.invoiceStatus, i.paymentStatus, i.currency,
+               item.product.id, item.productNameSnapshot, item.skuSnapshot,
+               COALESCE(SUM(item.quantity), 0),
+               COALESCE(SUM(item.lineTotalAmount), 0),
+               COALESCE(SUM(CASE
+                   WHEN i.currency = 'USD' THEN item.lineTotalAmount
+                   WHEN i.currency = 'VND'
+                        THEN item.lineTotalAmount / (CASE WHEN i.exchangeRate > 0 THEN i.exchangeRate ELSE 25000.0 END)
+                   ELSE 0 END), 0),
+               COALESCE(SUM(CASE
+                   WHEN i.currency = 'VND' THEN item.lineTotalAmount
+                   WHEN i.currency = 'USD'
+                        THEN item.lineTotalAmount * (CASE WHEN i.exchangeRate > 0 THEN i.exchangeRate ELSE 25000.0 END)
+                   ELSE 0 END), 0)
+        FROM ProductInvoiceItem item
+        JOIN item.invoice i
+        WHERE i.createdAt >= :from AND i.createdAt < :to
+        GROUP BY CAST(i.createdAt AS LocalDate), i.clinic.id, i.invoiceStatus, i.paymentStatus, i.currency,
+                 item.product.id, item.productNameSnapshot, item.skuSnapshot
+    """)
+    List<Object[]> aggregateDailyProductSales(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 }
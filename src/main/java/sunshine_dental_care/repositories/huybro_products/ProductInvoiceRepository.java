@@ -1,9 +1,12 @@
 package sunshine_dental_care.repositories.huybro_products;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import sunshine_dental_care.dto.huybro_invoices.InvoiceStatisticDto;
@@ -15,6 +18,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface ProductInvoiceRepository extends JpaRepository<ProductInvoice, Integer> {
@@ -100,4 +104,31 @@ public interface ProductInvoiceRepository extends JpaRepository<ProductInvoice,
             "FROM ProductInvoice i " +
             "GROUP BY i.invoiceStatus")
     List<InvoiceStatisticDto> getInvoiceStatistics();
-}
\ No newline at end of file
+
+    // Nguồn cho DailyRevenueFacts: gộp hóa đơn theo ngày tạo + clinic + trạng thái + loại tiền.
+    // Quy đổi giống sumTotalRevenueConverted (exchangeRate của từng hóa đơn, mặc định 25000)
+    @Query("""
+        SELECT CAST(i.createdAt AS LocalDate), i.clinic.id, i.invoiceStatus, i.paymentStatus, i.currency,
+               COUNT(i),
+               COALESCE(SUM(i.totalAmount), 0),
+               COALESCE(SUM(CASE
+                   WHEN i.currency = 'USD' THEN i.totalAmount
+                   WHEN i.currency = 'VND'
+                        THEN i.totalAmount / (CASE WHEN i.exchangeRate > 0 THEN i.exchangeRate ELSE 25000.0 END)
+                   ELSE 0 END), 0),
+               COALESCE(SUM(CASE
+                   WHEN i.currency = 'VND' THEN i.totalAmount
+                   WHEN i.currency = 'USD'
+                        THEN i.totalAmount * (CASE WHEN i.exchangeRate > 0 THEN i.exchangeRate ELSE 25000.0 END)
+                   ELSE 0 END), 0)
+        FROM ProductInvoice i
+        WHERE i.createdAt >= :from AND i.createdAt < :to
+        GROUP BY CAST(i.createdAt AS LocalDate), i.clinic.id, i.invoiceStatus, i.paymentStatus, i.currency
+    """)
+    List<Object[]> aggregateDailyRevenue(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // Export: đọc dần theo con trỏ JDBC (fetch size), phải dùng trong transaction và đóng stream sau khi dùng
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT i FROM ProductInvoice i WHERE i.createdAt >= :from AND i.createdAt < :to ORDER BY i.createdAt ASC, i.id ASC")
+    Stream<ProductInvoice> streamForExport(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+}
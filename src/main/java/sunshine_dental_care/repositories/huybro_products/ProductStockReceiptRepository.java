@@ -9,6 +9,8 @@ import org.springframework.stereotype.Repository;
 import sunshine_dental_care.entities.huybro_product_inventories.ProductStockReceipt;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -20,4 +22,9 @@ public interface ProductStockReceiptRepository extends JpaRepository<ProductStoc
 
     @Query("SELECT MAX(r.newRetailPrice) FROM ProductStockReceipt r WHERE r.product.id = :productId")
     BigDecimal findMaxRetailPriceByProductId(@Param("productId") Integer productId);
+
+    // Phiếu nhập mới nhất của nhiều sản phẩm trong 1 query (trùng createdAt thì service tự chọn id lớn nhất)
+    @Query("SELECT r FROM ProductStockReceipt r WHERE r.product.id IN :productIds " +
+            "AND r.createdAt = (SELECT MAX(r2.createdAt) FROM ProductStockReceipt r2 WHERE r2.product.id = r.product.id)")
+    List<ProductStockReceipt> findLatestByProductIdIn(@Param("productIds") Collection<Integer> productIds);
 }
\ No newline at end of file
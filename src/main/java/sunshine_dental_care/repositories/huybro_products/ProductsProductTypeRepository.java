@@ -1,11 +1,18 @@
 package sunshine_dental_care.repositories.huybro_products;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import sunshine_dental_care.entities.huybro_products.ProductsProductType;
 import sunshine_dental_care.entities.huybro_products.ProductsProductTypeId;
+import java.util.Collection;
 import java.util.List;
 
 public interface ProductsProductTypeRepository extends JpaRepository<ProductsProductType, ProductsProductTypeId> {
     // Lấy danh sách loại sản phẩm của 1 sản phẩm cho view 1 và nhiều sản phẩm
     List<ProductsProductType> findByProduct_Id(Integer productId);
+
+    // Lấy loại của nhiều sản phẩm trong 1 query, fetch sẵn ProductType
+    @Query("SELECT ppt FROM ProductsProductType ppt JOIN FETCH ppt.type WHERE ppt.product.id IN :productIds")
+    List<ProductsProductType> findWithTypeByProductIdIn(@Param("productIds") Collection<Integer> productIds);
 }
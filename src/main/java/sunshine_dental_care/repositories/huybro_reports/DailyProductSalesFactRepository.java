@@ -0,0 +1,53 @@
+package sunshine_dental_care.repositories.huybro_reports;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import sunshine_dental_care.dto.huybro_reports.ProductSalesFactRowDto;
+import sunshine_dental_care.entities.huybro_reports.DailyProductSalesFact;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface DailyProductSalesFactRepository extends JpaRepository<DailyProductSalesFact, Long> {
+
+    // Lọc theo invoiceStatus (báo cáo kế toán)
+    @Query("""
+        SELECT new sunshine_dental_care.dto.huybro_reports.ProductSalesFactRowDto(
+            f.productName, f.sku,
+            SUM(f.quantity), SUM(f.lineTotalAmount), SUM(f.lineTotalUsd), SUM(f.lineTotalVnd)
+        )
+        FROM DailyProductSalesFact f
+        WHERE f.factDate BETWEEN :startDate AND :endDate
+          AND f.invoiceStatus IN :statuses
+          AND (:currency IS NULL OR f.currency = :currency)
+        GROUP BY f.productName, f.sku
+    """)
+    List<ProductSalesFactRowDto> summarizeByInvoiceStatus(@Param("startDate") LocalDate startDate,
+                                                          @Param("endDate") LocalDate endDate,
+                                                          @Param("statuses") Collection<String> statuses,
+                                                          @Param("currency") String currency);
+
+    // Lọc theo paymentStatus (báo cáo admin)
+    @Query("""
+        SELECT new sunshine_dental_care.dto.huybro_reports.ProductSalesFactRowDto(
+            f.productName, f.sku,
+            SUM(f.quantity), SUM(f.lineTotalAmount), SUM(f.lineTotalUsd), SUM(f.lineTotalVnd)
+        )
+        FROM DailyProductSalesFact f
+        WHERE f.factDate BETWEEN :startDate AND :endDate
+          AND f.paymentStatus IN :statuses
+          AND (:currency IS NULL OR f.currency = :currency)
+        GROUP BY f.productName, f.sku
+    """)
+    List<ProductSalesFactRowDto> summarizeByPaymentStatus(@Param("startDate") LocalDate startDate,
+                                                          @Param("endDate") LocalDate endDate,
+                                                          @Param("statuses") Collection<String> statuses,
+                                                          @Param("currency") String currency);
+
+    @Modifying
+    @Query("DELETE FROM DailyProductSalesFact f WHERE f.factDate BETWEEN :startDate AND :endDate")
+    int deleteByDateRange(@Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate);
+}
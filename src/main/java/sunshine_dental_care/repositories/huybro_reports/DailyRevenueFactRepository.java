@@ -0,0 +1,34 @@
+package sunshine_dental_care.repositories.huybro_reports;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import sunshine_dental_care.dto.huybro_reports.RevenueFactRowDto;
+import sunshine_dental_care.entities.huybro_reports.DailyRevenueFact;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface DailyRevenueFactRepository extends JpaRepository<DailyRevenueFact, Long> {
+
+    // Số dòng trả về ~ số ngày x số trạng thái, không phụ thuộc số hóa đơn
+    @Query("""
+        SELECT new sunshine_dental_care.dto.huybro_reports.RevenueFactRowDto(
+            f.factDate, f.invoiceStatus, f.paymentStatus,
+            SUM(f.orderCount), SUM(f.totalAmount), SUM(f.totalUsd), SUM(f.totalVnd)
+        )
+        FROM DailyRevenueFact f
+        WHERE f.factDate BETWEEN :startDate AND :endDate
+          AND (:currency IS NULL OR f.currency = :currency)
+        GROUP BY f.factDate, f.invoiceStatus, f.paymentStatus
+        ORDER BY f.factDate ASC
+    """)
+    List<RevenueFactRowDto> summarizeByDay(@Param("startDate") LocalDate startDate,
+                                           @Param("endDate") LocalDate endDate,
+                                           @Param("currency") String currency);
+
+    @Modifying
+    @Query("DELETE FROM DailyRevenueFact f WHERE f.factDate BETWEEN :startDate AND :endDate")
+    int deleteByDateRange(@Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate);
+}
@@ -2,6 +2,7 @@ package sunshine_dental_care.repositories.reception;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -89,6 +90,36 @@ public interface AppointmentRepo extends JpaRepository<Appointment, Integer> {
     List<Appointment> findUrgentAppointmentsToRemind(@Param("start") Instant start,
                                                      @Param("end") Instant end);
 
+    // Lô nhắc lịch: fetch sẵn patient/user/clinic/doctor/service để render không phát sinh N+1
+    @Query("SELECT a FROM Appointment a JOIN FETCH a.patient p JOIN FETCH p.user " +
+            "JOIN FETCH a.clinic LEFT JOIN FETCH a.doctor LEFT JOIN FETCH a.service " +
+            "WHERE a.status IN ('PENDING', 'CONFIRMED') " +
+            "AND (a.isReminderSent IS NULL OR a.isReminderSent = false) " +
+            "AND a.startDateTime BETWEEN :start AND :end " +
+            "ORDER BY a.startDateTime ASC")
+    List<Appointment> findReminderBatch(@Param("start") Instant start,
+                                        @Param("end") Instant end);
+
+    @Query("SELECT a FROM Appointment a JOIN FETCH a.patient p JOIN FETCH p.user " +
+            "JOIN FETCH a.clinic LEFT JOIN FETCH a.doctor LEFT JOIN FETCH a.service " +
+            "WHERE a.status IN ('PENDING', 'CONFIRMED') " +
+            "AND (a.isUrgentReminderSent IS NULL OR a.isUrgentReminderSent = false) " +
+            "AND a.startDateTime BETWEEN :start AND :end " +
+            "ORDER BY a.startDateTime ASC")
+    List<Appointment> findUrgentReminderBatch(@Param("start") Instant start,
+                                              @Param("end") Instant end);
+
+    // Đánh dấu đã nhắc cho cả lô bằng 1 câu UPDATE
+    @Modifying
+    @Transactional
+    @Query("UPDATE Appointment a SET a.isReminderSent = true WHERE a.id IN :ids")
+    int markReminderSent(@Param("ids") Collection<Integer> ids);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Appointment a SET a.isUrgentReminderSent = true WHERE a.id IN :ids")
+    int markUrgentReminderSent(@Param("ids") Collection<Integer> ids);
+
     // --- 5. PHẦN CỦA BẠN: DASHBOARD BỆNH NHÂN ---
 
     // Lấy lịch hẹn sắp tới (Chưa diễn ra) để hiển thị Countdown
@@ -117,6 +148,19 @@ public interface AppointmentRepo extends JpaRepository<Appointment, Integer> {
             "WHERE a.status = :oldStatus AND a.createdAt < :expiryTime")
     int cancelExpiredAppointments(String oldStatus, String newStatus, Instant expiryTime);
 
+    // Đổi trạng thái 1 lịch hẹn CÓ ĐIỀU KIỆN (chỉ khi vẫn đang ở oldStatus) -> an toàn nếu vừa thanh toán xong
+    @Modifying
+    @Transactional
+    @Query("UPDATE Appointment a SET a.status = :newStatus, a.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE a.id = :appointmentId AND a.status = :oldStatus")
+    int updateStatusIfCurrent(@Param("appointmentId") Integer appointmentId,
+                              @Param("oldStatus") String oldStatus,
+                              @Param("newStatus") String newStatus);
+
+    // Lấy id + createdAt các lịch hẹn đang ở 1 trạng thái (dùng để nạp lại timer hết hạn thanh toán khi khởi động)
+    @Query("SELECT a.id, a.createdAt FROM Appointment a WHERE a.status = :status")
+    List<Object[]> findIdAndCreatedAtByStatus(@Param("status") String status);
+
     //  HÀM ĐỂ SEARCH DANH SÁCH LỊCH HẸN
     @Query("SELECT a FROM Appointment a WHERE " +
             "(:clinicId IS NULL OR a.clinic.id = :clinicId) " +
@@ -212,6 +256,18 @@ public interface AppointmentRepo extends JpaRepository<Appointment, Integer> {
             @Param("endInstant") Instant endInstant
     );
 
+    // Tất cả lịch đang chiếm bác sĩ / phòng / bệnh nhân trong 1 khoảng dài (kiểm tra trùng cho cả liệu trình bằng 1 query)
+    @Query("SELECT a FROM Appointment a " +
+            "WHERE a.status NOT IN ('CANCELLED', 'REJECTED') " +
+            "AND a.startDateTime < :rangeEnd AND a.endDateTime > :rangeStart " +
+            "AND (a.doctor.id = :doctorId OR a.patient.id = :patientId " +
+            "     OR (:roomId IS NOT NULL AND a.room.id = :roomId))")
+    List<Appointment> findBusyInRange(@Param("doctorId") Integer doctorId,
+                                      @Param("patientId") Integer patientId,
+                                      @Param("roomId") Integer roomId,
+                                      @Param("rangeStart") Instant rangeStart,
+                                      @Param("rangeEnd") Instant rangeEnd);
+
     // CHỐNG RACE CONDITION KHI ĐẶT LỊCH
     boolean existsByDoctorIdAndStartDateTimeAndStatusNot(Integer doctorId, java.time.Instant startDateTime, String status);
 }
@@ -0,0 +1,20 @@
+package sunshine_dental_care.repositories.system;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import jakarta.persistence.LockModeType;
+import sunshine_dental_care.entities.InvoiceSequence;
+
+@Repository
+public interface InvoiceSequenceRepo extends JpaRepository<InvoiceSequence, Integer> {
+    // Khóa dòng sequence của năm (SQL Server: updlock + holdlock -> cũng chặn node khác chèn dòng cùng năm)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM InvoiceSequence s WHERE s.clinicId = :clinicId AND s.year = :year ORDER BY s.id ASC")
+    List<InvoiceSequence> lockByClinicIdAndYear(@Param("clinicId") Integer clinicId, @Param("year") Integer year);
+}
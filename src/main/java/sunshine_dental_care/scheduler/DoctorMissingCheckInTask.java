@@ -3,8 +3,10 @@ package sunshine_dental_care.scheduler;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -214,50 +216,36 @@ public class DoctorMissingCheckInTask {
                     "Bác sĩ %s chưa check-in sau %d phút từ giờ bắt đầu ca (%s) tại %s",
                     doctorName, minutesPassed, startTimeStr, clinicName);
 
+            // Bỏ qua những reception đã được báo về schedule này trong hôm nay (1 query cho cả danh sách)
+            Set<Integer> alreadyNotified = new HashSet<>(
+                    notificationRepository.findUserIdsNotifiedToday(
+                            receptionUserIds,
+                            "DOCTOR_MISSING_CHECKIN",
+                            "DOCTOR_SCHEDULE",
+                            schedule.getId()));
+            List<Integer> pendingUserIds = receptionUserIds.stream()
+                    .filter(id -> !alreadyNotified.contains(id))
+                    .toList();
+            int skippedCount = receptionUserIds.size() - pendingUserIds.size();
             int successCount = 0;
-            int skippedCount = 0;
             int errorCount = 0;
-            
-            for (Integer receptionUserId : receptionUserIds) {
+
+            if (!pendingUserIds.isEmpty()) {
+                NotificationRequest notiRequest = NotificationRequest.builder()
+                        .type("DOCTOR_MISSING_CHECKIN")
+                        .priority("MEDIUM")
+                        .title("Bác sĩ chưa check-in")
+                        .message(message)
+                        .actionUrl("/hr/attendance")
+                        .relatedEntityType("DOCTOR_SCHEDULE")
+                        .relatedEntityId(schedule.getId())
+                        .build();
                 try {
-                    // Kiểm tra xem đã gửi thông báo cho schedule này và user này trong ngày hôm nay chưa
-                    long existingNotificationCount = notificationRepository.countByUserIdAndTypeAndEntityToday(
-                            receptionUserId,
-                            "DOCTOR_MISSING_CHECKIN",
-                            "DOCTOR_SCHEDULE",
-                            schedule.getId()
-                    );
-                    
-                    if (existingNotificationCount > 0) {
-                        // Đã gửi thông báo rồi, bỏ qua
-                        skippedCount++;
-                        log.debug("Skipping notification for reception user {} - already notified about schedule {} today", 
-                                receptionUserId, schedule.getId());
-                        continue;
-                    }
-                    
-                    log.debug("Sending notification to reception user {} about doctor {} missing check-in", 
-                            receptionUserId, doctorName);
-                    
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(receptionUserId)
-                            .type("DOCTOR_MISSING_CHECKIN")
-                            .priority("MEDIUM")
-                            .title("Bác sĩ chưa check-in")
-                            .message(message)
-                            .actionUrl("/hr/attendance")
-                            .relatedEntityType("DOCTOR_SCHEDULE")
-                            .relatedEntityId(schedule.getId())
-                            .build();
-
-                    notificationService.sendNotification(notiRequest);
-                    successCount++;
-                    log.info("Successfully sent notification to reception user {} about doctor {} missing check-in", 
-                            receptionUserId, doctorName);
+                    successCount = notificationService.sendBulkNotification(pendingUserIds, notiRequest).size();
                 } catch (Exception e) {
-                    errorCount++;
-                    log.error("Failed to send missing check-in notification for reception user {}: {}", 
-                            receptionUserId, e.getMessage(), e);
+                    errorCount = pendingUserIds.size();
+                    log.error("Failed to send missing check-in notifications to {} reception user(s): {}",
+                            pendingUserIds.size(), e.getMessage(), e);
                 }
             }
 
@@ -37,7 +37,8 @@ public class MailService {
     // =================================================================
     // HELPER METHODS
     // =================================================================
-    private String resolveFromAddress() {
+    // Địa chỉ gửi dùng chung cho mọi email hệ thống (cả nhắc lịch theo lô)
+    public String resolveFromAddress() {
         String fromProp = env.getProperty("app.mail.from");
         if (fromProp != null && !fromProp.isBlank()) return fromProp;
         return "no-reply@sunshinedentalcare.vn";
@@ -294,23 +295,7 @@ public class MailService {
     public void sendAppointmentReminderEmail(User user, Appointment appt, String timeStr, String serviceName, String address) {
         String loc = "vi";
         EmailTemplate t = templateRepo.findActiveByKeyAndLocale("APPOINTMENT_REMINDER", loc)
-                .orElseGet(() -> {
-                    EmailTemplate nt = new EmailTemplate();
-                    nt.setKey("APPOINTMENT_REMINDER");
-                    nt.setLocale(loc);
-                    nt.setSubject("Nhắc nhở: Bạn có lịch hẹn vào ngày mai");
-                    nt.setHtmlBody("<div style='font-family: Arial; color: #333;'>"
-                            + "<h2>Xin chào {{name}},</h2>"
-                            + "<p>Bạn có lịch hẹn nha khoa sắp tới.</p>"
-                            + "<div style='background: #e3f2fd; padding: 15px; border-left: 4px solid #2196f3; border-radius: 4px;'>"
-                            + "  <p><b>Thời gian:</b> {{time}}</p>"
-                            + "  <p><b>Dịch vụ:</b> {{service}}</p>"
-                            + "  <p><b>Địa chỉ:</b> {{address}}</p>"
-                            + "</div>"
-                            + "<p>Vui lòng đến đúng giờ để được phục vụ tốt nhất.</p></div>");
-                    nt.setIsActive(true);
-                    return templateRepo.save(nt);
-                });
+                .orElseGet(() -> templateRepo.save(defaultAppointmentReminderTemplate(loc)));
 
         String html = render(t.getHtmlBody(), Map.of("name", user.getFullName(), "time", timeStr, "service", serviceName, "address", address));
         Patient foundPatient = (appt.getPatient() != null) ? appt.getPatient() : null;
@@ -352,22 +337,7 @@ public class MailService {
     public void sendUrgentReminderEmail(User user, Appointment appt, String timeStr, String serviceName, String address) {
         String loc = "vi";
         EmailTemplate t = templateRepo.findActiveByKeyAndLocale("URGENT_REMINDER", loc)
-                .orElseGet(() -> {
-                    EmailTemplate nt = new EmailTemplate();
-                    nt.setKey("URGENT_REMINDER");
-                    nt.setLocale(loc);
-                    nt.setSubject("⏰ Nhắc nhở: Lịch hẹn trong 2 giờ tới");
-                    nt.setHtmlBody("<div style='font-family: Arial; color: #333;'>"
-                            + "<h2>Xin chào {{name}},</h2>"
-                            + "<p>Chỉ còn <b>2 giờ</b> nữa là đến lịch hẹn của bạn.</p>"
-                            + "<div style='background: #fff3e0; padding: 15px; border-left: 4px solid #ff9800; border-radius: 4px;'>"
-                            + "  <p><b>Thời gian:</b> {{time}}</p>"
-                            + "  <p><b>Tại:</b> {{address}}</p>"
-                            + "</div>"
-                            + "<p>Vui lòng sắp xếp thời gian di chuyển nhé!</p></div>");
-                    nt.setIsActive(true);
-                    return templateRepo.save(nt);
-                });
+                .orElseGet(() -> templateRepo.save(defaultUrgentReminderTemplate(loc)));
 
         String html = render(t.getHtmlBody(), Map.of("name", user.getFullName(), "time", timeStr, "service", serviceName, "address", address));
         Patient foundPatient = (appt.getPatient() != null) ? appt.getPatient() : null;
@@ -427,6 +397,42 @@ public class MailService {
         } catch (Exception ignored) {}
     }
 
+    // Template mặc định cho nhắc lịch (dùng chung với AppointmentReminderDispatcher)
+    public static EmailTemplate defaultAppointmentReminderTemplate(String loc) {
+        EmailTemplate nt = new EmailTemplate();
+        nt.setKey("APPOINTMENT_REMINDER");
+        nt.setLocale(loc);
+        nt.setSubject("Nhắc nhở: Bạn có lịch hẹn vào ngày mai");
+        nt.setHtmlBody("<div style='font-family: Arial; color: #333;'>"
+                + "<h2>Xin chào {{name}},</h2>"
+                + "<p>Bạn có lịch hẹn nha khoa sắp tới.</p>"
+                + "<div style='background: #e3f2fd; padding: 15px; border-left: 4px solid #2196f3; border-radius: 4px;'>"
+                + "  <p><b>Thời gian:</b> {{time}}</p>"
+                + "  <p><b>Dịch vụ:</b> {{service}}</p>"
+                + "  <p><b>Địa chỉ:</b> {{address}}</p>"
+                + "</div>"
+                + "<p>Vui lòng đến đúng giờ để được phục vụ tốt nhất.</p></div>");
+        nt.setIsActive(true);
+        return nt;
+    }
+
+    public static EmailTemplate defaultUrgentReminderTemplate(String loc) {
+        EmailTemplate nt = new EmailTemplate();
+        nt.setKey("URGENT_REMINDER");
+        nt.setLocale(loc);
+        nt.setSubject("⏰ Nhắc nhở: Lịch hẹn trong 2 giờ tới");
+        nt.setHtmlBody("<div style='font-family: Arial; color: #333;'>"
+                + "<h2>Xin chào {{name}},</h2>"
+                + "<p>Chỉ còn <b>2 giờ</b> nữa là đến lịch hẹn của bạn.</p>"
+                + "<div style='background: #fff3e0; padding: 15px; border-left: 4px solid #ff9800; border-radius: 4px;'>"
+                + "  <p><b>Thời gian:</b> {{time}}</p>"
+                + "  <p><b>Tại:</b> {{address}}</p>"
+                + "</div>"
+                + "<p>Vui lòng sắp xếp thời gian di chuyển nhé!</p></div>");
+        nt.setIsActive(true);
+        return nt;
+    }
+
     private EmailTemplate createDefaultTemplate(String loc) {
         EmailTemplate nt = new EmailTemplate();
         nt.setKey("PATIENT_CODE");
@@ -0,0 +1,115 @@
+package sunshine_dental_care.services.auth_service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.entities.EmailTemplate;
+import sunshine_dental_care.repositories.auth.EmailTemplateRepo;
+
+/**
+ * Cache template email đã "biên dịch" theo key + locale.
+ * Template được tách sẵn thành các đoạn text / biến {{...}} nên render chỉ là nối chuỗi,
+ * không phải query DB và replace lại toàn bộ HTML cho từng email.
+ * Chưa có màn hình sửa template nên không có evict; sửa trực tiếp trong DB sẽ có hiệu lực sau TTL.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MailTemplateCache {
+
+    private final EmailTemplateRepo templateRepo;
+
+    @Value("${app.mail.template-cache-ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private final Map<String, CachedEntry> cache = new ConcurrentHashMap<>();
+
+    // Lấy template đã biên dịch; chưa có trong DB thì tạo từ template mặc định (giống MailService)
+    public CompiledTemplate get(String key, String locale, Supplier<EmailTemplate> defaultTemplate) {
+        String cacheKey = key + "|" + locale;
+        CachedEntry entry = cache.get(cacheKey);
+        if (entry != null && entry.expiresAt().isAfter(Instant.now())) {
+            return entry.template();
+        }
+
+        EmailTemplate t = templateRepo.findActiveByKeyAndLocale(key, locale)
+                .orElseGet(() -> templateRepo.save(defaultTemplate.get()));
+        CompiledTemplate compiled = CompiledTemplate.compile(t);
+        cache.put(cacheKey, new CachedEntry(compiled, Instant.now().plus(Duration.ofSeconds(ttlSeconds))));
+        log.debug("Compiled mail template {} ({}) into {} part(s)", key, locale, compiled.parts.size());
+        return compiled;
+    }
+
+    private record CachedEntry(CompiledTemplate template, Instant expiresAt) {}
+
+    public static final class CompiledTemplate {
+        private final EmailTemplate template;
+        private final String subject;
+        // Phần tử chẵn là text, phần tử lẻ là tên biến
+        private final List<String> parts;
+        private final int estimatedLength;
+
+        private CompiledTemplate(EmailTemplate template, List<String> parts, int estimatedLength) {
+            this.template = template;
+            this.subject = template.getSubject();
+            this.parts = parts;
+            this.estimatedLength = estimatedLength;
+        }
+
+        static CompiledTemplate compile(EmailTemplate t) {
+            String html = t.getHtmlBody() == null ? "" : t.getHtmlBody();
+            List<String> parts = new ArrayList<>();
+            int pos = 0;
+            while (true) {
+                int open = html.indexOf("{{", pos);
+                int close = open < 0 ? -1 : html.indexOf("}}", open + 2);
+                if (open < 0 || close < 0) {
+                    parts.add(html.substring(pos));
+                    break;
+                }
+                parts.add(html.substring(pos, open));
+                parts.add(html.substring(open + 2, close));
+                pos = close + 2;
+            }
+            return new CompiledTemplate(t, List.copyOf(parts), html.length() + 64);
+        }
+
+        public EmailTemplate getTemplate() {
+            return template;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        // Cùng ngữ nghĩa với MailService.render: biến được truyền với giá trị null thì để trống,
+        // biến không được truyền thì giữ nguyên placeholder {{...}}
+        public String render(Map<String, String> vars) {
+            StringBuilder sb = new StringBuilder(estimatedLength);
+            for (int i = 0; i < parts.size(); i++) {
+                if (i % 2 == 0) {
+                    sb.append(parts.get(i));
+                } else {
+                    String name = parts.get(i);
+                    if (vars.containsKey(name)) {
+                        String value = vars.get(name);
+                        if (value != null) sb.append(value);
+                    } else {
+                        sb.append("{{").append(name).append("}}");
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
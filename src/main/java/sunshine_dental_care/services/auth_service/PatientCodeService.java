@@ -1,41 +1,28 @@
 package sunshine_dental_care.services.auth_service;
 
-import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
-import sunshine_dental_care.entities.PatientSequence;
-import sunshine_dental_care.repositories.auth.PatientSequenceRepo;
-import java.time.YearMonth;
-import java.time.format.DateTimeFormatter;
+import sunshine_dental_care.services.impl.system.BlockSequenceService;
 
 @Service
 @RequiredArgsConstructor
 public class PatientCodeService {
-    private final PatientSequenceRepo seqRepo;
+    private final BlockSequenceService blockSequenceService;
 
-    private static final int GLOBAL_SEQ_CLINIC_ID = 1;
     private static final int WIDTH = 8;
 
-    @org.springframework.transaction.annotation.Transactional
+    // Số lấy từ khối đã cấp sẵn trong bộ nhớ -> không khóa dòng PatientSequences cho mỗi lần đăng ký
     public String nextPatientCode() {
-        PatientSequence seq = seqRepo.lockByClinicId(GLOBAL_SEQ_CLINIC_ID)
-                .orElseThrow(() -> new IllegalStateException(
-                        "Patient sequence not initialized (clinicId=" + GLOBAL_SEQ_CLINIC_ID + ")"));
-
-        int current = (seq.getCurrentNumber() == null ? 0 : seq.getCurrentNumber());
-        int next = current + 1;
+        BlockSequenceService.Issued issued = blockSequenceService.nextPatientNumber();
+        long next = issued.number();
 
         if (next > 99_999_999) {
             throw new IllegalStateException("Patient code capacity reached for 8-digit format; switch to 9 digits or Base36.");
         }
 
-        seq.setCurrentNumber(next);
-        seq.setUpdatedAt(java.time.Instant.now());
-
-        String prefix = (seq.getPrefix() == null || seq.getPrefix().isBlank()) ? "SDC" : seq.getPrefix();
+        String prefix = (issued.prefix() == null || issued.prefix().isBlank()) ? "SDC" : issued.prefix();
         String number = String.format("%0" + WIDTH + "d", next);
 
         return (prefix + "-" + number).toUpperCase();
     }
 }
-
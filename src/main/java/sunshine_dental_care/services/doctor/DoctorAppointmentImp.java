@@ -29,6 +29,7 @@ import sunshine_dental_care.repositories.doctor.DoctorAppointmentRepo;
 import sunshine_dental_care.repositories.doctor.DoctorRepo;
 import sunshine_dental_care.security.CurrentUser;
 import sunshine_dental_care.services.impl.notification.NotificationService;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
 import sunshine_dental_care.services.interfaces.system.AuditLogService;
 
 @Service
@@ -45,6 +46,7 @@ public class DoctorAppointmentImp implements DoctorAppointmentService{
     
     // thêm template khai báo để websocket cho lễ tân khi doc thay đổi status lịch
     private SimpMessagingTemplate messagingTemplate;
+    private ReceptionDashboardPublisher dashboardPublisher;
 
     private static final Logger logger = LoggerFactory.getLogger(DoctorAppointmentImp.class);
 
@@ -54,7 +56,8 @@ public class DoctorAppointmentImp implements DoctorAppointmentService{
                                 UserRepo userRepo,
                                 AuditLogService auditLogService,
                                 NotificationService notificationService,
-                                SimpMessagingTemplate messagingTemplate) {
+                                SimpMessagingTemplate messagingTemplate,
+                                ReceptionDashboardPublisher dashboardPublisher) {
         _doctorRepo = doctorRepo;
         _doctorAppointmentRepo = doctorAppointmentRepo;
         _medicalRecordRepository = medicalRecordRepository;
@@ -62,6 +65,7 @@ public class DoctorAppointmentImp implements DoctorAppointmentService{
         _auditLogService = auditLogService;
         _notificationService = notificationService;
         this.messagingTemplate = messagingTemplate;
+        this.dashboardPublisher = dashboardPublisher;
     }
 
     // Hàm chuyển đổi từ entity Appointment sang DTO DoctorAppointmentDTO
@@ -295,6 +299,7 @@ public class DoctorAppointmentImp implements DoctorAppointmentService{
         // Gửi tín hiệu WebSocket để Lễ tân cập nhật lại danh sách nếu status thay đổi
         if (!normalized.equals(oldStatus)) {
             messagingTemplate.convertAndSend("/topic/appointments", "REFRESH_DATA");
+            dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.STATUS_CHANGED, appointment);
             log.info("Đã gửi tín hiệu WebSocket cập nhật status lịch hẹn cho Lễ tân!");
         }
 
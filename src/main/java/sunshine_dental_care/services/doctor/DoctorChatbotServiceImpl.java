@@ -27,6 +27,7 @@ import sunshine_dental_care.entities.MedicalRecordImage;
 import sunshine_dental_care.entities.Patient;
 import sunshine_dental_care.repositories.auth.PatientRepo;
 import sunshine_dental_care.repositories.doctor.PatientInsightRepository;
+import sunshine_dental_care.services.doctor.PatientContextSnapshotService.PatientContextSnapshot;
 import sunshine_dental_care.services.impl.hr.schedule.GeminiApiClient;
 
 @Service
@@ -37,6 +38,7 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
     private final PatientInsightRepository insightRepository;
     private final PatientRepo patientRepo;
     private final GeminiApiClient geminiApiClient;
+    private final PatientContextSnapshotService contextSnapshotService;
 
     private static final DateTimeFormatter DATE_FORMAT =
             DateTimeFormatter.ofPattern("dd/MM/yyyy");
@@ -501,11 +503,13 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
 
     /* ===================== CONTEXT BUILDERS ===================== */
 
+    // Dữ liệu bệnh nhân lấy từ snapshot (query song song + cache ngắn hạn), không query lại theo từng phần
     private String buildPatientContext(Patient patient,
                                        Integer appointmentId,
                                        Integer recordId,
                                        QueryIntent intent) {
         Integer patientId = patient.getId();
+        PatientContextSnapshot snapshot = contextSnapshotService.get(patientId);
         StringBuilder ctx = new StringBuilder();
 
         ctx.append("=== PATIENT INFORMATION ===\n")
@@ -516,23 +520,26 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
         if (intent == QueryIntent.GENERAL) {
             ctx.append("=== PATIENT STATS ===\n")
                     .append("Last Visit: ")
-                    .append(formatDateTime(insightRepository.lastVisitByPatientId(patientId)))
+                    .append(formatDateTime(snapshot.lastVisit()))
                     .append("\nTotal Visits: ")
-                    .append(insightRepository.totalVisitsByPatientId(patientId))
+                    .append(snapshot.totalVisits())
                     .append("\n\n");
         }
 
         // Thêm medical records nếu liên quan
         if (intent == QueryIntent.GENERAL || intent == QueryIntent.MEDICAL_RECORD_SEARCH) {
             ctx.append("=== MEDICAL RECORDS ===\n");
-            List<MedicalRecord> medicalRecords = fetchMedicalRecords(patientId, appointmentId, recordId);
+            List<MedicalRecord> medicalRecords = fetchMedicalRecords(snapshot, appointmentId, recordId);
             if (medicalRecords.isEmpty()) {
                 ctx.append("No medical records found.\n");
             } else {
                 medicalRecords.forEach(r -> {
                     ctx.append(formatMedicalRecord(r)).append("\n");
-                    List<MedicalRecordImage> images =
-                            insightRepository.medicalImagesByRecordId(r.getId());
+                    List<MedicalRecordImage> images = snapshot.imagesByRecordId().get(r.getId());
+                    if (images == null) {
+                        // Hồ sơ ngoài snapshot (lấy theo appointmentId của bệnh nhân khác)
+                        images = insightRepository.medicalImagesByRecordId(r.getId());
+                    }
                     if (!images.isEmpty()) {
                         ctx.append("Images:\n");
                         images.forEach(img -> ctx.append(formatMedicalRecordImage(img)).append("\n"));
@@ -544,20 +551,19 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
         // Thêm appointments nếu liên quan
         if (intent == QueryIntent.GENERAL || intent == QueryIntent.APPOINTMENT_SERVICES) {
             ctx.append("\n=== COMPLETED APPOINTMENTS ===\n");
-            appendAppointments(ctx, insightRepository.completedAppointmentsByPatientId(patientId));
+            appendAppointments(ctx, snapshot.completedAppointments());
 
             ctx.append("\n=== UPCOMING APPOINTMENTS ===\n");
-            appendAppointments(ctx, insightRepository.upcomingAppointmentsByPatientId(patientId));
+            appendAppointments(ctx, snapshot.upcomingAppointments());
 
             ctx.append("\n=== OVERDUE APPOINTMENTS ===\n");
-            appendAppointments(ctx, insightRepository.overdueAppointmentsByPatientId(patientId));
+            appendAppointments(ctx, snapshot.overdueAppointments());
         }
 
         // Thêm services nếu liên quan
         if (intent == QueryIntent.GENERAL || intent == QueryIntent.SERVICE_SEARCH) {
             ctx.append("\n=== USED SERVICES ===\n");
-            List<AppointmentService> usedServices =
-                    insightRepository.usedServicesByPatientId(patientId);
+            List<AppointmentService> usedServices = snapshot.usedServices();
             if (usedServices.isEmpty()) {
                 ctx.append("No services found.\n");
             } else {
@@ -567,7 +573,7 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
 
         if (appointmentId != null) {
             ctx.append("\n=== SPECIFIC APPOINTMENT REQUESTED ===\n");
-            appendAppointmentWithServices(ctx, appointmentId, patientId);
+            appendAppointmentWithServices(ctx, snapshot, appointmentId, patientId);
         }
 
         return ctx.toString();
@@ -988,15 +994,19 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
         return variants.stream().distinct().toList();
     }
 
-    private List<MedicalRecord> fetchMedicalRecords(Integer patientId,
+    private List<MedicalRecord> fetchMedicalRecords(PatientContextSnapshot snapshot,
                                                     Integer appointmentId,
                                                     Integer recordId) {
         if (appointmentId != null) {
-            return insightRepository.medicalRecordByAppointmentId(appointmentId);
+            if (!snapshot.appointmentsById().containsKey(appointmentId)) {
+                return insightRepository.medicalRecordByAppointmentId(appointmentId);
+            }
+            return snapshot.medicalHistory().stream()
+                    .filter(r -> r.getAppointment() != null && appointmentId.equals(r.getAppointment().getId()))
+                    .collect(Collectors.toList());
         }
 
-        List<MedicalRecord> records =
-                insightRepository.medicalHistoryByPatientId(patientId);
+        List<MedicalRecord> records = snapshot.medicalHistory();
 
         if (recordId != null) {
             return records.stream()
@@ -1016,24 +1026,22 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
     }
 
     private void appendAppointmentWithServices(StringBuilder ctx,
+                                               PatientContextSnapshot snapshot,
                                                Integer appointmentId,
                                                Integer patientId) {
-        Optional<Appointment> appointmentOpt = insightRepository.findById(appointmentId);
-        if (appointmentOpt.isEmpty()) {
-            ctx.append("Appointment not found with id: ").append(appointmentId).append("\n");
-            return;
-        }
-        Appointment appointment = appointmentOpt.get();
-        if (!Objects.equals(appointment.getPatient().getId(), patientId)) {
-            ctx.append("Appointment ").append(appointmentId)
-                    .append(" does not belong to the requested patient.\n");
+        Appointment appointment = snapshot.appointmentsById().get(appointmentId);
+        if (appointment == null) {
+            // Không thuộc snapshot của bệnh nhân: chỉ cần phân biệt không tồn tại / của bệnh nhân khác
+            ctx.append(insightRepository.existsById(appointmentId)
+                    ? "Appointment " + appointmentId + " does not belong to the requested patient.\n"
+                    : "Appointment not found with id: " + appointmentId + "\n");
             return;
         }
 
         ctx.append(formatAppointment(appointment)).append("\n");
 
         List<AppointmentService> services =
-                insightRepository.appointmentServicesByAppointmentId(appointmentId);
+                snapshot.servicesByAppointmentId().getOrDefault(appointmentId, List.of());
         if (services.isEmpty()) {
             ctx.append("No services for this appointment.\n");
         } else {
@@ -1041,7 +1049,7 @@ public class DoctorChatbotServiceImpl implements DoctorChatbotService {
             services.forEach(s -> ctx.append(formatAppointmentService(s)).append("\n"));
         }
 
-        BigDecimal total = insightRepository.appointmentTotalCost(appointmentId);
+        BigDecimal total = snapshot.totalCost(appointmentId);
         ctx.append("Total Cost: ").append(formatPrice(total)).append("\n");
     }
 
@@ -0,0 +1,266 @@
+package sunshine_dental_care.services.doctor;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import sunshine_dental_care.dto.doctorDTO.MedicalRecordImageDTO;
+import sunshine_dental_care.services.upload_file.ImageStorageService;
+import sunshine_dental_care.services.upload_file.ImageStorageService.ImageUploadResult;
+import sunshine_dental_care.utils.huybro_utils.image.ImageResizeUtil;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upload nhiều ảnh cho 1 hồ sơ bệnh án trong 1 request:
+ * - Mỗi part được chuyển xuống file tạm (part multipart vốn đã nằm trên đĩa), không đọc cả file vào heap.
+ * - Thumbnail JPEG sinh tại chỗ; ảnh gốc + thumbnail upload song song, tối đa app.medical-record.upload-threads file cùng lúc.
+ * - Tất cả thành công mới ghi DB: các dòng MedicalRecordImages chèn 1 lượt bằng JDBC batch.
+ *   Lỗi ở bất kỳ bước nào -> xóa các ảnh đã upload, không ghi dòng nào (all-or-nothing).
+ */
+@Service
+@Slf4j
+public class MedicalRecordImageUploadService {
+
+    private static final String THUMBNAIL_FOLDER = "thumbs";
+
+    private static final String INSERT_IMAGE = """
+            INSERT INTO MedicalRecordImages
+                (recordId, imageUrl, imagePublicId, thumbnailUrl, thumbnailPublicId, description, aiTag, createdAt)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String SELECT_IDS = """
+            SELECT imageId, imagePublicId FROM MedicalRecordImages
+            WHERE recordId = :recordId AND imagePublicId IN (:publicIds)
+            """;
+
+    private static final String TOUCH_RECORD = "UPDATE MedicalRecords SET updatedAt = ? WHERE recordId = ?";
+
+    private final ImageStorageService imageStorageService;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService uploadExecutor;
+    private final int thumbnailSize;
+    private final float jpegQuality;
+
+    public MedicalRecordImageUploadService(ImageStorageService imageStorageService,
+                                           JdbcTemplate jdbcTemplate,
+                                           TransactionTemplate transactionTemplate,
+                                           @Value("${app.medical-record.upload-threads:4}") int uploadThreads,
+                                           @Value("${app.medical-record.thumbnail-size:320}") int thumbnailSize,
+                                           @Value("${app.image.jpeg-quality:0.85}") float jpegQuality) {
+        this.imageStorageService = imageStorageService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = transactionTemplate;
+        this.thumbnailSize = Math.max(32, thumbnailSize);
+        this.jpegQuality = jpegQuality;
+
+        AtomicInteger seq = new AtomicInteger();
+        this.uploadExecutor = Executors.newFixedThreadPool(Math.max(1, uploadThreads), r -> {
+            Thread t = new Thread(r, "record-image-upload-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 1 ảnh cần upload: file đã validate + mô tả / tag đi kèm
+    public record ImageUpload(MultipartFile file, String description, String aiTag) {}
+
+    // thumbnail = null khi ImageIO không đọc được định dạng (vd: webp) -> chỉ lưu ảnh gốc
+    private record Uploaded(ImageUpload source, ImageUploadResult original, ImageUploadResult thumbnail) {}
+
+    private record Collected(List<Uploaded> done, Throwable failure) {}
+
+    // Gọi sau khi đã kiểm tra hồ sơ tồn tại và validate file; trả về DTO theo đúng thứ tự uploads
+    public List<MedicalRecordImageDTO> upload(Integer recordId, List<ImageUpload> uploads) {
+        long started = System.currentTimeMillis();
+        String folder = "medical-records/" + recordId;
+
+        // Chuyển part xuống file tạm ngay trên thread request (part gắn với request), rồi giao cho pool upload
+        List<CompletableFuture<Uploaded>> futures = new ArrayList<>();
+        try {
+            for (ImageUpload upload : uploads) {
+                Path staged = stage(upload.file());
+                futures.add(CompletableFuture.supplyAsync(() -> uploadOne(upload, staged, folder), uploadExecutor));
+            }
+        } catch (IOException e) {
+            discard(collect(futures).done());
+            throw new RuntimeException("Failed to upload medical record images", e);
+        }
+
+        Collected collected = collect(futures);
+        List<Uploaded> uploaded = collected.done();
+        if (collected.failure() != null) {
+            discard(uploaded);
+            throw new RuntimeException("Failed to upload medical record images", collected.failure());
+        }
+
+        List<MedicalRecordImageDTO> result;
+        try {
+            result = insertRows(recordId, uploaded);
+        } catch (RuntimeException e) {
+            discard(uploaded);
+            throw e;
+        }
+        log.info("Uploaded {} image(s) to medical record {} in {} ms",
+                uploaded.size(), recordId, System.currentTimeMillis() - started);
+        return result;
+    }
+
+    private Path stage(MultipartFile file) throws IOException {
+        Path staged = Files.createTempFile("record-image-", extension(file.getOriginalFilename()));
+        try {
+            file.transferTo(staged);
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+        return staged;
+    }
+
+    private Uploaded uploadOne(ImageUpload upload, Path staged, String folder) {
+        Path thumb = null;
+        ImageUploadResult original = null;
+        try {
+            BufferedImage source = ImageIO.read(staged.toFile());
+            if (source != null) {
+                thumb = Files.createTempFile("record-thumb-", ".jpg");
+                ImageResizeUtil.writeJpeg(ImageResizeUtil.scaleToFit(source, thumbnailSize, thumbnailSize), thumb, jpegQuality);
+            } else {
+                log.debug("No ImageIO reader for {}, skipping thumbnail", upload.file().getOriginalFilename());
+            }
+
+            original = imageStorageService.upload(staged, folder);
+            ImageUploadResult thumbnail = thumb != null
+                    ? imageStorageService.upload(thumb, folder + "/" + THUMBNAIL_FOLDER)
+                    : null;
+            return new Uploaded(upload, original, thumbnail);
+        } catch (Exception e) {
+            if (original != null) deleteQuietly(original.getPublicId());
+            throw new CompletionException(e);
+        } finally {
+            deleteTemp(staged);
+            if (thumb != null) deleteTemp(thumb);
+        }
+    }
+
+    // Chờ mọi lượt upload xong (kể cả lượt lỗi) để không còn file nào upload dở khi rollback
+    private static Collected collect(List<CompletableFuture<Uploaded>> futures) {
+        List<Uploaded> done = new ArrayList<>();
+        Throwable failure = null;
+        for (CompletableFuture<Uploaded> f : futures) {
+            try {
+                done.add(f.join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.warn("Medical record image upload failed: {}", cause.getMessage());
+                if (failure == null) failure = cause;
+            }
+        }
+        return new Collected(done, failure);
+    }
+
+    private List<MedicalRecordImageDTO> insertRows(Integer recordId, List<Uploaded> uploaded) {
+        Instant now = Instant.now();
+        Timestamp createdAt = Timestamp.from(now);
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.batchUpdate(INSERT_IMAGE, uploaded, uploaded.size(), (ps, u) -> {
+                ps.setInt(1, recordId);
+                ps.setString(2, u.original().getUrl());
+                ps.setString(3, u.original().getPublicId());
+                ps.setString(4, u.thumbnail() != null ? u.thumbnail().getUrl() : null);
+                ps.setString(5, u.thumbnail() != null ? u.thumbnail().getPublicId() : null);
+                ps.setString(6, u.source().description());
+                ps.setString(7, u.source().aiTag());
+                ps.setTimestamp(8, createdAt);
+            });
+            jdbcTemplate.update(TOUCH_RECORD, createdAt, recordId);
+
+            // IDENTITY không trả về qua batch -> đọc lại id theo publicId (duy nhất cho mỗi ảnh)
+            Map<String, Integer> ids = new HashMap<>();
+            namedJdbcTemplate.query(SELECT_IDS,
+                    new MapSqlParameterSource()
+                            .addValue("recordId", recordId)
+                            .addValue("publicIds", uploaded.stream().map(u -> u.original().getPublicId()).toList()),
+                    rs -> {
+                        ids.put(rs.getString("imagePublicId"), rs.getInt("imageId"));
+                    });
+
+            List<MedicalRecordImageDTO> dtos = new ArrayList<>(uploaded.size());
+            for (Uploaded u : uploaded) {
+                dtos.add(MedicalRecordImageDTO.builder()
+                        .imageId(ids.get(u.original().getPublicId()))
+                        .imageUrl(u.original().getUrl())
+                        .thumbnailUrl(u.thumbnail() != null ? u.thumbnail().getUrl() : null)
+                        .imagePublicId(u.original().getPublicId())
+                        .description(u.source().description())
+                        .aiTag(u.source().aiTag())
+                        .createdAt(now)
+                        .build());
+            }
+            return dtos;
+        });
+    }
+
+    private void discard(List<Uploaded> uploaded) {
+        for (Uploaded u : uploaded) {
+            deleteQuietly(u.original().getPublicId());
+            if (u.thumbnail() != null) deleteQuietly(u.thumbnail().getPublicId());
+        }
+    }
+
+    private void deleteQuietly(String publicId) {
+        try {
+            imageStorageService.delete(publicId);
+        } catch (Exception e) {
+            log.warn("Failed to remove uploaded image {}: {}", publicId, e.getMessage());
+        }
+    }
+
+    private static void deleteTemp(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Failed to delete temp file {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static String extension(String name) {
+        if (name == null) return ".jpg";
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return ".jpg";
+        return switch (name.substring(dot).toLowerCase()) {
+            case ".png" -> ".png";
+            case ".webp" -> ".webp";
+            default -> ".jpg";
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdownNow();
+    }
+}
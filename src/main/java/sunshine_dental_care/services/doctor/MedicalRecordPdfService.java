@@ -1,7 +1,7 @@
 package sunshine_dental_care.services.doctor;
 
-// Note: PdfFontFactory may need font module dependency for full support
-// For now, we'll use default fonts (may not support Vietnamese fully)
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
 import com.itextpdf.io.font.PdfEncodings;
 import com.itextpdf.io.image.ImageData;
 import com.itextpdf.io.image.ImageDataFactory;
@@ -10,7 +10,10 @@ import com.itextpdf.kernel.font.PdfFont;
 import com.itextpdf.kernel.font.PdfFontFactory;
 import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.kernel.utils.PdfMerger;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.Cell;
 import com.itextpdf.layout.element.Image;
@@ -19,195 +22,420 @@ import com.itextpdf.layout.element.Table;
 import com.itextpdf.layout.properties.HorizontalAlignment;
 import com.itextpdf.layout.properties.TextAlignment;
 import com.itextpdf.layout.properties.VerticalAlignment;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 import sunshine_dental_care.entities.*;
 
-
-
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.net.URLConnection;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Xuất hồ sơ bệnh án ra PDF (font NotoSans để hiển thị tiếng Việt).
+ * - File font đọc từ classpath 1 lần; FontProgram đã parse được tái sử dụng qua pool
+ *   (mỗi lúc chỉ 1 tài liệu dùng 1 bộ, vì parser font đọc file theo vị trí -> không dùng chung song song được).
+ * - Khối header phòng khám render 1 lần cho mỗi phòng khám, chép vào từng tài liệu dạng Form XObject.
+ * - PDF ghi thẳng ra OutputStream; export nhiều hồ sơ render song song từng hồ sơ rồi ghi ra theo thứ tự.
+ * Entity truyền vào phải được fetch đầy đủ trước: thread render không được kích hoạt lazy loading.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class MedicalRecordPdfService {
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd MMMM yyyy");
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("dd MMMM yyyy HH:mm");
-    
-    // Font hỗ trợ tiếng Việt - sử dụng font mặc định có hỗ trợ Unicode
-    // Note: Standard fonts không hỗ trợ tiếng Việt, cần font file hoặc pdfCalligraph
-    // Tạm thời sử dụng font mặc định và đảm bảo encoding UTF-8
-    private PdfFont normalFont;
-    private PdfFont italicFont;
-    private PdfFont boldFont;
 
+    private static final String NORMAL_FONT_PATH = "fonts/NotoSans-VariableFont_wdth,wght.ttf";
+    private static final String BOLD_FONT_PATH = "fonts/NotoSans-BoldItalic.ttf";
+    private static final String ITALIC_FONT_PATH = "fonts/NotoSans-Italic-VariableFont_wdth,wght.ttf";
+
+    private static final float PAGE_MARGIN = 50f;
+    // Trang nháp đủ cao để đo chiều cao thật của khối header
+    private static final float HEADER_PROBE_HEIGHT = 1000f;
+    private static final int MAX_HEADER_TEMPLATES = 64;
+
+    private final ExecutorService renderExecutor;
+    private final int renderWindow;
+    private final int maxIdleFontPrograms;
+
+    // Nội dung file font (đọc 1 lần, bất biến -> dùng chung mọi thread)
+    private volatile FontFiles fontFiles;
+    // Bộ FontProgram đã parse đang rảnh
+    private final Queue<FontPrograms> idleFontPrograms = new ConcurrentLinkedQueue<>();
+    // clinic (id + nội dung header) -> PDF 1 trang chỉ chứa khối header
+    private final Map<String, byte[]> headerTemplates = new ConcurrentHashMap<>();
+
+    public MedicalRecordPdfService(@Value("${app.pdf.render-threads:4}") int renderThreads) {
+        int threads = Math.max(1, renderThreads);
+        // Giữ tối đa 2 lượt mỗi thread đã render xong mà chưa ghi ra -> bộ nhớ có giới hạn
+        this.renderWindow = threads * 2;
+        this.maxIdleFontPrograms = threads + 2;
+
+        AtomicInteger seq = new AtomicInteger();
+        this.renderExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "pdf-render-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private record FontFiles(byte[] normal, byte[] bold, byte[] italic) {}
+
+    private record FontPrograms(FontProgram normal, FontProgram bold, FontProgram italic) {}
+
+    // PdfFont gắn với đúng 1 PdfDocument nên tạo mới cho mỗi tài liệu (rẻ, chỉ bọc FontProgram)
+    private record Fonts(PdfFont normal, PdfFont bold, PdfFont italic) {}
+
+    @FunctionalInterface
+    private interface RenderedRecordSink {
+        void accept(MedicalRecord record, byte[] pdf) throws IOException;
+    }
 
     public byte[] generatePdf(MedicalRecord record) throws IOException {
-         normalFont = PdfFontFactory.createFont(
-                "fonts/NotoSans-VariableFont_wdth,wght.ttf",
-                PdfEncodings.IDENTITY_H,
-                PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED
-        );
-
-        boldFont = PdfFontFactory.createFont(
-                "fonts/NotoSans-BoldItalic.ttf",
-                PdfEncodings.IDENTITY_H,
-                PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED
-        );
-
-        italicFont = PdfFontFactory.createFont(
-                "fonts/NotoSans-Italic-VariableFont_wdth,wght.ttf",
-                PdfEncodings.IDENTITY_H,
-                PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED
-        );
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PdfWriter writer = new PdfWriter(baos);
-        PdfDocument pdf = new PdfDocument(writer);
-        Document document = new Document(pdf, PageSize.A4);
-        document.setFont(normalFont);
-        document.setMargins(50, 50, 50, 50);
-        
-
+        writePdf(record, baos);
+        return baos.toByteArray();
+    }
 
+    // Ghi PDF của 1 hồ sơ thẳng ra out (trang nào xong được flush ra ngay); out bị đóng khi xong
+    public void writePdf(MedicalRecord record, OutputStream out) throws IOException {
+        FontPrograms programs = borrowFontPrograms();
         try {
-            // Header Section
-            addHeader(document, record.getClinic());
-            
-            // Title
-            Paragraph title = new Paragraph("DENTAL TREATMENT RECORD");
-            if (boldFont != null) title.setFont(boldFont);
-            title.setFontSize(18)
-                    .setBold()
-                    .setTextAlignment(TextAlignment.CENTER)
-                    .setMarginBottom(10);
-            document.add(title);
-
-            // Date and Patient ID
-            Paragraph dateInfo = new Paragraph();
-            if (normalFont != null) dateInfo.setFont(normalFont);
-            if (record.getRecordDate() != null) {
-                dateInfo.add("Date: " + record.getRecordDate().format(DATE_FORMATTER));
-            }
-            if (record.getPatient() != null && record.getPatient().getPatientCode() != null) {
-                dateInfo.add(" | Patient ID: " + record.getPatient().getPatientCode());
-            }
-            dateInfo.setTextAlignment(TextAlignment.CENTER)
-                    .setMarginBottom(20);
-            document.add(dateInfo);
-
-            // Patient Information Section
-            addPatientInfo(document, record.getPatient());
-            
-            // Doctor Information
-            addDoctorInfo(document, record.getDoctor());
-
-            // Appointment Information (if available)
-            if (record.getAppointment() != null) {
-                addAppointmentInfo(document, record.getAppointment());
+            PdfDocument pdf = new PdfDocument(new PdfWriter(out));
+            Document document = new Document(pdf, PageSize.A4);
+            try {
+                Fonts fonts = fonts(programs);
+                document.setFont(fonts.normal());
+                document.setMargins(PAGE_MARGIN, PAGE_MARGIN, PAGE_MARGIN, PAGE_MARGIN);
+                addRecord(document, record, fonts);
+            } catch (Exception e) {
+                document.close();
+                throw new IOException("Failed to generate PDF", e);
             }
+            document.close();
+        } finally {
+            releaseFontPrograms(programs);
+        }
+    }
 
-            // Service and Variant Information
-            addServiceInfo(document, record);
+    // Gộp nhiều hồ sơ thành 1 PDF theo đúng thứ tự records
+    public void writeMergedPdf(List<MedicalRecord> records, OutputStream out) throws IOException {
+        PdfWriter writer = new PdfWriter(out);
+        // Smart mode: header / font subset giống hệt nhau giữa các hồ sơ chỉ ghi 1 lần
+        writer.setSmartMode(true);
+        try (PdfDocument merged = new PdfDocument(writer)) {
+            PdfMerger merger = new PdfMerger(merged).setCloseSourceDocuments(true);
+            renderInOrder(records, (record, pdf) -> {
+                PdfDocument source = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)));
+                int from = merged.getNumberOfPages() + 1;
+                merger.merge(source, 1, source.getNumberOfPages());
+                // Trang đã chép xong thì flush ra response, không giữ cả file trong heap
+                for (int i = from; i <= merged.getNumberOfPages(); i++) {
+                    merged.getPage(i).flush();
+                }
+            });
+        }
+    }
 
-            // Diagnosis Section
-            if (record.getDiagnosis() != null && !record.getDiagnosis().trim().isEmpty()) {
-                addSection(document, "Diagnosis", record.getDiagnosis());
-            }
+    // Mỗi hồ sơ 1 file PDF trong ZIP, entry nào render xong là ghi ra ngay
+    public void writeZip(List<MedicalRecord> records, OutputStream out) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            // PDF đã nén sẵn, nén thêm tốn CPU mà gần như không nhỏ đi
+            zip.setLevel(Deflater.BEST_SPEED);
+            renderInOrder(records, (record, pdf) -> {
+                zip.putNextEntry(new ZipEntry("medical-record-" + record.getRecordDate() + "-" + record.getId() + ".pdf"));
+                zip.write(pdf);
+                zip.closeEntry();
+                zip.flush();
+            });
+        }
+    }
 
-            // Treatment Plan Section
-            if (record.getTreatmentPlan() != null && !record.getTreatmentPlan().trim().isEmpty()) {
-                addSection(document, "Treatment Plan", record.getTreatmentPlan());
+    // Render song song (tối đa renderWindow hồ sơ chạy trước), trả kết quả cho sink theo đúng thứ tự
+    private void renderInOrder(List<MedicalRecord> records, RenderedRecordSink sink) throws IOException {
+        Deque<Future<byte[]>> window = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            for (MedicalRecord record : records) {
+                while (submitted < records.size() && window.size() < renderWindow) {
+                    MedicalRecord next = records.get(submitted++);
+                    window.add(renderExecutor.submit(() -> generatePdf(next)));
+                }
+                sink.accept(record, await(window.poll()));
             }
+        } finally {
+            window.forEach(f -> f.cancel(true));
+        }
+    }
 
-            // Prescription Section
-            if (record.getPrescriptionNote() != null && !record.getPrescriptionNote().trim().isEmpty()) {
-                addSection(document, "Prescription", record.getPrescriptionNote());
-            }
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("PDF export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to generate PDF", e.getCause());
+        }
+    }
 
-            // Notes Section
-            if (record.getNote() != null && !record.getNote().trim().isEmpty()) {
-                addSection(document, "Notes", record.getNote());
-            }
+    private void addRecord(Document document, MedicalRecord record, Fonts fonts) throws IOException {
+        // Header Section
+        addHeader(document, record.getClinic());
+
+        // Title
+        Paragraph title = new Paragraph("DENTAL TREATMENT RECORD");
+        if (fonts.bold() != null) title.setFont(fonts.bold());
+        title.setFontSize(18)
+                .setBold()
+                .setTextAlignment(TextAlignment.CENTER)
+                .setMarginBottom(10);
+        document.add(title);
+
+        // Date and Patient ID
+        Paragraph dateInfo = new Paragraph();
+        if (fonts.normal() != null) dateInfo.setFont(fonts.normal());
+        if (record.getRecordDate() != null) {
+            dateInfo.add("Date: " + record.getRecordDate().format(DATE_FORMATTER));
+        }
+        if (record.getPatient() != null && record.getPatient().getPatientCode() != null) {
+            dateInfo.add(" | Patient ID: " + record.getPatient().getPatientCode());
+        }
+        dateInfo.setTextAlignment(TextAlignment.CENTER)
+                .setMarginBottom(20);
+        document.add(dateInfo);
+
+        // Patient Information Section
+        addPatientInfo(document, record.getPatient(), fonts);
+
+        // Doctor Information
+        addDoctorInfo(document, record.getDoctor(), fonts);
+
+        // Appointment Information (if available)
+        if (record.getAppointment() != null) {
+            addAppointmentInfo(document, record.getAppointment(), fonts);
+        }
+
+        // Service and Variant Information
+        addServiceInfo(document, record, fonts);
+
+        // Diagnosis Section
+        if (record.getDiagnosis() != null && !record.getDiagnosis().trim().isEmpty()) {
+            addSection(document, "Diagnosis", record.getDiagnosis(), fonts);
+        }
+
+        // Treatment Plan Section
+        if (record.getTreatmentPlan() != null && !record.getTreatmentPlan().trim().isEmpty()) {
+            addSection(document, "Treatment Plan", record.getTreatmentPlan(), fonts);
+        }
+
+        // Prescription Section
+        if (record.getPrescriptionNote() != null && !record.getPrescriptionNote().trim().isEmpty()) {
+            addSection(document, "Prescription", record.getPrescriptionNote(), fonts);
+        }
 
-            // Images Section
-            log.info("[PDF] Checking for images in medical record. Images collection: {}", 
-                    record.getMedicalRecordImages() != null ? "not null" : "null");
-            if (record.getMedicalRecordImages() != null) {
-                log.info("[PDF] Images collection size: {}", record.getMedicalRecordImages().size());
-                if (!record.getMedicalRecordImages().isEmpty()) {
-                    addImagesSection(document, record.getMedicalRecordImages());
-                } else {
-                    log.warn("[PDF] Images collection is empty");
+        // Notes Section
+        if (record.getNote() != null && !record.getNote().trim().isEmpty()) {
+            addSection(document, "Notes", record.getNote(), fonts);
+        }
+
+        // Images Section
+        if (record.getMedicalRecordImages() != null && !record.getMedicalRecordImages().isEmpty()) {
+            addImagesSection(document, record.getMedicalRecordImages());
+        } else {
+            log.debug("[PDF] Medical record {} has no images", record.getId());
+        }
+
+        // Footer with signatures
+//            addSignatureSection(document);
+    }
+
+    // ===== FONT =====
+
+    private FontFiles fontFiles() throws IOException {
+        FontFiles files = fontFiles;
+        if (files == null) {
+            synchronized (this) {
+                files = fontFiles;
+                if (files == null) {
+                    files = new FontFiles(readFont(NORMAL_FONT_PATH), readFont(BOLD_FONT_PATH), readFont(ITALIC_FONT_PATH));
+                    fontFiles = files;
                 }
-            } else {
-                log.warn("[PDF] Images collection is null");
             }
+        }
+        return files;
+    }
 
-            // Footer with signatures
-//            addSignatureSection(document);
+    private static byte[] readFont(String path) throws IOException {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
 
-            document.close();
-            return baos.toByteArray();
-        } catch (Exception e) {
-            document.close();
-            throw new IOException("Failed to generate PDF", e);
+    private FontPrograms borrowFontPrograms() throws IOException {
+        FontPrograms programs = idleFontPrograms.poll();
+        if (programs != null) return programs;
+        FontFiles files = fontFiles();
+        // cached = false: không đẩy vào FontCache toàn cục của iText (dùng chung không an toàn giữa các thread)
+        return new FontPrograms(
+                FontProgramFactory.createFont(files.normal(), false),
+                FontProgramFactory.createFont(files.bold(), false),
+                FontProgramFactory.createFont(files.italic(), false));
+    }
+
+    private void releaseFontPrograms(FontPrograms programs) {
+        if (idleFontPrograms.size() < maxIdleFontPrograms) {
+            idleFontPrograms.offer(programs);
         }
     }
 
-    private void addHeader(Document document, Clinic clinic) {
-        if (clinic != null) {
-            Paragraph clinicName = new Paragraph(clinic.getClinicName() != null ? clinic.getClinicName() : "DENTAL CLINIC");
-            if (boldFont != null) clinicName.setFont(boldFont);
-            clinicName.setFontSize(16)
-                    .setBold()
-                    .setTextAlignment(TextAlignment.CENTER)
-                    .setMarginBottom(5);
-            document.add(clinicName);
-
-            if (clinic.getAddress() != null) {
-                Paragraph address = new Paragraph("Address: " + clinic.getAddress());
-                if (normalFont != null) address.setFont(normalFont);
-                address.setFontSize(10)
-                        .setTextAlignment(TextAlignment.CENTER)
-                        .setMarginBottom(2);
-                document.add(address);
-            }
+    private static Fonts fonts(FontPrograms programs) {
+        return new Fonts(
+                PdfFontFactory.createFont(programs.normal(), PdfEncodings.IDENTITY_H, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED),
+                PdfFontFactory.createFont(programs.bold(), PdfEncodings.IDENTITY_H, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED),
+                PdfFontFactory.createFont(programs.italic(), PdfEncodings.IDENTITY_H, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED));
+    }
+
+    // ===== HEADER =====
+
+    private void addHeader(Document document, Clinic clinic) throws IOException {
+        if (clinic == null) return;
+        byte[] template = headerTemplate(clinic);
+        try (PdfDocument source = new PdfDocument(new PdfReader(new ByteArrayInputStream(template)))) {
+            PdfFormXObject header = source.getFirstPage().copyAsFormXObject(document.getPdfDocument());
+            document.add(new Image(header));
+        }
+    }
+
+    private byte[] headerTemplate(Clinic clinic) throws IOException {
+        String key = clinic.getId() + "|" + clinic.getClinicName() + "|" + clinic.getAddress()
+                + "|" + clinic.getPhone() + "|" + clinic.getEmail();
+        byte[] template = headerTemplates.get(key);
+        if (template != null) return template;
 
-            if (clinic.getPhone() != null) {
-                Paragraph phone = new Paragraph("Phone: " + clinic.getPhone());
-                if (normalFont != null) phone.setFont(normalFont);
-                phone.setFontSize(10)
-                        .setTextAlignment(TextAlignment.CENTER)
-                        .setMarginBottom(2);
-                document.add(phone);
+        // Thông tin phòng khám đổi thì key đổi; dọn bớt key cũ để map không phình mãi
+        if (headerTemplates.size() >= MAX_HEADER_TEMPLATES) headerTemplates.clear();
+        try {
+            return headerTemplates.computeIfAbsent(key, k -> {
+                try {
+                    return renderHeaderTemplate(clinic);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Trang rộng đúng bằng vùng nội dung A4, cao đúng bằng khối header (đo trên trang nháp trước)
+    private byte[] renderHeaderTemplate(Clinic clinic) throws IOException {
+        float width = PageSize.A4.getWidth() - 2 * PAGE_MARGIN;
+        FontPrograms programs = borrowFontPrograms();
+        try {
+            float height;
+            try (Document probe = new Document(new PdfDocument(new PdfWriter(OutputStream.nullOutputStream())),
+                    new PageSize(width, HEADER_PROBE_HEIGHT))) {
+                probe.setMargins(0, 0, 0, 0);
+                addHeaderBlock(probe, clinic, fonts(programs));
+                height = HEADER_PROBE_HEIGHT - probe.getRenderer().getCurrentArea().getBBox().getTop();
             }
 
-            if (clinic.getEmail() != null) {
-                Paragraph email = new Paragraph("Email: " + clinic.getEmail());
-                if (normalFont != null) email.setFont(normalFont);
-                email.setFontSize(10)
-                        .setTextAlignment(TextAlignment.CENTER)
-                        .setMarginBottom(15);
-                document.add(email);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Document template = new Document(new PdfDocument(new PdfWriter(out)),
+                    new PageSize(width, (float) Math.ceil(height) + 1))) {
+                template.setMargins(0, 0, 0, 0);
+                addHeaderBlock(template, clinic, fonts(programs));
             }
+            return out.toByteArray();
+        } finally {
+            releaseFontPrograms(programs);
+        }
+    }
+
+    private void addHeaderBlock(Document document, Clinic clinic, Fonts fonts) {
+        Paragraph clinicName = new Paragraph(clinic.getClinicName() != null ? clinic.getClinicName() : "DENTAL CLINIC");
+        if (fonts.bold() != null) clinicName.setFont(fonts.bold());
+        clinicName.setFontSize(16)
+                .setBold()
+                .setTextAlignment(TextAlignment.CENTER)
+                .setMarginBottom(5);
+        document.add(clinicName);
+
+        if (clinic.getAddress() != null) {
+            Paragraph address = new Paragraph("Address: " + clinic.getAddress());
+            if (fonts.normal() != null) address.setFont(fonts.normal());
+            address.setFontSize(10)
+                    .setTextAlignment(TextAlignment.CENTER)
+                    .setMarginBottom(2);
+            document.add(address);
         }
+
+        if (clinic.getPhone() != null) {
+            Paragraph phone = new Paragraph("Phone: " + clinic.getPhone());
+            if (fonts.normal() != null) phone.setFont(fonts.normal());
+            phone.setFontSize(10)
+                    .setTextAlignment(TextAlignment.CENTER)
+                    .setMarginBottom(2);
+            document.add(phone);
+        }
+
+        if (clinic.getEmail() != null) {
+            Paragraph email = new Paragraph("Email: " + clinic.getEmail());
+            if (fonts.normal() != null) email.setFont(fonts.normal());
+            email.setFontSize(10)
+                    .setTextAlignment(TextAlignment.CENTER)
+                    .setMarginBottom(15);
+            document.add(email);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renderExecutor.shutdownNow();
+    }
+
+    int idleFontProgramCount() {
+        return idleFontPrograms.size();
+    }
+
+    int headerTemplateCount() {
+        return headerTemplates.size();
     }
 
-    private void addPatientInfo(Document document, Patient patient) {
+    private void addPatientInfo(Document document, Patient patient, Fonts fonts) {
         if (patient == null) return;
 
         Paragraph sectionTitle = new Paragraph("PATIENT INFORMATION");
-        if (boldFont != null) sectionTitle.setFont(boldFont);
+        if (fonts.bold() != null) sectionTitle.setFont(fonts.bold());
         sectionTitle.setFontSize(12)
                 .setBold()
                 .setMarginTop(10)
@@ -217,36 +445,36 @@ public class MedicalRecordPdfService {
         Table table = new Table(2).useAllAvailableWidth();
         table.setMarginBottom(10);
 
-        addTableRow(table, "Full Name:", patient.getFullName() != null ? patient.getFullName() : "N/A");
+        addTableRow(table, "Full Name:", patient.getFullName() != null ? patient.getFullName() : "N/A", fonts);
         
         if (patient.getGender() != null) {
-            addTableRow(table, "Gender:", patient.getGender());
+            addTableRow(table, "Gender:", patient.getGender(), fonts);
         }
         
         if (patient.getDateOfBirth() != null) {
-            addTableRow(table, "Date of Birth:", patient.getDateOfBirth().format(DATE_FORMATTER));
+            addTableRow(table, "Date of Birth:", patient.getDateOfBirth().format(DATE_FORMATTER), fonts);
         }
         
         if (patient.getPhone() != null) {
-            addTableRow(table, "Phone:", patient.getPhone());
+            addTableRow(table, "Phone:", patient.getPhone(), fonts);
         }
         
         if (patient.getEmail() != null) {
-            addTableRow(table, "Email:", patient.getEmail());
+            addTableRow(table, "Email:", patient.getEmail(), fonts);
         }
         
         if (patient.getAddress() != null) {
-            addTableRow(table, "Address:", patient.getAddress());
+            addTableRow(table, "Address:", patient.getAddress(), fonts);
         }
 
         document.add(table);
     }
 
-    private void addDoctorInfo(Document document, User doctor) {
+    private void addDoctorInfo(Document document, User doctor, Fonts fonts) {
         if (doctor == null) return;
 
         Paragraph sectionTitle = new Paragraph("TREATING DOCTOR");
-        if (boldFont != null) sectionTitle.setFont(boldFont);
+        if (fonts.bold() != null) sectionTitle.setFont(fonts.bold());
         sectionTitle.setFontSize(12)
                 .setBold()
                 .setMarginTop(10)
@@ -256,26 +484,26 @@ public class MedicalRecordPdfService {
         Table table = new Table(2).useAllAvailableWidth();
         table.setMarginBottom(10);
 
-        addTableRow(table, "Doctor Name:", doctor.getFullName() != null ? doctor.getFullName() : "N/A");
+        addTableRow(table, "Doctor Name:", doctor.getFullName() != null ? doctor.getFullName() : "N/A", fonts);
         
         if (doctor.getCode() != null) {
-            addTableRow(table, "Doctor Code:", doctor.getCode());
+            addTableRow(table, "Doctor Code:", doctor.getCode(), fonts);
         }
         
         if (doctor.getEmail() != null) {
-            addTableRow(table, "Email:", doctor.getEmail());
+            addTableRow(table, "Email:", doctor.getEmail(), fonts);
         }
         
         if (doctor.getPhone() != null) {
-            addTableRow(table, "Phone:", doctor.getPhone());
+            addTableRow(table, "Phone:", doctor.getPhone(), fonts);
         }
 
         document.add(table);
     }
 
-    private void addAppointmentInfo(Document document, Appointment appointment) {
+    private void addAppointmentInfo(Document document, Appointment appointment, Fonts fonts) {
         Paragraph sectionTitle = new Paragraph("APPOINTMENT INFORMATION");
-        if (boldFont != null) sectionTitle.setFont(boldFont);
+        if (fonts.bold() != null) sectionTitle.setFont(fonts.bold());
         sectionTitle.setFontSize(12)
                 .setBold()
                 .setMarginTop(10)
@@ -289,21 +517,21 @@ public class MedicalRecordPdfService {
             String formattedDate = appointment.getStartDateTime()
                     .atZone(ZoneId.systemDefault())
                     .format(DATETIME_FORMATTER);
-            addTableRow(table, "Appointment Date:", formattedDate);
+            addTableRow(table, "Appointment Date:", formattedDate, fonts);
         }
         
         if (appointment.getStatus() != null) {
-            addTableRow(table, "Status:", appointment.getStatus());
+            addTableRow(table, "Status:", appointment.getStatus(), fonts);
         }
         
         if (appointment.getNote() != null) {
-            addTableRow(table, "Note:", appointment.getNote());
+            addTableRow(table, "Note:", appointment.getNote(), fonts);
         }
 
         document.add(table);
     }
 
-    private void addServiceInfo(Document document, MedicalRecord record) {
+    private void addServiceInfo(Document document, MedicalRecord record, Fonts fonts) {
         sunshine_dental_care.entities.Service service = record.getService();
         ServiceVariant serviceVariant = record.getServiceVariant();
         AppointmentService appointmentService = record.getAppointmentService();
@@ -319,7 +547,7 @@ public class MedicalRecordPdfService {
         }
 
         Paragraph sectionTitle = new Paragraph("SERVICE INFORMATION");
-        if (boldFont != null) sectionTitle.setFont(boldFont);
+        if (fonts.bold() != null) sectionTitle.setFont(fonts.bold());
         sectionTitle.setFontSize(12)
                 .setBold()
                 .setMarginTop(10)
@@ -331,56 +559,56 @@ public class MedicalRecordPdfService {
 
         if (service != null) {
             if (service.getServiceName() != null) {
-                addTableRow(table, "Service Name:", service.getServiceName());
+                addTableRow(table, "Service Name:", service.getServiceName(), fonts);
             }
             if (service.getCategory() != null) {
-                addTableRow(table, "Category:", service.getCategory());
+                addTableRow(table, "Category:", service.getCategory(), fonts);
             }
             if (service.getDescription() != null) {
-                addTableRow(table, "Service Description:", service.getDescription());
+                addTableRow(table, "Service Description:", service.getDescription(), fonts);
             }
             if (service.getDefaultDuration() != null) {
-                addTableRow(table, "Default Duration (minutes):", String.valueOf(service.getDefaultDuration()));
+                addTableRow(table, "Default Duration (minutes):", String.valueOf(service.getDefaultDuration()), fonts);
             }
         }
 
         if (serviceVariant != null) {
             if (serviceVariant.getVariantName() != null) {
-                addTableRow(table, "Variant Name:", serviceVariant.getVariantName());
+                addTableRow(table, "Variant Name:", serviceVariant.getVariantName(), fonts);
             }
             if (serviceVariant.getDescription() != null) {
-                addTableRow(table, "Variant Description:", serviceVariant.getDescription());
+                addTableRow(table, "Variant Description:", serviceVariant.getDescription(), fonts);
             }
             if (serviceVariant.getDuration() != null) {
-                addTableRow(table, "Duration (minutes):", String.valueOf(serviceVariant.getDuration()));
+                addTableRow(table, "Duration (minutes):", String.valueOf(serviceVariant.getDuration()), fonts);
             }
             if (serviceVariant.getPrice() != null) {
                 String currency = serviceVariant.getCurrency() != null ? serviceVariant.getCurrency() : "VND";
-                addTableRow(table, "Price:", formatPrice(serviceVariant.getPrice(), currency));
+                addTableRow(table, "Price:", formatPrice(serviceVariant.getPrice(), currency), fonts);
             }
         }
 
         if (appointmentService != null) {
             if (appointmentService.getQuantity() != null) {
-                addTableRow(table, "Quantity:", String.valueOf(appointmentService.getQuantity()));
+                addTableRow(table, "Quantity:", String.valueOf(appointmentService.getQuantity()), fonts);
             }
             if (appointmentService.getUnitPrice() != null) {
-                addTableRow(table, "Unit Price:", formatPrice(appointmentService.getUnitPrice(), "VND"));
+                addTableRow(table, "Unit Price:", formatPrice(appointmentService.getUnitPrice(), "VND"), fonts);
             }
             if (appointmentService.getDiscountPct() != null) {
-                addTableRow(table, "Discount (%):", String.valueOf(appointmentService.getDiscountPct()));
+                addTableRow(table, "Discount (%):", String.valueOf(appointmentService.getDiscountPct()), fonts);
             }
             if (appointmentService.getNote() != null) {
-                addTableRow(table, "Service Note:", appointmentService.getNote());
+                addTableRow(table, "Service Note:", appointmentService.getNote(), fonts);
             }
         }
 
         document.add(table);
     }
 
-    private void addSection(Document document, String title, String content) {
+    private void addSection(Document document, String title, String content, Fonts fonts) {
         Paragraph sectionTitle = new Paragraph(title.toUpperCase());
-        if (boldFont != null) sectionTitle.setFont(boldFont);
+        if (fonts.bold() != null) sectionTitle.setFont(fonts.bold());
         sectionTitle.setFontSize(12)
                 .setBold()
                 .setMarginTop(10)
@@ -388,8 +616,7 @@ public class MedicalRecordPdfService {
         document.add(sectionTitle);
 
         Paragraph contentPara = new Paragraph(content);
-        if (normalFont != null) contentPara.setFont(normalFont
-        );
+        if (fonts.normal() != null) contentPara.setFont(fonts.normal());
         contentPara.setFontSize(10)
                 .setMarginBottom(10);
         document.add(contentPara);
@@ -598,15 +825,15 @@ public class MedicalRecordPdfService {
 //        document.add(signatureTable);
 //    }
 
-    private void addTableRow(Table table, String label, String value) {
+    private void addTableRow(Table table, String label, String value, Fonts fonts) {
         Paragraph labelPara = new Paragraph(label);
-        if (boldFont != null) labelPara.setFont(boldFont);
+        if (fonts.bold() != null) labelPara.setFont(fonts.bold());
         labelPara.setFontSize(10)
                 .setBold();
         table.addCell(labelPara);
 
         Paragraph valuePara = new Paragraph(value != null ? value : "N/A");
-        if (normalFont != null) valuePara.setFont(normalFont);
+        if (fonts.normal() != null) valuePara.setFont(fonts.normal());
         valuePara.setFontSize(10);
         table.addCell(valuePara);
     }
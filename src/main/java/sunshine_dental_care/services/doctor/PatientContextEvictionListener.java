@@ -0,0 +1,50 @@
+package sunshine_dental_care.services.doctor;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.hibernate.Hibernate;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.AppointmentService;
+import sunshine_dental_care.entities.MedicalRecord;
+import sunshine_dental_care.entities.Patient;
+
+/**
+ * Entity listener của Appointment / AppointmentService / MedicalRecord: lịch hẹn, dịch vụ của lịch hẹn hoặc
+ * hồ sơ bệnh án của bệnh nhân đổi -> bỏ snapshot context chatbot của bệnh nhân đó.
+ * Chỉ đọc id của proxy Patient, không kích hoạt lazy load (đang trong lúc flush).
+ * Hibernate tự tạo listener nên PatientContextSnapshotService tự đăng ký vào đây khi khởi động.
+ */
+public class PatientContextEvictionListener {
+
+    private static volatile PatientContextSnapshotService snapshots;
+
+    static void register(PatientContextSnapshotService patientContextSnapshotService) {
+        snapshots = patientContextSnapshotService;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void changed(Object entity) {
+        PatientContextSnapshotService current = snapshots;
+        if (current == null) return;
+        Patient patient = null;
+        if (entity instanceof Appointment appointment) {
+            patient = appointment.getPatient();
+        } else if (entity instanceof MedicalRecord record) {
+            patient = record.getPatient();
+        } else if (entity instanceof AppointmentService service) {
+            Appointment appointment = service.getAppointment();
+            if (appointment != null && !Hibernate.isInitialized(appointment)) {
+                // Lấy bệnh nhân phải nạp lịch hẹn giữa lúc flush -> bỏ hết snapshot cho an toàn
+                current.evictAll();
+                return;
+            }
+            if (appointment != null) patient = appointment.getPatient();
+        }
+        if (patient != null && patient.getId() != null) {
+            current.evict(patient.getId());
+        }
+    }
+}
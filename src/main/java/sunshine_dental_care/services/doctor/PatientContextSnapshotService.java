@@ -0,0 +1,250 @@
+package sunshine_dental_care.services.doctor;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.AppointmentService;
+import sunshine_dental_care.entities.MedicalRecord;
+import sunshine_dental_care.entities.MedicalRecordImage;
+import sunshine_dental_care.repositories.doctor.PatientInsightRepository;
+
+/**
+ * Snapshot dữ liệu bệnh nhân dùng làm context cho chatbot bác sĩ:
+ * - 3 query fetch-join (lịch hẹn, dịch vụ của các lịch hẹn, bệnh án + ảnh) chạy lần lượt trong 1 transaction
+ *   chỉ đọc, dùng chung connection với transaction của người gọi nếu có; thống kê / phân loại lịch hẹn
+ *   tính trong bộ nhớ -> không còn N+1 ảnh theo từng hồ sơ.
+ * - Cache theo bệnh nhân, sống app.chatbot.context-ttl-ms; câu hỏi tiếp theo về cùng bệnh nhân không chạm DB.
+ * - Lịch hẹn / dịch vụ của lịch hẹn / hồ sơ bệnh án đổi -> bỏ snapshot (PatientContextEvictionListener,
+ *   upload ảnh qua JDBC gọi evict trực tiếp). Snapshot đang dựng dở lúc bị evict thì không được đưa vào cache.
+ *   Ngoại lệ: ghi hàng loạt không qua entity (MERGE lịch điều trị, UPDATE trạng thái bằng JPQL) không kích hoạt
+ *   listener -> snapshot cũ sống tối đa hết TTL.
+ * Entity trong snapshot đã fetch đủ các quan hệ được in ra, chỉ đọc, không dùng để ghi.
+ */
+@Service
+@Slf4j
+public class PatientContextSnapshotService {
+
+    private static final Set<String> UPCOMING_STATUSES = Set.of("BOOKED", "CONFIRMED");
+    private static final Set<String> CLOSED_STATUSES = Set.of("COMPLETED", "CANCELLED");
+    private static final int MAX_ENTRIES = 500;
+
+    private final PatientInsightRepository insightRepository;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final long ttlMs;
+
+    private final Map<Integer, Entry> cache = new ConcurrentHashMap<>();
+    // patientId -> lần dựng snapshot đang chạy (nhiều request cùng lúc chỉ dựng 1 lần)
+    private final Map<Integer, CompletableFuture<PatientContextSnapshot>> inFlight = new ConcurrentHashMap<>();
+    // patientId -> thế hệ của lần evict gần nhất (số tăng dần toàn cục, không lặp lại sau khi dọn)
+    private final Map<Integer, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PatientContextSnapshotService(PatientInsightRepository insightRepository,
+                                         TransactionTemplate transactionTemplate,
+                                         @Value("${app.chatbot.context-ttl-ms:120000}") long ttlMs) {
+        this.insightRepository = insightRepository;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.ttlMs = ttlMs;
+        PatientContextEvictionListener.register(this);
+    }
+
+    private record Entry(PatientContextSnapshot snapshot, long expiresAt) {}
+
+    public record PatientContextSnapshot(
+            Instant lastVisit,
+            long totalVisits,
+            List<MedicalRecord> medicalHistory,
+            Map<Integer, List<MedicalRecordImage>> imagesByRecordId,
+            List<Appointment> completedAppointments,
+            List<Appointment> upcomingAppointments,
+            List<Appointment> overdueAppointments,
+            List<AppointmentService> usedServices,
+            Map<Integer, Appointment> appointmentsById,
+            Map<Integer, List<AppointmentService>> servicesByAppointmentId) {
+
+        // Tổng tiền dịch vụ của 1 lịch hẹn (giống appointmentTotalCost); null nếu lịch hẹn không có dịch vụ
+        public BigDecimal totalCost(Integer appointmentId) {
+            List<AppointmentService> services = servicesByAppointmentId.getOrDefault(appointmentId, List.of());
+            if (services.isEmpty()) return null;
+            BigDecimal total = BigDecimal.ZERO;
+            for (AppointmentService s : services) {
+                if (s.getQuantity() == null || s.getUnitPrice() == null) continue;
+                BigDecimal discount = s.getDiscountPct() != null ? s.getDiscountPct() : BigDecimal.ZERO;
+                total = total.add(s.getUnitPrice()
+                        .multiply(BigDecimal.valueOf(s.getQuantity()))
+                        .multiply(BigDecimal.ONE.subtract(discount.movePointLeft(2))));
+            }
+            return total;
+        }
+    }
+
+    public PatientContextSnapshot get(Integer patientId) {
+        Entry entry = cache.get(patientId);
+        if (entry != null && entry.expiresAt() > System.currentTimeMillis()) {
+            return entry.snapshot();
+        }
+
+        CompletableFuture<PatientContextSnapshot> mine = new CompletableFuture<>();
+        CompletableFuture<PatientContextSnapshot> running = inFlight.putIfAbsent(patientId, mine);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            long generation = generations.getOrDefault(patientId, 0L);
+            PatientContextSnapshot snapshot = build(patientId);
+            if (cache.size() >= MAX_ENTRIES || generations.size() >= MAX_ENTRIES) purgeExpired();
+            // compute khóa đúng key đang bị evict -> so sánh thế hệ và put là 1 bước, không chen được evict
+            generations.compute(patientId, (id, current) -> {
+                if ((current == null ? 0L : current) == generation) {
+                    cache.put(patientId, new Entry(snapshot, System.currentTimeMillis() + ttlMs));
+                } else {
+                    log.debug("Patient {} changed while building its context snapshot, not caching it", patientId);
+                }
+                return current;
+            });
+            mine.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(patientId, mine);
+        }
+    }
+
+    // Bỏ ngay và bỏ thêm lần nữa sau commit: snapshot dựng trong lúc transaction chưa commit sẽ không sống sót
+    public void evict(Integer patientId) {
+        invalidate(patientId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(patientId);
+                }
+            });
+        }
+    }
+
+    // Không xác định được bệnh nhân (vd: proxy lịch hẹn chưa nạp) -> bỏ toàn bộ
+    public void evictAll() {
+        invalidateAll();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateAll();
+                }
+            });
+        }
+    }
+
+    private void invalidate(Integer patientId) {
+        generations.compute(patientId, (id, current) -> {
+            cache.remove(id);
+            return evictions.incrementAndGet();
+        });
+    }
+
+    private void invalidateAll() {
+        // Đánh dấu cả các bệnh nhân đang dựng dở (chưa có trong cache) để lần dựng đó không được put
+        for (Integer patientId : inFlight.keySet()) invalidate(patientId);
+        for (Integer patientId : cache.keySet()) invalidate(patientId);
+    }
+
+    private record Loaded(List<Appointment> appointments, List<AppointmentService> services, List<MedicalRecord> history) {}
+
+    private PatientContextSnapshot build(Integer patientId) {
+        long started = System.currentTimeMillis();
+        // Chạy lần lượt trên thread gọi: processQuery (readOnly) đang giữ 1 connection, query chạy trên thread khác
+        // sẽ cần thêm connection -> nhiều request cùng lúc có thể vét pool và chờ nhau mãi.
+        // Kết quả đã fetch đủ nên đọc được sau khi session đóng
+        Loaded loaded = readOnlyTransactionTemplate.execute(status -> new Loaded(
+                insightRepository.appointmentsWithPeopleByPatientId(patientId),
+                insightRepository.appointmentServicesWithDetailsByPatientId(patientId),
+                insightRepository.medicalHistoryWithImagesByPatientId(patientId)));
+        List<Appointment> appointments = loaded.appointments();
+        List<AppointmentService> services = loaded.services();
+        List<MedicalRecord> history = loaded.history();
+
+        Instant now = Instant.now();
+        Instant lastVisit = null;
+        List<Appointment> completed = new ArrayList<>();
+        List<Appointment> upcoming = new ArrayList<>();
+        List<Appointment> overdue = new ArrayList<>();
+        Map<Integer, Appointment> byId = new LinkedHashMap<>();
+        // appointments đã sắp xếp startDateTime giảm dần
+        for (Appointment a : appointments) {
+            byId.put(a.getId(), a);
+            Instant start = a.getStartDateTime();
+            if ("COMPLETED".equals(a.getStatus())) {
+                completed.add(a);
+                if (start != null && (lastVisit == null || start.isAfter(lastVisit))) lastVisit = start;
+            }
+            if (start == null) continue;
+            if (start.isAfter(now) && UPCOMING_STATUSES.contains(a.getStatus())) {
+                upcoming.add(a);
+            } else if (start.isBefore(now) && !CLOSED_STATUSES.contains(a.getStatus())) {
+                overdue.add(a);
+            }
+        }
+        upcoming.sort(Comparator.comparing(Appointment::getStartDateTime));
+
+        // Set ảnh của Hibernate không giữ thứ tự -> sắp xếp lại như medicalImagesByRecordId (mới nhất trước)
+        Map<Integer, List<MedicalRecordImage>> imagesByRecord = new LinkedHashMap<>();
+        for (MedicalRecord r : history) {
+            List<MedicalRecordImage> images = new ArrayList<>(r.getMedicalRecordImages());
+            images.sort(Comparator.comparing(MedicalRecordImage::getCreatedAt,
+                    Comparator.nullsLast(Comparator.reverseOrder())));
+            imagesByRecord.put(r.getId(), images);
+        }
+
+        Map<Integer, List<AppointmentService>> servicesByAppointment = new LinkedHashMap<>();
+        List<AppointmentService> used = new ArrayList<>();
+        for (AppointmentService s : services) {
+            Appointment a = s.getAppointment();
+            servicesByAppointment.computeIfAbsent(a.getId(), k -> new ArrayList<>()).add(s);
+            if ("COMPLETED".equals(a.getStatus())) used.add(s);
+        }
+
+        log.debug("Patient context snapshot for patient {} built in {} ms", patientId, System.currentTimeMillis() - started);
+        return new PatientContextSnapshot(lastVisit, completed.size(), List.copyOf(history), imagesByRecord,
+                List.copyOf(completed), List.copyOf(upcoming), List.copyOf(overdue), List.copyOf(used),
+                byId, servicesByAppointment);
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        cache.entrySet().removeIf(e -> e.getValue().expiresAt() <= now);
+        if (cache.size() >= MAX_ENTRIES) cache.clear();
+        // Thế hệ chỉ cần giữ khi có lần dựng đang chạy; lần dựng bắt đầu sau khi dọn đọc thấy 0 hoặc thế hệ mới
+        generations.keySet().removeIf(id -> !inFlight.containsKey(id));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+}
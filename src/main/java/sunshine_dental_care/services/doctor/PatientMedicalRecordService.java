@@ -4,8 +4,12 @@ import org.springframework.web.multipart.MultipartFile;
 import sunshine_dental_care.dto.doctorDTO.MedicalRecordDTO;
 import sunshine_dental_care.dto.doctorDTO.MedicalRecordImageDTO;
 import sunshine_dental_care.dto.doctorDTO.MedicalRecordRequest;
+import sunshine_dental_care.entities.MedicalRecord;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
 import java.util.List;
 
 public interface PatientMedicalRecordService {
@@ -17,8 +21,23 @@ public interface PatientMedicalRecordService {
 
     MedicalRecordImageDTO uploadImage(Integer patientId, Integer recordId, MultipartFile file, String description, String aiTag);
 
+    List<MedicalRecordImageDTO> uploadImages(Integer patientId, Integer recordId, List<MultipartFile> files,
+                                             List<String> descriptions, List<String> aiTags);
+
     void deleteImage(Integer patientId, Integer recordId, Integer imageId);
 
-    byte[] exportRecordToPDF(Integer patientId, Integer recordId) throws IOException;
+    // Export: nạp + kiểm tra hồ sơ trước (lỗi -> IllegalArgumentException, trả JSON), sau đó mới mở response để ghi file
+    MedicalRecord findRecordForExport(Integer patientId, Integer recordId);
+
+    // Toàn bộ lịch sử khám của bệnh nhân
+    List<MedicalRecord> findPatientRecordsForExport(Integer patientId);
+
+    // Các hồ sơ bác sĩ lập trong 1 ngày
+    List<MedicalRecord> findDoctorDayRecordsForExport(Integer doctorId, LocalDate date);
+
+    void writeRecordPdf(MedicalRecord record, OutputStream out) throws IOException;
+
+    // PDF: 1 file gộp; ZIP: mỗi hồ sơ 1 file PDF
+    void writeRecords(List<MedicalRecord> records, ExportFormat format, OutputStream out) throws IOException;
 }
 
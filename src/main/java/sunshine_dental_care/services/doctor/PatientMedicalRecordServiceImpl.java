@@ -1,15 +1,16 @@
 package sunshine_dental_care.services.doctor;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -41,6 +42,7 @@ import sunshine_dental_care.repositories.doctor.DoctorRepo;
 import sunshine_dental_care.repositories.doctor.MedicalRecordRepository;
 import sunshine_dental_care.services.impl.notification.NotificationService;
 import sunshine_dental_care.services.upload_file.ImageStorageService;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 @Service
 @RequiredArgsConstructor
@@ -63,6 +65,12 @@ public class PatientMedicalRecordServiceImpl implements PatientMedicalRecordServ
     private final DentalServiceRepository dentalServiceRepository;
     private final ImageStorageService imageStorageService;
     private final NotificationService notificationService;
+    private final MedicalRecordPdfService medicalRecordPdfService;
+    private final MedicalRecordImageUploadService medicalRecordImageUploadService;
+    private final PatientContextSnapshotService patientContextSnapshotService;
+
+    @Value("${app.medical-record.max-images-per-upload:30}")
+    private int maxImagesPerUpload;
 
     // Lấy danh sách hồ sơ bệnh án của một bệnh nhân
     @Override
@@ -254,48 +262,44 @@ public class PatientMedicalRecordServiceImpl implements PatientMedicalRecordServ
 
     // Upload ảnh cho hồ sơ bệnh án
     @Override
-    @Transactional
     public MedicalRecordImageDTO uploadImage(Integer patientId, Integer recordId, MultipartFile file, String description, String aiTag) {
-        validateImage(file);
-
-        // Lấy hồ sơ cần đính kèm ảnh, nếu không có thì báo lỗi
-        MedicalRecord record = getRecord(patientId, recordId);
+        return uploadImages(patientId, recordId, List.of(file),
+                description != null ? List.of(description) : null,
+                aiTag != null ? List.of(aiTag) : null).get(0);
+    }
 
-        // Thực hiện upload ảnh lưu trữ lên hệ thống lưu trữ (cloud,...)
-        ImageStorageService.ImageUploadResult uploadResult;
-        try {
-            uploadResult = imageStorageService.upload(file, "medical-records/" + recordId);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to upload medical record image", e);
+    // Upload nhiều ảnh 1 lần: descriptions / aiTags (nếu có) khớp theo thứ tự file
+    @Override
+    public List<MedicalRecordImageDTO> uploadImages(Integer patientId, Integer recordId, List<MultipartFile> files,
+                                                    List<String> descriptions, List<String> aiTags) {
+        if (files == null || files.isEmpty()) {
+            throw new IllegalArgumentException("Image file is required");
         }
+        if (files.size() > maxImagesPerUpload) {
+            throw new IllegalArgumentException("At most " + maxImagesPerUpload + " images per upload");
+        }
+        files.forEach(this::validateImage);
 
-        // Tạo mới entity ảnh gắn vào hồ sơ
-        MedicalRecordImage image = new MedicalRecordImage();
-        image.setMedicalRecord(record);
-        image.setImageUrl(uploadResult.getUrl());
-        image.setImagePublicId(uploadResult.getPublicId());
-        image.setDescription(description);
-        image.setAiTag(aiTag);
-        image.setCreatedAt(Instant.now());
-
-        // Nếu hồ sơ chưa có danh sách ảnh -> khởi tạo mới
-        if (record.getMedicalRecordImages() == null) {
-            record.setMedicalRecordImages(new LinkedHashSet<>());
+        // Chỉ cần biết hồ sơ tồn tại, không nạp cả aggregate (ảnh được chèn thẳng bằng JDBC)
+        if (!medicalRecordRepository.existsByIdAndPatientId(recordId, patientId)) {
+            throw new IllegalArgumentException("Medical record not found");
         }
-        // Thêm ảnh vào danh sách ảnh của hồ sơ
-        record.getMedicalRecordImages().add(image);
-        record.setUpdatedAt(Instant.now());
 
-        // Lưu và lấy ra ảnh vừa lưu (dựa vào publicId)
-        MedicalRecord saved = medicalRecordRepository.save(record);
-        MedicalRecordImage persisted = saved.getMedicalRecordImages()
-                .stream()
-                .filter(img -> uploadResult.getPublicId().equals(img.getImagePublicId()))
-                .findFirst()
-                .orElse(image);
+        List<MedicalRecordImageUploadService.ImageUpload> uploads = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            uploads.add(new MedicalRecordImageUploadService.ImageUpload(
+                    files.get(i), itemAt(descriptions, i), itemAt(aiTags, i)));
+        }
+        List<MedicalRecordImageDTO> uploaded = medicalRecordImageUploadService.upload(recordId, uploads);
+        // Ảnh ghi bằng JDBC, không qua entity listener -> tự bỏ snapshot context chatbot
+        patientContextSnapshotService.evict(patientId);
+        return uploaded;
+    }
 
-        // Đổi sang DTO để trả ra ngoài
-        return toImageDTO(persisted);
+    private static String itemAt(List<String> values, int index) {
+        if (values == null || index >= values.size()) return null;
+        String value = values.get(index);
+        return value == null || value.isBlank() ? null : value;
     }
 
     // Xóa ảnh khỏi hồ sơ bệnh án
@@ -314,6 +318,9 @@ public class PatientMedicalRecordServiceImpl implements PatientMedicalRecordServ
         if (record.getMedicalRecordImages().remove(target)) {
             try {
                 imageStorageService.delete(target.getImagePublicId());
+                if (target.getThumbnailPublicId() != null) {
+                    imageStorageService.delete(target.getThumbnailPublicId());
+                }
             } catch (Exception e) {
                 throw new RuntimeException("Failed to delete medical record image", e);
             }
@@ -426,6 +433,7 @@ public class PatientMedicalRecordServiceImpl implements PatientMedicalRecordServ
         return MedicalRecordImageDTO.builder()
                 .imageId(image.getId())
                 .imageUrl(image.getImageUrl())
+                .thumbnailUrl(image.getThumbnailUrl())
                 .description(image.getDescription())
                 .aiTag(image.getAiTag())
                 .imagePublicId(image.getImagePublicId())
@@ -511,63 +519,44 @@ public class PatientMedicalRecordServiceImpl implements PatientMedicalRecordServ
                 .build();
     }
 
-    // Export hồ sơ bệnh án ra file PDF
+    // Lấy hồ sơ cùng mọi quan hệ được in ra trong 1 query, không giữ transaction trong lúc render / ghi response
     @Override
-    @Transactional
-    public byte[] exportRecordToPDF(Integer patientId, Integer recordId) {
-        // Lấy hồ sơ bệnh án từ database
-        MedicalRecord record = getRecord(patientId, recordId);
-
-        // Đảm bảo các lazy-loaded relationships được fetch
-        // Fetch clinic
-        if (record.getClinic() != null) {
-            record.getClinic().getClinicName();
-        }
-
-        // Fetch patient
-        if (record.getPatient() != null) {
-            record.getPatient().getFullName();
-            record.getPatient().getPatientCode();
-        }
+    public MedicalRecord findRecordForExport(Integer patientId, Integer recordId) {
+        return medicalRecordRepository.findForExport(recordId, patientId)
+                .orElseThrow(() -> new IllegalArgumentException("Medical record not found"));
+    }
 
-        // Fetch doctor
-        if (record.getDoctor() != null) {
-            record.getDoctor().getFullName();
-        }
+    @Override
+    public List<MedicalRecord> findPatientRecordsForExport(Integer patientId) {
+        Patient patient = getPatient(patientId);
+        return requireRecords(medicalRecordRepository.findForExportByPatientId(patient.getId()));
+    }
 
-        // Fetch appointment và appointment services nếu có
-        if (record.getAppointment() != null) {
-            Appointment appointment = record.getAppointment();
-            if (appointment.getAppointmentServices() != null) {
-                for (AppointmentService apptService : appointment.getAppointmentServices()) {
-                    if (apptService.getService() != null) {
-                        apptService.getService().getServiceName();
-                    }
-                    if (apptService.getServiceVariant() != null) {
-                        apptService.getServiceVariant().getVariantName();
-                    }
-                }
-            }
-        }
+    @Override
+    public List<MedicalRecord> findDoctorDayRecordsForExport(Integer doctorId, LocalDate date) {
+        return requireRecords(medicalRecordRepository.findForExportByDoctorIdAndRecordDate(doctorId, date));
+    }
 
-        // Fetch service nếu có
-        if (record.getService() != null) {
-            record.getService().getServiceName();
-        }
+    // Ghi hồ sơ bệnh án ra file PDF, ghi thẳng ra response
+    @Override
+    public void writeRecordPdf(MedicalRecord record, OutputStream out) throws IOException {
+        medicalRecordPdfService.writePdf(record, out);
+    }
 
-        // Fetch images nếu có
-        if (record.getMedicalRecordImages() != null) {
-            record.getMedicalRecordImages().size();
+    @Override
+    public void writeRecords(List<MedicalRecord> records, ExportFormat format, OutputStream out) throws IOException {
+        switch (format) {
+            case ZIP -> medicalRecordPdfService.writeZip(records, out);
+            case PDF -> medicalRecordPdfService.writeMergedPdf(records, out);
+            default -> throw new IllegalArgumentException("Unsupported export format: " + format.extension());
         }
+    }
 
-        // Tạo PDF exporter và export
-        try {
-            MedicalRecordPdfService medicalRecordPdfService = new MedicalRecordPdfService();
-            return medicalRecordPdfService.generatePdf(record);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to export medical record to PDF", e);
+    private static List<MedicalRecord> requireRecords(List<MedicalRecord> records) {
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException("No medical records to export");
         }
-
+        return records;
     }
 
     private ServiceVariantDTO toServiceVariantDTO(ServiceVariant serviceVariant) {
@@ -2,7 +2,6 @@ package sunshine_dental_care.services.huybro_cart.impl;
 
 import jakarta.servlet.http.HttpSession;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
@@ -16,17 +15,18 @@ import sunshine_dental_care.dto.huybro_cart.UpdateCartItemRequestDto;
 import sunshine_dental_care.entities.huybro_products.Product;
 import sunshine_dental_care.entities.huybro_products.ProductImage;
 import sunshine_dental_care.repositories.huybro_products.ProductImageRepository;
-import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository; // [IMPORT MỚI]
 import sunshine_dental_care.repositories.huybro_products.ProductRepository;
 import sunshine_dental_care.security.CurrentUser;
 import sunshine_dental_care.services.huybro_cart.interfaces.CartService;
+import sunshine_dental_care.services.huybro_cart.interfaces.CartStore;
+import sunshine_dental_care.services.impl.system.BlockSequenceService;
+import sunshine_dental_care.utils.WorkHoursConstants;
 import sunshine_dental_care.utils.huybro_utils.format.FormatCurrencyCart;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Year;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,46 +41,57 @@ public class CartServiceImpl implements CartService {
 
     private final ProductRepository productRepository;
     private final ProductImageRepository productImageRepository;
-    private final ProductInventoryRepository productInventoryRepository; // [FIELD MỚI]
+    private final StockReservationService stockReservationService;
     private final FormatCurrencyCart formatCurrencyCart;
-    private final UserCartStoreService userCartStore;
+    private final CartStore userCartStore;
+    private final BlockSequenceService blockSequenceService;
 
     // Constructor Injection
     public CartServiceImpl(ProductRepository productRepository,
                            ProductImageRepository productImageRepository,
-                           ProductInventoryRepository productInventoryRepository, // [INJECT]
+                           StockReservationService stockReservationService,
                            FormatCurrencyCart formatCurrencyCart,
-                           UserCartStoreService userCartStore) {
+                           CartStore userCartStore,
+                           BlockSequenceService blockSequenceService) {
         this.productRepository = productRepository;
         this.productImageRepository = productImageRepository;
-        this.productInventoryRepository = productInventoryRepository;
+        this.stockReservationService = stockReservationService;
         this.formatCurrencyCart = formatCurrencyCart;
         this.userCartStore = userCartStore;
+        this.blockSequenceService = blockSequenceService;
     }
 
-    private String resolveInvoiceCode(HttpSession session) {
+    // Mã hóa đơn đã cấp cho giỏ (lúc bắt đầu thanh toán / đặt hàng); xem / sửa giỏ không cấp mã -> có thể null
+    private String currentInvoiceCode(HttpSession session) {
         Integer userId = getCurrentUserIdOrNull();
         if (userId != null) {
-            String code = userCartStore.getInvoiceCode(userId);
-            if (code == null) {
-                code = generateInvoiceCode();
-                userCartStore.setInvoiceCode(userId, code);
-            }
-            return code;
+            return userCartStore.getInvoiceCode(userId);
+        }
+        return (String) session.getAttribute(CART_INVOICE_CODE_KEY);
+    }
+
+    @Override
+    @Transactional
+    public String issueInvoiceCode(HttpSession session) {
+        Integer userId = getCurrentUserIdOrNull();
+        if (userId != null) adoptGuestCart(userId, session);
+        int year = Year.now(WorkHoursConstants.VN_TIMEZONE).getValue();
+        String code = currentInvoiceCode(session);
+        // Giữ mã đã cấp khi thanh toán lại cùng giỏ; mã của năm trước (thanh toán bỏ dở) thì cấp mã mới
+        if (code != null && code.contains("-" + year + "-")) return code;
+        code = generateInvoiceCode(year);
+        if (userId != null) {
+            userCartStore.setInvoiceCode(userId, code);
         } else {
-            String code = (String) session.getAttribute(CART_INVOICE_CODE_KEY);
-            if (code == null) {
-                code = generateInvoiceCode();
-                session.setAttribute(CART_INVOICE_CODE_KEY, code);
-            }
-            return code;
+            session.setAttribute(CART_INVOICE_CODE_KEY, code);
         }
+        return code;
     }
 
     @Override
     public CartViewDto getCartDetail(HttpSession session) {
         Map<Integer, CartItemDto> items = getCartMap(session);
-        String invoiceCode = resolveInvoiceCode(session);
+        String invoiceCode = currentInvoiceCode(session);
         return buildCartView(items, invoiceCode);
     }
 
@@ -101,14 +112,14 @@ public class CartServiceImpl implements CartService {
                 : 0;
         int newQty = currentQty + request.getQuantity();
 
-        // [LOGIC MỚI]: Check tổng tồn kho (Q1 + Q9) thay vì check product.getUnit()
-        checkGlobalStock(product.getId(), newQty);
+        // Giữ chỗ newQty trên tồn kho (Q1 + Q9) trừ phần giỏ khác đang giữ
+        stockReservationService.reserve(reservationOwner(session), product.getId(), newQty);
 
         CartItemDto item = mapProductToCartItem(product, newQty);
         items.put(product.getId(), item);
-        session.setAttribute(CART_SESSION_KEY, items);
+        saveCartMap(session, items);
 
-        String invoiceCode = resolveInvoiceCode(session);
+        String invoiceCode = currentInvoiceCode(session);
         return buildCartView(items, invoiceCode);
     }
 
@@ -116,7 +127,7 @@ public class CartServiceImpl implements CartService {
     @Transactional
     public CartViewDto updateCartItemQuantity(UpdateCartItemRequestDto request, HttpSession session) {
         Map<Integer, CartItemDto> items = getCartMap(session);
-        String invoiceCode = resolveInvoiceCode(session);
+        String invoiceCode = currentInvoiceCode(session);
 
         if (!items.containsKey(request.getProductId())) {
             throw new IllegalArgumentException("Cart item not found");
@@ -124,19 +135,20 @@ public class CartServiceImpl implements CartService {
 
         if (request.getQuantity() == 0) {
             items.remove(request.getProductId());
-            session.setAttribute(CART_SESSION_KEY, items);
+            stockReservationService.release(reservationOwner(session), request.getProductId());
+            saveCartMap(session, items);
             return buildCartView(items, invoiceCode);
         }
 
         Product product = productRepository.findById(request.getProductId())
                 .orElseThrow(() -> new IllegalArgumentException("Product not found"));
 
-        // [LOGIC MỚI]: Check tổng tồn kho
-        checkGlobalStock(request.getProductId(), request.getQuantity());
+        // Giữ chỗ theo số lượng mới (thay cho số cũ)
+        stockReservationService.reserve(reservationOwner(session), request.getProductId(), request.getQuantity());
 
         CartItemDto item = mapProductToCartItem(product, request.getQuantity());
         items.put(product.getId(), item);
-        session.setAttribute(CART_SESSION_KEY, items);
+        saveCartMap(session, items);
 
         return buildCartView(items, invoiceCode);
     }
@@ -146,8 +158,9 @@ public class CartServiceImpl implements CartService {
     public CartViewDto removeCartItem(Integer productId, HttpSession session) {
         Map<Integer, CartItemDto> items = getCartMap(session);
         items.remove(productId);
-        session.setAttribute(CART_SESSION_KEY, items);
-        String invoiceCode = resolveInvoiceCode(session);
+        saveCartMap(session, items);
+        stockReservationService.release(reservationOwner(session), productId);
+        String invoiceCode = currentInvoiceCode(session);
         return buildCartView(items, invoiceCode);
     }
 
@@ -155,6 +168,9 @@ public class CartServiceImpl implements CartService {
     @Transactional
     public void clearCart(HttpSession session) {
         Integer userId = getCurrentUserIdOrNull();
+        if (userId != null) adoptGuestCart(userId, session);
+        // Checkout gọi trong transaction của nó: giữ chỗ chỉ được trả sau khi commit
+        stockReservationService.releaseAll(reservationOwner(session));
         if (userId != null) {
             userCartStore.clearCart(userId);
         } else {
@@ -166,7 +182,7 @@ public class CartServiceImpl implements CartService {
     @Override
     public CartViewDto getCartPreviewByCurrency(HttpSession session, String targetCurrency) {
         Map<Integer, CartItemDto> items = getCartMap(session);
-        String invoiceCode = resolveInvoiceCode(session);
+        String invoiceCode = currentInvoiceCode(session);
 
         String normalizedTarget = (targetCurrency == null || targetCurrency.isBlank())
                 ? "USD" : targetCurrency.toUpperCase();
@@ -222,21 +238,17 @@ public class CartServiceImpl implements CartService {
 
     // --- PRIVATE HELPERS ---
 
-    // [HELPER MỚI]: Check tổng tồn kho (Q1 + Q9)
-    private void checkGlobalStock(Integer productId, int requestedQty) {
-        Integer totalAvailable = productInventoryRepository.sumTotalQuantityByProductId(productId);
-        if (totalAvailable == null) totalAvailable = 0;
-
-        if (totalAvailable < requestedQty) {
-            throw new IllegalArgumentException("Sorry, we only have " + totalAvailable + " items in stock (Total).");
-        }
+    // Giỏ của user đăng nhập giữ chỗ theo userId, khách theo session
+    private String reservationOwner(HttpSession session) {
+        return StockReservationService.ownerOf(getCurrentUserIdOrNull(), session);
     }
 
     @SuppressWarnings("unchecked")
     private Map<Integer, CartItemDto> getCartMap(HttpSession session) {
         Integer userId = getCurrentUserIdOrNull();
         if (userId != null) {
-            return userCartStore.getOrCreateCart(userId);
+            adoptGuestCart(userId, session);
+            return userCartStore.getCart(userId);
         }
         Object attr = session.getAttribute(CART_SESSION_KEY);
         if (attr instanceof Map<?, ?> map) {
@@ -247,6 +259,39 @@ public class CartServiceImpl implements CartService {
         return newMap;
     }
 
+    // Khách vừa đăng nhập trên cùng session: gộp giỏ khách vào giỏ user, chuyển giữ chỗ từ session sang user
+    @SuppressWarnings("unchecked")
+    private void adoptGuestCart(Integer userId, HttpSession session) {
+        Object attr = session.getAttribute(CART_SESSION_KEY);
+        if (attr == null) return;
+        session.removeAttribute(CART_SESSION_KEY);
+        session.removeAttribute(CART_INVOICE_CODE_KEY);
+        if (!(attr instanceof Map<?, ?> guest) || guest.isEmpty()) return;
+
+        Map<Integer, CartItemDto> items = userCartStore.getCart(userId);
+        for (CartItemDto guestItem : ((Map<Integer, CartItemDto>) guest).values()) {
+            Product product = productRepository.findById(guestItem.getProductId()).orElse(null);
+            if (product == null) continue; // Giữ chỗ còn lại tự hết hạn
+            CartItemDto own = items.get(product.getId());
+            int quantity = guestItem.getQuantity() + (own == null ? 0 : own.getQuantity());
+            items.put(product.getId(), mapProductToCartItem(product, quantity));
+        }
+        userCartStore.saveCart(userId, items);
+        stockReservationService.transfer(StockReservationService.ownerOf(null, session),
+                StockReservationService.ownerOf(userId, session));
+        log.info("Merged guest cart of session into cart of user {} ({} item(s))", userId, guest.size());
+    }
+
+    // User đã đăng nhập: ghi lại vào CartStore (getCartMap trả về bản sao); khách: giữ trong session
+    private void saveCartMap(HttpSession session, Map<Integer, CartItemDto> items) {
+        Integer userId = getCurrentUserIdOrNull();
+        if (userId != null) {
+            userCartStore.saveCart(userId, items);
+        } else {
+            session.setAttribute(CART_SESSION_KEY, items);
+        }
+    }
+
     private CartItemDto mapProductToCartItem(Product product, int quantity) {
         BigDecimal unitPriceBeforeTax = product.getDefaultRetailPrice();
         if (unitPriceBeforeTax == null) throw new IllegalStateException("Product price is not set");
@@ -308,10 +353,10 @@ public class CartServiceImpl implements CartService {
         return view;
     }
 
-    private String generateInvoiceCode() {
-        String datetimePart = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HHmmss-ddMMyyyy"));
-        String randomPart = RandomStringUtils.randomAlphanumeric(6).toUpperCase();
-        return "INV-" + datetimePart + "-" + randomPart;
+    // Số hóa đơn tăng dần theo năm, lấy từ khối số cấp sẵn (có thể nhảy số, không trùng)
+    private String generateInvoiceCode(int year) {
+        BlockSequenceService.Issued issued = blockSequenceService.nextInvoiceNumber(year);
+        return (issued.prefix() + "-" + year + "-" + String.format("%08d", issued.number())).toUpperCase();
     }
 
     private CartItemDto convertItemCurrency(CartItemDto item, String targetCurrency, BigDecimal usdToVndRate) {
@@ -1,58 +1,277 @@
 package sunshine_dental_care.services.huybro_cart.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Tỉ giá dùng cho giỏ hàng / checkout, đọc từ bộ nhớ:
+ * - Chỉ lấy tỉ giá base -> từng currency (mặc định USD -> ...), các cặp còn lại tính chéo qua base.
+ * - Chỉ nhận các mã trong exchange.rate.currencies (+ base); mã khác bị từ chối (400), không được thêm vào danh sách làm mới.
+ * - Khởi động: nạp file đã lưu, thiếu mã nào thì gọi API đồng bộ trước khi nhận request.
+ * - Làm mới định kỳ ở background; hết TTL vẫn trả tỉ giá cũ và kích hoạt làm mới (stale-while-revalidate).
+ * - Lưu bản tỉ giá tốt gần nhất ra file để khởi động lại khi API đang lỗi vẫn có dữ liệu.
+ * - getRate không bao giờ gọi mạng trên thread của request.
+ */
 @Slf4j
 @Service
 public class CurrencyRateInternalService {
 
+    private static final MathContext RATE_CONTEXT = MathContext.DECIMAL64;
+
     @Value("${exchange.rate.api.url}")
     private String apiUrl;
 
     @Value("${exchange.rate.api.key}")
     private String apiKey;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final ObjectMapper objectMapper;
+    private final RestTemplate restTemplate;
+    private final String baseCurrency;
+    private static final Pattern CURRENCY_CODE = Pattern.compile("[A-Z]{3}");
+
+    // Danh sách cố định từ cấu hình (đã gồm base)
+    private final Set<String> currencies;
+    private final Duration ttl;
+    private final Path snapshotFile;
+
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "exchange-rate-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile RateSnapshot snapshot;
+
+    // Số liệu theo dõi
+    private final AtomicLong freshHits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshSuccess = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+    private volatile Instant lastRefreshAttempt;
+    private volatile String lastRefreshError;
+
+    public CurrencyRateInternalService(ObjectMapper objectMapper,
+                                       @Value("${exchange.rate.base:USD}") String baseCurrency,
+                                       @Value("${exchange.rate.currencies:VND}") String currencies,
+                                       @Value("${exchange.rate.ttl-seconds:3600}") long ttlSeconds,
+                                       @Value("${exchange.rate.snapshot-file:data/exchange-rates.json}") String snapshotFile,
+                                       @Value("${exchange.rate.api.timeout-ms:5000}") int timeoutMs) {
+        this.objectMapper = objectMapper;
+        this.baseCurrency = normalize(baseCurrency);
+        Set<String> configured = Arrays.stream(currencies.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(CurrencyRateInternalService::normalize)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        configured.add(this.baseCurrency);
+        for (String code : configured) {
+            if (!CURRENCY_CODE.matcher(code).matches()) {
+                throw new IllegalArgumentException("Invalid currency code in exchange.rate.currencies: " + code);
+            }
+        }
+        this.currencies = Set.copyOf(configured);
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.snapshotFile = Paths.get(snapshotFile);
+
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(timeoutMs);
+        factory.setReadTimeout(timeoutMs);
+        this.restTemplate = new RestTemplate(factory);
+    }
+
+    public record RateSnapshot(String base, Map<String, BigDecimal> rates, Instant fetchedAt) {}
+
+    public record RateStats(long freshHits, long staleHits, long misses,
+                            long refreshSuccess, long refreshFailures,
+                            Instant fetchedAt, Instant lastRefreshAttempt, String lastRefreshError) {}
 
     public BigDecimal getRate(String from, String to) {
+        String f = requireSupported(from);
+        String t = requireSupported(to);
+        if (f.equals(t)) return BigDecimal.ONE;
+
+        RateSnapshot current = snapshot;
+        BigDecimal fromRate = current == null ? null : baseRate(current, f);
+        BigDecimal toRate = current == null ? null : baseRate(current, t);
 
-        log.info("[CurrencyRateInternalService] → START: from={}, to={}", from, to);
+        if (fromRate == null || toRate == null) {
+            misses.incrementAndGet();
+            // Mã hợp lệ nhưng lần làm mới trước bị lỗi: thử lại ở background
+            refreshAsync();
+            log.warn("[CurrencyRateInternalService] → No cached rate for {} -> {} yet", f, t);
+            throw new IllegalStateException("Exchange rate " + f + " -> " + t + " is not available yet");
+        }
 
-        String url = apiUrl
-                + "?access_key=" + apiKey
-                + "&from=" + from
-                + "&to=" + to
-                + "&amount=1";
+        if (isStale(current)) {
+            staleHits.incrementAndGet();
+            refreshAsync();
+        } else {
+            freshHits.incrementAndGet();
+        }
 
-        log.info("[CurrencyRateInternalService] → Request URL = {}", url);
+        // rate(from -> to) = rate(base -> to) / rate(base -> from)
+        if (f.equals(current.base())) return toRate;
+        return toRate.divide(fromRate, RATE_CONTEXT);
+    }
+
+    public Set<String> getSupportedCurrencies() {
+        return currencies;
+    }
+
+    public RateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public RateStats getStats() {
+        RateSnapshot current = snapshot;
+        return new RateStats(freshHits.get(), staleHits.get(), misses.get(),
+                refreshSuccess.get(), refreshFailures.get(),
+                current == null ? null : current.fetchedAt(), lastRefreshAttempt, lastRefreshError);
+    }
+
+    // Trước khi nhận request: nạp bản đã lưu, thiếu mã đã cấu hình thì gọi API ngay (đồng bộ)
+    @PostConstruct
+    public void loadInitialRates() {
+        loadSnapshotFile();
+        RateSnapshot current = snapshot;
+        boolean complete = current != null && current.base().equals(baseCurrency)
+                && currencies.stream().allMatch(c -> baseRate(current, c) != null);
+        if (complete || !refreshing.compareAndSet(false, true)) return;
+        try {
+            refresh();
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    // Sau khởi động: bản nạp từ file đã quá TTL thì làm mới ở background
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        RateSnapshot current = snapshot;
+        if (current == null || isStale(current)) refreshAsync();
+    }
+
+    // Làm mới trước khi hết TTL để request hầu như luôn đọc được tỉ giá mới
+    @Scheduled(fixedDelayString = "${exchange.rate.refresh-ms:900000}", initialDelayString = "${exchange.rate.refresh-ms:900000}")
+    public void scheduledRefresh() {
+        refreshAsync();
+    }
+
+    public void refreshAsync() {
+        if (!refreshing.compareAndSet(false, true)) return;
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    refresh();
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            log.warn("[CurrencyRateInternalService] → Cannot schedule refresh: {}", e.getMessage());
+        }
+    }
+
+    private void refresh() {
+        lastRefreshAttempt = Instant.now();
+        Map<String, BigDecimal> rates = new HashMap<>();
+        RateSnapshot previous = snapshot;
+        if (previous != null && previous.base().equals(baseCurrency)) rates.putAll(previous.rates());
+
+        int attempted = 0;
+        int failed = 0;
+        for (String currency : currencies) {
+            if (currency.equals(baseCurrency)) continue;
+            attempted++;
+            try {
+                rates.put(currency, fetchRate(baseCurrency, currency));
+            } catch (Exception e) {
+                failed++;
+                lastRefreshError = e.getMessage();
+                log.error("[CurrencyRateInternalService] → Refresh {} -> {} failed: {}", baseCurrency, currency, e.getMessage());
+            }
+        }
+
+        if (failed > 0) {
+            refreshFailures.incrementAndGet();
+            // Lỗi toàn bộ: giữ nguyên bản cũ để tiếp tục phục vụ tỉ giá stale
+            if (failed == attempted || rates.isEmpty()) return;
+        } else {
+            refreshSuccess.incrementAndGet();
+            lastRefreshError = null;
+        }
+
+        // Lỗi một phần: vẫn lưu tỉ giá mới lấy được nhưng giữ mốc thời gian cũ để lần sau làm mới lại
+        Instant fetchedAt = failed > 0 && previous != null ? previous.fetchedAt() : Instant.now();
+        RateSnapshot next = new RateSnapshot(baseCurrency, Map.copyOf(rates), fetchedAt);
+        snapshot = next;
+        saveSnapshotFile(next);
+        log.info("[CurrencyRateInternalService] → Refreshed {} rate(s) from base {}", rates.size(), baseCurrency);
+    }
+
+    private BigDecimal fetchRate(String from, String to) {
+        URI url = UriComponentsBuilder.fromUriString(apiUrl)
+                .queryParam("access_key", apiKey)
+                .queryParam("from", from)
+                .queryParam("to", to)
+                .queryParam("amount", 1)
+                .encode()
+                .build()
+                .toUri();
 
         Map<String, Object> response;
 
         try {
             response = restTemplate.getForObject(url, Map.class);
         } catch (Exception ex) {
-            log.error("[CurrencyRateInternalService] → ERROR calling API: {}", ex.getMessage(), ex);
-            throw new IllegalStateException("Failed to connect to exchange rate API");
+            throw new IllegalStateException("Failed to connect to exchange rate API: " + ex.getMessage());
         }
 
-        log.info("[CurrencyRateInternalService] → Raw Response = {}", response);
+        log.debug("[CurrencyRateInternalService] → Raw Response = {}", response);
 
         if (response == null) {
-            log.error("[CurrencyRateInternalService] → Null response from API");
             throw new IllegalStateException("Null response from exchange rate API");
         }
 
         Object successObj = response.get("success");
         if (successObj instanceof Boolean success && !success) {
-            Object error = response.get("error");
-            log.error("[CurrencyRateInternalService] → API returned error: {}", error);
-            throw new IllegalStateException("Exchange rate API error: " + error);
+            throw new IllegalStateException("Exchange rate API error: " + response.get("error"));
         }
 
         BigDecimal rate = null;
@@ -74,13 +293,68 @@ public class CurrencyRateInternalService {
             }
         }
 
-        if (rate == null) {
-            log.error("[CurrencyRateInternalService] → Cannot find rate in response (no info.rate and no result)");
+        if (rate == null || rate.signum() <= 0) {
             throw new IllegalStateException("Invalid response from exchange rate API");
         }
+        return rate;
+    }
 
-        log.info("[CurrencyRateInternalService] → SUCCESS: rate = {}", rate);
+    private boolean isStale(RateSnapshot s) {
+        return s.fetchedAt().plus(ttl).isBefore(Instant.now());
+    }
 
-        return rate;
+    private static BigDecimal baseRate(RateSnapshot s, String currency) {
+        if (currency.equals(s.base())) return BigDecimal.ONE;
+        return s.rates().get(currency);
+    }
+
+    private void loadSnapshotFile() {
+        if (!Files.exists(snapshotFile)) return;
+        try {
+            RateSnapshot loaded = objectMapper.readValue(snapshotFile.toFile(), RateSnapshot.class);
+            if (loaded.base() == null || loaded.rates() == null || loaded.fetchedAt() == null) return;
+            if (snapshot == null) {
+                snapshot = loaded;
+                log.info("[CurrencyRateInternalService] → Loaded {} saved rate(s) fetched at {}",
+                        loaded.rates().size(), loaded.fetchedAt());
+            }
+        } catch (IOException e) {
+            log.warn("[CurrencyRateInternalService] → Cannot read saved rates {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    private void saveSnapshotFile(RateSnapshot s) {
+        try {
+            Path dir = snapshotFile.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), s);
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("[CurrencyRateInternalService] → Cannot save rates to {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    // Mã không được cấu hình -> 400; không phản hồi lại chuỗi lạ do client gửi
+    private String requireSupported(String currency) {
+        String code = normalize(currency);
+        if (!currencies.contains(code)) {
+            throw new IllegalArgumentException(CURRENCY_CODE.matcher(code).matches()
+                    ? "Unsupported currency: " + code
+                    : "Unsupported currency");
+        }
+        return code;
+    }
+
+    private static String normalize(String currency) {
+        if (currency == null || currency.isBlank()) {
+            throw new IllegalArgumentException("Currency must not be empty");
+        }
+        return currency.trim().toUpperCase(Locale.ROOT);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
     }
 }
@@ -0,0 +1,147 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+import sunshine_dental_care.services.huybro_cart.interfaces.CartStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Giỏ hàng lưu mỗi user 1 file JSON trên đĩa (app.cart.store=disk) cho triển khai 1 node không cần bảng UserCarts.
+ * Không giữ gì trong heap; file không được sửa sau app.cart.disk-ttl-days bị xóa.
+ */
+@Component
+@ConditionalOnProperty(name = "app.cart.store", havingValue = "disk")
+@Slf4j
+public class LocalDiskCartStore implements CartStore {
+
+    private static final int STRIPES = 64;
+
+    private final ObjectMapper objectMapper;
+    private final Path dir;
+    private final Duration ttl;
+    private final Object[] stripes = new Object[STRIPES];
+
+    public LocalDiskCartStore(ObjectMapper objectMapper,
+                              @Value("${app.cart.disk-dir:data/carts}") String dir,
+                              @Value("${app.cart.disk-ttl-days:30}") long ttlDays) throws IOException {
+        this.objectMapper = objectMapper;
+        this.dir = Paths.get(dir);
+        this.ttl = Duration.ofDays(ttlDays);
+        Files.createDirectories(this.dir);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+    }
+
+    // Nội dung 1 file giỏ hàng
+    public static class CartFile {
+        public LinkedHashMap<Integer, CartItemDto> items = new LinkedHashMap<>();
+        public String invoiceCode;
+    }
+
+    @Override
+    public Map<Integer, CartItemDto> getCart(Integer userId) {
+        synchronized (stripe(userId)) {
+            return read(userId).items;
+        }
+    }
+
+    @Override
+    public void saveCart(Integer userId, Map<Integer, CartItemDto> items) {
+        synchronized (stripe(userId)) {
+            CartFile cart = read(userId);
+            cart.items = new LinkedHashMap<>(items);
+            write(userId, cart);
+        }
+    }
+
+    @Override
+    public String getInvoiceCode(Integer userId) {
+        synchronized (stripe(userId)) {
+            return read(userId).invoiceCode;
+        }
+    }
+
+    @Override
+    public void setInvoiceCode(Integer userId, String code) {
+        synchronized (stripe(userId)) {
+            CartFile cart = read(userId);
+            cart.invoiceCode = code;
+            write(userId, cart);
+        }
+    }
+
+    @Override
+    public void clearCart(Integer userId) {
+        synchronized (stripe(userId)) {
+            try {
+                Files.deleteIfExists(file(userId));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Scheduled(cron = "${app.cart.purge-cron:0 30 3 * * *}", zone = "Asia/Ho_Chi_Minh")
+    public void purgeAbandoned() {
+        FileTime cutoff = FileTime.from(Instant.now().minus(ttl));
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path f : files) {
+                if (Files.getLastModifiedTime(f).compareTo(cutoff) < 0 && Files.deleteIfExists(f)) removed++;
+            }
+        } catch (IOException e) {
+            log.warn("Cannot purge cart files in {}: {}", dir, e.getMessage());
+        }
+        if (removed > 0) log.info("Purged {} abandoned cart file(s)", removed);
+    }
+
+    private CartFile read(Integer userId) {
+        Path f = file(userId);
+        if (!Files.exists(f)) return new CartFile();
+        try {
+            CartFile cart = objectMapper.readValue(f.toFile(), CartFile.class);
+            if (cart.items == null) cart.items = new LinkedHashMap<>();
+            return cart;
+        } catch (IOException e) {
+            log.warn("Corrupted cart file {}, starting with an empty cart: {}", f, e.getMessage());
+            return new CartFile();
+        }
+    }
+
+    // Ghi file tạm rồi move để không bao giờ đọc phải file ghi dở
+    private void write(Integer userId, CartFile cart) {
+        Path f = file(userId);
+        Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), cart);
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot save cart of user " + userId, e);
+        }
+    }
+
+    private Path file(Integer userId) {
+        return dir.resolve(Objects.requireNonNull(userId) + ".json");
+    }
+
+    private Object stripe(Integer userId) {
+        return stripes[Math.floorMod(Objects.hashCode(userId), STRIPES)];
+    }
+}
@@ -0,0 +1,321 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpSession;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory;
+import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository;
+import sunshine_dental_care.services.huybro_products.impl.ProductCatalogCache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Giữ chỗ hàng (soft reservation) khi thêm vào giỏ:
+ * - Mỗi chủ giỏ (user hoặc session khách) giữ 1 số lượng cho từng sản phẩm; hết hạn sau app.cart.reservation-ttl-minutes
+ *   kể từ lần chạm giỏ gần nhất (timer trong bộ nhớ), hoặc được trả khi xóa khỏi giỏ / clear giỏ.
+ * - Tồn kho thực (onHand) theo sản phẩm + kho được cache trong bộ nhớ, làm mới khi catalog báo sản phẩm thay đổi.
+ * - Số giữ được chia theo từng kho giống thứ tự trừ kho lúc checkout (app.cart.reservation-clinic-order, kho đầu ưu tiên):
+ *   số còn có thể giữ ở mỗi kho = onHand của kho - tổng người khác đang giữ ở kho đó.
+ * - Checkout gọi confirm để chắc chắn vẫn giữ đủ rồi mới trừ kho thật; giữ chỗ được trả sau khi commit.
+ * - Khách đăng nhập: giữ chỗ của session được chuyển sang user (transfer).
+ * Sổ giữ chỗ nằm trong bộ nhớ của 1 node; trừ kho tại checkout vẫn là chốt chặn cuối (CheckoutStockAllocator).
+ */
+@Service
+@Slf4j
+public class StockReservationService {
+
+    private static final int STRIPES = 64;
+
+    private final ProductInventoryRepository productInventoryRepository;
+    private final Duration ttl;
+    // Thứ tự kho khi chia số giữ; kho không có trong danh sách xếp sau, theo id tăng dần
+    private final List<Integer> clinicOrder;
+
+    private final Object[] stripes = new Object[STRIPES];
+    // productId -> (clinicId -> quantity)
+    private final Map<Integer, Map<Integer, Integer>> onHand = new ConcurrentHashMap<>();
+    // productId -> (clinicId -> tổng đang giữ); map bên trong chỉ đọc / ghi trong khóa sản phẩm
+    private final Map<Integer, Map<Integer, Integer>> reservedByProduct = new ConcurrentHashMap<>();
+    // (owner, productId) -> giữ chỗ
+    private final Map<ReservationKey, Reservation> reservations = new ConcurrentHashMap<>();
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    @Autowired
+    public StockReservationService(ProductInventoryRepository productInventoryRepository,
+                                   ProductCatalogCache catalogCache,
+                                   @Value("${app.cart.reservation-ttl-minutes:15}") long ttlMinutes,
+                                   @Value("${app.cart.reservation-clinic-order:2,1}") String clinicOrder) {
+        this(productInventoryRepository, catalogCache, Duration.ofMinutes(ttlMinutes), clinicOrder);
+    }
+
+    StockReservationService(ProductInventoryRepository productInventoryRepository,
+                            ProductCatalogCache catalogCache,
+                            Duration ttl,
+                            String clinicOrder) {
+        this.productInventoryRepository = productInventoryRepository;
+        this.ttl = ttl;
+        this.clinicOrder = Arrays.stream(clinicOrder.split(","))
+                .map(String::trim)
+                .filter(v -> !v.isEmpty())
+                .map(Integer::valueOf)
+                .toList();
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "stock-reservation-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+
+        // Nhập kho / xuất kho / checkout đều evict catalog -> đọc lại tồn kho thực
+        catalogCache.addChangeListener(this::invalidateOnHand);
+    }
+
+    private record ReservationKey(String owner, Integer productId) {}
+
+    private static final class Reservation {
+        final int quantity;
+        // clinicId -> số giữ ở kho đó (tổng = quantity)
+        final Map<Integer, Integer> byClinic;
+        ScheduledFuture<?> expiry;
+
+        Reservation(int quantity, Map<Integer, Integer> byClinic) {
+            this.quantity = quantity;
+            this.byClinic = byClinic;
+        }
+    }
+
+    // Chủ giỏ: user đã đăng nhập theo userId, khách theo session
+    public static String ownerOf(Integer userId, HttpSession session) {
+        return userId != null ? "U:" + userId : "S:" + session.getId();
+    }
+
+    // Số còn có thể cho vào giỏ (không tính phần chính owner đang giữ); owner null = số còn trống cho mọi người
+    public int getAvailable(Integer productId, String owner) {
+        synchronized (stripe(productId)) {
+            return freeByClinic(productId, owner).values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    public int getAvailable(Integer productId) {
+        return getAvailable(productId, null);
+    }
+
+    public Map<Integer, Integer> getOnHandByClinic(Integer productId) {
+        return Map.copyOf(onHandOf(productId));
+    }
+
+    // clinicId -> tổng đang được giữ ở kho đó
+    public Map<Integer, Integer> getReservedByClinic(Integer productId) {
+        synchronized (stripe(productId)) {
+            return Map.copyOf(reservedByProduct.getOrDefault(productId, Map.of()));
+        }
+    }
+
+    /**
+     * Đặt số lượng owner giữ cho sản phẩm (thay thế số cũ) và gia hạn TTL.
+     * Không đủ hàng -> IllegalArgumentException như kiểm tra tồn kho trước đây.
+     */
+    public void reserve(String owner, Integer productId, int quantity) {
+        if (quantity <= 0) {
+            release(owner, productId);
+            return;
+        }
+        synchronized (stripe(productId)) {
+            Map<Integer, Integer> free = freeByClinic(productId, owner);
+            int available = free.values().stream().mapToInt(Integer::intValue).sum();
+            if (available < quantity) {
+                throw new IllegalArgumentException("Sorry, we only have " + Math.max(0, available) + " items in stock (Total).");
+            }
+            put(owner, productId, quantity, split(free, quantity));
+        }
+    }
+
+    // Checkout: giữ đúng số lượng trong giỏ cho từng sản phẩm; thiếu hàng -> IllegalStateException như lúc trừ kho
+    public void confirm(String owner, Map<Integer, Integer> quantities, Map<Integer, String> productNames) {
+        for (Map.Entry<Integer, Integer> it : quantities.entrySet()) {
+            try {
+                reserve(owner, it.getKey(), it.getValue());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Out of stock: Product " + productNames.get(it.getKey()));
+            }
+        }
+    }
+
+    // Bỏ 1 sản phẩm khỏi giỏ
+    public void release(String owner, Integer productId) {
+        synchronized (stripe(productId)) {
+            Reservation r = reservations.remove(new ReservationKey(owner, productId));
+            if (r != null) removeReserved(productId, r);
+        }
+    }
+
+    // Clear giỏ / checkout: trong transaction thì chỉ trả sau khi commit (rollback -> vẫn giữ)
+    public void releaseAll(String owner) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    releaseAllNow(owner, true);
+                }
+            });
+        } else {
+            releaseAllNow(owner, false);
+        }
+    }
+
+    /**
+     * Khách đăng nhập: chuyển giữ chỗ của session sang user, cộng với phần user đang giữ (giỏ khách được gộp vào giỏ user).
+     * Chỉ chuyển số đã giữ nên không cần kiểm tra lại tồn kho; TTL tính lại từ lúc chuyển.
+     */
+    public void transfer(String fromOwner, String toOwner) {
+        if (fromOwner.equals(toOwner)) return;
+        for (Integer productId : productsOf(fromOwner)) {
+            synchronized (stripe(productId)) {
+                Reservation from = reservations.remove(new ReservationKey(fromOwner, productId));
+                if (from == null) continue;
+                removeReserved(productId, from);
+                Reservation to = reservations.get(new ReservationKey(toOwner, productId));
+                Map<Integer, Integer> byClinic = new HashMap<>(from.byClinic);
+                int quantity = from.quantity;
+                if (to != null) {
+                    to.byClinic.forEach((clinicId, qty) -> byClinic.merge(clinicId, qty, Integer::sum));
+                    quantity += to.quantity;
+                }
+                put(toOwner, productId, quantity, byClinic);
+            }
+        }
+    }
+
+    int reservationCount() {
+        return reservations.size();
+    }
+
+    private void releaseAllNow(String owner, boolean stockChanged) {
+        for (Integer productId : productsOf(owner)) {
+            synchronized (stripe(productId)) {
+                // Checkout vừa trừ kho thật: bỏ onHand cũ TRƯỚC khi trả giỏ, nếu không request khác có thể
+                // thấy cùng lúc onHand cũ + phần vừa trả và giữ lại đúng số vừa bán
+                if (stockChanged) invalidateOnHand(productId);
+                release(owner, productId);
+            }
+        }
+    }
+
+    private List<Integer> productsOf(String owner) {
+        return reservations.keySet().stream()
+                .filter(k -> k.owner().equals(owner))
+                .map(ReservationKey::productId)
+                .toList();
+    }
+
+    // Gọi trong khóa sản phẩm
+    private void put(String owner, Integer productId, int quantity, Map<Integer, Integer> byClinic) {
+        ReservationKey key = new ReservationKey(owner, productId);
+        Reservation next = new Reservation(quantity, Map.copyOf(byClinic));
+        next.expiry = executor.schedule(() -> expire(key, next), ttl.toMillis(), TimeUnit.MILLISECONDS);
+        Reservation previous = reservations.put(key, next);
+        if (previous != null) removeReserved(productId, previous);
+        Map<Integer, Integer> reserved = reservedByProduct.computeIfAbsent(productId, k -> new HashMap<>());
+        next.byClinic.forEach((clinicId, qty) -> reserved.merge(clinicId, qty, Integer::sum));
+    }
+
+    // Gọi trong khóa sản phẩm
+    private void removeReserved(Integer productId, Reservation r) {
+        r.expiry.cancel(false);
+        Map<Integer, Integer> reserved = reservedByProduct.get(productId);
+        if (reserved == null) return;
+        r.byClinic.forEach((clinicId, qty) ->
+                reserved.computeIfPresent(clinicId, (k, v) -> v - qty <= 0 ? null : v - qty));
+        if (reserved.isEmpty()) reservedByProduct.remove(productId);
+    }
+
+    // Chỉ trả đúng lần giữ đã hết hạn; nếu user vừa gia hạn thì giữ chỗ mới không bị đụng tới
+    private void expire(ReservationKey key, Reservation expired) {
+        synchronized (stripe(key.productId())) {
+            if (reservations.remove(key, expired)) {
+                removeReserved(key.productId(), expired);
+                log.debug("Stock reservation of {} for product {} expired", key.owner(), key.productId());
+            }
+        }
+    }
+
+    // Gọi trong khóa sản phẩm. clinicId -> số owner còn giữ thêm được ở kho đó (theo thứ tự ưu tiên, không âm)
+    private Map<Integer, Integer> freeByClinic(Integer productId, String owner) {
+        Map<Integer, Integer> reserved = new HashMap<>(reservedByProduct.getOrDefault(productId, Map.of()));
+        Reservation own = owner == null ? null : reservations.get(new ReservationKey(owner, productId));
+        if (own != null) own.byClinic.forEach((clinicId, qty) -> reserved.merge(clinicId, -qty, Integer::sum));
+
+        Map<Integer, Integer> stock = onHandOf(productId);
+        List<Integer> clinics = new ArrayList<>(stock.keySet());
+        clinics.sort(Comparator.comparingInt((Integer id) -> {
+            int idx = clinicOrder.indexOf(id);
+            return idx < 0 ? Integer.MAX_VALUE : idx;
+        }).thenComparing(Comparator.naturalOrder()));
+
+        Map<Integer, Integer> free = new LinkedHashMap<>();
+        for (Integer clinicId : clinics) {
+            free.put(clinicId, Math.max(0, stock.get(clinicId) - reserved.getOrDefault(clinicId, 0)));
+        }
+        return free;
+    }
+
+    // Kho ưu tiên trước, thiếu thì lấy tiếp kho sau (giống CheckoutStockAllocator)
+    private static Map<Integer, Integer> split(Map<Integer, Integer> free, int quantity) {
+        Map<Integer, Integer> byClinic = new HashMap<>();
+        int remaining = quantity;
+        for (Map.Entry<Integer, Integer> it : free.entrySet()) {
+            if (remaining == 0) break;
+            int take = Math.min(remaining, it.getValue());
+            if (take > 0) byClinic.put(it.getKey(), take);
+            remaining -= take;
+        }
+        return byClinic;
+    }
+
+    private Map<Integer, Integer> onHandOf(Integer productId) {
+        return onHand.computeIfAbsent(productId, id -> {
+            Map<Integer, Integer> byClinic = new HashMap<>();
+            for (ProductInventory inv : productInventoryRepository.findByProductId(id)) {
+                byClinic.merge(inv.getClinic().getId(), inv.getQuantity(), Integer::sum);
+            }
+            return Map.copyOf(byClinic);
+        });
+    }
+
+    private void invalidateOnHand(Integer productId) {
+        if (productId == null) {
+            onHand.clear();
+        } else {
+            onHand.remove(productId);
+        }
+    }
+
+    private Object stripe(Integer productId) {
+        return stripes[Math.floorMod(Objects.hashCode(productId), STRIPES)];
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,33 +1,407 @@
 package sunshine_dental_care.services.huybro_cart.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+import sunshine_dental_care.entities.huybro_cart.UserCart;
+import sunshine_dental_care.repositories.huybro_cart.UserCartRepository;
+import sunshine_dental_care.services.huybro_cart.interfaces.CartStore;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Giỏ hàng của user: tầng bộ nhớ có giới hạn + bảng UserCarts.
+ * - Bộ nhớ: LRU theo app.cart.memory-max-entries, giỏ không được đụng tới sau app.cart.memory-idle-minutes bị đẩy ra.
+ * - 1 node: ghi sau (write-behind) mỗi app.cart.flush-ms; giỏ chưa ghi mà bị đẩy khỏi LRU vẫn được giữ tới lần flush.
+ *   Số giỏ chưa ghi tối đa app.cart.max-dirty-entries; đầy thì lần sửa tiếp theo ghi thẳng DB (backpressure).
+ * - Nhiều node (app.cart.cluster=true): ghi thẳng DB; khi đọc so version trên DB (tối đa 1 lần / app.cart.version-check-ms
+ *   cho mỗi giỏ) và nạp lại nếu node khác đã ghi.
+ * - Xung đột version khi ghi: nạp lại giỏ trên DB và gộp 3 chiều theo từng sản phẩm với bản đã đọc / ghi lần trước
+ *   (sản phẩm node này không đổi thì lấy bản DB, sản phẩm node này đã đổi thì giữ thao tác của node này).
+ */
 @Component
-public class UserCartStoreService {
-    // userId -> (productId -> CartItemDto)
-    private final Map<Integer, Map<Integer, CartItemDto>> carts = new ConcurrentHashMap<>();
+@ConditionalOnProperty(name = "app.cart.store", havingValue = "tiered", matchIfMissing = true)
+@Slf4j
+public class UserCartStoreService implements CartStore {
 
-    // userId -> invoiceCode (Lưu mã hóa đơn cố định cho user)
-    private final Map<Integer, String> invoiceCodes = new ConcurrentHashMap<>();
+    private static final TypeReference<LinkedHashMap<Integer, CartItemDto>> ITEMS_TYPE = new TypeReference<>() {};
+    private static final int STRIPES = 64;
+    private static final int WRITE_ATTEMPTS = 3;
 
-    public Map<Integer, CartItemDto> getOrCreateCart(Integer userId) {
-        return carts.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+    private final UserCartRepository userCartRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate txTemplate;
+    private final int maxEntries;
+    private final Duration idleTtl;
+    private final Duration dbTtl;
+    private final boolean cluster;
+    private final int maxDirtyEntries;
+    private final long versionCheckMs;
+
+    // Khóa theo user (I/O DB nằm trong khóa này); "lru" chỉ giữ trong thời gian ngắn, luôn lấy sau khóa user
+    private final Object[] stripes = new Object[STRIPES];
+    private final Object lru = new Object();
+    private final LinkedHashMap<Integer, CartEntry> entries;
+    // Giỏ đã bị đẩy khỏi bộ nhớ nhưng chưa ghi xuống DB (luôn là tập con của các giỏ dirty)
+    private final Map<Integer, CartEntry> pendingWrites = new ConcurrentHashMap<>();
+    // Số giỏ dirty (trong LRU + pendingWrites), đọc / ghi trong khóa "lru"
+    private int dirtyCount;
+    private final AtomicLong writeThroughs = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+
+    public UserCartStoreService(UserCartRepository userCartRepository,
+                                ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${app.cart.memory-max-entries:10000}") int maxEntries,
+                                @Value("${app.cart.memory-idle-minutes:30}") long idleMinutes,
+                                @Value("${app.cart.db-ttl-days:30}") long dbTtlDays,
+                                @Value("${app.cart.cluster:false}") boolean cluster,
+                                @Value("${app.cart.max-dirty-entries:5000}") int maxDirtyEntries,
+                                @Value("${app.cart.version-check-ms:1000}") long versionCheckMs) {
+        this.userCartRepository = userCartRepository;
+        this.objectMapper = objectMapper;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        // Tách khỏi transaction (readOnly) của CartServiceImpl
+        this.txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.idleTtl = Duration.ofMinutes(idleMinutes);
+        this.dbTtl = Duration.ofDays(dbTtlDays);
+        this.cluster = cluster;
+        this.maxDirtyEntries = Math.max(1, maxDirtyEntries);
+        this.versionCheckMs = Math.max(0, versionCheckMs);
+
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CartEntry> eldest) {
+                if (size() <= UserCartStoreService.this.maxEntries) return false;
+                if (eldest.getValue().dirty) pendingWrites.put(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
     }
 
+    private static final class CartEntry {
+        LinkedHashMap<Integer, CartItemDto> items;
+        String invoiceCode;
+        // null = chưa có dòng trên DB
+        Long version;
+        // Trạng thái trên DB ứng với version (gốc để gộp khi xung đột); giữ JSON để không dính DTO caller sửa tại chỗ
+        String baseJson;
+        String baseInvoiceCode;
+        boolean dirty;
+        long lastAccess;
+        // Lần cuối xác nhận version với DB (chế độ cluster)
+        long versionCheckedAt;
+
+        CartEntry(LinkedHashMap<Integer, CartItemDto> items, String invoiceCode, Long version, String baseJson) {
+            this.items = items;
+            this.invoiceCode = invoiceCode;
+            this.version = version;
+            this.baseJson = baseJson;
+            this.baseInvoiceCode = invoiceCode;
+            this.lastAccess = System.currentTimeMillis();
+            this.versionCheckedAt = this.lastAccess;
+        }
+    }
+
+    @Override
+    public Map<Integer, CartItemDto> getCart(Integer userId) {
+        synchronized (stripe(userId)) {
+            return new LinkedHashMap<>(entry(userId).items);
+        }
+    }
+
+    @Override
+    public void saveCart(Integer userId, Map<Integer, CartItemDto> items) {
+        synchronized (stripe(userId)) {
+            CartEntry e = entry(userId);
+            e.items = new LinkedHashMap<>(items);
+            changed(userId, e);
+        }
+    }
+
+    @Override
     public String getInvoiceCode(Integer userId) {
-        return invoiceCodes.get(userId);
+        synchronized (stripe(userId)) {
+            return entry(userId).invoiceCode;
+        }
     }
 
+    @Override
     public void setInvoiceCode(Integer userId, String code) {
-        invoiceCodes.put(userId, code);
+        synchronized (stripe(userId)) {
+            CartEntry e = entry(userId);
+            e.invoiceCode = code;
+            changed(userId, e);
+        }
     }
 
+    @Override
     public void clearCart(Integer userId) {
-        carts.remove(userId);
-        invoiceCodes.remove(userId); // Xóa mã hóa đơn khi clear cart
+        synchronized (stripe(userId)) {
+            CartEntry e = entry(userId);
+            e.items = new LinkedHashMap<>();
+            e.invoiceCode = null; // Xóa mã hóa đơn khi clear cart
+            changed(userId, e);
+        }
+    }
+
+    // --- BỘ NHỚ ---
+
+    // Gọi trong khóa user
+    private CartEntry entry(Integer userId) {
+        CartEntry e;
+        synchronized (lru) {
+            e = entries.get(userId);
+            if (e == null) {
+                e = pendingWrites.get(userId);
+                if (e != null) entries.put(userId, e);
+            }
+        }
+
+        // Trong cửa sổ version-check-ms có thể đọc giỏ cũ hơn node khác; ghi vẫn được kiểm tra bằng version
+        if (e != null && cluster && !e.dirty && System.currentTimeMillis() - e.versionCheckedAt >= versionCheckMs) {
+            versionChecks.incrementAndGet();
+            Long dbVersion = userCartRepository.findVersionByUserId(userId).orElse(null);
+            if (Objects.equals(dbVersion, e.version)) {
+                e.versionCheckedAt = System.currentTimeMillis();
+            } else {
+                e = null; // node khác đã ghi
+            }
+        }
+
+        if (e == null) {
+            e = load(userId);
+            synchronized (lru) {
+                entries.put(userId, e);
+            }
+        }
+        e.lastAccess = System.currentTimeMillis();
+        return e;
+    }
+
+    // Gọi trong khóa user
+    private void changed(Integer userId, CartEntry e) {
+        if (cluster) {
+            write(userId, e);
+            return;
+        }
+        synchronized (lru) {
+            if (!e.dirty && dirtyCount >= maxDirtyEntries) {
+                // Đã quá nhiều giỏ chờ ghi: ghi thẳng giỏ này thay vì để hàng chờ phình ra
+                writeThroughs.incrementAndGet();
+            } else {
+                if (!e.dirty) dirtyCount++;
+                e.dirty = true;
+                // Bị đẩy khỏi LRU giữa lúc đọc và ghi -> vẫn phải được flush
+                if (entries.get(userId) != e) pendingWrites.put(userId, e);
+                return;
+            }
+        }
+        write(userId, e);
+    }
+
+    // Đẩy các giỏ lâu không dùng ra khỏi bộ nhớ
+    private int evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTtl.toMillis();
+        int evicted = 0;
+        synchronized (lru) {
+            var it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, CartEntry> next = it.next();
+                // access-order: phần tử đầu là phần tử lâu nhất chưa dùng
+                if (next.getValue().lastAccess >= cutoff) break;
+                if (next.getValue().dirty) pendingWrites.put(next.getKey(), next.getValue());
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    // --- DB ---
+
+    private CartEntry load(Integer userId) {
+        return userCartRepository.findById(userId)
+                .map(c -> new CartEntry(fromJson(c.getItemsJson()), c.getInvoiceCode(), c.getVersion(), c.getItemsJson()))
+                .orElseGet(() -> new CartEntry(new LinkedHashMap<>(), null, null, null));
+    }
+
+    // Gọi trong khóa user. Xung đột version: nạp lại dòng trên DB, gộp với thay đổi của node này rồi ghi lại
+    private void write(Integer userId, CartEntry e) {
+        Instant now = Instant.now();
+        for (int attempt = 0; attempt < WRITE_ATTEMPTS; attempt++) {
+            String json = toJson(e.items);
+            try {
+                Long written = txTemplate.execute(status -> {
+                    if (e.version == null) {
+                        UserCart cart = new UserCart();
+                        cart.setUserId(userId);
+                        cart.setItemsJson(json);
+                        cart.setInvoiceCode(e.invoiceCode);
+                        cart.setUpdatedAt(now);
+                        return userCartRepository.saveAndFlush(cart).getVersion();
+                    }
+                    int rows = userCartRepository.updateIfVersion(userId, json, e.invoiceCode, e.version, now);
+                    return rows == 1 ? e.version + 1 : null;
+                });
+                if (written != null) {
+                    e.version = written;
+                    e.baseJson = json;
+                    e.baseInvoiceCode = e.invoiceCode;
+                    e.versionCheckedAt = System.currentTimeMillis();
+                    synchronized (lru) {
+                        if (e.dirty) dirtyCount--;
+                        e.dirty = false;
+                        pendingWrites.remove(userId, e);
+                    }
+                    return;
+                }
+            } catch (DataIntegrityViolationException ex) {
+                // Node khác vừa tạo dòng cho user này
+                log.debug("Cart row for user {} created concurrently", userId);
+            }
+            log.info("Cart version conflict for user {}, merging with the stored cart", userId);
+            mergeWithStored(userId, e);
+        }
+        throw new IllegalStateException("Cannot save cart, please try again");
+    }
+
+    // Đọc trong transaction riêng để không nhận lại entity cũ từ persistence context của caller
+    private void mergeWithStored(Integer userId, CartEntry e) {
+        UserCart stored = txTemplate.execute(status -> userCartRepository.findById(userId).orElse(null));
+        LinkedHashMap<Integer, CartItemDto> remote = stored == null ? new LinkedHashMap<>() : fromJson(stored.getItemsJson());
+        String remoteInvoiceCode = stored == null ? null : stored.getInvoiceCode();
+
+        e.items = merge(fromJson(e.baseJson), e.items, remote);
+        if (Objects.equals(e.invoiceCode, e.baseInvoiceCode)) e.invoiceCode = remoteInvoiceCode;
+        e.version = stored == null ? null : stored.getVersion();
+        e.baseJson = stored == null ? null : stored.getItemsJson();
+        e.baseInvoiceCode = remoteInvoiceCode;
+    }
+
+    // Gộp 3 chiều theo productId: node này không đổi so với gốc -> lấy bản DB, ngược lại giữ bản của node này
+    static LinkedHashMap<Integer, CartItemDto> merge(Map<Integer, CartItemDto> base,
+                                                     Map<Integer, CartItemDto> local,
+                                                     Map<Integer, CartItemDto> remote) {
+        LinkedHashMap<Integer, CartItemDto> merged = new LinkedHashMap<>();
+        Set<Integer> keys = new LinkedHashSet<>(local.keySet());
+        keys.addAll(remote.keySet());
+        keys.addAll(base.keySet());
+
+        for (Integer id : keys) {
+            CartItemDto mine = local.get(id);
+            CartItemDto chosen = Objects.equals(mine, base.get(id)) ? remote.get(id) : mine;
+            if (chosen != null) merged.put(id, chosen);
+        }
+        return merged;
+    }
+
+    @Scheduled(fixedDelayString = "${app.cart.flush-ms:5000}")
+    public void flush() {
+        List<Map.Entry<Integer, CartEntry>> dirty = new ArrayList<>();
+        synchronized (lru) {
+            for (Map.Entry<Integer, CartEntry> it : entries.entrySet()) {
+                if (it.getValue().dirty) dirty.add(Map.entry(it.getKey(), it.getValue()));
+            }
+        }
+        for (Map.Entry<Integer, CartEntry> it : pendingWrites.entrySet()) {
+            dirty.add(Map.entry(it.getKey(), it.getValue()));
+        }
+
+        int written = 0;
+        for (Map.Entry<Integer, CartEntry> it : dirty) {
+            Integer userId = it.getKey();
+            CartEntry e = it.getValue();
+            synchronized (stripe(userId)) {
+                try {
+                    if (e.dirty) {
+                        write(userId, e);
+                        written++;
+                    }
+                    pendingWrites.remove(userId, e);
+                } catch (Exception ex) {
+                    log.warn("Cannot flush cart of user {}: {}", userId, ex.getMessage());
+                }
+            }
+        }
+
+        int evicted = evictIdle();
+        if (written > 0 || evicted > 0) {
+            log.debug("Cart store: flushed {}, evicted {}, in memory {}, pending {}",
+                    written, evicted, size(), pendingWrites.size());
+        }
+    }
+
+    // Giỏ bỏ quên quá lâu trên DB
+    @Scheduled(cron = "${app.cart.purge-cron:0 30 3 * * *}", zone = "Asia/Ho_Chi_Minh")
+    public void purgeAbandoned() {
+        Integer removed = txTemplate.execute(status ->
+                userCartRepository.deleteUpdatedBefore(Instant.now().minus(dbTtl)));
+        if (removed != null && removed > 0) log.info("Purged {} abandoned cart(s)", removed);
+    }
+
+    public int size() {
+        synchronized (lru) {
+            return entries.size();
+        }
+    }
+
+    public record StoreStats(int inMemory, int dirty, int pendingWrites, long writeThroughs, long versionChecks) {}
+
+    public StoreStats getStats() {
+        synchronized (lru) {
+            return new StoreStats(entries.size(), dirtyCount, pendingWrites.size(),
+                    writeThroughs.get(), versionChecks.get());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private Object stripe(Integer userId) {
+        return stripes[Math.floorMod(Objects.hashCode(userId), STRIPES)];
+    }
+
+    private String toJson(Map<Integer, CartItemDto> items) {
+        try {
+            return objectMapper.writeValueAsString(items);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize cart", e);
+        }
+    }
+
+    private LinkedHashMap<Integer, CartItemDto> fromJson(String json) {
+        if (json == null || json.isBlank()) return new LinkedHashMap<>();
+        try {
+            return objectMapper.readValue(json, ITEMS_TYPE);
+        } catch (JsonProcessingException e) {
+            log.warn("Corrupted cart json, starting with an empty cart: {}", e.getMessage());
+            return new LinkedHashMap<>();
+        }
     }
-}
\ No newline at end of file
+}
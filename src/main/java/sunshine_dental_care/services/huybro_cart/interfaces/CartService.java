@@ -19,4 +19,7 @@ public interface CartService {
 
     void clearCart(HttpSession session);
 
+    // Cấp (hoặc trả lại mã đã cấp) số hóa đơn cho giỏ hiện tại, gọi lúc bắt đầu thanh toán / đặt hàng
+    String issueInvoiceCode(HttpSession session);
+
 }
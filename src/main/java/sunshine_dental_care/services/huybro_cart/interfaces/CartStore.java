@@ -0,0 +1,23 @@
+package sunshine_dental_care.services.huybro_cart.interfaces;
+
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+
+import java.util.Map;
+
+/**
+ * Nơi lưu giỏ hàng của user đã đăng nhập (khách vãng lai vẫn dùng HttpSession).
+ * Chọn implementation bằng app.cart.store: tiered (mặc định, bộ nhớ + DB) | disk (1 node).
+ */
+public interface CartStore {
+
+    // Bản sao giỏ hàng (productId -> item); sửa xong phải gọi saveCart
+    Map<Integer, CartItemDto> getCart(Integer userId);
+
+    void saveCart(Integer userId, Map<Integer, CartItemDto> items);
+
+    String getInvoiceCode(Integer userId);
+
+    void setInvoiceCode(Integer userId, String code);
+
+    void clearCart(Integer userId);
+}
@@ -19,21 +19,21 @@ import sunshine_dental_care.entities.User;
 import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoice;
 import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoiceItem;
 import sunshine_dental_care.entities.huybro_products.Product;
-import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory;
 import sunshine_dental_care.exceptions.huy_bro_checkoutLog.CheckoutValidationException;
 import sunshine_dental_care.repositories.huybro_custom.ClinicRepository; // [IMPORT MỚI]
 import sunshine_dental_care.repositories.huybro_custom.UserCustomRepository;
-import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository; // [IMPORT MỚI]
 import sunshine_dental_care.repositories.huybro_products.ProductInvoiceItemRepository;
 import sunshine_dental_care.repositories.huybro_products.ProductInvoiceRepository;
 import sunshine_dental_care.repositories.huybro_products.ProductRepository;
 import sunshine_dental_care.security.CurrentUser;
 import sunshine_dental_care.services.huybro_cart.impl.CurrencyRateInternalService;
+import sunshine_dental_care.services.huybro_cart.impl.StockReservationService;
 import sunshine_dental_care.services.huybro_cart.interfaces.CartService;
 import sunshine_dental_care.services.huybro_checkout.email.client.EmailService;
 import sunshine_dental_care.services.huybro_checkout.interfaces.CheckoutInvoiceService;
 import sunshine_dental_care.services.interfaces.system.AuditLogService;
 import sunshine_dental_care.utils.huybro_utils.EmailTemplateUtils;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -54,10 +54,12 @@ public class CheckoutInvoiceServiceImpl implements CheckoutInvoiceService {
     private final ProductInvoiceItemRepository productInvoiceItemRepository;
     private final UserCustomRepository userRepository;
     private final CurrencyRateInternalService currencyRateService;
-    private final ProductInventoryRepository productInventoryRepository;
     private final ClinicRepository clinicRepository;
     private final EmailService emailService;
     private final AuditLogService auditLogService;
+    private final CheckoutStockAllocator stockAllocator;
+    private final StockReservationService stockReservationService;
+    private final RevenueFactService revenueFactService;
     // [CONFIG HARDCODE] Theo yêu cầu: Q9 ưu tiên, Q1 dự phòng
     private static final Integer ID_Q1 = 1; // Kho Khám
     private static final Integer ID_Q9 = 2; // Kho Bán (Ưu tiên)
@@ -158,7 +160,8 @@ public class CheckoutInvoiceServiceImpl implements CheckoutInvoiceService {
 
         ProductInvoice invoice = new ProductInvoice();
         invoice.setClinic(saleClinic); // Gắn Clinic
-        invoice.setInvoiceCode(cartView.getInvoiceCode());
+        // Số hóa đơn cấp lúc đặt hàng (hoặc mã đã gửi cổng thanh toán của cùng giỏ)
+        invoice.setInvoiceCode(cartService.issueInvoiceCode(session));
         invoice.setSubTotal(subTotal.setScale(2, RoundingMode.HALF_UP));
         invoice.setTaxTotal(taxTotal.setScale(2, RoundingMode.HALF_UP));
         invoice.setTotalAmount(totalAfterTax.setScale(2, RoundingMode.HALF_UP));
@@ -180,57 +183,36 @@ public class CheckoutInvoiceServiceImpl implements CheckoutInvoiceService {
         invoice.setUpdatedAt(now);
 
         ProductInvoice savedInvoice = productInvoiceRepository.save(invoice);
+        // Ngày của hóa đơn được tính lại vào bảng doanh thu sau khi commit
+        revenueFactService.invoiceChanged(savedInvoice);
         List<ProductInvoiceItem> invoiceItems = new ArrayList<>();
 
-        // === VÒNG LẶP TRỪ KHO ƯU TIÊN ===
+        // Chuyển giữ chỗ thành trừ kho thật: giỏ phải vẫn giữ đủ số lượng (không lấn phần giỏ khác đang giữ)
+        Map<Integer, Integer> quantities = new HashMap<>();
+        Map<Integer, String> productNames = new HashMap<>();
         for (CartItemDto cartItem : cartView.getItems()) {
-            Product product = productRepository.findById(cartItem.getProductId())
-                    .orElseThrow(() -> new IllegalStateException("Product not found for id=" + cartItem.getProductId()));
-
-            int quantityNeeded = cartItem.getQuantity();
-
-            // 1. Lấy Inventory hiện tại
-            ProductInventory invQ9 = getInventoryOrNew(product, ID_Q9);
-            ProductInventory invQ1 = getInventoryOrNew(product, ID_Q1);
-
-            int stockQ9 = invQ9.getQuantity();
-            int stockQ1 = invQ1.getQuantity();
-
-            // 2. Double Check: Tổng kho có đủ không?
-            if (stockQ9 + stockQ1 < quantityNeeded) {
-                throw new IllegalStateException("Out of stock: Product " + product.getProductName());
-            }
+            quantities.merge(cartItem.getProductId(), cartItem.getQuantity(), Integer::sum);
+            productNames.putIfAbsent(cartItem.getProductId(), cartItem.getProductName());
+        }
+        stockReservationService.confirm(
+                StockReservationService.ownerOf(isLoggedIn ? currentUser.getId() : null, session),
+                quantities, productNames);
 
-            // 3. Tính toán trừ kho (Q9 trước, Q1 sau)
-            int takeFromQ9 = 0;
-            int takeFromQ1 = 0;
-
-            if (stockQ9 >= quantityNeeded) {
-                // Case A: Q9 đủ -> Lấy hết từ Q9
-                takeFromQ9 = quantityNeeded;
-            } else {
-                // Case B: Q9 thiếu -> Lấy hết Q9, bù phần thiếu từ Q1
-                takeFromQ9 = stockQ9;
-                takeFromQ1 = quantityNeeded - stockQ9;
-            }
+        // === TRỪ KHO ƯU TIÊN (Q9 trước, Q1 sau) cho cả giỏ trong 1 lần khóa ===
+        Map<Integer, CheckoutStockAllocator.Allocation> allocations =
+                stockAllocator.allocate(cartView.getItems(), ID_Q9, ID_Q1, now);
 
-            // 4. Update DB
-            if (takeFromQ9 > 0) {
-                invQ9.setQuantity(invQ9.getQuantity() - takeFromQ9);
-                invQ9.setLastUpdated(now);
-                productInventoryRepository.save(invQ9);
-                log.info("Deducted {} items from Q9 for Product {}", takeFromQ9, product.getId());
-            }
+        Map<Integer, Product> products = new HashMap<>();
+        for (Product p : productRepository.findAllById(allocations.keySet())) {
+            products.put(p.getId(), p);
+        }
 
-            if (takeFromQ1 > 0) {
-                invQ1.setQuantity(invQ1.getQuantity() - takeFromQ1);
-                invQ1.setLastUpdated(now);
-                productInventoryRepository.save(invQ1);
-                log.info("Deducted {} items from Q1 for Product {}", takeFromQ1, product.getId());
+        for (CartItemDto cartItem : cartView.getItems()) {
+            Product product = products.get(cartItem.getProductId());
+            if (product == null) {
+                throw new IllegalStateException("Product not found for id=" + cartItem.getProductId());
             }
-
-            // 5. Sync lại Tổng Unit và Active
-            syncProductTotalUnit(product);
+            int quantityNeeded = cartItem.getQuantity();
 
             // 6. Tạo Invoice Item
             ProductInvoiceItem item = new ProductInvoiceItem();
@@ -247,7 +229,7 @@ public class CheckoutInvoiceServiceImpl implements CheckoutInvoiceService {
             item.setCreatedAt(now);
 
             // Ghi nhận lại tồn kho của kho chính (Q9) để tham khảo
-            item.setRemainingQuantityAfterSale(invQ9.getQuantity());
+            item.setRemainingQuantityAfterSale(allocations.get(product.getId()).primaryRemaining());
 
             invoiceItems.add(item);
         }
@@ -285,27 +267,6 @@ public class CheckoutInvoiceServiceImpl implements CheckoutInvoiceService {
         return mapToCheckoutInvoiceDto(savedInvoice, invoiceItems);
     }
 
-    // [HELPER MỚI] Lấy inventory, nếu không có trả về object ảo qty=0
-    private ProductInventory getInventoryOrNew(Product product, Integer clinicId) {
-        return productInventoryRepository.findByProductIdAndClinicId(product.getId(), clinicId)
-                .orElseGet(() -> {
-                    ProductInventory dummy = new ProductInventory();
-                    dummy.setProduct(product);
-                    dummy.setQuantity(0);
-                    return dummy;
-                });
-    }
-
-    // [HELPER MỚI] Đồng bộ tổng
-    private void syncProductTotalUnit(Product product) {
-        Integer totalUnit = productInventoryRepository.sumTotalQuantityByProductId(product.getId());
-        product.setUnit(totalUnit);
-        if (totalUnit == 0) {
-            product.setIsActive(false);
-        }
-        productRepository.save(product);
-    }
-
     private CheckoutInvoiceDto mapToCheckoutInvoiceDto(ProductInvoice invoice,
                                                        List<ProductInvoiceItem> items) {
         // ... (Logic Mapping giữ nguyên) ...
@@ -0,0 +1,120 @@
+package sunshine_dental_care.services.huybro_checkout.impl;
+
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory;
+import sunshine_dental_care.entities.huybro_products.Product;
+import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductRepository;
+import sunshine_dental_care.services.huybro_products.impl.ProductCatalogCache;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Trừ kho cho cả giỏ hàng khi checkout, không thể bán quá số tồn:
+ * 1. Khóa toàn bộ dòng tồn kho (kho ưu tiên + kho dự phòng) của các sản phẩm trong giỏ bằng 1 query.
+ * 2. Chia số lượng (kho ưu tiên trước) trên số tồn đã khóa.
+ * 3. Trừ bằng UPDATE có điều kiện quantity >= n, giảm Product.unit theo đúng số đã bán.
+ * UPDATE hàng loạt không đi qua persistence context: entity đã nạp trong transaction phải refresh trước khi sửa.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CheckoutStockAllocator {
+
+    private final ProductInventoryRepository productInventoryRepository;
+    private final ProductRepository productRepository;
+    private final ProductCatalogCache catalogCache;
+    private final EntityManager entityManager;
+
+    // primaryRemaining: tồn còn lại của kho ưu tiên sau khi trừ
+    public record Allocation(int fromPrimary, int fromFallback, int primaryRemaining) {}
+
+    // Phải chạy trong transaction của checkout: khóa giữ tới khi hóa đơn được commit
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Integer, Allocation> allocate(Collection<CartItemDto> items,
+                                             Integer primaryClinicId,
+                                             Integer fallbackClinicId,
+                                             LocalDateTime now) {
+        // productId -> số lượng (gộp phòng khi giỏ có 2 dòng cùng sản phẩm), duyệt theo id tăng dần
+        Map<Integer, Integer> needed = new TreeMap<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (CartItemDto item : items) {
+            needed.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            names.putIfAbsent(item.getProductId(), item.getProductName());
+        }
+
+        Map<Integer, ProductInventory> primary = new HashMap<>();
+        Map<Integer, ProductInventory> fallback = new HashMap<>();
+        for (ProductInventory inv : productInventoryRepository.lockByProductIdsAndClinicIds(
+                needed.keySet(), List.of(primaryClinicId, fallbackClinicId))) {
+            Integer productId = inv.getProduct().getId();
+            if (primaryClinicId.equals(inv.getClinic().getId())) primary.put(productId, inv);
+            else fallback.put(productId, inv);
+        }
+
+        Map<Integer, Allocation> result = new HashMap<>();
+        for (Map.Entry<Integer, Integer> it : needed.entrySet()) {
+            Integer productId = it.getKey();
+            int quantityNeeded = it.getValue();
+
+            ProductInventory invPrimary = primary.get(productId);
+            ProductInventory invFallback = fallback.get(productId);
+            int stockPrimary = invPrimary == null ? 0 : invPrimary.getQuantity();
+            int stockFallback = invFallback == null ? 0 : invFallback.getQuantity();
+
+            if (stockPrimary + stockFallback < quantityNeeded) {
+                throw new IllegalStateException("Out of stock: Product " + names.get(productId));
+            }
+
+            // Kho ưu tiên trước, thiếu thì bù từ kho dự phòng
+            int takePrimary = Math.min(stockPrimary, quantityNeeded);
+            int takeFallback = quantityNeeded - takePrimary;
+
+            decrement(invPrimary, takePrimary, now, names.get(productId));
+            decrement(invFallback, takeFallback, now, names.get(productId));
+            log.info("Deducted {} (primary) + {} (fallback) for Product {}", takePrimary, takeFallback, productId);
+
+            syncProductUnit(productId, quantityNeeded);
+            result.put(productId, new Allocation(takePrimary, takeFallback, stockPrimary - takePrimary));
+        }
+        return result;
+    }
+
+    private void decrement(ProductInventory inv, int qty, LocalDateTime now, String productName) {
+        if (qty <= 0) return;
+        // Dòng đã bị khóa nên luôn thành công; điều kiện quantity >= n là chốt chặn cuối cùng
+        if (productInventoryRepository.decrementIfAvailable(inv.getId(), qty, now) != 1) {
+            throw new IllegalStateException("Out of stock: Product " + productName);
+        }
+    }
+
+    private void syncProductUnit(Integer productId, int sold) {
+        if (productRepository.decrementUnit(productId, sold) != 1) {
+            // unit đang lệch so với tồn kho -> tính lại từ đầu
+            Product product = productRepository.findById(productId)
+                    .orElseThrow(() -> new IllegalStateException("Product not found for id=" + productId));
+            // Có thể là bản đã nạp trước các UPDATE trên -> đọc lại từ DB để save không ghi đè bằng giá trị cũ
+            entityManager.refresh(product);
+            Integer totalUnit = productInventoryRepository.sumTotalQuantityByProductId(productId);
+            product.setUnit(totalUnit);
+            if (totalUnit == 0) {
+                product.setIsActive(false);
+            }
+            productRepository.save(product);
+            log.warn("Product {} unit was out of sync with inventories, recomputed to {}", productId, totalUnit);
+        }
+        // Tồn kho / trạng thái bán thay đổi -> catalog phải đọc lại sản phẩm này
+        catalogCache.evict(productId);
+    }
+}
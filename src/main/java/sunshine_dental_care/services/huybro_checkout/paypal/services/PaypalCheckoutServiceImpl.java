@@ -19,6 +19,7 @@ import sunshine_dental_care.services.huybro_cart.interfaces.CartService;
 import sunshine_dental_care.services.huybro_checkout.interfaces.CheckoutInvoiceService;
 import sunshine_dental_care.services.huybro_checkout.paypal.dto.PaypalCreateOrderResponseDto;
 import sunshine_dental_care.services.huybro_checkout.paypal.services.client.PaypalApiClient;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
 
 @Service
 @RequiredArgsConstructor
@@ -29,6 +30,7 @@ public class PaypalCheckoutServiceImpl implements PaypalCheckoutService {
     private final CheckoutInvoiceService checkoutInvoiceService;
     private final ProductInvoiceRepository productInvoiceRepository;
     private final PaypalApiClient paypalApiClient;
+    private final RevenueFactService revenueFactService;
 
     @Override
     @Transactional(readOnly = true)
@@ -57,7 +59,8 @@ public class PaypalCheckoutServiceImpl implements PaypalCheckoutService {
             throw new IllegalStateException("PayPal payment is only allowed with USD currency");
         }
 
-        String invoiceCode = cartView.getInvoiceCode();
+        // Cấp số hóa đơn ngay khi tạo đơn PayPal (invoice_id); hóa đơn tạo sau capture dùng lại đúng mã này
+        String invoiceCode = cartService.issueInvoiceCode(session);
 
         log.info("[PaypalCheckoutService] Create PayPal order, total={}, currency={}, invoiceCode={}",
                 total, currency, invoiceCode);
@@ -101,6 +104,7 @@ public class PaypalCheckoutServiceImpl implements PaypalCheckoutService {
         invoice.setPaymentReference(captureResult.getCaptureId());
         invoice.setPaymentCompletedAt(Instant.now());
         productInvoiceRepository.save(invoice);
+        revenueFactService.invoiceChanged(invoice);
 
         invoiceDto.setPaymentStatus(invoice.getPaymentStatus());
         invoiceDto.setPaymentReference(invoice.getPaymentReference());
@@ -31,6 +31,7 @@ import sunshine_dental_care.services.huybro_cart.interfaces.CartService;
 import sunshine_dental_care.services.huybro_checkout.interfaces.CheckoutInvoiceService;
 import sunshine_dental_care.services.huybro_checkout.vnpay.dto.VnpayPaymentUrlDto;
 import sunshine_dental_care.services.huybro_checkout.vnpay.services.client.VnpayConfig;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
 
 @Service
 @RequiredArgsConstructor
@@ -41,6 +42,7 @@ public class VnpayCheckoutServiceImpl implements VnpayCheckoutService {
     private final CartService cartService;
     private final CheckoutInvoiceService checkoutInvoiceService;
     private final ProductInvoiceRepository productInvoiceRepository;
+    private final RevenueFactService revenueFactService;
 
     @Override
     public VnpayPaymentUrlDto createPaymentUrl(HttpSession session, HttpServletRequest request) {
@@ -61,7 +63,8 @@ public class VnpayCheckoutServiceImpl implements VnpayCheckoutService {
         long amount = total.multiply(BigDecimal.valueOf(100)).longValue();
 
         // 4. Tạo tham số VNPay
-        String vnp_TxnRef = cart.getInvoiceCode() + "_" + System.currentTimeMillis(); // Mã giao dịch unique
+        String invoiceCode = cartService.issueInvoiceCode(session);
+        String vnp_TxnRef = invoiceCode + "_" + System.currentTimeMillis(); // Mã giao dịch unique
         String vnp_IpAddr = vnpayConfig.getIpAddress(request);
         String vnp_TmnCode = vnpayConfig.getTmnCode();
 
@@ -72,7 +75,7 @@ public class VnpayCheckoutServiceImpl implements VnpayCheckoutService {
         vnp_Params.put("vnp_Amount", String.valueOf(amount));
         vnp_Params.put("vnp_CurrCode", "VND");
         vnp_Params.put("vnp_TxnRef", vnp_TxnRef);
-        vnp_Params.put("vnp_OrderInfo", "Thanh toan don hang " + cart.getInvoiceCode());
+        vnp_Params.put("vnp_OrderInfo", "Thanh toan don hang " + invoiceCode);
         vnp_Params.put("vnp_OrderType", "other");
         vnp_Params.put("vnp_Locale", "vn");
         vnp_Params.put("vnp_ReturnUrl", vnpayConfig.getVnp_ReturnUrl());
@@ -165,6 +168,7 @@ public class VnpayCheckoutServiceImpl implements VnpayCheckoutService {
         invoice.setPaymentReference(vnpParams.get("vnp_TransactionNo")); // Mã giao dịch tại VNPay
         invoice.setPaymentCompletedAt(Instant.now());
         productInvoiceRepository.save(invoice);
+        revenueFactService.invoiceChanged(invoice);
 
         invoiceDto.setPaymentStatus("PAID");
         invoiceDto.setPaymentReference(invoice.getPaymentReference());
@@ -0,0 +1,30 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import sunshine_dental_care.entities.Attendance;
+
+/**
+ * Entity listener của Attendance: mọi thay đổi chấm công (check-in/out, HR sửa trạng thái,
+ * giải trình được duyệt, nghỉ phép sinh bản ghi...) đều báo cho StalePayslipTracker.
+ * Hibernate tự tạo listener nên tracker tự đăng ký vào đây khi khởi động.
+ */
+public class AttendancePayrollListener {
+
+    private static volatile StalePayslipTracker tracker;
+
+    static void register(StalePayslipTracker stalePayslipTracker) {
+        tracker = stalePayslipTracker;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void attendanceChanged(Attendance attendance) {
+        StalePayslipTracker current = tracker;
+        if (current != null) {
+            current.attendanceChanged(attendance.getUserId(), attendance.getWorkDate());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import sunshine_dental_care.dto.huybro_payroll.PayslipDetailResponse;
+import sunshine_dental_care.entities.Attendance;
+import sunshine_dental_care.entities.huybro_salary.SalaryAllowance;
+import sunshine_dental_care.entities.huybro_salary.SalaryProfile;
+import sunshine_dental_care.entities.huybro_salary.enums.AllowanceType;
+import sunshine_dental_care.entities.huybro_salary.enums.SalaryCalculationType;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipAllowanceRepo.ManualItemView;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Công thức tính phiếu lương dạng hàm thuần: chỉ đọc dữ liệu đầu vào đã nạp sẵn,
+ * không truy cập DB / lazy field -> chạy song song an toàn.
+ */
+final class PayrollCalculator {
+
+    private PayrollCalculator() {
+    }
+
+    // Khoản phụ cấp / khấu trừ copy từ hợp đồng (isSystemGenerated = true)
+    record ContractItem(String allowanceName, BigDecimal amount, AllowanceType type) {}
+
+    record PayslipResult(
+            Integer userId,
+            BigDecimal baseSalarySnapshot,
+            Double standardWorkDaysSnapshot,
+            Integer standardShiftsSnapshot,
+            Double actualWorkDays,
+            Integer actualShifts,
+            Double totalOtHours,
+            Integer totalLateMinutes,
+            BigDecimal salaryAmount,
+            BigDecimal otSalaryAmount,
+            BigDecimal bonusAmount,
+            BigDecimal allowanceAmount,
+            BigDecimal latePenaltyAmount,
+            BigDecimal insuranceDeduction,
+            BigDecimal otherDeductionAmount,
+            BigDecimal taxDeduction,
+            BigDecimal grossSalary,
+            BigDecimal netSalary,
+            List<ContractItem> contractItems) {}
+
+    // profile.getUser() phải được fetch sẵn; manualItems = các khoản nhập tay đang có trên phiếu (giữ nguyên)
+    static PayslipResult compute(SalaryProfile profile,
+                                 List<SalaryAllowance> contractAllowances,
+                                 List<Attendance> attendances,
+                                 List<ManualItemView> manualItems) {
+        // --- B. TÍNH LƯƠNG CƠ BẢN (WORK/SHIFT) ---
+        BigDecimal salaryAmount = BigDecimal.ZERO;
+        BigDecimal bonusAmount = BigDecimal.ZERO;
+        double actualWorkDays = 0.0;
+        int actualShifts = 0;
+
+        if (profile.getCalculationType() == SalaryCalculationType.MONTHLY) {
+            // Logic tính theo ngày công
+            long workDays = attendances.stream()
+                    .filter(a -> !Boolean.TRUE.equals(a.getIsOvertime()))
+                    .map(Attendance::getWorkDate).distinct().count();
+            actualWorkDays = workDays;
+
+            if (profile.getStandardWorkDays() != null && profile.getStandardWorkDays() > 0) {
+                BigDecimal dailyRate = profile.getBaseSalary()
+                        .divide(BigDecimal.valueOf(profile.getStandardWorkDays()), 2, RoundingMode.HALF_UP);
+                salaryAmount = dailyRate.multiply(BigDecimal.valueOf(workDays));
+            }
+        } else if (profile.getCalculationType() == SalaryCalculationType.SHIFT_BASED) {
+            // Logic tính theo ca (Bác sĩ)
+            long shiftCount = attendances.stream()
+                    .filter(a -> !Boolean.TRUE.equals(a.getIsOvertime()))
+                    .filter(a -> a.getShiftType() != null && (a.getShiftType().equals("MORNING") || a.getShiftType().equals("AFTERNOON")))
+                    .count();
+            actualShifts = (int) shiftCount;
+            int stdShifts = profile.getStandardShifts() != null ? profile.getStandardShifts() : 0;
+
+            if (stdShifts > 0) {
+                if (shiftCount <= stdShifts) {
+                    BigDecimal shiftRate = profile.getBaseSalary()
+                            .divide(BigDecimal.valueOf(stdShifts), 2, RoundingMode.HALF_UP);
+                    salaryAmount = shiftRate.multiply(BigDecimal.valueOf(shiftCount));
+                } else {
+                    salaryAmount = profile.getBaseSalary();
+                    long extra = shiftCount - stdShifts;
+                    if (profile.getOverShiftRate() != null) {
+                        bonusAmount = profile.getOverShiftRate().multiply(BigDecimal.valueOf(extra));
+                    }
+                }
+            }
+        }
+
+        // --- C. TÍNH OT (OVERTIME) ---
+        BigDecimal otSalaryAmount = BigDecimal.ZERO;
+        double totalOtHours = attendances.stream()
+                .filter(a -> Boolean.TRUE.equals(a.getIsOvertime()))
+                .mapToDouble(a -> a.getActualWorkHours() != null ? a.getActualWorkHours().doubleValue() : 0.0)
+                .sum();
+
+        if (totalOtHours > 0 && profile.getOtRate() != null && profile.getOtRate().compareTo(BigDecimal.ZERO) > 0) {
+            BigDecimal standardDays = (profile.getStandardWorkDays() != null && profile.getStandardWorkDays() > 0)
+                    ? BigDecimal.valueOf(profile.getStandardWorkDays())
+                    : BigDecimal.valueOf(26);
+
+            BigDecimal hourlyRate = profile.getBaseSalary()
+                    .divide(standardDays, 2, RoundingMode.HALF_UP)
+                    .divide(BigDecimal.valueOf(8), 2, RoundingMode.HALF_UP);
+
+            otSalaryAmount = hourlyRate
+                    .multiply(BigDecimal.valueOf(totalOtHours))
+                    .multiply(profile.getOtRate());
+        }
+
+        // --- D. TÍNH PHẠT (LATE PENALTY) ---
+        int totalLate = attendances.stream().mapToInt(a -> a.getLateMinutes() != null ? a.getLateMinutes() : 0).sum();
+        BigDecimal latePenalty = BigDecimal.ZERO;
+        if (profile.getLateDeductionRate() != null) {
+            latePenalty = profile.getLateDeductionRate().multiply(BigDecimal.valueOf(totalLate));
+        }
+
+        // --- E. BẢO HIỂM (INSURANCE) ---
+        BigDecimal insurance = profile.getInsuranceAmount() != null ? profile.getInsuranceAmount() : BigDecimal.ZERO;
+
+        // --- F. PHỤ CẤP: khoản từ hợp đồng (tính lại mỗi lần) + khoản nhập tay (giữ nguyên) ---
+        List<ContractItem> contractItems = new ArrayList<>();
+        BigDecimal totalIncomeAllowances = BigDecimal.ZERO;
+        BigDecimal totalDeductionAllowances = BigDecimal.ZERO;
+        for (SalaryAllowance config : contractAllowances) {
+            contractItems.add(new ContractItem(config.getAllowanceName(), config.getAmount(), config.getType()));
+            if (config.getType() == AllowanceType.INCOME) totalIncomeAllowances = totalIncomeAllowances.add(config.getAmount());
+            else if (config.getType() == AllowanceType.DEDUCTION) totalDeductionAllowances = totalDeductionAllowances.add(config.getAmount());
+        }
+        for (ManualItemView manual : manualItems) {
+            if (manual.getType() == AllowanceType.INCOME) totalIncomeAllowances = totalIncomeAllowances.add(manual.getAmount());
+            else if (manual.getType() == AllowanceType.DEDUCTION) totalDeductionAllowances = totalDeductionAllowances.add(manual.getAmount());
+        }
+
+        // --- G. TÍNH TOÁN TỔNG HỢP (giống recalculateTotals) ---
+        BigDecimal gross = salaryAmount.add(bonusAmount).add(otSalaryAmount).add(totalIncomeAllowances);
+        BigDecimal taxableIncome = gross.subtract(insurance);
+        if (taxableIncome.compareTo(BigDecimal.ZERO) < 0) taxableIncome = BigDecimal.ZERO;
+        BigDecimal tax = progressiveTax(taxableIncome);
+        BigDecimal net = gross.subtract(insurance.add(tax).add(latePenalty).add(totalDeductionAllowances));
+
+        return new PayslipResult(
+                profile.getUser().getId(),
+                profile.getBaseSalary(),
+                profile.getStandardWorkDays(),
+                profile.getStandardShifts(),
+                actualWorkDays,
+                actualShifts,
+                totalOtHours,
+                totalLate,
+                salaryAmount,
+                otSalaryAmount,
+                bonusAmount,
+                totalIncomeAllowances,
+                latePenalty,
+                insurance,
+                totalDeductionAllowances,
+                tax,
+                gross,
+                net,
+                contractItems);
+    }
+
+    // Thuế tổng = cộng các bậc đã làm tròn (khớp 100% với taxDetails)
+    static BigDecimal progressiveTax(BigDecimal income) {
+        return taxDetails(income).stream()
+                .map(PayslipDetailResponse.TaxTierDetail::getAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    // Biểu thuế lũy tiến 7 bậc, làm tròn tiền thuế từng bậc về số nguyên để tránh lỗi 0.0001
+    static List<PayslipDetailResponse.TaxTierDetail> taxDetails(BigDecimal taxableIncome) {
+        List<PayslipDetailResponse.TaxTierDetail> details = new ArrayList<>();
+        if (taxableIncome.compareTo(BigDecimal.ZERO) <= 0) {
+            return details;
+        }
+
+        double remaining = taxableIncome.doubleValue();
+        remaining = tier(details, remaining, 5000000, 0.05, "Bậc 1 (0 - 5tr) x 5%");
+        remaining = tier(details, remaining, 5000000, 0.10, "Bậc 2 (5 - 10tr) x 10%");
+        remaining = tier(details, remaining, 8000000, 0.15, "Bậc 3 (10 - 18tr) x 15%");
+        remaining = tier(details, remaining, 14000000, 0.20, "Bậc 4 (18 - 32tr) x 20%");
+        remaining = tier(details, remaining, 20000000, 0.25, "Bậc 5 (32 - 52tr) x 25%");
+        remaining = tier(details, remaining, 28000000, 0.30, "Bậc 6 (52 - 80tr) x 30%");
+        tier(details, remaining, Double.MAX_VALUE, 0.35, "Bậc 7 (> 80tr) x 35%");
+        return details;
+    }
+
+    private static double tier(List<PayslipDetailResponse.TaxTierDetail> details, double remaining,
+                               double width, double rate, String label) {
+        if (remaining <= 0) return remaining;
+        double taxBlock = Math.min(remaining, width);
+        details.add(PayslipDetailResponse.TaxTierDetail.builder()
+                .label(label)
+                .amount(BigDecimal.valueOf(taxBlock * rate).setScale(0, RoundingMode.HALF_UP))
+                .build());
+        return remaining - width;
+    }
+}
@@ -0,0 +1,317 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import sunshine_dental_care.entities.Attendance;
+import sunshine_dental_care.entities.huybro_salary.PayslipsSnapshot;
+import sunshine_dental_care.entities.huybro_salary.SalaryAllowance;
+import sunshine_dental_care.entities.huybro_salary.SalaryCycle;
+import sunshine_dental_care.entities.huybro_salary.SalaryProfile;
+import sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus;
+import sunshine_dental_care.repositories.huybro_payroll.PayrollAttendanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipAllowanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipAllowanceRepo.ManualItemView;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipsSnapshotRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryAllowanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryCycleRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryProfileRepo;
+import sunshine_dental_care.services.huybro_payroll.impl.PayrollCalculator.ContractItem;
+import sunshine_dental_care.services.huybro_payroll.impl.PayrollCalculator.PayslipResult;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Tính lương hàng loạt cho 1 kỳ, theo 3 pha:
+ * 1. Nạp: profile + user, phụ cấp hợp đồng, chấm công cả kỳ, phiếu lương / khoản nhập tay đã có
+ *    -> vài query IN theo khối, không query theo từng người.
+ * 2. Tính: PayrollCalculator là hàm thuần nên chạy song song (parallel stream).
+ * 3. Ghi: JDBC batch UPDATE phiếu đã có / INSERT phiếu mới, thay các khoản từ hợp đồng bằng batch INSERT.
+ * Mỗi kỳ chỉ 1 lượt tính tại 1 thời điểm; thời gian từng pha được ghi log.
+ */
+@Component
+@Slf4j
+public class PayrollEngine {
+
+    public static final List<String> PAYROLL_ROLES = List.of("HR", "DOCTOR", "RECEPTION", "ACCOUNTANT");
+
+    // SQL Server giới hạn ~2100 tham số / câu lệnh
+    private static final int IN_CHUNK = 1000;
+    private static final int BATCH_SIZE = 500;
+
+    private static final String AMOUNT_COLUMNS = """
+            base_salary_snapshot, standard_work_days_snapshot, standard_shifts_snapshot,
+            actual_work_days, actual_shifts, total_ot_hours, total_late_minutes,
+            salary_amount, ot_salary_amount, bonus_amount, allowance_amount,
+            late_penalty_amount, insurance_deduction, other_deduction_amount,
+            tax_deduction, gross_salary, net_salary""";
+
+    private static final String UPDATE_PAYSLIP = """
+            UPDATE payslips_snapshot SET
+                base_salary_snapshot = ?, standard_work_days_snapshot = ?, standard_shifts_snapshot = ?,
+                actual_work_days = ?, actual_shifts = ?, total_ot_hours = ?, total_late_minutes = ?,
+                salary_amount = ?, ot_salary_amount = ?, bonus_amount = ?, allowance_amount = ?,
+                late_penalty_amount = ?, insurance_deduction = ?, other_deduction_amount = ?,
+                tax_deduction = ?, gross_salary = ?, net_salary = ? - COALESCE(advance_payment, 0),
+                calculated_at = ?,
+                stale_at = CASE WHEN stale_at > ? THEN stale_at ELSE NULL END
+            WHERE id = ?
+            """;
+
+    private static final String INSERT_PAYSLIP = "INSERT INTO payslips_snapshot (" + AMOUNT_COLUMNS
+            + ", advance_payment, salary_cycle_id, user_id, created_at, calculated_at)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?, ?, ?, ?)";
+
+    private static final String INSERT_CONTRACT_ITEM = """
+            INSERT INTO payslip_allowances (payslip_id, allowance_name, amount, type, is_system_generated, note, created_at)
+            VALUES (?, ?, ?, ?, 1, 'From Contract', ?)
+            """;
+
+    private final SalaryProfileRepo salaryProfileRepo;
+    private final SalaryAllowanceRepo salaryAllowanceRepo;
+    private final PayrollAttendanceRepo attendanceRepo;
+    private final PayslipsSnapshotRepo payslipRepo;
+    private final PayslipAllowanceRepo payslipAllowanceRepo;
+    private final SalaryCycleRepo salaryCycleRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    // Khóa theo kỳ, bỏ khỏi map khi không còn ai chờ (tránh giữ 1 khóa cho mỗi kỳ từng tính)
+    private final Map<Integer, ReentrantLock> cycleLocks = new ConcurrentHashMap<>();
+
+    public PayrollEngine(SalaryProfileRepo salaryProfileRepo,
+                         SalaryAllowanceRepo salaryAllowanceRepo,
+                         PayrollAttendanceRepo attendanceRepo,
+                         PayslipsSnapshotRepo payslipRepo,
+                         PayslipAllowanceRepo payslipAllowanceRepo,
+                         SalaryCycleRepo salaryCycleRepo,
+                         JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate) {
+        this.salaryProfileRepo = salaryProfileRepo;
+        this.salaryAllowanceRepo = salaryAllowanceRepo;
+        this.attendanceRepo = attendanceRepo;
+        this.payslipRepo = payslipRepo;
+        this.payslipAllowanceRepo = payslipAllowanceRepo;
+        this.salaryCycleRepo = salaryCycleRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    // Dữ liệu đầu vào của cả lượt tính (đã tách khỏi session, chỉ đọc field thường)
+    private record Inputs(List<SalaryProfile> profiles,
+                          Map<Integer, List<SalaryAllowance>> allowancesByProfile,
+                          Map<Integer, List<Attendance>> attendancesByUser,
+                          Map<Integer, Integer> payslipIdByUser,
+                          Map<Integer, List<ManualItemView>> manualItemsByPayslip) {}
+
+    /**
+     * Tính (lại) phiếu lương của kỳ. userIds rỗng / null -> toàn bộ nhân viên thuộc PAYROLL_ROLES có profile lương.
+     * Trả về userId đã được tính, theo thứ tự profile.
+     */
+    public List<Integer> run(SalaryCycle cycle, Collection<Integer> userIds) {
+        ReentrantLock lock = lockCycle(cycle.getId());
+        try {
+            long started = System.currentTimeMillis();
+            // Chấm công đổi sau mốc này có thể chưa được đọc -> phiếu vẫn giữ trạng thái cũ (stale)
+            Instant loadStartedAt = Instant.ofEpochMilli(started);
+            Inputs inputs = readOnlyTransactionTemplate.execute(status -> load(cycle, userIds));
+            long loaded = System.currentTimeMillis();
+
+            List<PayslipResult> results = inputs.profiles().parallelStream()
+                    .map(profile -> PayrollCalculator.compute(
+                            profile,
+                            inputs.allowancesByProfile().getOrDefault(profile.getId(), List.of()),
+                            inputs.attendancesByUser().getOrDefault(profile.getUser().getId(), List.of()),
+                            manualItemsOf(inputs, profile.getUser().getId())))
+                    .toList();
+            long computed = System.currentTimeMillis();
+
+            transactionTemplate.executeWithoutResult(status -> persist(cycle, results, inputs.payslipIdByUser(), loadStartedAt));
+            long persisted = System.currentTimeMillis();
+
+            log.info("Payroll {}/{}: {} payslip(s) | load {} ms, compute {} ms, persist {} ms, total {} ms",
+                    cycle.getMonth(), cycle.getYear(), results.size(),
+                    loaded - started, computed - loaded, persisted - computed, persisted - started);
+            return results.stream().map(PayslipResult::userId).toList();
+        } finally {
+            unlockCycle(cycle.getId(), lock);
+        }
+    }
+
+    private ReentrantLock lockCycle(Integer cycleId) {
+        while (true) {
+            ReentrantLock lock = cycleLocks.computeIfAbsent(cycleId, id -> new ReentrantLock());
+            lock.lock();
+            // Khóa vừa lấy có thể đã bị lượt trước bỏ khỏi map -> lấy lại khóa đang dùng
+            if (cycleLocks.get(cycleId) == lock) return lock;
+            lock.unlock();
+        }
+    }
+
+    private void unlockCycle(Integer cycleId, ReentrantLock lock) {
+        if (!lock.hasQueuedThreads()) {
+            cycleLocks.remove(cycleId, lock);
+        }
+        lock.unlock();
+    }
+
+    int cycleLockCount() {
+        return cycleLocks.size();
+    }
+
+    // Đọc lại phiếu lương đã tính kèm user, kỳ lương và phụ cấp để map DTO ngoài transaction
+    public List<PayslipsSnapshot> loadPayslips(Integer cycleId, List<Integer> userIds) {
+        List<PayslipsSnapshot> payslips = readOnlyTransactionTemplate.execute(status ->
+                inChunks(userIds, chunk -> payslipRepo.findWithDetailsBySalaryCycleIdAndUserIds(cycleId, chunk)));
+        return payslips == null ? List.of() : payslips;
+    }
+
+    private Inputs load(SalaryCycle cycle, Collection<Integer> userIds) {
+        List<SalaryProfile> profiles = (userIds == null || userIds.isEmpty())
+                ? salaryProfileRepo.findForPayrollByRoleNames(PAYROLL_ROLES)
+                : inChunks(List.copyOf(Set.copyOf(userIds)), salaryProfileRepo::findForPayrollByUserIds);
+
+        List<Integer> profileIds = profiles.stream().map(SalaryProfile::getId).toList();
+        List<Integer> staffIds = profiles.stream().map(p -> p.getUser().getId()).toList();
+
+        Map<Integer, List<SalaryAllowance>> allowancesByProfile = new HashMap<>();
+        for (SalaryAllowance a : inChunks(profileIds, salaryAllowanceRepo::findBySalaryProfileIds)) {
+            allowancesByProfile.computeIfAbsent(a.getSalaryProfile().getId(), k -> new ArrayList<>()).add(a);
+        }
+
+        Map<Integer, List<Attendance>> attendancesByUser = new HashMap<>();
+        for (Attendance a : inChunks(staffIds, chunk ->
+                attendanceRepo.findByUserIdsAndWorkDateBetween(chunk, cycle.getStartDate(), cycle.getEndDate()))) {
+            attendancesByUser.computeIfAbsent(a.getUserId(), k -> new ArrayList<>()).add(a);
+        }
+
+        Map<Integer, Integer> payslipIdByUser = new HashMap<>();
+        for (PayslipsSnapshotRepo.PayslipIdView v : inChunks(staffIds, chunk ->
+                payslipRepo.findIdsBySalaryCycleIdAndUserIds(cycle.getId(), chunk))) {
+            payslipIdByUser.put(v.getUserId(), v.getPayslipId());
+        }
+
+        Map<Integer, List<ManualItemView>> manualItemsByPayslip = new HashMap<>();
+        for (ManualItemView item : inChunks(List.copyOf(payslipIdByUser.values()),
+                payslipAllowanceRepo::findManualItemsByPayslipIds)) {
+            manualItemsByPayslip.computeIfAbsent(item.getPayslipId(), k -> new ArrayList<>()).add(item);
+        }
+
+        return new Inputs(profiles, allowancesByProfile, attendancesByUser, payslipIdByUser, manualItemsByPayslip);
+    }
+
+    private void persist(SalaryCycle cycle, List<PayslipResult> results, Map<Integer, Integer> payslipIdByUser,
+                         Instant loadStartedAt) {
+        // Có thể đã bị chốt trong lúc đang tính; khóa dòng kỳ để lượt chốt chờ lượt ghi này xong
+        SalaryCycle current = salaryCycleRepo.findByIdForUpdate(cycle.getId()).orElse(cycle);
+        if (current.getStatus() == PeriodStatus.FINALIZED) {
+            throw new RuntimeException("Kỳ lương đã CHỐT. Không thể tính lại!");
+        }
+
+        Timestamp now = Timestamp.from(Instant.now());
+        List<PayslipResult> updates = new ArrayList<>();
+        List<PayslipResult> inserts = new ArrayList<>();
+        for (PayslipResult r : results) {
+            (payslipIdByUser.containsKey(r.userId()) ? updates : inserts).add(r);
+        }
+
+        // Upsert: phiếu đã có -> UPDATE theo id, chưa có -> INSERT
+        Timestamp loadStarted = Timestamp.from(loadStartedAt);
+        jdbcTemplate.batchUpdate(UPDATE_PAYSLIP, updates, BATCH_SIZE, (ps, r) -> {
+            int next = bindAmounts(ps, r, 1);
+            ps.setTimestamp(next++, now);
+            ps.setTimestamp(next++, loadStarted);
+            ps.setInt(next, payslipIdByUser.get(r.userId()));
+        });
+        jdbcTemplate.batchUpdate(INSERT_PAYSLIP, inserts, BATCH_SIZE, (ps, r) -> {
+            int next = bindAmounts(ps, r, 1);
+            ps.setInt(next++, cycle.getId());
+            ps.setInt(next++, r.userId());
+            ps.setTimestamp(next++, now);
+            ps.setTimestamp(next, now);
+        });
+
+        Map<Integer, Integer> payslipIds = new HashMap<>(payslipIdByUser);
+        if (!inserts.isEmpty()) {
+            List<Integer> insertedUsers = inserts.stream().map(PayslipResult::userId).toList();
+            for (PayslipsSnapshotRepo.PayslipIdView v : inChunks(insertedUsers, chunk ->
+                    payslipRepo.findIdsBySalaryCycleIdAndUserIds(cycle.getId(), chunk))) {
+                payslipIds.put(v.getUserId(), v.getPayslipId());
+            }
+        }
+
+        // Khoản từ hợp đồng: xóa bản cũ rồi chèn lại theo cấu hình hiện tại, khoản nhập tay giữ nguyên
+        List<Integer> existingIds = List.copyOf(payslipIdByUser.values());
+        for (int i = 0; i < existingIds.size(); i += IN_CHUNK) {
+            payslipAllowanceRepo.deleteSystemGeneratedByPayslipIds(existingIds.subList(i, Math.min(i + IN_CHUNK, existingIds.size())));
+        }
+        List<Object[]> items = new ArrayList<>();
+        for (PayslipResult r : results) {
+            Integer payslipId = payslipIds.get(r.userId());
+            for (ContractItem item : r.contractItems()) {
+                items.add(new Object[]{payslipId, item});
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_CONTRACT_ITEM, items, BATCH_SIZE, (ps, row) -> {
+            ContractItem item = (ContractItem) row[1];
+            ps.setInt(1, (Integer) row[0]);
+            ps.setString(2, item.allowanceName());
+            ps.setBigDecimal(3, item.amount());
+            ps.setString(4, item.type().name());
+            ps.setTimestamp(5, now);
+        });
+    }
+
+    // Thứ tự tham số khớp AMOUNT_COLUMNS / UPDATE_PAYSLIP; trả về vị trí tham số kế tiếp.
+    // advance_payment không nằm trong đây: phiếu đã có giữ nguyên tạm ứng (nhập qua updateAdvancePayment)
+    // và net trừ luôn khoản đó, phiếu mới chưa có tạm ứng nên = 0
+    private static int bindAmounts(PreparedStatement ps, PayslipResult r, int i) throws SQLException {
+        ps.setBigDecimal(i++, r.baseSalarySnapshot());
+        ps.setObject(i++, r.standardWorkDaysSnapshot());
+        ps.setObject(i++, r.standardShiftsSnapshot());
+        ps.setObject(i++, r.actualWorkDays());
+        ps.setObject(i++, r.actualShifts());
+        ps.setObject(i++, r.totalOtHours());
+        ps.setObject(i++, r.totalLateMinutes());
+        ps.setBigDecimal(i++, r.salaryAmount());
+        ps.setBigDecimal(i++, r.otSalaryAmount());
+        ps.setBigDecimal(i++, r.bonusAmount());
+        ps.setBigDecimal(i++, r.allowanceAmount());
+        ps.setBigDecimal(i++, r.latePenaltyAmount());
+        ps.setBigDecimal(i++, r.insuranceDeduction());
+        ps.setBigDecimal(i++, r.otherDeductionAmount());
+        ps.setBigDecimal(i++, r.taxDeduction());
+        ps.setBigDecimal(i++, r.grossSalary());
+        ps.setBigDecimal(i++, r.netSalary());
+        return i;
+    }
+
+    private static List<ManualItemView> manualItemsOf(Inputs inputs, Integer userId) {
+        Integer payslipId = inputs.payslipIdByUser().get(userId);
+        return payslipId == null ? List.of() : inputs.manualItemsByPayslip().getOrDefault(payslipId, List.of());
+    }
+
+    private static <T> List<T> inChunks(List<Integer> ids, Function<List<Integer>, List<T>> query) {
+        List<T> result = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += IN_CHUNK) {
+            result.addAll(query.apply(ids.subList(i, Math.min(i + IN_CHUNK, ids.size()))));
+        }
+        return result;
+    }
+}
@@ -1,5 +1,6 @@
 package sunshine_dental_care.services.huybro_payroll.impl;
 
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.criteria.Predicate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -10,8 +11,8 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import sunshine_dental_care.dto.huybro_payroll.*;
-import sunshine_dental_care.entities.Attendance;
 import sunshine_dental_care.entities.User;
 import sunshine_dental_care.entities.huybro_salary.*;
 import sunshine_dental_care.entities.huybro_salary.enums.AllowanceType;
@@ -23,29 +24,41 @@ import sunshine_dental_care.repositories.huybro_custom.UserCustomRepository;
 import sunshine_dental_care.repositories.huybro_payroll.*;
 import sunshine_dental_care.services.huybro_payroll.interfaces.PayrollService;
 import sunshine_dental_care.utils.huybro_utils.ExcelExportUtils;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
+import sunshine_dental_care.utils.huybro_utils.export.TabularExportWriter;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class PayrollServiceImpl implements PayrollService {
 
+    private static final int MAX_FINALIZE_ATTEMPTS = 5;
+
     private final SalaryProfileRepo salaryProfileRepo;
     private final SalaryAllowanceRepo salaryAllowanceRepo;
     private final SalaryCycleRepo salaryCycleRepo;
     private final PayslipsSnapshotRepo payslipRepo;
     private final UserRepo userRepo;
-    private final PayrollAttendanceRepo attendanceRepo;
     private final PayslipAllowanceRepo payslipAllowanceRepo;
     private final UserCustomRepository userCustomRepository;
+    private final PayrollEngine payrollEngine;
+    private final StalePayslipTracker stalePayslipTracker;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
 
     // =================================================================================
     // 1. CẤU HÌNH LƯƠNG (PROFILE CONFIGURATION)
@@ -145,7 +158,6 @@ public class PayrollServiceImpl implements PayrollService {
     // =================================================================================
 
     @Override
-    @Transactional
     public List<PayslipViewDto> calculatePayroll(PayrollCalculationRequest request) {
         log.info(">>> Calculating payroll for {}/{}", request.getMonth(), request.getYear());
 
@@ -155,162 +167,19 @@ public class PayrollServiceImpl implements PayrollService {
             throw new RuntimeException("Kỳ lương đã CHỐT. Không thể tính lại!");
         }
 
-        // 2. Lấy danh sách nhân viên cần tính
-        List<SalaryProfile> profiles;
-        if (request.getUserIds() != null && !request.getUserIds().isEmpty()) {
-            profiles = request.getUserIds().stream()
-                    .map(uid -> salaryProfileRepo.findByUserId(uid).orElse(null))
-                    .filter(p -> p != null)
-                    .collect(Collectors.toList());
-        } else {
-            List<String> ALLOWED_ROLES = List.of("HR", "DOCTOR", "RECEPTION", "ACCOUNTANT");
-            profiles = salaryProfileRepo.findAll().stream()
-                    .filter(p -> p.getUser().getUserRoles().stream()
-                            .anyMatch(ur -> ur.getIsActive() && ALLOWED_ROLES.contains(ur.getRole().getRoleName())))
-                    .collect(Collectors.toList());
-        }
-
-        List<PayslipsSnapshot> results = new ArrayList<>();
-
-        // 3. Vòng lặp tính lương từng người
-        for (SalaryProfile profile : profiles) {
-            // Lấy dữ liệu chấm công
-            List<Attendance> attendances = attendanceRepo.findByUserIdAndWorkDateBetween(
-                    profile.getUser().getId(), cycle.getStartDate(), cycle.getEndDate());
-
-            // Lấy hoặc tạo mới phiếu lương (Snapshot)
-            PayslipsSnapshot slip = payslipRepo.findBySalaryCycleIdAndUserId(cycle.getId(), profile.getUser().getId())
-                    .orElse(new PayslipsSnapshot());
-
-            // --- A. SNAPSHOT INFO (Lưu thông tin gốc) ---
-            slip.setSalaryCycle(cycle);
-            slip.setUser(profile.getUser());
-            slip.setBaseSalarySnapshot(profile.getBaseSalary());
-            slip.setStandardWorkDaysSnapshot(profile.getStandardWorkDays());
-            slip.setStandardShiftsSnapshot(profile.getStandardShifts());
-
-            // --- B. TÍNH LƯƠNG CƠ BẢN (WORK/SHIFT) ---
-            BigDecimal salaryAmount = BigDecimal.ZERO;
-            BigDecimal bonusAmount = BigDecimal.ZERO;
-
-            if (profile.getCalculationType() == SalaryCalculationType.MONTHLY) {
-                // Logic tính theo ngày công
-                long workDays = attendances.stream()
-                        .filter(a -> !Boolean.TRUE.equals(a.getIsOvertime()))
-                        .map(Attendance::getWorkDate).distinct().count();
-                slip.setActualWorkDays((double) workDays);
-
-                if (profile.getStandardWorkDays() != null && profile.getStandardWorkDays() > 0) {
-                    BigDecimal dailyRate = profile.getBaseSalary()
-                            .divide(BigDecimal.valueOf(profile.getStandardWorkDays()), 2, RoundingMode.HALF_UP);
-                    salaryAmount = dailyRate.multiply(BigDecimal.valueOf(workDays));
-                }
-            } else if (profile.getCalculationType() == SalaryCalculationType.SHIFT_BASED) {
-                // Logic tính theo ca (Bác sĩ)
-                long shiftCount = attendances.stream()
-                        .filter(a -> !Boolean.TRUE.equals(a.getIsOvertime()))
-                        .filter(a -> a.getShiftType() != null && (a.getShiftType().equals("MORNING") || a.getShiftType().equals("AFTERNOON")))
-                        .count();
-                slip.setActualShifts((int) shiftCount);
-                int stdShifts = profile.getStandardShifts() != null ? profile.getStandardShifts() : 0;
-
-                if (stdShifts > 0) {
-                    if (shiftCount <= stdShifts) {
-                        BigDecimal shiftRate = profile.getBaseSalary()
-                                .divide(BigDecimal.valueOf(stdShifts), 2, RoundingMode.HALF_UP);
-                        salaryAmount = shiftRate.multiply(BigDecimal.valueOf(shiftCount));
-                    } else {
-                        salaryAmount = profile.getBaseSalary();
-                        long extra = shiftCount - stdShifts;
-                        if (profile.getOverShiftRate() != null) {
-                            bonusAmount = profile.getOverShiftRate().multiply(BigDecimal.valueOf(extra));
-                        }
-                    }
-                }
-            }
-            slip.setSalaryAmount(salaryAmount);
-            slip.setBonusAmount(bonusAmount);
-
-            // --- C. TÍNH OT (OVERTIME) ---
-            BigDecimal otSalaryAmount = BigDecimal.ZERO;
-            double totalOtHours = attendances.stream()
-                    .filter(a -> Boolean.TRUE.equals(a.getIsOvertime()))
-                    .mapToDouble(a -> a.getActualWorkHours() != null ? a.getActualWorkHours().doubleValue() : 0.0)
-                    .sum();
-
-            slip.setTotalOtHours(totalOtHours);
-
-            if (totalOtHours > 0 && profile.getOtRate() != null && profile.getOtRate().compareTo(BigDecimal.ZERO) > 0) {
-                BigDecimal standardDays = (profile.getStandardWorkDays() != null && profile.getStandardWorkDays() > 0)
-                        ? BigDecimal.valueOf(profile.getStandardWorkDays())
-                        : BigDecimal.valueOf(26);
-
-                BigDecimal hourlyRate = profile.getBaseSalary()
-                        .divide(standardDays, 2, RoundingMode.HALF_UP)
-                        .divide(BigDecimal.valueOf(8), 2, RoundingMode.HALF_UP);
-
-                otSalaryAmount = hourlyRate
-                        .multiply(BigDecimal.valueOf(totalOtHours))
-                        .multiply(profile.getOtRate());
-            }
-            slip.setOtSalaryAmount(otSalaryAmount);
-
-            // --- D. TÍNH PHẠT (LATE PENALTY) ---
-            // [NOTE] Đưa lên trước để hàm recalculateTotals sử dụng
-            int totalLate = attendances.stream().mapToInt(a -> a.getLateMinutes() != null ? a.getLateMinutes() : 0).sum();
-            slip.setTotalLateMinutes(totalLate);
-            BigDecimal latePenalty = BigDecimal.ZERO;
-            if (profile.getLateDeductionRate() != null) {
-                latePenalty = profile.getLateDeductionRate().multiply(BigDecimal.valueOf(totalLate));
-            }
-            slip.setLatePenaltyAmount(latePenalty);
-
-            // --- E. BẢO HIỂM (INSURANCE) ---
-            // [NOTE] Đưa lên trước để hàm recalculateTotals sử dụng
-            BigDecimal insurance = profile.getInsuranceAmount() != null ? profile.getInsuranceAmount() : BigDecimal.ZERO;
-            slip.setInsuranceDeduction(insurance);
-
-            // Set Advance = 0 vì giờ ta dùng List Deduction động, không dùng cột cứng này
-            slip.setAdvancePayment(BigDecimal.ZERO);
-
-            // --- F. QUẢN LÝ LIST PHỤ CẤP (SYNC TỪ CONFIG) ---
-
-            // 1. Khởi tạo list nếu null
-            if (slip.getPeriodicAllowances() == null) {
-                slip.setPeriodicAllowances(new ArrayList<>());
-            }
-
-            // 2. Xóa các khoản "System Generated" cũ để tránh trùng lặp khi tính lại
-            // (Giữ lại các khoản nhập tay - Manual)
-            slip.getPeriodicAllowances().removeIf(PayslipAllowance::getIsSystemGenerated);
-
-            // 3. Copy lại từ Config (Salary Profile) vào List
-            if (profile.getAllowances() != null) {
-                for (SalaryAllowance configItem : profile.getAllowances()) {
-                    PayslipAllowance item = new PayslipAllowance();
-                    item.setPayslip(slip);
-                    item.setAllowanceName(configItem.getAllowanceName());
-                    item.setAmount(configItem.getAmount());
-                    item.setType(configItem.getType());
-                    item.setIsSystemGenerated(true); // Đánh dấu là từ Hợp đồng
-                    item.setNote("From Contract");
-
-                    slip.getPeriodicAllowances().add(item);
-                }
-            }
+        // 2. Nạp dữ liệu hàng loạt -> tính song song -> ghi batch (xem PayrollEngine)
+        List<Integer> userIds = payrollEngine.run(cycle, request.getUserIds());
 
-            // --- G. TÍNH TOÁN TỔNG HỢP (FINAL CALCULATION) ---
-            // Hàm này sẽ tự động:
-            // 1. Cộng tổng List Income -> Update Gross
-            // 2. Tính Thuế
-            // 3. Cộng tổng List Deduction (bao gồm Ứng lương) + Phạt + BH -> Update Net
-            recalculateTotals(slip);
-
-            // --- H. LƯU DATABASE ---
-            results.add(payslipRepo.save(slip));
+        // 3. Trả về theo đúng thứ tự đã tính
+        Map<Integer, PayslipsSnapshot> byUser = new HashMap<>();
+        for (PayslipsSnapshot slip : payrollEngine.loadPayslips(cycle.getId(), userIds)) {
+            byUser.put(slip.getUser().getId(), slip);
         }
-
-        return results.stream().map(this::mapToDto).collect(Collectors.toList());
+        return userIds.stream()
+                .map(byUser::get)
+                .filter(Objects::nonNull)
+                .map(this::mapToDto)
+                .collect(Collectors.toList());
     }
 
     // =================================================================================
@@ -472,12 +341,26 @@ public class PayrollServiceImpl implements PayrollService {
     }
     // --- 4. OTHER METHODS ---
     @Override
-    @Transactional
     public void finalizeCycle(Integer month, Integer year) {
         SalaryCycle cycle = salaryCycleRepo.findByMonthAndYear(month, year)
                 .orElseThrow(() -> new RuntimeException("Kỳ lương không tồn tại"));
-        cycle.setStatus(PeriodStatus.FINALIZED);
-        salaryCycleRepo.save(cycle);
+        for (int attempt = 0; attempt < MAX_FINALIZE_ATTEMPTS; attempt++) {
+            // Không chốt khi còn phiếu lương chưa cập nhật theo chấm công mới nhất (tính lại ngoài khóa)
+            stalePayslipTracker.awaitFresh(cycle);
+            // Kiểm tra + chốt trong khóa dòng kỳ lương: lượt tính lại đang ghi phải xong trước, lượt sau thấy FINALIZED
+            Boolean finalized = transactionTemplate.execute(status -> {
+                SalaryCycle locked = salaryCycleRepo.findByIdForUpdate(cycle.getId())
+                        .orElseThrow(() -> new RuntimeException("Kỳ lương không tồn tại"));
+                if (locked.getStatus() == PeriodStatus.FINALIZED) return true;
+                // Chấm công vừa đổi sau awaitFresh -> thả khóa, tính lại rồi thử lại
+                if (!payslipRepo.findStaleUserIdsBySalaryCycleId(locked.getId()).isEmpty()) return false;
+                locked.setStatus(PeriodStatus.FINALIZED);
+                salaryCycleRepo.save(locked);
+                return true;
+            });
+            if (Boolean.TRUE.equals(finalized)) return;
+        }
+        throw new RuntimeException("Chấm công của kỳ lương vẫn đang thay đổi, chưa thể chốt. Vui lòng thử lại!");
     }
 
     @Override
@@ -588,6 +471,11 @@ public class PayrollServiceImpl implements PayrollService {
     }
 
     private PayslipViewDto mapToDto(PayslipsSnapshot entity) {
+        return mapToDto(entity, true);
+    }
+
+    // includeAllowances = false: bỏ qua danh sách phụ cấp (lazy, 1 query / phiếu) khi export
+    private PayslipViewDto mapToDto(PayslipsSnapshot entity, boolean includeAllowances) {
         return PayslipViewDto.builder()
                 .id(entity.getId())
                 .userId(entity.getUser().getId())
@@ -615,8 +503,11 @@ public class PayrollServiceImpl implements PayrollService {
                 .netSalary(entity.getNetSalary())
                 .note(entity.getNote())
                 .createdAt(entity.getCreatedAt())
+                .calculatedAt(entity.getCalculatedAt())
+                .stale(entity.getStaleAt() != null)
+                .staleSince(entity.getStaleAt())
                 .allowanceDetails(
-                        entity.getPeriodicAllowances() == null ? new ArrayList<>()
+                        !includeAllowances || entity.getPeriodicAllowances() == null ? new ArrayList<>()
                                 : entity.getPeriodicAllowances().stream()
                                 .map(this::mapToAllowanceDto)
                                 .collect(Collectors.toList())
@@ -665,108 +556,13 @@ public class PayrollServiceImpl implements PayrollService {
         });
     }
 
-    // =========================================================================
-    // UPDATE: HÀM TÍNH THUẾ TỔNG (Dựa trên chi tiết -> Đảm bảo khớp 100%)
-    // =========================================================================
+    // Biểu thuế dùng chung với PayrollCalculator để phiếu lương và màn chi tiết luôn khớp nhau
     private BigDecimal calculateProgressiveTax(BigDecimal income) {
-        List<PayslipDetailResponse.TaxTierDetail> details = getTaxDetails(income);
-        // Cộng dồn tất cả các bậc thuế lại
-        return details.stream()
-                .map(PayslipDetailResponse.TaxTierDetail::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return PayrollCalculator.progressiveTax(income);
     }
 
-    // =========================================================================
-    // HÀM HELPER CHÍNH: TÍNH TOÁN VÀ LÀM TRÒN TỪNG BẬC
-    // =========================================================================
     private List<PayslipDetailResponse.TaxTierDetail> getTaxDetails(BigDecimal taxableIncome) {
-        List<PayslipDetailResponse.TaxTierDetail> details = new ArrayList<>();
-        if (taxableIncome.compareTo(BigDecimal.ZERO) <= 0) {
-            return details;
-        }
-
-        double income = taxableIncome.doubleValue();
-        double remaining = income;
-
-        // Helper func local để tạo tier và làm tròn ngay lập tức
-        // Mục tiêu: Làm tròn tiền thuế từng bậc về số nguyên để tránh lỗi 0.0001
-
-        // Bậc 1: 5% (Đến 5tr)
-        if (remaining > 0) {
-            double taxBlock = Math.min(remaining, 5000000);
-            BigDecimal taxVal = BigDecimal.valueOf(taxBlock * 0.05).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 1 (0 - 5tr) x 5%")
-                    .amount(taxVal)
-                    .build());
-            remaining -= 5000000;
-        }
-
-        // Bậc 2: 10% (5tr - 10tr)
-        if (remaining > 0) {
-            double taxBlock = Math.min(remaining, 5000000);
-            BigDecimal taxVal = BigDecimal.valueOf(taxBlock * 0.10).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 2 (5 - 10tr) x 10%")
-                    .amount(taxVal)
-                    .build());
-            remaining -= 5000000;
-        }
-
-        // Bậc 3: 15% (10tr - 18tr)
-        if (remaining > 0) {
-            double taxBlock = Math.min(remaining, 8000000);
-            BigDecimal taxVal = BigDecimal.valueOf(taxBlock * 0.15).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 3 (10 - 18tr) x 15%")
-                    .amount(taxVal)
-                    .build());
-            remaining -= 8000000;
-        }
-
-        // Bậc 4: 20% (18tr - 32tr)
-        if (remaining > 0) {
-            double taxBlock = Math.min(remaining, 14000000);
-            BigDecimal taxVal = BigDecimal.valueOf(taxBlock * 0.20).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 4 (18 - 32tr) x 20%")
-                    .amount(taxVal)
-                    .build());
-            remaining -= 14000000;
-        }
-
-        // Bậc 5: 25% (32tr - 52tr)
-        if (remaining > 0) {
-            double taxBlock = Math.min(remaining, 20000000);
-            BigDecimal taxVal = BigDecimal.valueOf(taxBlock * 0.25).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 5 (32 - 52tr) x 25%")
-                    .amount(taxVal)
-                    .build());
-            remaining -= 20000000;
-        }
-
-        // Bậc 6: 30% (52tr - 80tr)
-        if (remaining > 0) {
-            double taxBlock = Math.min(remaining, 28000000);
-            BigDecimal taxVal = BigDecimal.valueOf(taxBlock * 0.30).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 6 (52 - 80tr) x 30%")
-                    .amount(taxVal)
-                    .build());
-            remaining -= 28000000;
-        }
-
-        // Bậc 7: 35% (Trên 80tr)
-        if (remaining > 0) {
-            BigDecimal taxVal = BigDecimal.valueOf(remaining * 0.35).setScale(0, RoundingMode.HALF_UP);
-            details.add(PayslipDetailResponse.TaxTierDetail.builder()
-                    .label("Bậc 7 (> 80tr) x 35%")
-                    .amount(taxVal)
-                    .build());
-        }
-
-        return details;
+        return PayrollCalculator.taxDetails(taxableIncome);
     }
 
     // Hàm này chịu trách nhiệm cộng tổng các dòng trong List và update vào Header
@@ -814,21 +610,24 @@ public class PayrollServiceImpl implements PayrollService {
         return String.format("%,.0f", amount);
     }
     @Override
-    public ByteArrayInputStream exportMonthlyPayroll(Integer month, Integer year) {
+    @Transactional(readOnly = true)
+    public void exportMonthlyPayroll(Integer month, Integer year, ExportFormat format, OutputStream out) throws IOException {
         // 1. Tìm kỳ lương
         SalaryCycle cycle = salaryCycleRepo.findByMonthAndYear(month, year)
                 .orElseThrow(() -> new RuntimeException("Kỳ lương tháng " + month + "/" + year + " không tồn tại."));
 
-        // 2. Lấy danh sách snapshot
-        List<PayslipsSnapshot> snapshots = payslipRepo.findBySalaryCycleId(cycle.getId());
-
-        // 3. Convert sang DTO (để reuse logic format nếu cần, hoặc dùng thẳng entity nếu Utils hỗ trợ)
-        // Ở đây Utils nhận List<PayslipViewDto> nên ta convert
-        List<PayslipViewDto> dtos = snapshots.stream()
-                .map(this::mapToDto)
-                .collect(Collectors.toList());
-
-        // 4. Gọi Utils (vừa gộp)
-        return ExcelExportUtils.exportPayrollToExcel(dtos, month, year);
+        // 2. Đọc dần phiếu lương của kỳ và ghi từng dòng, không dựng cả danh sách
+        try (TabularExportWriter writer = format.open(out);
+             Stream<PayslipsSnapshot> snapshots = payslipRepo.streamBySalaryCycleId(cycle.getId())) {
+            writer.sheet("Payroll " + month + "-" + year);
+            writer.header(ExcelExportUtils.PAYROLL_COLUMNS);
+            Iterator<PayslipsSnapshot> it = snapshots.iterator();
+            while (it.hasNext()) {
+                PayslipsSnapshot snapshot = it.next();
+                ExcelExportUtils.writePayrollRow(writer, mapToDto(snapshot, false));
+                entityManager.detach(snapshot);
+            }
+            writer.finish();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import sunshine_dental_care.entities.huybro_salary.SalaryCycle;
+import sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipsSnapshotRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryCycleRepo;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tính lại phiếu lương theo thay đổi chấm công, thay cho việc kế toán phải chạy lại cả công ty:
+ * - Chấm công (userId, workDate) đổi -> stale_at của phiếu lương thuộc kỳ chứa ngày đó (kỳ chưa chốt)
+ *   được ghi ngay trong transaction của thay đổi, nên không mất cờ khi app dừng trước lúc job chạy.
+ *   Sau commit, mốc stale_at được đẩy lên thời điểm commit (job gom lại ghi theo lô).
+ * - Phiếu đã "yên" app.payroll.stale-quiet-ms được PayrollEngine tính lại theo từng kỳ, chỉ cho đúng các user đó;
+ *   nhiều thay đổi liên tiếp của cùng người chỉ dẫn tới 1 lần tính.
+ * - Chốt kỳ gọi awaitFresh để tính lại ngay mọi phiếu còn cũ trước khi đổi trạng thái.
+ */
+@Service
+@Slf4j
+public class StalePayslipTracker {
+
+    private static final int MAX_FINALIZE_ATTEMPTS = 5;
+
+    // Giống PayslipsSnapshotRepo.markStale, viết bằng SQL vì chạy trong lúc Hibernate flush
+    // (callback của entity listener không được dùng EntityManager)
+    private static final String MARK_STALE = """
+            UPDATE payslips_snapshot SET stale_at = ?
+            WHERE user_id = ?
+              AND salary_cycle_id IN (SELECT id FROM salary_cycles
+                                      WHERE ? BETWEEN start_date AND end_date AND status <> 'FINALIZED')
+              AND (stale_at IS NULL OR stale_at < ?)
+            """;
+
+    private final PayslipsSnapshotRepo payslipRepo;
+    private final SalaryCycleRepo salaryCycleRepo;
+    private final PayrollEngine payrollEngine;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long quietMs;
+
+    private record Mark(Integer userId, LocalDate workDate) {}
+
+    // Thay đổi đã commit nhưng chưa ghi xuống phiếu lương -> thời điểm đổi gần nhất
+    private final Map<Mark, Instant> pending = new ConcurrentHashMap<>();
+
+    public StalePayslipTracker(PayslipsSnapshotRepo payslipRepo,
+                               SalaryCycleRepo salaryCycleRepo,
+                               PayrollEngine payrollEngine,
+                               JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${app.payroll.stale-quiet-ms:3000}") long quietMs) {
+        this.payslipRepo = payslipRepo;
+        this.salaryCycleRepo = salaryCycleRepo;
+        this.payrollEngine = payrollEngine;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.quietMs = quietMs;
+        AttendancePayrollListener.register(this);
+    }
+
+    void attendanceChanged(Integer userId, LocalDate workDate) {
+        if (userId == null || workDate == null) return;
+        Mark mark = new Mark(userId, workDate);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Ghi cờ trước commit, cùng transaction với chấm công: commit / rollback cùng nhau
+            Instant changedAt = Instant.now();
+            jdbcTemplate.update(MARK_STALE, Timestamp.from(changedAt), userId, Date.valueOf(workDate), Timestamp.from(changedAt));
+            // Lượt tính lại bắt đầu trước commit vẫn đọc chấm công cũ -> mốc phải sau commit để cờ không bị xóa
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    record(mark, Instant.now());
+                }
+            });
+        } else {
+            record(mark, Instant.now());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.payroll.stale-refresh-ms:5000}")
+    public void refreshStale() {
+        flushMarks();
+
+        Map<Integer, Set<Integer>> usersByCycle = new TreeMap<>();
+        for (PayslipsSnapshotRepo.StalePayslipView v : payslipRepo.findStale(Instant.now().minusMillis(quietMs))) {
+            usersByCycle.computeIfAbsent(v.getSalaryCycleId(), k -> new HashSet<>()).add(v.getUserId());
+        }
+        usersByCycle.forEach((cycleId, userIds) -> {
+            try {
+                SalaryCycle cycle = salaryCycleRepo.findById(cycleId).orElse(null);
+                if (cycle == null || cycle.getStatus() == PeriodStatus.FINALIZED) return;
+                recompute(cycle, userIds);
+                log.info("Payroll {}/{}: recomputed {} stale payslip(s)", cycle.getMonth(), cycle.getYear(), userIds.size());
+            } catch (Exception e) {
+                // Cờ stale vẫn còn -> thử lại ở lần chạy sau
+                log.warn("Payroll: failed to recompute stale payslips of cycle {}: {}", cycleId, e.getMessage());
+            }
+        });
+    }
+
+    // Chốt kỳ: tính lại ngay mọi phiếu còn cũ của kỳ (không chờ quiet period) cho tới khi không còn phiếu nào cũ
+    public void awaitFresh(SalaryCycle cycle) {
+        for (int attempt = 0; attempt < MAX_FINALIZE_ATTEMPTS; attempt++) {
+            flushMarks();
+            List<Integer> userIds = payslipRepo.findStaleUserIdsBySalaryCycleId(cycle.getId());
+            if (userIds.isEmpty()) return;
+            recompute(cycle, userIds);
+        }
+        throw new RuntimeException("Chấm công của kỳ lương vẫn đang thay đổi, chưa thể chốt. Vui lòng thử lại!");
+    }
+
+    private void recompute(SalaryCycle cycle, Collection<Integer> userIds) {
+        Set<Integer> leftovers = new HashSet<>(userIds);
+        payrollEngine.run(cycle, userIds).forEach(leftovers::remove);
+        if (!leftovers.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> payslipRepo.clearStale(cycle.getId(), leftovers));
+        }
+    }
+
+    private void record(Mark mark, Instant changedAt) {
+        pending.merge(mark, changedAt, (a, b) -> a.isAfter(b) ? a : b);
+    }
+
+    private void flushMarks() {
+        if (pending.isEmpty()) return;
+        Map<Mark, Instant> batch = new HashMap<>();
+        for (Mark mark : new ArrayList<>(pending.keySet())) {
+            Instant changedAt = pending.remove(mark);
+            if (changedAt != null) batch.put(mark, changedAt);
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    batch.forEach((mark, changedAt) -> payslipRepo.markStale(mark.userId(), mark.workDate(), changedAt)));
+        } catch (Exception e) {
+            batch.forEach(this::record);
+            log.warn("Payroll: failed to mark {} payslip change(s) as stale: {}", batch.size(), e.getMessage());
+        }
+    }
+}
@@ -2,8 +2,10 @@ package sunshine_dental_care.services.huybro_payroll.interfaces;
 
 import org.springframework.data.domain.Page;
 import sunshine_dental_care.dto.huybro_payroll.*; // Import DTO
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.List;
 
@@ -18,5 +20,5 @@ public interface PayrollService {
     PayslipViewDto addManualItem(Integer payslipId, ManualItemRequest request);
     PayslipViewDto removeManualItem(Integer payslipId, Integer itemId);
     List<UserSearchResponse> getMissingConfigs();
-    ByteArrayInputStream exportMonthlyPayroll(Integer month, Integer year);
+    void exportMonthlyPayroll(Integer month, Integer year, ExportFormat format, OutputStream out) throws IOException;
 }
\ No newline at end of file
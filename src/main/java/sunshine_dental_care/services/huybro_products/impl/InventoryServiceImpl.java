@@ -20,6 +20,7 @@ import sunshine_dental_care.repositories.huybro_products.ProductImageRepository;
 import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository;
 import sunshine_dental_care.repositories.huybro_products.ProductRepository;
 import sunshine_dental_care.repositories.huybro_products.ProductStockReceiptRepository;
+import sunshine_dental_care.services.huybro_cart.impl.StockReservationService;
 import sunshine_dental_care.services.huybro_products.interfaces.InventoryService;
 
 import java.math.BigDecimal;
@@ -27,6 +28,7 @@ import java.math.RoundingMode;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -40,6 +42,8 @@ public class InventoryServiceImpl implements InventoryService {
     private final ProductStockReceiptRepository stockReceiptRepository;
     private final ClinicRepository clinicRepository;
     private final ProductImageRepository productImageRepository;
+    private final ProductCatalogCache catalogCache;
+    private final StockReservationService stockReservationService;
 
     @Override
     public ProductStockReceiptDto importStock(ProductStockReceiptCreateDto dto) {
@@ -178,6 +182,7 @@ public class InventoryServiceImpl implements InventoryService {
 
         product.setUpdatedAt(LocalDateTime.now());
         productRepository.save(product);
+        catalogCache.evict(product.getId());
     }
     @Override
     public ProductInventoryStatusDto getProductInventoryStatus(Integer productId) {
@@ -185,16 +190,23 @@ public class InventoryServiceImpl implements InventoryService {
                 .orElseThrow(() -> new RuntimeException("Product not found"));
 
         List<ProductInventory> inventories = productInventoryRepository.findByProductId(productId);
+        // Phần đang được giữ trong giỏ hàng theo từng kho
+        Map<Integer, Integer> reservedByClinic = stockReservationService.getReservedByClinic(productId);
 
         Integer total = 0;
+        int totalReserved = 0;
         List<ProductInventoryStatusDto.ClinicInventoryDto> breakdown = new java.util.ArrayList<>();
 
         for (ProductInventory inv : inventories) {
             total += inv.getQuantity();
+            int reserved = reservedByClinic.getOrDefault(inv.getClinic().getId(), 0);
+            totalReserved += reserved;
             breakdown.add(new ProductInventoryStatusDto.ClinicInventoryDto(
                     inv.getClinic().getId(),
                     inv.getClinic().getClinicName(),
-                    inv.getQuantity()
+                    inv.getQuantity(),
+                    reserved,
+                    Math.max(0, inv.getQuantity() - reserved)
             ));
         }
 
@@ -207,6 +219,8 @@ public class InventoryServiceImpl implements InventoryService {
                 product.getProductName(),
                 product.getSku(),
                 total,
+                totalReserved,
+                Math.max(0, total - totalReserved),
                 breakdown
         );
     }
@@ -385,6 +399,7 @@ public class InventoryServiceImpl implements InventoryService {
         }
         product.setUpdatedAt(LocalDateTime.now());
         productRepository.save(product);
+        catalogCache.evict(product.getId());
     }
     // Helper: Logic Siết Chặt Trạng Thái (Dùng chung cho cả Import và Update)
     private void syncProductTotalState(Product product, BigDecimal newPrice, String currency) {
@@ -415,6 +430,7 @@ public class InventoryServiceImpl implements InventoryService {
 
         product.setUpdatedAt(LocalDateTime.now());
         productRepository.save(product);
+        catalogCache.evict(product.getId());
     }
 
     @Override
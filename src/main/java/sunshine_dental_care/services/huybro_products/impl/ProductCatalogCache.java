@@ -0,0 +1,291 @@
+package sunshine_dental_care.services.huybro_products.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import sunshine_dental_care.dto.huybro_products.ProductDto;
+import sunshine_dental_care.dto.huybro_products.ProductImageDto;
+import sunshine_dental_care.entities.huybro_product_inventories.ProductStockReceipt;
+import sunshine_dental_care.entities.huybro_products.Product;
+import sunshine_dental_care.entities.huybro_products.ProductImage;
+import sunshine_dental_care.entities.huybro_products.ProductsProductType;
+import sunshine_dental_care.repositories.huybro_products.ProductImageRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductStockReceiptRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductsProductTypeRepository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Read model cho catalog sản phẩm:
+ * - Hydrate ProductDto cho cả trang bằng số query cố định (ảnh, loại, phiếu nhập mới nhất: mỗi loại 1 query),
+ *   thay vì 3 query cho mỗi sản phẩm.
+ * - Giữ DTO trong bộ nhớ theo productId; mọi nơi đổi sản phẩm / tồn kho gọi evict(productId).
+ * - Trả về bản sao để service có thể gắn thêm soldCount, relatedProducts... mà không làm bẩn cache.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductCatalogCache {
+
+    // SQL Server giới hạn 2100 tham số / câu lệnh
+    private static final int IN_CHUNK = 1000;
+
+    private static final String ACTIVE_LIST = "ACTIVE";
+    private static final String ALL_LIST = "ALL";
+
+    private final ProductRepository productRepository;
+    private final ProductImageRepository productImageRepository;
+    private final ProductsProductTypeRepository productsProductTypeRepository;
+    private final ProductStockReceiptRepository stockReceiptRepository;
+
+    private final Map<Integer, ProductDto> products = new ConcurrentHashMap<>();
+    private final Map<String, List<Integer>> lists = new ConcurrentHashMap<>();
+
+    // Tăng mỗi lần evict: dữ liệu load trước khi evict thì không được ghi vào cache
+    private final AtomicLong generation = new AtomicLong();
+
+    // Các read model khác (search index...) nhận productId thay đổi sau khi transaction kết thúc
+    private final List<Consumer<Integer>> changeListeners = new CopyOnWriteArrayList<>();
+
+    // --- ĐỌC ---
+
+    public Optional<ProductDto> findById(Integer productId) {
+        ProductDto cached = products.get(productId);
+        if (cached != null) return Optional.of(copyOf(cached));
+
+        long gen = generation.get();
+        return productRepository.findById(productId)
+                .map(p -> hydrate(List.of(p), gen).get(0));
+    }
+
+    // Danh sách sản phẩm đang bán (trang shop)
+    public List<ProductDto> findAllActive() {
+        return cachedList(ACTIVE_LIST, productRepository::findByIsActiveTrue);
+    }
+
+    // Toàn bộ sản phẩm (màn hình kế toán)
+    public List<ProductDto> findAll() {
+        return cachedList(ALL_LIST, productRepository::findAll);
+    }
+
+    // Nhiều sản phẩm theo id (id không tồn tại thì bỏ qua)
+    public List<ProductDto> findByIds(Collection<Integer> productIds) {
+        if (productIds.isEmpty()) return List.of();
+        return toDtos(productRepository.findAllById(productIds));
+    }
+
+    // Map 1 trang entity sang DTO: sản phẩm đã có trong cache không phát sinh query
+    public List<ProductDto> toDtos(List<Product> page) {
+        if (page.isEmpty()) return List.of();
+
+        long gen = generation.get();
+        List<Product> missing = new ArrayList<>();
+        for (Product p : page) {
+            if (!products.containsKey(p.getId())) missing.add(p);
+        }
+        if (!missing.isEmpty()) hydrate(missing, gen);
+
+        List<ProductDto> result = new ArrayList<>(page.size());
+        for (Product p : page) {
+            ProductDto cached = products.get(p.getId());
+            // Bị evict giữa chừng -> dựng lại trực tiếp, không ghi cache
+            result.add(cached != null ? copyOf(cached) : hydrate(List.of(p), -1).get(0));
+        }
+        return result;
+    }
+
+    // --- INVALIDATION ---
+
+    // Gọi sau khi sản phẩm / giá / tồn kho thay đổi. Xóa ngay và xóa lại sau commit
+    // để request đọc song song trong lúc transaction chưa commit không ghi lại dữ liệu cũ.
+    public void evict(Integer productId) {
+        evictNow(productId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictNow(productId);
+                    notifyChanged(productId);
+                }
+            });
+        } else {
+            notifyChanged(productId);
+        }
+    }
+
+    public void evictAll() {
+        generation.incrementAndGet();
+        products.clear();
+        lists.clear();
+    }
+
+    public void addChangeListener(Consumer<Integer> listener) {
+        changeListeners.add(listener);
+    }
+
+    private void notifyChanged(Integer productId) {
+        for (Consumer<Integer> listener : changeListeners) {
+            try {
+                listener.accept(productId);
+            } catch (Exception e) {
+                log.warn("Catalog change listener failed for product {}: {}", productId, e.getMessage());
+            }
+        }
+    }
+
+    private void evictNow(Integer productId) {
+        generation.incrementAndGet();
+        if (productId != null) products.remove(productId);
+        // Danh sách phụ thuộc isActive / tồn tại của sản phẩm nên luôn xóa
+        lists.clear();
+    }
+
+    // --- HYDRATION ---
+
+    private List<ProductDto> cachedList(String key, Supplier<List<Product>> loader) {
+        List<Integer> ids = lists.get(key);
+        if (ids != null) {
+            List<ProductDto> result = new ArrayList<>(ids.size());
+            boolean complete = true;
+            for (Integer id : ids) {
+                ProductDto cached = products.get(id);
+                if (cached == null) {
+                    complete = false;
+                    break;
+                }
+                result.add(copyOf(cached));
+            }
+            if (complete) return result;
+        }
+
+        long gen = generation.get();
+        List<Product> entities = loader.get();
+        List<ProductDto> result = hydrate(entities, gen);
+        if (generation.get() == gen) {
+            lists.put(key, entities.stream().map(Product::getId).toList());
+        }
+        return result;
+    }
+
+    // Dựng DTO cho danh sách sản phẩm bằng 3 query (mỗi 1000 sản phẩm); gen < 0 = không ghi cache
+    private List<ProductDto> hydrate(List<Product> entities, long gen) {
+        List<Integer> ids = entities.stream().map(Product::getId).toList();
+
+        Map<Integer, List<ProductImageDto>> imagesByProduct = new HashMap<>();
+        Map<Integer, List<String>> typesByProduct = new HashMap<>();
+        Map<Integer, ProductStockReceipt> latestReceipt = new HashMap<>();
+
+        for (int from = 0; from < ids.size(); from += IN_CHUNK) {
+            Set<Integer> chunk = new LinkedHashSet<>(ids.subList(from, Math.min(from + IN_CHUNK, ids.size())));
+
+            for (ProductImage img : productImageRepository.findByProduct_IdInOrderByImageOrderAsc(chunk)) {
+                ProductImageDto it = new ProductImageDto();
+                it.setImageId(img.getId());
+                it.setImageUrl(img.getImageUrl());
+                it.setImageOrder(img.getImageOrder());
+                imagesByProduct.computeIfAbsent(img.getProduct().getId(), k -> new ArrayList<>()).add(it);
+            }
+
+            for (ProductsProductType ppt : productsProductTypeRepository.findWithTypeByProductIdIn(chunk)) {
+                typesByProduct.computeIfAbsent(ppt.getProduct().getId(), k -> new ArrayList<>())
+                        .add(ppt.getType().getTypeName());
+            }
+
+            for (ProductStockReceipt r : stockReceiptRepository.findLatestByProductIdIn(chunk)) {
+                latestReceipt.merge(r.getProduct().getId(), r, (a, b) -> a.getId() > b.getId() ? a : b);
+            }
+        }
+
+        List<ProductDto> result = new ArrayList<>(entities.size());
+        Map<Integer, ProductDto> built = new HashMap<>();
+        for (Product product : entities) {
+            ProductDto dto = baseDto(product);
+            dto.setImage(List.copyOf(imagesByProduct.getOrDefault(product.getId(), List.of())));
+            dto.setTypeNames(List.copyOf(typesByProduct.getOrDefault(product.getId(), List.of())));
+
+            ProductStockReceipt receipt = latestReceipt.get(product.getId());
+            if (receipt != null) {
+                // Trường hợp CÓ lịch sử nhập hàng
+                dto.setLatestImportPrice(receipt.getImportPrice());
+                dto.setLatestProfitMargin(receipt.getProfitMargin());
+            } else {
+                // Trường hợp KHÔNG CÓ lịch sử (Sản phẩm mới) -> Set về 0
+                dto.setLatestImportPrice(BigDecimal.ZERO);
+                dto.setLatestProfitMargin(BigDecimal.ZERO);
+            }
+
+            built.put(product.getId(), dto);
+            result.add(copyOf(dto));
+        }
+
+        if (gen >= 0 && generation.get() == gen) {
+            products.putAll(built);
+        }
+        log.debug("Catalog: hydrated {} product(s) ({} cached)", entities.size(), products.size());
+        return result;
+    }
+
+    private static ProductDto baseDto(Product product) {
+        ProductDto dto = new ProductDto();
+        dto.setProductId(product.getId());
+        dto.setSku(product.getSku());
+        dto.setProductName(product.getProductName());
+        dto.setBrand(product.getBrand());
+        dto.setProductDescription(product.getProductDescription());
+        dto.setUnit(product.getUnit());
+        dto.setDefaultRetailPrice(product.getDefaultRetailPrice());
+        dto.setCurrency(product.getCurrency());
+        dto.setIsTaxable(product.getIsTaxable());
+        dto.setTaxCode(product.getTaxCode());
+        dto.setIsActive(product.getIsActive());
+        dto.setCreatedAt(product.getCreatedAt());
+        dto.setUpdatedAt(product.getUpdatedAt());
+        return dto;
+    }
+
+    // Chỉ copy phần catalog; các field chi tiết (soldCount, related...) do service gắn thêm
+    static ProductDto copyOf(ProductDto src) {
+        ProductDto dto = new ProductDto();
+        dto.setProductId(src.getProductId());
+        dto.setSku(src.getSku());
+        dto.setProductName(src.getProductName());
+        dto.setBrand(src.getBrand());
+        dto.setProductDescription(src.getProductDescription());
+        dto.setUnit(src.getUnit());
+        dto.setDefaultRetailPrice(src.getDefaultRetailPrice());
+        dto.setCurrency(src.getCurrency());
+        dto.setIsTaxable(src.getIsTaxable());
+        dto.setTaxCode(src.getTaxCode());
+        dto.setIsActive(src.getIsActive());
+        dto.setCreatedAt(src.getCreatedAt());
+        dto.setUpdatedAt(src.getUpdatedAt());
+        // ProductImageDto có setter nên copy từng phần tử
+        dto.setImage(src.getImage() == null ? null : src.getImage().stream().map(img -> {
+            ProductImageDto it = new ProductImageDto();
+            it.setImageId(img.getImageId());
+            it.setImageUrl(img.getImageUrl());
+            it.setImageOrder(img.getImageOrder());
+            return it;
+        }).toList());
+        dto.setTypeNames(src.getTypeNames() == null ? null : new ArrayList<>(src.getTypeNames()));
+        dto.setLatestImportPrice(src.getLatestImportPrice());
+        dto.setLatestProfitMargin(src.getLatestProfitMargin());
+        return dto;
+    }
+}
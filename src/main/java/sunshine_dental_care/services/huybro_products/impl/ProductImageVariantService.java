@@ -0,0 +1,232 @@
+package sunshine_dental_care.services.huybro_products.impl;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import sunshine_dental_care.config.huybro_config.StaticResourceConfig;
+import sunshine_dental_care.utils.huybro_utils.image.ImageResizeUtil;
+import sunshine_dental_care.utils.huybro_utils.image.ImageVariant;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ảnh sản phẩm đã resize theo từng variant (thumb / card / detail).
+ * - Sinh sẵn cả 3 variant ngay sau khi upload (đọc ảnh gốc 1 lần).
+ * - Request trúng file đã biết thì trả thẳng metadata trong bộ nhớ, không stat lại filesystem.
+ *   Tên ảnh gốc luôn có hậu tố ngẫu nhiên (ImageUploadUtil) nên nội dung của 1 tên file không đổi.
+ * - Nhiều request miss cùng 1 ảnh + variant chỉ resize 1 lần (single-flight), các request còn lại chờ kết quả.
+ * - Metadata giữ tối đa app.image.variant-cache-max-entries mục (LRU), mục bị đẩy ra chỉ tốn 1 lần stat file.
+ */
+@Service
+@Slf4j
+public class ProductImageVariantService {
+
+    private final StaticResourceConfig staticResourceConfig;
+    private final ExecutorService resizeExecutor;
+    private final float jpegQuality;
+    private final long waitTimeoutMs;
+
+    // fileName|variant -> file đã sẵn sàng (LRU theo lần truy cập)
+    private final Map<String, VariantFile> ready;
+    // fileName|variant -> lần resize đang chạy
+    private final Map<String, CompletableFuture<VariantFile>> inFlight = new ConcurrentHashMap<>();
+
+    public ProductImageVariantService(StaticResourceConfig staticResourceConfig,
+                                      @Value("${app.image.resize-threads:2}") int resizeThreads,
+                                      @Value("${app.image.jpeg-quality:0.85}") float jpegQuality,
+                                      @Value("${app.image.resize-wait-ms:15000}") long waitTimeoutMs,
+                                      @Value("${app.image.variant-cache-max-entries:5000}") int maxReadyEntries) {
+        this.staticResourceConfig = staticResourceConfig;
+        this.jpegQuality = jpegQuality;
+        this.waitTimeoutMs = waitTimeoutMs;
+
+        int maxReady = Math.max(1, maxReadyEntries);
+        this.ready = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VariantFile> eldest) {
+                return size() > maxReady;
+            }
+        });
+
+        AtomicInteger seq = new AtomicInteger();
+        this.resizeExecutor = Executors.newFixedThreadPool(Math.max(1, resizeThreads), r -> {
+            Thread t = new Thread(r, "image-resize-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public record VariantFile(File file, long length, long lastModified, String etag) {}
+
+    // Gọi sau khi upload: sinh các variant còn thiếu ở background, không giữ request upload
+    public void pregenerate(String fileName) {
+        checkFileName(fileName);
+        Set<ImageVariant> missing = EnumSet.noneOf(ImageVariant.class);
+        for (ImageVariant v : ImageVariant.values()) {
+            String key = key(fileName, v);
+            if (!ready.containsKey(key) && !inFlight.containsKey(key)) missing.add(v);
+        }
+        if (missing.isEmpty()) return;
+
+        CompletableFuture<Map<ImageVariant, VariantFile>> all =
+                CompletableFuture.supplyAsync(() -> generate(fileName, missing), resizeExecutor);
+        for (ImageVariant v : missing) {
+            String key = key(fileName, v);
+            CompletableFuture<VariantFile> one = all.thenApply(m -> m.get(v));
+            inFlight.putIfAbsent(key, one);
+            one.whenComplete((f, ex) -> inFlight.remove(key, one));
+        }
+        all.whenComplete((m, ex) -> {
+            if (ex != null) log.warn("Không thể sinh sẵn variant cho ảnh {}: {}", fileName, rootMessage(ex));
+        });
+    }
+
+    public VariantFile resolve(String fileName, ImageVariant variant) throws IOException {
+        checkFileName(fileName);
+        String key = key(fileName, variant);
+
+        VariantFile hit = ready.get(key);
+        if (hit != null) return hit;
+
+        // Có sẵn trên đĩa (sinh từ lần chạy trước) thì chỉ cần đọc metadata
+        File original = new File(staticResourceConfig.getOriginalDir(), fileName);
+        File target = variantPath(fileName, variant).toFile();
+        if (target.exists() && original.exists() && target.lastModified() >= original.lastModified()) {
+            return remember(key, target, variant);
+        }
+
+        CompletableFuture<VariantFile> future = inFlight.get(key);
+        if (future == null) {
+            // Đăng ký future rỗng trước, chỉ request thắng mới submit resize.
+            // Dọn inFlight TRƯỚC khi complete: request đang chờ thức dậy thì map đã sạch
+            CompletableFuture<VariantFile> created = new CompletableFuture<>();
+            future = inFlight.putIfAbsent(key, created);
+            if (future == null) {
+                future = created;
+                try {
+                    resizeExecutor.execute(() -> {
+                        try {
+                            VariantFile result = generate(fileName, EnumSet.of(variant)).get(variant);
+                            inFlight.remove(key, created);
+                            created.complete(result);
+                        } catch (Throwable t) {
+                            inFlight.remove(key, created);
+                            created.completeExceptionally(t);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.remove(key, created);
+                    created.completeExceptionally(e);
+                }
+            }
+        }
+
+        try {
+            return future.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while resizing " + fileName, e);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out resizing " + fileName);
+        } catch (ExecutionException e) {
+            throw new IOException(rootMessage(e), e.getCause());
+        }
+    }
+
+    // Đọc ảnh gốc 1 lần rồi ghi lần lượt các variant
+    private Map<ImageVariant, VariantFile> generate(String fileName, Set<ImageVariant> variants) {
+        long started = System.nanoTime();
+        File original = new File(staticResourceConfig.getOriginalDir(), fileName);
+        try {
+            if (!original.exists()) throw new IOException("Not found: " + original.getAbsolutePath());
+            BufferedImage source = ImageIO.read(original);
+            if (source == null) throw new IOException("Cannot read image: " + original.getAbsolutePath());
+
+            Map<ImageVariant, VariantFile> result = new ConcurrentHashMap<>();
+            List<ImageVariant> ordered = new ArrayList<>(variants);
+            // Lớn trước: variant nhỏ hơn resize tiếp từ ảnh vừa thu nhỏ, rẻ hơn nhiều so với từ ảnh gốc
+            ordered.sort((a, b) -> Integer.compare(b.getWidth(), a.getWidth()));
+            BufferedImage current = source;
+            for (ImageVariant v : ordered) {
+                current = ImageResizeUtil.scaleToFit(current, v.getWidth(), v.getHeight());
+                Path target = variantPath(fileName, v);
+                ImageResizeUtil.writeJpeg(current, target, jpegQuality);
+                result.put(v, remember(key(fileName, v), target.toFile(), v));
+            }
+            log.info("✔ Đã resize {} variant cho ảnh {} trong {} ms",
+                    ordered.size(), fileName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private VariantFile remember(String key, File file, ImageVariant variant) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = "\"" + variant.key() + "-" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        VariantFile vf = new VariantFile(file, length, lastModified, etag);
+        ready.put(key, vf);
+        return vf;
+    }
+
+    // DETAIL giữ đường dẫn cache cũ (cacheDir/fileName) để dùng lại các file đã resize trước đây
+    private Path variantPath(String fileName, ImageVariant variant) {
+        Path cacheDir = Paths.get(staticResourceConfig.getCacheDir());
+        return variant == ImageVariant.DETAIL
+                ? cacheDir.resolve(fileName)
+                : cacheDir.resolve(variant.key()).resolve(fileName);
+    }
+
+    private static String key(String fileName, ImageVariant variant) {
+        return fileName + "|" + variant.key();
+    }
+
+    private static void checkFileName(String fileName) {
+        if (fileName == null || fileName.isBlank()
+                || fileName.contains("..") || fileName.contains("/") || fileName.contains("\\")) {
+            throw new IllegalArgumentException("Invalid image file name");
+        }
+    }
+
+    private static String rootMessage(Throwable ex) {
+        Throwable t = ex;
+        while (t.getCause() != null) t = t.getCause();
+        return t.getMessage();
+    }
+
+    int readyCount() {
+        return ready.size();
+    }
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resizeExecutor.shutdownNow();
+    }
+}
@@ -16,6 +16,7 @@ import sunshine_dental_care.services.huybro_checkout.email.client.EmailService;
 import sunshine_dental_care.services.huybro_products.interfaces.InventoryService;
 import sunshine_dental_care.services.huybro_products.interfaces.ProductInvoiceService;
 import sunshine_dental_care.utils.huybro_utils.EmailTemplateUtils;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -32,6 +33,7 @@ public class ProductInvoiceServiceImpl implements ProductInvoiceService {
     private final ProductInventoryRepository productInventoryRepository;
     private final EmailService emailService;;
     private final InventoryService  inventoryService;
+    private final RevenueFactService revenueFactService;
     @Override
     @Transactional(readOnly = true)
     public ProductInvoiceDetailDto getInvoiceDetail(Integer invoiceId) {
@@ -129,6 +131,7 @@ public class ProductInvoiceServiceImpl implements ProductInvoiceService {
 
         invoice.setUpdatedAt(LocalDateTime.now());
         ProductInvoice savedInvoice = invoiceRepository.save(invoice);
+        revenueFactService.invoiceChanged(savedInvoice);
 
         // [NEW] GỬI MAIL FULL HÓA ĐƠN + TRẠNG THÁI MỚI
         if (!currentStatus.equalsIgnoreCase(newStatus) && savedInvoice.getCustomerEmail() != null) {
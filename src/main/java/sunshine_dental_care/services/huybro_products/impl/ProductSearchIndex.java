@@ -0,0 +1,455 @@
+package sunshine_dental_care.services.huybro_products.impl;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import sunshine_dental_care.dto.huybro_products.ProductDto;
+import sunshine_dental_care.dto.huybro_products.ProductFacetsDto;
+import sunshine_dental_care.dto.huybro_products.ProductFilterDto;
+import sunshine_dental_care.utils.huybro_utils.format.FormatSearchText;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Index tìm kiếm sản phẩm trong bộ nhớ cho /api/products/page:
+ * - Keyword: inverted index trigram trên tên + SKU đã bỏ dấu; không khớp chính xác thì chấp nhận sai chính tả nhẹ.
+ *   Keyword được tách theo khoảng trắng, mọi từ đều phải xuất hiện (AND) trong chuỗi "tên + SKU"
+ *   (khác LIKE cũ: cả cụm phải nằm liền trong tên hoặc trong SKU).
+ * - Filter brand / type / khoảng giá / còn hàng / active là phép AND/OR trên BitSet.
+ * - Facet đếm từ cùng các BitSet đó (mỗi chiều tính với mọi filter trừ chính nó).
+ * - Cập nhật từng sản phẩm khi ProductCatalogCache báo thay đổi; rebuild toàn bộ định kỳ để tự sửa lệch.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductSearchIndex {
+
+    // Tỉ lệ trigram tối thiểu phải trùng khi tìm gần đúng
+    private static final double FUZZY_MIN_GRAM_RATIO = 0.6;
+
+    private final ProductCatalogCache catalogCache;
+
+    @Value("${app.catalog.price-bands:0,10,25,50,100,250,500}")
+    private String priceBandConfig;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Integer> pendingChanges = ConcurrentHashMap.newKeySet();
+    private volatile boolean built = false;
+
+    // --- Dữ liệu index (đọc dưới read lock, ghi dưới write lock) ---
+    private final List<ProductDto> docs = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    private final Map<Integer, Integer> ordinalById = new HashMap<>();
+    private final Map<String, BitSet> grams = new HashMap<>();
+    private final Map<String, BitSet> brandBits = new HashMap<>();
+    private final Map<String, BitSet> typeBits = new HashMap<>();
+    private final Map<String, String> brandLabels = new HashMap<>();
+    private final Map<String, String> typeLabels = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private final BitSet activeBits = new BitSet();
+    private final BitSet inStockBits = new BitSet();
+    private BitSet[] bandBits;
+    private BigDecimal[] bandBounds;
+
+    @PostConstruct
+    void init() {
+        bandBounds = Arrays.stream(priceBandConfig.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(BigDecimal::new)
+                .sorted()
+                .toArray(BigDecimal[]::new);
+        bandBits = new BitSet[bandBounds.length];
+        for (int i = 0; i < bandBits.length; i++) bandBits[i] = new BitSet();
+
+        catalogCache.addChangeListener(pendingChanges::add);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            // Lần search đầu tiên sẽ build lại
+            log.warn("Product search index warm-up failed: {}", e.getMessage());
+        }
+    }
+
+    // Lưới an toàn: dựng lại toàn bộ (VD: sửa DB trực tiếp không qua service)
+    @Scheduled(fixedDelayString = "${app.catalog.search-rebuild-ms:3600000}",
+            initialDelayString = "${app.catalog.search-rebuild-ms:3600000}")
+    public void rebuild() {
+        long started = System.nanoTime();
+        // Thay đổi đến sau thời điểm này vẫn nằm trong pendingChanges để áp dụng ở lần search sau
+        Set<Integer> covered = new HashSet<>(pendingChanges);
+        pendingChanges.removeAll(covered);
+        List<ProductDto> all = catalogCache.findAll();
+
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            texts.clear();
+            ordinalById.clear();
+            grams.clear();
+            brandBits.clear();
+            typeBits.clear();
+            brandLabels.clear();
+            typeLabels.clear();
+            live.clear();
+            activeBits.clear();
+            inStockBits.clear();
+            for (BitSet b : bandBits) b.clear();
+
+            for (ProductDto dto : all) {
+                int ord = docs.size();
+                docs.add(null);
+                texts.add("");
+                ordinalById.put(dto.getProductId(), ord);
+                addDoc(ord, dto);
+            }
+            built = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Product search index rebuilt: {} product(s), {} trigram(s) in {} ms",
+                all.size(), grams.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    // --- SEARCH ---
+
+    public Page<ProductDto> search(ProductFilterDto filter, Pageable pageable) {
+        ensureFresh();
+        ProductFilterDto f = filter != null ? filter : new ProductFilterDto();
+
+        lock.readLock().lock();
+        try {
+            BitSet keywordBits = keywordMatches(f.getKeyword());
+            BitSet matched = filterBits(f, keywordBits, null);
+
+            List<Integer> ordinals = new ArrayList<>(matched.cardinality());
+            for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) ordinals.add(i);
+            ordinals.sort(comparatorFor(pageable.getSort()));
+
+            int from = (int) Math.min(pageable.getOffset(), ordinals.size());
+            int to = Math.min(from + pageable.getPageSize(), ordinals.size());
+            List<ProductDto> content = new ArrayList<>(to - from);
+            for (int ord : ordinals.subList(from, to)) {
+                content.add(ProductCatalogCache.copyOf(docs.get(ord)));
+            }
+            return new PageImpl<>(content, pageable, ordinals.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public ProductFacetsDto facets(ProductFilterDto filter) {
+        ensureFresh();
+        ProductFilterDto f = filter != null ? filter : new ProductFilterDto();
+
+        lock.readLock().lock();
+        try {
+            BitSet keywordBits = keywordMatches(f.getKeyword());
+
+            ProductFacetsDto result = new ProductFacetsDto();
+            BitSet all = filterBits(f, keywordBits, null);
+            result.setTotalElements(all.cardinality());
+
+            result.setBrands(countFacet(filterBits(f, keywordBits, Dimension.BRAND), brandBits, brandLabels));
+            result.setTypes(countFacet(filterBits(f, keywordBits, Dimension.TYPE), typeBits, typeLabels));
+
+            BitSet withoutPrice = filterBits(f, keywordBits, Dimension.PRICE);
+            List<ProductFacetsDto.PriceBand> bands = new ArrayList<>();
+            for (int i = 0; i < bandBounds.length; i++) {
+                ProductFacetsDto.PriceBand band = new ProductFacetsDto.PriceBand();
+                band.setMin(bandBounds[i]);
+                band.setMax(i + 1 < bandBounds.length ? bandBounds[i + 1] : null);
+                band.setCount(intersectCount(withoutPrice, bandBits[i]));
+                bands.add(band);
+            }
+            result.setPriceBands(bands);
+            result.setInStock(intersectCount(all, inStockBits));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- FILTER ---
+
+    private enum Dimension { BRAND, TYPE, PRICE }
+
+    private BitSet filterBits(ProductFilterDto f, BitSet keywordBits, Dimension exclude) {
+        BitSet result = (BitSet) live.clone();
+
+        if (f.getActive() != null) {
+            if (f.getActive()) result.and(activeBits);
+            else result.andNot(activeBits);
+        }
+        if (keywordBits != null) result.and(keywordBits);
+
+        if (exclude != Dimension.BRAND && f.getBrands() != null && !f.getBrands().isEmpty()) {
+            result.and(unionOf(f.getBrands(), brandBits));
+        }
+        if (exclude != Dimension.TYPE && f.getTypes() != null && !f.getTypes().isEmpty()) {
+            result.and(unionOf(f.getTypes(), typeBits));
+        }
+        if (exclude != Dimension.PRICE && (f.getMinPrice() != null || f.getMaxPrice() != null)) {
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                BigDecimal price = docs.get(i).getDefaultRetailPrice();
+                boolean ok = price != null
+                        && (f.getMinPrice() == null || price.compareTo(f.getMinPrice()) >= 0)
+                        && (f.getMaxPrice() == null || price.compareTo(f.getMaxPrice()) <= 0);
+                if (!ok) result.clear(i);
+            }
+        }
+        return result;
+    }
+
+    private static BitSet unionOf(List<String> values, Map<String, BitSet> postings) {
+        BitSet union = new BitSet();
+        for (String v : values) {
+            BitSet bits = postings.get(FormatSearchText.fold(v));
+            if (bits != null) union.or(bits);
+        }
+        return union;
+    }
+
+    // null = không lọc theo keyword
+    private BitSet keywordMatches(String keyword) {
+        String folded = FormatSearchText.fold(keyword);
+        if (folded.isEmpty()) return null;
+        String[] tokens = folded.split(" ");
+
+        BitSet strict = (BitSet) live.clone();
+        for (String token : tokens) {
+            strict.and(tokenMatches(token, false));
+        }
+        if (!strict.isEmpty()) return strict;
+
+        // Không khớp chính xác -> chấp nhận sai chính tả nhẹ (trùng đủ nhiều trigram)
+        BitSet fuzzy = (BitSet) live.clone();
+        for (String token : tokens) {
+            fuzzy.and(tokenMatches(token, true));
+        }
+        return fuzzy;
+    }
+
+    private BitSet tokenMatches(String token, boolean fuzzy) {
+        Set<String> tokenGrams = FormatSearchText.trigrams(token);
+        BitSet result = new BitSet();
+
+        if (tokenGrams.isEmpty()) {
+            // Token 1-2 ký tự: quét chuỗi (chỉ xảy ra với từ khóa rất ngắn)
+            for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+                if (texts.get(i).contains(token)) result.set(i);
+            }
+            return result;
+        }
+
+        if (!fuzzy) {
+            boolean first = true;
+            for (String g : tokenGrams) {
+                BitSet bits = grams.get(g);
+                if (bits == null) return new BitSet();
+                if (first) {
+                    result.or(bits);
+                    first = false;
+                } else {
+                    result.and(bits);
+                }
+            }
+            // Trigram khớp hết vẫn có thể sai thứ tự -> kiểm tra lại substring như LIKE '%token%'
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                if (!texts.get(i).contains(token)) result.clear(i);
+            }
+            return result;
+        }
+
+        int required = Math.max(1, (int) Math.ceil(tokenGrams.size() * FUZZY_MIN_GRAM_RATIO));
+        int[] hits = new int[docs.size()];
+        for (String g : tokenGrams) {
+            BitSet bits = grams.get(g);
+            if (bits == null) continue;
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                if (++hits[i] == required) result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> countFacet(BitSet base, Map<String, BitSet> postings, Map<String, String> labels) {
+        List<Map.Entry<String, Integer>> counts = new ArrayList<>();
+        for (Map.Entry<String, BitSet> e : postings.entrySet()) {
+            int count = intersectCount(base, e.getValue());
+            if (count > 0) counts.add(Map.entry(labels.getOrDefault(e.getKey(), e.getKey()), count));
+        }
+        counts.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> e : counts) result.put(e.getKey(), e.getValue());
+        return result;
+    }
+
+    private static int intersectCount(BitSet a, BitSet b) {
+        BitSet tmp = (BitSet) a.clone();
+        tmp.and(b);
+        return tmp.cardinality();
+    }
+
+    // Hỗ trợ các field mà ProductController đang sort; null luôn xếp cuối, hòa thì theo productId
+    private Comparator<Integer> comparatorFor(Sort sort) {
+        Comparator<Integer> comparator = null;
+        for (Sort.Order order : sort) {
+            Comparator<Integer> c = switch (order.getProperty()) {
+                case "defaultRetailPrice" -> nullsLast(order, ord -> docs.get(ord).getDefaultRetailPrice());
+                case "brand" -> nullsLast(order, ord -> fold(docs.get(ord).getBrand()));
+                case "updatedAt" -> nullsLast(order, ord -> docs.get(ord).getUpdatedAt());
+                case "createdAt" -> nullsLast(order, ord -> docs.get(ord).getCreatedAt());
+                default -> nullsLast(order, ord -> fold(docs.get(ord).getProductName()));
+            };
+            comparator = comparator == null ? c : comparator.thenComparing(c);
+        }
+        Comparator<Integer> byId = Comparator.comparing(ord -> docs.get(ord).getProductId());
+        return comparator == null ? byId : comparator.thenComparing(byId);
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<Integer> nullsLast(
+            Sort.Order order, Function<Integer, T> key) {
+        Comparator<T> natural = order.isDescending() ? Comparator.<T>reverseOrder() : Comparator.<T>naturalOrder();
+        return Comparator.comparing(key, Comparator.nullsLast(natural));
+    }
+
+    private static String fold(String s) {
+        return s == null ? null : FormatSearchText.fold(s);
+    }
+
+    // --- CẬP NHẬT TĂNG DẦN ---
+
+    // Áp dụng các thay đổi đang chờ trước khi search (load DTO mới qua catalog cache, 1 lần cho cả nhóm)
+    private void ensureFresh() {
+        if (!built) {
+            rebuild();
+            return;
+        }
+        if (pendingChanges.isEmpty()) return;
+
+        Set<Integer> changed = new HashSet<>(pendingChanges);
+        pendingChanges.removeAll(changed);
+        Map<Integer, ProductDto> fresh = new HashMap<>();
+        for (ProductDto dto : catalogCache.findByIds(changed)) fresh.put(dto.getProductId(), dto);
+
+        lock.writeLock().lock();
+        try {
+            for (Integer id : changed) {
+                Integer ord = ordinalById.get(id);
+                if (ord != null) removeDoc(ord);
+
+                ProductDto dto = fresh.get(id);
+                if (dto == null) continue; // Sản phẩm đã bị xóa
+                if (ord == null) {
+                    ord = docs.size();
+                    docs.add(null);
+                    texts.add("");
+                    ordinalById.put(id, ord);
+                }
+                addDoc(ord, dto);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Product search index: applied {} change(s)", changed.size());
+    }
+
+    private void addDoc(int ord, ProductDto dto) {
+        String text = FormatSearchText.fold(dto.getProductName() + " " + dto.getSku());
+        docs.set(ord, dto);
+        texts.set(ord, text);
+        live.set(ord);
+
+        for (String g : FormatSearchText.trigrams(text)) {
+            grams.computeIfAbsent(g, k -> new BitSet()).set(ord);
+        }
+        if (dto.getBrand() != null) {
+            String key = FormatSearchText.fold(dto.getBrand());
+            brandBits.computeIfAbsent(key, k -> new BitSet()).set(ord);
+            brandLabels.putIfAbsent(key, dto.getBrand());
+        }
+        if (dto.getTypeNames() != null) {
+            for (String type : dto.getTypeNames()) {
+                String key = FormatSearchText.fold(type);
+                typeBits.computeIfAbsent(key, k -> new BitSet()).set(ord);
+                typeLabels.putIfAbsent(key, type);
+            }
+        }
+        if (Boolean.TRUE.equals(dto.getIsActive())) activeBits.set(ord);
+        if (dto.getUnit() != null && dto.getUnit() > 0) inStockBits.set(ord);
+
+        BigDecimal price = dto.getDefaultRetailPrice();
+        if (price != null) {
+            for (int i = bandBounds.length - 1; i >= 0; i--) {
+                if (price.compareTo(bandBounds[i]) >= 0) {
+                    bandBits[i].set(ord);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void removeDoc(int ord) {
+        ProductDto old = docs.get(ord);
+        if (old == null) return;
+
+        for (String g : FormatSearchText.trigrams(texts.get(ord))) {
+            BitSet bits = grams.get(g);
+            if (bits != null) {
+                bits.clear(ord);
+                if (bits.isEmpty()) grams.remove(g);
+            }
+        }
+        // Chỉ đụng tới brand / type của chính sản phẩm này; nhãn bị bỏ khi không còn sản phẩm nào dùng
+        clearFrom(brandBits, brandLabels, old.getBrand(), ord);
+        if (old.getTypeNames() != null) {
+            for (String type : old.getTypeNames()) clearFrom(typeBits, typeLabels, type, ord);
+        }
+        live.clear(ord);
+        activeBits.clear(ord);
+        inStockBits.clear(ord);
+        for (BitSet b : bandBits) b.clear(ord);
+        docs.set(ord, null);
+        texts.set(ord, "");
+    }
+
+    private static void clearFrom(Map<String, BitSet> postings, Map<String, String> labels, String value, int ord) {
+        if (value == null) return;
+        String key = FormatSearchText.fold(value);
+        BitSet bits = postings.get(key);
+        if (bits == null) return;
+        bits.clear(ord);
+        if (bits.isEmpty()) {
+            postings.remove(key);
+            labels.remove(key);
+        }
+    }
+}
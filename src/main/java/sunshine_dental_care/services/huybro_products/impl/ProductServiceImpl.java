@@ -11,6 +11,7 @@ import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory
 import sunshine_dental_care.entities.huybro_products.*;
 import sunshine_dental_care.repositories.huybro_custom.ClinicRepository;
 import sunshine_dental_care.repositories.huybro_products.*;
+import sunshine_dental_care.services.huybro_cart.impl.StockReservationService;
 import sunshine_dental_care.services.huybro_products.interfaces.ProductService;
 import sunshine_dental_care.utils.huybro_utils.format.FormatTypeProduct;
 
@@ -36,6 +37,9 @@ public class ProductServiceImpl implements ProductService {
     private final ProductInventoryRepository productInventoryRepository;
     private final ProductStockReceiptRepository stockReceiptRepository;
     private final ProductInvoiceItemRepository productInvoiceItemRepository;
+    private final ProductCatalogCache catalogCache;
+    private final ProductSearchIndex searchIndex;
+    private final StockReservationService stockReservationService;
 
     public ProductServiceImpl(ProductRepository productRepository,
                               ProductImageRepository productImageRepository,
@@ -44,7 +48,10 @@ public class ProductServiceImpl implements ProductService {
                               ClinicRepository clinicRepository,
                               ProductInventoryRepository productInventoryRepository,
                               ProductStockReceiptRepository stockReceiptRepository,
-                              ProductInvoiceItemRepository productInvoiceItemRepository) {
+                              ProductInvoiceItemRepository productInvoiceItemRepository,
+                              ProductCatalogCache catalogCache,
+                              ProductSearchIndex searchIndex,
+                              StockReservationService stockReservationService) {
         this.productRepository = productRepository;
         this.productImageRepository = productImageRepository;
         this.productsProductTypeRepository = productsProductTypeRepository;
@@ -53,9 +60,12 @@ public class ProductServiceImpl implements ProductService {
         this.productInventoryRepository = productInventoryRepository;
         this.stockReceiptRepository = stockReceiptRepository;
         this.productInvoiceItemRepository = productInvoiceItemRepository;
+        this.catalogCache = catalogCache;
+        this.searchIndex = searchIndex;
+        this.stockReservationService = stockReservationService;
     }
 
-    // Hàm map từ Entity → DTO
+    // Hàm map từ Entity → DTO (chỉ dùng sau create/update; các API đọc đi qua ProductCatalogCache)
     private ProductDto mapToDto(Product product) {
         ProductDto dto = new ProductDto();
         dto.setProductId(product.getId());
@@ -109,28 +119,26 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public List<ProductDto> findAllProducts() {
-        List<Product> products = productRepository.findByIsActiveTrue();
-        return products.stream().map(this::mapToDto).collect(Collectors.toList());
+        return catalogCache.findAllActive();
     }
 
     @Override
     public List<ProductDto> findAllProductsForAccountant() {
-        List<Product> products = productRepository.findAll();
-        return products.stream().map(this::mapToDto).collect(Collectors.toList());
+        return catalogCache.findAll();
     }
 
     @Override
     public ProductDto findById(Integer id) {
-        Product product = productRepository.findById(id)
+        ProductDto dto = catalogCache.findById(id)
                 .orElseThrow(() -> new RuntimeException("Product not found"));
 
-        ProductDto dto = mapToDto(product);
-
         // 1. SỐ LIỆU: TỒN KHO & ĐÃ BÁN
         // Unit (Tồn kho) đã có trong Product Entity (được sync từ InventoryService)
         // Sold Count (Đã bán): Query từ InvoiceItem
         Integer sold = productInvoiceItemRepository.sumSoldQuantityByProductId(id);
         dto.setSoldCount(sold != null ? sold : 0);
+        // Số còn cho vào giỏ được: tồn kho thực trừ phần giỏ khác đang giữ
+        dto.setAvailableQuantity(stockReservationService.getAvailable(id));
 
         // 2. SOCIAL PROOF: LỊCH SỬ MUA (Lấy 10 người gần nhất)
         List<ProductPurchaseHistoryDto> recentPurchases = productInvoiceItemRepository
@@ -139,7 +147,7 @@ public class ProductServiceImpl implements ProductService {
 
         // --- 3. LOGIC GIẢM GIÁ (SALE %) - [FIXED FINAL: NULL SAFETY] ---
         BigDecimal maxHistoryPrice = stockReceiptRepository.findMaxRetailPriceByProductId(id);
-        BigDecimal currentPrice = product.getDefaultRetailPrice();
+        BigDecimal currentPrice = dto.getDefaultRetailPrice();
 
         dto.setOriginalPrice(null);
         dto.setDiscountPercentage(null);
@@ -172,7 +180,7 @@ public class ProductServiceImpl implements ProductService {
         if (currentTypeNames != null && !currentTypeNames.isEmpty()) {
             related = productRepository.findRelatedProducts(
                     id,
-                    product.getBrand(),
+                    dto.getBrand(),
                     currentTypeNames,
                     PageRequest.of(0, 4) // Lấy Top 4
             );
@@ -186,35 +194,23 @@ public class ProductServiceImpl implements ProductService {
 
         } else {
             // B4: Nếu sản phẩm hiện tại không có Type nào -> Chỉ tìm theo Brand
-            related = productRepository.findTop4ByBrandAndIdNotAndIsActiveTrue(product.getBrand(), id);
+            related = productRepository.findTop4ByBrandAndIdNotAndIsActiveTrue(dto.getBrand(), id);
         }
 
-        dto.setRelatedProducts(related.stream().map(this::mapToDto).collect(Collectors.toList()));
+        // Map cả block gợi ý 1 lần (không query theo từng sản phẩm)
+        dto.setRelatedProducts(catalogCache.toDtos(related));
 
         return dto;
     }
     @Override
     public Page<ProductDto> search(ProductFilterDto filter, Pageable pageable) {
-        String keyword = (filter != null && filter.getKeyword() != null && !filter.getKeyword().isBlank())
-                ? filter.getKeyword().trim()
-                : null;
-
-        boolean brandEnabled = filter != null && filter.getBrands() != null && !filter.getBrands().isEmpty();
-        boolean typeEnabled  = filter != null && filter.getTypes()  != null && !filter.getTypes().isEmpty();
-
-        var brands = brandEnabled ? filter.getBrands() : List.<String>of();
-        var types  = typeEnabled  ? filter.getTypes()  : List.<String>of();
-
-        var page = productRepository.searchProducts(
-                keyword,
-                brands, brandEnabled,
-                types,  typeEnabled,
-                filter != null ? filter.getMinPrice() : null,
-                filter != null ? filter.getMaxPrice() : null,
-                filter != null ? filter.getActive()   : null,
-                pageable
-        );
-        return page.map(this::mapToDto);
+        // Lọc / đếm / sắp xếp trên index trong bộ nhớ thay cho LIKE '%...%' + count query
+        return searchIndex.search(filter, pageable);
+    }
+
+    @Override
+    public ProductFacetsDto facets(ProductFilterDto filter) {
+        return searchIndex.facets(filter);
     }
 
     // --- CREATE PRODUCT (STRICT LOGIC) ---
@@ -304,6 +300,7 @@ public class ProductServiceImpl implements ProductService {
             productInventoryRepository.save(inv);
         }
 
+        catalogCache.evict(savedProduct.getId());
         return mapToDto(savedProduct);
     }
 
@@ -407,6 +404,7 @@ public class ProductServiceImpl implements ProductService {
         }
         productsProductTypeRepository.saveAll(pptList);
 
+        catalogCache.evict(product.getId());
         return mapToDto(product);
     }
 
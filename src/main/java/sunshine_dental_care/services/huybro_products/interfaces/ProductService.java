@@ -7,6 +7,7 @@ import org.springframework.data.domain.Pageable;
 
 import sunshine_dental_care.dto.huybro_products.ProductCreateDto;
 import sunshine_dental_care.dto.huybro_products.ProductDto;
+import sunshine_dental_care.dto.huybro_products.ProductFacetsDto;
 import sunshine_dental_care.dto.huybro_products.ProductFilterDto;
 import sunshine_dental_care.dto.huybro_products.ProductUpdateDto;
 
@@ -15,6 +16,7 @@ public interface ProductService {
     List<ProductDto> findAllProductsForAccountant();
     ProductDto findById(Integer id);
     Page<ProductDto> search(ProductFilterDto filter, Pageable pageable);
+    ProductFacetsDto facets(ProductFilterDto filter);
     ProductDto createProduct(ProductCreateDto dto);
     ProductDto updateProduct(Integer id, ProductUpdateDto dto);
     String suggestSku(List<String> typeNames);
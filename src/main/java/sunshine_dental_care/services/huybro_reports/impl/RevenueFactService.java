@@ -0,0 +1,230 @@
+package sunshine_dental_care.services.huybro_reports.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoice;
+import sunshine_dental_care.repositories.huybro_products.ProductInvoiceItemRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductInvoiceRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyProductSalesFactRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyRevenueFactRepository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Duy trì bảng DailyRevenueFacts / DailyProductSalesFacts cho báo cáo doanh thu.
+ * - Hóa đơn tạo mới / đổi trạng thái -> đánh dấu ngày của hóa đơn là "bẩn" sau khi commit,
+ *   job mỗi app.reports.fact-refresh-ms tính lại riêng các ngày đó từ hóa đơn gốc.
+ * - rebuild(from, to) tính lại cả khoảng (lần đầu triển khai, sửa dữ liệu tay trên DB).
+ * Báo cáo chỉ đọc bảng fact nên chi phí theo số ngày, không theo số hóa đơn.
+ */
+@Service
+@Slf4j
+public class RevenueFactService {
+
+    private static final int REBUILD_CHUNK_DAYS = 31;
+    // Số ngày tối đa 1 lần rebuild qua API (chạy đồng bộ trong request)
+    static final int MAX_REBUILD_DAYS = 366;
+
+    private static final String INSERT_REVENUE = """
+            INSERT INTO DailyRevenueFacts
+                (factDate, clinicId, invoiceStatus, paymentStatus, currency, orderCount, totalAmount, totalUsd, totalVnd, updatedAt)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_PRODUCT_SALES = """
+            INSERT INTO DailyProductSalesFacts
+                (factDate, clinicId, invoiceStatus, paymentStatus, currency, productId, productName, sku,
+                 quantity, lineTotalAmount, lineTotalUsd, lineTotalVnd)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private final ProductInvoiceRepository invoiceRepository;
+    private final ProductInvoiceItemRepository invoiceItemRepository;
+    private final DailyRevenueFactRepository revenueFactRepository;
+    private final DailyProductSalesFactRepository productSalesFactRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int bootstrapDays;
+
+    private final Set<LocalDate> dirtyDays = ConcurrentHashMap.newKeySet();
+    // Thành phần khác cần biết hóa đơn vừa đổi (vd: cache dashboard admin), gọi sau commit
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    // 2 lần tính lại cùng 1 ngày không được chạy song song (xóa + chèn)
+    private final Object refreshLock = new Object();
+
+    public RevenueFactService(ProductInvoiceRepository invoiceRepository,
+                              ProductInvoiceItemRepository invoiceItemRepository,
+                              DailyRevenueFactRepository revenueFactRepository,
+                              DailyProductSalesFactRepository productSalesFactRepository,
+                              JdbcTemplate jdbcTemplate,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${app.reports.fact-bootstrap-days:730}") int bootstrapDays) {
+        this.invoiceRepository = invoiceRepository;
+        this.invoiceItemRepository = invoiceItemRepository;
+        this.revenueFactRepository = revenueFactRepository;
+        this.productSalesFactRepository = productSalesFactRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.bootstrapDays = bootstrapDays;
+    }
+
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    // Gọi sau khi lưu hóa đơn (tạo mới, đổi invoiceStatus / paymentStatus)
+    public void invoiceChanged(ProductInvoice invoice) {
+        LocalDate day = invoice.getCreatedAt() != null ? invoice.getCreatedAt().toLocalDate() : LocalDate.now();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    markDirty(day);
+                }
+            });
+        } else {
+            markDirty(day);
+        }
+    }
+
+    private void markDirty(LocalDate day) {
+        dirtyDays.add(day);
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.warn("Revenue facts: change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.reports.fact-refresh-ms:5000}")
+    public void refreshDirtyDays() {
+        if (dirtyDays.isEmpty()) return;
+        Set<LocalDate> days = new TreeSet<>(dirtyDays);
+        dirtyDays.removeAll(days);
+        for (LocalDate day : days) {
+            try {
+                refreshRange(day, day);
+            } catch (Exception e) {
+                // Thử lại ở lần chạy sau
+                dirtyDays.add(day);
+                log.warn("Revenue facts: failed to refresh {}: {}", day, e.getMessage());
+            }
+        }
+    }
+
+    // Đối soát hằng đêm 2 ngày gần nhất, phòng khi có thay đổi không đi qua invoiceChanged
+    @Scheduled(cron = "${app.reports.fact-reconcile-cron:0 15 2 * * *}", zone = "Asia/Ho_Chi_Minh")
+    public void reconcileRecentDays() {
+        LocalDate today = LocalDate.now();
+        rebuild(today.minusDays(1), today);
+    }
+
+    // Lần đầu chạy (bảng fact trống) thì dựng từ lịch sử hóa đơn
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        try {
+            if (revenueFactRepository.count() > 0) return;
+            LocalDate today = LocalDate.now();
+            int rows = rebuildChunks(today.minusDays(bootstrapDays), today);
+            log.info("Revenue facts: bootstrapped {} row(s) for the last {} day(s)", rows, bootstrapDays);
+        } catch (Exception e) {
+            log.error("Revenue facts: bootstrap failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // Tính lại toàn bộ khoảng ngày, theo từng khối để transaction không quá lớn; trả về số dòng fact đã ghi
+    public int rebuild(LocalDate from, LocalDate to) {
+        if (from == null || to == null || from.isAfter(to)) {
+            throw new IllegalArgumentException("Invalid date range");
+        }
+        if (ChronoUnit.DAYS.between(from, to) + 1 > MAX_REBUILD_DAYS) {
+            throw new IllegalArgumentException("Rebuild range must not exceed " + MAX_REBUILD_DAYS + " days");
+        }
+        return rebuildChunks(from, to);
+    }
+
+    // Bootstrap dùng trực tiếp (không giới hạn số ngày, chạy nền lúc khởi động)
+    private int rebuildChunks(LocalDate from, LocalDate to) {
+        long started = System.currentTimeMillis();
+        int rows = 0;
+        for (LocalDate chunkStart = from; !chunkStart.isAfter(to); chunkStart = chunkStart.plusDays(REBUILD_CHUNK_DAYS)) {
+            LocalDate chunkEnd = chunkStart.plusDays(REBUILD_CHUNK_DAYS - 1);
+            if (chunkEnd.isAfter(to)) chunkEnd = to;
+            rows += refreshRange(chunkStart, chunkEnd);
+        }
+        log.info("Revenue facts: rebuilt {} -> {} ({} row(s)) in {} ms", from, to, rows, System.currentTimeMillis() - started);
+        return rows;
+    }
+
+    private int refreshRange(LocalDate from, LocalDate to) {
+        synchronized (refreshLock) {
+            Integer rows = transactionTemplate.execute(status -> {
+                revenueFactRepository.deleteByDateRange(from, to);
+                productSalesFactRepository.deleteByDateRange(from, to);
+
+                LocalDateTime start = from.atStartOfDay();
+                LocalDateTime end = to.plusDays(1).atStartOfDay();
+                Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+                List<Object[]> revenue = invoiceRepository.aggregateDailyRevenue(start, end);
+                jdbcTemplate.batchUpdate(INSERT_REVENUE, revenue, 500, (ps, r) -> {
+                    ps.setDate(1, Date.valueOf((LocalDate) r[0]));
+                    ps.setObject(2, r[1]);
+                    ps.setString(3, (String) r[2]);
+                    ps.setString(4, (String) r[3]);
+                    ps.setString(5, (String) r[4]);
+                    ps.setInt(6, ((Number) r[5]).intValue());
+                    ps.setBigDecimal(7, money(r[6]));
+                    ps.setBigDecimal(8, money(r[7]));
+                    ps.setBigDecimal(9, money(r[8]));
+                    ps.setTimestamp(10, now);
+                });
+
+                List<Object[]> products = invoiceItemRepository.aggregateDailyProductSales(start, end);
+                jdbcTemplate.batchUpdate(INSERT_PRODUCT_SALES, products, 500, (ps, r) -> {
+                    ps.setDate(1, Date.valueOf((LocalDate) r[0]));
+                    ps.setObject(2, r[1]);
+                    ps.setString(3, (String) r[2]);
+                    ps.setString(4, (String) r[3]);
+                    ps.setString(5, (String) r[4]);
+                    ps.setObject(6, r[5]);
+                    ps.setString(7, (String) r[6]);
+                    ps.setString(8, (String) r[7]);
+                    ps.setInt(9, ((Number) r[8]).intValue());
+                    ps.setBigDecimal(10, money(r[9]));
+                    ps.setBigDecimal(11, money(r[10]));
+                    ps.setBigDecimal(12, money(r[11]));
+                });
+                return revenue.size() + products.size();
+            });
+            return rows == null ? 0 : rows;
+        }
+    }
+
+    private static BigDecimal money(Object value) {
+        if (value == null) return BigDecimal.ZERO;
+        BigDecimal amount = value instanceof BigDecimal bd ? bd : new BigDecimal(value.toString());
+        return amount.setScale(2, RoundingMode.HALF_UP);
+    }
+}
@@ -1,32 +1,52 @@
 package sunshine_dental_care.services.huybro_reports.impl;
 
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import sunshine_dental_care.dto.huybro_reports.ProductSalesFactRowDto;
+import sunshine_dental_care.dto.huybro_reports.RevenueChartDataDto;
+import sunshine_dental_care.dto.huybro_reports.RevenueFactRowDto;
 import sunshine_dental_care.dto.huybro_reports.RevenueReportResponseDto;
-import sunshine_dental_care.repositories.huybro_products.ProductInvoiceItemRepository;
+import sunshine_dental_care.dto.huybro_reports.TopSellingProductDto;
+import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoice;
 import sunshine_dental_care.repositories.huybro_products.ProductInvoiceRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyProductSalesFactRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyRevenueFactRepository;
 import sunshine_dental_care.services.huybro_reports.interfaces.IRevenueReportService;
 import sunshine_dental_care.utils.huybro_utils.ExcelExportUtils;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
+import sunshine_dental_care.utils.huybro_utils.export.TabularExportWriter;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.time.LocalDateTime; // [IMPORT QUAN TRỌNG]
-import java.time.LocalTime;     // [IMPORT QUAN TRỌNG]
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class RevenueReportServiceImpl implements IRevenueReportService {
 
+    private static final Set<String> POTENTIAL_STATUSES = Set.of("NEW", "CONFIRMED", "PROCESSING");
+    private static final Set<String> LOST_STATUSES = Set.of("CANCELLED", "RETURNED");
+
+    private final DailyRevenueFactRepository dailyRevenueFactRepository;
+    private final DailyProductSalesFactRepository dailyProductSalesFactRepository;
     private final ProductInvoiceRepository invoiceRepository;
-    private final ProductInvoiceItemRepository invoiceItemRepository;
+    private final EntityManager entityManager;
 
     @Override
     @Transactional(readOnly = true)
@@ -35,44 +55,57 @@ public class RevenueReportServiceImpl implements IRevenueReportService {
         if (startDate == null) startDate = LocalDate.now().minusDays(30);
         if (endDate == null) endDate = LocalDate.now();
 
-        // [QUAN TRỌNG] Chuyển đổi LocalDate (chỉ có ngày) sang LocalDateTime (ngày + giờ)
-        // Lý do: DB lưu createdAt là DateTime. Nếu chỉ tìm theo Date, nó sẽ hiểu là 00:00:00 -> Mất dữ liệu trong ngày cuối.
-        LocalDateTime startDateTime = startDate.atStartOfDay();             // Ví dụ: 2024-01-01 00:00:00
-        LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);          // Ví dụ: 2024-01-31 23:59:59.999999
-
         // Chuẩn hóa currency: Chỉ chấp nhận USD hoặc VND, mặc định là VND
         String safeCurrency = normalizeCurrency(targetCurrency);
 
-        log.info("Generating Revenue Report from {} to {} in {}", startDateTime, endDateTime, safeCurrency);
-
-        // 2. Tính toán KPI (Repository đã xử lý logic 'CASE WHEN' và 'createdAt')
-
-        // a. Doanh thu thực (Chỉ tính COMPLETED)
-        BigDecimal netRevenue = invoiceRepository.sumTotalRevenueConverted(
-                List.of("COMPLETED"), startDateTime, endDateTime, safeCurrency
-        );
-
-        // b. Doanh thu tiềm năng (Pipeline: NEW -> PROCESSING)
-        BigDecimal potentialRevenue = invoiceRepository.sumTotalRevenueConverted(
-                Arrays.asList("NEW", "CONFIRMED", "PROCESSING"), startDateTime, endDateTime, safeCurrency
-        );
-
-        // c. Doanh thu mất đi (Hủy/Hoàn trả)
-        BigDecimal lostRevenue = invoiceRepository.sumTotalRevenueConverted(
-                Arrays.asList("CANCELLED", "RETURNED"), startDateTime, endDateTime, safeCurrency
-        );
-
-        // d. Số lượng đơn (Count không cần quy đổi tiền)
-        Long completedOrders = invoiceRepository.countByStatusAndDate(List.of("COMPLETED"), startDateTime, endDateTime);
-        Long cancelledOrders = invoiceRepository.countByStatusAndDate(List.of("CANCELLED"), startDateTime, endDateTime);
-
-        // 3. Lấy dữ liệu Biểu đồ (Repository trả về List<RevenueChartDataDto>)
-        var chartData = invoiceRepository.getRevenueChartDataConverted(startDateTime, endDateTime, safeCurrency);
+        log.info("Generating Revenue Report from {} to {} in {}", startDate, endDate, safeCurrency);
+
+        // 2. Đọc bảng fact theo ngày (đã quy đổi sẵn USD/VND), không quét hóa đơn gốc
+        Function<RevenueFactRowDto, BigDecimal> amountOf = "USD".equals(safeCurrency)
+                ? RevenueFactRowDto::getTotalUsd
+                : RevenueFactRowDto::getTotalVnd;
+        List<RevenueFactRowDto> rows = dailyRevenueFactRepository.summarizeByDay(startDate, endDate, null);
+
+        BigDecimal netRevenue = BigDecimal.ZERO;       // a. Doanh thu thực (Chỉ tính COMPLETED)
+        BigDecimal potentialRevenue = BigDecimal.ZERO; // b. Doanh thu tiềm năng (Pipeline: NEW -> PROCESSING)
+        BigDecimal lostRevenue = BigDecimal.ZERO;      // c. Doanh thu mất đi (Hủy/Hoàn trả)
+        long completedOrders = 0;                      // d. Số lượng đơn
+        long cancelledOrders = 0;
+        // 3. Biểu đồ: chỉ các ngày có đơn COMPLETED
+        Map<LocalDate, RevenueChartDataDto> chartByDate = new TreeMap<>();
+
+        for (RevenueFactRowDto row : rows) {
+            String status = row.getInvoiceStatus();
+            BigDecimal amount = Objects.requireNonNullElse(amountOf.apply(row), BigDecimal.ZERO);
+            long count = row.getOrderCount() != null ? row.getOrderCount() : 0L;
+
+            if ("COMPLETED".equals(status)) {
+                netRevenue = netRevenue.add(amount);
+                completedOrders += count;
+                RevenueChartDataDto point = chartByDate.computeIfAbsent(row.getDate(),
+                        d -> new RevenueChartDataDto(d, BigDecimal.ZERO, 0L));
+                point.setRevenue(point.getRevenue().add(amount));
+                point.setOrderCount(point.getOrderCount() + count);
+            } else if (POTENTIAL_STATUSES.contains(status)) {
+                potentialRevenue = potentialRevenue.add(amount);
+            } else if (LOST_STATUSES.contains(status)) {
+                lostRevenue = lostRevenue.add(amount);
+                if ("CANCELLED".equals(status)) cancelledOrders += count;
+            }
+        }
+        var chartData = new ArrayList<>(chartByDate.values());
 
         // 4. Lấy Top Sản phẩm bán chạy (Top 5)
-        var topProducts = invoiceItemRepository.findTopSellingProductsConverted(
-                startDateTime, endDateTime, safeCurrency, PageRequest.of(0, 5)
-        );
+        Function<ProductSalesFactRowDto, BigDecimal> lineAmountOf = "USD".equals(safeCurrency)
+                ? ProductSalesFactRowDto::getLineTotalUsd
+                : ProductSalesFactRowDto::getLineTotalVnd;
+        var topProducts = dailyProductSalesFactRepository
+                .summarizeByInvoiceStatus(startDate, endDate, List.of("COMPLETED"), null)
+                .stream()
+                .sorted(Comparator.comparing(lineAmountOf, Comparator.nullsFirst(Comparator.naturalOrder())).reversed())
+                .limit(5)
+                .map(p -> new TopSellingProductDto(p.getProductName(), p.getSku(), p.getQuantity(), lineAmountOf.apply(p)))
+                .toList();
 
         // 5. Format số liệu (Rounding)
         // Nếu là VND -> 0 số thập phân. Nếu USD -> 2 số thập phân.
@@ -91,18 +124,29 @@ public class RevenueReportServiceImpl implements IRevenueReportService {
 
     @Override
     @Transactional(readOnly = true)
-    public ByteArrayInputStream exportToExcel(LocalDate startDate, LocalDate endDate, String targetCurrency) {
+    public void exportRevenueReport(LocalDate startDate, LocalDate endDate, String targetCurrency,
+                                    ExportFormat format, OutputStream out) throws IOException {
+        LocalDate from = startDate != null ? startDate : LocalDate.now().minusDays(30);
+        LocalDate to = endDate != null ? endDate : LocalDate.now();
+
         // Tái sử dụng logic lấy data để đảm bảo tính nhất quán số liệu
-        // Service này sẽ tự convert LocalDate -> LocalDateTime bên trong hàm getRevenueDashboardData
-        RevenueReportResponseDto data = getRevenueDashboardData(startDate, endDate, targetCurrency);
-
-        // Gọi Utils để render file Excel
-        // Lưu ý: Utils vẫn nhận LocalDate để in tiêu đề báo cáo cho đẹp (không cần in giờ phút giây lên tiêu đề Excel)
-        return ExcelExportUtils.exportRevenueReportToExcel(
-                data,
-                startDate != null ? startDate : LocalDate.now().minusDays(30),
-                endDate != null ? endDate : LocalDate.now()
-        );
+        RevenueReportResponseDto data = getRevenueDashboardData(from, to, targetCurrency);
+
+        try (TabularExportWriter writer = format.open(out);
+             Stream<ProductInvoice> invoices = invoiceRepository.streamForExport(from.atStartOfDay(), to.plusDays(1).atStartOfDay())) {
+            ExcelExportUtils.writeRevenueReport(writer, data, from, to);
+
+            // Chi tiết hóa đơn: đọc từng dòng từ DB, ghi xong thì bỏ khỏi persistence context
+            writer.sheet("Invoices");
+            writer.header(ExcelExportUtils.INVOICE_COLUMNS);
+            Iterator<ProductInvoice> it = invoices.iterator();
+            while (it.hasNext()) {
+                ProductInvoice invoice = it.next();
+                ExcelExportUtils.writeInvoiceRow(writer, invoice);
+                entityManager.detach(invoice);
+            }
+            writer.finish();
+        }
     }
 
     // --- Private Helpers ---
@@ -1,7 +1,10 @@
 package sunshine_dental_care.services.huybro_reports.interfaces;
 
 import sunshine_dental_care.dto.huybro_reports.RevenueReportResponseDto;
-import java.io.ByteArrayInputStream;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 
 public interface IRevenueReportService {
@@ -16,11 +19,13 @@ public interface IRevenueReportService {
     RevenueReportResponseDto getRevenueDashboardData(LocalDate startDate, LocalDate endDate, String targetCurrency);
 
     /**
-     * Xuất báo cáo ra file Excel (.xlsx).
+     * Xuất báo cáo (tổng hợp + theo ngày + chi tiết hóa đơn) ghi thẳng ra stream.
      * @param startDate Ngày bắt đầu
      * @param endDate Ngày kết thúc
      * @param targetCurrency Đơn vị tiền tệ quy đổi
-     * @return Stream dữ liệu file Excel
+     * @param format XLSX hoặc CSV
+     * @param out Stream đích (thường là response)
      */
-    ByteArrayInputStream exportToExcel(LocalDate startDate, LocalDate endDate, String targetCurrency);
+    void exportRevenueReport(LocalDate startDate, LocalDate endDate, String targetCurrency,
+                             ExportFormat format, OutputStream out) throws IOException;
 }
\ No newline at end of file
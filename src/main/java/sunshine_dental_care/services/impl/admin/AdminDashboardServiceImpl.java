@@ -7,403 +7,440 @@ import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import sunshine_dental_care.dto.adminDTO.DailyRevenueDto;
 import sunshine_dental_care.dto.adminDTO.DashboardStatisticsDto;
 import sunshine_dental_care.dto.adminDTO.TopDoctorPerformanceDto;
-import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.repositories.admin.AdminAppointmentStatsRepository;
 import sunshine_dental_care.repositories.admin.AdminInvoiceStatsRepository;
 import sunshine_dental_care.repositories.admin.AdminPatientStatsRepository;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository;
 import sunshine_dental_care.repositories.auth.ClinicRepo;
 import sunshine_dental_care.repositories.auth.UserRepo;
 import sunshine_dental_care.repositories.hr.LeaveRequestRepo;
 import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
 import sunshine_dental_care.services.interfaces.admin.AdminDashboardService;
 import sunshine_dental_care.utils.WorkHoursConstants;
 
+/**
+ * Dashboard admin:
+ * - Mỗi nhóm số liệu là 1 provider độc lập, chạy song song trên virtual thread
+ *   (thời gian tải ~ query chậm nhất thay vì tổng tất cả query), nhưng tối đa
+ *   app.admin.dashboard.max-parallel-queries provider cùng giữ connection để không vét pool Hikari.
+ * - Kết quả được cache theo ngày (bucket) trong app.admin.dashboard.cache-ttl-seconds.
+ * - Lịch hẹn / hóa đơn thay đổi -> tính lại nền sau app.admin.dashboard.refresh-debounce-ms
+ *   nếu có admin đang xem, ngược lại chỉ bỏ cache.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AdminDashboardServiceImpl implements AdminDashboardService {
 
         // Múi giờ Việt Nam - dùng constant từ WorkHoursConstants để đồng nhất
         private static final ZoneId VN_TIMEZONE = WorkHoursConstants.VN_TIMEZONE;
+        private static final String[] MAIN_CHANNELS = {"WEB_BOOKING", "WALK_IN", "PHONE"};
+        // Không có ai xem dashboard trong khoảng này -> không tính lại nền
+        private static final long ACTIVE_VIEW_MS = TimeUnit.MINUTES.toMillis(10);
 
         private final UserRepo userRepo;
         private final ClinicRepo clinicRepo;
         private final LeaveRequestRepo leaveRequestRepo;
         private final AdminInvoiceStatsRepository adminInvoiceStatsRepository;
         private final AdminPatientStatsRepository adminPatientStatsRepository;
+        private final AdminAppointmentStatsRepository adminAppointmentStatsRepository;
+        private final PatientVisitSummaryRepository patientVisitSummaryRepository;
         private final sunshine_dental_care.repositories.hr.AttendanceRepository attendanceRepo;
         private final AppointmentRepo appointmentRepo;
+        private final long cacheTtlMs;
+        private final long refreshDebounceMs;
+        // Giới hạn số provider chạy đồng thời (mỗi provider giữ 1 connection)
+        private final Semaphore queryPermits;
+
+        private final Object buildLock = new Object();
+        private final ScheduledThreadPoolExecutor refresher;
+        private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+        private volatile CachedDashboard cached;
+        // Tăng mỗi lần dữ liệu thay đổi: kết quả tính trước thay đổi thì không được ghi vào cache
+        private final AtomicLong generation = new AtomicLong();
+        private volatile long lastAccess;
+
+        public AdminDashboardServiceImpl(UserRepo userRepo,
+                                         ClinicRepo clinicRepo,
+                                         LeaveRequestRepo leaveRequestRepo,
+                                         AdminInvoiceStatsRepository adminInvoiceStatsRepository,
+                                         AdminPatientStatsRepository adminPatientStatsRepository,
+                                         AdminAppointmentStatsRepository adminAppointmentStatsRepository,
+                                         PatientVisitSummaryRepository patientVisitSummaryRepository,
+                                         sunshine_dental_care.repositories.hr.AttendanceRepository attendanceRepo,
+                                         AppointmentRepo appointmentRepo,
+                                         ReceptionDashboardPublisher receptionDashboardPublisher,
+                                         RevenueFactService revenueFactService,
+                                         PatientVisitSummaryService patientVisitSummaryService,
+                                         @Value("${app.admin.dashboard.cache-ttl-seconds:30}") long cacheTtlSeconds,
+                                         @Value("${app.admin.dashboard.refresh-debounce-ms:2000}") long refreshDebounceMs,
+                                         @Value("${app.admin.dashboard.max-parallel-queries:4}") int maxParallelQueries) {
+                this.userRepo = userRepo;
+                this.clinicRepo = clinicRepo;
+                this.leaveRequestRepo = leaveRequestRepo;
+                this.adminInvoiceStatsRepository = adminInvoiceStatsRepository;
+                this.adminPatientStatsRepository = adminPatientStatsRepository;
+                this.adminAppointmentStatsRepository = adminAppointmentStatsRepository;
+                this.patientVisitSummaryRepository = patientVisitSummaryRepository;
+                this.attendanceRepo = attendanceRepo;
+                this.appointmentRepo = appointmentRepo;
+                this.cacheTtlMs = TimeUnit.SECONDS.toMillis(cacheTtlSeconds);
+                this.refreshDebounceMs = refreshDebounceMs;
+                this.queryPermits = new Semaphore(Math.max(1, maxParallelQueries));
+
+                this.refresher = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread t = new Thread(r, "admin-dashboard-refresh");
+                        t.setDaemon(true);
+                        return t;
+                });
+                this.refresher.setRemoveOnCancelPolicy(true);
+
+                // Đều gọi sau khi transaction commit
+                receptionDashboardPublisher.addChangeListener(this::onDataChanged);
+                revenueFactService.addChangeListener(this::onDataChanged);
+                patientVisitSummaryService.addChangeListener(this::onDataChanged);
+        }
+
+        private record CachedDashboard(LocalDate bucket, DashboardStatisticsDto dto, long builtAt) {}
+
+        // Doanh số + thực thu của 1 khoảng
+        private record PeriodSales(BigDecimal sales, BigDecimal revenue) {
+                static final PeriodSales ZERO = new PeriodSales(BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+
+        private record AppointmentCounts(long today, long week, long month, long todayCancelled) {}
+
+        private record PatientCounts(long total, long today, long week, long month) {}
+
+        private record OrgCounts(long staff, long clinics, long activeClinics) {}
+
+        private record Retention(double rate, long returning, long patientsThisMonth) {}
 
         @Override
-        @Transactional(readOnly = true)
         public DashboardStatisticsDto getDashboardStatistics() {
-                try {
-                        LocalDate today = LocalDate.now();
-                        LocalDate weekStart = today.minus(6, ChronoUnit.DAYS);
-                        LocalDate monthStart = today.withDayOfMonth(1);
-                        LocalDate prevMonthStart = monthStart.minusMonths(1);
-                        LocalDate prevMonthEnd = monthStart.minusDays(1);
-                        Instant dayStart = toStartOfDay(today);
-                        Instant dayEnd = toStartOfDay(today.plusDays(1));
-                        Instant weekRangeStart = toStartOfDay(weekStart);
-                        Instant weekEnd = dayEnd;
-                        Instant monthRangeStart = toStartOfDay(monthStart);
-                        Instant monthRangeEnd = dayEnd;
-
-                        // Thống kê doanh số (tổng giá trị hóa đơn)
-                        BigDecimal todayTotalSales = BigDecimal.ZERO;
-                        BigDecimal weekTotalSales = BigDecimal.ZERO;
-                        BigDecimal monthTotalSales = BigDecimal.ZERO;
-                        BigDecimal prevMonthTotalSales = BigDecimal.ZERO;
-                        
-                        // Thống kê tiền thực thu (chỉ đã thanh toán)
-                        BigDecimal todayRevenue = BigDecimal.ZERO;
-                        BigDecimal weekRevenue = BigDecimal.ZERO;
-                        BigDecimal monthRevenue = BigDecimal.ZERO;
-                        BigDecimal prevMonthRevenue = BigDecimal.ZERO;
-                        
-                        BigDecimal totalExpenses = BigDecimal.ZERO; // Placeholder cho tổng chi phí (sẽ thay khi có nguồn dữ liệu thật)
-                        boolean expensesSupported = false;
-                        BigDecimal netProfit = BigDecimal.ZERO;
-                        Double monthOverMonthGrowth = 0.0;
-                        List<DailyRevenueDto> last7DaysRevenue = new ArrayList<>();
-                        try {
-                                // Tính doanh số từ ProductInvoice (tất cả hóa đơn)
-                                BigDecimal todayProductSales = adminInvoiceStatsRepository.sumTotalSalesBetween(today, today);
-                                BigDecimal weekProductSales = adminInvoiceStatsRepository.sumTotalSalesBetween(weekStart, today);
-                                BigDecimal monthProductSales = adminInvoiceStatsRepository.sumTotalSalesBetween(monthStart, today);
-                                BigDecimal prevMonthProductSales = adminInvoiceStatsRepository.sumTotalSalesBetween(prevMonthStart, prevMonthEnd);
-                                
-                                // Tính doanh số từ Appointments (dịch vụ khám) - chuyển LocalDate sang Instant
-                                Instant todayStartInstant = today.atStartOfDay(VN_TIMEZONE).toInstant();
-                                Instant todayEndInstant = today.plusDays(1).atStartOfDay(VN_TIMEZONE).toInstant();
-                                Instant weekStartInstant = weekStart.atStartOfDay(VN_TIMEZONE).toInstant();
-                                Instant monthStartInstant = monthStart.atStartOfDay(VN_TIMEZONE).toInstant();
-                                Instant todayInstant = LocalDate.now(VN_TIMEZONE).atStartOfDay(VN_TIMEZONE).plusDays(1).toInstant();
-                                Instant prevMonthStartInstant = prevMonthStart.atStartOfDay(VN_TIMEZONE).toInstant();
-                                Instant prevMonthEndInstant = prevMonthEnd.plusDays(1).atStartOfDay(VN_TIMEZONE).toInstant();
-                                
-                                BigDecimal todayAppointmentSales = appointmentRepo.sumRevenueFromAppointments(todayStartInstant, todayEndInstant);
-                                BigDecimal weekAppointmentSales = appointmentRepo.sumRevenueFromAppointments(weekStartInstant, todayInstant);
-                                BigDecimal monthAppointmentSales = appointmentRepo.sumRevenueFromAppointments(monthStartInstant, todayInstant);
-                                BigDecimal prevMonthAppointmentSales = appointmentRepo.sumRevenueFromAppointments(prevMonthStartInstant, prevMonthEndInstant);
-                                
-                                // Tổng doanh số = ProductInvoice + Appointments
-                                todayTotalSales = todayProductSales.add(todayAppointmentSales);
-                                weekTotalSales = weekProductSales.add(weekAppointmentSales);
-                                monthTotalSales = monthProductSales.add(monthAppointmentSales);
-                                prevMonthTotalSales = prevMonthProductSales.add(prevMonthAppointmentSales);
-                                
-                                // Tính tiền thực thu từ ProductInvoice (chỉ đã thanh toán)
-                                BigDecimal todayProductRevenue = adminInvoiceStatsRepository.sumRevenueBetween(today, today);
-                                BigDecimal weekProductRevenue = adminInvoiceStatsRepository.sumRevenueBetween(weekStart, today);
-                                BigDecimal monthProductRevenue = adminInvoiceStatsRepository.sumRevenueBetween(monthStart, today);
-                                BigDecimal prevMonthProductRevenue = adminInvoiceStatsRepository.sumRevenueBetween(prevMonthStart, prevMonthEnd);
-                                
-                                // Tính tiền thực thu từ Appointments (đã thanh toán) - dùng cùng Instant như trên
-                                BigDecimal todayAppointmentRevenue = appointmentRepo.sumRevenueFromAppointments(todayStartInstant, todayEndInstant);
-                                BigDecimal weekAppointmentRevenue = appointmentRepo.sumRevenueFromAppointments(weekStartInstant, todayInstant);
-                                BigDecimal monthAppointmentRevenue = appointmentRepo.sumRevenueFromAppointments(monthStartInstant, todayInstant);
-                                BigDecimal prevMonthAppointmentRevenue = appointmentRepo.sumRevenueFromAppointments(prevMonthStartInstant, prevMonthEndInstant);
-                                
-                                // Tổng thực thu = ProductInvoice + Appointments
-                                todayRevenue = todayProductRevenue.add(todayAppointmentRevenue);
-                                weekRevenue = weekProductRevenue.add(weekAppointmentRevenue);
-                                monthRevenue = monthProductRevenue.add(monthAppointmentRevenue);
-                                prevMonthRevenue = prevMonthProductRevenue.add(prevMonthAppointmentRevenue);
-                                
-                                totalExpenses = calculateExpenses(monthStart, today);
-                                // Module chi phí chưa được implement, expensesSupported = false
-                                expensesSupported = false;
-                                netProfit = monthRevenue.subtract(totalExpenses);
-
-                                // Tính % tăng trưởng doanh thu so với tháng trước
-                                if (prevMonthRevenue.compareTo(BigDecimal.ZERO) > 0) {
-                                        monthOverMonthGrowth = monthRevenue.subtract(prevMonthRevenue)
-                                                        .divide(prevMonthRevenue, 4, java.math.RoundingMode.HALF_UP)
-                                                        .multiply(BigDecimal.valueOf(100))
-                                                        .doubleValue();
-                                } else if (monthRevenue.compareTo(BigDecimal.ZERO) > 0) {
-                                        monthOverMonthGrowth = 100.0;
-                                } else {
-                                        monthOverMonthGrowth = 0.0;
-                                }
-                                // Danh sách doanh thu từng ngày trong 7 ngày gần nhất
-                                last7DaysRevenue = buildDailyRevenue(weekStart, today);
-                        } catch (Exception e) {
-                                // Log đầy đủ với stack trace và throw lại để không giấu lỗi
-                                log.error("Lỗi nghiêm trọng khi tính doanh thu. Các giá trị doanh thu có thể không chính xác. " +
-                                        "Error: {}", e.getMessage(), e);
-                                // Không throw để tránh làm crash toàn bộ dashboard, nhưng log rõ ràng
-                                // Các giá trị sẽ giữ nguyên = 0 (đã khởi tạo ở trên)
-                        }
+                lastAccess = System.currentTimeMillis();
+                LocalDate today = LocalDate.now();
+                CachedDashboard current = cached;
+                if (isFresh(current, today)) return current.dto();
 
-                        // Thống kê lịch hẹn
-                        Long todayAppointments = 0L;
-                        Long weekAppointments = 0L;
-                        Long monthAppointments = 0L;
-                        Long todayCancelledAppointments = 0L;
-                        Map<String, Long> appointmentsByStatus = new HashMap<>();
-                        try {
-                                // Đếm appointments hôm nay (theo startDateTime)
-                                todayAppointments = appointmentRepo.countByStartDateTimeBetween(dayStart, dayEnd);
-                                
-                                // Đếm appointments trong tuần
-                                weekAppointments = appointmentRepo.countByStartDateTimeBetween(weekRangeStart, weekEnd);
-                                
-                                // Đếm appointments trong tháng
-                                monthAppointments = appointmentRepo.countByStartDateTimeBetween(monthRangeStart, monthRangeEnd);
-                                
-                                // Đếm appointments đã hủy hôm nay
-                                todayCancelledAppointments = appointmentRepo.countByStartDateTimeBetweenAndStatus(
-                                        dayStart, dayEnd, "CANCELLED");
-                                
-                                // Thống kê appointments theo status
-                                List<Appointment> allAppointments = appointmentRepo.findByStartDateTimeBetween(monthRangeStart, monthRangeEnd);
-                                appointmentsByStatus = allAppointments.stream()
-                                        .collect(Collectors.groupingBy(
-                                                Appointment::getStatus,
-                                                Collectors.counting()
-                                        ));
-                        } catch (Exception e) {
-                                log.error("Lỗi khi tính thống kê lịch hẹn. Các giá trị appointments có thể không chính xác. " +
-                                        "Error: {}", e.getMessage(), e);
+                // Nhiều admin cùng mở dashboard lúc cache hết hạn -> chỉ 1 lần tính
+                synchronized (buildLock) {
+                        current = cached;
+                        if (isFresh(current, today)) return current.dto();
+                        return rebuild(today);
+                }
+        }
+
+        @PreDestroy
+        public void shutdown() {
+                refresher.shutdownNow();
+        }
+
+        private boolean isFresh(CachedDashboard c, LocalDate today) {
+                return c != null && c.bucket().equals(today) && System.currentTimeMillis() - c.builtAt() < cacheTtlMs;
+        }
+
+        // Gọi trong buildLock
+        private DashboardStatisticsDto rebuild(LocalDate today) {
+                long gen = generation.get();
+                try {
+                        DashboardStatisticsDto dto = computeStatistics(today);
+                        // Có thay đổi trong lúc tính -> trả kết quả cho người gọi nhưng không cache (lần refresh sau tính lại)
+                        if (generation.get() == gen) {
+                                cached = new CachedDashboard(today, dto, System.currentTimeMillis());
                         }
+                        return dto;
+                } catch (Exception e) {
+                        log.error("Lỗi nghiêm trọng trong getDashboardStatistics: {}", e.getMessage(), e);
+                        // Trả về DTO với các giá trị mặc định khi có lỗi (không cache)
+                        return emptyStatistics();
+                }
+        }
 
-                        // Tính toán sourceBreakdown: đếm số lượng unique patients theo channel trong tháng
-                        Map<String, Long> sourceBreakdown = new HashMap<>();
-                        try {
-                                // Query lại appointments trong tháng để tính sourceBreakdown
-                                List<Appointment> monthAppointmentsForSource = appointmentRepo.findByStartDateTimeBetween(monthRangeStart, monthRangeEnd);
-                                
-                                sourceBreakdown = monthAppointmentsForSource.stream()
-                                                .filter(a -> a.getPatient() != null) // Đảm bảo có patient
-                                                .collect(Collectors.groupingBy(
-                                                                a -> {
-                                                                        // Normalize channel: trim, uppercase, và xử lý null/empty
-                                                                        String channel = a.getChannel();
-                                                                        if (channel == null || channel.trim().isEmpty()) {
-                                                                                return "WALK_IN"; // Default cho appointments cũ không có channel
-                                                                        }
-                                                                        return channel.trim().toUpperCase();
-                                                                },
-                                                                Collectors.mapping(
-                                                                                a -> a.getPatient().getId(),
-                                                                                Collectors.collectingAndThen(
-                                                                                                Collectors.toSet(),
-                                                                                                set -> (long) set.size()
-                                                                                )
-                                                                )
-                                                ));
-                                
-                                // Đảm bảo các channel chính có trong map (nếu không có thì = 0)
-                                String[] mainChannels = {"WEB_BOOKING", "WALK_IN", "PHONE"};
-                                for (String channel : mainChannels) {
-                                        sourceBreakdown.putIfAbsent(channel, 0L);
-                                }
-                        } catch (Exception e) {
-                                log.error("❌ Lỗi khi tính thống kê nguồn khách. sourceBreakdown có thể trống. " +
-                                                "Error: {}", e.getMessage(), e);
-                                // Đảm bảo vẫn có các channel chính ngay cả khi có lỗi
-                                String[] mainChannels = {"WEB_BOOKING", "WALK_IN", "PHONE"};
-                                for (String channel : mainChannels) {
-                                        sourceBreakdown.putIfAbsent(channel, 0L);
+        private void onDataChanged() {
+                generation.incrementAndGet();
+                if (cached == null) return;
+                if (System.currentTimeMillis() - lastAccess > ACTIVE_VIEW_MS) {
+                        // Không ai xem: lần mở sau tự tính lại
+                        cached = null;
+                        return;
+                }
+                // Gom nhiều thay đổi liên tiếp thành 1 lần tính lại
+                if (refreshScheduled.compareAndSet(false, true)) {
+                        refresher.schedule(() -> {
+                                refreshScheduled.set(false);
+                                synchronized (buildLock) {
+                                        rebuild(LocalDate.now());
                                 }
-                        }
+                        }, refreshDebounceMs, TimeUnit.MILLISECONDS);
+                }
+        }
 
-                        // Thống kê khách hàng
-                        Long totalPatients = 0L;
-                        Long todayNewPatients = 0L;
-                        Long weekNewPatients = 0L;
-                        Long monthNewPatients = 0L;
-                        try {
-                                totalPatients = adminPatientStatsRepository.countAllPatients();
-                                todayNewPatients = adminPatientStatsRepository.countCreatedBetween(dayStart, dayEnd);
-                                weekNewPatients = adminPatientStatsRepository.countCreatedBetween(weekRangeStart, weekEnd);
-                                monthNewPatients = adminPatientStatsRepository.countCreatedBetween(monthRangeStart, monthRangeEnd);
-                        } catch (Exception e) {
-                                log.error("Lỗi nghiêm trọng khi đếm bệnh nhân. Các giá trị patients có thể không chính xác. " +
-                                        "Error: {}", e.getMessage(), e);
-                        }
+        private DashboardStatisticsDto computeStatistics(LocalDate today) {
+                LocalDate weekStart = today.minus(6, ChronoUnit.DAYS);
+                LocalDate monthStart = today.withDayOfMonth(1);
+                LocalDate prevMonthStart = monthStart.minusMonths(1);
+                LocalDate prevMonthEnd = monthStart.minusDays(1);
+                Instant dayStart = toStartOfDay(today);
+                Instant dayEnd = toStartOfDay(today.plusDays(1));
+                Instant weekRangeStart = toStartOfDay(weekStart);
+                Instant monthRangeStart = toStartOfDay(monthStart);
+                Instant prevMonthRangeStart = toStartOfDay(prevMonthStart);
 
-                        // Thống kê nhân viên, phòng khám
-                        Long totalStaff = 0L;
-                        Long totalClinics = 0L;
-                        Long activeClinics = 0L;
-                        try {
-                                totalStaff = userRepo.count();
-                                totalClinics = clinicRepo.count();
-                                activeClinics = clinicRepo.countByIsActiveTrue();
-                        } catch (Exception e) {
-                                log.error("Lỗi nghiêm trọng khi đếm nhân viên/phòng khám. Các giá trị staff/clinics có thể không chính xác. " +
-                                        "Error: {}", e.getMessage(), e);
-                        }
+                try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                        // Doanh số / thực thu (ProductInvoice + Appointments) cho từng khoảng
+                        CompletableFuture<PeriodSales> todaySales = async(executor, "doanh thu hôm nay",
+                                        () -> periodSales(today, today, dayStart, dayEnd), PeriodSales.ZERO);
+                        CompletableFuture<PeriodSales> weekSales = async(executor, "doanh thu tuần",
+                                        () -> periodSales(weekStart, today, weekRangeStart, dayEnd), PeriodSales.ZERO);
+                        CompletableFuture<PeriodSales> monthSales = async(executor, "doanh thu tháng",
+                                        () -> periodSales(monthStart, today, monthRangeStart, dayEnd), PeriodSales.ZERO);
+                        CompletableFuture<PeriodSales> prevMonthSales = async(executor, "doanh thu tháng trước",
+                                        () -> periodSales(prevMonthStart, prevMonthEnd, prevMonthRangeStart, monthRangeStart), PeriodSales.ZERO);
+                        // Danh sách doanh thu từng ngày trong 7 ngày gần nhất
+                        CompletableFuture<List<DailyRevenueDto>> last7Days = async(executor, "doanh thu 7 ngày",
+                                        () -> buildDailyRevenue(weekStart, today), new ArrayList<>());
 
-                        // Lấy số bản ghi chấm công hôm nay
-                        Long todayAttendance = 0L;
-                        try {
-                                todayAttendance = attendanceRepo.countByWorkDate(today);
-                        } catch (Exception e) {
-                                log.error("Lỗi khi lấy số chấm công hôm nay. Giá trị attendance có thể không chính xác. " +
-                                        "Error: {}", e.getMessage(), e);
-                        }
+                        // Thống kê lịch hẹn
+                        CompletableFuture<AppointmentCounts> appointmentCounts = async(executor, "thống kê lịch hẹn",
+                                        () -> new AppointmentCounts(
+                                                        appointmentRepo.countByStartDateTimeBetween(dayStart, dayEnd),
+                                                        appointmentRepo.countByStartDateTimeBetween(weekRangeStart, dayEnd),
+                                                        appointmentRepo.countByStartDateTimeBetween(monthRangeStart, dayEnd),
+                                                        appointmentRepo.countByStartDateTimeBetweenAndStatus(dayStart, dayEnd, "CANCELLED")),
+                                        new AppointmentCounts(0, 0, 0, 0));
+                        CompletableFuture<Map<String, Long>> appointmentsByStatus = async(executor, "lịch hẹn theo trạng thái",
+                                        () -> appointmentsByStatus(monthRangeStart, dayEnd), new HashMap<>());
+                        CompletableFuture<Map<String, Long>> sourceBreakdown = async(executor, "nguồn khách",
+                                        () -> sourceBreakdown(monthRangeStart, dayEnd), withMainChannels(new HashMap<>()));
 
-                        // Số đơn xin nghỉ phép đang chờ xử lý
-                        Long pendingLeaveRequests = 0L;
-                        try {
-                                pendingLeaveRequests = leaveRequestRepo.countByStatus("PENDING");
-                        } catch (Exception e) {
-                                log.error("Lỗi khi lấy số đơn nghỉ phép. Giá trị pendingLeaveRequests có thể không chính xác. " +
-                                        "Error: {}", e.getMessage(), e);
-                        }
+                        // Thống kê khách hàng, nhân viên, phòng khám
+                        CompletableFuture<PatientCounts> patientCounts = async(executor, "số bệnh nhân",
+                                        () -> new PatientCounts(
+                                                        adminPatientStatsRepository.countAllPatients(),
+                                                        adminPatientStatsRepository.countCreatedBetween(dayStart, dayEnd),
+                                                        adminPatientStatsRepository.countCreatedBetween(weekRangeStart, dayEnd),
+                                                        adminPatientStatsRepository.countCreatedBetween(monthRangeStart, dayEnd)),
+                                        new PatientCounts(0, 0, 0, 0));
+                        CompletableFuture<OrgCounts> orgCounts = async(executor, "nhân viên/phòng khám",
+                                        () -> new OrgCounts(userRepo.count(), clinicRepo.count(), clinicRepo.countByIsActiveTrue()),
+                                        new OrgCounts(0, 0, 0));
+                        CompletableFuture<Long> todayAttendance = async(executor, "chấm công hôm nay",
+                                        () -> attendanceRepo.countByWorkDate(today), 0L);
+                        CompletableFuture<Long> pendingLeaveRequests = async(executor, "đơn nghỉ phép",
+                                        () -> leaveRequestRepo.countByStatus("PENDING"), 0L);
 
-                        // Tỷ lệ quay lại khám/thống kê nguồn khách của bệnh nhân trong tháng
-                        double retentionRate = 0.0;
-                        long returningPatients = 0L;
-                        long patientsThisMonth = 0L;
-                        try {
-                                // Lấy tất cả appointments trong tháng hiện tại
-                                List<Appointment> monthAppointmentsForRetention = appointmentRepo.findByStartDateTimeBetween(monthRangeStart, monthRangeEnd);
-                                
-                                // Tính số unique patients trong tháng này
-                                java.util.Set<Integer> patientsInThisMonth = monthAppointmentsForRetention.stream()
-                                                .filter(a -> a.getPatient() != null)
-                                                .map(a -> a.getPatient().getId())
-                                                .collect(Collectors.toSet());
-                                patientsThisMonth = patientsInThisMonth.size();
-                                
-                                if (patientsThisMonth > 0) {
-                                        // Tính số patients đã từng khám TRƯỚC tháng này
-                                        // Lấy tất cả appointments trước tháng này
-                                        Instant beforeMonthStart = toStartOfDay(monthStart.minusDays(1));
-                                        List<Appointment> previousAppointments = appointmentRepo.findByStartDateTimeBetween(
-                                                        Instant.ofEpochMilli(0), // Từ đầu
-                                                        beforeMonthStart
-                                        );
-                                        
-                                        java.util.Set<Integer> patientsBeforeThisMonth = previousAppointments.stream()
-                                                        .filter(a -> a.getPatient() != null)
-                                                        .map(a -> a.getPatient().getId())
-                                                        .collect(Collectors.toSet());
-                                        
-                                        // Returning patients = patients có trong tháng này VÀ đã từng khám trước đó
-                                        returningPatients = patientsInThisMonth.stream()
-                                                        .filter(patientsBeforeThisMonth::contains)
-                                                        .count();
-                                        
-                                        // Tính retention rate
-                                        retentionRate = (returningPatients * 100.0) / patientsThisMonth;
-                                }
-                        } catch (Exception e) {
-                                log.error("❌ Lỗi khi tính retention rate. Các giá trị retention có thể không chính xác. " +
-                                                "Error: {}", e.getMessage(), e);
-                        }
+                        // Tỷ lệ quay lại khám, top bác sĩ
+                        CompletableFuture<Retention> retention = async(executor, "retention rate",
+                                        () -> retention(monthStart), new Retention(0.0, 0, 0));
+                        CompletableFuture<List<TopDoctorPerformanceDto>> topDoctors = async(executor, "top bác sĩ",
+                                        () -> topDoctors(monthStart, today), new ArrayList<>());
 
-                        // Top 5 bác sĩ có doanh thu cao nhất tháng này
-                        List<TopDoctorPerformanceDto> topDoctors = new ArrayList<>();
-                        try {
-                                List<AdminInvoiceStatsRepository.DoctorRevenueView> doctorRevenueViews = adminInvoiceStatsRepository
-                                                .findDoctorRevenueBetween(monthStart, today);
-
-                                topDoctors = doctorRevenueViews.stream()
-                                                .map(view -> TopDoctorPerformanceDto.builder()
-                                                                .doctorId(view.getDoctorId())
-                                                                .doctorName(view.getDoctorName())
-                                                                .revenue(view.getRevenue())
-                                                                .completedAppointments(view.getCompletedAppointments())
-                                                                .build())
-                                                .limit(5)
-                                                .collect(Collectors.toList());
-                        } catch (Exception e) {
-                                log.error("Lỗi khi tính top bác sĩ. Danh sách topDoctors có thể trống. " +
-                                        "Error: {}", e.getMessage(), e);
+                        PeriodSales month = monthSales.join();
+                        PeriodSales prevMonth = prevMonthSales.join();
+
+                        BigDecimal totalExpenses = calculateExpenses(monthStart, today); // Placeholder (chưa có module chi phí)
+                        BigDecimal netProfit = month.revenue().subtract(totalExpenses);
+
+                        // Tính % tăng trưởng doanh thu so với tháng trước
+                        double monthOverMonthGrowth;
+                        if (prevMonth.revenue().compareTo(BigDecimal.ZERO) > 0) {
+                                monthOverMonthGrowth = month.revenue().subtract(prevMonth.revenue())
+                                                .divide(prevMonth.revenue(), 4, java.math.RoundingMode.HALF_UP)
+                                                .multiply(BigDecimal.valueOf(100))
+                                                .doubleValue();
+                        } else if (month.revenue().compareTo(BigDecimal.ZERO) > 0) {
+                                monthOverMonthGrowth = 100.0;
+                        } else {
+                                monthOverMonthGrowth = 0.0;
                         }
 
+                        AppointmentCounts appointments = appointmentCounts.join();
+                        PatientCounts patients = patientCounts.join();
+                        OrgCounts org = orgCounts.join();
+                        Retention retained = retention.join();
+
                         return DashboardStatisticsDto.builder()
-                                        .todayTotalSales(todayTotalSales)
-                                        .weekTotalSales(weekTotalSales)
-                                        .monthTotalSales(monthTotalSales)
-                                        .previousMonthTotalSales(prevMonthTotalSales)
-                                        .todayRevenue(todayRevenue)
-                                        .weekRevenue(weekRevenue)
-                                        .monthRevenue(monthRevenue)
-                                        .previousMonthRevenue(prevMonthRevenue)
+                                        .todayTotalSales(todaySales.join().sales())
+                                        .weekTotalSales(weekSales.join().sales())
+                                        .monthTotalSales(month.sales())
+                                        .previousMonthTotalSales(prevMonth.sales())
+                                        .todayRevenue(todaySales.join().revenue())
+                                        .weekRevenue(weekSales.join().revenue())
+                                        .monthRevenue(month.revenue())
+                                        .previousMonthRevenue(prevMonth.revenue())
                                         .totalExpenses(totalExpenses)
-                                        .expensesSupported(expensesSupported)
+                                        // Module chi phí chưa được implement
+                                        .expensesSupported(false)
                                         .netProfit(netProfit)
                                         .monthOverMonthGrowth(monthOverMonthGrowth)
-                                        .last7DaysRevenue(last7DaysRevenue)
-                                        .todayAppointments(todayAppointments)
-                                        .weekAppointments(weekAppointments)
-                                        .monthAppointments(monthAppointments)
-                                        .todayCancelledAppointments(todayCancelledAppointments)
-                                        .appointmentsByStatus(appointmentsByStatus)
-                                        .totalPatients(totalPatients)
-                                        .todayNewPatients(todayNewPatients)
-                                        .weekNewPatients(weekNewPatients)
-                                        .monthNewPatients(monthNewPatients)
-                                        .totalStaff(totalStaff)
-                                        .totalClinics(totalClinics)
-                                        .activeClinics(activeClinics)
-                                        .todayAttendance(todayAttendance)
-                                        .pendingLeaveRequests(pendingLeaveRequests)
-                                        .retentionRate(retentionRate)
-                                        .returningPatients(returningPatients)
-                                        .patientsThisMonth(patientsThisMonth)
-                                        .sourceBreakdown(sourceBreakdown)
-                                        .topDoctors(topDoctors)
-                                        .build();
-                } catch (Exception e) {
-                        log.error("Lỗi nghiêm trọng trong getDashboardStatistics: {}", e.getMessage(), e);
-                        // Trả về DTO với các giá trị mặc định khi có lỗi
-                        return DashboardStatisticsDto.builder()
-                                        .todayTotalSales(BigDecimal.ZERO)
-                                        .weekTotalSales(BigDecimal.ZERO)
-                                        .monthTotalSales(BigDecimal.ZERO)
-                                        .previousMonthTotalSales(BigDecimal.ZERO)
-                                        .todayRevenue(BigDecimal.ZERO)
-                                        .weekRevenue(BigDecimal.ZERO)
-                                        .monthRevenue(BigDecimal.ZERO)
-                                        .previousMonthRevenue(BigDecimal.ZERO)
-                                        .totalExpenses(BigDecimal.ZERO)
-                                        .expensesSupported(false)
-                                        .netProfit(BigDecimal.ZERO)
-                                        .monthOverMonthGrowth(0.0)
-                                        .last7DaysRevenue(new ArrayList<>())
-                                        .todayAppointments(0L)
-                                        .weekAppointments(0L)
-                                        .monthAppointments(0L)
-                                        .todayCancelledAppointments(0L)
-                                        .appointmentsByStatus(new HashMap<>())
-                                        .totalPatients(0L)
-                                        .todayNewPatients(0L)
-                                        .weekNewPatients(0L)
-                                        .monthNewPatients(0L)
-                                        .totalStaff(0L)
-                                        .totalClinics(0L)
-                                        .activeClinics(0L)
-                                        .todayAttendance(0L)
-                                        .pendingLeaveRequests(0L)
-                                        .retentionRate(0.0)
-                                        .returningPatients(0L)
-                                        .patientsThisMonth(0L)
-                                        .sourceBreakdown(new HashMap<>())
-                                        .topDoctors(new ArrayList<>())
+                                        .last7DaysRevenue(last7Days.join())
+                                        .todayAppointments(appointments.today())
+                                        .weekAppointments(appointments.week())
+                                        .monthAppointments(appointments.month())
+                                        .todayCancelledAppointments(appointments.todayCancelled())
+                                        .appointmentsByStatus(appointmentsByStatus.join())
+                                        .totalPatients(patients.total())
+                                        .todayNewPatients(patients.today())
+                                        .weekNewPatients(patients.week())
+                                        .monthNewPatients(patients.month())
+                                        .totalStaff(org.staff())
+                                        .totalClinics(org.clinics())
+                                        .activeClinics(org.activeClinics())
+                                        .todayAttendance(todayAttendance.join())
+                                        .pendingLeaveRequests(pendingLeaveRequests.join())
+                                        .retentionRate(retained.rate())
+                                        .returningPatients(retained.returning())
+                                        .patientsThisMonth(retained.patientsThisMonth())
+                                        .sourceBreakdown(sourceBreakdown.join())
+                                        .topDoctors(topDoctors.join())
                                         .build();
                 }
         }
 
+        // Chạy 1 provider trên virtual thread (chờ permit trước khi lấy connection);
+        // lỗi được log và thay bằng giá trị mặc định để không làm hỏng cả dashboard
+        private <T> CompletableFuture<T> async(ExecutorService executor, String metric, Supplier<T> provider, T fallback) {
+                return CompletableFuture.supplyAsync(() -> {
+                                        queryPermits.acquireUninterruptibly();
+                                        try {
+                                                return provider.get();
+                                        } finally {
+                                                queryPermits.release();
+                                        }
+                                }, executor)
+                                .exceptionally(e -> {
+                                        log.error("Lỗi khi tính {}. Giá trị có thể không chính xác. Error: {}",
+                                                        metric, e.getMessage(), e);
+                                        return fallback;
+                                });
+        }
+
+        // Doanh số = tất cả ProductInvoice + Appointments đã thanh toán; thực thu = ProductInvoice đã thanh toán + Appointments đã thanh toán
+        private PeriodSales periodSales(LocalDate startDate, LocalDate endDate, Instant start, Instant end) {
+                BigDecimal productSales = adminInvoiceStatsRepository.sumTotalSalesBetween(startDate, endDate);
+                BigDecimal productRevenue = adminInvoiceStatsRepository.sumRevenueBetween(startDate, endDate);
+                BigDecimal appointmentRevenue = appointmentRepo.sumRevenueFromAppointments(start, end);
+                return new PeriodSales(productSales.add(appointmentRevenue), productRevenue.add(appointmentRevenue));
+        }
+
+        private Map<String, Long> appointmentsByStatus(Instant start, Instant end) {
+                Map<String, Long> result = new HashMap<>();
+                for (AdminAppointmentStatsRepository.StatusCountView view
+                                : adminAppointmentStatsRepository.countByStatusBetween(start, end)) {
+                        result.put(view.getStatus(), view.getTotal());
+                }
+                return result;
+        }
+
+        // Số bệnh nhân unique theo channel trong khoảng
+        private Map<String, Long> sourceBreakdown(Instant start, Instant end) {
+                Map<String, Set<Integer>> patientsByChannel = new HashMap<>();
+                for (AdminAppointmentStatsRepository.PatientChannelView view
+                                : adminAppointmentStatsRepository.findPatientChannelsBetween(start, end)) {
+                        // Normalize channel: trim, uppercase, và xử lý null/empty
+                        String channel = view.getChannel();
+                        channel = (channel == null || channel.trim().isEmpty())
+                                        ? "WALK_IN" // Default cho appointments cũ không có channel
+                                        : channel.trim().toUpperCase();
+                        patientsByChannel.computeIfAbsent(channel, k -> new HashSet<>()).add(view.getPatientId());
+                }
+                Map<String, Long> result = patientsByChannel.entrySet().stream()
+                                .collect(Collectors.toMap(Map.Entry::getKey, e -> (long) e.getValue().size()));
+                return withMainChannels(result);
+        }
+
+        // Đảm bảo các channel chính có trong map (nếu không có thì = 0)
+        private Map<String, Long> withMainChannels(Map<String, Long> breakdown) {
+                for (String channel : MAIN_CHANNELS) {
+                        breakdown.putIfAbsent(channel, 0L);
+                }
+                return breakdown;
+        }
+
+        // Returning patients = bệnh nhân có lượt khám trong tháng này VÀ lần khám đầu tiên ở tháng trước đó
+        private Retention retention(LocalDate monthStart) {
+                PatientVisitSummaryRepository.MonthRetentionView view = patientVisitSummaryRepository.summarizeMonth(monthStart);
+                long patientsThisMonth = view.getPatients() != null ? view.getPatients() : 0L;
+                if (patientsThisMonth == 0) return new Retention(0.0, 0, 0);
+                long returningPatients = view.getReturningPatients() != null ? view.getReturningPatients() : 0L;
+                return new Retention((returningPatients * 100.0) / patientsThisMonth, returningPatients, patientsThisMonth);
+        }
+
+        // Top 5 bác sĩ có doanh thu cao nhất
+        private List<TopDoctorPerformanceDto> topDoctors(LocalDate startDate, LocalDate endDate) {
+                return adminInvoiceStatsRepository.findDoctorRevenueBetween(startDate, endDate).stream()
+                                .map(view -> TopDoctorPerformanceDto.builder()
+                                                .doctorId(view.getDoctorId())
+                                                .doctorName(view.getDoctorName())
+                                                .revenue(view.getRevenue())
+                                                .completedAppointments(view.getCompletedAppointments())
+                                                .build())
+                                .limit(5)
+                                .collect(Collectors.toList());
+        }
+
+        private DashboardStatisticsDto emptyStatistics() {
+                return DashboardStatisticsDto.builder()
+                                .todayTotalSales(BigDecimal.ZERO)
+                                .weekTotalSales(BigDecimal.ZERO)
+                                .monthTotalSales(BigDecimal.ZERO)
+                                .previousMonthTotalSales(BigDecimal.ZERO)
+                                .todayRevenue(BigDecimal.ZERO)
+                                .weekRevenue(BigDecimal.ZERO)
+                                .monthRevenue(BigDecimal.ZERO)
+                                .previousMonthRevenue(BigDecimal.ZERO)
+                                .totalExpenses(BigDecimal.ZERO)
+                                .expensesSupported(false)
+                                .netProfit(BigDecimal.ZERO)
+                                .monthOverMonthGrowth(0.0)
+                                .last7DaysRevenue(new ArrayList<>())
+                                .todayAppointments(0L)
+                                .weekAppointments(0L)
+                                .monthAppointments(0L)
+                                .todayCancelledAppointments(0L)
+                                .appointmentsByStatus(new HashMap<>())
+                                .totalPatients(0L)
+                                .todayNewPatients(0L)
+                                .weekNewPatients(0L)
+                                .monthNewPatients(0L)
+                                .totalStaff(0L)
+                                .totalClinics(0L)
+                                .activeClinics(0L)
+                                .todayAttendance(0L)
+                                .pendingLeaveRequests(0L)
+                                .retentionRate(0.0)
+                                .returningPatients(0L)
+                                .patientsThisMonth(0L)
+                                .sourceBreakdown(new HashMap<>())
+                                .topDoctors(new ArrayList<>())
+                                .build();
+        }
+
         // Tạo danh sách doanh thu từng ngày theo khoảng thời gian
         private List<DailyRevenueDto> buildDailyRevenue(LocalDate startDate, LocalDate endDate) {
                 Map<LocalDate, AdminInvoiceStatsRepository.DailyRevenueView> revenueByDate = adminInvoiceStatsRepository
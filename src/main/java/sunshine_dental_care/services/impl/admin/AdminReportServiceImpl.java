@@ -2,7 +2,10 @@ package sunshine_dental_care.services.impl.admin;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -13,12 +16,13 @@ import org.springframework.transaction.annotation.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import sunshine_dental_care.dto.adminDTO.ChartDataDto;
+import sunshine_dental_care.dto.adminDTO.CohortRetentionDto;
 import sunshine_dental_care.dto.adminDTO.RevenueReportDto;
 import sunshine_dental_care.dto.adminDTO.TopProductDto;
-import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoice;
-import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoiceItem;
-import sunshine_dental_care.repositories.huybro_products.ProductInvoiceItemRepository;
-import sunshine_dental_care.repositories.huybro_products.ProductInvoiceRepository;
+import sunshine_dental_care.dto.huybro_reports.RevenueFactRowDto;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyProductSalesFactRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyRevenueFactRepository;
 import sunshine_dental_care.services.interfaces.admin.AdminReportService;
 
 @Service
@@ -26,8 +30,13 @@ import sunshine_dental_care.services.interfaces.admin.AdminReportService;
 @Slf4j
 public class AdminReportServiceImpl implements AdminReportService {
 
-    private final ProductInvoiceRepository productInvoiceRepo;
-    private final ProductInvoiceItemRepository productInvoiceItemRepo;
+    private static final List<String> PAID_STATUSES = List.of("PAID", "COMPLETED");
+    // Số cohort tối đa 1 lần xem (kết quả ~ n^2 ô)
+    static final int MAX_COHORT_MONTHS = 36;
+
+    private final DailyRevenueFactRepository dailyRevenueFactRepository;
+    private final DailyProductSalesFactRepository dailyProductSalesFactRepository;
+    private final PatientVisitSummaryRepository patientVisitSummaryRepository;
 
     @Override
     @Transactional(readOnly = true)
@@ -39,153 +48,59 @@ public class AdminReportServiceImpl implements AdminReportService {
 
             log.debug("Getting revenue report from {} to {}, currency: {}", finalStartDate, finalEndDate, currency);
 
-            // Lấy tất cả hóa đơn trong khoảng thời gian & theo loại tiền nếu có
-            List<ProductInvoice> allInvoices = productInvoiceRepo.findAll().stream()
-                .filter(inv -> {
-                    if (inv.getInvoiceDate() == null) return false;
-                    return !inv.getInvoiceDate().isBefore(finalStartDate) && !inv.getInvoiceDate().isAfter(finalEndDate);
-                })
-                .filter(inv -> {
-                    if (currency != null && !currency.isEmpty()) {
-                        String invCurrency = inv.getCurrency();
-                        return invCurrency != null && invCurrency.equalsIgnoreCase(currency);
-                    }
-                    return true;
-                })
-                .collect(Collectors.toList());
-
-            // Tổng doanh thu đã thanh toán
-            BigDecimal netRevenue = allInvoices.stream()
-                .filter(inv -> {
-                    String paymentStatus = inv.getPaymentStatus();
-                    return paymentStatus != null && (paymentStatus.equals("PAID") || paymentStatus.equals("COMPLETED"));
-                })
-                .map(ProductInvoice::getTotalAmount)
-                .filter(amount -> amount != null)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            // Doanh thu tiềm năng (chưa thanh toán)
-            BigDecimal potentialRevenue = allInvoices.stream()
-                .filter(inv -> {
-                    String paymentStatus = inv.getPaymentStatus();
-                    return paymentStatus == null || (!paymentStatus.equals("PAID") && !paymentStatus.equals("COMPLETED"));
-                })
-                .map(ProductInvoice::getTotalAmount)
-                .filter(amount -> amount != null)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+            // Tổng hợp sẵn theo ngày + trạng thái từ bảng fact, lọc theo loại tiền nếu có
+            String currencyFilter = (currency != null && !currency.isBlank()) ? currency.trim().toUpperCase() : null;
+            List<RevenueFactRowDto> rows = dailyRevenueFactRepository.summarizeByDay(finalStartDate, finalEndDate, currencyFilter);
+
+            BigDecimal netRevenue = BigDecimal.ZERO;       // Tổng doanh thu đã thanh toán
+            BigDecimal potentialRevenue = BigDecimal.ZERO; // Doanh thu tiềm năng (chưa thanh toán)
+            long totalOrdersCompleted = 0;                 // Số lượng đơn hàng đã hoàn thành (đã thanh toán)
+            Map<LocalDate, ChartDataDto> paidByDate = new HashMap<>();
+
+            for (RevenueFactRowDto row : rows) {
+                BigDecimal amount = row.getTotalAmount() != null ? row.getTotalAmount() : BigDecimal.ZERO;
+                long count = row.getOrderCount() != null ? row.getOrderCount() : 0L;
+                if (!isPaid(row.getPaymentStatus())) {
+                    potentialRevenue = potentialRevenue.add(amount);
+                    continue;
+                }
+                netRevenue = netRevenue.add(amount);
+                totalOrdersCompleted += count;
+                ChartDataDto day = paidByDate.computeIfAbsent(row.getDate(),
+                        d -> new ChartDataDto(d, BigDecimal.ZERO, 0L));
+                day.setRevenue(day.getRevenue().add(amount));
+                day.setOrderCount(day.getOrderCount() + count);
+            }
 
             // Doanh thu bị mất (invoice đã hủy). Trả về 0 do không có cột trạng thái huỷ
             BigDecimal lostRevenue = BigDecimal.ZERO;
 
-            // Số lượng đơn hàng đã hoàn thành (đã thanh toán)
-            Long totalOrdersCompleted = allInvoices.stream()
-                .filter(inv -> {
-                    String paymentStatus = inv.getPaymentStatus();
-                    return paymentStatus != null && (paymentStatus.equals("PAID") || paymentStatus.equals("COMPLETED"));
-                })
-                .count();
-
             // Đơn hàng bị huỷ - không xác định được, trả về 0
             Long totalOrdersCancelled = 0L;
 
-            // Thống kê doanh thu theo từng ngày (dùng cho chart)
-            Map<LocalDate, List<ProductInvoice>> invoicesByDate = allInvoices.stream()
-                .filter(inv -> {
-                    String paymentStatus = inv.getPaymentStatus();
-                    return paymentStatus != null && (paymentStatus.equals("PAID") || paymentStatus.equals("COMPLETED"));
-                })
-                .collect(Collectors.groupingBy(ProductInvoice::getInvoiceDate));
-
+            // Thống kê doanh thu theo từng ngày (dùng cho chart), ngày không có đơn = 0
             List<ChartDataDto> chartData = new ArrayList<>();
             LocalDate current = finalStartDate;
             while (!current.isAfter(finalEndDate)) {
-                List<ProductInvoice> dayInvoices = invoicesByDate.getOrDefault(current, new ArrayList<>());
-                BigDecimal revenue = dayInvoices.stream()
-                        .map(ProductInvoice::getTotalAmount)
-                        .filter(amount -> amount != null)
-                        .reduce(BigDecimal.ZERO, BigDecimal::add);
-                Long orderCount = (long) dayInvoices.size();
-
-                chartData.add(ChartDataDto.builder()
+                ChartDataDto day = paidByDate.get(current);
+                chartData.add(day != null ? day : ChartDataDto.builder()
                         .date(current)
-                        .revenue(revenue)
-                        .orderCount(orderCount)
+                        .revenue(BigDecimal.ZERO)
+                        .orderCount(0L)
                         .build());
                 current = current.plusDays(1);
             }
 
-            // Lấy tất cả ProductInvoiceItem để thống kê sp bán chạy (tránh lazy loading)
-            List<ProductInvoiceItem> allItems = productInvoiceItemRepo.findAll();
-            log.debug("Found {} invoice items total", allItems.size());
-
-            // Map để truy xuất hóa đơn nhanh theo id, tránh lazy loading
-            Map<Integer, ProductInvoice> invoiceMap = allInvoices.stream()
-                    .collect(Collectors.toMap(ProductInvoice::getId, inv -> inv));
-
-            // Lọc item theo ngày và hóa đơn đã thanh toán
-            List<ProductInvoiceItem> filteredItems = allItems.stream()
-                .filter(item -> {
-                    try {
-                        ProductInvoice invoice = (item.getInvoice() != null && item.getInvoice().getId() != null) 
-                                ? invoiceMap.get(item.getInvoice().getId()) 
-                                : null;
-                        if (invoice == null || invoice.getInvoiceDate() == null) return false;
-                        return !invoice.getInvoiceDate().isBefore(finalStartDate) && !invoice.getInvoiceDate().isAfter(finalEndDate);
-                    } catch (Exception e) {
-                        log.warn("Lỗi truy xuất hóa đơn cho item {}: {}", item.getId(), e.getMessage());
-                        return false;
-                    }
-                })
-                .filter(item -> {
-                    try {
-                        ProductInvoice invoice = (item.getInvoice() != null && item.getInvoice().getId() != null) 
-                                ? invoiceMap.get(item.getInvoice().getId()) 
-                                : null;
-                        if (invoice == null) return false;
-                        String paymentStatus = invoice.getPaymentStatus();
-                        return paymentStatus != null && (paymentStatus.equals("PAID") || paymentStatus.equals("COMPLETED"));
-                    } catch (Exception e) {
-                        log.warn("Lỗi kiểm tra trạng thái thanh toán cho item {}: {}", item.getId(), e.getMessage());
-                        return false;
-                    }
-                })
-                .collect(Collectors.toList());
-
-            log.debug("Filtered to {} items after date and payment status filter", filteredItems.size());
-
-            // Gom nhóm sản phẩm bán chạy theo tên+sku
-            Map<String, List<ProductInvoiceItem>> itemsByProduct = filteredItems.stream()
-                .collect(Collectors.groupingBy(item -> {
-                    String name = item.getProductNameSnapshot();
-                    String sku = item.getSkuSnapshot();
-                    return (name != null ? name : "Unknown") + "|" + (sku != null ? sku : "");
-                }));
-
-            List<TopProductDto> topProducts = itemsByProduct.entrySet().stream()
-                .map(entry -> {
-                    List<ProductInvoiceItem> items = entry.getValue();
-                    String[] parts = entry.getKey().split("\\|");
-                    String productName = parts.length > 0 ? parts[0] : "Unknown";
-                    String sku = parts.length > 1 ? parts[1] : "";
-
-                    Long totalSoldQty = items.stream()
-                            .map(ProductInvoiceItem::getQuantity)
-                            .filter(qty -> qty != null)
-                            .mapToLong(Integer::longValue)
-                            .sum();
-
-                    BigDecimal totalRevenue = items.stream()
-                            .map(ProductInvoiceItem::getLineTotalAmount)
-                            .filter(amount -> amount != null)
-                            .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-                    return TopProductDto.builder()
-                            .productName(productName)
-                            .sku(sku)
-                            .totalSoldQty(totalSoldQty)
-                            .totalRevenue(totalRevenue)
-                            .build();
-                })
+            // Sản phẩm bán chạy trên các hóa đơn đã thanh toán, TOP 10 theo doanh thu
+            List<TopProductDto> topProducts = dailyProductSalesFactRepository
+                .summarizeByPaymentStatus(finalStartDate, finalEndDate, PAID_STATUSES, currencyFilter)
+                .stream()
+                .map(p -> TopProductDto.builder()
+                        .productName(p.getProductName() != null ? p.getProductName() : "Unknown")
+                        .sku(p.getSku() != null ? p.getSku() : "")
+                        .totalSoldQty(p.getQuantity() != null ? p.getQuantity() : 0L)
+                        .totalRevenue(p.getLineTotalAmount() != null ? p.getLineTotalAmount() : BigDecimal.ZERO)
+                        .build())
                 .sorted((a, b) -> b.getTotalRevenue().compareTo(a.getTotalRevenue()))
                 .limit(10) // Lấy TOP 10 sản phẩm doanh thu cao nhất
                 .collect(Collectors.toList());
@@ -218,4 +133,55 @@ public class AdminReportServiceImpl implements AdminReportService {
                     .build();
         }
     }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<CohortRetentionDto> getPatientCohortRetention(YearMonth fromMonth, YearMonth toMonth) {
+        // Mặc định 12 cohort gần nhất
+        YearMonth currentMonth = YearMonth.now();
+        final YearMonth finalToMonth = (toMonth != null) ? toMonth : currentMonth;
+        final YearMonth finalFromMonth = (fromMonth != null) ? fromMonth : finalToMonth.minusMonths(11);
+        if (finalFromMonth.isAfter(finalToMonth)) {
+            throw new IllegalArgumentException("fromMonth must not be after toMonth");
+        }
+        if (ChronoUnit.MONTHS.between(finalFromMonth, finalToMonth) >= MAX_COHORT_MONTHS) {
+            throw new IllegalArgumentException("Cohort range must not exceed " + MAX_COHORT_MONTHS + " months");
+        }
+
+        // cohort -> (tháng khám -> số bệnh nhân), số dòng ~ số cohort x số tháng
+        Map<LocalDate, Map<LocalDate, Long>> cells = new HashMap<>();
+        for (PatientVisitSummaryRepository.CohortCellView cell : patientVisitSummaryRepository.findCohortCells(
+                finalFromMonth.atDay(1), finalToMonth.atDay(1))) {
+            cells.computeIfAbsent(cell.getCohortMonth(), k -> new HashMap<>())
+                    .put(cell.getVisitMonth(), cell.getPatients() != null ? cell.getPatients() : 0L);
+        }
+
+        List<CohortRetentionDto> result = new ArrayList<>();
+        for (YearMonth cohort = finalFromMonth; !cohort.isAfter(finalToMonth); cohort = cohort.plusMonths(1)) {
+            LocalDate cohortMonth = cohort.atDay(1);
+            Map<LocalDate, Long> byMonth = cells.getOrDefault(cohortMonth, Map.of());
+            long cohortSize = byMonth.getOrDefault(cohortMonth, 0L);
+
+            // Từ tháng đầu tới tháng hiện tại, tháng không có ai quay lại = 0
+            long offsets = Math.max(0, ChronoUnit.MONTHS.between(cohort, currentMonth)) + 1;
+            List<Long> retained = new ArrayList<>();
+            List<Double> rates = new ArrayList<>();
+            for (int k = 0; k < offsets; k++) {
+                long patients = byMonth.getOrDefault(cohort.plusMonths(k).atDay(1), 0L);
+                retained.add(patients);
+                rates.add(cohortSize > 0 ? (patients * 100.0) / cohortSize : 0.0);
+            }
+            result.add(CohortRetentionDto.builder()
+                    .cohortMonth(cohortMonth)
+                    .cohortSize(cohortSize)
+                    .retainedPatients(retained)
+                    .retentionRates(rates)
+                    .build());
+        }
+        return result;
+    }
+
+    private static boolean isPaid(String paymentStatus) {
+        return paymentStatus != null && PAID_STATUSES.contains(paymentStatus);
+    }
 }
@@ -0,0 +1,255 @@
+package sunshine_dental_care.services.impl.admin;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.repositories.admin.AdminAppointmentStatsRepository;
+import sunshine_dental_care.repositories.admin.AdminAppointmentStatsRepository.PatientVisitView;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
+import sunshine_dental_care.utils.WorkHoursConstants;
+
+/**
+ * Duy trì PatientVisitSummaries (lần khám đầu / cuối, số lượt khám, tổng đã thanh toán)
+ * và PatientMonthlyVisits (tháng có khám) cho retention / cohort của dashboard admin.
+ * - Lượt khám = lịch hẹn COMPLETED; lifetimeValue = tổng totalAmount của lịch hẹn PAID.
+ * - Lịch hẹn đổi trạng thái / thanh toán -> đánh dấu bệnh nhân "bẩn" sau commit,
+ *   job mỗi app.admin.visit-summary.refresh-ms tính lại riêng các bệnh nhân đó từ lịch hẹn gốc.
+ * - rebuildAll() dựng lại toàn bộ (lần đầu triển khai, sửa dữ liệu tay trên DB).
+ */
+@Service
+@Slf4j
+public class PatientVisitSummaryService {
+
+    private static final ZoneId VN_TIMEZONE = WorkHoursConstants.VN_TIMEZONE;
+    private static final int CHUNK_SIZE = 500;
+
+    private static final String INSERT_SUMMARY = """
+            INSERT INTO PatientVisitSummaries
+                (patientId, firstVisitAt, lastVisitAt, firstVisitMonth, visitCount, lifetimeValue, updatedAt)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_MONTHLY = """
+            INSERT INTO PatientMonthlyVisits (patientId, visitMonth, visitCount)
+            VALUES (?, ?, ?)
+            """;
+
+    private final AdminAppointmentStatsRepository appointmentStatsRepository;
+    private final PatientVisitSummaryRepository visitSummaryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Set<Integer> dirtyPatients = ConcurrentHashMap.newKeySet();
+    // Thành phần khác cần biết bảng tóm tắt vừa đổi (vd: cache dashboard admin), gọi sau khi tính lại
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    // 2 lần tính lại cùng 1 bệnh nhân không được chạy song song (xóa + chèn)
+    private final Object refreshLock = new Object();
+
+    public PatientVisitSummaryService(AdminAppointmentStatsRepository appointmentStatsRepository,
+                                      PatientVisitSummaryRepository visitSummaryRepository,
+                                      JdbcTemplate jdbcTemplate,
+                                      TransactionTemplate transactionTemplate,
+                                      ReceptionDashboardPublisher receptionDashboardPublisher) {
+        this.appointmentStatsRepository = appointmentStatsRepository;
+        this.visitSummaryRepository = visitSummaryRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+
+        // Mọi chỗ đổi trạng thái / thanh toán lịch hẹn đều đi qua publisher
+        receptionDashboardPublisher.addAppointmentListener(this::appointmentChanged);
+    }
+
+    private record Summary(Instant firstVisitAt, Instant lastVisitAt, int visitCount, BigDecimal lifetimeValue,
+                           Map<LocalDate, Integer> visitsByMonth) {}
+
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    public void appointmentChanged(String type, Appointment appointment) {
+        if (!ReceptionDashboardPublisher.STATUS_CHANGED.equals(type) && !ReceptionDashboardPublisher.PAID.equals(type)) {
+            return;
+        }
+        if (appointment.getPatient() == null || appointment.getPatient().getId() == null) return;
+        Integer patientId = appointment.getPatient().getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dirtyPatients.add(patientId);
+                }
+            });
+        } else {
+            dirtyPatients.add(patientId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.admin.visit-summary.refresh-ms:5000}")
+    public void refreshDirtyPatients() {
+        if (dirtyPatients.isEmpty()) return;
+        List<Integer> patientIds = new ArrayList<>(new TreeSet<>(dirtyPatients));
+        dirtyPatients.removeAll(patientIds);
+        boolean changed = false;
+        for (int i = 0; i < patientIds.size(); i += CHUNK_SIZE) {
+            List<Integer> chunk = patientIds.subList(i, Math.min(i + CHUNK_SIZE, patientIds.size()));
+            try {
+                refreshPatients(chunk);
+                changed = true;
+            } catch (Exception e) {
+                // Thử lại ở lần chạy sau
+                dirtyPatients.addAll(chunk);
+                log.warn("Patient visit summary: failed to refresh {} patient(s): {}", chunk.size(), e.getMessage());
+            }
+        }
+        if (changed) notifyListeners();
+    }
+
+    // Lần đầu chạy (bảng tóm tắt trống) thì dựng từ lịch sử lịch hẹn
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        try {
+            if (visitSummaryRepository.count() > 0) return;
+            int patients = rebuildAll();
+            log.info("Patient visit summary: bootstrapped {} patient(s)", patients);
+        } catch (Exception e) {
+            log.error("Patient visit summary: bootstrap failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // Tính lại toàn bộ, mỗi lần 1 khối bệnh nhân; trả về số bệnh nhân đã xử lý.
+    // Mỗi khối xóa cả khoảng id (id trước, id cuối khối] nên dòng của bệnh nhân không còn lượt khám
+    // (lịch COMPLETED bị hủy / xóa tay) cũng bị bỏ; khoảng sau khối cuối được xóa ở bước cuối.
+    public int rebuildAll() {
+        long started = System.currentTimeMillis();
+        int patients = 0;
+        Integer afterId = 0;
+        while (true) {
+            List<Integer> chunk = appointmentStatsRepository.findVisitedPatientIdsAfter(afterId, PageRequest.of(0, CHUNK_SIZE));
+            Integer fromId = afterId;
+            Integer upToId = chunk.isEmpty() ? Integer.MAX_VALUE : chunk.get(chunk.size() - 1);
+            writeSummaries(chunk, () -> {
+                visitSummaryRepository.deleteMonthlyVisitsByPatientIdRange(fromId, upToId);
+                visitSummaryRepository.deleteByPatientIdRange(fromId, upToId);
+            });
+            if (chunk.isEmpty()) break;
+            patients += chunk.size();
+            afterId = upToId;
+        }
+        log.info("Patient visit summary: rebuilt {} patient(s) in {} ms", patients, System.currentTimeMillis() - started);
+        notifyListeners();
+        return patients;
+    }
+
+    private void refreshPatients(Collection<Integer> patientIds) {
+        writeSummaries(patientIds, () -> {
+            visitSummaryRepository.deleteMonthlyVisitsByPatientIds(patientIds);
+            visitSummaryRepository.deleteByPatientIds(patientIds);
+        });
+    }
+
+    // Xóa dòng cũ (deleteOld) rồi chèn lại tóm tắt của patientIds trong cùng 1 transaction
+    private void writeSummaries(Collection<Integer> patientIds, Runnable deleteOld) {
+        synchronized (refreshLock) {
+            transactionTemplate.executeWithoutResult(status -> {
+                deleteOld.run();
+                if (patientIds.isEmpty()) return;
+
+                Map<Integer, Summary> summaries = summarize(appointmentStatsRepository.findVisitsByPatientIds(patientIds));
+                Timestamp now = Timestamp.from(Instant.now());
+
+                List<Map.Entry<Integer, Summary>> rows = new ArrayList<>(summaries.entrySet());
+                jdbcTemplate.batchUpdate(INSERT_SUMMARY, rows, CHUNK_SIZE, (ps, e) -> {
+                    Summary s = e.getValue();
+                    ps.setInt(1, e.getKey());
+                    ps.setTimestamp(2, Timestamp.from(s.firstVisitAt()));
+                    ps.setTimestamp(3, Timestamp.from(s.lastVisitAt()));
+                    ps.setDate(4, Date.valueOf(monthOf(s.firstVisitAt())));
+                    ps.setInt(5, s.visitCount());
+                    ps.setBigDecimal(6, s.lifetimeValue());
+                    ps.setTimestamp(7, now);
+                });
+
+                List<Object[]> months = new ArrayList<>();
+                summaries.forEach((patientId, s) -> s.visitsByMonth()
+                        .forEach((month, count) -> months.add(new Object[]{patientId, month, count})));
+                jdbcTemplate.batchUpdate(INSERT_MONTHLY, months, CHUNK_SIZE, (ps, r) -> {
+                    ps.setInt(1, (Integer) r[0]);
+                    ps.setDate(2, Date.valueOf((LocalDate) r[1]));
+                    ps.setInt(3, (Integer) r[2]);
+                });
+            });
+        }
+    }
+
+    // Bệnh nhân chỉ có lịch đã thanh toán nhưng chưa khám xong thì chưa có dòng tóm tắt
+    private Map<Integer, Summary> summarize(List<PatientVisitView> visits) {
+        Map<Integer, List<PatientVisitView>> byPatient = new TreeMap<>();
+        for (PatientVisitView v : visits) {
+            byPatient.computeIfAbsent(v.getPatientId(), k -> new ArrayList<>()).add(v);
+        }
+
+        Map<Integer, Summary> result = new TreeMap<>();
+        byPatient.forEach((patientId, rows) -> {
+            Instant first = null;
+            Instant last = null;
+            int count = 0;
+            BigDecimal lifetimeValue = BigDecimal.ZERO;
+            Map<LocalDate, Integer> byMonth = new TreeMap<>();
+            for (PatientVisitView v : rows) {
+                if ("PAID".equals(v.getPaymentStatus()) && v.getTotalAmount() != null) {
+                    lifetimeValue = lifetimeValue.add(v.getTotalAmount());
+                }
+                if (!"COMPLETED".equals(v.getStatus()) || v.getStartDateTime() == null) continue;
+                Instant at = v.getStartDateTime();
+                if (first == null || at.isBefore(first)) first = at;
+                if (last == null || at.isAfter(last)) last = at;
+                count++;
+                byMonth.merge(monthOf(at), 1, Integer::sum);
+            }
+            if (count > 0) {
+                result.put(patientId, new Summary(first, last, count, lifetimeValue, byMonth));
+            }
+        });
+        return result;
+    }
+
+    private static LocalDate monthOf(Instant instant) {
+        return instant.atZone(VN_TIMEZONE).toLocalDate().withDayOfMonth(1);
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.warn("Patient visit summary: change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+}
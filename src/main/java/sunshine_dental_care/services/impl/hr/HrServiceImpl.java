@@ -31,6 +31,7 @@ import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
 import sunshine_dental_care.repositories.hr.RoomRepo;
 import sunshine_dental_care.services.impl.hr.schedule.HolidayService;
 import sunshine_dental_care.services.impl.notification.NotificationService;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
 import sunshine_dental_care.services.interfaces.hr.HrService;
 import sunshine_dental_care.services.interfaces.hr.ScheduleValidationService;
 
@@ -48,6 +49,7 @@ public class HrServiceImpl implements HrService {
     private final HolidayService holidayService;
     private final NotificationService notificationService;
     private final UserRoleRepo userRoleRepo;
+    private final ReceptionDashboardPublisher dashboardPublisher;
 
     private static final LocalTime LUNCH_BREAK_START = LocalTime.of(11, 0);
 
@@ -143,6 +145,12 @@ public class HrServiceImpl implements HrService {
 
         List<DoctorSchedule> savedSchedules = doctorScheduleRepo.saveAll(schedules);
 
+        // Báo cho màn hình lễ tân các ngày/cơ sở có lịch bác sĩ thay đổi
+        savedSchedules.stream()
+                .map(s -> Map.entry(s.getClinic().getId(), s.getWorkDate()))
+                .distinct()
+                .forEach(e -> dashboardPublisher.scheduleChanged(e.getKey(), e.getValue()));
+
         // Gửi thông báo realtime cho toàn bộ bác sĩ về lịch làm việc mới
         try {
             List<Integer> doctorUserIds = getAllDoctorUserIds();
@@ -153,25 +161,16 @@ public class HrServiceImpl implements HrService {
                     request.getWeekStart().plusDays(5));
             String message = String.format("Lịch làm việc mới đã được tạo cho tuần %s. Vui lòng kiểm tra lịch của bạn.", weekInfo);
 
-            for (Integer doctorId : doctorUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(doctorId)
-                            .type("SCHEDULE_CREATED")
-                            .priority("MEDIUM")
-                            .title("Lịch làm việc mới")
-                            .message(message)
-                            .relatedEntityType("SCHEDULE")
-                            .relatedEntityId(null) // Không có ID cụ thể vì là nhiều schedules
-                            .build();
-
-                    notificationService.sendNotification(notiRequest);
-                    log.debug("Schedule notification sent to doctor user {}", doctorId);
-                } catch (Exception e) {
-                    log.error("Failed to send schedule notification to doctor user {}: {}", doctorId, e.getMessage());
-                }
-            }
-            log.info("Successfully sent schedule notifications to {} doctors", doctorUserIds.size());
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("SCHEDULE_CREATED")
+                    .priority("MEDIUM")
+                    .title("Lịch làm việc mới")
+                    .message(message)
+                    .relatedEntityType("SCHEDULE")
+                    .relatedEntityId(null) // Không có ID cụ thể vì là nhiều schedules
+                    .build();
+            int sent = notificationService.sendBulkNotification(doctorUserIds, notiRequest).size();
+            log.info("Successfully sent schedule notifications to {} doctors", sent);
         } catch (Exception e) {
             log.error("Failed to send schedule notifications to doctors: {}", e.getMessage(), e);
             // Không throw exception để không làm rollback việc tạo schedule
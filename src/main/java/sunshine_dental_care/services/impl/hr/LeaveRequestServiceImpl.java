@@ -107,29 +107,20 @@ public class LeaveRequestServiceImpl implements LeaveRequestService {
                     ? request.getStartDate().toString()
                     : request.getStartDate() + " to " + request.getEndDate();
 
-            for (Integer hrUserId : hrUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(hrUserId)
-                            .type("LEAVE_REQUEST_CREATED")
-                            .priority("MEDIUM")
-                            .title("New Leave Request")
-                            .message(String.format("%s has submitted a leave request from %s. Type: %s",
-                                    user.getFullName(), dateRange, request.getType()))
-                            .relatedEntityType("LEAVE_REQUEST")
-                            .relatedEntityId(leaveRequest.getId())
-                            .build();
-
-                    long startSend = System.currentTimeMillis();
-                    notificationService.sendNotification(notiRequest);
-                    long sendDuration = System.currentTimeMillis() - startSend;
-
-                    log.info("Notification sent to HR user {} about new leave request {}", hrUserId,
-                            leaveRequest.getId());
-                } catch (Exception e) {
-                    log.error("Failed to send notification to HR user {}: {}", hrUserId, e.getMessage());
-                }
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("LEAVE_REQUEST_CREATED")
+                    .priority("MEDIUM")
+                    .title("New Leave Request")
+                    .message(String.format("%s has submitted a leave request from %s. Type: %s",
+                            user.getFullName(), dateRange, request.getType()))
+                    .relatedEntityType("LEAVE_REQUEST")
+                    .relatedEntityId(leaveRequest.getId())
+                    .build();
+
+            long startSend = System.currentTimeMillis();
+            int sent = notificationService.sendBulkNotification(hrUserIds, notiRequest).size();
+            log.info("Performance: notifying {} HR user(s) about new leave request {} took {} ms",
+                    sent, leaveRequest.getId(), System.currentTimeMillis() - startSend);
         } catch (Exception e) {
             log.error("Failed to send notifications for leave request creation: {}", e.getMessage());
         }
@@ -218,25 +209,17 @@ public class LeaveRequestServiceImpl implements LeaveRequestService {
                     ? leaveRequest.getStartDate().toString()
                     : leaveRequest.getStartDate() + " to " + leaveRequest.getEndDate();
 
-            for (Integer hrUserId : hrUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(hrUserId)
-                            .type("LEAVE_REQUEST_CANCELLED")
-                            .priority("LOW")
-                            .title("Leave Request Cancelled")
-                            .message(String.format("%s has cancelled their leave request from %s.",
-                                    leaveRequest.getUser().getFullName(), dateRange))
-                            .relatedEntityType("LEAVE_REQUEST")
-                            .relatedEntityId(leaveRequest.getId())
-                            .build();
-                    notificationService.sendNotification(notiRequest);
-                    log.info("Notification sent to HR user {} about cancelled leave request {}",
-                            hrUserId, leaveRequestId);
-                } catch (Exception e) {
-                    log.error("Failed to send notification to HR user {}: {}", hrUserId, e.getMessage());
-                }
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("LEAVE_REQUEST_CANCELLED")
+                    .priority("LOW")
+                    .title("Leave Request Cancelled")
+                    .message(String.format("%s has cancelled their leave request from %s.",
+                            leaveRequest.getUser().getFullName(), dateRange))
+                    .relatedEntityType("LEAVE_REQUEST")
+                    .relatedEntityId(leaveRequest.getId())
+                    .build();
+            int sent = notificationService.sendBulkNotification(hrUserIds, notiRequest).size();
+            log.info("Notification sent to {} HR user(s) about cancelled leave request {}", sent, leaveRequestId);
         } catch (Exception e) {
             log.error("Failed to send notifications for leave request cancellation: {}", e.getMessage());
         }
@@ -435,20 +418,17 @@ public class LeaveRequestServiceImpl implements LeaveRequestService {
                     ? leaveRequest.getStartDate().toString()
                     : leaveRequest.getStartDate() + " to " + leaveRequest.getEndDate();
 
-            for (Integer adminId : adminIds) {
-                NotificationRequest notiRequest = NotificationRequest.builder()
-                        .userId(adminId)
-                        .type("LEAVE_REQUEST_PENDING_ADMIN")
-                        .priority("HIGH")
-                        .title("Leave Request Pending Admin Approval")
-                        .message(String.format(
-                                "HR has verified leave request for %s (%s). Waiting for your final approval.",
-                                leaveRequest.getUser().getFullName(), dateRange))
-                        .relatedEntityType("LEAVE_REQUEST")
-                        .relatedEntityId(leaveRequest.getId())
-                        .build();
-                notificationService.sendNotification(notiRequest);
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("LEAVE_REQUEST_PENDING_ADMIN")
+                    .priority("HIGH")
+                    .title("Leave Request Pending Admin Approval")
+                    .message(String.format(
+                            "HR has verified leave request for %s (%s). Waiting for your final approval.",
+                            leaveRequest.getUser().getFullName(), dateRange))
+                    .relatedEntityType("LEAVE_REQUEST")
+                    .relatedEntityId(leaveRequest.getId())
+                    .build();
+            notificationService.sendBulkNotification(adminIds, notiRequest);
         } catch (Exception e) {
             log.error("Failed to notify admins: {}", e.getMessage());
         }
@@ -512,22 +492,15 @@ public class LeaveRequestServiceImpl implements LeaveRequestService {
                 message += " Comment: " + comment;
             }
 
-            for (Integer hrId : hrIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(hrId)
-                            .type("LEAVE_REQUEST_PROCESSED_BY_ADMIN")
-                            .priority("MEDIUM")
-                            .title(title)
-                            .message(message)
-                            .relatedEntityType("LEAVE_REQUEST")
-                            .relatedEntityId(leaveRequest.getId())
-                            .build();
-                    notificationService.sendNotification(notiRequest);
-                } catch (Exception e) {
-                    log.error("Failed to notify HR {}: {}", hrId, e.getMessage());
-                }
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("LEAVE_REQUEST_PROCESSED_BY_ADMIN")
+                    .priority("MEDIUM")
+                    .title(title)
+                    .message(message)
+                    .relatedEntityType("LEAVE_REQUEST")
+                    .relatedEntityId(leaveRequest.getId())
+                    .build();
+            notificationService.sendBulkNotification(hrIds, notiRequest);
         } catch (Exception e) {
             log.error("Failed to notify HRs of Admin result: {}", e.getMessage());
         }
@@ -206,26 +206,15 @@ public class AttendanceExplanationHelper {
             log.info("Sending EXPLANATION_SUBMITTED notification to {} HR users for attendanceId={}, userId={}",
                     hrUserIds.size(), attendance.getId(), userId);
 
-            // Gửi notification đến từng HR user
-            for (Integer hrUserId : hrUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(hrUserId)
-                            .type("EXPLANATION_SUBMITTED")
-                            .priority("MEDIUM")
-                            .title("Giải trình mới cần xử lý")
-                            .message(message)
-                            .relatedEntityType("ATTENDANCE")
-                            .relatedEntityId(attendance.getId())
-                            .build();
-                    notificationService.sendNotification(notiRequest);
-                    log.debug("EXPLANATION_SUBMITTED notification sent to HR userId={} for attendanceId={}",
-                            hrUserId, attendance.getId());
-                } catch (Exception e) {
-                    log.error("Failed to send EXPLANATION_SUBMITTED notification to HR userId={} for attendanceId={}: {}",
-                            hrUserId, attendance.getId(), e.getMessage());
-                }
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("EXPLANATION_SUBMITTED")
+                    .priority("MEDIUM")
+                    .title("Giải trình mới cần xử lý")
+                    .message(message)
+                    .relatedEntityType("ATTENDANCE")
+                    .relatedEntityId(attendance.getId())
+                    .build();
+            notificationService.sendBulkNotification(hrUserIds, notiRequest);
         } catch (Exception e) {
             log.error("Failed to send EXPLANATION_SUBMITTED notifications for attendanceId={}, userId={}: {}",
                     attendance.getId(), userId, e.getMessage());
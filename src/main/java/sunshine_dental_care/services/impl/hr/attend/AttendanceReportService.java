@@ -1,5 +1,7 @@
 package sunshine_dental_care.services.impl.hr.attend;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
@@ -31,12 +33,18 @@ import sunshine_dental_care.repositories.auth.UserRoleRepo;
 import sunshine_dental_care.repositories.hr.AttendanceRepository;
 import sunshine_dental_care.repositories.hr.DepartmentRepo;
 import sunshine_dental_care.utils.WorkHoursConstants;
+import sunshine_dental_care.utils.huybro_utils.ExcelExportUtils;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
+import sunshine_dental_care.utils.huybro_utils.export.TabularExportWriter;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class AttendanceReportService {
 
+    // Số nhân viên mỗi lần đọc chấm công khi xuất file tháng
+    private static final int EXPORT_USER_CHUNK = 200;
+
     private final UserRepo userRepo;
     private final DepartmentRepo departmentRepo;
     private final AttendanceRepository attendanceRepository;
@@ -432,15 +440,63 @@ public class AttendanceReportService {
         return summaries;
     }
 
-    // Lấy danh sách chi tiết chấm công theo tháng, phân trang, cho toàn bộ NV phòng ban
+    // Lấy danh sách chi tiết chấm công theo tháng, phân trang, cho toàn bộ NV phòng ban.
+    // Danh sách sắp theo tên nhân viên nên cắt trang trên danh sách nhân viên trước, chỉ tính thống kê cho trang đó
     public Page<MonthlyAttendanceListItemResponse> getMonthlyAttendanceList(Integer year,
             Integer month,
             Integer departmentId,
             Integer clinicId,
             int page,
             int size) {
-        log.info("Getting monthly attendance list for year: {}, month: {}, departmentId: {}, clinicId: {}",
-                year, month, departmentId, clinicId);
+        List<User> users = sortedEligibleUsers(departmentId);
+
+        int startIdx = page * size;
+        int endIdx = Math.min(startIdx + size, users.size());
+        List<MonthlyAttendanceListItemResponse> pagedItems = startIdx < users.size()
+                ? buildMonthlyAttendanceItems(users.subList(startIdx, endIdx), year, month, clinicId)
+                : new ArrayList<>();
+
+        return new PageImpl<>(pagedItems, PageRequest.of(page, size), users.size());
+    }
+
+    // Xuất toàn bộ danh sách chấm công tháng (không phân trang) ra Excel / CSV,
+    // đọc chấm công theo từng nhóm EXPORT_USER_CHUNK nhân viên rồi ghi ngay, không dựng cả danh sách
+    public void exportMonthlyAttendanceList(Integer year,
+            Integer month,
+            Integer departmentId,
+            Integer clinicId,
+            ExportFormat format,
+            OutputStream out) throws IOException {
+        List<User> users = sortedEligibleUsers(departmentId);
+
+        try (TabularExportWriter writer = format.open(out)) {
+            writer.sheet("Attendance " + (month != null ? month : LocalDate.now().getMonthValue())
+                    + "-" + (year != null ? year : LocalDate.now().getYear()));
+            writer.header(ExcelExportUtils.ATTENDANCE_COLUMNS);
+            for (int from = 0; from < users.size(); from += EXPORT_USER_CHUNK) {
+                List<User> chunk = users.subList(from, Math.min(from + EXPORT_USER_CHUNK, users.size()));
+                for (MonthlyAttendanceListItemResponse item : buildMonthlyAttendanceItems(chunk, year, month, clinicId)) {
+                    ExcelExportUtils.writeAttendanceRow(writer, item);
+                }
+            }
+            writer.finish();
+        }
+    }
+
+    // Nhân viên đủ điều kiện, sắp theo tên (thứ tự của danh sách / file xuất)
+    private List<User> sortedEligibleUsers(Integer departmentId) {
+        List<User> users = new ArrayList<>(getEligibleUsersForAttendance(departmentId));
+        users.sort((a, b) -> a.getFullName().compareToIgnoreCase(b.getFullName()));
+        return users;
+    }
+
+    // Tính thống kê tháng cho các nhân viên truyền vào (giữ nguyên thứ tự)
+    private List<MonthlyAttendanceListItemResponse> buildMonthlyAttendanceItems(List<User> users,
+            Integer year,
+            Integer month,
+            Integer clinicId) {
+        log.info("Getting monthly attendance list for year: {}, month: {}, clinicId: {}, {} user(s)",
+                year, month, clinicId, users.size());
 
         if (year == null) {
             year = LocalDate.now().getYear();
@@ -452,12 +508,14 @@ public class AttendanceReportService {
         LocalDate startDate = LocalDate.of(year, month, 1);
         LocalDate endDate = startDate.withDayOfMonth(startDate.lengthOfMonth());
 
-        List<User> eligibleUsers = getEligibleUsersForAttendance(departmentId);
+        List<Integer> userIds = users.stream().map(User::getId).toList();
         List<Attendance> attendances;
-        if (clinicId != null) {
-            attendances = attendanceRepository.findByClinicIdAndWorkDateBetween(clinicId, startDate, endDate);
+        if (userIds.isEmpty()) {
+            attendances = List.of();
+        } else if (clinicId != null) {
+            attendances = attendanceRepository.findByUserIdInAndClinicIdAndWorkDateBetween(userIds, clinicId, startDate, endDate);
         } else {
-            attendances = attendanceRepository.findByWorkDateBetween(startDate, endDate);
+            attendances = attendanceRepository.findByUserIdInAndWorkDateBetween(userIds, startDate, endDate);
         }
 
         // Loại bỏ Chủ nhật nếu có (dữ liệu thường không lưu)
@@ -470,9 +528,19 @@ public class AttendanceReportService {
         Map<Integer, List<Attendance>> attendanceByUserId = attendances.stream()
                 .collect(Collectors.groupingBy(Attendance::getUserId));
 
+        // Đếm số ngày làm việc trong tháng (bỏ Chủ nhật)
+        int workingDays = 0;
+        LocalDate current = startDate;
+        while (!current.isAfter(endDate)) {
+            if (current.getDayOfWeek() != DayOfWeek.SUNDAY) {
+                workingDays++;
+            }
+            current = current.plusDays(1);
+        }
+
         List<MonthlyAttendanceListItemResponse> items = new ArrayList<>();
 
-        for (User user : eligibleUsers) {
+        for (User user : users) {
             MonthlyAttendanceListItemResponse item = new MonthlyAttendanceListItemResponse();
             item.setUserId(user.getId());
             item.setEmployeeName(user.getFullName());
@@ -485,16 +553,6 @@ public class AttendanceReportService {
 
             List<Attendance> userAttendances = attendanceByUserId.getOrDefault(user.getId(), new ArrayList<>());
 
-            // Đếm số ngày làm việc trong tháng (bỏ Chủ nhật)
-            int workingDays = 0;
-            LocalDate current = startDate;
-            while (!current.isAfter(endDate)) {
-                if (current.getDayOfWeek() != DayOfWeek.SUNDAY) {
-                    workingDays++;
-                }
-                current = current.plusDays(1);
-            }
-
             MonthlyAttendanceListItemResponse mapped = attendanceReportMapper.mapToMonthlyListItem(
                     user, userAttendances, workingDays, startDate, endDate);
             item.setWorkingDays(mapped.getWorkingDays());
@@ -512,16 +570,7 @@ public class AttendanceReportService {
 
             items.add(item);
         }
-
-        items.sort((a, b) -> a.getEmployeeName().compareToIgnoreCase(b.getEmployeeName()));
-
-        int startIdx = page * size;
-        int endIdx = Math.min(startIdx + size, items.size());
-        List<MonthlyAttendanceListItemResponse> pagedItems = startIdx < items.size()
-                ? items.subList(startIdx, endIdx)
-                : new ArrayList<>();
-
-        return new PageImpl<>(pagedItems, PageRequest.of(page, size), items.size());
+        return items;
     }
 
     // Lọc danh sách nhân viên đủ điều kiện chấm công trong phòng ban
@@ -1,5 +1,7 @@
 package sunshine_dental_care.services.impl.hr.attend;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -57,6 +59,7 @@ import sunshine_dental_care.services.interfaces.hr.FaceRecognitionService.FaceVe
 import sunshine_dental_care.services.interfaces.hr.ShiftService;
 import sunshine_dental_care.services.interfaces.system.AuditLogService;
 import sunshine_dental_care.utils.WorkHoursConstants;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 @Service
 @RequiredArgsConstructor
@@ -672,26 +675,16 @@ public class AttendanceServiceImpl implements AttendanceService {
             allUserIds.addAll(hrUserIds);
             allUserIds.addAll(adminUserIds);
 
-            int successCount = 0;
-            for (Integer userId : allUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(userId)
-                            .type("DOCTOR_LATE_CHECKIN")
-                            .priority("MEDIUM")
-                            .title("Bác sĩ check-in trễ")
-                            .message(message)
-                            .actionUrl("/hr/attendance")
-                            .relatedEntityType("DOCTOR_SCHEDULE")
-                            .relatedEntityId(attendance.getId())
-                            .build();
-
-                    notificationService.sendNotification(notiRequest);
-                    successCount++;
-                } catch (Exception e) {
-                    log.error("Failed to send DOCTOR_LATE_CHECKIN notification to user {}: {}", userId, e.getMessage());
-                }
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("DOCTOR_LATE_CHECKIN")
+                    .priority("MEDIUM")
+                    .title("Bác sĩ check-in trễ")
+                    .message(message)
+                    .actionUrl("/hr/attendance")
+                    .relatedEntityType("DOCTOR_SCHEDULE")
+                    .relatedEntityId(attendance.getId())
+                    .build();
+            int successCount = notificationService.sendBulkNotification(allUserIds, notiRequest).size();
 
             log.info("Sent {} DOCTOR_LATE_CHECKIN notifications for doctor {} ({} minutes late)", 
                     successCount, doctorName, lateMinutes);
@@ -1005,6 +998,12 @@ public class AttendanceServiceImpl implements AttendanceService {
         return attendanceReportService.getMonthlyAttendanceList(year, month, departmentId, clinicId, page, size);
     }
 
+    @Override
+    public void exportMonthlyAttendanceList(Integer year, Integer month, Integer departmentId, Integer clinicId,
+            ExportFormat format, OutputStream out) throws IOException {
+        attendanceReportService.exportMonthlyAttendanceList(year, month, departmentId, clinicId, format, out);
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<AttendanceResponse> getAttendanceForAdmin(LocalDate workDate, Integer clinicId, String status) {
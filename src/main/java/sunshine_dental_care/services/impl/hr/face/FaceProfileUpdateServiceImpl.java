@@ -67,29 +67,17 @@ public class FaceProfileUpdateServiceImpl implements FaceProfileUpdateService {
             log.info("Sending FACE_PROFILE_UPDATE_REQUEST notification to {} HR users for requestId={}, userId={}",
                     hrUserIds.size(), saved.getRequestId(), userId);
 
-            // Gửi notification đến từng HR user
-            for (Integer hrUserId : hrUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(hrUserId)
-                            .type("FACE_PROFILE_UPDATE_REQUEST")
-                            .priority("MEDIUM")
-                            .title("Yêu cầu duyệt cập nhật khuôn mặt mới")
-                            .message(String.format("%s đã gửi yêu cầu cập nhật khuôn mặt chấm công. Vui lòng xem xét và duyệt.",
-                                    employeeName))
-                            .relatedEntityType("FaceProfileUpdateRequest")
-                            .relatedEntityId(saved.getRequestId())
-                            .actionUrl("/hr/employees/face-profile-approval")
-                            .build();
-
-                    notificationService.sendNotification(notiRequest);
-                    log.debug("FACE_PROFILE_UPDATE_REQUEST notification sent to HR userId={} for requestId={}",
-                            hrUserId, saved.getRequestId());
-                } catch (Exception e) {
-                    log.error("Failed to send FACE_PROFILE_UPDATE_REQUEST notification to HR userId={} for requestId={}: {}",
-                            hrUserId, saved.getRequestId(), e.getMessage());
-                }
-            }
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("FACE_PROFILE_UPDATE_REQUEST")
+                    .priority("MEDIUM")
+                    .title("Yêu cầu duyệt cập nhật khuôn mặt mới")
+                    .message(String.format("%s đã gửi yêu cầu cập nhật khuôn mặt chấm công. Vui lòng xem xét và duyệt.",
+                            employeeName))
+                    .relatedEntityType("FaceProfileUpdateRequest")
+                    .relatedEntityId(saved.getRequestId())
+                    .actionUrl("/hr/employees/face-profile-approval")
+                    .build();
+            notificationService.sendBulkNotification(hrUserIds, notiRequest);
         } catch (Exception e) {
             log.error("Failed to send FACE_PROFILE_UPDATE_REQUEST notifications for requestId={}, userId={}: {}",
                     saved.getRequestId(), userId, e.getMessage());
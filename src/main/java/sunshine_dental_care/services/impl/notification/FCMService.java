@@ -1,68 +1,189 @@
 package sunshine_dental_care.services.impl.notification;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.google.firebase.messaging.FirebaseMessaging;
-import com.google.firebase.messaging.Message;
-import com.google.firebase.messaging.Notification;
+import com.google.firebase.messaging.MessagingErrorCode;
 
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.repositories.UserDeviceRepo;
+import sunshine_dental_care.services.impl.notification.FcmPushBackend.PushMessage;
+import sunshine_dental_care.services.impl.notification.FcmPushBackend.SendResult;
 
+/**
+ * Gửi push FCM theo multicast (tối đa 500 token / lần gọi):
+ * - Việc gửi chạy trên 1 thread riêng của FCM (hàng đợi app.fcm.queue-capacity lượt); chờ giới hạn tốc độ
+ *   chỉ chặn thread này, không chiếm thread của executor @Async dùng chung.
+ * - Đọc kết quả từng token, token đã chết (app gỡ / token hết hạn) bị xoá khỏi UserDevices theo lô.
+ * - Giới hạn tốc độ gửi app.fcm.max-messages-per-second, vượt thì thread gửi chờ.
+ * - Đếm số lần gọi / gửi thành công / thất bại / token bị xoá (getStats).
+ */
 @Service
 @Slf4j
 public class FCMService {
 
-    @org.springframework.scheduling.annotation.Async
-    public void sendNotification(String token, String title, String body, String actionUrl,
-                                 String relatedEntityType, Integer relatedEntityId) {
-        log.info("FCMService: Begin sending notification (Async)");
-        log.info("Title: {}", title);
-        log.info("Body: {}", body);
-        log.info("Token: {}...", token != null && token.length() > 30 ? token.substring(0, 30) : token);
-        log.info("ActionUrl: {}", actionUrl);
+    private static final int MAX_MULTICAST_TOKENS = FcmPushBackend.MAX_MULTICAST_TOKENS;
+    // Lỗi cho biết token không bao giờ nhận được nữa -> xoá thiết bị
+    private static final Set<MessagingErrorCode> DEAD_TOKEN_ERRORS =
+            EnumSet.of(MessagingErrorCode.UNREGISTERED, MessagingErrorCode.SENDER_ID_MISMATCH);
+
+    private final FcmPushBackend pushBackend;
+    private final UserDeviceRepo userDeviceRepo;
+    private final long nanosPerMessage;
+    private final ThreadPoolExecutor sendExecutor;
+
+    // Thời điểm sớm nhất được gửi lô kế tiếp (token bucket không tích luỹ)
+    private long nextFreeAt = System.nanoTime();
+
+    private final AtomicLong multicastCalls = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deadTokensPruned = new AtomicLong();
+    private final AtomicLong throttledCalls = new AtomicLong();
+    private final AtomicLong throttledMillis = new AtomicLong();
+
+    public FCMService(FcmPushBackend pushBackend,
+                      UserDeviceRepo userDeviceRepo,
+                      @Value("${app.fcm.max-messages-per-second:500}") int maxMessagesPerSecond,
+                      @Value("${app.fcm.queue-capacity:1000}") int queueCapacity) {
+        this.pushBackend = pushBackend;
+        this.userDeviceRepo = userDeviceRepo;
+        this.nanosPerMessage = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxMessagesPerSecond);
+        // 1 thread: các lượt gửi nối đuôi nhau theo giới hạn tốc độ, chạy song song cũng không nhanh hơn
+        this.sendExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread t = new Thread(r, "fcm-sender");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    public record DeliveryStats(long multicastCalls, long delivered, long failed,
+                                long deadTokensPruned, long throttledCalls, long throttledMillis) {}
 
+    // Gửi cùng 1 nội dung tới nhiều token: xếp hàng cho thread gửi FCM rồi trả về ngay
+    public void sendMulticast(List<String> tokens, String title, String body, String actionUrl,
+                              String relatedEntityType, Integer relatedEntityId) {
+        if (tokens == null || tokens.isEmpty()) {
+            return;
+        }
+        List<String> copy = List.copyOf(tokens);
         try {
-            // Kiểm tra khởi tạo FirebaseMessaging instance
-            if (FirebaseMessaging.getInstance() == null) {
-                log.error("FCMService: FirebaseMessaging instance is null!");
-                throw new IllegalStateException("FirebaseMessaging not initialized");
-            }
+            sendExecutor.execute(() -> send(copy, title, body, actionUrl, relatedEntityType, relatedEntityId));
+        } catch (RejectedExecutionException e) {
+            failed.addAndGet(copy.size());
+            log.warn("FCMService: Send queue full, dropping push to {} token(s)", copy.size());
+        }
+    }
 
-            Notification notification = Notification.builder()
-                    .setTitle(title)
-                    .setBody(body)
-                    .build();
+    // Gửi ngay trên thread gọi (thread gửi FCM, hoặc test)
+    void send(List<String> tokens, String title, String body, String actionUrl,
+              String relatedEntityType, Integer relatedEntityId) {
+        Map<String, String> data = new LinkedHashMap<>();
+        if (actionUrl != null) {
+            data.put("actionUrl", actionUrl);
+        }
+        if (relatedEntityType != null) {
+            data.put("relatedEntityType", relatedEntityType);
+        }
+        if (relatedEntityId != null) {
+            data.put("relatedEntityId", relatedEntityId.toString());
+        }
+        PushMessage message = new PushMessage(title, body, Map.copyOf(data));
 
-            Message.Builder messageBuilder = Message.builder()
-                    .setToken(token)
-                    .setNotification(notification);
+        int success = 0;
+        int failure = 0;
+        List<String> deadTokens = new ArrayList<>();
+        for (int from = 0; from < tokens.size(); from += MAX_MULTICAST_TOKENS) {
+            List<String> chunk = tokens.subList(from, Math.min(from + MAX_MULTICAST_TOKENS, tokens.size()));
+            try {
+                acquire(chunk.size());
+                multicastCalls.incrementAndGet();
+                List<SendResult> results = pushBackend.sendMulticast(chunk, message);
 
-            if (actionUrl != null) {
-                messageBuilder.putData("actionUrl", actionUrl);
+                // Kết quả trả về theo đúng thứ tự token đã gửi
+                for (int i = 0; i < results.size(); i++) {
+                    SendResult r = results.get(i);
+                    if (r.success()) {
+                        success++;
+                        continue;
+                    }
+                    failure++;
+                    if (r.errorCode() != null && DEAD_TOKEN_ERRORS.contains(r.errorCode())) {
+                        deadTokens.add(chunk.get(i));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure += tokens.size() - from;
+                log.warn("FCMService: Interrupted while waiting for send rate limit, {} token(s) not sent", tokens.size() - from);
+                break;
+            } catch (Exception e) {
+                failure += chunk.size();
+                log.error("FCMService: Error while sending multicast to {} token(s): {}", chunk.size(), e.getMessage(), e);
             }
+        }
+        delivered.addAndGet(success);
+        failed.addAndGet(failure);
+        log.info("FCMService: Multicast summary: {}/{} token(s) delivered, {} failed, {} dead",
+                success, tokens.size(), failure, deadTokens.size());
 
-            if (relatedEntityType != null) {
-                messageBuilder.putData("relatedEntityType", relatedEntityType);
-            }
+        pruneDeadTokens(deadTokens);
+    }
 
-            if (relatedEntityId != null) {
-                messageBuilder.putData("relatedEntityId", relatedEntityId.toString());
-            }
+    @PreDestroy
+    public void shutdown() {
+        sendExecutor.shutdownNow();
+    }
 
-            Message message = messageBuilder.build();
-            log.info("FCMService: Sending message to Firebase Cloud Messaging...");
+    public DeliveryStats getStats() {
+        return new DeliveryStats(multicastCalls.get(), delivered.get(), failed.get(),
+                deadTokensPruned.get(), throttledCalls.get(), throttledMillis.get());
+    }
 
-            // Gửi FCM async (không block)
-            FirebaseMessaging.getInstance().sendAsync(message);
-            log.info("FCMService: FCM message sent request initiated.");
-        } catch (Exception e) {
-            log.error("FCMService: Error while sending FCM message", e);
-            log.error("Error type: {}", e.getClass().getName());
-            log.error("Error message: {}", e.getMessage());
-            if (e.getCause() != null) {
-                log.error("Cause: {}", e.getCause().getMessage());
+    // Giữ chỗ permits tin trong cửa sổ tốc độ, chờ tới lượt nếu các lô trước đã dùng hết
+    private void acquire(int permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFreeAt);
+            nextFreeAt = start + permits * nanosPerMessage;
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            throttledCalls.incrementAndGet();
+            throttledMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void pruneDeadTokens(List<String> deadTokens) {
+        if (deadTokens.isEmpty()) {
+            return;
+        }
+        try {
+            int removed = 0;
+            for (int from = 0; from < deadTokens.size(); from += MAX_MULTICAST_TOKENS) {
+                removed += userDeviceRepo.deleteByFcmTokenIn(
+                        deadTokens.subList(from, Math.min(from + MAX_MULTICAST_TOKENS, deadTokens.size())));
             }
-            // Không throw để tránh rollback transaction của thread chính
+            deadTokensPruned.addAndGet(removed);
+            log.info("FCMService: Removed {} device(s) with unregistered FCM tokens", removed);
+        } catch (Exception e) {
+            log.error("FCMService: Failed to remove dead FCM tokens: {}", e.getMessage(), e);
         }
     }
 }
@@ -0,0 +1,27 @@
+package sunshine_dental_care.services.impl.notification;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.firebase.messaging.MessagingErrorCode;
+
+/**
+ * Nơi thực sự gửi push FCM cho 1 lô token. FCMService lo chia lô, giới hạn tốc độ và xoá token chết;
+ * backend chỉ gọi Firebase (FirebaseFcmPushBackend) và trả kết quả từng token.
+ */
+public interface FcmPushBackend {
+
+    // Giới hạn số token trong 1 lần multicast của FCM
+    int MAX_MULTICAST_TOKENS = 500;
+
+    record PushMessage(String title, String body, Map<String, String> data) {}
+
+    // errorCode = null khi gửi thành công hoặc lỗi không có mã
+    record SendResult(boolean success, MessagingErrorCode errorCode) {
+
+        static final SendResult DELIVERED = new SendResult(true, null);
+    }
+
+    // Gửi tối đa MAX_MULTICAST_TOKENS token; kết quả theo đúng thứ tự tokens
+    List<SendResult> sendMulticast(List<String> tokens, PushMessage message) throws Exception;
+}
@@ -0,0 +1,42 @@
+package sunshine_dental_care.services.impl.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.google.firebase.messaging.BatchResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.MulticastMessage;
+import com.google.firebase.messaging.Notification;
+import com.google.firebase.messaging.SendResponse;
+
+/**
+ * Gửi push qua FirebaseMessaging của FirebaseApp mặc định (sendEachForMulticast).
+ */
+@Component
+public class FirebaseFcmPushBackend implements FcmPushBackend {
+
+    @Override
+    public List<SendResult> sendMulticast(List<String> tokens, PushMessage message) throws Exception {
+        MulticastMessage multicast = MulticastMessage.builder()
+                .addAllTokens(tokens)
+                .setNotification(Notification.builder()
+                        .setTitle(message.title())
+                        .setBody(message.body())
+                        .build())
+                .putAllData(message.data())
+                .build();
+        BatchResponse response = FirebaseMessaging.getInstance().sendEachForMulticast(multicast);
+
+        List<SendResult> results = new ArrayList<>(tokens.size());
+        for (SendResponse r : response.getResponses()) {
+            if (r.isSuccessful()) {
+                results.add(SendResult.DELIVERED);
+            } else {
+                results.add(new SendResult(false, r.getException() != null ? r.getException().getMessagingErrorCode() : null));
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,119 @@
+package sunshine_dental_care.services.impl.notification;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.cloud.FirestoreClient;
+
+/**
+ * Backend Firestore thật qua FirebaseApp. Client Firestore tự dùng emulator khi có biến môi trường
+ * FIRESTORE_EMULATOR_HOST, nên test tích hợp chỉ cần bật emulator.
+ */
+@Component
+@ConditionalOnProperty(name = "app.firestore.mirror", havingValue = "firebase", matchIfMissing = true)
+public class FirebaseFirestoreMirrorBackend implements FirestoreMirrorBackend {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Override
+    public void commit(List<MirrorWrite> writes) throws Exception {
+        if (writes.isEmpty()) {
+            return;
+        }
+        Firestore db = FirestoreClient.getFirestore();
+
+        // MARK_READ chỉ áp dụng cho document đã có (notification tạo trước khi tích hợp Firestore thì bỏ qua):
+        // document vừa UPSERT / DELETE trước đó trong cùng lô thì đã biết, còn lại kiểm tra bằng 1 lần getAll
+        Boolean[] exists = knownExistence(writes);
+        List<DocumentReference> markRefs = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            if (writes.get(i).kind() == Kind.MARK_READ && exists[i] == null) {
+                markRefs.add(document(db, writes.get(i)));
+            }
+        }
+        List<DocumentSnapshot> snapshots = markRefs.isEmpty()
+                ? List.of()
+                : db.getAll(markRefs.toArray(DocumentReference[]::new)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        WriteBatch batch = db.batch();
+        int markIndex = 0;
+        int operations = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            MirrorWrite w = writes.get(i);
+            DocumentReference ref = document(db, w);
+            if (w.kind() == Kind.UPSERT) {
+                batch.set(ref, w.data());
+                operations++;
+            } else if (w.kind() == Kind.DELETE) {
+                batch.delete(ref);
+                operations++;
+            } else if (exists[i] != null ? exists[i] : snapshots.get(markIndex++).exists()) {
+                batch.update(ref, w.data());
+                operations++;
+            }
+        }
+        if (operations > 0) {
+            batch.commit().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public int markAllAsRead(Integer userId, Map<String, Object> updates) throws Exception {
+        Firestore db = FirestoreClient.getFirestore();
+        var unread = db.collection(collectionPath(userId))
+                .whereEqualTo("isRead", false)
+                .limit(MAX_BATCH_WRITES);
+
+        // Document đã cập nhật không còn khớp isRead == false nên query lại luôn trả về lô kế tiếp
+        int total = 0;
+        while (true) {
+            List<QueryDocumentSnapshot> docs = unread.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getDocuments();
+            if (docs.isEmpty()) {
+                return total;
+            }
+            WriteBatch batch = db.batch();
+            docs.forEach(doc -> batch.update(doc.getReference(), updates));
+            batch.commit().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            total += docs.size();
+            if (docs.size() < MAX_BATCH_WRITES) {
+                return total;
+            }
+        }
+    }
+
+    // Với từng MARK_READ: document có tồn tại lúc áp dụng không, suy ra từ thao tác đứng trước trong cùng lô
+    // (UPSERT -> có, DELETE -> không); null = chưa biết, phải hỏi Firestore. Phần tử khác MARK_READ luôn null
+    static Boolean[] knownExistence(List<MirrorWrite> writes) {
+        Boolean[] result = new Boolean[writes.size()];
+        Map<String, Boolean> touched = new HashMap<>();
+        for (int i = 0; i < writes.size(); i++) {
+            MirrorWrite w = writes.get(i);
+            String key = w.userId() + "/" + w.notificationId();
+            switch (w.kind()) {
+                case UPSERT -> touched.put(key, Boolean.TRUE);
+                case DELETE -> touched.put(key, Boolean.FALSE);
+                case MARK_READ -> result[i] = touched.get(key);
+            }
+        }
+        return result;
+    }
+
+    private static DocumentReference document(Firestore db, MirrorWrite w) {
+        return db.collection(collectionPath(w.userId())).document(String.valueOf(w.notificationId()));
+    }
+
+    private static String collectionPath(Integer userId) {
+        return "notifications/" + userId + "/items";
+    }
+}
@@ -0,0 +1,27 @@
+package sunshine_dental_care.services.impl.notification;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nơi lưu bản sao notification cho client đọc realtime (notifications/{userId}/items/{notificationId}).
+ * FirestoreService gom thao tác ghi rồi gọi backend theo lô; có 2 bản:
+ * Firebase thật / emulator (mặc định) và bộ nhớ trong (app.firestore.mirror=memory, dùng khi test / chạy offline).
+ */
+public interface FirestoreMirrorBackend {
+
+    // Giới hạn số thao tác ghi trong 1 WriteBatch của Firestore
+    int MAX_BATCH_WRITES = 500;
+
+    enum Kind { UPSERT, MARK_READ, DELETE }
+
+    // UPSERT: data là toàn bộ document; MARK_READ: data là các field cập nhật, bỏ qua nếu document không tồn tại;
+    // DELETE: data rỗng
+    record MirrorWrite(Kind kind, Integer userId, Integer notificationId, Map<String, Object> data) {}
+
+    // Ghi tối đa MAX_BATCH_WRITES thao tác trong 1 batch (tất cả cùng thành công hoặc cùng lỗi)
+    void commit(List<MirrorWrite> writes) throws Exception;
+
+    // Đánh dấu đã đọc mọi document chưa đọc của user, theo từng lô query + batch update; trả về số document đã cập nhật
+    int markAllAsRead(Integer userId, Map<String, Object> updates) throws Exception;
+}
@@ -1,169 +1,208 @@
 package sunshine_dental_care.services.impl.notification;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.google.cloud.firestore.Firestore;
-import com.google.firebase.cloud.FirestoreClient;
-
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import sunshine_dental_care.dto.notificationDTO.NotificationResponse;
-
+import sunshine_dental_care.services.impl.notification.FirestoreMirrorBackend.Kind;
+import sunshine_dental_care.services.impl.notification.FirestoreMirrorBackend.MirrorWrite;
+
+/**
+ * Ghi bản sao notification lên Firestore theo lô:
+ * - Các hàm public chỉ xếp thao tác vào hàng đợi rồi trả về ngay, không chặn request / transaction của caller.
+ * - Thread "firestore-mirror" mỗi app.firestore.flush-interval-ms gom hàng đợi thành WriteBatch (tối đa 500 thao tác),
+ *   giữ đúng thứ tự; markAllAsRead chạy sau các thao tác xếp trước nó.
+ * - Lô lỗi (mạng, timeout...) được thử lại tối đa app.firestore.commit-attempts lần rồi mới bỏ;
+ *   mọi thao tác đều idempotent (set / update / delete) nên ghi lại cả lô là an toàn.
+ * - Nơi ghi thật là FirestoreMirrorBackend (Firebase / emulator hoặc bộ nhớ khi test).
+ */
 @Service
 @Slf4j
 public class FirestoreService {
 
-    // Lấy Firestore instance
-    private Firestore getFirestore() {
-        try {
-            return FirestoreClient.getFirestore();
-        } catch (Exception e) {
-            log.error("[Firestore] Failed to get Firestore instance: {}", e.getMessage());
-            return null;
-        }
+    private static final int MAX_BATCH_WRITES = FirestoreMirrorBackend.MAX_BATCH_WRITES;
+
+    // write != null: 1 thao tác ghi; ngược lại là yêu cầu đánh dấu đã đọc toàn bộ của markAllUserId
+    private record Pending(MirrorWrite write, Integer markAllUserId) {}
+
+    private final FirestoreMirrorBackend backend;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService flusher;
+    private final int commitAttempts;
+    private final long retryBackoffMs;
+
+    public FirestoreService(FirestoreMirrorBackend backend,
+                            @Value("${app.firestore.flush-interval-ms:300}") long flushIntervalMs,
+                            @Value("${app.firestore.commit-attempts:3}") int commitAttempts,
+                            @Value("${app.firestore.retry-backoff-ms:200}") long retryBackoffMs) {
+        this.backend = backend;
+        this.commitAttempts = Math.max(2, commitAttempts);
+        this.retryBackoffMs = Math.max(0, retryBackoffMs);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "firestore-mirror");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(50, flushIntervalMs);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
     }
 
-    @org.springframework.scheduling.annotation.Async
     public void saveNotification(NotificationResponse notification) {
-        try {
-            Firestore db = getFirestore();
-            if (db == null) {
-                log.warn("[Firestore] Firestore instance is null, skipping save");
-                return;
-            }
+        queue.add(new Pending(new MirrorWrite(Kind.UPSERT, notification.getUserId(),
+                notification.getNotificationId(), toDocument(notification)), null));
+    }
 
-            String userId = String.valueOf(notification.getUserId());
-            String notificationId = String.valueOf(notification.getNotificationId());
-            String collectionPath = "notifications/" + userId + "/items";
-
-            // Chuẩn bị dữ liệu notification
-            Map<String, Object> notificationData = new HashMap<>();
-            notificationData.put("notificationId", notification.getNotificationId());
-            notificationData.put("userId", notification.getUserId());
-            notificationData.put("type", notification.getType());
-            notificationData.put("priority", notification.getPriority());
-            notificationData.put("title", notification.getTitle());
-            notificationData.put("message", notification.getMessage());
-            notificationData.put("actionUrl", notification.getActionUrl() != null ? notification.getActionUrl() : "");
-            notificationData.put("relatedEntityType",
-                    notification.getRelatedEntityType() != null ? notification.getRelatedEntityType() : "");
-            notificationData.put("relatedEntityId",
-                    notification.getRelatedEntityId() != null ? notification.getRelatedEntityId() : "");
-            notificationData.put("isRead", notification.getIsRead());
-            notificationData.put("createdAt",
-                    notification.getCreatedAt() != null ? notification.getCreatedAt().toString() : Instant.now().toString());
-            notificationData.put("expiresAt",
-                    notification.getExpiresAt() != null ? notification.getExpiresAt().toString() : "");
-            notificationData.put("readAt", notification.getReadAt() != null ? notification.getReadAt().toString() : "");
-
-            // Lưu notification, không block thread chính
-            db.collection(collectionPath)
-                .document(notificationId)
-                .set(notificationData);
-
-            log.info("[Firestore] Notification save initiated (Async) - UserId: {}, NotificationId: {}", userId, notificationId);
-        } catch (Exception e) {
-            log.error("[Firestore] Error initiating save to Firestore: {}", e.getMessage(), e);
+    public void saveNotifications(List<NotificationResponse> notifications) {
+        if (notifications == null) {
+            return;
         }
+        notifications.forEach(this::saveNotification);
     }
 
+    // Document chưa tồn tại (notification tạo trước khi tích hợp Firestore) thì bỏ qua
     public void markAsRead(Integer userId, Integer notificationId) {
-        try {
-            Firestore db = getFirestore();
-            if (db == null) {
-                log.warn("[Firestore] Firestore instance is null, skipping mark as read");
-                return;
-            }
-
-            String collectionPath = "notifications/" + userId + "/items";
-            String documentId = String.valueOf(notificationId);
-            var docRef = db.collection(collectionPath).document(documentId);
-            var docSnapshot = docRef.get().get();
-
-            // Nếu không tồn tại thì bỏ qua
-            if (!docSnapshot.exists()) {
-                log.warn("[Firestore] Document not found, skipping mark as read - UserId: {}, NotificationId: {}", userId, notificationId);
-                return;
-            }
+        queue.add(new Pending(new MirrorWrite(Kind.MARK_READ, userId, notificationId, readUpdates()), null));
+    }
 
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("isRead", true);
-            updates.put("readAt", Instant.now().toString());
+    public void markAllAsRead(Integer userId) {
+        queue.add(new Pending(null, userId));
+    }
 
-            docRef.update(updates).get();
+    public void deleteNotification(Integer userId, Integer notificationId) {
+        queue.add(new Pending(new MirrorWrite(Kind.DELETE, userId, notificationId, Map.of()), null));
+    }
 
-            log.info("[Firestore] Notification marked as read - UserId: {}, NotificationId: {}", userId, notificationId);
-        } catch (com.google.api.gax.rpc.NotFoundException e) {
-            // Có thể không tồn tại vì tạo notification trước khi tích hợp Firestore
-            log.warn("[Firestore] Document not found when marking as read - UserId: {}, NotificationId: {}. This is normal if notification was created before Firestore integration.",
-                    userId, notificationId);
-        } catch (Exception e) {
-            log.error("[Firestore] Error marking notification as read: {}", e.getMessage(), e);
+    // Ghi ngay mọi thao tác đang chờ (thread flush gọi định kỳ; test có thể gọi trực tiếp)
+    public synchronized void flush() {
+        List<MirrorWrite> batch = new ArrayList<>();
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending.write() != null) {
+                batch.add(pending.write());
+                if (batch.size() == MAX_BATCH_WRITES) {
+                    commit(batch);
+                    batch = new ArrayList<>();
+                }
+            } else {
+                // Ghi hết các thao tác xếp trước để notification vừa lưu cũng được đánh dấu đã đọc
+                commit(batch);
+                batch = new ArrayList<>();
+                markAll(pending.markAllUserId());
+            }
         }
+        commit(batch);
     }
 
-    public void deleteNotification(Integer userId, Integer notificationId) {
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
         try {
-            Firestore db = getFirestore();
-            if (db == null) {
-                log.warn("[Firestore] Firestore instance is null, skipping delete");
-                return;
-            }
-
-            String collectionPath = "notifications/" + userId + "/items";
-            db.collection(collectionPath)
-                .document(String.valueOf(notificationId))
-                .delete()
-                .get();
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
 
-            log.info("[Firestore] Notification deleted - UserId: {}, NotificationId: {}", userId, notificationId);
+    private void flushQuietly() {
+        try {
+            flush();
         } catch (Exception e) {
-            log.error("[Firestore] Error deleting notification: {}", e.getMessage(), e);
+            log.error("[Firestore] Unexpected error while flushing mirror writes: {}", e.getMessage(), e);
         }
     }
 
-    @org.springframework.scheduling.annotation.Async
-    public void markAllAsRead(Integer userId) {
-        try {
-            Firestore db = getFirestore();
-            if (db == null) {
-                log.warn("[Firestore] Firestore instance is null, skipping mark all as read");
+    private void commit(List<MirrorWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                backend.commit(batch);
+                log.debug("[Firestore] Committed batch of {} write(s)", batch.size());
                 return;
+            } catch (Exception e) {
+                if (attempt >= commitAttempts || !backoff(attempt)) {
+                    log.error("[Firestore] Error committing batch of {} write(s) after {} attempt(s), dropped: {}",
+                            batch.size(), attempt, e.getMessage(), e);
+                    return;
+                }
+                log.warn("[Firestore] Error committing batch of {} write(s), retrying (attempt {}/{}): {}",
+                        batch.size(), attempt, commitAttempts, e.getMessage());
             }
+        }
+    }
 
-            String collectionPath = "notifications/" + userId + "/items";
-            var collectionRef = db.collection(collectionPath);
-            
-            // Query tất cả notifications chưa đọc
-            var query = collectionRef.whereEqualTo("isRead", false);
-            var querySnapshot = query.get().get();
-            
-            if (querySnapshot.isEmpty()) {
-                log.info("[Firestore] No unread notifications to mark as read - UserId: {}", userId);
+    private void markAll(Integer userId) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int count = backend.markAllAsRead(userId, readUpdates());
+                log.info("[Firestore] Marked {} notifications as read - UserId: {}", count, userId);
                 return;
+            } catch (Exception e) {
+                if (attempt >= commitAttempts || !backoff(attempt)) {
+                    log.error("[Firestore] Error marking all notifications as read - UserId: {}: {}", userId, e.getMessage(), e);
+                    return;
+                }
+                log.warn("[Firestore] Error marking all notifications as read - UserId: {}, retrying (attempt {}/{}): {}",
+                        userId, attempt, commitAttempts, e.getMessage());
             }
+        }
+    }
 
-            // Batch update tất cả unread notifications
-            var batch = db.batch();
-            int count = 0;
-            for (var doc : querySnapshot.getDocuments()) {
-                Map<String, Object> updates = new HashMap<>();
-                updates.put("isRead", true);
-                updates.put("readAt", Instant.now().toString());
-                batch.update(doc.getReference(), updates);
-                count++;
-            }
-            
-            // Firestore batch limit là 500, nhưng chúng ta sẽ xử lý trong một batch
-            // Nếu có nhiều hơn 500, cần chia nhỏ, nhưng tạm thời giả sử không quá 500
-            batch.commit().get();
-            
-            log.info("[Firestore] Marked {} notifications as read - UserId: {}", count, userId);
-        } catch (Exception e) {
-            log.error("[Firestore] Error marking all notifications as read: {}", e.getMessage(), e);
+    // Chờ tăng dần giữa các lần thử; false nếu thread bị ngắt (đang shutdown)
+    private boolean backoff(int attempt) {
+        if (retryBackoffMs == 0) {
+            return true;
         }
+        try {
+            Thread.sleep(retryBackoffMs * attempt);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Map<String, Object> readUpdates() {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("isRead", true);
+        updates.put("readAt", Instant.now().toString());
+        return updates;
+    }
+
+    // Chuẩn bị dữ liệu notification
+    private static Map<String, Object> toDocument(NotificationResponse notification) {
+        Map<String, Object> notificationData = new HashMap<>();
+        notificationData.put("notificationId", notification.getNotificationId());
+        notificationData.put("userId", notification.getUserId());
+        notificationData.put("type", notification.getType());
+        notificationData.put("priority", notification.getPriority());
+        notificationData.put("title", notification.getTitle());
+        notificationData.put("message", notification.getMessage());
+        notificationData.put("actionUrl", notification.getActionUrl() != null ? notification.getActionUrl() : "");
+        notificationData.put("relatedEntityType",
+                notification.getRelatedEntityType() != null ? notification.getRelatedEntityType() : "");
+        notificationData.put("relatedEntityId",
+                notification.getRelatedEntityId() != null ? notification.getRelatedEntityId() : "");
+        notificationData.put("isRead", notification.getIsRead());
+        notificationData.put("createdAt",
+                notification.getCreatedAt() != null ? notification.getCreatedAt().toString() : Instant.now().toString());
+        notificationData.put("expiresAt",
+                notification.getExpiresAt() != null ? notification.getExpiresAt().toString() : "");
+        notificationData.put("readAt", notification.getReadAt() != null ? notification.getReadAt().toString() : "");
+        return notificationData;
     }
 }
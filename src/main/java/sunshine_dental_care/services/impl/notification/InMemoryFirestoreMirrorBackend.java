@@ -0,0 +1,57 @@
+package sunshine_dental_care.services.impl.notification;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Backend giả lưu trong bộ nhớ (app.firestore.mirror=memory): chạy test / môi trường không có Firebase,
+ * cùng ngữ nghĩa với Firestore (MARK_READ bỏ qua document không tồn tại).
+ */
+@Component
+@ConditionalOnProperty(name = "app.firestore.mirror", havingValue = "memory")
+public class InMemoryFirestoreMirrorBackend implements FirestoreMirrorBackend {
+
+    // userId -> notificationId -> document
+    private final Map<Integer, Map<Integer, Map<String, Object>>> documents = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized void commit(List<MirrorWrite> writes) {
+        for (MirrorWrite w : writes) {
+            Map<Integer, Map<String, Object>> items = documents.computeIfAbsent(w.userId(), k -> new ConcurrentHashMap<>());
+            if (w.kind() == Kind.UPSERT) {
+                items.put(w.notificationId(), new HashMap<>(w.data()));
+            } else if (w.kind() == Kind.DELETE) {
+                items.remove(w.notificationId());
+            } else {
+                Map<String, Object> existing = items.get(w.notificationId());
+                if (existing != null) {
+                    existing.putAll(w.data());
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int markAllAsRead(Integer userId, Map<String, Object> updates) {
+        int total = 0;
+        for (Map<String, Object> doc : documents.getOrDefault(userId, Map.of()).values()) {
+            if (Boolean.FALSE.equals(doc.get("isRead"))) {
+                doc.putAll(updates);
+                total++;
+            }
+        }
+        return total;
+    }
+
+    // Bản sao document của user, để test kiểm tra nội dung đã mirror
+    public synchronized Map<Integer, Map<String, Object>> documentsOf(Integer userId) {
+        Map<Integer, Map<String, Object>> copy = new HashMap<>();
+        documents.getOrDefault(userId, Map.of()).forEach((id, doc) -> copy.put(id, new HashMap<>(doc)));
+        return copy;
+    }
+}
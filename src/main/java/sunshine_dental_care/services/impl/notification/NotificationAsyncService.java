@@ -1,6 +1,13 @@
 package sunshine_dental_care.services.impl.notification;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Async;
@@ -34,6 +41,23 @@ public class NotificationAsyncService {
         log.info("Completed async distribution for notification {} to user {}", notification.getNotificationId(), userIdStr);
     }
 
+    // Phân phối 1 lô notification (sendBulkNotification / sendNotifications): WebSocket từng user,
+    // Firestore ghi theo batch, FCM multicast theo từng nhóm cùng nội dung
+    @Async
+    public void distributeBatch(List<NotificationResponse> notifications) {
+        if (notifications == null || notifications.isEmpty()) {
+            return;
+        }
+        NotificationResponse first = notifications.get(0);
+        log.info("Starting async batch distribution of {} notification(s) of type {}", notifications.size(), first.getType());
+
+        notifications.forEach(n -> sendToWebSocket(n, String.valueOf(n.getUserId())));
+        saveBatchToFirestore(notifications);
+        sendBatchToFCM(notifications);
+
+        log.info("Completed async batch distribution of {} notification(s) of type {}", notifications.size(), first.getType());
+    }
+
     // Gửi notification qua WebSocket
     private void sendToWebSocket(NotificationResponse notification, String userId) {
         try {
@@ -63,38 +87,82 @@ public class NotificationAsyncService {
     private void saveToFirestore(NotificationResponse notification) {
         try {
             firestoreService.saveNotification(notification);
-            log.info("[Firestore] Notification saved to Firestore for user: {}", notification.getUserId());
+            log.info("[Firestore] Notification queued for Firestore for user: {}", notification.getUserId());
         } catch (Exception e) {
             log.error("[Firestore] Error saving to Firestore: {}", e.getMessage(), e);
         }
     }
 
+    private void saveBatchToFirestore(List<NotificationResponse> notifications) {
+        try {
+            firestoreService.saveNotifications(notifications);
+        } catch (Exception e) {
+            log.error("[Firestore] Error saving batch to Firestore: {}", e.getMessage(), e);
+        }
+    }
+
+    // Gom token của cả lô trong 1 query, rồi multicast 1 lần cho mỗi nhóm cùng nội dung
+    // (lô từ sendBulkNotification chỉ có 1 nhóm; FCMService tự chia 500 token / lần)
+    private void sendBatchToFCM(List<NotificationResponse> notifications) {
+        try {
+            Set<Integer> userIds = notifications.stream()
+                    .map(NotificationResponse::getUserId)
+                    .collect(Collectors.toSet());
+            Map<Integer, List<String>> tokensByUser = userDeviceRepo.findByUserIdIn(userIds).stream()
+                    .collect(Collectors.groupingBy(d -> d.getUser().getId(),
+                            Collectors.mapping(UserDevice::getFcmToken, Collectors.toList())));
+            if (tokensByUser.isEmpty()) {
+                log.info("No FCM devices found for {} batch recipient(s)", userIds.size());
+                return;
+            }
+
+            Map<List<Object>, Set<String>> tokensByContent = new LinkedHashMap<>();
+            Map<List<Object>, NotificationResponse> contentSample = new HashMap<>();
+            for (NotificationResponse n : notifications) {
+                List<String> tokens = tokensByUser.get(n.getUserId());
+                if (tokens == null) continue;
+                List<Object> content = Arrays.asList(n.getTitle(), n.getMessage(), n.getActionUrl(),
+                        n.getRelatedEntityType(), n.getRelatedEntityId());
+                tokensByContent.computeIfAbsent(content, k -> new LinkedHashSet<>()).addAll(tokens);
+                contentSample.putIfAbsent(content, n);
+            }
+
+            tokensByContent.forEach((content, tokens) -> {
+                NotificationResponse sample = contentSample.get(content);
+                fcmService.sendMulticast(
+                        List.copyOf(tokens),
+                        sample.getTitle(),
+                        sample.getMessage(),
+                        sample.getActionUrl(),
+                        sample.getRelatedEntityType(),
+                        sample.getRelatedEntityId());
+            });
+        } catch (Exception e) {
+            log.error("Error sending batch FCM notifications: {}", e.getMessage(), e);
+        }
+    }
+
     // Gửi notification tới tất cả thiết bị FCM của user
     private void sendToFCM(NotificationResponse notification, Integer userId) {
         log.info("Start FCM notification process for user: {}", userId);
         try {
-            List<UserDevice> devices = userDeviceRepo.findByUserId(userId);
-            log.info("Found {} device(s) for user: {}", devices.size(), userId);
+            List<String> tokens = userDeviceRepo.findByUserId(userId).stream()
+                    .map(UserDevice::getFcmToken)
+                    .distinct()
+                    .toList();
+            log.info("Found {} device(s) for user: {}", tokens.size(), userId);
 
-            if (devices.isEmpty()) {
+            if (tokens.isEmpty()) {
                 log.warn("No FCM devices found for user: {}", userId);
             } else {
-                int successCount = 0;
-                for (UserDevice device : devices) {
-                    try {
-                        fcmService.sendNotification(
-                                device.getFcmToken(),
-                                notification.getTitle(),
-                                notification.getMessage(),
-                                notification.getActionUrl(),
-                                notification.getRelatedEntityType(),
-                                notification.getRelatedEntityId());
-                        successCount++;
-                    } catch (Exception e) {
-                        log.error("Failed to send FCM to device {} (type: {}): {}", device.getId(), device.getDeviceType(), e.getMessage(), e);
-                    }
-                }
-                log.info("FCM notifications summary: {}/{} devices sent successfully for user: {}", successCount, devices.size(), userId);
+                // 1 lần multicast cho mọi thiết bị của user; FCMService tự xoá token đã chết
+                fcmService.sendMulticast(
+                        tokens,
+                        notification.getTitle(),
+                        notification.getMessage(),
+                        notification.getActionUrl(),
+                        notification.getRelatedEntityType(),
+                        notification.getRelatedEntityId());
             }
         } catch (Exception e) {
             log.error("Error sending FCM notifications: {}", e.getMessage(), e);
@@ -1,13 +1,25 @@
 package sunshine_dental_care.services.impl.notification;
 
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronization;
@@ -35,6 +47,24 @@ public class NotificationService {
     private final UserRepo userRepo;
     private final FirestoreService firestoreService;
     private final NotificationAsyncService notificationAsyncService;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 12 tham số / dòng, SQL Server giới hạn 2100 tham số mỗi câu lệnh
+    static final int BULK_INSERT_CHUNK = 150;
+    // MERGE ... ON 1 = 0 để OUTPUT được cả cột nguồn (idx) lẫn id IDENTITY -> ghép id đúng với từng dòng,
+    // kể cả khi 1 user có nhiều thông báo khác nội dung trong cùng lô
+    private static final String BULK_INSERT_SQL = """
+            MERGE INTO Logs AS t
+            USING (VALUES %s) AS s (idx, userId, type, priority, title, message, actionUrl, relatedEntityType,
+                                   relatedEntityId, createdAt, actionTime, expiresAt)
+            ON 1 = 0
+            WHEN NOT MATCHED THEN
+                INSERT (userId, type, priority, title, message, actionUrl, relatedEntityType, relatedEntityId,
+                        isRead, createdAt, actionTime, expiresAt)
+                VALUES (s.userId, s.type, s.priority, s.title, s.message, s.actionUrl, s.relatedEntityType,
+                        s.relatedEntityId, 0, s.createdAt, s.actionTime, s.expiresAt)
+            OUTPUT s.idx, INSERTED.notificationId;""";
+    private static final String BULK_INSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
     // Gửi thông báo qua DB, sau khi commit thì mới gửi qua WebSocket, Firestore, FCM
     @Transactional
@@ -87,6 +117,154 @@ public class NotificationService {
         return response;
     }
 
+    // Gửi cùng một thông báo cho nhiều user: lọc user 1 query, ghi Logs theo lô,
+    // sau commit phân phối 1 lần cho cả lô (WebSocket từng user, Firestore batch, FCM multicast).
+    // userId trong template bị bỏ qua; user không tồn tại chỉ bị bỏ qua, không làm hỏng cả lô.
+    @Transactional
+    public List<NotificationResponse> sendBulkNotification(Collection<Integer> userIds, NotificationRequest template) {
+        if (userIds == null || userIds.isEmpty()) {
+            return List.of();
+        }
+        Set<Integer> requested = userIds.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (requested.isEmpty()) {
+            return List.of();
+        }
+
+        Set<Integer> existing = new HashSet<>(userRepo.findExistingIds(requested));
+        List<NotificationRequest> rows = requested.stream()
+                .filter(existing::contains)
+                .map(userId -> copyFor(userId, template))
+                .toList();
+        if (rows.size() < requested.size()) {
+            log.warn("Skipping {} unknown recipient(s) for {} notification", requested.size() - rows.size(),
+                    template.getType());
+        }
+        return insertAndDistribute(rows, template.getType());
+    }
+
+    // Nhiều thông báo khác nội dung (vd: nhắc lịch hẹn, mỗi lịch 1 giờ hẹn riêng) trong 1 transaction:
+    // ghi Logs theo lô, sau commit phân phối 1 lần. Thông báo của user không tồn tại bị bỏ qua.
+    @Transactional
+    public List<NotificationResponse> sendNotifications(List<NotificationRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return List.of();
+        }
+        Set<Integer> requested = requests.stream()
+                .map(NotificationRequest::getUserId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Integer> existing = requested.isEmpty() ? Set.of() : new HashSet<>(userRepo.findExistingIds(requested));
+        List<NotificationRequest> rows = requests.stream()
+                .filter(r -> r.getUserId() != null && existing.contains(r.getUserId()))
+                .toList();
+        if (rows.size() < requests.size()) {
+            log.warn("Skipping {} notification(s) for unknown recipients", requests.size() - rows.size());
+        }
+        return insertAndDistribute(rows, rows.isEmpty() ? null : rows.get(0).getType());
+    }
+
+    private List<NotificationResponse> insertAndDistribute(List<NotificationRequest> rows, String type) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Instant now = Instant.now();
+        List<NotificationResponse> responses = new ArrayList<>(rows.size());
+        for (int from = 0; from < rows.size(); from += BULK_INSERT_CHUNK) {
+            insertChunk(rows.subList(from, Math.min(from + BULK_INSERT_CHUNK, rows.size())), now, responses);
+        }
+        log.info("Bulk notification {} saved to SQL Server (Logs table): {} row(s)", type, responses.size());
+
+        List<NotificationResponse> batch = List.copyOf(responses);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    notificationAsyncService.distributeBatch(batch);
+                } catch (Exception e) {
+                    log.error("Failed to trigger async batch notification distribution: {}", e.getMessage(), e);
+                }
+            }
+        });
+
+        return batch;
+    }
+
+    private static NotificationRequest copyFor(Integer userId, NotificationRequest template) {
+        return NotificationRequest.builder()
+                .userId(userId)
+                .type(template.getType())
+                .priority(template.getPriority())
+                .title(template.getTitle())
+                .message(template.getMessage())
+                .actionUrl(template.getActionUrl())
+                .relatedEntityType(template.getRelatedEntityType())
+                .relatedEntityId(template.getRelatedEntityId())
+                .expiresAt(template.getExpiresAt())
+                .build();
+    }
+
+    // Ghi nhiều dòng + OUTPUT để lấy lại id IDENTITY trong cùng 1 round-trip
+    private void insertChunk(List<NotificationRequest> rows, Instant now, List<NotificationResponse> out) {
+        String sql = BULK_INSERT_SQL.formatted(String.join(", ", Collections.nCopies(rows.size(), BULK_INSERT_ROW)));
+        Timestamp createdAt = Timestamp.from(now);
+
+        PreparedStatementSetter setter = ps -> {
+            int i = 1;
+            int idx = 0;
+            for (NotificationRequest row : rows) {
+                ps.setInt(i++, idx++);
+                ps.setInt(i++, row.getUserId());
+                ps.setString(i++, row.getType());
+                ps.setString(i++, priorityOf(row));
+                ps.setString(i++, row.getTitle());
+                ps.setString(i++, row.getMessage());
+                ps.setString(i++, row.getActionUrl());
+                ps.setString(i++, row.getRelatedEntityType());
+                if (row.getRelatedEntityId() != null) {
+                    ps.setInt(i++, row.getRelatedEntityId());
+                } else {
+                    ps.setNull(i++, Types.INTEGER);
+                }
+                ps.setTimestamp(i++, createdAt);
+                ps.setTimestamp(i++, createdAt);
+                ps.setTimestamp(i++, row.getExpiresAt() != null ? Timestamp.from(row.getExpiresAt()) : null);
+            }
+        };
+        // Thứ tự dòng OUTPUT không được đảm bảo -> sắp lại theo idx để kết quả khớp thứ tự request
+        NotificationResponse[] inserted = new NotificationResponse[rows.size()];
+        RowCallbackHandler collector = rs -> {
+            NotificationRequest row = rows.get(rs.getInt(1));
+            inserted[rs.getInt(1)] = NotificationResponse.builder()
+                    .notificationId(rs.getInt(2))
+                    .userId(row.getUserId())
+                    .type(row.getType())
+                    .priority(priorityOf(row))
+                    .title(row.getTitle())
+                    .message(row.getMessage())
+                    .isRead(false)
+                    .actionUrl(row.getActionUrl())
+                    .relatedEntityType(row.getRelatedEntityType())
+                    .relatedEntityId(row.getRelatedEntityId())
+                    .createdAt(now)
+                    .expiresAt(row.getExpiresAt())
+                    .build();
+        };
+        jdbcTemplate.query(sql, setter, collector);
+        for (NotificationResponse response : inserted) {
+            if (response == null) {
+                // Không được xảy ra; dừng hẳn (rollback) thay vì phân phối thiếu thông báo
+                throw new IllegalStateException("Bulk notification insert did not return every row");
+            }
+            out.add(response);
+        }
+    }
+
+    private static String priorityOf(NotificationRequest request) {
+        return request.getPriority() != null ? request.getPriority() : "MEDIUM";
+    }
+
     // Đăng ký (hoặc cập nhật) thiết bị FCM cho user
     @Transactional
     public void registerDevice(Integer userId, String token, String deviceType) {
@@ -141,12 +319,8 @@ public class NotificationService {
         notification.setReadAt(Instant.now());
         notification = notificationRepository.save(notification);
 
-        // Gửi cập nhật lên Firestore, không throw lỗi để không làm rollback transaction
-        try {
-            firestoreService.markAsRead(userId, notificationId);
-        } catch (Exception e) {
-            log.error("[Firestore] Error marking as read in Firestore: {}", e.getMessage());
-        }
+        // Firestore cập nhật sau commit, ghi theo lô ở thread riêng -> không giữ transaction chờ mạng
+        afterCommit(() -> firestoreService.markAsRead(userId, notificationId));
 
         return toResponse(notification);
     }
@@ -155,13 +329,9 @@ public class NotificationService {
     @Transactional
     public void markAllAsRead(Integer userId) {
         notificationRepository.markAllAsRead(userId);
-        
-        // Gửi cập nhật lên Firestore, không throw lỗi để không làm rollback transaction
-        try {
-            firestoreService.markAllAsRead(userId);
-        } catch (Exception e) {
-            log.error("[Firestore] Error marking all as read in Firestore: {}", e.getMessage());
-        }
+
+        // Firestore: query các document chưa đọc rồi batch update, chạy sau commit ở thread ghi Firestore
+        afterCommit(() -> firestoreService.markAllAsRead(userId));
     }
 
     @Transactional(readOnly = true)
@@ -210,6 +380,27 @@ public class NotificationService {
                 .collect(Collectors.toList());
     }
 
+    // Chạy action sau khi transaction commit (chạy ngay nếu không có transaction); lỗi chỉ ghi log
+    private void afterCommit(Runnable action) {
+        Runnable safe = () -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                log.error("[Firestore] Error queueing Firestore update: {}", e.getMessage(), e);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            safe.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                safe.run();
+            }
+        });
+    }
+
     // Convert Log entity sang NotificationResponse DTO
     private NotificationResponse toResponse(Log notification) {
         return NotificationResponse.builder()
@@ -20,6 +20,7 @@ import sunshine_dental_care.repositories.reception.InvoiceRepo; // [QUAN TRỌNG
 import sunshine_dental_care.repositories.doctor.MedicalRecordRepository; // [QUAN TRỌNG] Dùng để lấy bệnh án
 import sunshine_dental_care.repositories.reception.ServiceVariantRepo;
 import sunshine_dental_care.services.auth_service.MailService;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
 import sunshine_dental_care.services.interfaces.patient.PatientService;
 
 import java.math.BigDecimal;
@@ -49,6 +50,8 @@ public class PatientServiceImpl implements PatientService {
     // Inject 2 Repo quan trọng mới thêm
     private final InvoiceRepo invoiceRepo;
     private final MedicalRecordRepository medicalRecordRepository;
+    // Lịch đặt / huỷ từ app bệnh nhân cũng phải hiện ngay trên màn hình lễ tân
+    private final ReceptionDashboardPublisher dashboardPublisher;
 
     // --- HELPER METHOD: Tìm User ---
     private User findUser(String userIdOrEmail) {
@@ -252,6 +255,7 @@ public class PatientServiceImpl implements PatientService {
         String oldNote = appt.getNote() == null ? "" : appt.getNote();
         appt.setNote(oldNote + " | [Khách hủy: " + reason + "]");
         appointmentRepo.save(appt);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.STATUS_CHANGED, appt);
 
         try {
             String serviceName = "Nha khoa tổng quát";
@@ -299,6 +303,7 @@ public class PatientServiceImpl implements PatientService {
         appt.setBookingFee(BigDecimal.ZERO);
         appt = appointmentRepo.save(appt);
 
+        List<AppointmentService> appointmentServices = new ArrayList<>();
         for (ServiceVariant v : selectedVariants) {
             AppointmentService as = new AppointmentService();
             as.setAppointment(appt);
@@ -307,8 +312,11 @@ public class PatientServiceImpl implements PatientService {
             as.setUnitPrice(v.getPrice());
             as.setDiscountPct(BigDecimal.ZERO);
             as.setNote(v.getVariantName());
-            appointmentServiceRepo.save(as);
+            appointmentServices.add(appointmentServiceRepo.save(as));
         }
+        // Gắn dịch vụ vào lịch hẹn để payload gửi lễ tân có đủ danh sách dịch vụ
+        appt.setAppointmentServices(appointmentServices);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, appt);
         return appt;
     }
 
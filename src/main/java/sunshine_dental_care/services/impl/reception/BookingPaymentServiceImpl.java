@@ -16,6 +16,7 @@ import sunshine_dental_care.entities.Appointment;
 import sunshine_dental_care.repositories.reception.AppointmentRepo;
 import sunshine_dental_care.services.huybro_checkout.paypal.services.client.PaypalApiClient;
 import sunshine_dental_care.services.huybro_checkout.vnpay.services.client.VnpayConfig;
+import sunshine_dental_care.services.scheduler.BookingExpiryTimer;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -33,6 +34,8 @@ public class BookingPaymentServiceImpl {
     private final AppointmentRepo appointmentRepo;
     private final VnpayConfig vnpayConfig;
     private final PaypalApiClient paypalClient;
+    private final ReceptionDashboardPublisher dashboardPublisher;
+    private final BookingExpiryTimer bookingExpiryTimer;
 
     @Value("${paypal.client-id}")
     private String clientId;
@@ -121,6 +124,8 @@ public class BookingPaymentServiceImpl {
             appt.setTransactionRef(vnpParams.get("vnp_TransactionNo"));
             if ("AWAITING_PAYMENT".equals(appt.getStatus())) appt.setStatus("SCHEDULED");
             appointmentRepo.save(appt);
+            bookingExpiryTimer.untrack(appointmentId);
+            dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.PAID, appt);
         } else {
             throw new RuntimeException("Payment Failed");
         }
@@ -206,6 +211,8 @@ public class BookingPaymentServiceImpl {
                 appt.setStatus("SCHEDULED");
             }
             appointmentRepo.save(appt);
+            bookingExpiryTimer.untrack(appointmentId);
+            dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.PAID, appt);
         } else {
             throw new RuntimeException("PayPal Capture Failed");
         }
@@ -56,6 +56,7 @@ public class BookingServiceImpl implements BookingService {
     private final AppointmentServiceRepo appointmentServiceRepo;
     private final MailService mailService;
     private final NotificationService notificationService;
+    private final ReceptionDashboardPublisher dashboardPublisher;
 
     // Các khung giờ cố định
     private static final List<LocalTime> FIXED_SLOTS = List.of(
@@ -200,6 +201,7 @@ public class BookingServiceImpl implements BookingService {
 
         notifyBookingSuccess(savedAppointment);
         sendAppointmentCreatedNotification(savedAppointment);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, savedAppointment);
 
         return savedAppointment;
     }
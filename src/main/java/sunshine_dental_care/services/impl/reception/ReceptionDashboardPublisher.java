@@ -0,0 +1,201 @@
+package sunshine_dental_care.services.impl.reception;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.dto.receptionDTO.ReceptionDashboardEvent;
+import sunshine_dental_care.dto.receptionDTO.mapper.AppointmentMapper;
+import sunshine_dental_care.dto.receptionDTO.mapper.DoctorScheduleMapper;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
+
+/**
+ * Phát delta lịch hẹn / lịch bác sĩ cho màn hình lễ tân qua STOMP, thay cho việc client poll cả ngày.
+ * Mỗi clinic có 1 bộ đếm version; delta chỉ được gửi sau khi transaction commit thành công.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ReceptionDashboardPublisher {
+
+    public static final String CREATED = "CREATED";
+    public static final String RESCHEDULED = "RESCHEDULED";
+    public static final String STATUS_CHANGED = "STATUS_CHANGED";
+    public static final String ROOM_ASSIGNED = "ROOM_ASSIGNED";
+    public static final String PAID = "PAID";
+    public static final String SCHEDULE_CHANGED = "SCHEDULE_CHANGED";
+    // Gửi cho clinic cũ khi lịch hẹn chuyển sang clinic khác: client xoá lịch hẹn khỏi màn hình
+    public static final String MOVED_OUT = "MOVED_OUT";
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Ho_Chi_Minh");
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final AppointmentMapper appointmentMapper;
+    private final DoctorScheduleMapper doctorScheduleMapper;
+    private final DoctorScheduleRepo doctorScheduleRepo;
+
+    // Epoch đổi mỗi lần khởi động, version reset về 0 -> client thấy epoch khác sẽ tự resync
+    private final long epoch = System.currentTimeMillis();
+    private final Map<Integer, AtomicLong> versions = new ConcurrentHashMap<>();
+    // Thành phần khác cần biết lịch hẹn vừa đổi (vd: cache dashboard admin), gọi sau commit
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    // Nhận (loại thay đổi, lịch hẹn) ngay lúc gọi, còn trong transaction; listener tự quyết làm gì sau commit
+    private final List<BiConsumer<String, Appointment>> appointmentListeners = new CopyOnWriteArrayList<>();
+
+    public static String topicFor(Integer clinicId) {
+        return "/topic/reception/clinics/" + clinicId;
+    }
+
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    public void addAppointmentListener(BiConsumer<String, Appointment> listener) {
+        appointmentListeners.add(listener);
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long currentVersion(Integer clinicId) {
+        return versionOf(clinicId).get();
+    }
+
+    // Lịch hẹn thay đổi: payload được map ngay trước commit (còn session) và chỉ gửi sau commit
+    public void appointmentChanged(String type, Appointment appointment) {
+        if (appointment == null) return;
+        for (BiConsumer<String, Appointment> listener : appointmentListeners) {
+            try {
+                listener.accept(type, appointment);
+            } catch (Exception e) {
+                log.warn("[ReceptionDashboard] Appointment listener failed: {}", e.getMessage());
+            }
+        }
+        if (appointment.getClinic() == null) return;
+        Integer clinicId = appointment.getClinic().getId();
+
+        publishAfterCommit(clinicId, () -> ReceptionDashboardEvent.builder()
+                .clinicId(clinicId)
+                .type(type)
+                .appointmentId(appointment.getId())
+                .date(appointment.getStartDateTime() != null
+                        ? appointment.getStartDateTime().atZone(ZONE_ID).toLocalDate()
+                        : null)
+                .appointment(appointmentMapper.mapToAppointmentResponse(appointment))
+                .build());
+    }
+
+    // Như trên; nếu lịch hẹn vừa chuyển clinic thì clinic cũ cũng nhận delta MOVED_OUT
+    public void appointmentChanged(String type, Appointment appointment, Integer previousClinicId) {
+        appointmentChanged(type, appointment);
+        if (appointment == null || previousClinicId == null) return;
+        Integer clinicId = appointment.getClinic() != null ? appointment.getClinic().getId() : null;
+        if (previousClinicId.equals(clinicId)) return;
+
+        Integer appointmentId = appointment.getId();
+        publishAfterCommit(previousClinicId, () -> ReceptionDashboardEvent.builder()
+                .clinicId(previousClinicId)
+                .type(MOVED_OUT)
+                .appointmentId(appointmentId)
+                .build());
+    }
+
+    // Lịch bác sĩ thay đổi: gửi lại danh sách ca của đúng ngày đó (số lượng nhỏ, ít thay đổi)
+    public void scheduleChanged(Integer clinicId, LocalDate workDate) {
+        if (clinicId == null || workDate == null) return;
+
+        publishAfterCommit(clinicId, () -> ReceptionDashboardEvent.builder()
+                .clinicId(clinicId)
+                .type(SCHEDULE_CHANGED)
+                .date(workDate)
+                .schedules(doctorScheduleRepo.findByClinicAndDate(clinicId, workDate).stream()
+                        .map(doctorScheduleMapper::mapToScheduleDto)
+                        .toList())
+                .build());
+    }
+
+    private void publishAfterCommit(Integer clinicId, Supplier<ReceptionDashboardEvent> payload) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            send(clinicId, buildSafely(payload));
+            notifyListeners();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private ReceptionDashboardEvent event;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                event = buildSafely(payload);
+            }
+
+            @Override
+            public void afterCommit() {
+                send(clinicId, event);
+                notifyListeners();
+            }
+        });
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.warn("[ReceptionDashboard] Change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private ReceptionDashboardEvent buildSafely(Supplier<ReceptionDashboardEvent> payload) {
+        try {
+            return payload.get();
+        } catch (Exception e) {
+            // Không làm hỏng nghiệp vụ chính; client sẽ resync khi thấy version bị nhảy
+            log.error("[ReceptionDashboard] Failed to build delta: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private void send(Integer clinicId, ReceptionDashboardEvent event) {
+        AtomicLong version = versionOf(clinicId);
+        // Khóa theo clinic để version được gửi đi theo đúng thứ tự tăng dần
+        synchronized (version) {
+            long next = version.incrementAndGet();
+            if (event == null) {
+                // Bỏ qua 1 version -> client phát hiện khoảng trống và tải lại snapshot
+                log.warn("[ReceptionDashboard] Skipped version {} for clinic {}", next, clinicId);
+                return;
+            }
+            event.setEpoch(epoch);
+            event.setVersion(next);
+            event.setOccurredAt(Instant.now());
+            try {
+                messagingTemplate.convertAndSend(topicFor(clinicId), event);
+                log.debug("[ReceptionDashboard] {} v{} sent to clinic {}", event.getType(), next, clinicId);
+            } catch (Exception e) {
+                log.error("[ReceptionDashboard] Error sending delta to clinic {}: {}", clinicId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private AtomicLong versionOf(Integer clinicId) {
+        return versions.computeIfAbsent(clinicId, id -> new AtomicLong());
+    }
+}
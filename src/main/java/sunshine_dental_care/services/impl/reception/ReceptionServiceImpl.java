@@ -26,6 +26,7 @@ import sunshine_dental_care.dto.receptionDTO.BillInvoiceDTO;
 import sunshine_dental_care.dto.receptionDTO.PatientHistoryDTO;
 import sunshine_dental_care.dto.receptionDTO.PatientRequest;
 import sunshine_dental_care.dto.receptionDTO.PatientResponse;
+import sunshine_dental_care.dto.receptionDTO.ReceptionDashboardSnapshot;
 import sunshine_dental_care.dto.receptionDTO.RescheduleRequest;
 import sunshine_dental_care.dto.receptionDTO.ServiceItemRequest;
 import sunshine_dental_care.dto.receptionDTO.mapper.AppointmentMapper;
@@ -63,6 +64,7 @@ import sunshine_dental_care.services.auth_service.PatientCodeService;
 import sunshine_dental_care.services.impl.notification.NotificationService;
 import sunshine_dental_care.services.interfaces.reception.ReceptionService;
 import sunshine_dental_care.services.interfaces.system.SystemConfigService;
+import sunshine_dental_care.services.scheduler.BookingExpiryTimer;
 
 @Service
 @RequiredArgsConstructor
@@ -88,6 +90,8 @@ public class ReceptionServiceImpl implements ReceptionService {
     private final MailService mailService;
     private final NotificationService notificationService;
     private final SystemConfigService systemConfigService;
+    private final ReceptionDashboardPublisher dashboardPublisher;
+    private final BookingExpiryTimer bookingExpiryTimer;
 
 
     private Integer getReceptionistClinicId(CurrentUser currentUser) {
@@ -118,6 +122,28 @@ public class ReceptionServiceImpl implements ReceptionService {
                 .map(appointmentMapper::mapToAppointmentResponse).collect(Collectors.toList());
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public ReceptionDashboardSnapshot getDashboardSnapshot(CurrentUser currentUser, LocalDate date, Integer requestedClinicId) {
+        Integer defaultClinicId = getReceptionistClinicId(currentUser);
+        Integer targetClinicId = (requestedClinicId != null && requestedClinicId > 0) ? requestedClinicId : defaultClinicId;
+
+        // Đọc version TRƯỚC khi load dữ liệu: delta nào commit xen giữa sẽ được client áp dụng lại (upsert theo id)
+        long version = dashboardPublisher.currentVersion(targetClinicId);
+
+        return ReceptionDashboardSnapshot.builder()
+                .clinicId(targetClinicId)
+                .date(date)
+                .epoch(dashboardPublisher.getEpoch())
+                .version(version)
+                .topic(ReceptionDashboardPublisher.topicFor(targetClinicId))
+                .appointments(appointmentRepo.findByClinicIdAndDate(targetClinicId, date).stream()
+                        .map(appointmentMapper::mapToAppointmentResponse).collect(Collectors.toList()))
+                .schedules(doctorScheduleRepo.findByClinicAndDate(targetClinicId, date).stream()
+                        .map(doctorScheduleMapper::mapToScheduleDto).collect(Collectors.toList()))
+                .build();
+    }
+
     private void validateDoctorWorkingHours(Integer doctorId, Integer clinicId, Instant start, Instant end) {
         java.time.ZoneId zoneId = java.time.ZoneId.of("Asia/Ho_Chi_Minh");
         LocalDate bookingDate = start.atZone(zoneId).toLocalDate();
@@ -244,6 +270,11 @@ public class ReceptionServiceImpl implements ReceptionService {
 
         appointment = appointmentRepo.save(appointment);
 
+        // Lịch đặt online chờ cọc: đăng ký hạn thanh toán để tự hủy đúng giờ
+        if (BookingExpiryTimer.AWAITING_PAYMENT.equals(appointment.getStatus())) {
+            bookingExpiryTimer.track(appointment.getId(), appointment.getCreatedAt());
+        }
+
         // 6. LƯU DỊCH VỤ
         for (ServiceItemRequest req : request.getServices()) {
             sunshine_dental_care.entities.ServiceVariant v = serviceVariantRepo.findById(req.getServiceId())
@@ -256,6 +287,7 @@ public class ReceptionServiceImpl implements ReceptionService {
 
         // Gửi notification APPOINTMENT_CREATED cho patient
         sendAppointmentCreatedNotification(appointment);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, appointment);
 
         return appointmentMapper.mapToAppointmentResponse(appointment);
     }
@@ -282,6 +314,7 @@ public class ReceptionServiceImpl implements ReceptionService {
 
         Appointment appointment = appointmentRepo.findById(appointmentId)
                 .orElseThrow(() -> new ResourceNotFoundException("Appointment not found"));
+        Integer originalClinicId = appointment.getClinic() != null ? appointment.getClinic().getId() : null;
 
         // Bác sĩ hiện tại (có thể null nếu lịch đang ở hàng chờ)
         User originalDoctor = appointment.getDoctor();
@@ -367,7 +400,10 @@ public class ReceptionServiceImpl implements ReceptionService {
             logRepo.save(actionLog);
         }
 
-        return appointmentMapper.mapToAppointmentResponse(appointmentRepo.save(appointment));
+        Appointment saved = appointmentRepo.save(appointment);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.RESCHEDULED, saved, originalClinicId);
+
+        return appointmentMapper.mapToAppointmentResponse(saved);
     }
 
     @Override
@@ -488,6 +524,7 @@ public class ReceptionServiceImpl implements ReceptionService {
         }
 
         Appointment savedAppointment = appointmentRepo.save(appointment);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.STATUS_CHANGED, savedAppointment);
 
         // Gửi thông báo cho patient khi reception xác nhận hoặc hủy lịch
         if (newStatus != null && !newStatus.equals(oldStatus)) {
@@ -636,7 +673,9 @@ public class ReceptionServiceImpl implements ReceptionService {
         // LOGIC RESET: Nếu roomId là null, nghĩa là muốn reset phòng
         if (roomId == null) {
             appt.setRoom(null);
-            return appointmentMapper.mapToAppointmentResponse(appointmentRepo.save(appt));
+            Appointment resetAppt = appointmentRepo.save(appt);
+            dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.ROOM_ASSIGNED, resetAppt);
+            return appointmentMapper.mapToAppointmentResponse(resetAppt);
         }
         // 2. Lấy thông tin phòng
         Room room = roomRepo.findById(roomId)
@@ -663,6 +702,7 @@ public class ReceptionServiceImpl implements ReceptionService {
         // 5. Gán phòng và Lưu
         appt.setRoom(room);
         Appointment savedAppt = appointmentRepo.save(appt);
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.ROOM_ASSIGNED, savedAppt);
 
         // 6. Map dữ liệu vừa lưu sang DTO và trả về cho Controller
         return appointmentMapper.mapToAppointmentResponse(savedAppt);
@@ -803,6 +843,7 @@ public class ReceptionServiceImpl implements ReceptionService {
         appt.setRoom(null);
 
         appointmentRepo.save(appt); // Lúc này invoiceCode sẽ được lưu cứng vào DB
+        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.PAID, appt);
 
         // 3. TÍCH ĐIỂM & CẬP NHẬT RANK CHO BỆNH NHÂN
         Patient patient = appt.getPatient();
@@ -0,0 +1,277 @@
+package sunshine_dental_care.services.impl.reception;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.dto.receptionDTO.RoomAllocationResult;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.DoctorSchedule;
+import sunshine_dental_care.entities.Room;
+import sunshine_dental_care.exceptions.reception.AccessDeniedException;
+import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
+import sunshine_dental_care.repositories.hr.RoomRepo;
+import sunshine_dental_care.repositories.hr.UserClinicAssignmentRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.security.CurrentUser;
+
+/**
+ * Xếp phòng cho cả ngày của 1 cơ sở (interval partitioning), thay vì lễ tân xếp từng lịch và thử lại khi trùng.
+ * - Load lịch hẹn, phòng, ca bác sĩ trong ngày đúng 1 lần.
+ * - Lịch đã có phòng được giữ nguyên (chạy lại sau khi có thay đổi chỉ xếp những lịch chưa có phòng).
+ * - reset=true mà lịch không xếp được vào phòng nào thì vẫn giữ phòng cũ (báo trong danh sách unassigned).
+ * - Lịch VIP chỉ vào phòng riêng (isPrivate); lịch thường ưu tiên phòng chung để dành phòng riêng cho VIP.
+ * - Ưu tiên phòng đã gán cho ca của bác sĩ, sau đó chọn phòng trống "vừa khít" nhất (ít thời gian chết nhất).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RoomAllocationService {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final int BATCH_SIZE = 50;
+
+    // Lịch ở các trạng thái này không chiếm phòng
+    private static final Set<String> RELEASED_STATUSES = Set.of("CANCELLED", "REJECTED", "COMPLETED");
+    // Đang khám thì không được đổi phòng
+    private static final Set<String> LOCKED_STATUSES = Set.of("IN_PROGRESS", "IN-PROGRESS");
+
+    private final AppointmentRepo appointmentRepo;
+    private final RoomRepo roomRepo;
+    private final DoctorScheduleRepo doctorScheduleRepo;
+    private final UserClinicAssignmentRepo userClinicAssignmentRepo;
+    private final ReceptionDashboardPublisher dashboardPublisher;
+    private final EntityManager entityManager;
+
+    /**
+     * @param reset true = bỏ phòng của các lịch chưa bắt đầu khám rồi xếp lại toàn bộ ngày;
+     *              false = chỉ xếp các lịch chưa có phòng (dùng khi có thay đổi muộn)
+     */
+    @Transactional
+    public RoomAllocationResult planDay(CurrentUser currentUser, Integer clinicId, LocalDate date, boolean reset) {
+        checkClinicAccess(currentUser, clinicId);
+
+        List<Appointment> appointments = appointmentRepo.findByClinicIdAndDate(clinicId, date);
+        List<Room> rooms = roomRepo.findByClinicIdAndIsActiveTrueOrderByRoomNameAsc(clinicId);
+        Map<Integer, List<DoctorSchedule>> schedulesByDoctor = doctorScheduleRepo.findByClinicAndDate(clinicId, date)
+                .stream()
+                .filter(s -> s.getDoctor() != null && s.getRoom() != null)
+                .collect(Collectors.groupingBy(s -> s.getDoctor().getId()));
+
+        long planStart = System.nanoTime();
+
+        // Mỗi phòng giữ các khoảng bận đã gộp, sắp theo giờ bắt đầu -> kiểm tra trùng O(log n)
+        Map<Integer, RoomTimeline> occupancy = new HashMap<>();
+        for (Room room : rooms) {
+            occupancy.put(room.getId(), new RoomTimeline());
+        }
+
+        Map<Integer, Integer> originalRoom = new HashMap<>();
+        List<Appointment> toPlan = new ArrayList<>();
+        int kept = 0;
+
+        // 1. Giữ các lịch đã có phòng, gom các lịch cần xếp
+        for (Appointment appt : appointments) {
+            String status = normalize(appt.getStatus());
+            if (RELEASED_STATUSES.contains(status) || appt.getEndDateTime() == null) continue;
+
+            Integer currentRoomId = appt.getRoom() != null ? appt.getRoom().getId() : null;
+            originalRoom.put(appt.getId(), currentRoomId);
+
+            boolean keep = currentRoomId != null && (!reset || LOCKED_STATUSES.contains(status));
+            if (keep) {
+                occupy(occupancy, currentRoomId, appt);
+                kept++;
+            } else if (!LOCKED_STATUSES.contains(status)) {
+                toPlan.add(appt);
+            }
+        }
+
+        // 2. Greedy theo giờ bắt đầu (interval partitioning)
+        toPlan.sort(Comparator.comparing(Appointment::getStartDateTime)
+                .thenComparing(Appointment::getEndDateTime));
+
+        List<RoomAllocationResult.Unassigned> unassigned = new ArrayList<>();
+        Map<Appointment, Room> planned = new HashMap<>();
+
+        for (Appointment appt : toPlan) {
+            boolean vip = "VIP".equalsIgnoreCase(appt.getAppointmentType());
+            Integer preferredRoomId = doctorRoomFor(appt, schedulesByDoctor);
+
+            Room best = null;
+            long bestScore = Long.MAX_VALUE;
+            for (Room room : rooms) {
+                boolean isPrivate = Boolean.TRUE.equals(room.getIsPrivate());
+                if (vip && !isPrivate) continue;
+
+                RoomTimeline timeline = occupancy.get(room.getId());
+                if (timeline.overlaps(appt.getStartDateTime(), appt.getEndDateTime())) continue;
+
+                // Điểm càng nhỏ càng tốt: phòng ca bác sĩ < phòng chung < phòng riêng, rồi đến thời gian chết
+                long score = timeline.idleMinutesBefore(appt.getStartDateTime(), date.atStartOfDay(ZONE_ID).toInstant());
+                if (!room.getId().equals(preferredRoomId)) score += 1_000_000L;
+                if (!vip && isPrivate) score += 100_000L;
+
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = room;
+                }
+            }
+
+            if (best == null) {
+                String reason = vip ? "Không còn phòng riêng (VIP) trống trong khung giờ này"
+                        : "Không còn phòng trống trong khung giờ này";
+                // reset=true: không xếp được thì giữ phòng cũ thay vì bỏ trống phòng của lịch
+                Integer oldRoomId = originalRoom.get(appt.getId());
+                if (oldRoomId != null) {
+                    occupy(occupancy, oldRoomId, appt);
+                    reason += ", giữ phòng cũ";
+                }
+                unassigned.add(RoomAllocationResult.Unassigned.builder()
+                        .appointmentId(appt.getId())
+                        .startDateTime(appt.getStartDateTime())
+                        .endDateTime(appt.getEndDateTime())
+                        .reason(reason)
+                        .build());
+                continue;
+            }
+            occupy(occupancy, best.getId(), appt);
+            planned.put(appt, best);
+        }
+
+        long planningMillis = Duration.ofNanos(System.nanoTime() - planStart).toMillis();
+
+        // 3. Lưu: chỉ những lịch thực sự đổi phòng, flush theo batch trong 1 transaction
+        entityManager.unwrap(Session.class).setJdbcBatchSize(BATCH_SIZE);
+        List<Appointment> changed = new ArrayList<>();
+        for (Appointment appt : toPlan) {
+            Room newRoom = planned.get(appt);
+            // Không xếp được -> giữ nguyên phòng hiện tại
+            if (newRoom == null || newRoom.getId().equals(originalRoom.get(appt.getId()))) continue;
+
+            appt.setRoom(newRoom);
+            changed.add(appt);
+        }
+        entityManager.flush();
+
+        for (Appointment appt : changed) {
+            dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.ROOM_ASSIGNED, appt);
+        }
+
+        List<RoomAllocationResult.Assignment> assignments = planned.entrySet().stream()
+                .map(e -> RoomAllocationResult.Assignment.builder()
+                        .appointmentId(e.getKey().getId())
+                        .roomId(e.getValue().getId())
+                        .roomName(e.getValue().getRoomName())
+                        .startDateTime(e.getKey().getStartDateTime())
+                        .endDateTime(e.getKey().getEndDateTime())
+                        .build())
+                .sorted(Comparator.comparing(RoomAllocationResult.Assignment::getStartDateTime))
+                .toList();
+
+        log.info("Room plan clinic {} on {}: {} kept, {} assigned, {} unassigned, {} changed ({} ms planning)",
+                clinicId, date, kept, planned.size(), unassigned.size(), changed.size(), planningMillis);
+
+        return RoomAllocationResult.builder()
+                .clinicId(clinicId)
+                .date(date)
+                .totalAppointments(kept + toPlan.size())
+                .keptCount(kept)
+                .assignedCount(planned.size())
+                .planningMillis(planningMillis)
+                .assignments(assignments)
+                .unassigned(unassigned)
+                .build();
+    }
+
+    // Admin xếp được mọi cơ sở; lễ tân chỉ xếp phòng cho cơ sở mình được phân công
+    private void checkClinicAccess(CurrentUser currentUser, Integer clinicId) {
+        if (currentUser == null) throw new AccessDeniedException("User context is missing.");
+        boolean admin = currentUser.roles().stream()
+                .anyMatch(r -> "ROLE_ADMIN".equalsIgnoreCase(r) || "ADMIN".equalsIgnoreCase(r));
+        if (admin) return;
+        if (userClinicAssignmentRepo.findByUserIdAndClinicId(currentUser.userId(), clinicId).isEmpty()) {
+            throw new AccessDeniedException("You are not assigned to clinic " + clinicId + ".");
+        }
+    }
+
+    // Phòng được gán cho ca làm việc của bác sĩ chứa giờ bắt đầu lịch hẹn (nếu có)
+    private Integer doctorRoomFor(Appointment appt, Map<Integer, List<DoctorSchedule>> schedulesByDoctor) {
+        if (appt.getDoctor() == null) return null;
+        List<DoctorSchedule> schedules = schedulesByDoctor.get(appt.getDoctor().getId());
+        if (schedules == null) return null;
+
+        LocalTime start = appt.getStartDateTime().atZone(ZONE_ID).toLocalTime();
+        for (DoctorSchedule s : schedules) {
+            if (!start.isBefore(s.getStartTime()) && start.isBefore(s.getEndTime())) {
+                return s.getRoom().getId();
+            }
+        }
+        return null;
+    }
+
+    private static void occupy(Map<Integer, RoomTimeline> occupancy, Integer roomId, Appointment appt) {
+        RoomTimeline timeline = occupancy.get(roomId);
+        if (timeline != null) timeline.occupy(appt.getStartDateTime(), appt.getEndDateTime());
+    }
+
+    /**
+     * Thời gian bận của 1 phòng: các khoảng [start, end) đã gộp lại nên không giao nhau, sắp theo start.
+     * Vì vậy end cũng tăng dần, và chỉ cần xét khoảng liền trước end của lịch mới để biết có trùng không.
+     * Lịch giữ nguyên có thể đã trùng nhau sẵn trong DB; gộp lại vẫn giữ đúng phần thời gian bị chiếm.
+     */
+    static final class RoomTimeline {
+        private final TreeMap<Instant, Instant> busy = new TreeMap<>();
+
+        boolean overlaps(Instant start, Instant end) {
+            Map.Entry<Instant, Instant> before = busy.lowerEntry(end);
+            return before != null && before.getValue().isAfter(start);
+        }
+
+        void occupy(Instant start, Instant end) {
+            Instant from = start;
+            Instant to = end;
+            // Gộp với khoảng liền trước nếu chạm/giao, rồi nuốt các khoảng phía sau nằm trong [from, to]
+            Map.Entry<Instant, Instant> before = busy.floorEntry(from);
+            if (before != null && !before.getValue().isBefore(from)) {
+                from = before.getKey();
+                if (before.getValue().isAfter(to)) to = before.getValue();
+            }
+            Map.Entry<Instant, Instant> next = busy.ceilingEntry(from);
+            while (next != null && !next.getKey().isAfter(to)) {
+                if (next.getValue().isAfter(to)) to = next.getValue();
+                busy.remove(next.getKey());
+                next = busy.higherEntry(next.getKey());
+            }
+            busy.put(from, to);
+        }
+
+        // Thời gian phòng bỏ trống ngay trước giờ bắt đầu (best-fit), tính từ đầu ngày
+        long idleMinutesBefore(Instant start, Instant dayStart) {
+            Map.Entry<Instant, Instant> before = busy.floorEntry(start);
+            Instant freeSince = before != null && before.getValue().isAfter(dayStart) ? before.getValue() : dayStart;
+            return Math.max(0, Duration.between(freeSince, start).toMinutes());
+        }
+    }
+
+    private static String normalize(String status) {
+        return status == null ? "" : status.trim().toUpperCase();
+    }
+}
@@ -0,0 +1,423 @@
+package sunshine_dental_care.services.impl.reception;
+
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.validation.ValidationException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.dto.notificationDTO.NotificationRequest;
+import sunshine_dental_care.dto.receptionDTO.ServiceItemRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanResponse;
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.entities.DoctorSchedule;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.entities.Room;
+import sunshine_dental_care.entities.ServiceVariant;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.exceptions.reception.AppointmentConflictException;
+import sunshine_dental_care.exceptions.reception.ResourceNotFoundException;
+import sunshine_dental_care.repositories.auth.ClinicRepo;
+import sunshine_dental_care.repositories.auth.PatientRepo;
+import sunshine_dental_care.repositories.auth.UserRepo;
+import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
+import sunshine_dental_care.repositories.hr.RoomRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.repositories.reception.ServiceVariantRepo;
+import sunshine_dental_care.security.CurrentUser;
+import sunshine_dental_care.services.impl.notification.NotificationService;
+import sunshine_dental_care.services.interfaces.reception.TreatmentPlanService;
+import sunshine_dental_care.services.interfaces.system.SystemConfigService;
+import sunshine_dental_care.services.scheduler.BookingExpiryTimer;
+
+/**
+ * Đặt liệu trình nhiều buổi trong 1 transaction:
+ * - Load dịch vụ, ca bác sĩ và lịch bận của cả chuỗi bằng 1 query mỗi loại.
+ * - Kiểm tra trùng trong bộ nhớ; buổi bị trùng được dời sang giờ/ngày gần nhất còn trống.
+ * - Insert Appointments và AppointmentServices bằng JDBC batch, gửi 1 thông báo tổng hợp.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TreatmentPlanServiceImpl implements TreatmentPlanService {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final Duration SLOT_STEP = Duration.ofMinutes(30);
+    private static final int BATCH_SIZE = 100;
+
+    // 17 tham số / dòng, SQL Server giới hạn 2100 tham số mỗi câu lệnh
+    private static final int INSERT_APPOINTMENT_CHUNK = 100;
+    // MERGE ... ON 1 = 0 để OUTPUT được cả cột nguồn (idx) lẫn id IDENTITY vừa sinh -> ghép id chính xác theo từng buổi
+    private static final String INSERT_APPOINTMENT_PREFIX = """
+            MERGE INTO Appointments AS t
+            USING (VALUES %s) AS s (idx, clinicId, patientId, doctorId, serviceId, roomId, startDateTime, endDateTime,
+                                   status, channel, note, createdBy, createdAt, updatedAt, appointmentType, bookingFee,
+                                   paymentStatus)
+            ON 1 = 0
+            WHEN NOT MATCHED THEN
+                INSERT (clinicId, patientId, doctorId, serviceId, roomId, startDateTime, endDateTime, status, channel,
+                        note, createdBy, createdAt, updatedAt, appointmentType, bookingFee, paymentStatus,
+                        is_reminder_sent, is_urgent_reminder_sent)
+                VALUES (s.clinicId, s.patientId, s.doctorId, s.serviceId, s.roomId, s.startDateTime, s.endDateTime,
+                        s.status, s.channel, s.note, s.createdBy, s.createdAt, s.updatedAt, s.appointmentType,
+                        s.bookingFee, s.paymentStatus, 0, 0)
+            OUTPUT s.idx, INSERTED.appointmentId;""";
+    private static final String INSERT_APPOINTMENT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_APPOINTMENT_SERVICE_SQL =
+            "INSERT INTO AppointmentServices (appointmentId, serviceId, variantId, quantity, unitPrice, discountPct, note) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final ClinicRepo clinicRepo;
+    private final PatientRepo patientRepo;
+    private final UserRepo userRepo;
+    private final RoomRepo roomRepo;
+    private final ServiceVariantRepo serviceVariantRepo;
+    private final DoctorScheduleRepo doctorScheduleRepo;
+    private final AppointmentRepo appointmentRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final SystemConfigService systemConfigService;
+    private final NotificationService notificationService;
+    private final ReceptionDashboardPublisher dashboardPublisher;
+    private final BookingExpiryTimer bookingExpiryTimer;
+
+    @Override
+    @Transactional
+    public TreatmentPlanResponse bookTreatmentPlan(CurrentUser currentUser, TreatmentPlanRequest request) {
+        Clinic clinic = clinicRepo.findById(request.getClinicId())
+                .orElseThrow(() -> new ResourceNotFoundException("Clinic not found."));
+        Patient patient = patientRepo.findById(request.getPatientId())
+                .orElseThrow(() -> new ResourceNotFoundException("Patient not found"));
+        User doctor = userRepo.findById(request.getDoctorId())
+                .orElseThrow(() -> new ResourceNotFoundException("Doctor not found."));
+
+        Room room = null;
+        if (request.getRoomId() != null) {
+            room = roomRepo.findById(request.getRoomId())
+                    .orElseThrow(() -> new ResourceNotFoundException("Room not found."));
+            if (!room.getClinic().getId().equals(clinic.getId())) {
+                throw new ValidationException("Lỗi: Phòng " + room.getRoomName() + " không thuộc cơ sở này!");
+            }
+        }
+
+        // 1. DỊCH VỤ: 1 query cho tất cả variant
+        Map<Integer, ServiceVariant> variants = serviceVariantRepo.findAllById(
+                        request.getServices().stream().map(ServiceItemRequest::getServiceId).collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(ServiceVariant::getId, Function.identity()));
+        for (ServiceItemRequest item : request.getServices()) {
+            if (!variants.containsKey(item.getServiceId())) {
+                throw new ResourceNotFoundException("Service Variant not found: " + item.getServiceId());
+            }
+        }
+        long totalMinutes = request.getServices().stream()
+                .mapToLong(item -> {
+                    ServiceVariant v = variants.get(item.getServiceId());
+                    int duration = v.getDuration() != null ? v.getDuration() : 60;
+                    return (long) duration * quantityOf(item);
+                })
+                .sum();
+        Duration duration = Duration.ofMinutes(Math.max(totalMinutes, SLOT_STEP.toMinutes()));
+
+        // 2. CÁC MỐC THỜI GIAN MONG MUỐN (giữ nguyên giờ trong ngày theo giờ VN)
+        int visitCount = request.getVisits() != null ? request.getVisits() : 12;
+        int intervalWeeks = request.getIntervalWeeks() != null ? request.getIntervalWeeks() : 4;
+        int maxShiftDays = request.getMaxShiftDays() != null ? request.getMaxShiftDays() : 7;
+
+        LocalDateTime firstLocal = request.getFirstStartDateTime().atZone(ZONE_ID).toLocalDateTime();
+        List<Instant> requestedStarts = new ArrayList<>();
+        for (int i = 0; i < visitCount; i++) {
+            requestedStarts.add(firstLocal.plusWeeks((long) i * intervalWeeks).atZone(ZONE_ID).toInstant());
+        }
+
+        // 3. CA BÁC SĨ + LỊCH BẬN của cả liệu trình: mỗi loại đúng 1 query
+        LocalDate fromDate = firstLocal.toLocalDate().minusDays(maxShiftDays);
+        LocalDate toDate = requestedStarts.getLast().atZone(ZONE_ID).toLocalDate().plusDays(maxShiftDays);
+
+        Map<LocalDate, List<DoctorSchedule>> shiftsByDate = doctorScheduleRepo
+                .findByDoctorIdAndDateRange(doctor.getId(), fromDate, toDate).stream()
+                .filter(s -> s.getClinic() != null && s.getClinic().getId().equals(clinic.getId()))
+                .filter(s -> "ACTIVE".equals(s.getStatus()))
+                .collect(Collectors.groupingBy(DoctorSchedule::getWorkDate));
+
+        BusyTimeline busy = new BusyTimeline();
+        appointmentRepo.findBusyInRange(doctor.getId(), patient.getId(), request.getRoomId(),
+                        fromDate.atStartOfDay(ZONE_ID).toInstant(),
+                        toDate.plusDays(1).atStartOfDay(ZONE_ID).toInstant())
+                .forEach(a -> busy.add(a.getStartDateTime(),
+                        a.getEndDateTime() != null ? a.getEndDateTime() : a.getStartDateTime().plus(duration)));
+
+        // 4. CHỌN GIỜ CHO TỪNG BUỔI
+        List<TreatmentPlanResponse.Visit> booked = new ArrayList<>();
+        List<TreatmentPlanResponse.Visit> unbooked = new ArrayList<>();
+        Instant notBefore = Instant.now();
+
+        for (int i = 0; i < requestedStarts.size(); i++) {
+            Instant requested = requestedStarts.get(i);
+            Instant chosen = findSlot(requested, duration, shiftsByDate, busy, notBefore, maxShiftDays);
+
+            if (chosen == null) {
+                unbooked.add(TreatmentPlanResponse.Visit.builder()
+                        .index(i + 1)
+                        .requestedStartDateTime(requested)
+                        .reason("Không tìm được giờ trống trong ca bác sĩ trong phạm vi ±" + maxShiftDays + " ngày")
+                        .build());
+                continue;
+            }
+
+            Instant end = chosen.plus(duration);
+            busy.add(chosen, end);
+            notBefore = end; // Các buổi phải giữ đúng thứ tự
+            booked.add(TreatmentPlanResponse.Visit.builder()
+                    .index(i + 1)
+                    .requestedStartDateTime(requested)
+                    .startDateTime(chosen)
+                    .endDateTime(end)
+                    .rescheduled(!chosen.equals(requested))
+                    .reason(!chosen.equals(requested) ? "Trùng lịch, đã dời sang giờ gần nhất còn trống" : null)
+                    .build());
+        }
+
+        if (booked.isEmpty()) {
+            throw new AppointmentConflictException("Không tìm được buổi nào phù hợp với lịch làm việc của bác sĩ.");
+        }
+
+        // 5. INSERT THEO LÔ
+        String type = request.getAppointmentType() != null ? request.getAppointmentType() : "VIP";
+        java.math.BigDecimal bookingFee = request.getBookingFee() != null
+                ? request.getBookingFee()
+                : ("VIP".equalsIgnoreCase(type) ? systemConfigService.getVipFee() : systemConfigService.getStandardFee());
+        String status = request.getStatus() != null && !request.getStatus().isBlank() ? request.getStatus() : "SCHEDULED";
+        String channel = request.getChannel() != null ? request.getChannel() : "Walk-in";
+        ServiceVariant firstVariant = variants.get(request.getServices().getFirst().getServiceId());
+        Integer parentServiceId = firstVariant.getService() != null ? firstVariant.getService().getId() : null;
+        Integer roomId = room != null ? room.getId() : null;
+        Instant now = Instant.now();
+
+        for (int from = 0; from < booked.size(); from += INSERT_APPOINTMENT_CHUNK) {
+            List<TreatmentPlanResponse.Visit> chunk = booked.subList(from, Math.min(from + INSERT_APPOINTMENT_CHUNK, booked.size()));
+            String sql = INSERT_APPOINTMENT_PREFIX.formatted(
+                    String.join(", ", Collections.nCopies(chunk.size(), INSERT_APPOINTMENT_ROW)));
+            Map<Integer, Integer> idByIndex = new HashMap<>();
+            jdbcTemplate.query(sql, ps -> {
+                int i = 1;
+                for (TreatmentPlanResponse.Visit visit : chunk) {
+                    ps.setInt(i++, visit.getIndex());
+                    ps.setInt(i++, clinic.getId());
+                    ps.setInt(i++, patient.getId());
+                    ps.setInt(i++, doctor.getId());
+                    ps.setObject(i++, parentServiceId, Types.INTEGER);
+                    ps.setObject(i++, roomId, Types.INTEGER);
+                    ps.setObject(i++, visit.getStartDateTime().atOffset(ZoneOffset.UTC));
+                    ps.setObject(i++, visit.getEndDateTime().atOffset(ZoneOffset.UTC));
+                    ps.setString(i++, status);
+                    ps.setString(i++, channel);
+                    ps.setString(i++, noteFor(request.getNote(), visit.getIndex(), visitCount));
+                    ps.setInt(i++, currentUser.userId());
+                    ps.setObject(i++, now.atOffset(ZoneOffset.UTC));
+                    ps.setObject(i++, now.atOffset(ZoneOffset.UTC));
+                    ps.setString(i++, type);
+                    ps.setBigDecimal(i++, bookingFee);
+                    ps.setString(i++, "UNPAID");
+                }
+            }, rs -> {
+                idByIndex.put(rs.getInt(1), rs.getInt(2));
+            });
+            for (TreatmentPlanResponse.Visit visit : chunk) {
+                Integer id = idByIndex.get(visit.getIndex());
+                if (id == null) {
+                    // Không được xảy ra; dừng hẳn (rollback) thay vì gắn dịch vụ vào lịch hẹn null
+                    throw new IllegalStateException("Không lấy được id lịch hẹn vừa tạo cho buổi " + visit.getIndex());
+                }
+                visit.setAppointmentId(id);
+            }
+        }
+
+        List<Object[]> serviceRows = new ArrayList<>();
+        for (TreatmentPlanResponse.Visit visit : booked) {
+            for (ServiceItemRequest item : request.getServices()) {
+                ServiceVariant v = variants.get(item.getServiceId());
+                String note = (item.getNote() != null ? item.getNote() : "") + " [" + v.getVariantName() + "]";
+                serviceRows.add(new Object[]{
+                        visit.getAppointmentId(),
+                        v.getService() != null ? v.getService().getId() : null,
+                        v.getId(),
+                        quantityOf(item),
+                        v.getPrice(),
+                        item.getDiscountPct(),
+                        note
+                });
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_APPOINTMENT_SERVICE_SQL, serviceRows, BATCH_SIZE, (ps, row) -> {
+            ps.setInt(1, (Integer) row[0]);
+            ps.setObject(2, row[1], Types.INTEGER);
+            ps.setInt(3, (Integer) row[2]);
+            ps.setInt(4, (Integer) row[3]);
+            ps.setBigDecimal(5, (java.math.BigDecimal) row[4]);
+            ps.setBigDecimal(6, (java.math.BigDecimal) row[5]);
+            ps.setString(7, (String) row[6]);
+        });
+
+        // Buổi chờ cọc: đăng ký hạn thanh toán (timer chỉ chạy sau khi commit), giống đặt lịch đơn lẻ
+        if (BookingExpiryTimer.AWAITING_PAYMENT.equals(status)) {
+            for (TreatmentPlanResponse.Visit visit : booked) {
+                bookingExpiryTimer.track(visit.getAppointmentId(), now);
+            }
+        }
+
+        // 6. 1 THÔNG BÁO TỔNG HỢP + delta cho màn hình lễ tân
+        sendTreatmentPlanNotification(patient, clinic, doctor, booked, visitCount);
+        appointmentRepo.findAllById(booked.stream().map(TreatmentPlanResponse.Visit::getAppointmentId).toList())
+                .forEach(a -> dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, a));
+
+        long rescheduled = booked.stream().filter(TreatmentPlanResponse.Visit::isRescheduled).count();
+        log.info("Booked treatment plan for patient {} with doctor {}: {}/{} visits ({} rescheduled)",
+                patient.getId(), doctor.getId(), booked.size(), visitCount, rescheduled);
+
+        return TreatmentPlanResponse.builder()
+                .patientId(patient.getId())
+                .doctorId(doctor.getId())
+                .clinicId(clinic.getId())
+                .requestedVisits(visitCount)
+                .bookedVisits(booked.size())
+                .rescheduledVisits((int) rescheduled)
+                .visits(booked)
+                .unbooked(unbooked)
+                .build();
+    }
+
+    // Tìm giờ gần nhất: ưu tiên đúng ngày (giờ gần nhất), sau đó lần lượt +1, -1, +2, -2... ngày
+    private Instant findSlot(Instant requested, Duration duration, Map<LocalDate, List<DoctorSchedule>> shiftsByDate,
+                             BusyTimeline busy, Instant notBefore, int maxShiftDays) {
+        LocalDate baseDate = requested.atZone(ZONE_ID).toLocalDate();
+        LocalTime preferred = requested.atZone(ZONE_ID).toLocalTime();
+
+        for (int k = 0; k <= 2 * maxShiftDays; k++) {
+            int offset = (k % 2 == 1) ? (k + 1) / 2 : -(k / 2);
+            LocalDate day = baseDate.plusDays(offset);
+            List<DoctorSchedule> shifts = shiftsByDate.get(day);
+            if (shifts == null) continue;
+
+            for (LocalTime time : candidateTimes(preferred, shifts, duration)) {
+                Instant start = day.atTime(time).atZone(ZONE_ID).toInstant();
+                if (start.isBefore(notBefore)) continue;
+                if (!busy.overlaps(start, start.plus(duration))) return start;
+            }
+        }
+        return null;
+    }
+
+    // Các giờ bắt đầu hợp lệ trong ca (giờ mong muốn + mỗi 30 phút), sắp theo độ lệch so với giờ mong muốn
+    private static List<LocalTime> candidateTimes(LocalTime preferred, List<DoctorSchedule> shifts, Duration duration) {
+        Set<LocalTime> times = new LinkedHashSet<>();
+        for (DoctorSchedule shift : shifts) {
+            LocalTime latestStart = shift.getEndTime().minus(duration);
+            if (latestStart.isBefore(shift.getStartTime()) || latestStart.isAfter(shift.getEndTime())) continue;
+
+            if (!preferred.isBefore(shift.getStartTime()) && !preferred.isAfter(latestStart)) {
+                times.add(preferred);
+            }
+            for (LocalTime t = shift.getStartTime(); !t.isAfter(latestStart); t = t.plus(SLOT_STEP)) {
+                times.add(t);
+                if (t.plus(SLOT_STEP).isBefore(t)) break; // Qua nửa đêm
+            }
+        }
+        return times.stream()
+                .sorted(Comparator.comparingLong(t -> Math.abs(Duration.between(preferred, t).toMinutes())))
+                .toList();
+    }
+
+    private void sendTreatmentPlanNotification(Patient patient, Clinic clinic, User doctor,
+                                               List<TreatmentPlanResponse.Visit> booked, int visitCount) {
+        try {
+            if (patient.getUser() == null) {
+                log.warn("Cannot send notification: patient {} has no user account", patient.getId());
+                return;
+            }
+
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+            String firstVisit = booked.getFirst().getStartDateTime().atZone(ZONE_ID).format(formatter);
+            String lastVisit = booked.getLast().getStartDateTime().atZone(ZONE_ID).format(formatter);
+            long rescheduled = booked.stream().filter(TreatmentPlanResponse.Visit::isRescheduled).count();
+
+            String message = String.format(
+                    "Liệu trình %d/%d buổi tại %s với %s đã được đặt, từ %s đến %s.%s",
+                    booked.size(), visitCount, clinic.getClinicName(), doctor.getFullName(), firstVisit, lastVisit,
+                    rescheduled > 0 ? " Có " + rescheduled + " buổi được dời giờ do trùng lịch." : "");
+
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .userId(patient.getUser().getId())
+                    .type("TREATMENT_PLAN_CREATED")
+                    .priority("MEDIUM")
+                    .title("Đặt liệu trình thành công")
+                    .message(message)
+                    .actionUrl("/appointments")
+                    .relatedEntityType("APPOINTMENT")
+                    .relatedEntityId(booked.getFirst().getAppointmentId())
+                    .build();
+
+            notificationService.sendNotification(notiRequest);
+        } catch (Exception e) {
+            log.error("Failed to send TREATMENT_PLAN_CREATED notification for patient {}: {}",
+                    patient.getId(), e.getMessage(), e);
+            // Không throw exception để không ảnh hưởng đến việc đặt liệu trình
+        }
+    }
+
+    private static String noteFor(String note, int index, int total) {
+        String prefix = "[Liệu trình " + index + "/" + total + "]";
+        String full = note != null && !note.isBlank() ? prefix + " " + note : prefix;
+        return full.length() > 400 ? full.substring(0, 400) : full;
+    }
+
+    private static int quantityOf(ServiceItemRequest item) {
+        return item.getQuantity() != null && item.getQuantity() > 0 ? item.getQuantity() : 1;
+    }
+
+    // Các khoảng thời gian bận đã gộp (không chồng nhau) -> kiểm tra trùng O(log n)
+    private static class BusyTimeline {
+        private final TreeMap<Instant, Instant> intervals = new TreeMap<>();
+
+        void add(Instant start, Instant end) {
+            Instant newStart = start;
+            Instant newEnd = end;
+            Map.Entry<Instant, Instant> e = intervals.floorEntry(end);
+            while (e != null && !e.getValue().isBefore(newStart)) {
+                if (e.getKey().isBefore(newStart)) newStart = e.getKey();
+                if (e.getValue().isAfter(newEnd)) newEnd = e.getValue();
+                intervals.remove(e.getKey());
+                e = intervals.floorEntry(newEnd);
+            }
+            intervals.put(newStart, newEnd);
+        }
+
+        boolean overlaps(Instant start, Instant end) {
+            Map.Entry<Instant, Instant> e = intervals.lowerEntry(end);
+            return e != null && e.getValue().isAfter(start);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package sunshine_dental_care.services.impl.system;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.entities.InvoiceSequence;
+import sunshine_dental_care.entities.PatientSequence;
+import sunshine_dental_care.repositories.auth.PatientSequenceRepo;
+import sunshine_dental_care.repositories.system.InvoiceSequenceRepo;
+
+/**
+ * Cấp số thứ tự theo khối (hi/lo) cho mã bệnh nhân và số hóa đơn:
+ * - Mỗi node giữ 1 khối số trong bộ nhớ, cấp số bằng CAS, không khóa DB cho từng lần cấp.
+ * - Hết khối mới khóa dòng sequence trong 1 transaction riêng (REQUIRES_NEW, commit ngay),
+ *   đẩy currentNumber lên cuối khối mới -> DB chỉ lưu biên của các khối đã cấp.
+ * - Số còn dư trong khối khi node tắt / transaction nghiệp vụ rollback sẽ bị bỏ (mã có thể nhảy số, không trùng).
+ */
+@Service
+@Slf4j
+public class BlockSequenceService {
+
+    // Sequence dùng chung toàn hệ thống nằm ở dòng của clinic 1 (giống cách PatientCodeService dùng trước đây)
+    public static final int GLOBAL_SEQ_CLINIC_ID = 1;
+    private static final String DEFAULT_INVOICE_PREFIX = "INV";
+
+    private final PatientSequenceRepo patientSequenceRepo;
+    private final InvoiceSequenceRepo invoiceSequenceRepo;
+    private final TransactionTemplate requiresNewTransaction;
+    private final int patientBlockSize;
+    private final int invoiceBlockSize;
+
+    private final Map<String, BlockSequence> sequences = new ConcurrentHashMap<>();
+
+    public BlockSequenceService(PatientSequenceRepo patientSequenceRepo,
+                                InvoiceSequenceRepo invoiceSequenceRepo,
+                                TransactionTemplate transactionTemplate,
+                                @Value("${app.sequence.patient-block-size:20}") int patientBlockSize,
+                                @Value("${app.sequence.invoice-block-size:100}") int invoiceBlockSize) {
+        this.patientSequenceRepo = patientSequenceRepo;
+        this.invoiceSequenceRepo = invoiceSequenceRepo;
+        this.requiresNewTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.requiresNewTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.patientBlockSize = Math.max(1, patientBlockSize);
+        this.invoiceBlockSize = Math.max(1, invoiceBlockSize);
+    }
+
+    // Số được cấp kèm prefix đang cấu hình trên dòng sequence lúc lấy khối
+    public record Issued(long number, String prefix) {}
+
+    // Khối [first, last] đã ghi nhận trên DB; next là số kế tiếp sẽ cấp
+    private record Block(AtomicLong next, long last, String prefix) {
+        static final Block EMPTY = new Block(new AtomicLong(1), 0, null);
+    }
+
+    private static final class BlockSequence {
+        private final AtomicReference<Block> current = new AtomicReference<>(Block.EMPTY);
+        private final IntFunction<Block> reserver;
+        private final int blockSize;
+
+        BlockSequence(IntFunction<Block> reserver, int blockSize) {
+            this.reserver = reserver;
+            this.blockSize = blockSize;
+        }
+
+        Issued next() {
+            while (true) {
+                Block block = current.get();
+                long n = block.next().getAndIncrement();
+                if (n <= block.last()) {
+                    return new Issued(n, block.prefix());
+                }
+                // Hết khối: chỉ 1 thread đi lấy khối mới, các thread khác chờ rồi cấp tiếp từ khối đó
+                synchronized (this) {
+                    if (current.get() == block) {
+                        current.set(reserver.apply(blockSize));
+                    }
+                }
+            }
+        }
+    }
+
+    public Issued nextPatientNumber() {
+        return sequences.computeIfAbsent("PATIENT", k -> new BlockSequence(this::reservePatientBlock, patientBlockSize)).next();
+    }
+
+    // Số hóa đơn đánh lại từ 1 mỗi năm
+    public Issued nextInvoiceNumber(int year) {
+        return sequences.computeIfAbsent("INVOICE-" + year,
+                k -> new BlockSequence(size -> reserveInvoiceBlock(year, size), invoiceBlockSize)).next();
+    }
+
+    private Block reservePatientBlock(int size) {
+        return requiresNewTransaction.execute(status -> {
+            PatientSequence seq = patientSequenceRepo.lockByClinicId(GLOBAL_SEQ_CLINIC_ID)
+                    .orElseThrow(() -> new IllegalStateException(
+                            "Patient sequence not initialized (clinicId=" + GLOBAL_SEQ_CLINIC_ID + ")"));
+            long first = (seq.getCurrentNumber() == null ? 0L : seq.getCurrentNumber()) + 1;
+            long last = first + size - 1;
+            seq.setCurrentNumber(Math.toIntExact(last));
+            seq.setUpdatedAt(Instant.now());
+            log.debug("Patient sequence: reserved block {}..{}", first, last);
+            return new Block(new AtomicLong(first), last, seq.getPrefix());
+        });
+    }
+
+    private Block reserveInvoiceBlock(int year, int size) {
+        return requiresNewTransaction.execute(status -> {
+            List<InvoiceSequence> rows = invoiceSequenceRepo.lockByClinicIdAndYear(GLOBAL_SEQ_CLINIC_ID, year);
+            InvoiceSequence seq;
+            if (rows.isEmpty()) {
+                seq = new InvoiceSequence();
+                seq.setClinicId(GLOBAL_SEQ_CLINIC_ID);
+                seq.setYear(year);
+                seq.setCurrentNumber(0);
+                seq.setPrefix(DEFAULT_INVOICE_PREFIX);
+            } else {
+                seq = rows.get(0);
+            }
+            long first = (seq.getCurrentNumber() == null ? 0L : seq.getCurrentNumber()) + 1;
+            long last = first + size - 1;
+            seq.setCurrentNumber(Math.toIntExact(last));
+            seq.setUpdatedAt(Instant.now());
+            invoiceSequenceRepo.save(seq);
+            log.debug("Invoice sequence {}: reserved block {}..{}", year, first, last);
+            String prefix = (seq.getPrefix() == null || seq.getPrefix().isBlank()) ? DEFAULT_INVOICE_PREFIX : seq.getPrefix();
+            return new Block(new AtomicLong(first), last, prefix);
+        });
+    }
+}
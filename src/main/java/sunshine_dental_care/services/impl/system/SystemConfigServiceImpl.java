@@ -36,6 +36,10 @@ import sunshine_dental_care.services.interfaces.system.SystemConfigService;
 @Slf4j
 public class SystemConfigServiceImpl implements SystemConfigService {
 
+    // Các role nhân viên nhận thông báo ngày nghỉ lễ (không bao gồm USER - khách hàng và ADMIN)
+    private static final List<String> EMPLOYEE_ROLES =
+            List.of("HR", "DOCTOR", "RECEPTIONIST", "NURSE", "ACCOUNTANT", "MANAGER");
+
     private final SystemConfigRepo systemConfigRepo;
     private final HolidayRepo holidayRepo;
     private final ClinicRepo clinicRepo;
@@ -204,25 +208,15 @@ public class SystemConfigServiceImpl implements SystemConfigService {
                             "Lịch làm việc của bạn đã bị hủy do ngày nghỉ lễ: %s từ %s%s. Vui lòng kiểm tra lại lịch của bạn.", 
                             name, dateRange, clinicInfo);
                     
-                    for (Integer doctorId : affectedDoctorIds) {
-                        try {
-                            NotificationRequest notiRequest = NotificationRequest.builder()
-                                    .userId(doctorId)
-                                    .type("SCHEDULE_CANCELLED")
-                                    .priority("HIGH")
-                                    .title("Lịch làm việc bị hủy do ngày nghỉ lễ")
-                                    .message(message)
-                                    .relatedEntityType("SCHEDULE")
-                                    .relatedEntityId(null)
-                                    .build();
-                            
-                            notificationService.sendNotification(notiRequest);
-                            log.debug("Schedule cancellation notification sent to doctor {}", doctorId);
-                        } catch (Exception e) {
-                            log.error("Failed to send schedule cancellation notification to doctor {}: {}", 
-                                    doctorId, e.getMessage());
-                        }
-                    }
+                    NotificationRequest notiRequest = NotificationRequest.builder()
+                            .type("SCHEDULE_CANCELLED")
+                            .priority("HIGH")
+                            .title("Lịch làm việc bị hủy do ngày nghỉ lễ")
+                            .message(message)
+                            .relatedEntityType("SCHEDULE")
+                            .relatedEntityId(null)
+                            .build();
+                    notificationService.sendBulkNotification(affectedDoctorIds, notiRequest);
                     log.info("Sent schedule cancellation notifications to {} affected doctors", affectedDoctorIds.size());
                 }
             } else {
@@ -266,25 +260,16 @@ public class SystemConfigServiceImpl implements SystemConfigService {
 
             String message = String.format("Ngày nghỉ lễ: %s từ %s%s", name, dateRange, clinicInfo);
 
-            for (Integer userId : employeeUserIds) {
-                try {
-                    NotificationRequest notiRequest = NotificationRequest.builder()
-                            .userId(userId)
-                            .type("HOLIDAY_CREATED")
-                            .priority("MEDIUM")
-                            .title("Thông báo ngày nghỉ lễ")
-                            .message(message)
-                            .relatedEntityType("HOLIDAY")
-                            .relatedEntityId(savedHoliday.getId())
-                            .build();
-
-                    notificationService.sendNotification(notiRequest);
-                    log.debug("Holiday notification sent to employee user {}", userId);
-                } catch (Exception e) {
-                    log.error("Failed to send holiday notification to employee user {}: {}", userId, e.getMessage());
-                }
-            }
-            log.info("Successfully sent holiday notifications to {} employees", employeeUserIds.size());
+            NotificationRequest notiRequest = NotificationRequest.builder()
+                    .type("HOLIDAY_CREATED")
+                    .priority("MEDIUM")
+                    .title("Thông báo ngày nghỉ lễ")
+                    .message(message)
+                    .relatedEntityType("HOLIDAY")
+                    .relatedEntityId(savedHoliday.getId())
+                    .build();
+            int sent = notificationService.sendBulkNotification(employeeUserIds, notiRequest).size();
+            log.info("Successfully sent holiday notifications to {} employees", sent);
         } catch (Exception e) {
             log.error("Failed to send holiday notifications to employees: {}", e.getMessage(), e);
             // Không throw exception để không làm rollback việc tạo holiday
@@ -421,25 +406,15 @@ public class SystemConfigServiceImpl implements SystemConfigService {
                             "Lịch làm việc của bạn đã được khôi phục sau khi hủy ngày nghỉ lễ: %s từ %s%s. Vui lòng kiểm tra lại lịch của bạn.", 
                             holidayName, dateRange, clinicInfo);
                     
-                    for (Integer doctorId : affectedDoctorIds) {
-                        try {
-                            NotificationRequest notiRequest = NotificationRequest.builder()
-                                    .userId(doctorId)
-                                    .type("SCHEDULE_RESTORED")
-                                    .priority("MEDIUM")
-                                    .title("Lịch làm việc đã được khôi phục")
-                                    .message(message)
-                                    .relatedEntityType("SCHEDULE")
-                                    .relatedEntityId(null)
-                                    .build();
-                            
-                            notificationService.sendNotification(notiRequest);
-                            log.debug("Schedule restoration notification sent to doctor {}", doctorId);
-                        } catch (Exception e) {
-                            log.error("Failed to send schedule restoration notification to doctor {}: {}", 
-                                    doctorId, e.getMessage());
-                        }
-                    }
+                    NotificationRequest notiRequest = NotificationRequest.builder()
+                            .type("SCHEDULE_RESTORED")
+                            .priority("MEDIUM")
+                            .title("Lịch làm việc đã được khôi phục")
+                            .message(message)
+                            .relatedEntityType("SCHEDULE")
+                            .relatedEntityId(null)
+                            .build();
+                    notificationService.sendBulkNotification(affectedDoctorIds, notiRequest);
                     log.info("Sent schedule restoration notifications to {} affected doctors", affectedDoctorIds.size());
                 }
             } else {
@@ -530,23 +505,8 @@ public class SystemConfigServiceImpl implements SystemConfigService {
     private List<Integer> getAllEmployeeUserIds() {
         try {
             // Danh sách các role nhân viên (không bao gồm USER và ADMIN)
-            List<String> employeeRoles = List.of("HR", "DOCTOR", "RECEPTIONIST", "NURSE", "ACCOUNTANT", "MANAGER");
-            
-            Set<Integer> employeeUserIds = new HashSet<>();
-            
-            // Lấy user IDs từ từng role nhân viên
-            for (String roleName : employeeRoles) {
-                try {
-                    List<Integer> userIds = userRoleRepo.findUserIdsByRoleName(roleName);
-                    if (userIds != null) {
-                        employeeUserIds.addAll(userIds);
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to get user IDs for role {}: {}", roleName, e.getMessage());
-                }
-            }
-            
-            List<Integer> result = employeeUserIds.stream()
+            // Lấy user IDs của mọi role nhân viên trong 1 query
+            List<Integer> result = userRoleRepo.findUserIdsByRoleNames(EMPLOYEE_ROLES).stream()
                     .sorted()
                     .collect(Collectors.toList());
             
@@ -564,6 +524,9 @@ public class SystemConfigServiceImpl implements SystemConfigService {
         try {
             LocalDate today = LocalDate.now();
             Set<Integer> employeeUserIds = new HashSet<>();
+            // Tra role 1 lần cho cả danh sách thay vì query lại cho từng assignment / schedule
+            Set<Integer> allEmployeeIds = new HashSet<>(userRoleRepo.findUserIdsByRoleNames(EMPLOYEE_ROLES));
+            Set<Integer> allDoctorIds = new HashSet<>(userRoleRepo.findUserIdsByRoleName("DOCTOR"));
             
             // 1. Lấy từ UserClinicAssignment (nhân viên đã được assign vào clinic)
             try {
@@ -586,23 +549,8 @@ public class SystemConfigServiceImpl implements SystemConfigService {
                         }
                         
                         // Kiểm tra user có role nhân viên (không phải USER hoặc ADMIN)
-                        try {
-                            List<String> employeeRoles = List.of("HR", "DOCTOR", "RECEPTIONIST", "NURSE", "ACCOUNTANT", "MANAGER");
-                            boolean hasEmployeeRole = false;
-                            
-                            for (String roleName : employeeRoles) {
-                                List<Integer> userIds = userRoleRepo.findUserIdsByRoleName(roleName);
-                                if (userIds != null && userIds.contains(user.getId())) {
-                                    hasEmployeeRole = true;
-                                    break;
-                                }
-                            }
-                            
-                            if (hasEmployeeRole) {
-                                employeeUserIds.add(user.getId());
-                            }
-                        } catch (Exception e) {
-                            log.warn("Failed to check role for user {}: {}", user.getId(), e.getMessage());
+                        if (allEmployeeIds.contains(user.getId())) {
+                            employeeUserIds.add(user.getId());
                         }
                     }
                 }
@@ -632,13 +580,8 @@ public class SystemConfigServiceImpl implements SystemConfigService {
                         }
                         
                         // Kiểm tra doctor có role DOCTOR
-                        try {
-                            List<Integer> doctorUserIds = userRoleRepo.findUserIdsByRoleName("DOCTOR");
-                            if (doctorUserIds != null && doctorUserIds.contains(doctor.getId())) {
-                                employeeUserIds.add(doctor.getId());
-                            }
-                        } catch (Exception e) {
-                            log.warn("Failed to check DOCTOR role for user {}: {}", doctor.getId(), e.getMessage());
+                        if (allDoctorIds.contains(doctor.getId())) {
+                            employeeUserIds.add(doctor.getId());
                         }
                     }
                 }
@@ -1,10 +1,16 @@
 package sunshine_dental_care.services.interfaces.admin;
 
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
 
+import sunshine_dental_care.dto.adminDTO.CohortRetentionDto;
 import sunshine_dental_care.dto.adminDTO.RevenueReportDto;
 
 public interface AdminReportService {
     // Lấy báo cáo doanh thu theo khoảng thời gian và loại tiền tệ
     RevenueReportDto getRevenueReport(LocalDate startDate, LocalDate endDate, String currency);
+
+    // Tỷ lệ quay lại theo cohort tháng khám đầu tiên, từ fromMonth tới toMonth
+    List<CohortRetentionDto> getPatientCohortRetention(YearMonth fromMonth, YearMonth toMonth);
 }
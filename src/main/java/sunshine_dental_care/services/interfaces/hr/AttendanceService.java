@@ -1,5 +1,7 @@
 package sunshine_dental_care.services.interfaces.hr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +18,7 @@ import sunshine_dental_care.dto.hrDTO.DailyAttendanceListItemResponse;
 import sunshine_dental_care.dto.hrDTO.DailySummaryResponse;
 import sunshine_dental_care.dto.hrDTO.MonthlyAttendanceListItemResponse;
 import sunshine_dental_care.dto.hrDTO.MonthlySummaryResponse;
+import sunshine_dental_care.utils.huybro_utils.export.ExportFormat;
 
 // Service interface for Attendance Management
 public interface AttendanceService {
@@ -62,6 +65,10 @@ public interface AttendanceService {
     Page<MonthlyAttendanceListItemResponse> getMonthlyAttendanceList(
             Integer year, Integer month, Integer departmentId, Integer clinicId, int page, int size);
 
+    // Xuất danh sách attendance theo tháng (không phân trang) ra Excel / CSV
+    void exportMonthlyAttendanceList(Integer year, Integer month, Integer departmentId, Integer clinicId,
+            ExportFormat format, OutputStream out) throws IOException;
+
     // Admin lấy danh sách chấm công theo ngày/phòng khám/trạng thái
     List<AttendanceResponse> getAttendanceForAdmin(LocalDate workDate, Integer clinicId, String status);
 
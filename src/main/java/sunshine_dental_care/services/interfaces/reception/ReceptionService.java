@@ -13,6 +13,7 @@ import sunshine_dental_care.dto.receptionDTO.BillInvoiceDTO;
 import sunshine_dental_care.dto.receptionDTO.PatientHistoryDTO;
 import sunshine_dental_care.dto.receptionDTO.PatientRequest;
 import sunshine_dental_care.dto.receptionDTO.PatientResponse;
+import sunshine_dental_care.dto.receptionDTO.ReceptionDashboardSnapshot;
 import sunshine_dental_care.dto.receptionDTO.RescheduleRequest;
 import sunshine_dental_care.security.CurrentUser;
 
@@ -31,6 +32,13 @@ public interface ReceptionService {
             Integer requestedClinicId
     );
 
+    // Snapshot (lịch hẹn + lịch bác sĩ + version) để client nhận delta qua WebSocket thay vì poll
+    ReceptionDashboardSnapshot getDashboardSnapshot(
+            CurrentUser currentUser,
+            LocalDate date,
+            Integer requestedClinicId
+    );
+
     AppointmentResponse rescheduleAppointment(
             CurrentUser currentUser,
             Integer appointmentId,
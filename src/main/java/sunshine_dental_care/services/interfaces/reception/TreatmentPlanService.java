@@ -0,0 +1,11 @@
+package sunshine_dental_care.services.interfaces.reception;
+
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanResponse;
+import sunshine_dental_care.security.CurrentUser;
+
+public interface TreatmentPlanService {
+
+    // Đặt cả chuỗi lịch hẹn của liệu trình trong 1 transaction; buổi bị trùng sẽ được dời sang giờ gần nhất còn trống
+    TreatmentPlanResponse bookTreatmentPlan(CurrentUser currentUser, TreatmentPlanRequest request);
+}
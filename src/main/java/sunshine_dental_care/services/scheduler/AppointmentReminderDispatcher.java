@@ -0,0 +1,369 @@
+package sunshine_dental_care.services.scheduler;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.dto.notificationDTO.NotificationRequest;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.EmailLog;
+import sunshine_dental_care.entities.EmailTemplate;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.repositories.auth.EmailLogRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.services.auth_service.MailService;
+import sunshine_dental_care.services.auth_service.MailTemplateCache;
+import sunshine_dental_care.services.impl.notification.NotificationService;
+
+/**
+ * Gửi nhắc lịch hẹn theo lô thay vì từng email một:
+ * - Load cả cửa sổ bằng 1 query (fetch sẵn quan hệ), render từ template đã biên dịch sẵn.
+ * - Mỗi lô được chia cho tối đa N luồng; mỗi luồng gửi phần của mình qua 1 kết nối SMTP dùng lại cho nhiều email.
+ * - Thông báo trong app của cả lô ghi bằng 1 lần gọi NotificationService (1 transaction, 1 lần phân phối).
+ * - Đánh dấu đã nhắc bằng 1 câu UPDATE cho cả lô, ghi EmailLog bằng saveAll.
+ * - Số liệu cộng dồn từ lúc khởi động xem qua getStats() (GET /api/notifications/reminder-stats).
+ */
+@Service
+@Slf4j
+public class AppointmentReminderDispatcher {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    public enum ReminderKind {
+        DAY_BEFORE("APPOINTMENT_REMINDER", "24h"),
+        URGENT("URGENT_REMINDER", "2h");
+
+        private final String templateKey;
+        private final String label;
+
+        ReminderKind(String templateKey, String label) {
+            this.templateKey = templateKey;
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // Kết quả 1 lần chạy, dùng để theo dõi throughput
+    public record DispatchStats(ReminderKind kind, int candidates, int batches, int emailsSent, int emailsFailed,
+                                int notificationsSent, int marked, long elapsedMillis, Instant finishedAt) {
+        public double emailsPerSecond() {
+            return elapsedMillis > 0 ? emailsSent * 1000.0 / elapsedMillis : emailsSent;
+        }
+    }
+
+    // Số liệu cộng dồn từ lúc khởi động
+    public record ReminderStats(long runs, long candidates, long batches, long emailsSent, long emailsFailed,
+                                long notificationsSent, long notificationsFailed, long marked, long elapsedMillis) {}
+
+    private final AppointmentRepo appointmentRepo;
+    private final EmailLogRepo emailLogRepo;
+    private final JavaMailSender mailSender;
+    private final MailTemplateCache templateCache;
+    private final NotificationService notificationService;
+    private final MailService mailService;
+    private final ExecutorService smtpExecutor;
+    private final int smtpConnections;
+    private final int batchSize;
+    private final String locale;
+
+    private final Map<ReminderKind, DispatchStats> lastRuns = new ConcurrentHashMap<>();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong candidatesTotal = new AtomicLong();
+    private final AtomicLong batchesTotal = new AtomicLong();
+    private final AtomicLong emailsSentTotal = new AtomicLong();
+    private final AtomicLong emailsFailedTotal = new AtomicLong();
+    private final AtomicLong notificationsSentTotal = new AtomicLong();
+    private final AtomicLong notificationsFailedTotal = new AtomicLong();
+    private final AtomicLong markedTotal = new AtomicLong();
+    private final AtomicLong elapsedMillisTotal = new AtomicLong();
+
+    public AppointmentReminderDispatcher(AppointmentRepo appointmentRepo,
+                                         EmailLogRepo emailLogRepo,
+                                         JavaMailSender mailSender,
+                                         MailTemplateCache templateCache,
+                                         NotificationService notificationService,
+                                         MailService mailService,
+                                         @Value("${app.reminder.smtp-connections:4}") int smtpConnections,
+                                         @Value("${app.reminder.batch-size:200}") int batchSize,
+                                         @Value("${app.reminder.locale:vi}") String locale) {
+        this.appointmentRepo = appointmentRepo;
+        this.emailLogRepo = emailLogRepo;
+        this.mailSender = mailSender;
+        this.templateCache = templateCache;
+        this.notificationService = notificationService;
+        this.mailService = mailService;
+        this.smtpConnections = Math.max(1, smtpConnections);
+        this.batchSize = Math.max(1, batchSize);
+        this.locale = locale;
+
+        AtomicInteger seq = new AtomicInteger();
+        this.smtpExecutor = Executors.newFixedThreadPool(this.smtpConnections, r -> {
+            Thread t = new Thread(r, "reminder-smtp-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public Map<ReminderKind, DispatchStats> getLastRuns() {
+        return Map.copyOf(lastRuns);
+    }
+
+    public ReminderStats getStats() {
+        return new ReminderStats(runs.get(), candidatesTotal.get(), batchesTotal.get(), emailsSentTotal.get(),
+                emailsFailedTotal.get(), notificationsSentTotal.get(), notificationsFailedTotal.get(),
+                markedTotal.get(), elapsedMillisTotal.get());
+    }
+
+    public DispatchStats dispatch(ReminderKind kind, Instant windowStart, Instant windowEnd) {
+        long started = System.nanoTime();
+
+        List<Appointment> candidates = kind == ReminderKind.DAY_BEFORE
+                ? appointmentRepo.findReminderBatch(windowStart, windowEnd)
+                : appointmentRepo.findUrgentReminderBatch(windowStart, windowEnd);
+
+        // Hiện chưa lưu ngôn ngữ theo bệnh nhân nên cả lô dùng chung 1 template (key + locale)
+        MailTemplateCache.CompiledTemplate template = templateCache.get(kind.templateKey, locale,
+                () -> kind == ReminderKind.DAY_BEFORE
+                        ? MailService.defaultAppointmentReminderTemplate(locale)
+                        : MailService.defaultUrgentReminderTemplate(locale));
+
+        int batches = 0;
+        int emailsSent = 0;
+        int emailsFailed = 0;
+        int notificationsSent = 0;
+        int notificationsFailed = 0;
+        int marked = 0;
+
+        for (int from = 0; from < candidates.size(); from += batchSize) {
+            List<Appointment> batch = candidates.subList(from, Math.min(from + batchSize, candidates.size()));
+            BatchResult result = sendBatch(kind, template, batch);
+
+            batches++;
+            emailsSent += result.emailed().size();
+            emailsFailed += result.emailFailures();
+            notificationsSent += result.notified().size();
+            notificationsFailed += batch.size() - result.notified().size();
+
+            // Đã nhắc được qua ít nhất 1 kênh thì không nhắc lại ở lần chạy sau
+            Set<Integer> delivered = new HashSet<>(result.emailed());
+            delivered.addAll(result.notified());
+            if (!delivered.isEmpty()) {
+                marked += kind == ReminderKind.DAY_BEFORE
+                        ? appointmentRepo.markReminderSent(delivered)
+                        : appointmentRepo.markUrgentReminderSent(delivered);
+            }
+        }
+
+        DispatchStats stats = new DispatchStats(kind, candidates.size(), batches, emailsSent, emailsFailed,
+                notificationsSent, marked, Duration.ofNanos(System.nanoTime() - started).toMillis(), Instant.now());
+        lastRuns.put(kind, stats);
+        runs.incrementAndGet();
+        candidatesTotal.addAndGet(stats.candidates());
+        batchesTotal.addAndGet(batches);
+        emailsSentTotal.addAndGet(emailsSent);
+        emailsFailedTotal.addAndGet(emailsFailed);
+        notificationsSentTotal.addAndGet(notificationsSent);
+        notificationsFailedTotal.addAndGet(notificationsFailed);
+        markedTotal.addAndGet(marked);
+        elapsedMillisTotal.addAndGet(stats.elapsedMillis());
+
+        if (stats.candidates() > 0) {
+            log.info("Appointment reminder ({}): {} candidate(s) in {} batch(es), {} email(s) sent, {} failed, " +
+                            "{} notification(s), {} marked in {} ms ({} emails/s)",
+                    kind.label, stats.candidates(), batches, emailsSent, emailsFailed, notificationsSent, marked,
+                    stats.elapsedMillis(), String.format("%.1f", stats.emailsPerSecond()));
+        } else {
+            log.debug("Appointment reminder ({}): nothing to send", kind.label);
+        }
+        return stats;
+    }
+
+    private BatchResult sendBatch(ReminderKind kind, MailTemplateCache.CompiledTemplate template, List<Appointment> batch) {
+        // 1. Render toàn bộ email của lô trên luồng hiện tại
+        List<PreparedMail> mails = new ArrayList<>();
+        for (Appointment appt : batch) {
+            User user = appt.getPatient().getUser();
+            if (user.getEmail() == null || user.getEmail().isBlank()) continue;
+            try {
+                mails.add(new PreparedMail(appt, buildMessage(user.getEmail(), template, appt)));
+            } catch (Exception e) {
+                log.error("Failed to build {} reminder email for appointment {}: {}", kind.label, appt.getId(), e.getMessage());
+            }
+        }
+
+        // 2. Chia lô cho các luồng SMTP, mỗi luồng gửi phần của mình qua 1 kết nối
+        Set<Integer> emailed = ConcurrentHashMap.newKeySet();
+        Map<Integer, String> failures = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        int chunkSize = (mails.size() + smtpConnections - 1) / Math.max(1, smtpConnections);
+        for (int from = 0; from < mails.size(); from += chunkSize) {
+            List<PreparedMail> chunk = mails.subList(from, Math.min(from + chunkSize, mails.size()));
+            futures.add(smtpExecutor.submit(() -> sendOverOneConnection(chunk, emailed, failures)));
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (Exception e) {
+                log.error("Reminder SMTP worker failed: {}", e.getMessage(), e);
+            }
+        }
+
+        // 3. Thông báo trong app (DB + realtime): cả lô trong 1 lần gọi; lỗi thì cả lô chưa được nhắc qua app
+        Set<Integer> notified = new LinkedHashSet<>();
+        try {
+            List<NotificationRequest> requests = batch.stream().map(appt -> buildNotification(kind, appt)).toList();
+            notificationService.sendNotifications(requests)
+                    .forEach(n -> notified.add(n.getRelatedEntityId()));
+        } catch (Exception e) {
+            log.error("Failed to send {} reminder notification(s) for {} appointment(s): {}",
+                    kind.label, batch.size(), e.getMessage());
+        }
+
+        // 4. Ghi EmailLog của cả lô
+        saveEmailLogs(template.getTemplate(), mails, emailed, failures);
+
+        return new BatchResult(emailed, failures.size(), notified);
+    }
+
+    private void sendOverOneConnection(List<PreparedMail> chunk, Set<Integer> emailed, Map<Integer, String> failures) {
+        Map<MimeMessage, Integer> idByMessage = new HashMap<>();
+        for (PreparedMail m : chunk) idByMessage.put(m.message(), m.appointment().getId());
+
+        try {
+            // JavaMailSenderImpl mở 1 Transport cho cả mảng và dùng lại cho từng email
+            mailSender.send(chunk.stream().map(PreparedMail::message).toArray(MimeMessage[]::new));
+            idByMessage.values().forEach(emailed::add);
+        } catch (MailSendException ex) {
+            Map<Object, Exception> failed = ex.getFailedMessages();
+            idByMessage.forEach((msg, id) -> {
+                Exception cause = failed.get(msg);
+                if (cause != null) failures.put(id, String.valueOf(cause.getMessage()));
+                else if (!failed.isEmpty()) emailed.add(id);
+                else failures.put(id, String.valueOf(ex.getMessage())); // Lỗi kết nối: cả phần này thất bại
+            });
+            log.error("Reminder SMTP batch: {} of {} email(s) failed: {}", failed.isEmpty() ? chunk.size() : failed.size(),
+                    chunk.size(), ex.getMessage());
+        } catch (Exception ex) {
+            idByMessage.values().forEach(id -> failures.put(id, String.valueOf(ex.getMessage())));
+            log.error("Reminder SMTP batch of {} email(s) failed: {}", chunk.size(), ex.getMessage());
+        }
+    }
+
+    private MimeMessage buildMessage(String toEmail, MailTemplateCache.CompiledTemplate template, Appointment appt)
+            throws Exception {
+        Map<String, String> vars = new HashMap<>();
+        vars.put("name", appt.getPatient().getUser().getFullName());
+        vars.put("time", formatTime(appt));
+        vars.put("service", appt.getService() != null ? appt.getService().getServiceName() : "Khám tổng quát");
+        vars.put("address", appt.getClinic() != null && appt.getClinic().getAddress() != null
+                ? appt.getClinic().getAddress() : "Phòng khám");
+
+        MimeMessage msg = mailSender.createMimeMessage();
+        MimeMessageHelper h = new MimeMessageHelper(msg, true, "UTF-8");
+        h.setFrom(mailService.resolveFromAddress());
+        h.setTo(toEmail);
+        h.setSubject(template.getSubject());
+        h.setText(template.render(vars), true);
+        return msg;
+    }
+
+    private NotificationRequest buildNotification(ReminderKind kind, Appointment appt) {
+        String clinicName = appt.getClinic() != null ? appt.getClinic().getClinicName() : "Phòng khám";
+        String doctorName = appt.getDoctor() != null ? appt.getDoctor().getFullName() : "Bác sĩ";
+        String timeStr = formatTime(appt);
+
+        String message = kind == ReminderKind.DAY_BEFORE
+                ? String.format("Nhắc nhở: Bạn có lịch hẹn tại %s với %s vào lúc %s (còn 24 giờ). Vui lòng đến đúng giờ.",
+                        clinicName, doctorName, timeStr)
+                : String.format("Nhắc nhở: Bạn có lịch hẹn tại %s với %s vào lúc %s (còn 2 giờ). Vui lòng chuẩn bị đến phòng khám.",
+                        clinicName, doctorName, timeStr);
+
+        return NotificationRequest.builder()
+                .userId(appt.getPatient().getUser().getId())
+                .type("APPOINTMENT_REMINDER")
+                .priority("MEDIUM")
+                .title("Nhắc nhở lịch hẹn")
+                .message(message)
+                .actionUrl("/appointments")
+                .relatedEntityType("APPOINTMENT")
+                .relatedEntityId(appt.getId())
+                .build();
+    }
+
+    private void saveEmailLogs(EmailTemplate template, List<PreparedMail> mails, Set<Integer> emailed,
+                               Map<Integer, String> failures) {
+        if (mails.isEmpty()) return;
+        Instant now = Instant.now();
+        Map<Integer, Appointment> byId = mails.stream()
+                .collect(Collectors.toMap(m -> m.appointment().getId(), PreparedMail::appointment,
+                        (a, b) -> a));
+
+        List<EmailLog> logs = new ArrayList<>();
+        byId.forEach((id, appt) -> {
+            EmailLog entry = new EmailLog();
+            entry.setPatient(appt.getPatient());
+            entry.setAppointment(appt);
+            entry.setTemplate(template);
+            entry.setQueuedAt(now);
+            entry.setCost(BigDecimal.ZERO);
+            if (emailed.contains(id)) {
+                entry.setStatus("SENT");
+                entry.setSentAt(now);
+            } else {
+                entry.setStatus("FAILED");
+                String error = failures.getOrDefault(id, "Unknown error");
+                entry.setErrorMessage(error.length() > 500 ? error.substring(0, 500) : error);
+            }
+            logs.add(entry);
+        });
+
+        try {
+            emailLogRepo.saveAll(logs);
+        } catch (Exception e) {
+            // Không để lỗi ghi log làm mất trạng thái đã nhắc
+            log.warn("Failed to save {} reminder email log(s): {}", logs.size(), e.getMessage());
+        }
+    }
+
+    private static String formatTime(Appointment appt) {
+        return appt.getStartDateTime().atZone(ZONE_ID).toLocalDateTime().format(TIME_FORMAT);
+    }
+
+    private record PreparedMail(Appointment appointment, MimeMessage message) {}
+
+    private record BatchResult(Set<Integer> emailed, int emailFailures, Set<Integer> notified) {}
+
+    @PreDestroy
+    public void shutdown() {
+        smtpExecutor.shutdownNow();
+    }
+}
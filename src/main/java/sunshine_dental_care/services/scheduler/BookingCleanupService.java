@@ -7,30 +7,34 @@ import org.springframework.stereotype.Service;
 import sunshine_dental_care.repositories.reception.AppointmentRepo;
 
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class BookingCleanupService {
     private final AppointmentRepo appointmentRepo;
+    private final BookingExpiryTimer bookingExpiryTimer;
 
-    @Scheduled(fixedRate = 60000) // Quét mỗi 1 phút
-
+    // Việc hủy đúng hạn do BookingExpiryTimer đảm nhận; job này chỉ là lưới an toàn (timer bị lỡ, node khác tạo lịch...)
+    @Scheduled(fixedRateString = "${app.booking.cleanup-sweep-ms:900000}") // Mặc định quét mỗi 15 phút
     public void scanAndCancelExpiredBookings() {
 
-        // 1. Tính thời điểm giới hạn (Hiện tại - 10 phút)
+        // 1. Tính thời điểm giới hạn (Hiện tại - thời gian giữ chỗ)
         // Nghĩa là: Những đơn nào tạo TRƯỚC thời điểm này là đã quá hạn
-        Instant expirationTime = Instant.now().minus(10, ChronoUnit.MINUTES);
-
-        int count = appointmentRepo.cancelExpiredAppointments(
-                "AWAITING_PAYMENT",
-                "CANCELLED",
-                expirationTime
-        );
+        Instant expirationTime = Instant.now().minus(bookingExpiryTimer.getPaymentHold());
+
+        // 2. Hủy từng lịch qua timer để dùng chung logic (update có điều kiện + báo màn hình lễ tân)
+        int count = 0;
+        for (Object[] row : appointmentRepo.findIdAndCreatedAtByStatus(BookingExpiryTimer.AWAITING_PAYMENT)) {
+            Instant createdAt = (Instant) row[1];
+            if (createdAt != null && createdAt.isBefore(expirationTime)
+                    && bookingExpiryTimer.expire((Integer) row[0])) {
+                count++;
+            }
+        }
 
         if(count > 0) {
-            log.info(" Auto-Cleanup: Đã hủy {} lịch hẹn treo quá hạn thanh toán.", count);
+            log.info(" Auto-Cleanup: Đã hủy {} lịch hẹn treo quá hạn thanh toán (timer bị lỡ).", count);
         }
     }
 }
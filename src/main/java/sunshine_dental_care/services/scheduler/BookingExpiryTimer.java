@@ -0,0 +1,145 @@
+package sunshine_dental_care.services.scheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
+
+/**
+ * Hủy lịch hẹn AWAITING_PAYMENT đúng thời điểm hết hạn giữ chỗ, thay vì chờ job quét bảng mỗi phút.
+ * Mỗi lịch hẹn có 1 timer trong bộ nhớ; khởi động lại thì nạp lại từ DB.
+ * BookingCleanupService vẫn quét thưa để phòng trường hợp timer bị lỡ.
+ */
+@Service
+@Slf4j
+public class BookingExpiryTimer {
+
+    public static final String AWAITING_PAYMENT = "AWAITING_PAYMENT";
+    public static final String CANCELLED = "CANCELLED";
+
+    private final AppointmentRepo appointmentRepo;
+    private final ReceptionDashboardPublisher dashboardPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration paymentHold;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<Integer, ScheduledFuture<?>> timers = new ConcurrentHashMap<>();
+
+    public BookingExpiryTimer(AppointmentRepo appointmentRepo,
+                              ReceptionDashboardPublisher dashboardPublisher,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${app.booking.payment-hold-minutes:10}") long paymentHoldMinutes) {
+        this.appointmentRepo = appointmentRepo;
+        this.dashboardPublisher = dashboardPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.paymentHold = Duration.ofMinutes(paymentHoldMinutes);
+
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "booking-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        // Hủy timer (khi đã thanh toán) thì gỡ khỏi hàng đợi ngay, không giữ đến hạn
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public Duration getPaymentHold() {
+        return paymentHold;
+    }
+
+    // Nạp lại timer cho các lịch hẹn đang chờ thanh toán khi ứng dụng khởi động
+    @EventListener(ApplicationReadyEvent.class)
+    public void rehydrate() {
+        try {
+            List<Object[]> pending = appointmentRepo.findIdAndCreatedAtByStatus(AWAITING_PAYMENT);
+            for (Object[] row : pending) {
+                schedule((Integer) row[0], (Instant) row[1]);
+            }
+            log.info("Booking expiry: rehydrated {} pending payment timer(s)", pending.size());
+        } catch (Exception e) {
+            // Sweep dự phòng trong BookingCleanupService vẫn xử lý các lịch này
+            log.error("Booking expiry: failed to rehydrate timers: {}", e.getMessage(), e);
+        }
+    }
+
+    // Đăng ký hạn thanh toán cho lịch hẹn; nếu đang trong transaction thì chỉ đăng ký sau khi commit
+    public void track(Integer appointmentId, Instant createdAt) {
+        if (appointmentId == null) return;
+        Instant created = createdAt != null ? createdAt : Instant.now();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    schedule(appointmentId, created);
+                }
+            });
+        } else {
+            schedule(appointmentId, created);
+        }
+    }
+
+    // Lịch hẹn đã thanh toán / đổi trạng thái -> bỏ timer
+    public void untrack(Integer appointmentId) {
+        if (appointmentId == null) return;
+        ScheduledFuture<?> future = timers.remove(appointmentId);
+        if (future != null) future.cancel(false);
+    }
+
+    public int pendingCount() {
+        return timers.size();
+    }
+
+    private void schedule(Integer appointmentId, Instant createdAt) {
+        long delayMs = Math.max(0, Duration.between(Instant.now(), createdAt.plus(paymentHold)).toMillis());
+        ScheduledFuture<?> future = executor.schedule(() -> expire(appointmentId), delayMs, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = timers.put(appointmentId, future);
+        if (previous != null) previous.cancel(false);
+    }
+
+    // Hủy lịch nếu vẫn đang chờ thanh toán; trả về true nếu thực sự đã hủy
+    public boolean expire(Integer appointmentId) {
+        timers.remove(appointmentId);
+        try {
+            Boolean cancelled = transactionTemplate.execute(status -> {
+                int updated = appointmentRepo.updateStatusIfCurrent(appointmentId, AWAITING_PAYMENT, CANCELLED);
+                if (updated == 0) return false;
+
+                // Báo màn hình lễ tân để slot được giải phóng ngay trên giao diện
+                appointmentRepo.findById(appointmentId).ifPresent(appt ->
+                        dashboardPublisher.appointmentChanged(ReceptionDashboardPublisher.STATUS_CHANGED, appt));
+                return true;
+            });
+            if (Boolean.TRUE.equals(cancelled)) {
+                log.info("Booking expiry: cancelled appointment #{} (payment hold of {} min elapsed)",
+                        appointmentId, paymentHold.toMinutes());
+            }
+            return Boolean.TRUE.equals(cancelled);
+        } catch (Exception e) {
+            log.error("Booking expiry: failed to cancel appointment #{}: {}", appointmentId, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -4,14 +4,18 @@ import com.cloudinary.Cloudinary;
 import com.cloudinary.utils.ObjectUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 
 @Service
 @Primary
+@ConditionalOnProperty(name = "app.storage.images", havingValue = "cloudinary", matchIfMissing = true)
 @RequiredArgsConstructor
 public class CloudinaryImageStorageService implements ImageStorageService {
     private final Cloudinary cloudinary;
@@ -25,12 +29,28 @@ public class CloudinaryImageStorageService implements ImageStorageService {
             throw new IllegalArgumentException("File is empty");
         }
 
+        // Part multipart thường đã nằm trên đĩa: chuyển sang file tạm rồi upload dạng stream thay vì getBytes()
+        Path tmp = Files.createTempFile("sdcare-upload-", ".img");
+        try {
+            file.transferTo(tmp);
+            return upload(tmp, folder);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public ImageUploadResult upload(Path file, String folder) throws Exception {
+        if (file == null || !Files.isRegularFile(file) || Files.size(file) == 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+
         String targetFolder = (folder == null || folder.isBlank())
                 ? rootFolder
                 : rootFolder + "/" + folder;
 
         Map<?, ?> res = cloudinary.uploader().upload(
-                file.getBytes(),
+                file.toFile(),
                 ObjectUtils.asMap(
                         "folder", targetFolder,
                         "resource_type", "image",
@@ -48,7 +68,3 @@ public class CloudinaryImageStorageService implements ImageStorageService {
         cloudinary.uploader().destroy(publicId, ObjectUtils.asMap("resource_type", "image"));
     }
 }
-
-
-
-
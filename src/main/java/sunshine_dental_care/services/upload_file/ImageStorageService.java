@@ -2,8 +2,14 @@ package sunshine_dental_care.services.upload_file;
 
 import org.springframework.web.multipart.MultipartFile;
 
+import java.nio.file.Path;
+
 public interface ImageStorageService {
     ImageUploadResult upload(MultipartFile file, String folder) throws Exception;
+
+    // Upload file đã nằm trên đĩa: đọc dần từ file, không nạp cả ảnh vào heap
+    ImageUploadResult upload(Path file, String folder) throws Exception;
+
     void delete(String publicId) throws Exception;
 
     class ImageUploadResult {
@@ -24,5 +30,3 @@ public interface ImageStorageService {
         }
     }
 }
-
-
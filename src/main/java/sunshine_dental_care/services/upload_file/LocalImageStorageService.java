@@ -0,0 +1,104 @@
+package sunshine_dental_care.services.upload_file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Lưu ảnh trên ổ đĩa local (chạy offline / môi trường test), bật bằng app.storage.images=local.
+ * File nằm dưới thư mục uploads, được phục vụ qua /uploads/** (StaticResourceConfig);
+ * publicId = đường dẫn tương đối trong uploads.
+ */
+@Service
+@ConditionalOnProperty(name = "app.storage.images", havingValue = "local")
+@Slf4j
+public class LocalImageStorageService implements ImageStorageService {
+
+    // Trùng với thư mục StaticResourceConfig map cho /uploads/**
+    private static final String UPLOAD_DIR = "uploads";
+
+    private final Path root;
+    private final String publicBaseUrl;
+
+    @Autowired
+    public LocalImageStorageService(@Value("${app.public-base-url:http://localhost:8080}") String publicBaseUrl) {
+        this(Path.of(UPLOAD_DIR), publicBaseUrl);
+    }
+
+    // Thư mục gốc tùy chọn (test dùng thư mục tạm thay cho uploads)
+    public LocalImageStorageService(Path root, String publicBaseUrl) {
+        this.root = root.toAbsolutePath().normalize();
+        this.publicBaseUrl = publicBaseUrl.replaceAll("/+$", "");
+    }
+
+    @Override
+    public ImageUploadResult upload(MultipartFile file, String folder) throws Exception {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        Path target = newTarget(folder, file.getOriginalFilename());
+        try {
+            file.transferTo(target);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        return result(target);
+    }
+
+    @Override
+    public ImageUploadResult upload(Path file, String folder) throws Exception {
+        if (file == null || !Files.isRegularFile(file) || Files.size(file) == 0) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        Path target = newTarget(folder, file.getFileName().toString());
+        Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        return result(target);
+    }
+
+    @Override
+    public void delete(String publicId) throws Exception {
+        if (publicId == null || publicId.isBlank()) return;
+        Path target = root.resolve(publicId).normalize();
+        if (!target.startsWith(root)) {
+            throw new IllegalArgumentException("Invalid image id");
+        }
+        if (!Files.deleteIfExists(target)) {
+            log.debug("Local image already removed: {}", publicId);
+        }
+    }
+
+    private Path newTarget(String folder, String originalName) throws IOException {
+        Path dir = (folder == null || folder.isBlank()) ? root : root.resolve(folder).normalize();
+        if (!dir.startsWith(root)) {
+            throw new IllegalArgumentException("Invalid folder");
+        }
+        Files.createDirectories(dir);
+        return dir.resolve(UUID.randomUUID().toString().replace("-", "") + extension(originalName));
+    }
+
+    private ImageUploadResult result(Path target) {
+        String publicId = root.relativize(target).toString().replace('\\', '/');
+        return new ImageUploadResult(publicBaseUrl + "/" + UPLOAD_DIR + "/" + publicId, publicId);
+    }
+
+    private static String extension(String name) {
+        if (name == null) return ".jpg";
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return ".jpg";
+        return switch (name.substring(dot).toLowerCase()) {
+            case ".png" -> ".png";
+            case ".webp" -> ".webp";
+            default -> ".jpg";
+        };
+    }
+}
@@ -0,0 +1,68 @@
+package sunshine_dental_care.utils.huybro_utils.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+// CSV (RFC 4180) ghi thẳng ra stream; có BOM để Excel đọc đúng tiếng Việt
+public class CsvExportWriter implements TabularExportWriter {
+
+    private final Writer writer;
+    private boolean started;
+
+    public CsvExportWriter(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    @Override
+    public void sheet(String name) throws IOException {
+        if (started) writer.write("\r\n");
+        row(name);
+    }
+
+    @Override
+    public void header(String... columns) throws IOException {
+        row((Object[]) columns);
+    }
+
+    @Override
+    public void row(Object... values) throws IOException {
+        if (!started) {
+            writer.write('\uFEFF');
+            started = true;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            writer.write(escape(values[i]));
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        // Stream thuộc về response, không đóng ở đây
+    }
+
+    private static String escape(Object value) {
+        if (value == null) return "";
+        String s = value instanceof BigDecimal bd ? bd.toPlainString() : value.toString();
+        // Chống CSV injection: chuỗi bắt đầu bằng ký tự công thức bị Excel coi là công thức -> thêm ' phía trước.
+        // Số (kể cả số âm) giữ nguyên
+        if (!(value instanceof Number) && !s.isEmpty() && isFormulaStart(s.charAt(0))) s = "'" + s;
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static boolean isFormulaStart(char c) {
+        return c == '=' || c == '+' || c == '-' || c == '@' || c == '\t' || c == '\r';
+    }
+}
@@ -0,0 +1,94 @@
+package sunshine_dental_care.utils.huybro_utils.export;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Định dạng file export: báo cáo dạng bảng dùng Excel (SXSSF) hoặc CSV (nhanh, byte đầu tiên tới ngay);
+// hồ sơ bệnh án dùng PDF (1 file gộp) hoặc ZIP (mỗi hồ sơ 1 file PDF)
+public enum ExportFormat {
+    XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+    CSV("csv", "text/csv; charset=UTF-8"),
+    PDF("pdf", "application/pdf"),
+    ZIP("zip", "application/zip");
+
+    private final String extension;
+    private final String contentType;
+
+    ExportFormat(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    // Báo cáo dạng bảng: null / rỗng -> XLSX như trước đây
+    public static ExportFormat from(String value) {
+        return from(value, XLSX, XLSX, CSV);
+    }
+
+    // Chỉ nhận các định dạng endpoint hỗ trợ; null / rỗng -> defaultFormat
+    public static ExportFormat from(String value, ExportFormat defaultFormat, ExportFormat... supported) {
+        if (value == null || value.isBlank()) return defaultFormat;
+        for (ExportFormat f : supported) {
+            if (f.extension.equalsIgnoreCase(value.trim())) return f;
+        }
+        throw new IllegalArgumentException("Unsupported export format: " + value
+                + " (supported: " + Arrays.stream(supported).map(ExportFormat::extension).toList() + ")");
+    }
+
+    // Trả về stream ghi thẳng ra response, không đệm cả file trong heap.
+    // Header tải file chỉ được đặt khi có byte đầu tiên (hoặc flush): lỗi kiểm tra / không tìm thấy dữ liệu
+    // xảy ra trước đó vẫn được trả về dạng JSON bình thường
+    public OutputStream prepare(HttpServletResponse response, String baseName) throws IOException {
+        return new OutputStream() {
+            private OutputStream target;
+
+            private OutputStream target() throws IOException {
+                if (target == null) {
+                    response.setContentType(contentType);
+                    response.setHeader("Content-Disposition", "attachment; filename=" + baseName + "." + extension);
+                    response.setHeader("Cache-Control", "no-store");
+                    target = response.getOutputStream();
+                }
+                return target;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                target().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                target().write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target().flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (target != null) target.close();
+            }
+        };
+    }
+
+    public TabularExportWriter open(OutputStream out) {
+        return switch (this) {
+            case CSV -> new CsvExportWriter(out);
+            case XLSX -> new SxssfExportWriter(out);
+            default -> throw new IllegalStateException(this + " is not a tabular export format");
+        };
+    }
+}
@@ -0,0 +1,140 @@
+package sunshine_dental_care.utils.huybro_utils.export;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Excel dạng streaming (SXSSF): chỉ ROW_WINDOW dòng gần nhất nằm trong heap,
+ * các dòng cũ được đẩy xuống file tạm (nén) và ghép lại khi finish().
+ * Độ rộng cột tính theo độ dài nội dung khi ghi (autoSizeColumn cần toàn bộ dòng trong bộ nhớ).
+ */
+public class SxssfExportWriter implements TabularExportWriter {
+
+    private static final int ROW_WINDOW = 200;
+    private static final int MAX_COLUMN_CHARS = 60;
+
+    private final OutputStream out;
+    private final SXSSFWorkbook workbook;
+    private final CellStyle headerStyle;
+    private final CellStyle currencyStyle;
+
+    private SXSSFSheet sheet;
+    private int rowIdx;
+    private final List<Integer> columnChars = new ArrayList<>();
+
+    public SxssfExportWriter(OutputStream out) {
+        this.out = out;
+        this.workbook = new SXSSFWorkbook(ROW_WINDOW);
+        this.workbook.setCompressTempFiles(true);
+        this.headerStyle = createHeaderStyle();
+        this.currencyStyle = createCurrencyStyle();
+    }
+
+    @Override
+    public void sheet(String name) {
+        applyColumnWidths();
+        sheet = workbook.createSheet(name);
+        rowIdx = 0;
+        columnChars.clear();
+    }
+
+    @Override
+    public void header(String... columns) {
+        Row row = nextRow();
+        for (int i = 0; i < columns.length; i++) {
+            Cell cell = row.createCell(i);
+            cell.setCellValue(columns[i]);
+            cell.setCellStyle(headerStyle);
+            track(i, columns[i]);
+        }
+    }
+
+    @Override
+    public void row(Object... values) {
+        Row row = nextRow();
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) continue;
+            Cell cell = row.createCell(i);
+            if (value instanceof BigDecimal bd) {
+                cell.setCellValue(bd.doubleValue());
+                cell.setCellStyle(currencyStyle);
+                track(i, String.format("%,.0f", bd));
+            } else if (value instanceof Number n) {
+                cell.setCellValue(n.doubleValue());
+                track(i, n.toString());
+            } else {
+                String s = value.toString();
+                cell.setCellValue(s);
+                track(i, s);
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        applyColumnWidths();
+        workbook.write(out);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Xóa file tạm của các dòng đã flush
+        workbook.dispose();
+        workbook.close();
+    }
+
+    private Row nextRow() {
+        if (sheet == null) sheet("Sheet1");
+        return sheet.createRow(rowIdx++);
+    }
+
+    private void track(int column, String text) {
+        while (columnChars.size() <= column) columnChars.add(0);
+        int len = Math.min(text.length(), MAX_COLUMN_CHARS);
+        if (len > columnChars.get(column)) columnChars.set(column, len);
+    }
+
+    private void applyColumnWidths() {
+        if (sheet == null) return;
+        for (int i = 0; i < columnChars.size(); i++) {
+            sheet.setColumnWidth(i, (columnChars.get(i) + 2) * 256);
+        }
+    }
+
+    private CellStyle createHeaderStyle() {
+        CellStyle style = workbook.createCellStyle();
+        Font font = workbook.createFont();
+        font.setBold(true);
+        font.setColor(IndexedColors.WHITE.getIndex());
+        style.setFont(font);
+        style.setAlignment(HorizontalAlignment.CENTER);
+        style.setVerticalAlignment(VerticalAlignment.CENTER);
+        style.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex()); // Màu nền header
+        style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        return style;
+    }
+
+    private CellStyle createCurrencyStyle() {
+        CellStyle style = workbook.createCellStyle();
+        DataFormat format = workbook.createDataFormat();
+        style.setDataFormat(format.getFormat("#,##0")); // Format VND (không cần số thập phân)
+        return style;
+    }
+}
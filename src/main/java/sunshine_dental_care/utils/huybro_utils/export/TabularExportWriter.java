@@ -0,0 +1,25 @@
+package sunshine_dental_care.utils.huybro_utils.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Ghi bảng dữ liệu theo từng dòng, không giữ toàn bộ file trong bộ nhớ.
+ * Giá trị: BigDecimal -> ô tiền, Number -> ô số, còn lại -> chuỗi (null = ô trống).
+ * Luôn gọi finish() khi ghi xong; close() chỉ dọn tài nguyên tạm.
+ */
+public interface TabularExportWriter extends Closeable {
+
+    // Sheet mới (Excel) hoặc 1 khối mới có tiêu đề (CSV)
+    void sheet(String name) throws IOException;
+
+    void header(String... columns) throws IOException;
+
+    void row(Object... values) throws IOException;
+
+    default void blankRow() throws IOException {
+        row();
+    }
+
+    void finish() throws IOException;
+}
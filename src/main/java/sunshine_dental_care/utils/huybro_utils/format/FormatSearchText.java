@@ -0,0 +1,29 @@
+package sunshine_dental_care.utils.huybro_utils.format;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class FormatSearchText {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    // Bỏ dấu tiếng Việt + chữ thường: "Bàn chải Điện" -> "ban chai dien"
+    public static String fold(String text) {
+        if (text == null || text.isBlank()) return "";
+        String s = text.replace('đ', 'd').replace('Đ', 'D');
+        s = MARKS.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("");
+        return SPACES.matcher(s.toLowerCase().trim()).replaceAll(" ");
+    }
+
+    // Các trigram của chuỗi đã fold (chuỗi ngắn hơn 3 ký tự không có trigram)
+    public static Set<String> trigrams(String folded) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= folded.length(); i++) {
+            grams.add(folded.substring(i, i + 3));
+        }
+        return grams;
+    }
+}
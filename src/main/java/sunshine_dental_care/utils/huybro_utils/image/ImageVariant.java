@@ -0,0 +1,37 @@
+package sunshine_dental_care.utils.huybro_utils.image;
+
+import java.util.Locale;
+
+// Các kích thước ảnh sản phẩm được sinh sẵn khi upload
+public enum ImageVariant {
+    THUMB(200, 200),
+    CARD(480, 480),
+    // Giữ kích thước 1000x1000 như /images/{fileName} trước đây
+    DETAIL(1000, 1000);
+
+    private final int width;
+    private final int height;
+
+    ImageVariant(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String key() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // null / rỗng -> DETAIL; tên không hợp lệ -> IllegalArgumentException
+    public static ImageVariant from(String value) {
+        if (value == null || value.isBlank()) return DETAIL;
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
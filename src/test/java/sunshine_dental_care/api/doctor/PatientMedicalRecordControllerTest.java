@@ -0,0 +1,84 @@
+package sunshine_dental_care.api.doctor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import sunshine_dental_care.exceptions.GlobalExceptionHandler;
+import sunshine_dental_care.services.doctor.PatientMedicalRecordService;
+
+class PatientMedicalRecordControllerTest {
+
+    private PatientMedicalRecordService service;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        service = mock(PatientMedicalRecordService.class);
+        when(service.uploadImages(any(), any(), anyList(), any(), any())).thenReturn(List.of());
+        mockMvc = MockMvcBuilders.standaloneSetup(new PatientMedicalRecordController(service))
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void singleDescriptionWithCommaIsNotSplit() throws Exception {
+        mockMvc.perform(multipart("/api/patients/1/records/2/images/batch")
+                        .file(image("a.jpg"))
+                        .param("descriptions", "Răng 36, mặt nhai")
+                        .param("aiTags", "caries,stage-2"))
+                .andExpect(status().isOk());
+
+        ArgumentCaptor<List<String>> descriptions = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<String>> aiTags = ArgumentCaptor.forClass(List.class);
+        verify(service).uploadImages(eq(1), eq(2), anyList(), descriptions.capture(), aiTags.capture());
+        assertThat(descriptions.getValue()).containsExactly("Răng 36, mặt nhai");
+        assertThat(aiTags.getValue()).containsExactly("caries,stage-2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void repeatedFieldsMatchFilesInOrder() throws Exception {
+        mockMvc.perform(multipart("/api/patients/1/records/2/images/batch")
+                        .file(image("a.jpg"))
+                        .file(image("b.jpg"))
+                        .param("descriptions", "Hàm trên, trái", ""))
+                .andExpect(status().isOk());
+
+        ArgumentCaptor<List<String>> descriptions = ArgumentCaptor.forClass(List.class);
+        verify(service).uploadImages(eq(1), eq(2), anyList(), descriptions.capture(), isNull());
+        assertThat(descriptions.getValue()).containsExactly("Hàm trên, trái", "");
+    }
+
+    @Test
+    void rejectsFieldCountThatDoesNotMatchFiles() throws Exception {
+        mockMvc.perform(multipart("/api/patients/1/records/2/images/batch")
+                        .file(image("a.jpg"))
+                        .file(image("b.jpg"))
+                        .param("descriptions", "chỉ 1 mô tả"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(service);
+    }
+
+    private static MockMultipartFile image(String name) {
+        return new MockMultipartFile("files", name, "image/jpeg", new byte[]{1, 2, 3});
+    }
+}
@@ -0,0 +1,199 @@
+package sunshine_dental_care.services.doctor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.invocation.Invocation;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.dto.doctorDTO.MedicalRecordImageDTO;
+import sunshine_dental_care.services.doctor.MedicalRecordImageUploadService.ImageUpload;
+import sunshine_dental_care.services.upload_file.LocalImageStorageService;
+
+class MedicalRecordImageUploadServiceTest {
+
+    private static final int RECORD_ID = 5;
+    private static final int THUMBNAIL_SIZE = 40;
+
+    @TempDir
+    Path root;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    // publicId ảnh gốc theo đúng thứ tự được bind vào batch INSERT
+    private final List<String> insertedPublicIds = new ArrayList<>();
+    private LocalImageStorageService storage;
+    private MedicalRecordImageUploadService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        storage = spy(new LocalImageStorageService(root, "http://cdn.test/"));
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        service = new MedicalRecordImageUploadService(storage, jdbcTemplate, new TransactionTemplate(txManager),
+                2, THUMBNAIL_SIZE, 0.8f);
+
+        doAnswer(inv -> {
+            Collection<?> rows = inv.getArgument(1);
+            ParameterizedPreparedStatementSetter<Object> setter = inv.getArgument(3);
+            for (Object row : rows) {
+                PreparedStatement ps = mock(PreparedStatement.class);
+                setter.setValues(ps, row);
+                for (Invocation call : mockingDetails(ps).getInvocations()) {
+                    if (call.getMethod().getName().equals("setString") && (int) call.getArgument(0) == 3) {
+                        insertedPublicIds.add(call.getArgument(1));
+                    }
+                }
+            }
+            return new int[][]{};
+        }).when(jdbcTemplate).batchUpdate(anyString(), anyCollection(), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+
+        // SELECT id theo publicId: id = 900 + thứ tự insert
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            for (int i = 0; i < insertedPublicIds.size(); i++) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getString("imagePublicId")).thenReturn(insertedPublicIds.get(i));
+                when(rs.getInt("imageId")).thenReturn(900 + i);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void uploadsOriginalsAndThumbnailsAndReadsBackIds() throws Exception {
+        List<ImageUpload> uploads = List.of(
+                new ImageUpload(png("a.png", 400, 200), "Phim cận chóp", "XRAY"),
+                new ImageUpload(png("b.png", 100, 300), null, null),
+                // ImageIO không đọc được -> chỉ lưu ảnh gốc
+                new ImageUpload(new MockMultipartFile("files", "c.webp", "image/webp", new byte[]{1, 2, 3}), "webp", null));
+
+        List<MedicalRecordImageDTO> result = service.upload(RECORD_ID, uploads);
+
+        assertThat(result).extracting(MedicalRecordImageDTO::getDescription)
+                .containsExactly("Phim cận chóp", null, "webp");
+        assertThat(result).extracting(MedicalRecordImageDTO::getImagePublicId).containsExactlyElementsOf(insertedPublicIds);
+        assertThat(result).extracting(MedicalRecordImageDTO::getImageId).containsExactly(900, 901, 902);
+        assertThat(result.get(0).getImageUrl()).startsWith("http://cdn.test/uploads/medical-records/5/");
+        assertThat(result.get(0).getThumbnailUrl()).startsWith("http://cdn.test/uploads/medical-records/5/thumbs/");
+        assertThat(result.get(2).getThumbnailUrl()).isNull();
+
+        BufferedImage thumb = ImageIO.read(stored(result.get(0).getThumbnailUrl()).toFile());
+        assertThat(thumb.getWidth()).isEqualTo(THUMBNAIL_SIZE);
+        assertThat(thumb.getHeight()).isEqualTo(THUMBNAIL_SIZE / 2);
+        BufferedImage tallThumb = ImageIO.read(stored(result.get(1).getThumbnailUrl()).toFile());
+        assertThat(tallThumb.getHeight()).isEqualTo(THUMBNAIL_SIZE);
+        assertThat(Files.size(stored(result.get(2).getImageUrl()))).isEqualTo(3);
+        assertThat(storedFiles()).hasSize(5);
+        verify(jdbcTemplate).update(anyString(), any(), eq(RECORD_ID));
+    }
+
+    @Test
+    void failedStorageUploadRemovesEveryOtherImage() throws Exception {
+        doAnswer(inv -> {
+            Path file = inv.getArgument(0);
+            if (file.getFileName().toString().endsWith(".webp")) throw new IOException("storage down");
+            return inv.callRealMethod();
+        }).when(storage).upload(any(Path.class), anyString());
+        List<ImageUpload> uploads = List.of(
+                new ImageUpload(png("a.png", 200, 200), null, null),
+                new ImageUpload(new MockMultipartFile("files", "c.webp", "image/webp", new byte[]{1}), null, null),
+                new ImageUpload(png("b.png", 200, 200), null, null));
+
+        assertThatThrownBy(() -> service.upload(RECORD_ID, uploads))
+                .isInstanceOf(RuntimeException.class)
+                .hasRootCauseMessage("storage down");
+
+        assertThat(storedFiles()).isEmpty();
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyCollection(), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    void unreadablePartRemovesImagesAlreadyUploaded() throws Exception {
+        MockMultipartFile broken = new MockMultipartFile("files", "b.png", "image/png", new byte[]{1}) {
+            @Override
+            public void transferTo(Path dest) throws IOException {
+                throw new IOException("client aborted");
+            }
+        };
+        List<ImageUpload> uploads = List.of(
+                new ImageUpload(png("a.png", 200, 200), null, null),
+                new ImageUpload(broken, null, null));
+
+        assertThatThrownBy(() -> service.upload(RECORD_ID, uploads)).isInstanceOf(RuntimeException.class);
+
+        assertThat(storedFiles()).isEmpty();
+    }
+
+    @Test
+    void failedInsertRemovesUploadedImages() throws Exception {
+        when(jdbcTemplate.update(anyString(), any(), eq(RECORD_ID))).thenThrow(new IllegalStateException("db down"));
+
+        assertThatThrownBy(() -> service.upload(RECORD_ID, List.of(
+                new ImageUpload(png("a.png", 200, 200), null, null),
+                new ImageUpload(png("b.png", 200, 200), null, null))))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(storedFiles()).isEmpty();
+    }
+
+    private Path stored(String url) {
+        return root.resolve(url.substring("http://cdn.test/uploads/".length()));
+    }
+
+    private List<Path> storedFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    private static MockMultipartFile png(String name, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return new MockMultipartFile("files", name, "image/png", out.toByteArray());
+    }
+}
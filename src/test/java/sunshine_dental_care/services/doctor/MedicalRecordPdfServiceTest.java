@@ -0,0 +1,268 @@
+package sunshine_dental_care.services.doctor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.AppointmentService;
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.entities.MedicalRecord;
+import sunshine_dental_care.entities.MedicalRecordImage;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.entities.Service;
+import sunshine_dental_care.entities.ServiceVariant;
+import sunshine_dental_care.entities.User;
+
+class MedicalRecordPdfServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MedicalRecordPdfService service = new MedicalRecordPdfService(2);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void fullyPopulatedRecordRendersEverySection() throws Exception {
+        Path image = tempDir.resolve("xray.png");
+        ImageIO.write(new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), "png", image.toFile());
+        MedicalRecord record = record(1, clinic(1));
+        addImage(record, image.toUri().toString(), "Phim toàn cảnh");
+        // Ảnh lỗi chỉ hiện ô báo lỗi, không làm hỏng cả file
+        addImage(record, tempDir.resolve("missing.png").toUri().toString(), null);
+
+        byte[] pdf = service.generatePdf(record);
+
+        String text = text(pdf);
+        assertThat(text).contains("Nha khoa Sunshine", "DENTAL TREATMENT RECORD", "BN0001", "Nguyễn Văn A",
+                "Bác sĩ Trần", "CONFIRMED", "Niềng răng", "Mắc cài sứ", "Sâu răng hàm 36",
+                "Trám composite", "Amoxicillin 500mg", "Tái khám sau 2 tuần", "X-RAY FILMS / IMAGES",
+                "Phim toàn cảnh", "Image could not be loaded");
+    }
+
+    @Test
+    void mergedPdfKeepsRecordOrderAndPageCount() throws Exception {
+        List<MedicalRecord> records = records(5);
+        int expectedPages = 0;
+        for (MedicalRecord record : records) {
+            expectedPages += pageCount(service.generatePdf(record));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeMergedPdf(records, out);
+
+        try (PdfDocument merged = new PdfDocument(new PdfReader(new ByteArrayInputStream(out.toByteArray())))) {
+            assertThat(merged.getNumberOfPages()).isEqualTo(expectedPages);
+            List<Integer> order = new ArrayList<>();
+            for (int i = 1; i <= merged.getNumberOfPages(); i++) {
+                String page = PdfTextExtractor.getTextFromPage(merged.getPage(i));
+                for (MedicalRecord record : records) {
+                    if (page.contains("Ghi chú hồ sơ " + record.getId() + ".")) order.add(record.getId());
+                }
+            }
+            assertThat(order).containsExactly(1, 2, 3, 4, 5);
+        }
+    }
+
+    @Test
+    void zipHasOneEntryPerRecordInOrder() throws Exception {
+        List<MedicalRecord> records = records(6);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.writeZip(records, out);
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                assertThat(text(zip.readAllBytes())).contains("Ghi chú hồ sơ " + names.size() + ".");
+            }
+        }
+        assertThat(names).containsExactly(
+                "medical-record-2026-03-01-1.pdf", "medical-record-2026-03-02-2.pdf",
+                "medical-record-2026-03-03-3.pdf", "medical-record-2026-03-04-4.pdf",
+                "medical-record-2026-03-05-5.pdf", "medical-record-2026-03-06-6.pdf");
+    }
+
+    @Test
+    void failedSinkStopsRenderingBeyondTheWindow() throws Exception {
+        service.shutdown();
+        service = new MedicalRecordPdfService(1);
+        List<MedicalRecord> records = new ArrayList<>();
+        for (MedicalRecord record : records(6)) records.add(spy(record));
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("client gone");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("client gone");
+            }
+        };
+
+        assertThatThrownBy(() -> service.writeZip(records, broken)).isInstanceOf(IOException.class);
+
+        // 1 thread -> cửa sổ 2 hồ sơ; sink lỗi ở hồ sơ đầu nên các hồ sơ sau không được render
+        for (MedicalRecord record : records.subList(2, records.size())) {
+            verify(record, never()).getClinic();
+        }
+        // Service vẫn dùng tiếp được sau khi export lỗi
+        assertThat(pageCount(service.generatePdf(records(1).get(0)))).isPositive();
+    }
+
+    @Test
+    void fontProgramsAndHeaderAreReusedAcrossRenders() throws Exception {
+        Clinic clinic = clinic(1);
+        service.generatePdf(record(1, clinic));
+        // Lần đầu: 1 bộ cho tài liệu + 1 bộ cho header template đang render cùng lúc
+        assertThat(service.idleFontProgramCount()).isEqualTo(2);
+        for (int i = 2; i <= 4; i++) {
+            service.generatePdf(record(i, clinic));
+        }
+        // Render tuần tự sau đó mượn lại bộ cũ, không parse thêm font; header đã có sẵn
+        assertThat(service.idleFontProgramCount()).isEqualTo(2);
+        assertThat(service.headerTemplateCount()).isEqualTo(1);
+
+        service.writeZip(records(12), OutputStream.nullOutputStream());
+        // Pool không vượt quá threads + 2
+        assertThat(service.idleFontProgramCount()).isBetween(1, 4);
+
+        clinic.setPhone("0999999999");
+        service.generatePdf(record(5, clinic));
+        // Đổi thông tin phòng khám -> header mới
+        assertThat(service.headerTemplateCount()).isEqualTo(2);
+    }
+
+    private static List<MedicalRecord> records(int count) {
+        Clinic clinic = clinic(1);
+        List<MedicalRecord> list = new ArrayList<>();
+        for (int i = 1; i <= count; i++) list.add(record(i, clinic));
+        return list;
+    }
+
+    private static MedicalRecord record(int id, Clinic clinic) {
+        Patient patient = new Patient();
+        patient.setId(70);
+        patient.setPatientCode("BN0001");
+        patient.setFullName("Nguyễn Văn A");
+        patient.setGender("MALE");
+        patient.setDateOfBirth(LocalDate.of(1990, 5, 12));
+        patient.setPhone("0901234567");
+        patient.setEmail("a@example.com");
+        patient.setAddress("12 Lê Lợi, Đà Nẵng");
+
+        User doctor = new User();
+        doctor.setId(9);
+        doctor.setFullName("Bác sĩ Trần");
+        doctor.setCode("BS09");
+        doctor.setEmail("doctor@example.com");
+        doctor.setPhone("0907654321");
+
+        Appointment appointment = new Appointment();
+        appointment.setId(100 + id);
+        appointment.setStartDateTime(Instant.parse("2026-03-01T02:00:00Z"));
+        appointment.setStatus("CONFIRMED");
+        appointment.setNote("Đến sớm 10 phút");
+
+        Service dentalService = new Service();
+        dentalService.setServiceName("Niềng răng");
+        dentalService.setCategory("Chỉnh nha");
+        dentalService.setDescription("Chỉnh nha cố định");
+        dentalService.setDefaultDuration(60);
+        ServiceVariant variant = new ServiceVariant();
+        variant.setVariantName("Mắc cài sứ");
+        variant.setDescription("Mắc cài thẩm mỹ");
+        variant.setDuration(90);
+        variant.setPrice(new BigDecimal("35000000"));
+        AppointmentService appointmentService = new AppointmentService();
+        appointmentService.setService(dentalService);
+        appointmentService.setServiceVariant(variant);
+        appointmentService.setQuantity(1);
+        appointmentService.setUnitPrice(new BigDecimal("35000000"));
+        appointmentService.setDiscountPct(new BigDecimal("10"));
+        appointmentService.setNote("Trả góp");
+
+        MedicalRecord record = new MedicalRecord();
+        record.setId(id);
+        record.setClinic(clinic);
+        record.setPatient(patient);
+        record.setDoctor(doctor);
+        record.setAppointment(appointment);
+        record.setService(dentalService);
+        record.setServiceVariant(variant);
+        record.setAppointmentService(appointmentService);
+        record.setDiagnosis("Sâu răng hàm 36");
+        record.setTreatmentPlan("Trám composite");
+        record.setPrescriptionNote("Amoxicillin 500mg");
+        record.setNote("Tái khám sau 2 tuần. Ghi chú hồ sơ " + id + ".");
+        record.setRecordDate(LocalDate.of(2026, 3, id));
+        return record;
+    }
+
+    private static Clinic clinic(int id) {
+        Clinic clinic = new Clinic();
+        clinic.setId(id);
+        clinic.setClinicName("Nha khoa Sunshine");
+        clinic.setAddress("1 Trần Phú, Đà Nẵng");
+        clinic.setPhone("0236123456");
+        clinic.setEmail("clinic@example.com");
+        return clinic;
+    }
+
+    private static void addImage(MedicalRecord record, String url, String description) {
+        MedicalRecordImage image = new MedicalRecordImage();
+        image.setImageUrl(url);
+        image.setDescription(description);
+        image.setMedicalRecord(record);
+        record.getMedicalRecordImages().add(image);
+    }
+
+    private static int pageCount(byte[] pdf) throws IOException {
+        try (PdfDocument document = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)))) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    private static String text(byte[] pdf) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try (PdfDocument document = new PdfDocument(new PdfReader(new ByteArrayInputStream(pdf)))) {
+            for (int i = 1; i <= document.getNumberOfPages(); i++) {
+                text.append(PdfTextExtractor.getTextFromPage(document.getPage(i))).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package sunshine_dental_care.services.doctor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.AppointmentService;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.repositories.doctor.PatientInsightRepository;
+
+class PatientContextSnapshotServiceTest {
+
+    private PatientInsightRepository repository;
+    private PlatformTransactionManager transactionManager;
+    private PatientContextSnapshotService service;
+    // Thread đã chạy query: phải là thread gọi (đang giữ connection của transaction ngoài)
+    private final Set<Thread> queryThreads = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(PatientInsightRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        Appointment completed = new Appointment();
+        completed.setId(1);
+        completed.setStatus("COMPLETED");
+        completed.setStartDateTime(Instant.now().minusSeconds(86_400));
+        when(repository.appointmentsWithPeopleByPatientId(anyInt())).thenAnswer(inv -> {
+            queryThreads.add(Thread.currentThread());
+            return List.of(completed);
+        });
+        when(repository.appointmentServicesWithDetailsByPatientId(anyInt())).thenAnswer(inv -> {
+            queryThreads.add(Thread.currentThread());
+            return List.of();
+        });
+        when(repository.medicalHistoryWithImagesByPatientId(anyInt())).thenAnswer(inv -> {
+            queryThreads.add(Thread.currentThread());
+            return List.of();
+        });
+
+        service = new PatientContextSnapshotService(repository, new TransactionTemplate(transactionManager), 60_000);
+    }
+
+    @Test
+    void buildsOnCallingThreadInOneReadOnlyTransaction() {
+        PatientContextSnapshotService.PatientContextSnapshot snapshot = service.get(7);
+
+        assertThat(snapshot.totalVisits()).isEqualTo(1);
+        assertThat(queryThreads).containsExactly(Thread.currentThread());
+
+        ArgumentCaptor<TransactionDefinition> definition = ArgumentCaptor.forClass(TransactionDefinition.class);
+        verify(transactionManager, times(1)).getTransaction(definition.capture());
+        assertThat(definition.getValue().isReadOnly()).isTrue();
+        // REQUIRED: trong processQuery thì dùng lại transaction (connection) đang có
+        assertThat(definition.getValue().getPropagationBehavior()).isEqualTo(TransactionDefinition.PROPAGATION_REQUIRED);
+    }
+
+    @Test
+    void cachedSnapshotDoesNotQueryAgainUntilEvicted() {
+        service.get(7);
+        service.get(7);
+        verify(repository, times(1)).appointmentsWithPeopleByPatientId(7);
+
+        service.evict(7);
+        service.get(7);
+        verify(repository, times(2)).appointmentsWithPeopleByPatientId(7);
+    }
+
+    @Test
+    void snapshotEvictedWhileBuildingIsNotCached() {
+        when(repository.medicalHistoryWithImagesByPatientId(7)).thenAnswer(inv -> {
+            // Hồ sơ đổi (evict) trong lúc đang dựng snapshot -> snapshot đang dựng đã cũ
+            service.evict(7);
+            return List.of();
+        }).thenReturn(List.of());
+
+        service.get(7);
+        service.get(7);
+        verify(repository, times(2)).appointmentsWithPeopleByPatientId(7);
+
+        service.get(7);
+        verify(repository, times(2)).appointmentsWithPeopleByPatientId(7);
+    }
+
+    @Test
+    void appointmentServiceChangeEvictsItsPatient() {
+        service.get(7);
+        service.get(8);
+        Patient patient = new Patient();
+        patient.setId(7);
+        Appointment appointment = new Appointment();
+        appointment.setPatient(patient);
+        AppointmentService line = new AppointmentService();
+        line.setAppointment(appointment);
+
+        new PatientContextEvictionListener().changed(line);
+        service.get(7);
+        service.get(8);
+
+        verify(repository, times(2)).appointmentsWithPeopleByPatientId(7);
+        verify(repository, times(1)).appointmentsWithPeopleByPatientId(8);
+    }
+
+    @Test
+    void evictAllDropsEveryPatient() {
+        service.get(7);
+        service.get(8);
+
+        service.evictAll();
+        service.get(7);
+        service.get(8);
+
+        verify(repository, times(2)).appointmentsWithPeopleByPatientId(7);
+        verify(repository, times(2)).appointmentsWithPeopleByPatientId(8);
+    }
+}
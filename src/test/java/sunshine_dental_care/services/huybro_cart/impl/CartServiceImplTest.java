@@ -0,0 +1,180 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.Year;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import sunshine_dental_care.dto.huybro_cart.AddToCartRequestDto;
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+import sunshine_dental_care.dto.huybro_cart.CartViewDto;
+import sunshine_dental_care.entities.huybro_products.Product;
+import sunshine_dental_care.repositories.huybro_products.ProductImageRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductRepository;
+import sunshine_dental_care.security.CurrentUser;
+import sunshine_dental_care.services.huybro_cart.interfaces.CartStore;
+import sunshine_dental_care.services.impl.system.BlockSequenceService;
+import sunshine_dental_care.utils.WorkHoursConstants;
+import sunshine_dental_care.utils.huybro_utils.format.FormatCurrencyCart;
+
+class CartServiceImplTest {
+
+    private static final String CART_SESSION_KEY = "SUNSHINE_CART_ITEMS";
+    private static final String CART_INVOICE_CODE_KEY = "SUNSHINE_INVOICE_CODE";
+
+    private final ProductRepository productRepository = mock(ProductRepository.class);
+    private final StockReservationService stockReservationService = mock(StockReservationService.class);
+    private final BlockSequenceService blockSequenceService = mock(BlockSequenceService.class);
+    // Giỏ của user đã đăng nhập
+    private final Map<Integer, Map<Integer, CartItemDto>> userCarts = new HashMap<>();
+    private final MockHttpSession session = new MockHttpSession();
+    private CartServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        CartStore store = mock(CartStore.class);
+        when(store.getCart(anyInt())).thenAnswer(inv ->
+                new LinkedHashMap<>(userCarts.getOrDefault(inv.<Integer>getArgument(0), Map.of())));
+        doAnswer(inv -> {
+            userCarts.put(inv.getArgument(0), new LinkedHashMap<>(inv.<Map<Integer, CartItemDto>>getArgument(1)));
+            return null;
+        }).when(store).saveCart(anyInt(), any());
+        when(blockSequenceService.nextInvoiceNumber(anyInt())).thenReturn(new BlockSequenceService.Issued(1, "SDC"));
+
+        service = new CartServiceImpl(productRepository, mock(ProductImageRepository.class), stockReservationService,
+                mock(FormatCurrencyCart.class), store, blockSequenceService);
+
+        when(productRepository.findById(anyInt())).thenAnswer(inv -> Optional.of(product(inv.getArgument(0))));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void guestCartAndReservationsMoveToUserOnLogin() {
+        Map<Integer, CartItemDto> guest = new LinkedHashMap<>();
+        guest.put(1, item(1, 2));
+        guest.put(2, item(2, 1));
+        session.setAttribute(CART_SESSION_KEY, guest);
+        session.setAttribute(CART_INVOICE_CODE_KEY, "SDC-GUEST");
+        userCarts.put(7, new LinkedHashMap<>(Map.of(1, item(1, 3))));
+
+        login(7);
+        CartViewDto view = service.getCartDetail(session);
+
+        assertThat(view.getItems()).extracting(CartItemDto::getProductId, CartItemDto::getQuantity)
+                .containsExactlyInAnyOrder(tuple(1, 5), tuple(2, 1));
+        verify(stockReservationService).transfer("S:" + session.getId(), "U:7");
+        assertThat(session.getAttribute(CART_SESSION_KEY)).isNull();
+        assertThat(session.getAttribute(CART_INVOICE_CODE_KEY)).isNull();
+
+        // Lần sau không gộp lại nữa
+        service.getCartDetail(session);
+        verify(stockReservationService).transfer(any(), any());
+    }
+
+    @Test
+    void loggedInUserWithoutGuestCartIsLeftAlone() {
+        userCarts.put(7, new LinkedHashMap<>(Map.of(1, item(1, 3))));
+
+        login(7);
+        service.getCartDetail(session);
+
+        verify(stockReservationService, never()).transfer(any(), any());
+        assertThat(userCarts.get(7).get(1).getQuantity()).isEqualTo(3);
+    }
+
+    @Test
+    void guestReservationsUseTheSessionOwner() {
+        service.getCartDetail(session);
+        service.removeCartItem(1, session);
+
+        verify(stockReservationService).release("S:" + session.getId(), 1);
+        verify(stockReservationService, never()).transfer(any(), any());
+    }
+
+    @Test
+    void viewingAndEditingTheCartDoesNotDrawAnInvoiceNumber() {
+        AddToCartRequestDto request = new AddToCartRequestDto();
+        request.setProductId(1);
+        request.setQuantity(2);
+
+        CartViewDto added = service.createCartItem(request, session);
+        CartViewDto viewed = service.getCartDetail(session);
+
+        assertThat(added.getInvoiceCode()).isNull();
+        assertThat(viewed.getInvoiceCode()).isNull();
+        verify(blockSequenceService, never()).nextInvoiceNumber(anyInt());
+    }
+
+    @Test
+    void invoiceNumberIsDrawnOnceAtPlacementForTheCurrentYear() {
+        int year = Year.now(WorkHoursConstants.VN_TIMEZONE).getValue();
+
+        String code = service.issueInvoiceCode(session);
+        // Thanh toán lại cùng giỏ (vd: PayPal tạo đơn rồi capture) dùng lại đúng mã
+        String again = service.issueInvoiceCode(session);
+
+        assertThat(code).isEqualTo("SDC-" + year + "-00000001").isEqualTo(again);
+        assertThat(service.getCartDetail(session).getInvoiceCode()).isEqualTo(code);
+        verify(blockSequenceService, times(1)).nextInvoiceNumber(year);
+    }
+
+    @Test
+    void codeLeftFromAPreviousYearIsReplaced() {
+        int year = Year.now(WorkHoursConstants.VN_TIMEZONE).getValue();
+        session.setAttribute(CART_INVOICE_CODE_KEY, "SDC-" + (year - 1) + "-00000099");
+
+        assertThat(service.issueInvoiceCode(session)).isEqualTo("SDC-" + year + "-00000001");
+        assertThat(session.getAttribute(CART_INVOICE_CODE_KEY)).isEqualTo("SDC-" + year + "-00000001");
+    }
+
+    private static void login(int userId) {
+        CurrentUser user = new CurrentUser(userId, "u@x", "User", List.of("ROLE_PATIENT"));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                user, null, List.of(new SimpleGrantedAuthority("ROLE_PATIENT"))));
+    }
+
+    private static Product product(int id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setProductName("Sản phẩm " + id);
+        product.setDefaultRetailPrice(BigDecimal.TEN);
+        product.setCurrency("USD");
+        product.setIsActive(true);
+        return product;
+    }
+
+    private static CartItemDto item(int productId, int quantity) {
+        CartItemDto item = new CartItemDto();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        item.setUnitPriceBeforeTax(BigDecimal.TEN);
+        item.setLineTotalAmount(BigDecimal.TEN.multiply(BigDecimal.valueOf(quantity)));
+        return item;
+    }
+}
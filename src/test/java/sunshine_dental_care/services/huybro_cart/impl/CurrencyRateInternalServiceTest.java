@@ -0,0 +1,63 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+class CurrencyRateInternalServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ObjectMapper objectMapper;
+    private CurrencyRateInternalService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        Path snapshot = tempDir.resolve("rates.json");
+        objectMapper.writeValue(snapshot.toFile(), new CurrencyRateInternalService.RateSnapshot(
+                "USD", Map.of("VND", new BigDecimal("25000"), "EUR", new BigDecimal("0.9")), Instant.now()));
+
+        service = new CurrencyRateInternalService(objectMapper, "USD", "VND,EUR", 3600, snapshot.toString(), 1000);
+        // Đủ mọi mã đã cấu hình trong file -> không gọi API lúc khởi động
+        service.loadInitialRates();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void convertsConfiguredPairsFromSnapshot() {
+        assertThat(service.getRate("usd", "VND")).isEqualByComparingTo("25000");
+        assertThat(service.getRate("EUR", "VND")).isEqualByComparingTo("27777.77777777778");
+        assertThat(service.getRate("VND", "VND")).isEqualByComparingTo(BigDecimal.ONE);
+    }
+
+    @Test
+    void rejectsUnconfiguredCurrencyWithoutTrackingIt() {
+        assertThatThrownBy(() -> service.getRate("USD", "JPY"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unsupported currency: JPY");
+        assertThatThrownBy(() -> service.getRate("USD", "VND&to=EVIL"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unsupported currency");
+
+        assertThat(service.getSupportedCurrencies()).containsExactlyInAnyOrder("USD", "VND", "EUR");
+        assertThat(service.getStats().misses()).isZero();
+    }
+}
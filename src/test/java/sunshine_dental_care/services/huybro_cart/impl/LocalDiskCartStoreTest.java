@@ -0,0 +1,122 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+
+class LocalDiskCartStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private LocalDiskCartStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new LocalDiskCartStore(new ObjectMapper(), tempDir.resolve("carts").toString(), 30);
+    }
+
+    @Test
+    void cartAndInvoiceCodeSurviveARestart() throws Exception {
+        store.setInvoiceCode(1, "INV-1");
+        store.saveCart(1, cartWith(2, 3));
+
+        LocalDiskCartStore restarted = new LocalDiskCartStore(new ObjectMapper(), tempDir.resolve("carts").toString(), 30);
+        Map<Integer, CartItemDto> cart = restarted.getCart(1);
+
+        assertThat(cart).containsOnlyKeys(2);
+        assertThat(cart.get(2).getQuantity()).isEqualTo(3);
+        assertThat(restarted.getInvoiceCode(1)).isEqualTo("INV-1");
+        // Ghi qua file tạm rồi move: không để lại file .tmp
+        try (var files = Files.list(tempDir.resolve("carts"))) {
+            assertThat(files.map(f -> f.getFileName().toString())).containsExactly("1.json");
+        }
+    }
+
+    @Test
+    void clearCartRemovesTheFile() {
+        store.saveCart(1, cartWith(2, 1));
+        store.setInvoiceCode(1, "INV-1");
+
+        store.clearCart(1);
+
+        assertThat(Files.exists(tempDir.resolve("carts").resolve("1.json"))).isFalse();
+        assertThat(store.getCart(1)).isEmpty();
+        assertThat(store.getInvoiceCode(1)).isNull();
+    }
+
+    @Test
+    void corruptedFileStartsAnEmptyCart() throws Exception {
+        Files.writeString(tempDir.resolve("carts").resolve("5.json"), "{not json");
+
+        assertThat(store.getCart(5)).isEmpty();
+        store.saveCart(5, cartWith(1, 1));
+        assertThat(store.getCart(5)).containsOnlyKeys(1);
+    }
+
+    @Test
+    void purgeRemovesOnlyCartsUntouchedPastTheTtl() throws Exception {
+        store.saveCart(1, cartWith(1, 1));
+        store.saveCart(2, cartWith(1, 1));
+        Path old = tempDir.resolve("carts").resolve("1.json");
+        Files.setLastModifiedTime(old, FileTime.from(Instant.now().minus(Duration.ofDays(31))));
+
+        store.purgeAbandoned();
+
+        assertThat(Files.exists(old)).isFalse();
+        assertThat(store.getCart(2)).containsOnlyKeys(1);
+    }
+
+    @Test
+    void concurrentUpdatesOfOneUserAreNotLost() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int productId = t + 1;
+            futures.add(pool.submit(() -> {
+                // Đọc - sửa - ghi trong cùng khóa của store: mỗi thread thêm 1 sản phẩm riêng
+                synchronized (store) {
+                    Map<Integer, CartItemDto> cart = store.getCart(9);
+                    cart.putAll(cartWith(productId, 1));
+                    store.saveCart(9, cart);
+                }
+                store.setInvoiceCode(9, "INV-" + productId);
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertThat(store.getCart(9)).hasSize(8);
+        assertThat(store.getInvoiceCode(9)).startsWith("INV-");
+    }
+
+    private static Map<Integer, CartItemDto> cartWith(int productId, int quantity) {
+        CartItemDto item = new CartItemDto();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        Map<Integer, CartItemDto> cart = new LinkedHashMap<>();
+        cart.put(productId, item);
+        return cart;
+    }
+}
@@ -0,0 +1,201 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory;
+import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository;
+import sunshine_dental_care.services.huybro_products.impl.ProductCatalogCache;
+
+class StockReservationServiceTest {
+
+    private static final int PRODUCT_ID = 10;
+    private static final int KHO_KHAM = 1;
+    private static final int KHO_BAN = 2;
+
+    private final ProductInventoryRepository inventoryRepository = mock(ProductInventoryRepository.class);
+    private final ProductCatalogCache catalogCache = mock(ProductCatalogCache.class);
+    // clinicId -> tồn kho thực trên DB
+    private final Map<Integer, Integer> stock = new HashMap<>();
+    private StockReservationService service;
+
+    @BeforeEach
+    void setUp() {
+        stock.put(KHO_BAN, 2);
+        stock.put(KHO_KHAM, 3);
+        when(inventoryRepository.findByProductId(anyInt())).thenAnswer(inv -> {
+            List<ProductInventory> rows = new ArrayList<>();
+            stock.forEach((clinicId, qty) -> rows.add(inventory(clinicId, qty)));
+            return rows;
+        });
+        service = newService(Duration.ofMinutes(15));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void reservationsAreSplitPerWarehouseInCheckoutOrder() {
+        service.reserve("U:1", PRODUCT_ID, 3);
+
+        // Kho bán (ưu tiên) trước, thiếu lấy tiếp kho khám
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).containsOnly(Map.entry(KHO_BAN, 2), Map.entry(KHO_KHAM, 1));
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(2);
+        assertThat(service.getAvailable(PRODUCT_ID, "U:1")).isEqualTo(5);
+
+        service.reserve("U:2", PRODUCT_ID, 2);
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).containsOnly(Map.entry(KHO_BAN, 2), Map.entry(KHO_KHAM, 3));
+        assertThatThrownBy(() -> service.reserve("U:3", PRODUCT_ID, 1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("only have 0");
+
+        // Giảm số lượng: giữ lại phần ở kho ưu tiên, trả phần kho khám
+        service.reserve("U:1", PRODUCT_ID, 1);
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).containsOnly(Map.entry(KHO_BAN, 1), Map.entry(KHO_KHAM, 2));
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(2);
+    }
+
+    @Test
+    void warehouseStockDropDoesNotBorrowFromTheOtherWarehouse() {
+        service.reserve("U:1", PRODUCT_ID, 2);
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).containsOnly(Map.entry(KHO_BAN, 2));
+
+        // Kho bán bị xuất hết ngoài giỏ hàng: phần đang giữ ở kho bán không được trừ vào kho khám
+        stock.put(KHO_BAN, 0);
+        changeListener().accept(PRODUCT_ID);
+
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(3);
+        assertThat(service.getOnHandByClinic(PRODUCT_ID)).containsOnly(Map.entry(KHO_BAN, 0), Map.entry(KHO_KHAM, 3));
+    }
+
+    @Test
+    void confirmReportsOutOfStockLikeCheckout() {
+        service.reserve("U:2", PRODUCT_ID, 4);
+
+        assertThatThrownBy(() -> service.confirm("U:1", Map.of(PRODUCT_ID, 2), Map.of(PRODUCT_ID, "Bàn chải")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Out of stock: Product Bàn chải");
+    }
+
+    @Test
+    void releaseAllInsideTransactionWaitsForCommitAndReloadsStockFirst() {
+        service.reserve("U:1", PRODUCT_ID, 2);
+        service.reserve("U:1", 11, 1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        service.releaseAll("U:1");
+        assertThat(service.reservationCount()).isEqualTo(2);
+
+        // Checkout vừa trừ 2 ở kho bán
+        stock.put(KHO_BAN, 0);
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCommit();
+        }
+
+        assertThat(service.reservationCount()).isZero();
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).isEmpty();
+        // onHand đọc lại sau commit: không bán lại 2 sản phẩm vừa bán
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(3);
+    }
+
+    @Test
+    void releaseAllOutsideTransactionReleasesImmediately() {
+        service.reserve("S:abc", PRODUCT_ID, 5);
+
+        service.releaseAll("S:abc");
+
+        assertThat(service.reservationCount()).isZero();
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(5);
+        verify(inventoryRepository, times(1)).findByProductId(PRODUCT_ID);
+    }
+
+    @Test
+    void guestReservationMovesToUserOnLogin() {
+        service.reserve("S:abc", PRODUCT_ID, 2);
+        service.reserve("U:7", PRODUCT_ID, 1);
+        service.reserve("S:abc", 11, 1);
+
+        service.transfer("S:abc", "U:7");
+
+        assertThat(service.reservationCount()).isEqualTo(2);
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(2);
+        // Toàn bộ 3 sản phẩm giờ thuộc user: user có thể giữ lại đủ 5
+        assertThat(service.getAvailable(PRODUCT_ID, "U:7")).isEqualTo(5);
+        assertThat(service.getAvailable(PRODUCT_ID, "S:abc")).isEqualTo(2);
+
+        service.release("U:7", PRODUCT_ID);
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).isEmpty();
+    }
+
+    @Test
+    void reservationExpiresAfterTtlUnlessRenewed() throws Exception {
+        service.shutdown();
+        service = newService(Duration.ofMillis(400));
+
+        service.reserve("U:1", PRODUCT_ID, 5);
+        service.reserve("U:2", 11, 1);
+        Thread.sleep(200);
+        // Chạm lại giỏ -> TTL tính lại từ đây, lần hẹn giờ cũ không được trả giỏ mới
+        service.reserve("U:1", PRODUCT_ID, 5);
+
+        awaitReservations(1);
+        assertThat(service.getAvailable(PRODUCT_ID)).isZero();
+
+        awaitReservations(0);
+        assertThat(service.getAvailable(PRODUCT_ID)).isEqualTo(5);
+        assertThat(service.getReservedByClinic(PRODUCT_ID)).isEmpty();
+    }
+
+    private void awaitReservations(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (service.reservationCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(service.reservationCount()).isEqualTo(expected);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<Integer> changeListener() {
+        ArgumentCaptor<Consumer<Integer>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(catalogCache, times(1)).addChangeListener(listener.capture());
+        return listener.getValue();
+    }
+
+    private StockReservationService newService(Duration ttl) {
+        return new StockReservationService(inventoryRepository, catalogCache, ttl, KHO_BAN + "," + KHO_KHAM);
+    }
+
+    private static ProductInventory inventory(int clinicId, int quantity) {
+        Clinic clinic = new Clinic();
+        clinic.setId(clinicId);
+        ProductInventory inv = new ProductInventory();
+        inv.setClinic(clinic);
+        inv.setQuantity(quantity);
+        return inv;
+    }
+}
@@ -0,0 +1,310 @@
+package sunshine_dental_care.services.huybro_cart.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+import sunshine_dental_care.entities.huybro_cart.UserCart;
+import sunshine_dental_care.repositories.huybro_cart.UserCartRepository;
+
+class UserCartStoreServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Bảng UserCarts giả trong bộ nhớ, cùng ngữ nghĩa version với query thật
+    private final Map<Integer, UserCart> table = new ConcurrentHashMap<>();
+
+    private UserCartRepository repository;
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(UserCartRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        when(repository.findById(anyInt())).thenAnswer(inv -> Optional.ofNullable(copy(table.get(inv.<Integer>getArgument(0)))));
+        when(repository.findVersionByUserId(anyInt())).thenAnswer(inv -> {
+            UserCart row = table.get(inv.<Integer>getArgument(0));
+            return Optional.ofNullable(row == null ? null : row.getVersion());
+        });
+        when(repository.saveAndFlush(any(UserCart.class))).thenAnswer(inv -> {
+            UserCart cart = copy(inv.getArgument(0));
+            cart.setVersion(0L);
+            if (table.putIfAbsent(cart.getUserId(), cart) != null) {
+                throw new DataIntegrityViolationException("duplicate key");
+            }
+            return copy(cart);
+        });
+        when(repository.updateIfVersion(anyInt(), any(), any(), any(), any())).thenAnswer(inv -> {
+            Integer userId = inv.getArgument(0);
+            Long version = inv.getArgument(3);
+            AtomicInteger rows = new AtomicInteger();
+            table.computeIfPresent(userId, (id, row) -> {
+                if (!row.getVersion().equals(version)) return row;
+                UserCart next = copy(row);
+                next.setItemsJson(inv.getArgument(1));
+                next.setInvoiceCode(inv.getArgument(2));
+                next.setUpdatedAt(inv.getArgument(4));
+                next.setVersion(version + 1);
+                rows.set(1);
+                return next;
+            });
+            return rows.get();
+        });
+    }
+
+    // Soak: nhiều thread sửa / đọc nhiều giỏ hơn sức chứa LRU, flush chạy song song;
+    // cuối cùng DB phải khớp thao tác cuối của từng user và hàng chờ ghi không vượt giới hạn
+    @Test
+    void soakKeepsLastWriteAndBoundsPendingWrites() throws Exception {
+        int users = 400;
+        int maxDirty = 50;
+        UserCartStoreService store = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, false, maxDirty, 1000);
+
+        Map<Integer, Integer> expected = new ConcurrentHashMap<>();
+        Object[] userLocks = new Object[users];
+        for (int i = 0; i < users; i++) userLocks[i] = new Object();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger maxPendingSeen = new AtomicInteger();
+        Thread flusher = new Thread(() -> {
+            while (running.get()) {
+                store.flush();
+                UserCartStoreService.StoreStats stats = store.getStats();
+                maxPendingSeen.accumulateAndGet(Math.max(stats.pendingWrites(), stats.dirty()), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        flusher.start();
+
+        int threads = 8;
+        int opsPerThread = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < opsPerThread; i++) {
+                    int userId = random.nextInt(users);
+                    synchronized (userLocks[userId]) {
+                        if (random.nextInt(4) == 0) {
+                            Map<Integer, CartItemDto> cart = store.getCart(userId);
+                            Integer qty = expected.get(userId);
+                            assertThat(quantityOf(cart)).isEqualTo(qty == null ? 0 : qty);
+                        } else {
+                            int qty = random.nextInt(1, 100);
+                            store.saveCart(userId, cartWith(qty));
+                            expected.put(userId, qty);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get(2, TimeUnit.MINUTES);
+        pool.shutdown();
+        running.set(false);
+        flusher.join();
+        store.flush();
+
+        UserCartStoreService.StoreStats stats = store.getStats();
+
+        assertThat(stats.dirty()).isZero();
+        assertThat(stats.pendingWrites()).isZero();
+        assertThat(stats.inMemory()).isLessThanOrEqualTo(100);
+        assertThat(maxPendingSeen.get()).isLessThanOrEqualTo(maxDirty);
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            UserCart row = table.get(e.getKey());
+            assertThat(row).as("cart of user %d", e.getKey()).isNotNull();
+            Map<?, ?> items = objectMapper.readValue(row.getItemsJson(), Map.class);
+            assertThat(((Map<?, ?>) items.get("1")).get("quantity")).isEqualTo(e.getValue());
+        }
+    }
+
+    @Test
+    void clusterModeChecksVersionAtMostOncePerWindow() {
+        UserCartStoreService store = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 60_000);
+        store.saveCart(1, cartWith(3));
+        for (int i = 0; i < 1000; i++) store.getCart(1);
+        assertThat(store.getStats().versionChecks()).isZero();
+
+        UserCartStoreService eager = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 0);
+        for (int i = 0; i < 100; i++) eager.getCart(1);
+        assertThat(eager.getStats().versionChecks()).isEqualTo(99);
+    }
+
+    @Test
+    void clusterModeReloadsCartWrittenByAnotherNode() {
+        UserCartStoreService nodeA = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 0);
+        UserCartStoreService nodeB = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 0);
+        nodeA.saveCart(7, cartWith(1));
+        assertThat(quantityOf(nodeB.getCart(7))).isEqualTo(1);
+
+        nodeB.saveCart(7, cartWith(5));
+        assertThat(quantityOf(nodeA.getCart(7))).isEqualTo(5);
+    }
+
+    // 100k user thêm hàng rồi bỏ đi: bộ nhớ chỉ giữ tối đa maxEntries giỏ, hàng chờ ghi không vượt giới hạn
+    // và sau khi hết thời gian idle thì không còn giỏ nào trong heap (dữ liệu vẫn nằm trên DB)
+    @Test
+    void abandonedCartsStayBoundedInMemory() throws Exception {
+        int users = 100_000;
+        int maxEntries = 1_000;
+        int maxDirty = 500;
+        UserCartStoreService store = new UserCartStoreService(repository, objectMapper, transactionManager,
+                maxEntries, 0, 30, false, maxDirty, 1000);
+
+        int maxInMemory = 0;
+        int maxDirtySeen = 0;
+        for (int userId = 1; userId <= users; userId++) {
+            store.saveCart(userId, cartWith(1 + userId % 7));
+            if (userId % 5_000 == 0) {
+                UserCartStoreService.StoreStats stats = store.getStats();
+                maxInMemory = Math.max(maxInMemory, stats.inMemory());
+                maxDirtySeen = Math.max(maxDirtySeen, stats.dirty());
+                store.flush();
+            }
+        }
+        Thread.sleep(5);
+        store.flush();
+
+        UserCartStoreService.StoreStats stats = store.getStats();
+        assertThat(maxInMemory).isLessThanOrEqualTo(maxEntries);
+        assertThat(maxDirtySeen).isLessThanOrEqualTo(maxDirty);
+        assertThat(stats.inMemory()).isZero();
+        assertThat(stats.dirty()).isZero();
+        assertThat(stats.pendingWrites()).isZero();
+        assertThat(table).hasSize(users);
+        // Giỏ bị đẩy khỏi bộ nhớ vẫn đọc lại đúng từ DB
+        assertThat(quantityOf(store.getCart(12_345))).isEqualTo(1 + 12_345 % 7);
+    }
+
+    @Test
+    void conflictMergesChangesFromBothNodesPerProduct() {
+        // Node A giữ bản cũ trong cửa sổ version-check, node B sửa giỏ trên DB trong lúc đó
+        UserCartStoreService nodeA = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 60_000);
+        UserCartStoreService nodeB = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 0);
+        nodeA.saveCart(7, cart(item(1, 2), item(2, 1), item(3, 1)));
+
+        Map<Integer, CartItemDto> fromB = nodeB.getCart(7);
+        fromB.put(4, item(4, 9));
+        fromB.remove(3);
+        fromB.put(2, item(2, 5));
+        nodeB.saveCart(7, fromB);
+        nodeB.setInvoiceCode(7, "INV-B");
+
+        Map<Integer, CartItemDto> fromA = nodeA.getCart(7);
+        fromA.put(1, item(1, 6));
+        fromA.put(2, item(2, 8));
+        nodeA.saveCart(7, fromA);
+
+        Map<Integer, CartItemDto> stored = nodeB.getCart(7);
+        // 1: chỉ A đổi; 2: cả 2 đổi -> giữ thao tác của A; 3: B xóa; 4: B thêm
+        assertThat(stored).containsOnlyKeys(1, 2, 4);
+        assertThat(stored.get(1).getQuantity()).isEqualTo(6);
+        assertThat(stored.get(2).getQuantity()).isEqualTo(8);
+        assertThat(stored.get(4).getQuantity()).isEqualTo(9);
+        assertThat(nodeB.getInvoiceCode(7)).isEqualTo("INV-B");
+        assertThat(nodeA.getCart(7)).isEqualTo(stored);
+    }
+
+    @Test
+    void conflictOnFirstInsertMergesWithRowCreatedByAnotherNode() {
+        UserCartStoreService nodeA = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 60_000);
+        UserCartStoreService nodeB = new UserCartStoreService(repository, objectMapper, transactionManager,
+                100, 30, 30, true, 50, 0);
+        // A đọc giỏ rỗng trước, B tạo dòng sau đó
+        assertThat(nodeA.getCart(8)).isEmpty();
+        nodeB.saveCart(8, cart(item(1, 3)));
+
+        nodeA.saveCart(8, cart(item(2, 1)));
+
+        assertThat(nodeB.getCart(8)).containsOnlyKeys(1, 2);
+    }
+
+    @Test
+    void mergeKeepsRemoteWhenLocalUnchanged() {
+        Map<Integer, CartItemDto> base = cart(item(1, 1), item(2, 1));
+        Map<Integer, CartItemDto> local = cart(item(1, 1), item(2, 1));
+        Map<Integer, CartItemDto> remote = cart(item(1, 4));
+
+        assertThat(UserCartStoreService.merge(base, local, remote)).isEqualTo(cart(item(1, 4)));
+        assertThat(UserCartStoreService.merge(base, cart(item(1, 1)), remote)).isEqualTo(cart(item(1, 4)));
+    }
+
+    private static Map<Integer, CartItemDto> cartWith(int quantity) {
+        CartItemDto item = new CartItemDto();
+        item.setProductId(1);
+        item.setQuantity(quantity);
+        Map<Integer, CartItemDto> cart = new LinkedHashMap<>();
+        cart.put(1, item);
+        return cart;
+    }
+
+    private static CartItemDto item(int productId, int quantity) {
+        CartItemDto item = new CartItemDto();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    private static Map<Integer, CartItemDto> cart(CartItemDto... items) {
+        Map<Integer, CartItemDto> cart = new LinkedHashMap<>();
+        for (CartItemDto item : items) cart.put(item.getProductId(), item);
+        return cart;
+    }
+
+    private static int quantityOf(Map<Integer, CartItemDto> cart) {
+        CartItemDto item = cart.get(1);
+        return item == null ? 0 : item.getQuantity();
+    }
+
+    private static UserCart copy(UserCart source) {
+        if (source == null) return null;
+        UserCart c = new UserCart();
+        c.setUserId(source.getUserId());
+        c.setItemsJson(source.getItemsJson());
+        c.setInvoiceCode(source.getInvoiceCode());
+        c.setVersion(source.getVersion());
+        c.setUpdatedAt(source.getUpdatedAt() != null ? source.getUpdatedAt() : Instant.now());
+        return c;
+    }
+}
@@ -0,0 +1,224 @@
+package sunshine_dental_care.services.huybro_checkout.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import jakarta.persistence.EntityManager;
+import sunshine_dental_care.dto.huybro_cart.CartItemDto;
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.entities.huybro_product_inventories.ProductInventory;
+import sunshine_dental_care.entities.huybro_products.Product;
+import sunshine_dental_care.repositories.huybro_products.ProductInventoryRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductRepository;
+import sunshine_dental_care.services.huybro_products.impl.ProductCatalogCache;
+
+class CheckoutStockAllocatorTest {
+
+    private static final int PRODUCT_ID = 10;
+    private static final int PRIMARY_CLINIC = 1;
+    private static final int FALLBACK_CLINIC = 2;
+
+    // Bảng ProductInventories giả: id -> dòng, mỗi dòng có khóa riêng giữ tới cuối "transaction"
+    private final Map<Integer, Row> rows = new TreeMap<>();
+    private final ThreadLocal<List<ReentrantLock>> heldLocks = ThreadLocal.withInitial(ArrayList::new);
+    private final AtomicInteger minQuantitySeen = new AtomicInteger(Integer.MAX_VALUE);
+
+    private ProductInventoryRepository inventoryRepository;
+    private ProductRepository productRepository;
+    private final EntityManager entityManager = mock(EntityManager.class);
+    private CheckoutStockAllocator allocator;
+
+    private record Row(int id, int clinicId, AtomicInteger quantity, ReentrantLock lock) {}
+
+    @BeforeEach
+    void setUp() {
+        inventoryRepository = mock(ProductInventoryRepository.class);
+        productRepository = mock(ProductRepository.class);
+        when(productRepository.decrementUnit(anyInt(), anyInt())).thenReturn(1);
+
+        when(inventoryRepository.decrementIfAvailable(anyInt(), anyInt(), any())).thenAnswer(inv -> {
+            Row row = rows.get(inv.<Integer>getArgument(0));
+            int qty = inv.getArgument(1);
+            // UPDATE ... WHERE quantity >= :qty là 1 thao tác nguyên tử trên DB
+            while (true) {
+                int current = row.quantity().get();
+                if (current < qty) return 0;
+                if (row.quantity().compareAndSet(current, current - qty)) {
+                    minQuantitySeen.accumulateAndGet(current - qty, Math::min);
+                    return 1;
+                }
+            }
+        });
+
+        allocator = new CheckoutStockAllocator(inventoryRepository, productRepository, mock(ProductCatalogCache.class),
+                entityManager);
+    }
+
+    // N checkout cùng tranh 3 sản phẩm cuối cùng (2 ở kho ưu tiên, 1 ở kho dự phòng), có khóa dòng như UPDLOCK
+    @Test
+    void concurrentCheckoutsNeverOversellLastUnits() throws Exception {
+        addRow(100, PRIMARY_CLINIC, 2);
+        addRow(101, FALLBACK_CLINIC, 1);
+        lockRowsLikeDatabase(true);
+
+        Result result = race(64, 1);
+
+        assertThat(result.succeeded()).isEqualTo(3);
+        assertThat(result.outOfStock()).isEqualTo(61);
+        assertThat(result.otherErrors()).isZero();
+        assertRowsNeverNegative();
+        assertThat(totalQuantity()).isZero();
+    }
+
+    // Bỏ khóa dòng (mọi checkout đọc cùng 1 số tồn cũ): UPDATE có điều kiện vẫn phải chặn bán quá
+    @Test
+    void conditionalDecrementAloneStillPreventsOversell() throws Exception {
+        addRow(100, PRIMARY_CLINIC, 5);
+        addRow(101, FALLBACK_CLINIC, 0);
+        lockRowsLikeDatabase(false);
+
+        Result result = race(64, 2);
+
+        // 5 sản phẩm, mỗi đơn 2 -> tối đa 2 đơn thành công, còn lại 1
+        assertThat(result.succeeded()).isLessThanOrEqualTo(2);
+        assertThat(result.otherErrors()).isZero();
+        assertRowsNeverNegative();
+        assertThat(totalQuantity()).isEqualTo(5 - 2 * result.succeeded());
+    }
+
+    // decrementUnit không khớp (unit lệch) -> tính lại từ tồn kho trên bản Product đã refresh khỏi persistence context
+    @Test
+    void outOfSyncUnitIsRecomputedOnARefreshedProduct() {
+        addRow(100, PRIMARY_CLINIC, 4);
+        lockRowsLikeDatabase(false);
+        Product stale = new Product();
+        stale.setId(PRODUCT_ID);
+        stale.setUnit(99);
+        stale.setIsActive(true);
+        when(productRepository.decrementUnit(PRODUCT_ID, 4)).thenReturn(0);
+        when(productRepository.findById(PRODUCT_ID)).thenReturn(Optional.of(stale));
+        when(inventoryRepository.sumTotalQuantityByProductId(PRODUCT_ID)).thenReturn(0);
+
+        allocator.allocate(List.of(item(4)), PRIMARY_CLINIC, FALLBACK_CLINIC, LocalDateTime.now());
+
+        InOrder order = inOrder(entityManager, productRepository);
+        order.verify(entityManager).refresh(stale);
+        order.verify(productRepository).save(stale);
+        assertThat(stale.getUnit()).isZero();
+        assertThat(stale.getIsActive()).isFalse();
+    }
+
+    private record Result(int succeeded, int outOfStock, int otherErrors) {}
+
+    private Result race(int checkouts, int quantityEach) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger outOfStock = new AtomicInteger();
+        AtomicInteger otherErrors = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < checkouts; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                try {
+                    allocator.allocate(List.of(item(quantityEach)), PRIMARY_CLINIC, FALLBACK_CLINIC, LocalDateTime.now());
+                    succeeded.incrementAndGet();
+                } catch (IllegalStateException e) {
+                    if (e.getMessage().startsWith("Out of stock")) outOfStock.incrementAndGet();
+                    else otherErrors.incrementAndGet();
+                } catch (RuntimeException e) {
+                    otherErrors.incrementAndGet();
+                } finally {
+                    commit();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+        return new Result(succeeded.get(), outOfStock.get(), otherErrors.get());
+    }
+
+    private void lockRowsLikeDatabase(boolean lock) {
+        when(inventoryRepository.lockByProductIdsAndClinicIds(anyCollection(), anyCollection())).thenAnswer(inv -> {
+            Collection<Integer> clinicIds = inv.getArgument(1);
+            List<ProductInventory> result = new ArrayList<>();
+            for (Row row : rows.values()) { // ORDER BY id
+                if (!clinicIds.contains(row.clinicId())) continue;
+                if (lock) {
+                    row.lock().lock();
+                    heldLocks.get().add(row.lock());
+                }
+                result.add(snapshot(row));
+            }
+            Thread.yield();
+            return result;
+        });
+    }
+
+    // Kết thúc transaction checkout: nhả khóa dòng
+    private void commit() {
+        List<ReentrantLock> locks = heldLocks.get();
+        locks.forEach(ReentrantLock::unlock);
+        locks.clear();
+    }
+
+    private void addRow(int id, int clinicId, int quantity) {
+        rows.put(id, new Row(id, clinicId, new AtomicInteger(quantity), new ReentrantLock()));
+    }
+
+    private void assertRowsNeverNegative() {
+        assertThat(minQuantitySeen.get()).isGreaterThanOrEqualTo(0);
+        rows.values().forEach(r -> assertThat(r.quantity().get()).isGreaterThanOrEqualTo(0));
+    }
+
+    private int totalQuantity() {
+        return rows.values().stream().mapToInt(r -> r.quantity().get()).sum();
+    }
+
+    private static ProductInventory snapshot(Row row) {
+        Product product = new Product();
+        product.setId(PRODUCT_ID);
+        Clinic clinic = new Clinic();
+        clinic.setId(row.clinicId());
+        ProductInventory inv = new ProductInventory();
+        inv.setId(row.id());
+        inv.setProduct(product);
+        inv.setClinic(clinic);
+        inv.setQuantity(row.quantity().get());
+        return inv;
+    }
+
+    private static CartItemDto item(int quantity) {
+        CartItemDto item = new CartItemDto();
+        item.setProductId(PRODUCT_ID);
+        item.setProductName("Bàn chải");
+        item.setQuantity(quantity);
+        return item;
+    }
+}
@@ -0,0 +1,385 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import sunshine_dental_care.dto.huybro_payroll.PayslipDetailResponse.TaxTierDetail;
+import sunshine_dental_care.entities.Attendance;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.entities.huybro_salary.PayslipAllowance;
+import sunshine_dental_care.entities.huybro_salary.PayslipsSnapshot;
+import sunshine_dental_care.entities.huybro_salary.SalaryAllowance;
+import sunshine_dental_care.entities.huybro_salary.SalaryProfile;
+import sunshine_dental_care.entities.huybro_salary.enums.AllowanceType;
+import sunshine_dental_care.entities.huybro_salary.enums.SalaryCalculationType;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipAllowanceRepo.ManualItemView;
+import sunshine_dental_care.services.huybro_payroll.impl.PayrollCalculator.PayslipResult;
+
+class PayrollCalculatorTest {
+
+    private static final LocalDate CYCLE_START = LocalDate.of(2025, 6, 1);
+
+    // --- Biểu thuế: chốt số tiền tại đúng các mốc bậc ---
+
+    @Test
+    void taxTiersAtBoundaries() {
+        assertThat(PayrollCalculator.taxDetails(BigDecimal.ZERO)).isEmpty();
+        assertThat(PayrollCalculator.taxDetails(new BigDecimal("-1"))).isEmpty();
+
+        assertTax("1000000", 1, "50000");
+        assertTax("5000000", 1, "250000");
+        assertTax("5000001", 2, "250000");
+        assertTax("10000000", 2, "750000");
+        assertTax("18000000", 3, "1950000");
+        assertTax("32000000", 4, "4750000");
+        assertTax("52000000", 5, "9750000");
+        assertTax("80000000", 6, "18150000");
+        assertTax("100000000", 7, "25150000");
+    }
+
+    @Test
+    void taxTierLabelsAndPerTierRounding() {
+        List<TaxTierDetail> details = PayrollCalculator.taxDetails(new BigDecimal("12345678.90"));
+        assertThat(details).extracting(TaxTierDetail::getLabel).containsExactly(
+                "Bậc 1 (0 - 5tr) x 5%", "Bậc 2 (5 - 10tr) x 10%", "Bậc 3 (10 - 18tr) x 15%");
+        // 2,345,678.90 x 15% = 351,851.835 -> làm tròn từng bậc về số nguyên
+        assertThat(details).extracting(TaxTierDetail::getAmount).containsExactly(
+                new BigDecimal("250000"), new BigDecimal("500000"), new BigDecimal("351852"));
+        assertThat(PayrollCalculator.progressiveTax(new BigDecimal("12345678.90"))).isEqualTo(new BigDecimal("1101852"));
+    }
+
+    // --- Parity: kết quả giống hệt calculatePayroll + recalculateTotals trước khi tách engine ---
+
+    @Test
+    void matchesLegacyCalculationForRandomProfiles() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2_000; i++) {
+            Input input = randomInput(random, i);
+            PayslipResult result = PayrollCalculator.compute(input.profile(), input.contract(), input.attendances(), input.manual());
+            PayslipsSnapshot legacy = LegacyPayroll.calculate(input.profile(), input.attendances(), input.manual());
+
+            String ctx = "profile #" + i + " " + input.profile().getCalculationType();
+            if (input.profile().getCalculationType() == SalaryCalculationType.MONTHLY) {
+                assertThat(result.actualWorkDays()).as(ctx).isEqualTo(legacy.getActualWorkDays());
+            } else {
+                assertThat(result.actualShifts()).as(ctx).isEqualTo(legacy.getActualShifts());
+            }
+            assertThat(result.salaryAmount()).as(ctx).isEqualTo(legacy.getSalaryAmount());
+            assertThat(result.bonusAmount()).as(ctx).isEqualTo(legacy.getBonusAmount());
+            assertThat(result.totalOtHours()).as(ctx).isEqualTo(legacy.getTotalOtHours());
+            assertThat(result.otSalaryAmount()).as(ctx).isEqualTo(legacy.getOtSalaryAmount());
+            assertThat(result.totalLateMinutes()).as(ctx).isEqualTo(legacy.getTotalLateMinutes());
+            assertThat(result.latePenaltyAmount()).as(ctx).isEqualTo(legacy.getLatePenaltyAmount());
+            assertThat(result.insuranceDeduction()).as(ctx).isEqualTo(legacy.getInsuranceDeduction());
+            assertThat(result.allowanceAmount()).as(ctx).isEqualTo(legacy.getAllowanceAmount());
+            assertThat(result.otherDeductionAmount()).as(ctx).isEqualTo(legacy.getOtherDeductionAmount());
+            assertThat(result.grossSalary()).as(ctx).isEqualTo(legacy.getGrossSalary());
+            assertThat(result.taxDeduction()).as(ctx).isEqualTo(legacy.getTaxDeduction());
+            assertThat(result.netSalary()).as(ctx).isEqualTo(legacy.getNetSalary());
+            assertThat(result.contractItems()).as(ctx).hasSize(input.contract().size());
+        }
+    }
+
+    @Test
+    void shiftBasedOverStandardPaysBaseSalaryPlusOverShiftBonus() {
+        SalaryProfile profile = profile(1, SalaryCalculationType.SHIFT_BASED, "20000000");
+        profile.setStandardShifts(2);
+        profile.setOverShiftRate(new BigDecimal("500000"));
+        List<Attendance> attendances = List.of(
+                attendance(0, "MORNING", false, null, 0),
+                attendance(0, "AFTERNOON", false, null, 0),
+                attendance(1, "MORNING", false, null, 0),
+                attendance(1, "AFTERNOON", false, null, 5));
+
+        PayslipResult result = PayrollCalculator.compute(profile, List.of(), attendances, List.of());
+
+        assertThat(result.actualShifts()).isEqualTo(4);
+        assertThat(result.salaryAmount()).isEqualByComparingTo("20000000");
+        assertThat(result.bonusAmount()).isEqualByComparingTo("1000000");
+        assertThat(result.totalLateMinutes()).isEqualTo(5);
+        assertThat(result.grossSalary()).isEqualByComparingTo("21000000");
+        // 21tr: 250k + 500k + 1.2tr + 3tr x 20% = 2.55tr
+        assertThat(result.taxDeduction()).isEqualByComparingTo("2550000");
+    }
+
+    // --- Tính song song cho cả công ty ---
+
+    @Test
+    void parallelRunMatchesSequentialForWholeStaff() {
+        Random random = new Random(7);
+        List<Input> inputs = IntStream.range(0, 5_000).mapToObj(i -> randomInput(random, i)).toList();
+
+        List<PayslipResult> sequential = computeAll(inputs, false);
+        List<PayslipResult> parallel = computeAll(inputs, true);
+
+        assertThat(parallel).extracting(PayslipResult::userId)
+                .containsExactlyElementsOf(sequential.stream().map(PayslipResult::userId).toList());
+        Map<Integer, BigDecimal> netByUser = sequential.stream()
+                .collect(Collectors.toMap(PayslipResult::userId, PayslipResult::netSalary));
+        parallel.forEach(r -> assertThat(r.netSalary()).isEqualTo(netByUser.get(r.userId())));
+    }
+
+    private static List<PayslipResult> computeAll(List<Input> inputs, boolean parallel) {
+        var stream = parallel ? inputs.parallelStream() : inputs.stream();
+        return stream.map(in -> PayrollCalculator.compute(in.profile(), in.contract(), in.attendances(), in.manual()))
+                .toList();
+    }
+
+    private static void assertTax(String income, int tiers, String expected) {
+        assertThat(PayrollCalculator.taxDetails(new BigDecimal(income))).as(income).hasSize(tiers);
+        assertThat(PayrollCalculator.progressiveTax(new BigDecimal(income))).as(income).isEqualTo(new BigDecimal(expected));
+    }
+
+    // --- Dữ liệu ngẫu nhiên ---
+
+    private record Input(SalaryProfile profile, List<SalaryAllowance> contract,
+                         List<Attendance> attendances, List<ManualItemView> manual) {}
+
+    private static Input randomInput(Random random, int userId) {
+        boolean shiftBased = random.nextInt(3) == 0;
+        SalaryProfile profile = profile(userId, shiftBased ? SalaryCalculationType.SHIFT_BASED : SalaryCalculationType.MONTHLY,
+                String.valueOf(5_000_000 + random.nextInt(120) * 1_000_000L));
+        profile.setStandardWorkDays(random.nextInt(10) == 0 ? null : (double) (22 + random.nextInt(5)));
+        profile.setStandardShifts(random.nextInt(10) == 0 ? null : 20 + random.nextInt(30));
+        profile.setOtRate(random.nextInt(4) == 0 ? null : new BigDecimal("1.5"));
+        profile.setOverShiftRate(random.nextInt(4) == 0 ? null : BigDecimal.valueOf(100_000 + random.nextInt(10) * 50_000L));
+        profile.setLateDeductionRate(random.nextInt(4) == 0 ? null : BigDecimal.valueOf(1_000 + random.nextInt(5) * 1_000L));
+        profile.setInsuranceAmount(random.nextInt(4) == 0 ? null : BigDecimal.valueOf(random.nextInt(3_000_000)));
+
+        List<SalaryAllowance> contract = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            SalaryAllowance a = new SalaryAllowance();
+            a.setAllowanceName("Phụ cấp " + i);
+            a.setAmount(BigDecimal.valueOf(random.nextInt(2_000) * 1_000L));
+            a.setType(random.nextBoolean() ? AllowanceType.INCOME : AllowanceType.DEDUCTION);
+            a.setSalaryProfile(profile);
+            contract.add(a);
+        }
+        profile.setAllowances(contract);
+
+        List<Attendance> attendances = new ArrayList<>();
+        for (int day = 0; day < 30; day++) {
+            if (random.nextInt(5) == 0) continue;
+            if (shiftBased) {
+                if (random.nextBoolean()) attendances.add(attendance(day, "MORNING", false, null, random.nextInt(3) * 5));
+                if (random.nextBoolean()) attendances.add(attendance(day, "AFTERNOON", false, null, 0));
+            } else {
+                attendances.add(attendance(day, "FULL_DAY", false, null, random.nextInt(4) == 0 ? random.nextInt(30) : 0));
+            }
+            if (random.nextInt(6) == 0) {
+                attendances.add(attendance(day, "OVERTIME", true, BigDecimal.valueOf(random.nextInt(9), 1).add(BigDecimal.ONE), 0));
+            }
+        }
+
+        List<ManualItemView> manual = new ArrayList<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            manual.add(manualItem(random.nextBoolean() ? AllowanceType.INCOME : AllowanceType.DEDUCTION,
+                    BigDecimal.valueOf(random.nextInt(500) * 1_000L)));
+        }
+        return new Input(profile, contract, attendances, manual);
+    }
+
+    private static SalaryProfile profile(int userId, SalaryCalculationType type, String baseSalary) {
+        User user = new User();
+        user.setId(userId);
+        SalaryProfile profile = new SalaryProfile();
+        profile.setUser(user);
+        profile.setCalculationType(type);
+        profile.setBaseSalary(new BigDecimal(baseSalary));
+        return profile;
+    }
+
+    private static Attendance attendance(int day, String shiftType, boolean overtime, BigDecimal hours, int lateMinutes) {
+        Attendance a = new Attendance();
+        a.setWorkDate(CYCLE_START.plusDays(day));
+        a.setShiftType(shiftType);
+        a.setIsOvertime(overtime);
+        a.setActualWorkHours(hours);
+        a.setLateMinutes(lateMinutes == 0 ? null : lateMinutes);
+        return a;
+    }
+
+    private static ManualItemView manualItem(AllowanceType type, BigDecimal amount) {
+        return new ManualItemView() {
+            @Override
+            public Integer getPayslipId() {
+                return 1;
+            }
+
+            @Override
+            public AllowanceType getType() {
+                return type;
+            }
+
+            @Override
+            public BigDecimal getAmount() {
+                return amount;
+            }
+        };
+    }
+
+    /**
+     * Bản sao phần tính của PayrollServiceImpl.calculatePayroll + recalculateTotals + getTaxDetails
+     * trước khi tách PayrollEngine (bỏ phần đọc / ghi DB), dùng làm chuẩn so sánh.
+     */
+    private static final class LegacyPayroll {
+
+        static PayslipsSnapshot calculate(SalaryProfile profile, List<Attendance> attendances, List<ManualItemView> manualItems) {
+            PayslipsSnapshot slip = new PayslipsSnapshot();
+            slip.setUser(profile.getUser());
+            // Khoản nhập tay đã có sẵn trên phiếu
+            for (ManualItemView manual : manualItems) {
+                PayslipAllowance item = new PayslipAllowance();
+                item.setType(manual.getType());
+                item.setAmount(manual.getAmount());
+                item.setIsSystemGenerated(false);
+                slip.getPeriodicAllowances().add(item);
+            }
+
+            BigDecimal salaryAmount = BigDecimal.ZERO;
+            BigDecimal bonusAmount = BigDecimal.ZERO;
+            if (profile.getCalculationType() == SalaryCalculationType.MONTHLY) {
+                long workDays = attendances.stream()
+                        .filter(a -> !Boolean.TRUE.equals(a.getIsOvertime()))
+                        .map(Attendance::getWorkDate).distinct().count();
+                slip.setActualWorkDays((double) workDays);
+                if (profile.getStandardWorkDays() != null && profile.getStandardWorkDays() > 0) {
+                    BigDecimal dailyRate = profile.getBaseSalary()
+                            .divide(BigDecimal.valueOf(profile.getStandardWorkDays()), 2, RoundingMode.HALF_UP);
+                    salaryAmount = dailyRate.multiply(BigDecimal.valueOf(workDays));
+                }
+            } else if (profile.getCalculationType() == SalaryCalculationType.SHIFT_BASED) {
+                long shiftCount = attendances.stream()
+                        .filter(a -> !Boolean.TRUE.equals(a.getIsOvertime()))
+                        .filter(a -> a.getShiftType() != null && (a.getShiftType().equals("MORNING") || a.getShiftType().equals("AFTERNOON")))
+                        .count();
+                slip.setActualShifts((int) shiftCount);
+                int stdShifts = profile.getStandardShifts() != null ? profile.getStandardShifts() : 0;
+                if (stdShifts > 0) {
+                    if (shiftCount <= stdShifts) {
+                        BigDecimal shiftRate = profile.getBaseSalary()
+                                .divide(BigDecimal.valueOf(stdShifts), 2, RoundingMode.HALF_UP);
+                        salaryAmount = shiftRate.multiply(BigDecimal.valueOf(shiftCount));
+                    } else {
+                        salaryAmount = profile.getBaseSalary();
+                        long extra = shiftCount - stdShifts;
+                        if (profile.getOverShiftRate() != null) {
+                            bonusAmount = profile.getOverShiftRate().multiply(BigDecimal.valueOf(extra));
+                        }
+                    }
+                }
+            }
+            slip.setSalaryAmount(salaryAmount);
+            slip.setBonusAmount(bonusAmount);
+
+            BigDecimal otSalaryAmount = BigDecimal.ZERO;
+            double totalOtHours = attendances.stream()
+                    .filter(a -> Boolean.TRUE.equals(a.getIsOvertime()))
+                    .mapToDouble(a -> a.getActualWorkHours() != null ? a.getActualWorkHours().doubleValue() : 0.0)
+                    .sum();
+            slip.setTotalOtHours(totalOtHours);
+            if (totalOtHours > 0 && profile.getOtRate() != null && profile.getOtRate().compareTo(BigDecimal.ZERO) > 0) {
+                BigDecimal standardDays = (profile.getStandardWorkDays() != null && profile.getStandardWorkDays() > 0)
+                        ? BigDecimal.valueOf(profile.getStandardWorkDays())
+                        : BigDecimal.valueOf(26);
+                BigDecimal hourlyRate = profile.getBaseSalary()
+                        .divide(standardDays, 2, RoundingMode.HALF_UP)
+                        .divide(BigDecimal.valueOf(8), 2, RoundingMode.HALF_UP);
+                otSalaryAmount = hourlyRate
+                        .multiply(BigDecimal.valueOf(totalOtHours))
+                        .multiply(profile.getOtRate());
+            }
+            slip.setOtSalaryAmount(otSalaryAmount);
+
+            int totalLate = attendances.stream().mapToInt(a -> a.getLateMinutes() != null ? a.getLateMinutes() : 0).sum();
+            slip.setTotalLateMinutes(totalLate);
+            BigDecimal latePenalty = BigDecimal.ZERO;
+            if (profile.getLateDeductionRate() != null) {
+                latePenalty = profile.getLateDeductionRate().multiply(BigDecimal.valueOf(totalLate));
+            }
+            slip.setLatePenaltyAmount(latePenalty);
+
+            BigDecimal insurance = profile.getInsuranceAmount() != null ? profile.getInsuranceAmount() : BigDecimal.ZERO;
+            slip.setInsuranceDeduction(insurance);
+            slip.setAdvancePayment(BigDecimal.ZERO);
+
+            slip.getPeriodicAllowances().removeIf(PayslipAllowance::getIsSystemGenerated);
+            if (profile.getAllowances() != null) {
+                for (SalaryAllowance configItem : profile.getAllowances()) {
+                    PayslipAllowance item = new PayslipAllowance();
+                    item.setPayslip(slip);
+                    item.setAllowanceName(configItem.getAllowanceName());
+                    item.setAmount(configItem.getAmount());
+                    item.setType(configItem.getType());
+                    item.setIsSystemGenerated(true);
+                    slip.getPeriodicAllowances().add(item);
+                }
+            }
+
+            recalculateTotals(slip);
+            return slip;
+        }
+
+        static void recalculateTotals(PayslipsSnapshot slip) {
+            BigDecimal totalIncomeAllowances = slip.getPeriodicAllowances().stream()
+                    .filter(a -> a.getType() == AllowanceType.INCOME)
+                    .map(PayslipAllowance::getAmount)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+            slip.setAllowanceAmount(totalIncomeAllowances);
+
+            BigDecimal totalDeductionAllowances = slip.getPeriodicAllowances().stream()
+                    .filter(a -> a.getType() == AllowanceType.DEDUCTION)
+                    .map(PayslipAllowance::getAmount)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+            slip.setOtherDeductionAmount(totalDeductionAllowances);
+
+            BigDecimal gross = slip.getSalaryAmount()
+                    .add(slip.getBonusAmount() != null ? slip.getBonusAmount() : BigDecimal.ZERO)
+                    .add(slip.getOtSalaryAmount() != null ? slip.getOtSalaryAmount() : BigDecimal.ZERO)
+                    .add(totalIncomeAllowances);
+            slip.setGrossSalary(gross);
+
+            BigDecimal taxableIncome = gross.subtract(slip.getInsuranceDeduction());
+            if (taxableIncome.compareTo(BigDecimal.ZERO) < 0) taxableIncome = BigDecimal.ZERO;
+            BigDecimal tax = progressiveTax(taxableIncome);
+            slip.setTaxDeduction(tax);
+
+            BigDecimal totalDeductions = slip.getInsuranceDeduction()
+                    .add(tax)
+                    .add(slip.getLatePenaltyAmount())
+                    .add(totalDeductionAllowances);
+            slip.setNetSalary(gross.subtract(totalDeductions));
+        }
+
+        // Biểu thuế cũ: 7 bậc viết tay, làm tròn từng bậc
+        static BigDecimal progressiveTax(BigDecimal taxableIncome) {
+            BigDecimal total = BigDecimal.ZERO;
+            if (taxableIncome.compareTo(BigDecimal.ZERO) <= 0) return total;
+            double remaining = taxableIncome.doubleValue();
+            double[] widths = {5000000, 5000000, 8000000, 14000000, 20000000, 28000000};
+            double[] rates = {0.05, 0.10, 0.15, 0.20, 0.25, 0.30};
+            for (int i = 0; i < widths.length; i++) {
+                if (remaining > 0) {
+                    double taxBlock = Math.min(remaining, widths[i]);
+                    total = total.add(BigDecimal.valueOf(taxBlock * rates[i]).setScale(0, RoundingMode.HALF_UP));
+                    remaining -= widths[i];
+                }
+            }
+            if (remaining > 0) {
+                total = total.add(BigDecimal.valueOf(remaining * 0.35).setScale(0, RoundingMode.HALF_UP));
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.entities.huybro_salary.SalaryCycle;
+import sunshine_dental_care.entities.huybro_salary.SalaryProfile;
+import sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus;
+import sunshine_dental_care.entities.huybro_salary.enums.SalaryCalculationType;
+import sunshine_dental_care.repositories.huybro_payroll.PayrollAttendanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipAllowanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipsSnapshotRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryAllowanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryCycleRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryProfileRepo;
+
+class PayrollEngineTest {
+
+    private final SalaryProfileRepo salaryProfileRepo = mock(SalaryProfileRepo.class);
+    private final PayslipsSnapshotRepo payslipRepo = mock(PayslipsSnapshotRepo.class);
+    private final SalaryCycleRepo salaryCycleRepo = mock(SalaryCycleRepo.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private PayrollEngine engine;
+
+    // Câu SQL -> giá trị setXxx(index, value) của từng dòng
+    private final Map<String, List<Map<Integer, Object>>> written = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        engine = new PayrollEngine(salaryProfileRepo, mock(SalaryAllowanceRepo.class), mock(PayrollAttendanceRepo.class),
+                payslipRepo, mock(PayslipAllowanceRepo.class), salaryCycleRepo, jdbcTemplate,
+                new TransactionTemplate(txManager));
+
+        when(salaryCycleRepo.findByIdForUpdate(any())).thenAnswer(inv -> Optional.of(cycle(inv.getArgument(0))));
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(inv -> {
+                    ParameterizedPreparedStatementSetter<Object> setter = inv.getArgument(3);
+                    for (Object row : inv.<Collection<Object>>getArgument(1)) {
+                        PreparedStatement ps = mock(PreparedStatement.class);
+                        setter.setValues(ps, row);
+                        written.computeIfAbsent(inv.getArgument(0), k -> new ArrayList<>()).add(valuesOf(ps));
+                    }
+                    return new int[0][0];
+                });
+    }
+
+    @Test
+    void existingPayslipKeepsItsAdvancePaymentAndNewOneStartsAtZero() {
+        when(salaryProfileRepo.findForPayrollByRoleNames(any())).thenReturn(List.of(profile(1), profile(2)));
+        // User 1 đã có phiếu 100 (có thể đã nhập tạm ứng), user 2 chưa có
+        PayslipsSnapshotRepo.PayslipIdView existing = payslipId(1, 100);
+        when(payslipRepo.findIdsBySalaryCycleIdAndUserIds(eq(5), any()))
+                .thenReturn(List.of(existing))
+                .thenReturn(List.of(existing, payslipId(2, 101)));
+
+        assertThat(engine.run(cycle(5), null)).containsExactly(1, 2);
+
+        String update = statement("UPDATE payslips_snapshot");
+        String insert = statement("INSERT INTO payslips_snapshot");
+        assertThat(update).doesNotContain("advance_payment = ?").contains("net_salary = ? - COALESCE(advance_payment, 0)");
+        assertThat(insert).contains("advance_payment");
+        // Số tham số được bind khớp số dấu ? của từng câu lệnh
+        assertThat(written.get(update)).singleElement()
+                .satisfies(row -> assertThat(row).hasSize(placeholders(update)));
+        assertThat(written.get(insert)).singleElement()
+                .satisfies(row -> assertThat(row).hasSize(placeholders(insert)));
+        assertThat(written.get(update).get(0).get(placeholders(update))).isEqualTo(100);
+    }
+
+    @Test
+    void runsForTheSameCycleAreSerializedAndLocksArePruned() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        when(salaryProfileRepo.findForPayrollByRoleNames(any())).thenAnswer(inv -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            active.decrementAndGet();
+            return List.of();
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(pool.submit(() -> engine.run(cycle(5), null)));
+            }
+            for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(maxActive).hasValue(1);
+        assertThat(engine.cycleLockCount()).isZero();
+    }
+
+    @Test
+    void lockIsDroppedAfterEachCycleRun() {
+        when(salaryProfileRepo.findForPayrollByRoleNames(any())).thenReturn(List.of());
+
+        for (int cycleId = 1; cycleId <= 50; cycleId++) {
+            engine.run(cycle(cycleId), null);
+        }
+
+        assertThat(engine.cycleLockCount()).isZero();
+    }
+
+    private String statement(String prefix) {
+        return written.keySet().stream().filter(sql -> sql.strip().startsWith(prefix)).findFirst().orElseThrow();
+    }
+
+    private static int placeholders(String sql) {
+        return (int) sql.chars().filter(c -> c == '?').count();
+    }
+
+    private static Map<Integer, Object> valuesOf(PreparedStatement ps) {
+        Map<Integer, Object> values = new HashMap<>();
+        mockingDetails(ps).getInvocations().forEach(inv -> {
+            if (inv.getArguments().length == 2 && inv.getArguments()[0] instanceof Integer i) {
+                values.put(i, inv.getArguments()[1]);
+            }
+        });
+        return values;
+    }
+
+    private static SalaryCycle cycle(int id) {
+        SalaryCycle cycle = new SalaryCycle();
+        cycle.setId(id);
+        cycle.setMonth(6);
+        cycle.setYear(2025);
+        cycle.setStartDate(LocalDate.of(2025, 6, 1));
+        cycle.setEndDate(LocalDate.of(2025, 6, 30));
+        cycle.setStatus(PeriodStatus.DRAFT);
+        return cycle;
+    }
+
+    private static SalaryProfile profile(int userId) {
+        User user = new User();
+        user.setId(userId);
+        SalaryProfile profile = new SalaryProfile();
+        profile.setId(userId);
+        profile.setUser(user);
+        profile.setCalculationType(SalaryCalculationType.MONTHLY);
+        profile.setBaseSalary(new BigDecimal("10000000"));
+        profile.setStandardWorkDays(26.0);
+        return profile;
+    }
+
+    private static PayslipsSnapshotRepo.PayslipIdView payslipId(int userId, int payslipId) {
+        return new PayslipsSnapshotRepo.PayslipIdView() {
+            @Override
+            public Integer getUserId() {
+                return userId;
+            }
+
+            @Override
+            public Integer getPayslipId() {
+                return payslipId;
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.persistence.EntityManager;
+import sunshine_dental_care.entities.huybro_salary.SalaryCycle;
+import sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus;
+import sunshine_dental_care.repositories.auth.UserRepo;
+import sunshine_dental_care.repositories.huybro_custom.UserCustomRepository;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipAllowanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipsSnapshotRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryAllowanceRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryCycleRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryProfileRepo;
+
+class PayrollServiceImplTest {
+
+    private final SalaryCycleRepo salaryCycleRepo = mock(SalaryCycleRepo.class);
+    private final PayslipsSnapshotRepo payslipRepo = mock(PayslipsSnapshotRepo.class);
+    private final StalePayslipTracker stalePayslipTracker = mock(StalePayslipTracker.class);
+    private PayrollServiceImpl service;
+
+    private final SalaryCycle cycle = new SalaryCycle();
+    private final SalaryCycle lockedCycle = new SalaryCycle();
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        service = new PayrollServiceImpl(mock(SalaryProfileRepo.class), mock(SalaryAllowanceRepo.class), salaryCycleRepo,
+                payslipRepo, mock(UserRepo.class), mock(PayslipAllowanceRepo.class), mock(UserCustomRepository.class),
+                mock(PayrollEngine.class), stalePayslipTracker, mock(EntityManager.class), new TransactionTemplate(txManager));
+
+        cycle.setId(1);
+        cycle.setStatus(PeriodStatus.DRAFT);
+        lockedCycle.setId(1);
+        lockedCycle.setStatus(PeriodStatus.DRAFT);
+        when(salaryCycleRepo.findByMonthAndYear(6, 2025)).thenReturn(Optional.of(cycle));
+        when(salaryCycleRepo.findByIdForUpdate(1)).thenReturn(Optional.of(lockedCycle));
+    }
+
+    @Test
+    void cycleIsFinalizedUnderTheRowLockAfterStalePayslipsAreRecomputed() {
+        when(payslipRepo.findStaleUserIdsBySalaryCycleId(1)).thenReturn(List.of());
+
+        service.finalizeCycle(6, 2025);
+
+        InOrder order = inOrder(stalePayslipTracker, salaryCycleRepo, payslipRepo);
+        order.verify(stalePayslipTracker).awaitFresh(cycle);
+        order.verify(salaryCycleRepo).findByIdForUpdate(1);
+        order.verify(payslipRepo).findStaleUserIdsBySalaryCycleId(1);
+        order.verify(salaryCycleRepo).save(lockedCycle);
+        assertThat(lockedCycle.getStatus()).isEqualTo(PeriodStatus.FINALIZED);
+    }
+
+    @Test
+    void attendanceChangedAfterRecomputeIsRecomputedBeforeFinalizing() {
+        // Chấm công đổi ngay sau awaitFresh -> lần kiểm tra trong khóa thấy phiếu cũ, thử lại
+        when(payslipRepo.findStaleUserIdsBySalaryCycleId(1)).thenReturn(List.of(7)).thenReturn(List.of());
+
+        service.finalizeCycle(6, 2025);
+
+        verify(stalePayslipTracker, times(2)).awaitFresh(cycle);
+        verify(salaryCycleRepo, times(1)).save(lockedCycle);
+        assertThat(lockedCycle.getStatus()).isEqualTo(PeriodStatus.FINALIZED);
+    }
+
+    @Test
+    void finalizeGivesUpWhileAttendanceKeepsChanging() {
+        when(payslipRepo.findStaleUserIdsBySalaryCycleId(1)).thenReturn(List.of(7));
+
+        assertThatThrownBy(() -> service.finalizeCycle(6, 2025)).isInstanceOf(RuntimeException.class);
+
+        verify(salaryCycleRepo, never()).save(any());
+        assertThat(lockedCycle.getStatus()).isEqualTo(PeriodStatus.DRAFT);
+    }
+}
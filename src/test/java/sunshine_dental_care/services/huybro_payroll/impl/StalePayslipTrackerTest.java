@@ -0,0 +1,180 @@
+package sunshine_dental_care.services.huybro_payroll.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.huybro_salary.SalaryCycle;
+import sunshine_dental_care.entities.huybro_salary.enums.PeriodStatus;
+import sunshine_dental_care.repositories.huybro_payroll.PayslipsSnapshotRepo;
+import sunshine_dental_care.repositories.huybro_payroll.SalaryCycleRepo;
+
+class StalePayslipTrackerTest {
+
+    private static final LocalDate WORK_DATE = LocalDate.of(2025, 6, 10);
+
+    private final PayslipsSnapshotRepo payslipRepo = mock(PayslipsSnapshotRepo.class);
+    private final SalaryCycleRepo salaryCycleRepo = mock(SalaryCycleRepo.class);
+    private final PayrollEngine payrollEngine = mock(PayrollEngine.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private StalePayslipTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        tracker = new StalePayslipTracker(payslipRepo, salaryCycleRepo, payrollEngine, jdbcTemplate,
+                new TransactionTemplate(txManager), 0);
+        // Engine tính được mọi user được yêu cầu
+        when(payrollEngine.run(any(), anyCollection())).thenAnswer(inv -> List.copyOf(inv.<Collection<Integer>>getArgument(1)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void attendanceChangeMarksPayslipStaleInsideItsTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        tracker.attendanceChanged(7, WORK_DATE);
+
+        // Cờ được ghi ngay (trước commit), không chờ job
+        verify(jdbcTemplate).update(anyString(), any(), eq(7), eq(Date.valueOf(WORK_DATE)), any());
+        verify(payslipRepo, never()).markStale(any(), any(), any());
+
+        // Sau commit mốc được đẩy lên thời điểm commit ở lần job chạy kế tiếp
+        Instant beforeCommit = Instant.now();
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCommit();
+        }
+        when(payslipRepo.findStale(any())).thenReturn(List.of());
+        tracker.refreshStale();
+
+        ArgumentCaptor<Instant> changedAt = ArgumentCaptor.forClass(Instant.class);
+        verify(payslipRepo).markStale(eq(7), eq(WORK_DATE), changedAt.capture());
+        assertThat(changedAt.getValue()).isAfterOrEqualTo(beforeCommit);
+    }
+
+    @Test
+    void rolledBackAttendanceChangeIsNotRecorded() {
+        TransactionSynchronizationManager.initSynchronization();
+        tracker.attendanceChanged(7, WORK_DATE);
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        when(payslipRepo.findStale(any())).thenReturn(List.of());
+
+        tracker.refreshStale();
+
+        verify(payslipRepo, never()).markStale(any(), any(), any());
+    }
+
+    @Test
+    void refreshStaleRecomputesPerCycleAndSkipsFinalizedCycles() {
+        SalaryCycle open = cycle(1, PeriodStatus.DRAFT);
+        SalaryCycle finalized = cycle(2, PeriodStatus.FINALIZED);
+        SalaryCycle failing = cycle(3, PeriodStatus.DRAFT);
+        when(payslipRepo.findStale(any())).thenReturn(List.of(
+                stale(3, 10), stale(1, 7), stale(2, 9), stale(1, 8)));
+        when(salaryCycleRepo.findById(1)).thenReturn(Optional.of(open));
+        when(salaryCycleRepo.findById(2)).thenReturn(Optional.of(finalized));
+        when(salaryCycleRepo.findById(3)).thenReturn(Optional.of(failing));
+        // Kỳ 3 lỗi không làm dừng các kỳ khác, cờ stale giữ nguyên để lần sau thử lại
+        when(payrollEngine.run(eq(failing), anyCollection())).thenThrow(new IllegalStateException("db"));
+
+        tracker.refreshStale();
+
+        verify(payrollEngine).run(open, Set.of(7, 8));
+        verify(payrollEngine).run(failing, Set.of(10));
+        verify(payrollEngine, never()).run(eq(finalized), anyCollection());
+        verify(payslipRepo, never()).clearStale(any(), any());
+    }
+
+    @Test
+    void usersWithoutSalaryProfileHaveTheirFlagCleared() {
+        when(payslipRepo.findStale(any())).thenReturn(List.of(stale(1, 7), stale(1, 8)));
+        when(salaryCycleRepo.findById(1)).thenReturn(Optional.of(cycle(1, PeriodStatus.DRAFT)));
+        when(payrollEngine.run(any(), anyCollection())).thenReturn(List.of(7));
+
+        tracker.refreshStale();
+
+        verify(payslipRepo).clearStale(1, Set.of(8));
+    }
+
+    @Test
+    void awaitFreshRecomputesUntilNoPayslipIsStale() {
+        SalaryCycle cycle = cycle(1, PeriodStatus.DRAFT);
+        when(payslipRepo.findStaleUserIdsBySalaryCycleId(1))
+                .thenReturn(List.of(7, 8))
+                .thenReturn(List.of(8))
+                .thenReturn(List.of());
+
+        tracker.awaitFresh(cycle);
+
+        verify(payrollEngine).run(cycle, List.of(7, 8));
+        verify(payrollEngine).run(cycle, List.of(8));
+    }
+
+    @Test
+    void awaitFreshGivesUpWhileAttendanceKeepsChanging() {
+        SalaryCycle cycle = cycle(1, PeriodStatus.DRAFT);
+        when(payslipRepo.findStaleUserIdsBySalaryCycleId(1)).thenReturn(List.of(7));
+
+        assertThatThrownBy(() -> tracker.awaitFresh(cycle)).isInstanceOf(RuntimeException.class);
+        verify(payrollEngine, times(5)).run(cycle, List.of(7));
+    }
+
+    private static SalaryCycle cycle(int id, PeriodStatus status) {
+        SalaryCycle cycle = new SalaryCycle();
+        cycle.setId(id);
+        cycle.setMonth(6);
+        cycle.setYear(2025);
+        cycle.setStatus(status);
+        return cycle;
+    }
+
+    private static PayslipsSnapshotRepo.StalePayslipView stale(int cycleId, int userId) {
+        return new PayslipsSnapshotRepo.StalePayslipView() {
+            @Override
+            public Integer getSalaryCycleId() {
+                return cycleId;
+            }
+
+            @Override
+            public Integer getUserId() {
+                return userId;
+            }
+        };
+    }
+}
@@ -0,0 +1,223 @@
+package sunshine_dental_care.services.huybro_products.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import sunshine_dental_care.dto.huybro_products.ProductDto;
+import sunshine_dental_care.entities.huybro_product_inventories.ProductStockReceipt;
+import sunshine_dental_care.entities.huybro_products.Product;
+import sunshine_dental_care.entities.huybro_products.ProductImage;
+import sunshine_dental_care.entities.huybro_products.ProductType;
+import sunshine_dental_care.entities.huybro_products.ProductsProductType;
+import sunshine_dental_care.repositories.huybro_products.ProductImageRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductStockReceiptRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductsProductTypeRepository;
+
+class ProductCatalogCacheTest {
+
+    private final ProductRepository productRepository = mock(ProductRepository.class);
+    private final ProductImageRepository imageRepository = mock(ProductImageRepository.class);
+    private final ProductsProductTypeRepository typeRepository = mock(ProductsProductTypeRepository.class);
+    private final ProductStockReceiptRepository receiptRepository = mock(ProductStockReceiptRepository.class);
+    private ProductCatalogCache cache;
+
+    private final List<Product> catalog = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        cache = new ProductCatalogCache(productRepository, imageRepository, typeRepository, receiptRepository);
+        for (int i = 1; i <= 3; i++) catalog.add(product(i));
+        when(productRepository.findByIsActiveTrue()).thenReturn(catalog);
+        when(productRepository.findById(any())).thenAnswer(inv -> catalog.stream()
+                .filter(p -> p.getId().equals(inv.getArgument(0))).findFirst());
+
+        Product first = catalog.get(0);
+        when(imageRepository.findByProduct_IdInOrderByImageOrderAsc(anySet()))
+                .thenReturn(List.of(image(first, 10, "a.png", 1), image(first, 11, "b.png", 2)));
+        when(typeRepository.findWithTypeByProductIdIn(anySet()))
+                .thenReturn(List.of(type(first, "Bàn chải"), type(catalog.get(1), "Chỉ nha khoa")));
+        // 2 phiếu nhập cho sản phẩm 1 -> lấy phiếu có id lớn hơn
+        when(receiptRepository.findLatestByProductIdIn(anySet()))
+                .thenReturn(List.of(receipt(first, 5, "100"), receipt(first, 7, "120")));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void pageIsHydratedWithOneQueryPerRelationAndServedFromCacheAfterwards() {
+        List<ProductDto> first = cache.findAllActive();
+        List<ProductDto> second = cache.findAllActive();
+
+        assertThat(first).extracting(ProductDto::getProductId).containsExactly(1, 2, 3);
+        assertThat(second).extracting(ProductDto::getProductId).containsExactly(1, 2, 3);
+        verify(productRepository, times(1)).findByIsActiveTrue();
+        verify(imageRepository, times(1)).findByProduct_IdInOrderByImageOrderAsc(Set.of(1, 2, 3));
+        verify(typeRepository, times(1)).findWithTypeByProductIdIn(Set.of(1, 2, 3));
+        verify(receiptRepository, times(1)).findLatestByProductIdIn(Set.of(1, 2, 3));
+
+        ProductDto dto = first.get(0);
+        assertThat(dto.getImage()).extracting("imageUrl").containsExactly("a.png", "b.png");
+        assertThat(dto.getTypeNames()).containsExactly("Bàn chải");
+        assertThat(dto.getLatestImportPrice()).isEqualByComparingTo("120");
+        // Sản phẩm chưa có phiếu nhập -> giá nhập = 0
+        assertThat(first.get(2).getLatestImportPrice()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(first.get(2).getImage()).isEmpty();
+    }
+
+    @Test
+    void largeCatalogIsQueriedInChunksOfOneThousand() {
+        catalog.clear();
+        for (int i = 1; i <= 2500; i++) catalog.add(product(i));
+
+        assertThat(cache.findAllActive()).hasSize(2500);
+
+        verify(imageRepository, times(3)).findByProduct_IdInOrderByImageOrderAsc(anySet());
+        verify(typeRepository, times(3)).findWithTypeByProductIdIn(anySet());
+        verify(receiptRepository, times(3)).findLatestByProductIdIn(anySet());
+    }
+
+    @Test
+    void callerMutationsDoNotLeakIntoTheCache() {
+        ProductDto dto = cache.findById(2).orElseThrow();
+        dto.setSoldCount(99);
+        dto.getTypeNames().add("Sửa tay");
+        dto.setProductName("đã sửa");
+
+        ProductDto again = cache.findById(2).orElseThrow();
+
+        assertThat(again.getSoldCount()).isNull();
+        assertThat(again.getTypeNames()).containsExactly("Chỉ nha khoa");
+        assertThat(again.getProductName()).isEqualTo("Sản phẩm 2");
+        verify(productRepository, times(1)).findById(2);
+    }
+
+    @Test
+    void toDtosOnlyHydratesProductsNotYetCached() {
+        cache.findById(1);
+
+        List<ProductDto> page = cache.toDtos(catalog);
+
+        assertThat(page).extracting(ProductDto::getProductId).containsExactly(1, 2, 3);
+        verify(imageRepository).findByProduct_IdInOrderByImageOrderAsc(Set.of(1));
+        verify(imageRepository).findByProduct_IdInOrderByImageOrderAsc(Set.of(2, 3));
+    }
+
+    @Test
+    void evictReloadsOnlyTheChangedProductAndItsLists() {
+        cache.findAllActive();
+
+        catalog.get(1).setProductName("Tên mới");
+        cache.evict(2);
+        List<ProductDto> reloaded = cache.findAllActive();
+
+        assertThat(reloaded.get(1).getProductName()).isEqualTo("Tên mới");
+        verify(productRepository, times(2)).findByIsActiveTrue();
+        verify(imageRepository, times(2)).findByProduct_IdInOrderByImageOrderAsc(Set.of(1, 2, 3));
+    }
+
+    @Test
+    void evictionDuringLoadKeepsStaleDataOutOfTheCache() {
+        AtomicBoolean evicted = new AtomicBoolean();
+        // Sản phẩm bị sửa trong lúc đang hydrate (giữa query ảnh và query loại)
+        when(imageRepository.findByProduct_IdInOrderByImageOrderAsc(anySet())).thenAnswer(inv -> {
+            if (evicted.compareAndSet(false, true)) cache.evict(1);
+            return List.of();
+        });
+
+        cache.findAllActive();
+        cache.findAllActive();
+
+        verify(productRepository, times(2)).findByIsActiveTrue();
+        verify(typeRepository, times(2)).findWithTypeByProductIdIn(anySet());
+    }
+
+    @Test
+    void evictInsideTransactionEvictsAgainAndNotifiesAfterCompletion() {
+        List<Integer> notified = new ArrayList<>();
+        cache.addChangeListener(notified::add);
+        cache.addChangeListener(id -> { throw new IllegalStateException("listener lỗi"); });
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.evict(1);
+        assertThat(notified).isEmpty();
+
+        // Request đọc song song trước commit ghi lại dữ liệu cũ vào cache
+        cache.findById(1);
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        cache.findById(1);
+
+        assertThat(notified).containsExactly(1);
+        verify(productRepository, times(2)).findById(1);
+    }
+
+    @Test
+    void missingProductIsEmptyAndNotCached() {
+        assertThat(cache.findById(404)).isEqualTo(Optional.empty());
+        assertThat(cache.findByIds(List.of())).isEmpty();
+        verify(imageRepository, times(0)).findByProduct_IdInOrderByImageOrderAsc(anySet());
+    }
+
+    private static Product product(int id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setSku("SKU-" + id);
+        product.setProductName("Sản phẩm " + id);
+        product.setBrand("Oral-B");
+        product.setIsActive(true);
+        product.setDefaultRetailPrice(BigDecimal.valueOf(50_000));
+        return product;
+    }
+
+    private static ProductImage image(Product product, int id, String url, int order) {
+        ProductImage image = new ProductImage();
+        image.setId(id);
+        image.setProduct(product);
+        image.setImageUrl(url);
+        image.setImageOrder(order);
+        return image;
+    }
+
+    private static ProductsProductType type(Product product, String name) {
+        ProductType type = new ProductType();
+        type.setTypeName(name);
+        ProductsProductType link = new ProductsProductType();
+        link.setProduct(product);
+        link.setType(type);
+        return link;
+    }
+
+    private static ProductStockReceipt receipt(Product product, int id, String importPrice) {
+        ProductStockReceipt receipt = new ProductStockReceipt();
+        receipt.setId(id);
+        receipt.setProduct(product);
+        receipt.setImportPrice(new BigDecimal(importPrice));
+        receipt.setProfitMargin(BigDecimal.TEN);
+        return receipt;
+    }
+}
@@ -0,0 +1,161 @@
+package sunshine_dental_care.services.huybro_products.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import sunshine_dental_care.config.huybro_config.StaticResourceConfig;
+import sunshine_dental_care.services.huybro_products.impl.ProductImageVariantService.VariantFile;
+import sunshine_dental_care.utils.huybro_utils.image.ImageVariant;
+
+class ProductImageVariantServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private StaticResourceConfig config;
+    private ProductImageVariantService service;
+
+    @BeforeEach
+    void setUp() {
+        config = mock(StaticResourceConfig.class);
+        when(config.getOriginalDir()).thenReturn(tempDir.resolve("original").toString());
+        when(config.getCacheDir()).thenReturn(tempDir.resolve("cache").toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) service.shutdown();
+    }
+
+    @Test
+    void concurrentMissesShareOneResize() throws Exception {
+        service = new ProductImageVariantService(config, 2, 0.85f, 15_000, 100);
+        writeImage("a_123.jpg", 1600, 1200);
+
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<VariantFile>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return service.resolve("a_123.jpg", ImageVariant.CARD);
+            }));
+        }
+        start.countDown();
+
+        VariantFile first = results.get(0).get(30, TimeUnit.SECONDS);
+        for (Future<VariantFile> f : results) {
+            // Cùng 1 lần resize -> mọi request nhận đúng 1 đối tượng
+            assertThat(f.get(30, TimeUnit.SECONDS)).isSameAs(first);
+        }
+        pool.shutdown();
+
+        assertThat(first.file()).exists();
+        BufferedImage resized = ImageIO.read(first.file());
+        assertThat(resized.getWidth()).isLessThanOrEqualTo(ImageVariant.CARD.getWidth());
+    }
+
+    @Test
+    void readyMapEvictsLeastRecentlyUsed() throws Exception {
+        service = new ProductImageVariantService(config, 1, 0.85f, 15_000, 2);
+        for (String name : List.of("a_1.jpg", "b_2.jpg", "c_3.jpg")) {
+            writeImage(name, 400, 300);
+            service.resolve(name, ImageVariant.THUMB);
+        }
+
+        assertThat(service.readyCount()).isEqualTo(2);
+        // Mục bị đẩy ra vẫn phục vụ được từ file đã sinh trên đĩa
+        assertThat(service.resolve("a_1.jpg", ImageVariant.THUMB).file()).exists();
+        assertThat(service.readyCount()).isEqualTo(2);
+    }
+
+    @Test
+    void missingOriginalFailsWithoutLeavingInFlightEntry() {
+        service = new ProductImageVariantService(config, 1, 0.85f, 15_000, 10);
+        new File(config.getOriginalDir()).mkdirs();
+
+        for (int i = 0; i < 2; i++) {
+            // Lần 2 phải thử resize lại chứ không nhận future lỗi còn sót trong inFlight
+            assertThatThrownBy(() -> service.resolve("missing_1.jpg", ImageVariant.THUMB))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("Not found");
+            assertThat(service.inFlightCount()).isZero();
+        }
+        assertThat(service.readyCount()).isZero();
+    }
+
+    // Tải 1 trang lưới sản phẩm (24 thẻ CARD, trình duyệt mở 6 kết nối song song):
+    // lần đầu phải resize, lần sau chỉ đọc metadata đã nhớ
+    @Test
+    void warmCardGridPageLoadIsServedFromMemory() throws Exception {
+        service = new ProductImageVariantService(config, 2, 0.85f, 15_000, 1000);
+        List<String> page = new ArrayList<>();
+        for (int i = 1; i <= 24; i++) {
+            String name = "card_" + i + ".jpg";
+            writeImage(name, 1200, 900);
+            page.add(name);
+        }
+
+        ExecutorService browser = Executors.newFixedThreadPool(6);
+        try {
+            long coldNanos = loadPage(browser, page);
+            assertThat(service.readyCount()).isEqualTo(24);
+            assertThat(service.inFlightCount()).isZero();
+
+            long warmNanos = loadPage(browser, page);
+            assertThat(warmNanos).isLessThan(coldNanos);
+            assertThat(service.readyCount()).isEqualTo(24);
+        } finally {
+            browser.shutdown();
+        }
+    }
+
+    private long loadPage(ExecutorService browser, List<String> page) throws Exception {
+        long started = System.nanoTime();
+        List<Future<VariantFile>> cards = new ArrayList<>();
+        for (String name : page) {
+            cards.add(browser.submit(() -> service.resolve(name, ImageVariant.CARD)));
+        }
+        for (Future<VariantFile> card : cards) {
+            assertThat(card.get(30, TimeUnit.SECONDS).file()).exists();
+        }
+        return System.nanoTime() - started;
+    }
+
+    private void writeImage(String name, int width, int height) throws Exception {
+        File dir = new File(config.getOriginalDir());
+        dir.mkdirs();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        ImageIO.write(image, "jpg", new File(dir, name));
+    }
+}
@@ -0,0 +1,111 @@
+package sunshine_dental_care.services.huybro_products.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import sunshine_dental_care.dto.huybro_products.ProductDto;
+import sunshine_dental_care.dto.huybro_products.ProductFacetsDto;
+import sunshine_dental_care.dto.huybro_products.ProductFilterDto;
+
+class ProductSearchIndexTest {
+
+    private final ProductCatalogCache catalogCache = mock(ProductCatalogCache.class);
+    private final List<ProductDto> catalog = new ArrayList<>();
+    private ProductSearchIndex index;
+    private Consumer<Integer> changeListener;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        index = new ProductSearchIndex(catalogCache);
+        ReflectionTestUtils.setField(index, "priceBandConfig", "0,10,25");
+        index.init();
+        ArgumentCaptor<Consumer<Integer>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(catalogCache).addChangeListener(listener.capture());
+        changeListener = listener.getValue();
+
+        when(catalogCache.findAll()).thenAnswer(inv -> List.copyOf(catalog));
+        when(catalogCache.findByIds(anyCollection())).thenAnswer(inv -> {
+            Collection<Integer> ids = inv.getArgument(0);
+            return catalog.stream().filter(p -> ids.contains(p.getProductId())).toList();
+        });
+    }
+
+    @Test
+    void labelOfRenamedBrandFollowsTheLastProductUsingIt() {
+        catalog.add(product(1, "Kem đánh răng", "oral-b", List.of("kem")));
+        index.rebuild();
+        assertThat(index.facets(null).getBrands()).containsOnlyKeys("oral-b");
+
+        // Sửa cách viết brand của sản phẩm duy nhất -> nhãn cũ phải bị bỏ
+        catalog.set(0, product(1, "Kem đánh răng", "Oral-B", List.of("Kem")));
+        changeListener.accept(1);
+
+        ProductFacetsDto facets = index.facets(null);
+        assertThat(facets.getBrands()).containsExactly(Map.entry("Oral-B", 1));
+        assertThat(facets.getTypes()).containsExactly(Map.entry("Kem", 1));
+    }
+
+    @Test
+    void labelSharedWithAnotherProductSurvivesRemoval() {
+        catalog.add(product(1, "Bàn chải mềm", "Colgate", List.of("Bàn chải")));
+        catalog.add(product(2, "Bàn chải điện", "Colgate", List.of("Bàn chải", "Điện")));
+        index.rebuild();
+
+        catalog.remove(1);
+        changeListener.accept(2);
+
+        ProductFacetsDto facets = index.facets(null);
+        assertThat(facets.getTotalElements()).isEqualTo(1);
+        assertThat(facets.getBrands()).containsExactly(Map.entry("Colgate", 1));
+        assertThat(facets.getTypes()).containsExactly(Map.entry("Bàn chải", 1));
+    }
+
+    @Test
+    void deletedProductDisappearsFromSearchAndFilters() {
+        catalog.add(product(1, "Chỉ nha khoa", "Oral-B", List.of("Chỉ")));
+        catalog.add(product(2, "Nước súc miệng", "Listerine", List.of("Nước súc")));
+        index.rebuild();
+
+        catalog.remove(1);
+        changeListener.accept(2);
+
+        ProductFilterDto byBrand = new ProductFilterDto();
+        byBrand.setBrands(List.of("listerine"));
+        assertThat(index.search(byBrand, PageRequest.of(0, 10)).getTotalElements()).isZero();
+
+        ProductFilterDto byKeyword = new ProductFilterDto();
+        byKeyword.setKeyword("chi nha khoa");
+        assertThat(index.search(byKeyword, PageRequest.of(0, 10)).getContent())
+                .extracting(ProductDto::getProductId).containsExactly(1);
+    }
+
+    private static ProductDto product(int id, String name, String brand, List<String> types) {
+        ProductDto dto = new ProductDto();
+        dto.setProductId(id);
+        dto.setSku("SKU-" + id);
+        dto.setProductName(name);
+        dto.setBrand(brand);
+        dto.setTypeNames(types);
+        dto.setIsActive(true);
+        dto.setUnit(5);
+        dto.setDefaultRetailPrice(BigDecimal.valueOf(12));
+        return dto;
+    }
+}
@@ -0,0 +1,162 @@
+package sunshine_dental_care.services.huybro_reports.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.huybro_product_invoices.ProductInvoice;
+import sunshine_dental_care.repositories.huybro_products.ProductInvoiceItemRepository;
+import sunshine_dental_care.repositories.huybro_products.ProductInvoiceRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyProductSalesFactRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyRevenueFactRepository;
+
+class RevenueFactServiceTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 2);
+
+    private final ProductInvoiceRepository invoiceRepository = mock(ProductInvoiceRepository.class);
+    private final ProductInvoiceItemRepository invoiceItemRepository = mock(ProductInvoiceItemRepository.class);
+    private final DailyRevenueFactRepository revenueFactRepository = mock(DailyRevenueFactRepository.class);
+    private final DailyProductSalesFactRepository productSalesFactRepository = mock(DailyProductSalesFactRepository.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private RevenueFactService service;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        service = new RevenueFactService(invoiceRepository, invoiceItemRepository, revenueFactRepository,
+                productSalesFactRepository, jdbcTemplate, new TransactionTemplate(txManager), 730);
+
+        // Mỗi khoảng: 1 dòng doanh thu + 2 dòng sản phẩm
+        List<Object[]> revenue = new ArrayList<>();
+        revenue.add(new Object[]{DAY, 1, "NEW", "PAID", "VND", 3L, new BigDecimal("300000"), BigDecimal.TEN, new BigDecimal("300000")});
+        List<Object[]> products = new ArrayList<>();
+        products.add(new Object[]{DAY, 1, "NEW", "PAID", "VND", 5, "Bàn chải", "SKU-5", 2L, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE});
+        products.add(new Object[]{DAY, 1, "NEW", "PAID", "VND", 6, "Chỉ nha khoa", "SKU-6", 1L, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE});
+        when(invoiceRepository.aggregateDailyRevenue(any(), any())).thenReturn(revenue);
+        when(invoiceItemRepository.aggregateDailyProductSales(any(), any())).thenReturn(products);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void rebuildRefreshesInChunksOf31DaysAndCountsRows() {
+        LocalDate from = LocalDate.of(2026, 1, 1);
+        LocalDate to = LocalDate.of(2026, 3, 15);
+
+        int rows = service.rebuild(from, to);
+
+        // 74 ngày -> 3 khối: 01/01-31/01, 01/02-03/03, 04/03-15/03
+        ArgumentCaptor<LocalDate> starts = ArgumentCaptor.forClass(LocalDate.class);
+        ArgumentCaptor<LocalDate> ends = ArgumentCaptor.forClass(LocalDate.class);
+        verify(revenueFactRepository, times(3)).deleteByDateRange(starts.capture(), ends.capture());
+        assertThat(starts.getAllValues()).containsExactly(from, LocalDate.of(2026, 2, 1), LocalDate.of(2026, 3, 4));
+        assertThat(ends.getAllValues()).containsExactly(LocalDate.of(2026, 1, 31), LocalDate.of(2026, 3, 3), to);
+        verify(productSalesFactRepository, times(3)).deleteByDateRange(any(), any());
+        verify(invoiceRepository).aggregateDailyRevenue(from.atStartOfDay(), LocalDateTime.of(2026, 2, 1, 0, 0));
+        assertThat(rows).isEqualTo(9);
+    }
+
+    @Test
+    void rebuildRejectsRangesOverTheCap() {
+        LocalDate from = LocalDate.of(2025, 1, 1);
+
+        assertThatThrownBy(() -> service.rebuild(from, from.plusDays(RevenueFactService.MAX_REBUILD_DAYS)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(String.valueOf(RevenueFactService.MAX_REBUILD_DAYS));
+        assertThatThrownBy(() -> service.rebuild(DAY, DAY.minusDays(1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(revenueFactRepository, never()).deleteByDateRange(any(), any());
+
+        // Đúng bằng giới hạn vẫn được chạy
+        service.rebuild(from, from.plusDays(RevenueFactService.MAX_REBUILD_DAYS - 1));
+        verify(revenueFactRepository, times(12)).deleteByDateRange(any(), any());
+    }
+
+    @Test
+    void invoiceChangeInsideTransactionMarksItsDayDirtyOnlyAfterCommit() {
+        AtomicInteger notified = new AtomicInteger();
+        service.addChangeListener(notified::incrementAndGet);
+        TransactionSynchronizationManager.initSynchronization();
+
+        service.invoiceChanged(invoice(DAY));
+        service.refreshDirtyDays();
+        verify(revenueFactRepository, never()).deleteByDateRange(any(), any());
+        assertThat(notified).hasValue(0);
+
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCommit();
+        }
+        service.refreshDirtyDays();
+
+        verify(revenueFactRepository).deleteByDateRange(DAY, DAY);
+        assertThat(notified).hasValue(1);
+    }
+
+    @Test
+    void failedDayRefreshIsRetriedOnTheNextRun() {
+        when(revenueFactRepository.deleteByDateRange(DAY, DAY))
+                .thenThrow(new IllegalStateException("deadlock"))
+                .thenReturn(1);
+
+        service.invoiceChanged(invoice(DAY));
+        service.refreshDirtyDays();
+        service.refreshDirtyDays();
+        service.refreshDirtyDays();
+
+        verify(revenueFactRepository, times(2)).deleteByDateRange(DAY, DAY);
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyList(), anyInt(), any());
+    }
+
+    @Test
+    void bootstrapSkipsWhenFactsExistAndIgnoresTheCapOtherwise() {
+        when(revenueFactRepository.count()).thenReturn(10L);
+        service.bootstrap();
+        verify(revenueFactRepository, never()).deleteByDateRange(any(), any());
+
+        when(revenueFactRepository.count()).thenReturn(0L);
+        service.bootstrap();
+        // 731 ngày (730 + hôm nay) -> 24 khối 31 ngày
+        verify(revenueFactRepository, times(24)).deleteByDateRange(any(), any());
+        verify(revenueFactRepository).deleteByDateRange(eq(LocalDate.now().minusDays(730)), any());
+    }
+
+    private static ProductInvoice invoice(LocalDate day) {
+        ProductInvoice invoice = new ProductInvoice();
+        invoice.setCreatedAt(day.atTime(10, 0));
+        return invoice;
+    }
+}
@@ -0,0 +1,102 @@
+package sunshine_dental_care.services.impl.admin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+
+import sunshine_dental_care.repositories.admin.AdminAppointmentStatsRepository;
+import sunshine_dental_care.repositories.admin.AdminInvoiceStatsRepository;
+import sunshine_dental_care.repositories.admin.AdminPatientStatsRepository;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository;
+import sunshine_dental_care.repositories.auth.ClinicRepo;
+import sunshine_dental_care.repositories.auth.UserRepo;
+import sunshine_dental_care.repositories.hr.AttendanceRepository;
+import sunshine_dental_care.repositories.hr.LeaveRequestRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.services.huybro_reports.impl.RevenueFactService;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
+
+class AdminDashboardServiceImplTest {
+
+    private static final int MAX_PARALLEL = 3;
+
+    // Mỗi query giả giữ "connection" 20 ms; đếm số query chạy cùng lúc
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger clinicCounts = new AtomicInteger();
+    private final AtomicBoolean changeDuringNextBuild = new AtomicBoolean();
+
+    private Runnable changeListener;
+    private AdminDashboardServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        ReceptionDashboardPublisher publisher = mock(ReceptionDashboardPublisher.class);
+        service = new AdminDashboardServiceImpl(
+                repo(UserRepo.class), repo(ClinicRepo.class), repo(LeaveRequestRepo.class),
+                repo(AdminInvoiceStatsRepository.class), repo(AdminPatientStatsRepository.class),
+                repo(AdminAppointmentStatsRepository.class), repo(PatientVisitSummaryRepository.class),
+                repo(AttendanceRepository.class), repo(AppointmentRepo.class),
+                publisher, mock(RevenueFactService.class), mock(PatientVisitSummaryService.class),
+                3600, 60_000, MAX_PARALLEL);
+
+        ArgumentCaptor<Runnable> listener = ArgumentCaptor.forClass(Runnable.class);
+        verify(publisher).addChangeListener(listener.capture());
+        changeListener = listener.getValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void providersNeverExceedParallelQueryLimit() {
+        service.getDashboardStatistics();
+
+        assertThat(clinicCounts.get()).isEqualTo(1);
+        assertThat(maxRunning.get()).isBetween(1, MAX_PARALLEL);
+    }
+
+    @Test
+    void changeDuringBuildIsNotCachedAsFresh() {
+        changeDuringNextBuild.set(true);
+        service.getDashboardStatistics();
+        // Dữ liệu đổi trong lúc tính -> kết quả đó không được cache
+        service.getDashboardStatistics();
+        assertThat(clinicCounts.get()).isEqualTo(2);
+
+        service.getDashboardStatistics();
+        assertThat(clinicCounts.get()).isEqualTo(2);
+    }
+
+    private <T> T repo(Class<T> type) {
+        Answer<Object> answer = inv -> {
+            int now = running.incrementAndGet();
+            maxRunning.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(20);
+                if (type == ClinicRepo.class && inv.getMethod().getName().equals("count")) {
+                    clinicCounts.incrementAndGet();
+                    if (changeDuringNextBuild.compareAndSet(true, false)) changeListener.run();
+                }
+                if (inv.getMethod().getReturnType() == BigDecimal.class) return BigDecimal.ZERO;
+                return Mockito.RETURNS_MOCKS.answer(inv);
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        return mock(type, answer);
+    }
+}
@@ -0,0 +1,98 @@
+package sunshine_dental_care.services.impl.admin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import sunshine_dental_care.dto.adminDTO.CohortRetentionDto;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository.CohortCellView;
+import sunshine_dental_care.repositories.huybro_reports.DailyProductSalesFactRepository;
+import sunshine_dental_care.repositories.huybro_reports.DailyRevenueFactRepository;
+
+class AdminReportServiceImplTest {
+
+    private PatientVisitSummaryRepository visitSummaryRepository;
+    private AdminReportServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        visitSummaryRepository = mock(PatientVisitSummaryRepository.class);
+        service = new AdminReportServiceImpl(mock(DailyRevenueFactRepository.class),
+                mock(DailyProductSalesFactRepository.class), visitSummaryRepository);
+    }
+
+    @Test
+    void buildsRetentionGridFromCohortCells() {
+        YearMonth cohort = YearMonth.now().minusMonths(2);
+        when(visitSummaryRepository.findCohortCells(any(), any())).thenReturn(List.of(
+                cell(cohort, cohort, 10),
+                cell(cohort, cohort.plusMonths(2), 4)));
+
+        List<CohortRetentionDto> result = service.getPatientCohortRetention(cohort, cohort.plusMonths(1));
+
+        assertThat(result).hasSize(2);
+        CohortRetentionDto first = result.get(0);
+        assertThat(first.getCohortMonth()).isEqualTo(cohort.atDay(1));
+        assertThat(first.getCohortSize()).isEqualTo(10);
+        // Tháng không có ai quay lại vẫn có ô = 0
+        assertThat(first.getRetainedPatients()).containsExactly(10L, 0L, 4L);
+        assertThat(first.getRetentionRates()).containsExactly(100.0, 0.0, 40.0);
+
+        CohortRetentionDto second = result.get(1);
+        assertThat(second.getCohortSize()).isZero();
+        assertThat(second.getRetentionRates()).containsOnly(0.0);
+    }
+
+    @Test
+    void acceptsExactlyMaxRange() {
+        YearMonth to = YearMonth.of(2025, 12);
+        List<CohortRetentionDto> result = service.getPatientCohortRetention(
+                to.minusMonths(AdminReportServiceImpl.MAX_COHORT_MONTHS - 1), to);
+        assertThat(result).hasSize(AdminReportServiceImpl.MAX_COHORT_MONTHS);
+    }
+
+    @Test
+    void rejectsRangeLongerThanMaxWithoutQuerying() {
+        YearMonth to = YearMonth.of(2025, 12);
+        assertThatThrownBy(() -> service.getPatientCohortRetention(
+                to.minusMonths(AdminReportServiceImpl.MAX_COHORT_MONTHS), to))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("36 months");
+        // Chỉ có fromMonth: toMonth mặc định là tháng hiện tại
+        assertThatThrownBy(() -> service.getPatientCohortRetention(YearMonth.of(2000, 1), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.getPatientCohortRetention(to, to.minusMonths(1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(visitSummaryRepository);
+    }
+
+    private static CohortCellView cell(YearMonth cohort, YearMonth visit, long patients) {
+        return new CohortCellView() {
+            @Override
+            public LocalDate getCohortMonth() {
+                return cohort.atDay(1);
+            }
+
+            @Override
+            public LocalDate getVisitMonth() {
+                return visit.atDay(1);
+            }
+
+            @Override
+            public Long getPatients() {
+                return patients;
+            }
+        };
+    }
+}
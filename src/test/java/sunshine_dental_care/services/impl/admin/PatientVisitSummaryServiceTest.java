@@ -0,0 +1,181 @@
+package sunshine_dental_care.services.impl.admin;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.repositories.admin.AdminAppointmentStatsRepository;
+import sunshine_dental_care.repositories.admin.AdminAppointmentStatsRepository.PatientVisitView;
+import sunshine_dental_care.repositories.admin.PatientVisitSummaryRepository;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
+
+class PatientVisitSummaryServiceTest {
+
+    private AdminAppointmentStatsRepository statsRepository;
+    private PatientVisitSummaryRepository visitSummaryRepository;
+    private JdbcTemplate jdbcTemplate;
+    private PatientVisitSummaryService service;
+
+    // Giá trị setXxx(index, value) của từng dòng được chèn, theo bảng
+    private final Map<String, List<Map<Integer, Object>>> inserted = new HashMap<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        statsRepository = mock(AdminAppointmentStatsRepository.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        visitSummaryRepository = mock(PatientVisitSummaryRepository.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        doAnswer(inv -> {
+            inv.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+
+        when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(inv -> {
+                    String table = inv.<String>getArgument(0).contains("PatientMonthlyVisits") ? "monthly" : "summary";
+                    ParameterizedPreparedStatementSetter<Object> setter = inv.getArgument(3);
+                    for (Object row : inv.<Collection<Object>>getArgument(1)) {
+                        PreparedStatement ps = mock(PreparedStatement.class);
+                        setter.setValues(ps, row);
+                        inserted.computeIfAbsent(table, k -> new ArrayList<>()).add(valuesOf(ps));
+                    }
+                    return new int[0][0];
+                });
+
+        service = new PatientVisitSummaryService(statsRepository, visitSummaryRepository,
+                jdbcTemplate, transactionTemplate, mock(ReceptionDashboardPublisher.class));
+    }
+
+    @Test
+    void countsOnlyCompletedVisitsButAddsPaidAmounts() {
+        when(statsRepository.findVisitsByPatientIds(List.of(7))).thenReturn(List.of(
+                visit(7, "2025-03-05T02:00:00Z", "COMPLETED", "PAID", "500000"),
+                visit(7, "2025-04-10T02:00:00Z", "COMPLETED", "UNPAID", "300000"),
+                // Đã thanh toán trước nhưng chưa khám: không phải lượt khám
+                visit(7, "2025-05-20T02:00:00Z", "CONFIRMED", "PAID", "200000")));
+
+        service.appointmentChanged(ReceptionDashboardPublisher.PAID, appointmentOf(7));
+        service.refreshDirtyPatients();
+
+        assertThat(inserted.get("summary")).hasSize(1);
+        Map<Integer, Object> summary = inserted.get("summary").get(0);
+        assertThat(summary.get(1)).isEqualTo(7);
+        assertThat(summary.get(4)).isEqualTo(Date.valueOf(LocalDate.of(2025, 3, 1)));
+        assertThat(summary.get(5)).isEqualTo(2);
+        assertThat((BigDecimal) summary.get(6)).isEqualByComparingTo("700000");
+        assertThat(inserted.get("monthly")).extracting(r -> r.get(2))
+                .containsExactly(Date.valueOf(LocalDate.of(2025, 3, 1)), Date.valueOf(LocalDate.of(2025, 4, 1)));
+    }
+
+    @Test
+    void paidButNeverCompletedPatientHasNoSummary() {
+        when(statsRepository.findVisitsByPatientIds(List.of(8))).thenReturn(List.of(
+                visit(8, "2025-05-20T02:00:00Z", "CONFIRMED", "PAID", "200000")));
+
+        service.appointmentChanged(ReceptionDashboardPublisher.PAID, appointmentOf(8));
+        service.refreshDirtyPatients();
+
+        assertThat(inserted).doesNotContainKey("summary");
+    }
+
+    @Test
+    void rebuildAllDropsRowsOfPatientsNoLongerVisited() {
+        // Khối 1: bệnh nhân 3, 9; khối sau trống. Bệnh nhân 5 và 12 có dòng cũ nhưng không còn lịch COMPLETED
+        when(statsRepository.findVisitedPatientIdsAfter(eq(0), any())).thenReturn(List.of(3, 9));
+        when(statsRepository.findVisitedPatientIdsAfter(eq(9), any())).thenReturn(List.of());
+        when(statsRepository.findVisitsByPatientIds(List.of(3, 9))).thenReturn(List.of(
+                visit(3, "2025-03-05T02:00:00Z", "COMPLETED", "PAID", "100000"),
+                visit(9, "2025-04-05T02:00:00Z", "COMPLETED", "PAID", "100000")));
+
+        assertThat(service.rebuildAll()).isEqualTo(2);
+
+        // Xóa theo khoảng id nên dòng của 5 (trong khoảng) và 12 (sau khối cuối) đều bị bỏ
+        InOrder order = inOrder(visitSummaryRepository);
+        order.verify(visitSummaryRepository).deleteMonthlyVisitsByPatientIdRange(0, 9);
+        order.verify(visitSummaryRepository).deleteByPatientIdRange(0, 9);
+        order.verify(visitSummaryRepository).deleteMonthlyVisitsByPatientIdRange(9, Integer.MAX_VALUE);
+        order.verify(visitSummaryRepository).deleteByPatientIdRange(9, Integer.MAX_VALUE);
+        verify(visitSummaryRepository, never()).deleteByPatientIds(any());
+        assertThat(inserted.get("summary")).extracting(r -> r.get(1)).containsExactly(3, 9);
+    }
+
+    private static Map<Integer, Object> valuesOf(PreparedStatement ps) {
+        Map<Integer, Object> values = new HashMap<>();
+        mockingDetails(ps).getInvocations().forEach(inv -> {
+            if (inv.getArguments().length == 2 && inv.getArguments()[0] instanceof Integer i) {
+                values.put(i, inv.getArguments()[1]);
+            }
+        });
+        return values;
+    }
+
+    private static Appointment appointmentOf(int patientId) {
+        Patient patient = new Patient();
+        patient.setId(patientId);
+        Appointment appointment = new Appointment();
+        appointment.setPatient(patient);
+        return appointment;
+    }
+
+    private static PatientVisitView visit(int patientId, String at, String status, String paymentStatus, String amount) {
+        return new PatientVisitView() {
+            @Override
+            public Integer getPatientId() {
+                return patientId;
+            }
+
+            @Override
+            public Instant getStartDateTime() {
+                return Instant.parse(at);
+            }
+
+            @Override
+            public String getStatus() {
+                return status;
+            }
+
+            @Override
+            public String getPaymentStatus() {
+                return paymentStatus;
+            }
+
+            @Override
+            public BigDecimal getTotalAmount() {
+                return new BigDecimal(amount);
+            }
+        };
+    }
+}
@@ -0,0 +1,159 @@
+package sunshine_dental_care.services.impl.notification;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.firebase.messaging.MessagingErrorCode;
+
+import sunshine_dental_care.repositories.UserDeviceRepo;
+import sunshine_dental_care.services.impl.notification.FcmPushBackend.PushMessage;
+import sunshine_dental_care.services.impl.notification.FcmPushBackend.SendResult;
+
+class FCMServiceTest {
+
+    // Backend giả: ghi lại từng lần gọi, token nằm trong deadTokens / failingTokens thì báo lỗi tương ứng
+    private static class RecordingBackend implements FcmPushBackend {
+        final List<List<String>> calls = new ArrayList<>();
+        final List<Long> callNanos = new ArrayList<>();
+        final List<String> callThreads = new ArrayList<>();
+        final List<PushMessage> messages = new ArrayList<>();
+        List<String> deadTokens = List.of();
+        List<String> failingTokens = List.of();
+
+        @Override
+        public synchronized List<SendResult> sendMulticast(List<String> tokens, PushMessage message) {
+            calls.add(List.copyOf(tokens));
+            callNanos.add(System.nanoTime());
+            callThreads.add(Thread.currentThread().getName());
+            messages.add(message);
+            return tokens.stream()
+                    .map(t -> deadTokens.contains(t) ? new SendResult(false, MessagingErrorCode.UNREGISTERED)
+                            : failingTokens.contains(t) ? new SendResult(false, MessagingErrorCode.UNAVAILABLE)
+                            : SendResult.DELIVERED)
+                    .toList();
+        }
+    }
+
+    private final RecordingBackend backend = new RecordingBackend();
+    private final UserDeviceRepo userDeviceRepo = mock(UserDeviceRepo.class);
+    private FCMService service = new FCMService(backend, userDeviceRepo, 1_000_000, 10);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void tokensAreSentInChunksOf500WithMessageData() {
+        List<String> tokens = tokens(1201);
+
+        service.send(tokens, "Nhắc lịch", "Lịch hẹn lúc 09:00", "/appointments/5", "APPOINTMENT", 5);
+
+        assertThat(backend.calls).extracting(List::size).containsExactly(500, 500, 201);
+        assertThat(backend.calls.get(1).get(0)).isEqualTo("token-500");
+        assertThat(backend.messages.get(0).title()).isEqualTo("Nhắc lịch");
+        assertThat(backend.messages.get(0).data()).isEqualTo(Map.of(
+                "actionUrl", "/appointments/5", "relatedEntityType", "APPOINTMENT", "relatedEntityId", "5"));
+        assertThat(service.getStats().multicastCalls()).isEqualTo(3);
+        assertThat(service.getStats().delivered()).isEqualTo(1201);
+        verify(userDeviceRepo, never()).deleteByFcmTokenIn(anyList());
+    }
+
+    @Test
+    void onlyTokensWithDeadErrorCodesArePrunedByResponseIndex() {
+        // token-503 nằm ở vị trí 3 của lô thứ 2: phải ghép đúng với token của lô đó
+        backend.deadTokens = List.of("token-1", "token-503");
+        backend.failingTokens = List.of("token-2");
+        when(userDeviceRepo.deleteByFcmTokenIn(anyList())).thenAnswer(inv -> ((List<?>) inv.getArgument(0)).size());
+
+        service.send(tokens(510), "t", "b", null, null, null);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<String>> pruned = ArgumentCaptor.forClass(List.class);
+        verify(userDeviceRepo).deleteByFcmTokenIn(pruned.capture());
+        // Lỗi tạm thời (UNAVAILABLE) không xoá thiết bị
+        assertThat(pruned.getValue()).containsExactly("token-1", "token-503");
+        FCMService.DeliveryStats stats = service.getStats();
+        assertThat(stats.delivered()).isEqualTo(507);
+        assertThat(stats.failed()).isEqualTo(3);
+        assertThat(stats.deadTokensPruned()).isEqualTo(2);
+        assertThat(backend.messages.get(0).data()).isEmpty();
+    }
+
+    @Test
+    void rateLimiterSpacesChunksByTheirSize() {
+        service.shutdown();
+        // 10 000 tin/giây -> lô 500 token chiếm 50 ms
+        service = new FCMService(backend, userDeviceRepo, 10_000, 10);
+
+        service.send(tokens(1500), "t", "b", null, null, null);
+
+        assertThat(backend.calls).hasSize(3);
+        long firstGap = TimeUnit.NANOSECONDS.toMillis(backend.callNanos.get(1) - backend.callNanos.get(0));
+        long secondGap = TimeUnit.NANOSECONDS.toMillis(backend.callNanos.get(2) - backend.callNanos.get(1));
+        assertThat(firstGap).isGreaterThanOrEqualTo(45);
+        assertThat(secondGap).isGreaterThanOrEqualTo(45);
+        assertThat(service.getStats().throttledCalls()).isEqualTo(2);
+    }
+
+    @Test
+    void sendMulticastRunsOnDedicatedSenderThread() throws Exception {
+        service.sendMulticast(tokens(2), "t", "b", null, null, null);
+
+        awaitCalls(1);
+        synchronized (backend) {
+            assertThat(backend.callThreads).containsExactly("fcm-sender");
+        }
+    }
+
+    @Test
+    void fullSendQueueDropsInsteadOfBlockingTheCaller() throws Exception {
+        service.shutdown();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        FcmPushBackend blocking = (tokens, message) -> {
+            started.countDown();
+            release.await();
+            return tokens.stream().map(t -> SendResult.DELIVERED).toList();
+        };
+        service = new FCMService(blocking, userDeviceRepo, 1_000_000, 1);
+
+        service.sendMulticast(tokens(1), "t", "b", null, null, null);
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        // 1 lượt đang gửi + 1 lượt trong hàng đợi; lượt thứ 3 bị bỏ (đếm là thất bại)
+        service.sendMulticast(tokens(2), "t", "b", null, null, null);
+        service.sendMulticast(tokens(3), "t", "b", null, null, null);
+        assertThat(service.getStats().failed()).isEqualTo(3);
+
+        release.countDown();
+    }
+
+    private void awaitCalls(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (backend) {
+                if (backend.calls.size() >= count) return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> tokens(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "token-" + i).toList();
+    }
+}
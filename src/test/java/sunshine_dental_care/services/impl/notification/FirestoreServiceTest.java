@@ -0,0 +1,132 @@
+package sunshine_dental_care.services.impl.notification;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import sunshine_dental_care.dto.notificationDTO.NotificationResponse;
+import sunshine_dental_care.services.impl.notification.FirestoreMirrorBackend.Kind;
+import sunshine_dental_care.services.impl.notification.FirestoreMirrorBackend.MirrorWrite;
+
+class FirestoreServiceTest {
+
+    // Backend trong bộ nhớ, lỗi failuresLeft lần commit đầu tiên
+    private static class FlakyBackend extends InMemoryFirestoreMirrorBackend {
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        final AtomicInteger commits = new AtomicInteger();
+
+        @Override
+        public synchronized void commit(List<MirrorWrite> writes) {
+            commits.incrementAndGet();
+            if (failuresLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IllegalStateException("UNAVAILABLE");
+            }
+            super.commit(writes);
+        }
+    }
+
+    private final FlakyBackend backend = new FlakyBackend();
+    // Interval dài: test tự gọi flush()
+    private final FirestoreService service = new FirestoreService(backend, 60_000, 3, 0);
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void markReadInSameBatchAsUpsertIsApplied() {
+        service.saveNotification(notification(1, 10));
+        service.markAsRead(1, 10);
+        // Notification tạo trước khi tích hợp Firestore: không có document -> bỏ qua
+        service.markAsRead(1, 99);
+        service.flush();
+
+        Map<Integer, Map<String, Object>> docs = backend.documentsOf(1);
+        assertThat(docs).containsOnlyKeys(10);
+        assertThat(docs.get(10)).containsEntry("isRead", true).containsEntry("title", "Lịch hẹn 10");
+    }
+
+    @Test
+    void markAllRunsAfterEarlierWritesAndDeleteRemoves() {
+        service.saveNotifications(List.of(notification(2, 1), notification(2, 2), notification(2, 3)));
+        service.markAllAsRead(2);
+        service.deleteNotification(2, 3);
+        service.saveNotification(notification(2, 4));
+        service.flush();
+
+        Map<Integer, Map<String, Object>> docs = backend.documentsOf(2);
+        assertThat(docs).containsOnlyKeys(1, 2, 4);
+        assertThat(docs.get(1)).containsEntry("isRead", true);
+        assertThat(docs.get(2)).containsEntry("isRead", true);
+        assertThat(docs.get(4)).containsEntry("isRead", false);
+    }
+
+    @Test
+    void failedBatchIsRetriedBeforeDropping() {
+        backend.failuresLeft.set(2);
+        service.saveNotification(notification(3, 1));
+        service.flush();
+
+        assertThat(backend.commits.get()).isEqualTo(3);
+        assertThat(backend.documentsOf(3)).containsOnlyKeys(1);
+    }
+
+    @Test
+    void batchStillFailingAfterAllAttemptsIsDroppedWithoutBlockingLaterWrites() {
+        backend.failuresLeft.set(3);
+        service.saveNotification(notification(4, 1));
+        service.flush();
+        assertThat(backend.commits.get()).isEqualTo(3);
+        assertThat(backend.documentsOf(4)).isEmpty();
+
+        service.saveNotification(notification(4, 2));
+        service.flush();
+        assertThat(backend.documentsOf(4)).containsOnlyKeys(2);
+    }
+
+    @Test
+    void largeQueueIsSplitIntoFirestoreSizedBatches() {
+        for (int i = 0; i < FirestoreMirrorBackend.MAX_BATCH_WRITES * 2 + 1; i++) {
+            service.saveNotification(notification(5, i));
+        }
+        service.flush();
+
+        assertThat(backend.commits.get()).isEqualTo(3);
+        assertThat(backend.documentsOf(5)).hasSize(FirestoreMirrorBackend.MAX_BATCH_WRITES * 2 + 1);
+    }
+
+    @Test
+    void existenceOfDocumentsTouchedEarlierInBatchIsKnownWithoutLookup() {
+        Boolean[] known = FirebaseFirestoreMirrorBackend.knownExistence(List.of(
+                write(Kind.MARK_READ, 1, 1),
+                write(Kind.UPSERT, 1, 1),
+                write(Kind.MARK_READ, 1, 1),
+                write(Kind.MARK_READ, 2, 1),
+                write(Kind.DELETE, 1, 1),
+                write(Kind.MARK_READ, 1, 1)));
+
+        assertThat(known).containsExactly(null, null, true, null, null, false);
+    }
+
+    private static MirrorWrite write(Kind kind, int userId, int notificationId) {
+        return new MirrorWrite(kind, userId, notificationId, Map.of());
+    }
+
+    private static NotificationResponse notification(int userId, int notificationId) {
+        return NotificationResponse.builder()
+                .notificationId(notificationId)
+                .userId(userId)
+                .type("APPOINTMENT")
+                .priority("MEDIUM")
+                .title("Lịch hẹn " + notificationId)
+                .message("Nhắc lịch")
+                .isRead(false)
+                .build();
+    }
+}
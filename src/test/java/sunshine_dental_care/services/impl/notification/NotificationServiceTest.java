@@ -0,0 +1,199 @@
+package sunshine_dental_care.services.impl.notification;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.Invocation;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import sunshine_dental_care.dto.notificationDTO.NotificationRequest;
+import sunshine_dental_care.dto.notificationDTO.NotificationResponse;
+import sunshine_dental_care.repositories.NotificationRepository;
+import sunshine_dental_care.repositories.UserDeviceRepo;
+import sunshine_dental_care.repositories.auth.UserRepo;
+
+class NotificationServiceTest {
+
+    private static final int COLUMNS_PER_ROW = 12;
+
+    private final UserRepo userRepo = mock(UserRepo.class);
+    private final NotificationAsyncService asyncService = mock(NotificationAsyncService.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private NotificationService service;
+
+    // Số dòng của từng câu MERGE đã chạy
+    private final List<Integer> chunkSizes = new ArrayList<>();
+    private int nextId = 5000;
+    private boolean dropLastOutputRow;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new NotificationService(mock(NotificationRepository.class), mock(UserDeviceRepo.class), userRepo,
+                mock(FirestoreService.class), asyncService, jdbcTemplate);
+        TransactionSynchronizationManager.initSynchronization();
+
+        // MERGE ... OUTPUT: trả (idx, id) theo thứ tự NGƯỢC với thứ tự dòng để kiểm tra việc ghép theo idx
+        doAnswer(inv -> {
+            PreparedStatementSetter setter = inv.getArgument(1);
+            RowCallbackHandler handler = inv.getArgument(2);
+            PreparedStatement ps = mock(PreparedStatement.class);
+            setter.setValues(ps);
+            List<Integer> indexes = new ArrayList<>();
+            for (Invocation call : mockingDetails(ps).getInvocations()) {
+                int param = call.getArgument(0);
+                if (call.getMethod().getName().equals("setInt") && param % COLUMNS_PER_ROW == 1) {
+                    indexes.add(call.getArgument(1));
+                }
+            }
+            chunkSizes.add(indexes.size());
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < indexes.size(); i++) ids.add(nextId++);
+            int rows = dropLastOutputRow ? indexes.size() - 1 : indexes.size();
+            for (int i = rows - 1; i >= 0; i--) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getInt(1)).thenReturn(indexes.get(i));
+                when(rs.getInt(2)).thenReturn(ids.get(i));
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void bulkInsertIsChunkedAndDistributedOnceAfterCommit() {
+        List<Integer> userIds = IntStream.rangeClosed(1, 320).boxed().toList();
+        when(userRepo.findExistingIds(anyCollection())).thenReturn(userIds);
+
+        List<NotificationResponse> responses = service.sendBulkNotification(userIds, template());
+
+        // 150 dòng x 12 tham số = 1800 < 2100 tham số của SQL Server
+        assertThat(chunkSizes).containsExactly(150, 150, 20);
+        assertThat(responses).extracting(NotificationResponse::getUserId).containsExactlyElementsOf(userIds);
+        assertThat(responses).extracting(NotificationResponse::getNotificationId)
+                .containsExactlyElementsOf(IntStream.range(5000, 5320).boxed().toList());
+        verify(asyncService, never()).distributeBatch(any());
+
+        commit();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<NotificationResponse>> batch = ArgumentCaptor.forClass(List.class);
+        verify(asyncService, times(1)).distributeBatch(batch.capture());
+        assertThat(batch.getValue()).hasSize(320);
+        verify(asyncService, never()).distributeNotification(any(), anyString());
+    }
+
+    @Test
+    void unknownAndDuplicateRecipientsAreSkipped() {
+        when(userRepo.findExistingIds(anyCollection())).thenReturn(List.of(1, 3));
+
+        List<NotificationResponse> responses = service.sendBulkNotification(
+                Arrays.asList(1, 2, null, 3, 1), template());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<Integer>> looked = ArgumentCaptor.forClass(Collection.class);
+        verify(userRepo).findExistingIds(looked.capture());
+        assertThat(looked.getValue()).containsExactly(1, 2, 3);
+        assertThat(responses).extracting(NotificationResponse::getUserId).containsExactly(1, 3);
+        assertThat(chunkSizes).containsExactly(2);
+    }
+
+    @Test
+    void sendNotificationsMapsOutputRowsBackByIndex() {
+        when(userRepo.findExistingIds(anyCollection())).thenReturn(List.of(7, 8));
+        List<NotificationRequest> requests = List.of(
+                request(7, "Lịch hẹn 09:00", 101),
+                request(99, "Không có user", 102),
+                request(7, "Lịch hẹn 14:00", 103),
+                request(8, "Lịch hẹn 10:00", 104));
+
+        List<NotificationResponse> responses = service.sendNotifications(requests);
+
+        // Cùng 1 user 2 thông báo khác nội dung: id vẫn khớp đúng dòng dù OUTPUT trả ngược thứ tự
+        assertThat(responses).extracting(NotificationResponse::getMessage)
+                .containsExactly("Lịch hẹn 09:00", "Lịch hẹn 14:00", "Lịch hẹn 10:00");
+        assertThat(responses).extracting(NotificationResponse::getRelatedEntityId).containsExactly(101, 103, 104);
+        assertThat(responses).extracting(NotificationResponse::getNotificationId).containsExactly(5000, 5001, 5002);
+        assertThat(responses).extracting(NotificationResponse::getPriority).containsOnly("MEDIUM");
+
+        commit();
+        verify(asyncService, times(1)).distributeBatch(responses);
+    }
+
+    @Test
+    void missingOutputRowFailsTheWholeBatch() {
+        dropLastOutputRow = true;
+        when(userRepo.findExistingIds(anyCollection())).thenReturn(List.of(1, 2));
+
+        assertThatThrownBy(() -> service.sendBulkNotification(List.of(1, 2), template()))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(TransactionSynchronizationManager.getSynchronizations()).isEmpty();
+    }
+
+    @Test
+    void nothingToSendTouchesNoTable() {
+        when(userRepo.findExistingIds(anyCollection())).thenReturn(List.of());
+
+        assertThat(service.sendBulkNotification(List.of(), template())).isEmpty();
+        assertThat(service.sendNotifications(List.of(request(5, "x", 1)))).isEmpty();
+
+        verify(jdbcTemplate, never()).query(anyString(), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+        assertThat(TransactionSynchronizationManager.getSynchronizations()).isEmpty();
+    }
+
+    private static void commit() {
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCommit();
+        }
+    }
+
+    private static NotificationRequest template() {
+        return NotificationRequest.builder()
+                .type("PROMOTION")
+                .title("Ưu đãi tháng 3")
+                .message("Giảm 20% tẩy trắng răng")
+                .build();
+    }
+
+    private static NotificationRequest request(Integer userId, String message, Integer appointmentId) {
+        return NotificationRequest.builder()
+                .userId(userId)
+                .type("APPOINTMENT_REMINDER")
+                .title("Nhắc lịch hẹn")
+                .message(message)
+                .relatedEntityType("APPOINTMENT")
+                .relatedEntityId(appointmentId)
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+package sunshine_dental_care.services.impl.patient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import sunshine_dental_care.dto.receptionDTO.bookingDto.BookingRequest;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.entities.ServiceVariant;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.repositories.AIRecommendationRepository;
+import sunshine_dental_care.repositories.auth.ClinicRepo;
+import sunshine_dental_care.repositories.auth.PatientRepo;
+import sunshine_dental_care.repositories.auth.UserRepo;
+import sunshine_dental_care.repositories.doctor.MedicalRecordRepository;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.repositories.reception.AppointmentServiceRepo;
+import sunshine_dental_care.repositories.reception.InvoiceRepo;
+import sunshine_dental_care.repositories.reception.ServiceVariantRepo;
+import sunshine_dental_care.services.auth_service.MailService;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
+
+class PatientServiceImplTest {
+
+    private final UserRepo userRepo = mock(UserRepo.class);
+    private final PatientRepo patientRepo = mock(PatientRepo.class);
+    private final AppointmentRepo appointmentRepo = mock(AppointmentRepo.class);
+    private final ClinicRepo clinicRepo = mock(ClinicRepo.class);
+    private final ServiceVariantRepo serviceVariantRepo = mock(ServiceVariantRepo.class);
+    private final AppointmentServiceRepo appointmentServiceRepo = mock(AppointmentServiceRepo.class);
+    private final ReceptionDashboardPublisher dashboardPublisher = mock(ReceptionDashboardPublisher.class);
+    private PatientServiceImpl service;
+
+    private final User user = new User();
+    private final Patient patient = new Patient();
+
+    @BeforeEach
+    void setUp() {
+        service = new PatientServiceImpl(userRepo, patientRepo, appointmentRepo, mock(MailService.class),
+                clinicRepo, serviceVariantRepo, appointmentServiceRepo, mock(AIRecommendationRepository.class),
+                mock(InvoiceRepo.class), mock(MedicalRecordRepository.class), dashboardPublisher);
+
+        user.setId(7);
+        patient.setId(70);
+        when(userRepo.findById(7)).thenReturn(Optional.of(user));
+        when(patientRepo.findByUserId(7)).thenReturn(Optional.of(patient));
+        when(appointmentRepo.save(any(Appointment.class))).thenAnswer(inv -> {
+            Appointment saved = inv.getArgument(0);
+            if (saved.getId() == null) saved.setId(500);
+            return saved;
+        });
+        when(appointmentServiceRepo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+    }
+
+    @Test
+    void patientBookingIsPublishedAsCreatedWithItsServices() {
+        Clinic clinic = new Clinic();
+        clinic.setId(3);
+        User doctor = new User();
+        doctor.setId(9);
+        ServiceVariant variant = new ServiceVariant();
+        variant.setId(11);
+        variant.setDuration(45);
+        variant.setPrice(BigDecimal.TEN);
+        when(clinicRepo.findById(3)).thenReturn(Optional.of(clinic));
+        when(userRepo.findById(9)).thenReturn(Optional.of(doctor));
+        when(serviceVariantRepo.findById(11)).thenReturn(Optional.of(variant));
+        when(appointmentRepo.findConflictAppointments(eq(9), any(), any(), any())).thenReturn(List.of());
+
+        BookingRequest request = new BookingRequest();
+        request.setClinicId(3);
+        request.setDoctorId(9);
+        request.setServiceIds(List.of(11));
+        request.setStartDateTime(Instant.now().plus(1, ChronoUnit.DAYS));
+
+        service.createAppointment("7", request);
+
+        ArgumentCaptor<Appointment> published = ArgumentCaptor.forClass(Appointment.class);
+        verify(dashboardPublisher).appointmentChanged(eq(ReceptionDashboardPublisher.CREATED), published.capture());
+        assertThat(published.getValue().getId()).isEqualTo(500);
+        assertThat(published.getValue().getClinic().getId()).isEqualTo(3);
+        assertThat(published.getValue().getAppointmentServices()).hasSize(1);
+    }
+
+    @Test
+    void patientCancellationIsPublishedAsStatusChanged() {
+        Appointment appointment = new Appointment();
+        appointment.setId(42);
+        appointment.setPatient(patient);
+        appointment.setStatus("CONFIRMED");
+        appointment.setStartDateTime(Instant.now().plus(2, ChronoUnit.DAYS));
+        appointment.setAppointmentServices(new ArrayList<>());
+        when(appointmentRepo.findById(42)).thenReturn(Optional.of(appointment));
+
+        service.cancelAppointment("7", 42, "bận việc");
+
+        ArgumentCaptor<Appointment> published = ArgumentCaptor.forClass(Appointment.class);
+        verify(dashboardPublisher).appointmentChanged(eq(ReceptionDashboardPublisher.STATUS_CHANGED), published.capture());
+        assertThat(published.getValue().getStatus()).isEqualTo("CANCELLED");
+    }
+
+    @Test
+    void rejectedCancellationPublishesNothing() {
+        Appointment appointment = new Appointment();
+        appointment.setId(42);
+        appointment.setPatient(patient);
+        appointment.setStatus("COMPLETED");
+        appointment.setStartDateTime(Instant.now().plus(2, ChronoUnit.DAYS));
+        when(appointmentRepo.findById(42)).thenReturn(Optional.of(appointment));
+
+        assertThatThrownBy(() -> service.cancelAppointment("7", 42, "bận việc"))
+                .isInstanceOf(RuntimeException.class);
+        verifyNoInteractions(dashboardPublisher);
+    }
+}
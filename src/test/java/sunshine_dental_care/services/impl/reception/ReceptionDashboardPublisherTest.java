@@ -0,0 +1,171 @@
+package sunshine_dental_care.services.impl.reception;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import sunshine_dental_care.dto.receptionDTO.AppointmentResponse;
+import sunshine_dental_care.dto.receptionDTO.ReceptionDashboardEvent;
+import sunshine_dental_care.dto.receptionDTO.mapper.AppointmentMapper;
+import sunshine_dental_care.dto.receptionDTO.mapper.DoctorScheduleMapper;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
+
+class ReceptionDashboardPublisherTest {
+
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private final AppointmentMapper appointmentMapper = mock(AppointmentMapper.class);
+    private final DoctorScheduleRepo doctorScheduleRepo = mock(DoctorScheduleRepo.class);
+    private ReceptionDashboardPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        publisher = new ReceptionDashboardPublisher(messagingTemplate, appointmentMapper,
+                mock(DoctorScheduleMapper.class), doctorScheduleRepo);
+        when(appointmentMapper.mapToAppointmentResponse(any())).thenReturn(new AppointmentResponse());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void deltaIsSentOnlyAfterCommitWithIncreasingVersions() {
+        AtomicInteger listenerCalls = new AtomicInteger();
+        publisher.addChangeListener(listenerCalls::incrementAndGet);
+
+        TransactionSynchronizationManager.initSynchronization();
+        publisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, appointment(10, 1));
+        publisher.appointmentChanged(ReceptionDashboardPublisher.PAID, appointment(10, 1));
+
+        // Chưa commit -> chưa gửi gì, version vẫn giữ nguyên
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+        assertThat(publisher.currentVersion(1)).isZero();
+
+        commit();
+
+        List<ReceptionDashboardEvent> events = sentTo(1, 2);
+        assertThat(events).extracting(ReceptionDashboardEvent::getType)
+                .containsExactly(ReceptionDashboardPublisher.CREATED, ReceptionDashboardPublisher.PAID);
+        assertThat(events).extracting(ReceptionDashboardEvent::getVersion).containsExactly(1L, 2L);
+        assertThat(events).allSatisfy(e -> {
+            assertThat(e.getEpoch()).isEqualTo(publisher.getEpoch());
+            assertThat(e.getAppointmentId()).isEqualTo(10);
+            assertThat(e.getDate()).isEqualTo(LocalDate.of(2026, 3, 2));
+        });
+        assertThat(publisher.currentVersion(1)).isEqualTo(2);
+        assertThat(listenerCalls).hasValue(2);
+    }
+
+    @Test
+    void rollbackSendsNothing() {
+        TransactionSynchronizationManager.initSynchronization();
+        publisher.appointmentChanged(ReceptionDashboardPublisher.STATUS_CHANGED, appointment(10, 1));
+
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+        assertThat(publisher.currentVersion(1)).isZero();
+    }
+
+    @Test
+    void clinicMoveSendsMovedOutToPreviousClinic() {
+        publisher.appointmentChanged(ReceptionDashboardPublisher.RESCHEDULED, appointment(10, 2), 1);
+
+        ReceptionDashboardEvent moved = sentTo(1, 1).get(0);
+        assertThat(moved.getType()).isEqualTo(ReceptionDashboardPublisher.MOVED_OUT);
+        assertThat(moved.getAppointmentId()).isEqualTo(10);
+        assertThat(moved.getAppointment()).isNull();
+        assertThat(moved.getVersion()).isEqualTo(1);
+
+        ReceptionDashboardEvent rescheduled = sentTo(2, 1).get(0);
+        assertThat(rescheduled.getType()).isEqualTo(ReceptionDashboardPublisher.RESCHEDULED);
+        assertThat(rescheduled.getAppointment()).isNotNull();
+    }
+
+    @Test
+    void rescheduleWithinSameClinicSendsNoMovedOut() {
+        publisher.appointmentChanged(ReceptionDashboardPublisher.RESCHEDULED, appointment(10, 1), 1);
+
+        List<ReceptionDashboardEvent> events = sentTo(1, 1);
+        assertThat(events.get(0).getType()).isEqualTo(ReceptionDashboardPublisher.RESCHEDULED);
+    }
+
+    @Test
+    void failedPayloadSkipsVersionSoClientResyncs() {
+        when(appointmentMapper.mapToAppointmentResponse(any()))
+                .thenThrow(new IllegalStateException("lazy load failed"))
+                .thenReturn(new AppointmentResponse());
+
+        publisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, appointment(10, 1));
+        publisher.appointmentChanged(ReceptionDashboardPublisher.CREATED, appointment(11, 1));
+
+        // Version 1 bị bỏ qua, client nhận version 2 và phát hiện khoảng trống
+        List<ReceptionDashboardEvent> events = sentTo(1, 1);
+        assertThat(events.get(0).getVersion()).isEqualTo(2);
+        assertThat(events.get(0).getAppointmentId()).isEqualTo(11);
+    }
+
+    @Test
+    void scheduleChangeSendsSchedulesOfThatDay() {
+        LocalDate day = LocalDate.of(2026, 3, 2);
+        when(doctorScheduleRepo.findByClinicAndDate(1, day)).thenReturn(List.of());
+
+        publisher.scheduleChanged(1, day);
+
+        ReceptionDashboardEvent event = sentTo(1, 1).get(0);
+        assertThat(event.getType()).isEqualTo(ReceptionDashboardPublisher.SCHEDULE_CHANGED);
+        assertThat(event.getDate()).isEqualTo(day);
+        assertThat(event.getSchedules()).isEmpty();
+    }
+
+    private void commit() {
+        List<TransactionSynchronization> syncs = TransactionSynchronizationManager.getSynchronizations();
+        syncs.forEach(sync -> sync.beforeCommit(false));
+        syncs.forEach(TransactionSynchronization::afterCommit);
+    }
+
+    private List<ReceptionDashboardEvent> sentTo(Integer clinicId, int expected) {
+        ArgumentCaptor<ReceptionDashboardEvent> captor = ArgumentCaptor.forClass(ReceptionDashboardEvent.class);
+        verify(messagingTemplate, times(expected))
+                .convertAndSend(eq(ReceptionDashboardPublisher.topicFor(clinicId)),
+                        captor.capture());
+        return captor.getAllValues();
+    }
+
+    private static Appointment appointment(Integer id, Integer clinicId) {
+        Clinic clinic = new Clinic();
+        clinic.setId(clinicId);
+        Appointment appointment = new Appointment();
+        appointment.setId(id);
+        appointment.setClinic(clinic);
+        // 09:00 giờ VN ngày 02/03/2026
+        appointment.setStartDateTime(Instant.parse("2026-03-02T02:00:00Z"));
+        return appointment;
+    }
+}
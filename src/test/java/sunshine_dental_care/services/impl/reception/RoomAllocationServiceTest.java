@@ -0,0 +1,216 @@
+package sunshine_dental_care.services.impl.reception;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import jakarta.persistence.EntityManager;
+import sunshine_dental_care.dto.receptionDTO.RoomAllocationResult;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.DoctorSchedule;
+import sunshine_dental_care.entities.Room;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.entities.UserClinicAssignment;
+import sunshine_dental_care.exceptions.reception.AccessDeniedException;
+import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
+import sunshine_dental_care.repositories.hr.RoomRepo;
+import sunshine_dental_care.repositories.hr.UserClinicAssignmentRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.security.CurrentUser;
+
+class RoomAllocationServiceTest {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 2);
+    private static final Integer CLINIC_ID = 1;
+    private static final CurrentUser ADMIN = new CurrentUser(1, "admin@x", "Admin", List.of("ROLE_ADMIN"));
+    private static final CurrentUser RECEPTIONIST = new CurrentUser(2, "rec@x", "Rec", List.of("ROLE_RECEPTION"));
+
+    private final AppointmentRepo appointmentRepo = mock(AppointmentRepo.class);
+    private final RoomRepo roomRepo = mock(RoomRepo.class);
+    private final DoctorScheduleRepo doctorScheduleRepo = mock(DoctorScheduleRepo.class);
+    private final UserClinicAssignmentRepo assignmentRepo = mock(UserClinicAssignmentRepo.class);
+    private final ReceptionDashboardPublisher dashboardPublisher = mock(ReceptionDashboardPublisher.class);
+    private RoomAllocationService service;
+
+    private final List<Appointment> appointments = new ArrayList<>();
+    private final List<DoctorSchedule> schedules = new ArrayList<>();
+    private final Room shared1 = room(10, false);
+    private final Room shared2 = room(11, false);
+    private final Room vipRoom = room(20, true);
+
+    @BeforeEach
+    void setUp() {
+        EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+        service = new RoomAllocationService(appointmentRepo, roomRepo, doctorScheduleRepo, assignmentRepo,
+                dashboardPublisher, entityManager);
+
+        when(appointmentRepo.findByClinicIdAndDate(CLINIC_ID, DAY)).thenReturn(appointments);
+        when(roomRepo.findByClinicIdAndIsActiveTrueOrderByRoomNameAsc(CLINIC_ID))
+                .thenReturn(List.of(shared1, shared2, vipRoom));
+        when(doctorScheduleRepo.findByClinicAndDate(CLINIC_ID, DAY)).thenReturn(schedules);
+    }
+
+    @Test
+    void overlappingAppointmentsGetDifferentRoomsAndBackToBackShareOne() {
+        Appointment a = appointment(1, "09:00", "10:00", "CONFIRMED", null);
+        Appointment b = appointment(2, "09:30", "10:30", "CONFIRMED", null);
+        Appointment c = appointment(3, "10:00", "11:00", "CONFIRMED", null);
+
+        RoomAllocationResult result = service.planDay(ADMIN, CLINIC_ID, DAY, false);
+
+        assertThat(result.getAssignedCount()).isEqualTo(3);
+        assertThat(result.getUnassigned()).isEmpty();
+        assertThat(a.getRoom()).isNotSameAs(b.getRoom());
+        // c bắt đầu đúng lúc a kết thúc -> best-fit xếp vào cùng phòng với a (không có thời gian chết)
+        assertThat(c.getRoom()).isSameAs(a.getRoom());
+        // Lịch thường không lấy phòng riêng khi còn phòng chung
+        assertThat(List.of(a.getRoom(), b.getRoom(), c.getRoom())).doesNotContain(vipRoom);
+        verify(dashboardPublisher, times(3)).appointmentChanged(eq(ReceptionDashboardPublisher.ROOM_ASSIGNED), any());
+    }
+
+    @Test
+    void vipGoesOnlyToPrivateRoomAndConflictIsReported() {
+        Appointment vip1 = appointment(1, "09:00", "10:00", "CONFIRMED", null);
+        vip1.setAppointmentType("VIP");
+        Appointment vip2 = appointment(2, "09:30", "10:30", "CONFIRMED", null);
+        vip2.setAppointmentType("VIP");
+
+        RoomAllocationResult result = service.planDay(ADMIN, CLINIC_ID, DAY, false);
+
+        assertThat(vip1.getRoom()).isSameAs(vipRoom);
+        assertThat(vip2.getRoom()).isNull();
+        assertThat(result.getUnassigned()).singleElement().satisfies(u -> {
+            assertThat(u.getAppointmentId()).isEqualTo(2);
+            assertThat(u.getReason()).contains("VIP");
+        });
+    }
+
+    @Test
+    void doctorShiftRoomIsPreferred() {
+        User doctor = new User();
+        doctor.setId(50);
+        DoctorSchedule shift = new DoctorSchedule();
+        shift.setDoctor(doctor);
+        shift.setRoom(shared2);
+        shift.setStartTime(LocalTime.of(8, 0));
+        shift.setEndTime(LocalTime.of(12, 0));
+        schedules.add(shift);
+
+        Appointment appt = appointment(1, "09:00", "10:00", "CONFIRMED", null);
+        appt.setDoctor(doctor);
+
+        service.planDay(ADMIN, CLINIC_ID, DAY, false);
+
+        assertThat(appt.getRoom()).isSameAs(shared2);
+    }
+
+    @Test
+    void existingAssignmentsAreKeptAndBlockTheirSlot() {
+        Appointment placed = appointment(1, "09:00", "10:00", "CONFIRMED", shared1);
+        // 2 lịch trùng giờ bắt đầu trong cùng phòng (dữ liệu cũ) đều phải được tính là chiếm phòng
+        Appointment placedTwin = appointment(2, "09:00", "11:00", "CONFIRMED", shared1);
+        Appointment fresh = appointment(3, "10:15", "10:45", "CONFIRMED", null);
+
+        RoomAllocationResult result = service.planDay(ADMIN, CLINIC_ID, DAY, false);
+
+        assertThat(result.getKeptCount()).isEqualTo(2);
+        assertThat(placed.getRoom()).isSameAs(shared1);
+        assertThat(placedTwin.getRoom()).isSameAs(shared1);
+        assertThat(fresh.getRoom()).isSameAs(shared2);
+        verify(dashboardPublisher, times(1)).appointmentChanged(eq(ReceptionDashboardPublisher.ROOM_ASSIGNED), any());
+    }
+
+    @Test
+    void resetReplansButKeepsInProgressAndOldRoomWhenNothingFits() {
+        when(roomRepo.findByClinicIdAndIsActiveTrueOrderByRoomNameAsc(CLINIC_ID)).thenReturn(List.of(shared1));
+        Appointment inProgress = appointment(1, "09:00", "10:00", "IN_PROGRESS", shared1);
+        Appointment clash = appointment(2, "09:30", "10:30", "CONFIRMED", shared1);
+        Appointment later = appointment(3, "11:00", "12:00", "CONFIRMED", null);
+        Appointment cancelled = appointment(4, "09:00", "10:00", "CANCELLED", shared1);
+
+        RoomAllocationResult result = service.planDay(ADMIN, CLINIC_ID, DAY, true);
+
+        assertThat(inProgress.getRoom()).isSameAs(shared1);
+        // Không còn chỗ -> giữ phòng cũ thay vì để lịch mất phòng
+        assertThat(clash.getRoom()).isSameAs(shared1);
+        assertThat(result.getUnassigned()).singleElement().satisfies(u -> {
+            assertThat(u.getAppointmentId()).isEqualTo(2);
+            assertThat(u.getReason()).contains("giữ phòng cũ");
+        });
+        assertThat(later.getRoom()).isSameAs(shared1);
+        assertThat(result.getTotalAppointments()).isEqualTo(3);
+        assertThat(cancelled.getRoom()).isSameAs(shared1);
+    }
+
+    @Test
+    void receptionistOutsideClinicIsRejected() {
+        when(assignmentRepo.findByUserIdAndClinicId(2, CLINIC_ID)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.planDay(RECEPTIONIST, CLINIC_ID, DAY, false))
+                .isInstanceOf(AccessDeniedException.class);
+
+        when(assignmentRepo.findByUserIdAndClinicId(2, CLINIC_ID)).thenReturn(Optional.of(new UserClinicAssignment()));
+        assertThat(service.planDay(RECEPTIONIST, CLINIC_ID, DAY, false).getClinicId()).isEqualTo(CLINIC_ID);
+    }
+
+    @Test
+    void timelineMergesRangesAndAnswersOverlapQueries() {
+        RoomAllocationService.RoomTimeline timeline = new RoomAllocationService.RoomTimeline();
+        Instant dayStart = DAY.atStartOfDay(ZONE_ID).toInstant();
+        timeline.occupy(at("09:00"), at("10:00"));
+        timeline.occupy(at("11:00"), at("12:00"));
+        timeline.occupy(at("09:30"), at("11:00"));
+        timeline.occupy(at("14:00"), at("15:00"));
+
+        assertThat(timeline.overlaps(at("08:00"), at("09:00"))).isFalse();
+        assertThat(timeline.overlaps(at("10:15"), at("10:30"))).isTrue();
+        assertThat(timeline.overlaps(at("11:59"), at("13:00"))).isTrue();
+        assertThat(timeline.overlaps(at("12:00"), at("14:00"))).isFalse();
+        assertThat(timeline.overlaps(at("13:00"), at("16:00"))).isTrue();
+        assertThat(timeline.idleMinutesBefore(at("13:00"), dayStart)).isEqualTo(60);
+        assertThat(timeline.idleMinutesBefore(at("08:30"), dayStart)).isEqualTo(8 * 60 + 30);
+    }
+
+    private Appointment appointment(Integer id, String start, String end, String status, Room room) {
+        Appointment appt = new Appointment();
+        appt.setId(id);
+        appt.setStartDateTime(at(start));
+        appt.setEndDateTime(at(end));
+        appt.setStatus(status);
+        appt.setAppointmentType("STANDARD");
+        appt.setRoom(room);
+        appointments.add(appt);
+        return appt;
+    }
+
+    private static Instant at(String time) {
+        return DAY.atTime(LocalTime.parse(time)).atZone(ZONE_ID).toInstant();
+    }
+
+    private static Room room(Integer id, boolean isPrivate) {
+        Room room = new Room();
+        room.setId(id);
+        room.setRoomName("R" + id);
+        room.setIsPrivate(isPrivate);
+        return room;
+    }
+}
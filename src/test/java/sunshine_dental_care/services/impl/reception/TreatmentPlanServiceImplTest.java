@@ -0,0 +1,233 @@
+package sunshine_dental_care.services.impl.reception;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.Invocation;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import sunshine_dental_care.dto.receptionDTO.ServiceItemRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanRequest;
+import sunshine_dental_care.dto.receptionDTO.TreatmentPlanResponse;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.Clinic;
+import sunshine_dental_care.entities.DoctorSchedule;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.entities.ServiceVariant;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.exceptions.reception.AppointmentConflictException;
+import sunshine_dental_care.repositories.auth.ClinicRepo;
+import sunshine_dental_care.repositories.auth.PatientRepo;
+import sunshine_dental_care.repositories.auth.UserRepo;
+import sunshine_dental_care.repositories.hr.DoctorScheduleRepo;
+import sunshine_dental_care.repositories.hr.RoomRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.repositories.reception.ServiceVariantRepo;
+import sunshine_dental_care.security.CurrentUser;
+import sunshine_dental_care.services.impl.notification.NotificationService;
+import sunshine_dental_care.services.interfaces.system.SystemConfigService;
+import sunshine_dental_care.services.scheduler.BookingExpiryTimer;
+
+class TreatmentPlanServiceImplTest {
+
+    private static final ZoneId ZONE_ID = ZoneId.of("Asia/Ho_Chi_Minh");
+    private static final CurrentUser RECEPTIONIST = new CurrentUser(2, "rec@x", "Rec", List.of("ROLE_RECEPTION"));
+    private static final int COLUMNS_PER_ROW = 17;
+
+    // Ngày buổi đầu tiên, đủ xa để không rơi vào quá khứ
+    private final LocalDate firstDay = LocalDate.now(ZONE_ID).plusWeeks(2);
+
+    private final AppointmentRepo appointmentRepo = mock(AppointmentRepo.class);
+    private final DoctorScheduleRepo doctorScheduleRepo = mock(DoctorScheduleRepo.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final ReceptionDashboardPublisher dashboardPublisher = mock(ReceptionDashboardPublisher.class);
+    private final BookingExpiryTimer bookingExpiryTimer = mock(BookingExpiryTimer.class);
+    private TreatmentPlanServiceImpl service;
+
+    private final Clinic clinic = new Clinic();
+    private final List<DoctorSchedule> shifts = new ArrayList<>();
+    private final List<Appointment> busy = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ClinicRepo clinicRepo = mock(ClinicRepo.class);
+        PatientRepo patientRepo = mock(PatientRepo.class);
+        UserRepo userRepo = mock(UserRepo.class);
+        ServiceVariantRepo serviceVariantRepo = mock(ServiceVariantRepo.class);
+        service = new TreatmentPlanServiceImpl(clinicRepo, patientRepo, userRepo, mock(RoomRepo.class),
+                serviceVariantRepo, doctorScheduleRepo, appointmentRepo, jdbcTemplate,
+                mock(SystemConfigService.class), mock(NotificationService.class), dashboardPublisher,
+                bookingExpiryTimer);
+
+        clinic.setId(1);
+        Patient patient = new Patient();
+        patient.setId(70);
+        User doctor = new User();
+        doctor.setId(9);
+        ServiceVariant variant = new ServiceVariant();
+        variant.setId(5);
+        variant.setDuration(60);
+        variant.setPrice(BigDecimal.TEN);
+        variant.setVariantName("Niềng răng");
+        when(clinicRepo.findById(1)).thenReturn(Optional.of(clinic));
+        when(patientRepo.findById(70)).thenReturn(Optional.of(patient));
+        when(userRepo.findById(9)).thenReturn(Optional.of(doctor));
+        when(serviceVariantRepo.findAllById(any())).thenReturn(List.of(variant));
+        when(doctorScheduleRepo.findByDoctorIdAndDateRange(eq(9), any(), any())).thenReturn(shifts);
+        when(appointmentRepo.findBusyInRange(eq(9), eq(70), any(), any(), any())).thenReturn(busy);
+
+        // MERGE ... OUTPUT: trả về (idx, 1000 + idx) cho từng dòng được insert
+        doAnswer(inv -> {
+            PreparedStatementSetter setter = inv.getArgument(1);
+            RowCallbackHandler handler = inv.getArgument(2);
+            PreparedStatement ps = mock(PreparedStatement.class);
+            setter.setValues(ps);
+            for (Invocation call : mockingDetails(ps).getInvocations()) {
+                int param = call.getArgument(0);
+                if (call.getMethod().getName().equals("setInt") && param % COLUMNS_PER_ROW == 1) {
+                    int idx = call.getArgument(1);
+                    ResultSet rs = mock(ResultSet.class);
+                    when(rs.getInt(1)).thenReturn(idx);
+                    when(rs.getInt(2)).thenReturn(1000 + idx);
+                    handler.processRow(rs);
+                }
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(PreparedStatementSetter.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void freeSeriesIsBookedAtRequestedTimesWithGeneratedIds() {
+        addShifts(firstDay, 3, "08:00", "12:00");
+
+        TreatmentPlanResponse response = service.bookTreatmentPlan(RECEPTIONIST, request(3, "SCHEDULED"));
+
+        assertThat(response.getBookedVisits()).isEqualTo(3);
+        assertThat(response.getRescheduledVisits()).isZero();
+        assertThat(response.getVisits()).extracting(TreatmentPlanResponse.Visit::getAppointmentId)
+                .containsExactly(1001, 1002, 1003);
+        assertThat(response.getVisits()).extracting(TreatmentPlanResponse.Visit::getStartDateTime)
+                .containsExactly(at(firstDay, "09:00"), at(firstDay.plusWeeks(1), "09:00"), at(firstDay.plusWeeks(2), "09:00"));
+        verify(bookingExpiryTimer, never()).track(any(), any());
+    }
+
+    @Test
+    void conflictingVisitMovesToNearestFreeTimeSameDay() {
+        addShifts(firstDay, 3, "08:00", "12:00");
+        busy.add(busyAppointment(at(firstDay.plusWeeks(1), "09:00"), at(firstDay.plusWeeks(1), "10:00")));
+
+        TreatmentPlanResponse response = service.bookTreatmentPlan(RECEPTIONIST, request(3, "SCHEDULED"));
+
+        TreatmentPlanResponse.Visit second = response.getVisits().get(1);
+        assertThat(second.isRescheduled()).isTrue();
+        // 08:30 và 09:30 vẫn chồng lên 09:00-10:00; 08:00 là giờ gần nhất còn trống
+        assertThat(second.getStartDateTime()).isEqualTo(at(firstDay.plusWeeks(1), "08:00"));
+        assertThat(response.getRescheduledVisits()).isEqualTo(1);
+    }
+
+    @Test
+    void visitWithoutShiftThatDayMovesToNextDayFirst() {
+        addShifts(firstDay, 1, "08:00", "12:00");
+        LocalDate second = firstDay.plusWeeks(1);
+        addShifts(second.minusDays(1), 1, "08:00", "12:00");
+        addShifts(second.plusDays(1), 1, "08:00", "12:00");
+
+        TreatmentPlanResponse response = service.bookTreatmentPlan(RECEPTIONIST, request(2, "SCHEDULED"));
+
+        // Thứ tự dò: cùng ngày, +1, -1, +2, ...
+        assertThat(response.getVisits().get(1).getStartDateTime()).isEqualTo(at(second.plusDays(1), "09:00"));
+    }
+
+    @Test
+    void visitWithNoShiftInRangeIsReportedUnbooked() {
+        addShifts(firstDay, 1, "08:00", "12:00");
+
+        TreatmentPlanResponse response = service.bookTreatmentPlan(RECEPTIONIST, request(2, "SCHEDULED"));
+
+        assertThat(response.getBookedVisits()).isEqualTo(1);
+        assertThat(response.getUnbooked()).singleElement()
+                .satisfies(v -> assertThat(v.getIndex()).isEqualTo(2));
+    }
+
+    @Test
+    void seriesWithoutAnyFreeSlotIsRejected() {
+        assertThatThrownBy(() -> service.bookTreatmentPlan(RECEPTIONIST, request(2, "SCHEDULED")))
+                .isInstanceOf(AppointmentConflictException.class);
+    }
+
+    @Test
+    void awaitingPaymentVisitsGetExpiryTimers() {
+        addShifts(firstDay, 3, "08:00", "12:00");
+
+        service.bookTreatmentPlan(RECEPTIONIST, request(3, BookingExpiryTimer.AWAITING_PAYMENT));
+
+        verify(bookingExpiryTimer).track(eq(1001), any(Instant.class));
+        verify(bookingExpiryTimer).track(eq(1002), any(Instant.class));
+        verify(bookingExpiryTimer).track(eq(1003), any(Instant.class));
+    }
+
+    private TreatmentPlanRequest request(int visits, String status) {
+        ServiceItemRequest item = new ServiceItemRequest();
+        item.setServiceId(5);
+        TreatmentPlanRequest request = new TreatmentPlanRequest();
+        request.setClinicId(1);
+        request.setPatientId(70);
+        request.setDoctorId(9);
+        request.setFirstStartDateTime(at(firstDay, "09:00"));
+        request.setIntervalWeeks(1);
+        request.setVisits(visits);
+        request.setMaxShiftDays(2);
+        request.setServices(List.of(item));
+        request.setStatus(status);
+        return request;
+    }
+
+    // Ca ACTIVE tại clinic 1 cho `weeks` tuần liên tiếp, cùng thứ với `day`
+    private void addShifts(LocalDate day, int weeks, String start, String end) {
+        for (int w = 0; w < weeks; w++) {
+            DoctorSchedule shift = new DoctorSchedule();
+            shift.setClinic(clinic);
+            shift.setStatus("ACTIVE");
+            shift.setWorkDate(day.plusWeeks(w));
+            shift.setStartTime(LocalTime.parse(start));
+            shift.setEndTime(LocalTime.parse(end));
+            shifts.add(shift);
+        }
+    }
+
+    private static Appointment busyAppointment(Instant start, Instant end) {
+        Appointment appointment = new Appointment();
+        appointment.setStartDateTime(start);
+        appointment.setEndDateTime(end);
+        return appointment;
+    }
+
+    private static Instant at(LocalDate day, String time) {
+        return LocalDateTime.of(day, LocalTime.parse(time)).atZone(ZONE_ID).toInstant();
+    }
+}
@@ -0,0 +1,171 @@
+package sunshine_dental_care.services.impl.system;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.InvoiceSequence;
+import sunshine_dental_care.entities.PatientSequence;
+import sunshine_dental_care.repositories.auth.PatientSequenceRepo;
+import sunshine_dental_care.repositories.system.InvoiceSequenceRepo;
+
+class BlockSequenceServiceTest {
+
+    private static final int BLOCK_SIZE = 7;
+
+    // "DB" giả: dòng sequence theo năm, khóa dòng = khóa của transaction giả (REQUIRES_NEW)
+    private final Map<Integer, InvoiceSequence> invoiceRows = new HashMap<>();
+    private final PatientSequence patientRow = new PatientSequence();
+    private final ReentrantLock rowLock = new ReentrantLock();
+    private final AtomicInteger reservations = new AtomicInteger();
+
+    private final PatientSequenceRepo patientSequenceRepo = mock(PatientSequenceRepo.class);
+    private final InvoiceSequenceRepo invoiceSequenceRepo = mock(InvoiceSequenceRepo.class);
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenAnswer(inv -> {
+            rowLock.lock();
+            return new SimpleTransactionStatus();
+        });
+        doAnswer(inv -> {
+            rowLock.unlock();
+            return null;
+        }).when(txManager).commit(any());
+        doAnswer(inv -> {
+            rowLock.unlock();
+            return null;
+        }).when(txManager).rollback(any());
+        transactionTemplate = new TransactionTemplate(txManager);
+
+        when(invoiceSequenceRepo.lockByClinicIdAndYear(eq(BlockSequenceService.GLOBAL_SEQ_CLINIC_ID), anyInt()))
+                .thenAnswer(inv -> {
+                    reservations.incrementAndGet();
+                    InvoiceSequence row = invoiceRows.get(inv.<Integer>getArgument(1));
+                    return row == null ? List.of() : List.of(row);
+                });
+        when(invoiceSequenceRepo.save(any())).thenAnswer(inv -> {
+            InvoiceSequence row = inv.getArgument(0);
+            invoiceRows.put(row.getYear(), row);
+            return row;
+        });
+
+        patientRow.setCurrentNumber(0);
+        patientRow.setPrefix("BN");
+        when(patientSequenceRepo.lockByClinicId(BlockSequenceService.GLOBAL_SEQ_CLINIC_ID)).thenReturn(Optional.of(patientRow));
+    }
+
+    @Test
+    void concurrentInvoiceNumbersAreUniqueAndContiguous() throws Exception {
+        BlockSequenceService service = newNode();
+        int threads = 8;
+        int perThread = 500;
+
+        Set<Long> issued = runConcurrently(threads, perThread, () -> service.nextInvoiceNumber(2026).number());
+
+        // Không trùng, không mất khối: đúng 1..N, DB chỉ vượt N tối đa phần dư của khối cuối
+        int total = threads * perThread;
+        assertThat(issued).hasSize(total).containsAll(LongStream.rangeClosed(1, total).boxed().toList());
+        assertThat(invoiceRows.get(2026).getCurrentNumber()).isBetween(total, total + BLOCK_SIZE - 1);
+        assertThat(reservations).hasValue((total + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    @Test
+    void twoNodesSharingTheRowNeverIssueTheSameNumber() throws Exception {
+        BlockSequenceService nodeA = newNode();
+        BlockSequenceService nodeB = newNode();
+        AtomicInteger turn = new AtomicInteger();
+
+        Set<Long> issued = runConcurrently(8, 300, () ->
+                (turn.incrementAndGet() % 2 == 0 ? nodeA : nodeB).nextInvoiceNumber(2026).number());
+
+        // Mỗi node bỏ tối đa phần dư của khối đang giữ
+        assertThat(issued).hasSize(8 * 300);
+        assertThat(invoiceRows.get(2026).getCurrentNumber()).isLessThan(8 * 300 + 2 * BLOCK_SIZE);
+    }
+
+    @Test
+    void invoiceNumbersRestartEachYearWithTheRowPrefix() {
+        BlockSequenceService service = newNode();
+        InvoiceSequence configured = new InvoiceSequence();
+        configured.setYear(2027);
+        configured.setCurrentNumber(41);
+        configured.setPrefix("SDC");
+        invoiceRows.put(2027, configured);
+
+        assertThat(service.nextInvoiceNumber(2026)).isEqualTo(new BlockSequenceService.Issued(1, "INV"));
+        assertThat(service.nextInvoiceNumber(2026)).isEqualTo(new BlockSequenceService.Issued(2, "INV"));
+        assertThat(service.nextInvoiceNumber(2027)).isEqualTo(new BlockSequenceService.Issued(42, "SDC"));
+    }
+
+    @Test
+    void patientNumbersComeFromTheSharedRowInBlocks() throws Exception {
+        BlockSequenceService service = newNode();
+
+        Set<Long> issued = runConcurrently(4, 50, () -> service.nextPatientNumber().number());
+
+        assertThat(issued).hasSize(200).containsAll(LongStream.rangeClosed(1, 200).boxed().toList());
+        assertThat(patientRow.getCurrentNumber()).isBetween(200, 200 + BLOCK_SIZE - 1);
+    }
+
+    private BlockSequenceService newNode() {
+        return new BlockSequenceService(patientSequenceRepo, invoiceSequenceRepo, transactionTemplate, BLOCK_SIZE, BLOCK_SIZE);
+    }
+
+    private interface NumberSource {
+        long next();
+    }
+
+    private static Set<Long> runConcurrently(int threads, int perThread, NumberSource source) throws Exception {
+        Set<Long> issued = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        if (!issued.add(source.next())) duplicates.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(duplicates).hasValue(0);
+        return issued;
+    }
+}
@@ -0,0 +1,173 @@
+package sunshine_dental_care.services.scheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import sunshine_dental_care.dto.notificationDTO.NotificationRequest;
+import sunshine_dental_care.dto.notificationDTO.NotificationResponse;
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.entities.Patient;
+import sunshine_dental_care.entities.User;
+import sunshine_dental_care.repositories.auth.EmailLogRepo;
+import sunshine_dental_care.repositories.auth.EmailTemplateRepo;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.services.auth_service.MailService;
+import sunshine_dental_care.services.auth_service.MailTemplateCache;
+import sunshine_dental_care.services.impl.notification.NotificationService;
+import sunshine_dental_care.services.scheduler.AppointmentReminderDispatcher.ReminderKind;
+
+class AppointmentReminderDispatcherTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    private final AppointmentRepo appointmentRepo = mock(AppointmentRepo.class);
+    private final JavaMailSender mailSender = mock(JavaMailSender.class);
+    private final NotificationService notificationService = mock(NotificationService.class);
+    private final MailService mailService = mock(MailService.class);
+    private final List<MimeMessage> sent = new ArrayList<>();
+    private final Set<Integer> marked = ConcurrentHashMap.newKeySet();
+    private AppointmentReminderDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        EmailTemplateRepo templateRepo = mock(EmailTemplateRepo.class);
+        when(templateRepo.findActiveByKeyAndLocale(anyString(), anyString())).thenReturn(Optional.empty());
+        when(templateRepo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        dispatcher = new AppointmentReminderDispatcher(appointmentRepo, mock(EmailLogRepo.class), mailSender,
+                new MailTemplateCache(templateRepo), notificationService, mailService, 2, BATCH_SIZE, "vi");
+
+        when(mailService.resolveFromAddress()).thenReturn("clinic@example.com");
+        when(mailSender.createMimeMessage()).thenAnswer(inv -> new MimeMessage((Session) null));
+        doAnswer(inv -> {
+            synchronized (sent) {
+                for (Object message : inv.getArguments()) sent.add((MimeMessage) message);
+            }
+            return null;
+        }).when(mailSender).send(any(MimeMessage[].class));
+        when(appointmentRepo.markReminderSent(any())).thenAnswer(inv -> {
+            Collection<Integer> ids = inv.getArgument(0);
+            marked.addAll(ids);
+            return ids.size();
+        });
+        // Trả về 1 response cho mỗi request, như NotificationService khi mọi user đều tồn tại
+        when(notificationService.sendNotifications(anyList())).thenAnswer(inv -> {
+            List<NotificationRequest> requests = inv.getArgument(0);
+            return requests.stream()
+                    .map(r -> NotificationResponse.builder()
+                            .userId(r.getUserId())
+                            .relatedEntityId(r.getRelatedEntityId())
+                            .build())
+                    .toList();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void notificationsAreSentOncePerBatchAndDeliveredAreMarked() throws Exception {
+        when(appointmentRepo.findReminderBatch(any(), any())).thenReturn(appointments(5));
+
+        AppointmentReminderDispatcher.DispatchStats stats =
+                dispatcher.dispatch(ReminderKind.DAY_BEFORE, Instant.now(), Instant.now().plusSeconds(3600));
+
+        // 5 lịch / lô 2 -> 3 lần gọi, không gọi từng thông báo một
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<NotificationRequest>> batches = ArgumentCaptor.forClass(List.class);
+        verify(notificationService, times(3)).sendNotifications(batches.capture());
+        verify(notificationService, never()).sendNotification(any());
+        assertThat(batches.getAllValues()).extracting(List::size).containsExactly(2, 2, 1);
+        assertThat(batches.getAllValues().get(0)).extracting(NotificationRequest::getRelatedEntityId)
+                .containsExactly(1, 2);
+
+        assertThat(stats.batches()).isEqualTo(3);
+        assertThat(stats.emailsSent()).isEqualTo(5);
+        assertThat(stats.notificationsSent()).isEqualTo(5);
+        assertThat(marked).containsExactlyInAnyOrder(1, 2, 3, 4, 5);
+        assertThat(sent).hasSize(5);
+        assertThat(sent.get(0).getFrom()).containsExactly(new InternetAddress("clinic@example.com"));
+    }
+
+    @Test
+    void failedNotificationBatchStillMarksEmailedAppointments() {
+        List<Appointment> appointments = appointments(2);
+        appointments.get(1).getPatient().getUser().setEmail(null);
+        when(appointmentRepo.findReminderBatch(any(), any())).thenReturn(appointments);
+        when(notificationService.sendNotifications(anyList())).thenThrow(new IllegalStateException("db down"));
+
+        AppointmentReminderDispatcher.DispatchStats stats =
+                dispatcher.dispatch(ReminderKind.DAY_BEFORE, Instant.now(), Instant.now().plusSeconds(3600));
+
+        // Lịch 2 không có email và thông báo lỗi -> chưa được nhắc, lần chạy sau thử lại
+        assertThat(marked).containsExactly(1);
+        assertThat(stats.notificationsSent()).isZero();
+        assertThat(dispatcher.getStats().notificationsFailed()).isEqualTo(2);
+    }
+
+    @Test
+    void statsAccumulateAcrossRuns() {
+        when(appointmentRepo.findReminderBatch(any(), any())).thenReturn(appointments(3));
+        when(appointmentRepo.findUrgentReminderBatch(any(), any())).thenReturn(List.of());
+        when(appointmentRepo.markUrgentReminderSent(any())).thenReturn(0);
+
+        dispatcher.dispatch(ReminderKind.DAY_BEFORE, Instant.now(), Instant.now().plusSeconds(3600));
+        dispatcher.dispatch(ReminderKind.DAY_BEFORE, Instant.now(), Instant.now().plusSeconds(3600));
+        dispatcher.dispatch(ReminderKind.URGENT, Instant.now(), Instant.now().plusSeconds(3600));
+
+        AppointmentReminderDispatcher.ReminderStats stats = dispatcher.getStats();
+        assertThat(stats.runs()).isEqualTo(3);
+        assertThat(stats.candidates()).isEqualTo(6);
+        assertThat(stats.batches()).isEqualTo(4);
+        assertThat(stats.emailsSent()).isEqualTo(6);
+        assertThat(stats.emailsFailed()).isZero();
+        assertThat(stats.notificationsSent()).isEqualTo(6);
+        assertThat(stats.marked()).isEqualTo(6);
+        assertThat(dispatcher.getLastRuns()).containsKeys(ReminderKind.DAY_BEFORE, ReminderKind.URGENT);
+    }
+
+    private static List<Appointment> appointments(int count) {
+        List<Appointment> list = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            User user = new User();
+            user.setId(100 + i);
+            user.setEmail("patient" + i + "@example.com");
+            user.setFullName("Bệnh nhân " + i);
+            Patient patient = new Patient();
+            patient.setId(i);
+            patient.setUser(user);
+            Appointment appt = new Appointment();
+            appt.setId(i);
+            appt.setPatient(patient);
+            appt.setStartDateTime(Instant.parse("2026-03-02T02:00:00Z"));
+            list.add(appt);
+        }
+        return list;
+    }
+}
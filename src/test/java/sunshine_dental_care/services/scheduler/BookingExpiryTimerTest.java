@@ -0,0 +1,142 @@
+package sunshine_dental_care.services.scheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import sunshine_dental_care.entities.Appointment;
+import sunshine_dental_care.repositories.reception.AppointmentRepo;
+import sunshine_dental_care.services.impl.reception.ReceptionDashboardPublisher;
+
+class BookingExpiryTimerTest {
+
+    private static final long HOLD_MINUTES = 10;
+
+    private final AppointmentRepo appointmentRepo = mock(AppointmentRepo.class);
+    private final ReceptionDashboardPublisher dashboardPublisher = mock(ReceptionDashboardPublisher.class);
+    private BookingExpiryTimer timer;
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        timer = new BookingExpiryTimer(appointmentRepo, dashboardPublisher,
+                new TransactionTemplate(txManager), HOLD_MINUTES);
+
+        Appointment appointment = new Appointment();
+        appointment.setId(1);
+        when(appointmentRepo.findById(any())).thenReturn(Optional.of(appointment));
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.shutdown();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void expireCancelsOnlyWhileStillAwaitingPayment() {
+        when(appointmentRepo.updateStatusIfCurrent(1, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED))
+                .thenReturn(1);
+        when(appointmentRepo.updateStatusIfCurrent(2, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED))
+                .thenReturn(0);
+
+        assertThat(timer.expire(1)).isTrue();
+        // Lịch 2 vừa được thanh toán đúng lúc hết hạn -> UPDATE có điều kiện không đụng tới
+        assertThat(timer.expire(2)).isFalse();
+
+        verify(dashboardPublisher).appointmentChanged(eq(ReceptionDashboardPublisher.STATUS_CHANGED), any());
+        verify(appointmentRepo, never()).findById(2);
+    }
+
+    @Test
+    void overdueBookingFiresRightAway() {
+        when(appointmentRepo.updateStatusIfCurrent(1, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED))
+                .thenReturn(1);
+
+        timer.track(1, Instant.now().minus(Duration.ofMinutes(HOLD_MINUTES + 1)));
+
+        verify(appointmentRepo, timeout(2000))
+                .updateStatusIfCurrent(1, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED);
+        verify(dashboardPublisher, timeout(2000)).appointmentChanged(eq(ReceptionDashboardPublisher.STATUS_CHANGED), any());
+        assertThat(timer.pendingCount()).isZero();
+    }
+
+    @Test
+    void timerInsideTransactionStartsOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        timer.track(5, Instant.now());
+        assertThat(timer.pendingCount()).isZero();
+
+        for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+            sync.afterCommit();
+        }
+        assertThat(timer.pendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    void paidBookingIsUntracked() {
+        timer.track(5, Instant.now());
+        timer.track(6, Instant.now());
+
+        timer.untrack(5);
+
+        assertThat(timer.pendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    void retrackingReplacesThePreviousTimer() {
+        timer.track(5, Instant.now());
+        timer.track(5, Instant.now());
+
+        assertThat(timer.pendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    void rehydrateSchedulesPendingBookingsFromDatabase() {
+        when(appointmentRepo.findIdAndCreatedAtByStatus(BookingExpiryTimer.AWAITING_PAYMENT)).thenReturn(List.of(
+                new Object[]{5, Instant.now()},
+                new Object[]{6, Instant.now().minusSeconds(60)}));
+
+        timer.rehydrate();
+
+        assertThat(timer.pendingCount()).isEqualTo(2);
+    }
+
+    @Test
+    void sweepExpiresOnlyBookingsPastTheHold() {
+        Instant overdue = Instant.now().minus(Duration.ofMinutes(HOLD_MINUTES + 5));
+        when(appointmentRepo.findIdAndCreatedAtByStatus(BookingExpiryTimer.AWAITING_PAYMENT)).thenReturn(List.of(
+                new Object[]{1, overdue},
+                new Object[]{2, Instant.now()}));
+        when(appointmentRepo.updateStatusIfCurrent(1, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED))
+                .thenReturn(1);
+
+        new BookingCleanupService(appointmentRepo, timer).scanAndCancelExpiredBookings();
+
+        verify(appointmentRepo).updateStatusIfCurrent(1, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED);
+        verify(appointmentRepo, never())
+                .updateStatusIfCurrent(2, BookingExpiryTimer.AWAITING_PAYMENT, BookingExpiryTimer.CANCELLED);
+    }
+}
@@ -0,0 +1,42 @@
+package sunshine_dental_care.utils.huybro_utils.export;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class CsvExportWriterTest {
+
+    @Test
+    void prefixesFormulaLikeTextButNotNumbers() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvExportWriter writer = new CsvExportWriter(out);
+        writer.row("=HYPERLINK(\"http://x\")", "+1", "-cmd", "@SUM(A1)", "\tx", "Nguyễn, Văn A", -5, new BigDecimal("-1200.50"), null);
+        writer.finish();
+
+        String csv = out.toString(StandardCharsets.UTF_8);
+        assertThat(csv).isEqualTo("\uFEFF"
+                + "\"'=HYPERLINK(\"\"http://x\"\")\",'+1,'-cmd,'@SUM(A1),'\tx,\"Nguyễn, Văn A\",-5,-1200.50,\r\n");
+    }
+
+    @Test
+    void responseHeadersAreSetOnlyWhenFirstByteIsWritten() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        OutputStream out = ExportFormat.CSV.prepare(response, "report");
+
+        // Lỗi kiểm tra xảy ra trước khi ghi -> response vẫn chưa bị đổi content type
+        assertThat(response.getContentType()).isNull();
+        assertThat(response.getHeader("Content-Disposition")).isNull();
+
+        out.write('a');
+        out.flush();
+        assertThat(response.getContentType()).startsWith("text/csv");
+        assertThat(response.getHeader("Content-Disposition")).isEqualTo("attachment; filename=report.csv");
+        assertThat(response.getContentAsString()).isEqualTo("a");
+    }
+}
@@ -0,0 +1,30 @@
+package sunshine_dental_care.utils.huybro_utils.export;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class ExportFormatTest {
+
+    @Test
+    void tabularReportsAcceptOnlyXlsxAndCsv() {
+        assertThat(ExportFormat.from(null)).isEqualTo(ExportFormat.XLSX);
+        assertThat(ExportFormat.from(" CSV ")).isEqualTo(ExportFormat.CSV);
+        assertThatThrownBy(() -> ExportFormat.from("pdf"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("[xlsx, csv]");
+        assertThatThrownBy(() -> ExportFormat.PDF.open(new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void medicalRecordsAcceptOnlyPdfAndZip() {
+        assertThat(ExportFormat.from("", ExportFormat.PDF, ExportFormat.PDF, ExportFormat.ZIP)).isEqualTo(ExportFormat.PDF);
+        assertThat(ExportFormat.from("zip", ExportFormat.PDF, ExportFormat.PDF, ExportFormat.ZIP)).isEqualTo(ExportFormat.ZIP);
+        assertThatThrownBy(() -> ExportFormat.from("xlsx", ExportFormat.PDF, ExportFormat.PDF, ExportFormat.ZIP))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}